@@ -0,0 +1,54 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.util.Arrays;
+
+/**
+ * Fixed inputs shared by the benchmarks. The inputs never change between runs, so the results
+ * of two commits can be compared.
+ */
+public final class BenchmarkFixtures
+{
+    /** Connection string of a device that is never connected to. */
+    public static final String CONNECTION_STRING =
+            "HostName=benchmark-hub.azure-devices.net;DeviceId=benchmark-device;SharedAccessKey=AAECAwQFBgcICQoLDA0ODxAREhMUFRYXGBkaGxwdHh8=";
+
+    private BenchmarkFixtures()
+    {
+    }
+
+    /**
+     * Creates the configuration of the benchmark device.
+     *
+     * @return the configuration, with the default SSL context.
+     * @throws Exception if the configuration cannot be created.
+     */
+    public static DeviceClientConfig createConfig() throws Exception
+    {
+        DeviceClientConfig config = new DeviceClientConfig(new IotHubConnectionString(CONNECTION_STRING));
+        config.setIotHubSSLContext(new IotHubSSLContext());
+        return config;
+    }
+
+    /**
+     * Creates a message with a body of the given size and the given number of application properties.
+     *
+     * @param bodySize the size of the body, in bytes.
+     * @param propertyCount the number of application properties.
+     * @return the message.
+     */
+    public static Message createMessage(int bodySize, int propertyCount)
+    {
+        byte[] body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'a');
+        Message message = new Message(body);
+        message.setMessageId("benchmark-message-id");
+        for (int i = 0; i < propertyCount; i++)
+        {
+            message.setProperty("property" + i, "value" + i);
+        }
+        return message;
+    }
+}
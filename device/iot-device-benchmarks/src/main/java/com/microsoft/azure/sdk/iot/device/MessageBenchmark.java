@@ -0,0 +1,55 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks the construction of a {@link Message} and the copy of its body. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class MessageBenchmark
+{
+    @Param({"64", "4096"})
+    public int bodySize;
+
+    private byte[] body;
+    private Message message;
+
+    @Setup
+    public void setup()
+    {
+        this.body = new byte[this.bodySize];
+        Arrays.fill(this.body, (byte) 'a');
+        this.message = BenchmarkFixtures.createMessage(this.bodySize, 0);
+    }
+
+    @Benchmark
+    public Message construct()
+    {
+        return new Message(this.body);
+    }
+
+    @Benchmark
+    public Message constructWithProperties()
+    {
+        Message newMessage = new Message(this.body);
+        newMessage.setProperty("temperature", "21.5");
+        newMessage.setProperty("humidity", "40");
+        newMessage.setProperty("alert", "false");
+        return newMessage;
+    }
+
+    @Benchmark
+    public byte[] getBytes()
+    {
+        return this.message.getBytes();
+    }
+}
@@ -0,0 +1,33 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks the validation of the application properties of a message. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class MessagePropertyBenchmark
+{
+    private String name = "temperature";
+    private String value = "21.5";
+
+    @Benchmark
+    public MessageProperty construct()
+    {
+        return new MessageProperty(this.name, this.value);
+    }
+
+    @Benchmark
+    public boolean isValidAppProperty()
+    {
+        return MessageProperty.isValidAppProperty(this.name, this.value);
+    }
+}
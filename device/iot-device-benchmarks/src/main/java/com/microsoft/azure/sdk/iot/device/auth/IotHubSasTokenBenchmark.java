@@ -0,0 +1,45 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.auth;
+
+import com.microsoft.azure.sdk.iot.device.BenchmarkFixtures;
+import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks the generation of the SAS token of a device, and getting it from the provider that caches it. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class IotHubSasTokenBenchmark
+{
+    /** A fixed expiry time, so every run signs the same string. */
+    private static final long EXPIRY_TIME = 2000000000L;
+
+    private DeviceClientConfig config;
+    private IotHubSasTokenProvider provider;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        this.config = BenchmarkFixtures.createConfig();
+        this.provider = new IotHubSasTokenProvider(this.config);
+    }
+
+    @Benchmark
+    public String generate()
+    {
+        return new IotHubSasToken(this.config, EXPIRY_TIME).toString();
+    }
+
+    @Benchmark
+    public String getFromProvider()
+    {
+        return this.provider.getSasToken();
+    }
+}
@@ -0,0 +1,55 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.device.BenchmarkFixtures;
+import com.microsoft.azure.sdk.iot.device.Message;
+import org.apache.qpid.proton.amqp.messaging.Properties;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the conversion of the messages between the SDK and Proton, done by the AMQPS
+ * transport for every message sent or received.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class AmqpsTransportBenchmark
+{
+    @Param({"0", "5"})
+    public int propertyCount;
+
+    private Message message;
+    private MessageImpl protonMessage;
+
+    @Setup
+    public void setup()
+    {
+        this.message = BenchmarkFixtures.createMessage(256, this.propertyCount);
+
+        // a received message carries the system properties set by the IoT Hub.
+        this.protonMessage = AmqpsMessageConverter.toProtonMessage(this.message);
+        Properties properties = this.protonMessage.getProperties();
+        properties.setTo("/devices/benchmark-device/messages/devicebound");
+        properties.setCorrelationId("benchmark-correlation-id");
+    }
+
+    @Benchmark
+    public Object iotHubMessageToProtonMessage()
+    {
+        return AmqpsMessageConverter.toProtonMessage(this.message);
+    }
+
+    @Benchmark
+    public Object protonMessageToIoTHubMessage()
+    {
+        return AmqpsMessageConverter.toIotHubMessage(this.protonMessage);
+    }
+}
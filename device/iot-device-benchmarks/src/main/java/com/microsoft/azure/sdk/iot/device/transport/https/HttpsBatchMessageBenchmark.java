@@ -0,0 +1,42 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.https;
+
+import com.microsoft.azure.sdk.iot.device.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.*;
+
+import javax.naming.SizeLimitExceededException;
+import java.util.concurrent.TimeUnit;
+
+/** Benchmarks filling an HTTPS batch, whose cost should grow linearly with the number of messages. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class HttpsBatchMessageBenchmark
+{
+    @Param({"1", "10", "100"})
+    public int messagesPerBatch;
+
+    private HttpsSingleMessage message;
+
+    @Setup
+    public void setup()
+    {
+        this.message = HttpsSingleMessage.parseHttpsMessage(BenchmarkFixtures.createMessage(256, 3));
+    }
+
+    @Benchmark
+    public HttpsBatchMessage fillBatch() throws SizeLimitExceededException
+    {
+        HttpsBatchMessage batch = new HttpsBatchMessage();
+        for (int i = 0; i < this.messagesPerBatch; i++)
+        {
+            batch.addMessage(this.message);
+        }
+        return batch;
+    }
+}
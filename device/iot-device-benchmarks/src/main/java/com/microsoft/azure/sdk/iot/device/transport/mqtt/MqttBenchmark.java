@@ -0,0 +1,97 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.BenchmarkFixtures;
+import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
+import com.microsoft.azure.sdk.iot.device.Message;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the topic building of {@link MqttMessaging#send(Message)} and the parsing of the
+ * topics received by the twin and the direct methods.
+ *
+ * The benchmark lives in the package of the mqtt transport to reach the package-private parts
+ * of {@link TopicParser}. The mqtt client is replaced by one that acknowledges every publish
+ * right away, so no broker is needed and only the work of the SDK is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class MqttBenchmark
+{
+    private static final String TWIN_RESPONSE_TOPIC = "$iothub/twin/res/200/?$rid=42&$version=7";
+
+    @Param({"0", "5"})
+    public int propertyCount;
+
+    private MqttMessaging mqttMessaging;
+    private Message message;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        DeviceClientConfig config = BenchmarkFixtures.createConfig();
+        MqttConnection mqttConnection = new MqttConnection("ssl://" + config.getIotHubHostname() + ":8883",
+                config.getDeviceId(), "benchmark-user", "benchmark-password", config.getIotHubSSLContext());
+
+        Field clientField = MqttConnection.class.getDeclaredField("mqttAsyncClient");
+        clientField.setAccessible(true);
+        clientField.set(mqttConnection, new AcknowledgingMqttAsyncClient(config.getDeviceId()));
+
+        this.mqttMessaging = new MqttMessaging(mqttConnection, config.getDeviceId());
+        this.message = BenchmarkFixtures.createMessage(64, this.propertyCount);
+    }
+
+    @Benchmark
+    public void send() throws IOException
+    {
+        this.mqttMessaging.send(this.message);
+    }
+
+    @Benchmark
+    public String parseTwinResponseTopic() throws IOException
+    {
+        TopicParser topicParser = new TopicParser(TWIN_RESPONSE_TOPIC);
+        return topicParser.getStatus(3) + topicParser.getRequestId(4) + topicParser.getVersion(4);
+    }
+
+    /** Mqtt client that is always connected and acknowledges every publish as soon as it is made. */
+    private static final class AcknowledgingMqttAsyncClient extends MqttAsyncClient
+    {
+        private AcknowledgingMqttAsyncClient(String clientId) throws MqttException
+        {
+            super("tcp://localhost:1883", clientId, new MemoryPersistence());
+        }
+
+        @Override
+        public boolean isConnected()
+        {
+            return true;
+        }
+
+        @Override
+        public IMqttDeliveryToken publish(String topic, MqttMessage message, Object userContext, IMqttActionListener callback)
+        {
+            if (callback != null)
+            {
+                callback.onSuccess(null);
+            }
+            return null;
+        }
+    }
+}
@@ -6,21 +6,143 @@ package com.microsoft.azure.sdk.iot.device;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
+/**
+ * Logger of the SDK. The messages are formatted only if their level is enabled, and the
+ * overloads with up to three arguments allocate nothing when it is not, so a disabled log
+ * statement costs a level check. A {@link Throwable} passed as the first argument of a
+ * {@code LogDebug} statement is recorded with its stack trace, whichever overload is picked.
+ */
 public class CustomLogger {
 
+    /**
+     * Placeholder for the name of the calling method. Passed as an argument of a log
+     * statement, it is replaced by the method name only once the message is recorded, so
+     * the stack is not walked for a disabled log statement.
+     */
+    public static final Object METHOD_NAME = new Object()
+    {
+        @Override
+        public String toString()
+        {
+            return "unknown";
+        }
+    };
+
     private final Logger logger;
     private static final int CALLING_METHOD_NAME_DEPTH = 2;
+    /* Depth of the caller of a log statement, seen from format: getStackTrace, format, Log*, caller. */
+    private static final int LOGGING_METHOD_NAME_DEPTH = 3;
 
     public CustomLogger(Class<?> clazz)
     {
         logger = Logger.getLogger(clazz);
     }
 
+    public boolean isInfoEnabled()
+    {
+        return logger.isEnabledFor(Level.INFO);
+    }
+
+    public boolean isDebugEnabled()
+    {
+        return logger.isEnabledFor(Level.DEBUG);
+    }
+
+    public boolean isTraceEnabled()
+    {
+        return logger.isEnabledFor(Level.TRACE);
+    }
+
+    public void LogInfo(String message)
+    {
+        if(logger.isEnabledFor(Level.INFO))
+        {
+            logger.info(format(message));
+        }
+    }
+
+    public void LogInfo(String message, Object param)
+    {
+        if(logger.isEnabledFor(Level.INFO))
+        {
+            logger.info(format(message, param));
+        }
+    }
+
+    public void LogInfo(String message, Object param1, Object param2)
+    {
+        if(logger.isEnabledFor(Level.INFO))
+        {
+            logger.info(format(message, param1, param2));
+        }
+    }
+
+    public void LogInfo(String message, Object param1, Object param2, Object param3)
+    {
+        if(logger.isEnabledFor(Level.INFO))
+        {
+            logger.info(format(message, param1, param2, param3));
+        }
+    }
+
     public void LogInfo(String message, Object...params)
     {
         if(logger.isEnabledFor(Level.INFO))
         {
-            logger.info(String.format(message, params));
+            logger.info(format(message, params));
+        }
+    }
+
+    public void LogDebug(String message)
+    {
+        if(logger.isEnabledFor(Level.DEBUG))
+        {
+            logger.debug(format(message));
+        }
+    }
+
+    public void LogDebug(String message, Object param)
+    {
+        if(logger.isEnabledFor(Level.DEBUG))
+        {
+            if (param instanceof Throwable)
+            {
+                logger.debug(format(message), (Throwable) param);
+            }
+            else
+            {
+                logger.debug(format(message, param));
+            }
+        }
+    }
+
+    public void LogDebug(String message, Object param1, Object param2)
+    {
+        if(logger.isEnabledFor(Level.DEBUG))
+        {
+            if (param1 instanceof Throwable)
+            {
+                logger.debug(format(message, param2), (Throwable) param1);
+            }
+            else
+            {
+                logger.debug(format(message, param1, param2));
+            }
+        }
+    }
+
+    public void LogDebug(String message, Object param1, Object param2, Object param3)
+    {
+        if(logger.isEnabledFor(Level.DEBUG))
+        {
+            if (param1 instanceof Throwable)
+            {
+                logger.debug(format(message, param2, param3), (Throwable) param1);
+            }
+            else
+            {
+                logger.debug(format(message, param1, param2, param3));
+            }
         }
     }
 
@@ -28,7 +150,7 @@ public class CustomLogger {
     {
         if(logger.isEnabledFor(Level.DEBUG))
         {
-            logger.debug(String.format(message, params));
+            logger.debug(format(message, params));
         }
     }
 
@@ -36,7 +158,39 @@ public class CustomLogger {
     {
         if(logger.isEnabledFor(Level.DEBUG))
         {
-            logger.debug(String.format(message, params), t);
+            logger.debug(format(message, params), t);
+        }
+    }
+
+    public void LogTrace(String message)
+    {
+        if(logger.isEnabledFor(Level.TRACE))
+        {
+            logger.trace(format(message));
+        }
+    }
+
+    public void LogTrace(String message, Object param)
+    {
+        if(logger.isEnabledFor(Level.TRACE))
+        {
+            logger.trace(format(message, param));
+        }
+    }
+
+    public void LogTrace(String message, Object param1, Object param2)
+    {
+        if(logger.isEnabledFor(Level.TRACE))
+        {
+            logger.trace(format(message, param1, param2));
+        }
+    }
+
+    public void LogTrace(String message, Object param1, Object param2, Object param3)
+    {
+        if(logger.isEnabledFor(Level.TRACE))
+        {
+            logger.trace(format(message, param1, param2, param3));
         }
     }
 
@@ -44,7 +198,7 @@ public class CustomLogger {
     {
         if(logger.isEnabledFor(Level.TRACE))
         {
-            logger.trace(String.format(message, params));
+            logger.trace(format(message, params));
         }
     }
 
@@ -52,7 +206,7 @@ public class CustomLogger {
     {
         if(logger.isEnabledFor(Level.WARN))
         {
-            logger.warn(String.format(message, params));
+            logger.warn(format(message, params));
         }
     }
 
@@ -60,7 +214,7 @@ public class CustomLogger {
     {
         if(logger.isEnabledFor(Level.FATAL))
         {
-            logger.fatal(String.format(message, params));
+            logger.fatal(format(message, params));
         }
     }
 
@@ -68,7 +222,7 @@ public class CustomLogger {
     {
         if(logger.isEnabledFor(Level.ERROR))
         {
-            logger.error(String.format(message, params));
+            logger.error(format(message, params));
         }
     }
 
@@ -80,8 +234,38 @@ public class CustomLogger {
         }
     }
 
+    /**
+     * Returns the name of the calling method. It walks the stack, so log statements should
+     * pass {@link #METHOD_NAME} instead.
+     *
+     * @return the name of the calling method.
+     */
     public String getMethodName()
     {
         return Thread.currentThread().getStackTrace()[CALLING_METHOD_NAME_DEPTH].getMethodName();
     }
+
+    /**
+     * Formats a message that is going to be recorded, replacing {@link #METHOD_NAME} by the
+     * name of the method that called the log statement. Only called by the Log methods, so the
+     * caller is always at the same depth.
+     */
+    private static String format(String message, Object...params)
+    {
+        Object[] args = params;
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i] == METHOD_NAME)
+            {
+                // the arguments may belong to the caller, so they are copied before being changed.
+                if (args == params)
+                {
+                    args = params.clone();
+                }
+                args[i] = Thread.currentThread().getStackTrace()[LOGGING_METHOD_NAME_DEPTH].getMethodName();
+            }
+        }
+
+        return String.format(message, args);
+    }
 }
@@ -18,6 +18,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 /**
  * <p>
@@ -101,6 +102,27 @@ public final class DeviceClient implements Closeable
     private static final String SET_SEND_INTERVAL = "SetSendInterval";
     private static final String SET_CERTIFICATE_PATH = "SetCertificatePath";
     private static final String SET_SAS_TOKEN_EXPIRY_TIME = "SetSASTokenExpiryTime";
+    private static final String SET_EVENT_DRIVEN_SEND = "SetEventDrivenSend";
+    private static final String SET_OUTBOUND_QUEUE_MAX_MESSAGES = "SetOutboundQueueMaxMessages";
+    private static final String SET_OUTBOUND_QUEUE_MAX_BYTES = "SetOutboundQueueMaxBytes";
+    private static final String SET_OUTBOUND_QUEUE_POLICY = "SetOutboundQueuePolicy";
+    private static final String SET_CALLBACK_EXECUTOR = "SetCallbackExecutor";
+    private static final String SET_CALLBACK_QUEUE_CAPACITY = "SetCallbackQueueCapacity";
+    private static final String SET_MQTT_MAX_IN_FLIGHT_MESSAGES = "SetMqttMaxInFlightMessages";
+    private static final String SET_RECONNECT_BACKOFF_POLICY = "SetReconnectBackoffPolicy";
+    private static final String SET_MAX_MESSAGES_PER_RECEIVE = "SetMaxMessagesPerReceive";
+    private static final String SET_ADAPTIVE_POLLING = "SetAdaptivePolling";
+    private static final String SET_ADAPTIVE_POLLING_MIN_INTERVAL = "SetAdaptivePollingMinInterval";
+    private static final String SET_ADAPTIVE_POLLING_MAX_INTERVAL = "SetAdaptivePollingMaxInterval";
+    private static final String SET_HTTPS_MAX_IN_FLIGHT_BATCHES = "SetHttpsMaxInFlightBatches";
+    private static final String SET_DEVICE_METHOD_THREAD_POOL_SIZE = "SetDeviceMethodThreadPoolSize";
+    private static final String SET_DEVICE_METHOD_MAX_CONCURRENT_INVOCATIONS = "SetDeviceMethodMaxConcurrentInvocations";
+    private static final String SET_DEVICE_METHOD_RESPONSE_TIMEOUT = "SetDeviceMethodResponseTimeout";
+    private static final String SET_REPORTED_PROPERTIES_COALESCING_WINDOW = "SetReportedPropertiesCoalescingWindow";
+    private static final String SET_REPORTED_PROPERTIES_COALESCING_MAX_PROPERTIES = "SetReportedPropertiesCoalescingMaxProperties";
+    private static final String SET_TWIN_CACHE_DIRECTORY = "SetTwinCacheDirectory";
+    private static final String SET_TWIN_CACHE_MAX_AGE = "SetTwinCacheMaxAge";
+    private static final String SET_DESIRED_PROPERTY_THREAD_POOL_SIZE = "SetDesiredPropertyThreadPoolSize";
 
     private DeviceClientConfig config;
     private DeviceIO deviceIO;
@@ -109,6 +131,13 @@ public final class DeviceClient implements Closeable
     private DeviceMethod deviceMethod;
     private FileUpload fileUpload;
 
+    /*
+        Connection state callback of the user, forwarded by the callback of the device twin once the twin started
+     */
+    private volatile IotHubConnectionStateCallback connectionStateCallback;
+    private volatile Object connectionStateCallbackContext;
+    private boolean connectionStateForwarded = false;
+
     protected long RECEIVE_PERIOD_MILLIS;
     private CustomLogger logger;
 
@@ -177,7 +206,7 @@ public final class DeviceClient implements Closeable
         this.deviceIO = new DeviceIO(this.config, protocol, SEND_PERIOD_MILLIS, RECEIVE_PERIOD_MILLIS);
 
         this.logger = new CustomLogger(this.getClass());
-        logger.LogInfo("DeviceClient object is created successfully, method name is %s ", logger.getMethodName());
+        logger.LogInfo("DeviceClient object is created successfully, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -197,7 +226,7 @@ public final class DeviceClient implements Closeable
         /* Codes_SRS_DEVICECLIENT_21_007: [If the opening a connection via deviceIO is not successful, the open shall throw IOException.] */
         this.deviceIO.open();
 
-        logger.LogInfo("Connection opened with success, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Connection opened with success, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -213,6 +242,12 @@ public final class DeviceClient implements Closeable
     public void close() throws IOException
     {
 
+        /* Codes_SRS_DEVICECLIENT_28_063: [If the deviceTwin is not null, the close shall call close on deviceTwin before it waits for the ongoing tasks.] */
+        if (this.deviceTwin != null)
+        {
+            this.deviceTwin.close();
+        }
+
      // Codes_SRS_DEVICECLIENT_11_040: [The function shall finish all ongoing tasks.]
      // Codes_SRS_DEVICECLIENT_11_041: [The function shall cancel all recurring tasks.]
         while (!this.deviceIO.isEmpty())
@@ -224,7 +259,19 @@ public final class DeviceClient implements Closeable
         /* Codes_SRS_DEVICECLIENT_21_043: [If the closing a connection via deviceIO is not successful, the close shall throw IOException.] */
         this.deviceIO.close();
 
-        logger.LogInfo("Connection closed with success, method name is %s ", logger.getMethodName());
+        /* Codes_SRS_DEVICECLIENT_28_064: [If the deviceTwin is not null, the close and the closeNow shall call connectionClosed on deviceTwin after they close the deviceIO connection.] */
+        if (this.deviceTwin != null)
+        {
+            this.deviceTwin.connectionClosed();
+        }
+
+        /* Codes_SRS_DEVICECLIENT_28_062: [If the deviceMethod is not null, the close shall call close on deviceMethod.] */
+        if (this.deviceMethod != null)
+        {
+            this.deviceMethod.close();
+        }
+
+        logger.LogInfo("Connection closed with success, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -240,17 +287,35 @@ public final class DeviceClient implements Closeable
      */
     public void closeNow() throws IOException
     {
+        /* Codes_SRS_DEVICECLIENT_28_048: [If the deviceTwin is not null, the closeNow shall call close on deviceTwin before it closes the deviceIO connection.] */
+        if (this.deviceTwin != null)
+        {
+            this.deviceTwin.close();
+        }
+
         /* Codes_SRS_DEVICECLIENT_21_008: [The closeNow shall close the deviceIO connection.] */
         /* Codes_SRS_DEVICECLIENT_21_009: [If the closing a connection via deviceIO is not successful, the closeNow shall throw IOException.] */
         this.deviceIO.close();
 
+        /* Codes_SRS_DEVICECLIENT_28_064: [If the deviceTwin is not null, the close and the closeNow shall call connectionClosed on deviceTwin after they close the deviceIO connection.] */
+        if (this.deviceTwin != null)
+        {
+            this.deviceTwin.connectionClosed();
+        }
+
         /* Codes_SRS_DEVICECLIENT_21_054: [If the fileUpload is not null, the closeNow shall call closeNow on fileUpload.] */
         if(fileUpload != null)
         {
             fileUpload.closeNow();
         }
 
-        logger.LogInfo("Connection closed with success, method name is %s ", logger.getMethodName());
+        /* Codes_SRS_DEVICECLIENT_28_040: [If the deviceMethod is not null, the closeNow shall call close on deviceMethod.] */
+        if (this.deviceMethod != null)
+        {
+            this.deviceMethod.close();
+        }
+
+        logger.LogInfo("Connection closed with success, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -274,7 +339,7 @@ public final class DeviceClient implements Closeable
         /* Codes_SRS_DEVICECLIENT_21_011: [If starting to send via deviceIO is not successful, the sendEventAsync shall bypass the threw exception.] */
         deviceIO.sendEventAsync(message, callback, callbackContext);
 
-        logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), logger.getMethodName());
+        logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -343,6 +408,15 @@ public final class DeviceClient implements Closeable
              */
             deviceTwin = new DeviceTwin(this.deviceIO, this.config, deviceTwinStatusCallback, deviceTwinStatusCallbackContext,
                                         genericPropertyCallBack, genericPropertyCallBackContext);
+
+            if (this.deviceIO.getProtocol() != IotHubClientProtocol.HTTPS)
+            {
+                /*
+                **Codes_SRS_DEVICECLIENT_28_065: [**If the protocol has a connection state, the function shall register a connection state callback that tells the device twin when the connection drops, and forwards the state to the connection state callback of the user, if any.**]**
+                 */
+                this.deviceIO.registerConnectionStateCallback(new DeviceTwinConnectionStateCallback(), null);
+                this.connectionStateForwarded = true;
+            }
             deviceTwin.getDeviceTwin();
         }
         else
@@ -385,6 +459,35 @@ public final class DeviceClient implements Closeable
         this.deviceTwin.subscribeDesiredPropertiesNotification(onDesiredPropertyChange);
     }
 
+    /**
+     * Subscribes to nested desired properties by their path, such as {@code config.sampling.rateHz}.
+     * A callback is only called when the value at its path changed, with {@code null} if the
+     * property was removed. The top level properties under a subscribed path are not given to the
+     * other desired property callbacks anymore.
+     *
+     * @param onDesiredPropertyPathChange the Map for the paths and their corresponding callback and context. Can be {@code null}.
+     *
+     * @throws IOException if called when client is not opened or called before starting twin.
+     * @throws IllegalArgumentException if a path has an empty segment.
+     */
+    public void subscribeToDesiredPropertyPaths(Map<String, Pair<PropertyCallBack<String, Object>, Object>> onDesiredPropertyPathChange) throws IOException
+    {
+        if (this.deviceTwin == null)
+        {
+            // Codes_SRS_DEVICECLIENT_28_058: [If the client has not started twin before calling this method, the function shall throw an IOException.]
+            throw new IOException("Start twin before using it");
+        }
+
+        if (!this.deviceIO.isOpen())
+        {
+            // Codes_SRS_DEVICECLIENT_28_059: [If the client has not been open, the function shall throw an IOException.]
+            throw new IOException("Open the client connection before using it.");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_060: [This method shall subscribe to the desired property paths by calling subscribeDesiredPropertyPathsNotification on the twin object.]
+        this.deviceTwin.subscribeDesiredPropertyPathsNotification(onDesiredPropertyPathChange);
+    }
+
     /**
      * Sends reported properties
      *
@@ -395,6 +498,24 @@ public final class DeviceClient implements Closeable
      */
 
     public void sendReportedProperties(Set<Property> reportedProperties) throws IOException
+    {
+        sendReportedProperties(reportedProperties, null, null);
+    }
+
+    /**
+     * Sends reported properties, and reports the status of the patch that carries them. With the
+     * option "SetReportedPropertiesCoalescingWindow", the properties are merged with the other
+     * updates of the window, and the callback is invoked when the merged patch is acknowledged.
+     *
+     * @param reportedProperties the Set for desired properties and their corresponding callback and context. Cannot be {@code null}.
+     * @param reportedPropertiesCallback the callback invoked with the status of the patch. Can be {@code null}.
+     * @param reportedPropertiesCallbackContext the context to be passed to the callback. Can be {@code null}.
+     *
+     * @throws IOException if called when client is not opened or called before starting twin.
+     * @throws IllegalArgumentException if reportedProperties is null or empty.
+     */
+    public void sendReportedProperties(Set<Property> reportedProperties, IotHubEventCallback reportedPropertiesCallback,
+                                       Object reportedPropertiesCallbackContext) throws IOException
     {
         if (this.deviceTwin == null)
         {
@@ -423,7 +544,10 @@ public final class DeviceClient implements Closeable
         /*
         **Codes_SRS_DEVICECLIENT_25_035: [**This method shall send to reported properties by calling updateReportedProperties on the twin object.**]**
          */
-        this.deviceTwin.updateReportedProperties(reportedProperties);
+        /*
+        **Codes_SRS_DEVICECLIENT_28_049: [**The callback of the reported properties, if any, shall be passed to updateReportedProperties on the twin object.**]**
+         */
+        this.deviceTwin.updateReportedProperties(reportedProperties, reportedPropertiesCallback, reportedPropertiesCallbackContext);
 
     }
 
@@ -472,6 +596,57 @@ public final class DeviceClient implements Closeable
         this.deviceMethod.subscribeToDeviceMethod(deviceMethodCallback, deviceMethodCallbackContext);
     }
 
+    /**
+     * Registers the handler of one device method. The invocations of the method reach the handler
+     * with their request payload decoded by the request codec, and the response payload is encoded
+     * by the response codec. If no device method callback is subscribed, the invocations of the
+     * methods without handler are answered with the status 501.
+     *
+     * @param methodName the name of the method. Cannot be {@code null} or empty.
+     * @param requestCodec the codec of the request payload, see {@link DeviceMethodCodecs}. Cannot be {@code null}.
+     * @param responseCodec the codec of the response payload, see {@link DeviceMethodCodecs}. Cannot be {@code null}.
+     * @param handler the handler of the method. Cannot be {@code null}.
+     * @param handlerContext Context for the handler. Can be {@code null}.
+     * @param deviceMethodStatusCallback Callback for providing IotHub status for device methods. Cannot be {@code null}.
+     * @param deviceMethodStatusCallbackContext Context for device method status callback. Can be {@code null}.
+     * @param <Q> the type of the request payload.
+     * @param <R> the type of the response payload.
+     *
+     * @throws IOException if called when client is not opened.
+     * @throws IllegalArgumentException if the method name is {@code null} or empty, or if a codec, the handler or the status callback is {@code null}.
+     */
+    public <Q, R> void registerDeviceMethod(String methodName, DeviceMethodCodec<Q> requestCodec, DeviceMethodCodec<R> responseCodec,
+                                            DeviceMethodHandler<Q, R> handler, Object handlerContext,
+                                            IotHubEventCallback deviceMethodStatusCallback, Object deviceMethodStatusCallbackContext)
+            throws IOException
+    {
+        if (!this.deviceIO.isOpen())
+        {
+            /*
+            **Codes_SRS_DEVICECLIENT_28_041: [**If the client has not been open, the registerDeviceMethod shall throw an IOException.**]**
+             */
+            throw new IOException("Open the client connection before using it.");
+        }
+
+        if (deviceMethodStatusCallback == null)
+        {
+            /*
+            **Codes_SRS_DEVICECLIENT_28_042: [**If deviceMethodStatusCallback is null, the registerDeviceMethod shall throw an IllegalArgumentException.**]**
+             */
+            throw new IllegalArgumentException("Callback cannot be null");
+        }
+
+        if (this.deviceMethod == null)
+        {
+            this.deviceMethod = new DeviceMethod(this.deviceIO, this.config, deviceMethodStatusCallback, deviceMethodStatusCallbackContext);
+        }
+
+        /*
+        **Codes_SRS_DEVICECLIENT_28_043: [**The registerDeviceMethod shall register the handler by calling registerDeviceMethod on the DeviceMethod object, which it creates only once.**]**
+         */
+        this.deviceMethod.registerDeviceMethod(methodName, requestCodec, responseCodec, handler, handlerContext);
+    }
+
     /**
      * Asynchronously upload a stream to the IoT Hub.
      *
@@ -548,7 +723,7 @@ public final class DeviceClient implements Closeable
 
     private void setOption_SetMinimumPollingInterval(Object value)
     {
-        logger.LogInfo("Setting MinimumPollingInterval as %s milliseconds, method name is %s ", value, logger.getMethodName());
+        logger.LogInfo("Setting MinimumPollingInterval as %s milliseconds, method name is %s ", value, CustomLogger.METHOD_NAME);
 
         if (this.deviceIO.isOpen())
         {
@@ -585,7 +760,7 @@ public final class DeviceClient implements Closeable
 
     private void setOption_SetSendInterval(Object value)
     {
-        logger.LogInfo("Setting send Interval as %s milliseconds, method name is %s ", value, logger.getMethodName());
+        logger.LogInfo("Setting send Interval as %s milliseconds, method name is %s ", value, CustomLogger.METHOD_NAME);
 
         if (value != null)
         {
@@ -614,7 +789,7 @@ public final class DeviceClient implements Closeable
 
     private void setOption_SetCertificatePath(Object value)
     {
-        logger.LogInfo("Setting CertificatePath as %s, method name is %s ", value, logger.getMethodName());
+        logger.LogInfo("Setting CertificatePath as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
         if (this.deviceIO.isOpen())
         {
             throw new IllegalStateException("setOption " + SET_CERTIFICATE_PATH +
@@ -636,7 +811,7 @@ public final class DeviceClient implements Closeable
 
     private void setOption_SetSASTokenExpiryTime(Object value)
     {
-        logger.LogInfo("Setting SASTokenExpiryTime as %s seconds, method name is %s ", value, logger.getMethodName());
+        logger.LogInfo("Setting SASTokenExpiryTime as %s seconds, method name is %s ", value, CustomLogger.METHOD_NAME);
         if (value != null)
         {
             //**Codes_SRS_DEVICECLIENT_25_022: [**"SetSASTokenExpiryTime" should have value type long**.]**
@@ -695,6 +870,445 @@ public final class DeviceClient implements Closeable
         }
     }
 
+    private void setOption_SetEventDrivenSend(Object value)
+    {
+        logger.LogInfo("Setting EventDrivenSend as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + SET_EVENT_DRIVEN_SEND +
+                    " only works when the transport is closed");
+        }
+        else
+        {
+            if (value != null)
+            {
+                // Codes_SRS_DEVICECLIENT_28_002: ["SetEventDrivenSend" needs to have value type boolean.]
+                if (value instanceof Boolean)
+                {
+                    this.deviceIO.setEventDrivenSend((boolean) value);
+                }
+                else
+                {
+                    throw new IllegalArgumentException("value is not boolean = " + value);
+                }
+            }
+            else
+            {
+                throw new IllegalArgumentException("value cannot be null");
+            }
+        }
+    }
+
+    private void setOption_SetOutboundQueueMaxMessages(Object value)
+    {
+        logger.LogInfo("Setting OutboundQueueMaxMessages as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_004: [The outbound queue options only work when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + SET_OUTBOUND_QUEUE_MAX_MESSAGES +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_005: ["SetOutboundQueueMaxMessages" needs to have value type integer.]
+        if (value instanceof Integer)
+        {
+            this.config.setOutboundQueueMaxMessages((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundQueueMaxBytes(Object value)
+    {
+        logger.LogInfo("Setting OutboundQueueMaxBytes as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_004: [The outbound queue options only work when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + SET_OUTBOUND_QUEUE_MAX_BYTES +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_006: ["SetOutboundQueueMaxBytes" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            this.config.setOutboundQueueMaxBytes((long) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundQueuePolicy(Object value)
+    {
+        logger.LogInfo("Setting OutboundQueuePolicy as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_004: [The outbound queue options only work when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + SET_OUTBOUND_QUEUE_POLICY +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_007: ["SetOutboundQueuePolicy" needs to have value type IotHubOutboundQueuePolicy.]
+        if (value instanceof IotHubOutboundQueuePolicy)
+        {
+            this.config.setOutboundQueuePolicy((IotHubOutboundQueuePolicy) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not IotHubOutboundQueuePolicy = " + value);
+        }
+    }
+
+    private void setOption_SetCallbackExecutor(Object value)
+    {
+        logger.LogInfo("Setting CallbackExecutor as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_011: [The callback dispatch options only work when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + SET_CALLBACK_EXECUTOR +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_012: ["SetCallbackExecutor" needs to have value type ExecutorService, or be null to use a dedicated thread.]
+        if ((value == null) || (value instanceof ExecutorService))
+        {
+            this.config.setCallbackExecutor((ExecutorService) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not ExecutorService = " + value);
+        }
+    }
+
+    private void setOption_SetCallbackQueueCapacity(Object value)
+    {
+        logger.LogInfo("Setting CallbackQueueCapacity as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_011: [The callback dispatch options only work when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + SET_CALLBACK_QUEUE_CAPACITY +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_013: ["SetCallbackQueueCapacity" needs to have value type integer.]
+        if (value instanceof Integer)
+        {
+            this.config.setCallbackQueueCapacity((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetMqttMaxInFlightMessages(Object value)
+    {
+        logger.LogInfo("Setting MqttMaxInFlightMessages as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_016: ["SetMqttMaxInFlightMessages" only works when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + SET_MQTT_MAX_IN_FLIGHT_MESSAGES +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_017: ["SetMqttMaxInFlightMessages" needs to have value type integer.]
+        if (value instanceof Integer)
+        {
+            this.config.setMqttMaxInFlightMessages((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetReconnectBackoffPolicy(Object value)
+    {
+        logger.LogInfo("Setting ReconnectBackoffPolicy as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_020: ["SetReconnectBackoffPolicy" only works when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + SET_RECONNECT_BACKOFF_POLICY +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_021: ["SetReconnectBackoffPolicy" needs to have value type IotHubBackoffPolicy.]
+        if (value instanceof IotHubBackoffPolicy)
+        {
+            this.config.setReconnectBackoffPolicy((IotHubBackoffPolicy) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not IotHubBackoffPolicy = " + value);
+        }
+    }
+
+    private void setOption_SetMaxMessagesPerReceive(Object value)
+    {
+        logger.LogInfo("Setting MaxMessagesPerReceive as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_023: ["SetMaxMessagesPerReceive" only works when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + SET_MAX_MESSAGES_PER_RECEIVE +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_024: ["SetMaxMessagesPerReceive" needs to have value type integer.]
+        if (value instanceof Integer)
+        {
+            this.config.setMaxMessagesPerReceive((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetAdaptivePolling(Object value)
+    {
+        logger.LogInfo("Setting AdaptivePolling as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_027: [The adaptive polling options only work when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + SET_ADAPTIVE_POLLING +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_028: ["SetAdaptivePolling" needs to have value type boolean.]
+        if (value instanceof Boolean)
+        {
+            this.config.setAdaptivePolling((boolean) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
+
+    private void setOption_SetAdaptivePollingInterval(String optionName, Object value)
+    {
+        logger.LogInfo("Setting %s as %s milliseconds, method name is %s ", optionName, value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_027: [The adaptive polling options only work when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + optionName +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_029: ["SetAdaptivePollingMinInterval" and "SetAdaptivePollingMaxInterval" need to have value type long.]
+        if (!(value instanceof Long))
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_061: [If the shortest adaptive polling interval would be longer than the longest one,
+        // the function shall throw IllegalArgumentException.]
+        long interval = (long) value;
+        if (SET_ADAPTIVE_POLLING_MIN_INTERVAL.equals(optionName))
+        {
+            if (interval > this.config.getAdaptivePollingMaxIntervalMillis())
+            {
+                throw new IllegalArgumentException("shortest polling interval " + interval
+                        + " can not be longer than the longest one, " + this.config.getAdaptivePollingMaxIntervalMillis());
+            }
+            this.config.setAdaptivePollingMinIntervalMillis(interval);
+        }
+        else
+        {
+            if (interval < this.config.getAdaptivePollingMinIntervalMillis())
+            {
+                throw new IllegalArgumentException("longest polling interval " + interval
+                        + " can not be shorter than the shortest one, " + this.config.getAdaptivePollingMinIntervalMillis());
+            }
+            this.config.setAdaptivePollingMaxIntervalMillis(interval);
+        }
+    }
+
+    private void setOption_SetDeviceMethodDispatch(String optionName, Object value)
+    {
+        logger.LogInfo("Setting %s as %s, method name is %s ", optionName, value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_038: [The device method options only work when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + optionName +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_039: ["SetDeviceMethodThreadPoolSize" and "SetDeviceMethodMaxConcurrentInvocations"
+        // need to have value type integer, and "SetDeviceMethodResponseTimeout" needs to have value type long.]
+        if (SET_DEVICE_METHOD_RESPONSE_TIMEOUT.equals(optionName))
+        {
+            if (!(value instanceof Long))
+            {
+                throw new IllegalArgumentException("value is not long = " + value);
+            }
+            this.config.setDeviceMethodResponseTimeoutSecs((long) value);
+        }
+        else
+        {
+            if (!(value instanceof Integer))
+            {
+                throw new IllegalArgumentException("value is not int = " + value);
+            }
+            if (SET_DEVICE_METHOD_THREAD_POOL_SIZE.equals(optionName))
+            {
+                this.config.setDeviceMethodThreadPoolSize((int) value);
+            }
+            else
+            {
+                this.config.setDeviceMethodMaxConcurrentInvocations((int) value);
+            }
+        }
+    }
+
+    private void setOption_SetTwinCache(String optionName, Object value)
+    {
+        logger.LogInfo("Setting %s as %s, method name is %s ", optionName, value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_052: [The twin cache options only work before the device twin is started.]
+        if (this.deviceTwin != null)
+        {
+            throw new IllegalStateException("setOption " + optionName +
+                    " only works before the device twin is started");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_053: ["SetTwinCacheDirectory" needs to have value type String or null,
+        // and "SetTwinCacheMaxAge" needs to have value type long.]
+        if (SET_TWIN_CACHE_DIRECTORY.equals(optionName))
+        {
+            if (value != null && !(value instanceof String))
+            {
+                throw new IllegalArgumentException("value is not String = " + value);
+            }
+            this.config.setTwinCacheDirectory((String) value);
+        }
+        else
+        {
+            if (!(value instanceof Long))
+            {
+                throw new IllegalArgumentException("value is not long = " + value);
+            }
+            this.config.setTwinCacheMaxAgeSecs((long) value);
+        }
+    }
+
+    private void setOption_SetDesiredPropertyThreadPoolSize(Object value)
+    {
+        logger.LogInfo("Setting desired property thread pool size as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_056: ["SetDesiredPropertyThreadPoolSize" only works before the device twin is started.]
+        if (this.deviceTwin != null)
+        {
+            throw new IllegalStateException("setOption " + SET_DESIRED_PROPERTY_THREAD_POOL_SIZE +
+                    " only works before the device twin is started");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_057: ["SetDesiredPropertyThreadPoolSize" needs to have value type int.]
+        if (!(value instanceof Integer))
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+        this.config.setDesiredPropertyThreadPoolSize((int) value);
+    }
+
+    private void setOption_SetReportedPropertiesCoalescing(String optionName, Object value)
+    {
+        logger.LogInfo("Setting %s as %s, method name is %s ", optionName, value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_046: [The reported properties coalescing options only work when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + optionName +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_047: ["SetReportedPropertiesCoalescingWindow" needs to have value type long,
+        // and "SetReportedPropertiesCoalescingMaxProperties" needs to have value type integer.]
+        if (SET_REPORTED_PROPERTIES_COALESCING_WINDOW.equals(optionName))
+        {
+            if (!(value instanceof Long))
+            {
+                throw new IllegalArgumentException("value is not long = " + value);
+            }
+            this.config.setReportedPropertiesCoalescingWindowMillis((long) value);
+        }
+        else
+        {
+            if (!(value instanceof Integer))
+            {
+                throw new IllegalArgumentException("value is not int = " + value);
+            }
+            this.config.setReportedPropertiesCoalescingMaxProperties((int) value);
+        }
+    }
+
+    private void setOption_SetHttpsMaxInFlightBatches(Object value)
+    {
+        logger.LogInfo("Setting HttpsMaxInFlightBatches as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        // Codes_SRS_DEVICECLIENT_28_034: ["SetHttpsMaxInFlightBatches" only works when the transport is closed.]
+        if (this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("setOption " + SET_HTTPS_MAX_IN_FLIGHT_BATCHES +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_28_035: ["SetHttpsMaxInFlightBatches" needs to have value type integer.]
+        if (value instanceof Integer)
+        {
+            this.config.setHttpsMaxInFlightBatches((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    /**
+     * Getter for the number of messages waiting to be sent.
+     *
+     * @return the number of messages in the outbound queue.
+     */
+    public int getOutboundQueueSize()
+    {
+        // Codes_SRS_DEVICECLIENT_28_008: [The getOutboundQueueSize shall return the number of messages waiting to be sent, as reported by the deviceIO.]
+        return this.deviceIO.getOutboundQueueSize();
+    }
+
+    /**
+     * Getter for the number of message body bytes waiting to be sent.
+     *
+     * @return the number of message body bytes in the outbound queue.
+     */
+    public long getOutboundQueueSizeInBytes()
+    {
+        // Codes_SRS_DEVICECLIENT_28_009: [The getOutboundQueueSizeInBytes shall return the number of message body bytes waiting to be sent, as reported by the deviceIO.]
+        return this.deviceIO.getOutboundQueueSizeInBytes();
+    }
+
+    /**
+     * Getter for the current interval between two polls of the IoT Hub for messages. With
+     * adaptive HTTPS polling, it grows while the polls find no message.
+     *
+     * @return the polling interval in milliseconds.
+     */
+    public long getPollingIntervalInMilliseconds()
+    {
+        // Codes_SRS_DEVICECLIENT_28_030: [The getPollingIntervalInMilliseconds shall return the current polling interval, as reported by the deviceIO.]
+        return this.deviceIO.getPollingIntervalInMilliseconds();
+    }
+
+    /**
+     * Getter for the number of polls of the IoT Hub that found no message. Only the HTTPS
+     * transport polls the IoT Hub.
+     *
+     * @return the number of empty polls.
+     */
+    public long getEmptyPollCount()
+    {
+        // Codes_SRS_DEVICECLIENT_28_031: [The getEmptyPollCount shall return the number of polls that found no message, as reported by the deviceIO.]
+        return this.deviceIO.getEmptyPollCount();
+    }
+
     /**
      * Sets a runtime option identified by parameter {@code optionName}
      * to {@code value}.
@@ -714,6 +1328,117 @@ public final class DeviceClient implements Closeable
      *         SASToken expires. If the transport is already open then setting this
      *         option will restart the transport with the updated expiry time. The
      *         value is expected to be of type {@code long}.
+     *      - <b>SetEventDrivenSend</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT, and only when the transport is closed. If {@code true},
+     *         messages are sent as soon as they are queued, and no thread wakes up
+     *         while there is nothing to send; <b>SetSendInterval</b> then only
+     *         paces the retries. The value is expected to be of type {@code boolean}.
+     *      - <b>SetOutboundQueueMaxMessages</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT, and only when the transport is closed. This option specifies
+     *         the maximum number of messages waiting to be sent. The value is expected
+     *         to be of type {@code int}.
+     *      - <b>SetOutboundQueueMaxBytes</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT, and only when the transport is closed. This option specifies
+     *         the maximum number of message body bytes waiting to be sent. The value is
+     *         expected to be of type {@code long}.
+     *      - <b>SetOutboundQueuePolicy</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT, and only when the transport is closed. This option specifies
+     *         what {@link #sendEventAsync} does when the outbound queue is full: block
+     *         until there is room, reject the new message, or drop the oldest one. The
+     *         value is expected to be of type {@link IotHubOutboundQueuePolicy}.
+     *      - <b>SetCallbackExecutor</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT, and only when the transport is closed. This option specifies
+     *         the executor that invokes the callbacks of the sent messages, out of the
+     *         send thread. The callbacks of a client are always invoked one at a time and
+     *         in order, so one executor can be shared by several clients. If {@code null},
+     *         the client uses a dedicated thread. The value is expected to be of type
+     *         {@code ExecutorService}.
+     *      - <b>SetCallbackQueueCapacity</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT, and only when the transport is closed. This option specifies
+     *         the maximum number of callbacks waiting to be invoked; when it is reached,
+     *         sending waits for the callbacks to catch up. The value is expected to be
+     *         of type {@code int}.
+     *      - <b>SetMqttMaxInFlightMessages</b> - this option is applicable only for MQTT,
+     *         and only when the transport is closed. This option specifies how many
+     *         messages can wait for the acknowledgement of the IoT Hub at the same time;
+     *         the callback of a message is invoked when its acknowledgement arrives. The
+     *         value is expected to be of type {@code int}, and is 10 by default.
+     *      - <b>SetReconnectBackoffPolicy</b> - this option is applicable only for MQTT,
+     *         and only when the transport is closed. This option specifies the delay
+     *         before each attempt to reconnect a lost connection; the messages sent
+     *         meanwhile wait in the transport queue. The value is expected to be of type
+     *         {@code IotHubBackoffPolicy}, and is a decorrelated jitter between 1 second
+     *         and 60 seconds by default.
+     *      - <b>SetMaxMessagesPerReceive</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT, and only when the transport is closed. This option specifies how
+     *         many inbound messages one receive cycle can handle; a cycle handles the
+     *         messages waiting in the transport until there are none left or this number
+     *         is reached. The value is expected to be of type {@code int}, and is 100 by
+     *         default.
+     *      - <b>SetAdaptivePolling</b> - this option is applicable only for HTTP, and
+     *         only when the transport is closed. If {@code true}, the IoT Hub is polled
+     *         at the shortest interval while messages arrive and right after messages are
+     *         sent, and the interval doubles after each poll that finds no message, up to
+     *         the longest interval; <b>SetMinimumPollingInterval</b> is then not used. The
+     *         value is expected to be of type {@code boolean}, and is {@code false} by default.
+     *      - <b>SetAdaptivePollingMinInterval</b> and <b>SetAdaptivePollingMaxInterval</b> -
+     *         these options are applicable only for HTTP, and only when the transport is
+     *         closed. They specify the shortest and the longest intervals in milliseconds
+     *         between two adaptive polls. The values are expected to be of type {@code long},
+     *         and are 10 seconds and 25 minutes by default. A value that would make the
+     *         shortest interval longer than the longest one is rejected, so set the longest
+     *         interval first to raise both.
+     *      - <b>SetHttpsMaxInFlightBatches</b> - this option is applicable only for HTTP,
+     *         and only when the transport is closed. This option specifies how many
+     *         batches of messages can be sent at the same time. With more than one batch
+     *         in flight, the IoT Hub may receive the batches out of order, and the callbacks
+     *         of a batch that has to be sent again come after the ones of the batches sent
+     *         with it, so keep 1 when the order matters. The value is expected to be of type {@code int}, and is 1 by
+     *         default.
+     *      - <b>SetDeviceMethodThreadPoolSize</b> - this option is not applicable for HTTP,
+     *         and works only when the transport is closed. This option specifies how many
+     *         threads run the device method invocations, so a slow method does not hold
+     *         the other methods, the twin updates and the messages. With 0 threads the
+     *         invocations run one after the other on the thread that receives them. The
+     *         value is expected to be of type {@code int}, and is 0 by default.
+     *      - <b>SetDeviceMethodMaxConcurrentInvocations</b> - this option is not applicable
+     *         for HTTP, and works only when the transport is closed. This option specifies
+     *         how many invocations of the same method run at the same time on the device
+     *         method threads; the others wait for their turn. The value is expected to be
+     *         of type {@code int}, and is 1 by default.
+     *      - <b>SetDeviceMethodResponseTimeout</b> - this option is not applicable for
+     *         HTTP, and works only when the transport is closed. This option specifies the
+     *         time in seconds an invocation run on the device method threads has to answer;
+     *         an invocation that overruns it is answered with the status 504. The value is
+     *         expected to be of type {@code long}, and is 30 seconds by default.
+     *      - <b>SetReportedPropertiesCoalescingWindow</b> - this option is not applicable
+     *         for HTTP, and works only when the transport is closed. This option specifies
+     *         the time in milliseconds the reported properties updates are merged before
+     *         they are sent in one patch; the last value of a property wins. With 0 each
+     *         update is sent on its own. The value is expected to be of type {@code long},
+     *         and is 0 by default.
+     *      - <b>SetReportedPropertiesCoalescingMaxProperties</b> - this option is not
+     *         applicable for HTTP, and works only when the transport is closed. This option
+     *         specifies how many distinct properties can be merged before the patch is sent
+     *         without waiting for the end of the window. The value is expected to be of type
+     *         {@code int}, and is 100 by default.
+     *      - <b>SetTwinCacheDirectory</b> - this option is not applicable for HTTP, and works
+     *         only before the device twin is started. This option specifies the directory
+     *         where the twin of the device is cached between two runs; the cached twin is
+     *         notified when the twin starts, and the twin received from the IoT Hub then only
+     *         notifies the properties that changed. The value is expected to be of type
+     *         {@code String}, and is {@code null}, no cache, by default.
+     *      - <b>SetTwinCacheMaxAge</b> - this option is not applicable for HTTP, and works
+     *         only before the device twin is started. This option specifies the age in
+     *         seconds up to which the cached twin is trusted as current, so the twin starts
+     *         without getting the full twin from the IoT Hub. The value is expected to be of
+     *         type {@code long}, and is 0, always get the twin, by default.
+     *      - <b>SetDesiredPropertyThreadPoolSize</b> - this option is not applicable for HTTP,
+     *         and works only before the device twin is started. This option specifies the
+     *         number of threads that run the callbacks of the desired property paths; the
+     *         callbacks of different paths run at the same time, and the callbacks of one path
+     *         run in order. With 0 the callbacks run on the thread that receives the twin. The
+     *         value is expected to be of type {@code int}, and is 0 by default.
      *
      * @param optionName the option name to modify
      * @param value an object of the appropriate type for the option's value
@@ -741,7 +1466,7 @@ public final class DeviceClient implements Closeable
                     else
                     {
                         logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName,
-                                this.deviceIO.getProtocol().toString(), logger.getMethodName());
+                                this.deviceIO.getProtocol().toString(), CustomLogger.METHOD_NAME);
                         // Codes_SRS_DEVICECLIENT_02_015: [If optionName is null or not an option
                         // handled by the client, then it shall throw IllegalArgumentException.]
                         throw new IllegalArgumentException("optionName is unknown = " + optionName
@@ -770,7 +1495,7 @@ public final class DeviceClient implements Closeable
                     else
                     {
                         logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName,
-                                this.deviceIO.getProtocol().toString(), logger.getMethodName());
+                                this.deviceIO.getProtocol().toString(), CustomLogger.METHOD_NAME);
                         // Codes_SRS_DEVICECLIENT_02_015: [If optionName is null or not an option handled by the
                         // client, then it shall throw IllegalArgumentException.]
                         throw new IllegalArgumentException("optionName is unknown = " + optionName +
@@ -793,7 +1518,7 @@ public final class DeviceClient implements Closeable
                     else
                     {
                         logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName,
-                                this.deviceIO.getProtocol().toString(), logger.getMethodName());
+                                this.deviceIO.getProtocol().toString(), CustomLogger.METHOD_NAME);
                         // Codes_SRS_DEVICECLIENT_02_015: [If optionName is null or not an option handled by the
                         // client, then it shall throw IllegalArgumentException.]
                         throw new IllegalArgumentException("optionName is unknown = " + optionName +
@@ -802,6 +1527,169 @@ public final class DeviceClient implements Closeable
                     break;
                 }
 
+                // Codes_SRS_DEVICECLIENT_28_001: ["SetEventDrivenSend" - send the messages as soon as they are queued instead of every send interval.]
+                case SET_EVENT_DRIVEN_SEND:
+                {
+                    setOption_SetEventDrivenSend(value);
+                    break;
+                }
+
+                // Codes_SRS_DEVICECLIENT_28_003: ["SetOutboundQueueMaxMessages", "SetOutboundQueueMaxBytes" and "SetOutboundQueuePolicy" - bound the queue of messages waiting to be sent.]
+                case SET_OUTBOUND_QUEUE_MAX_MESSAGES:
+                {
+                    setOption_SetOutboundQueueMaxMessages(value);
+                    break;
+                }
+
+                case SET_OUTBOUND_QUEUE_MAX_BYTES:
+                {
+                    setOption_SetOutboundQueueMaxBytes(value);
+                    break;
+                }
+
+                case SET_OUTBOUND_QUEUE_POLICY:
+                {
+                    setOption_SetOutboundQueuePolicy(value);
+                    break;
+                }
+
+                // Codes_SRS_DEVICECLIENT_28_010: ["SetCallbackExecutor" and "SetCallbackQueueCapacity" - configure the stage that invokes the callbacks of the sent messages.]
+                case SET_CALLBACK_EXECUTOR:
+                {
+                    setOption_SetCallbackExecutor(value);
+                    break;
+                }
+
+                case SET_CALLBACK_QUEUE_CAPACITY:
+                {
+                    setOption_SetCallbackQueueCapacity(value);
+                    break;
+                }
+
+                // Codes_SRS_DEVICECLIENT_28_014: ["SetMqttMaxInFlightMessages" - number of MQTT messages that can wait for their acknowledgement at the same time.]
+                case SET_MQTT_MAX_IN_FLIGHT_MESSAGES:
+                {
+                    // Codes_SRS_DEVICECLIENT_28_015: [Option "SetMqttMaxInFlightMessages" is available only for MQTT.]
+                    if (this.deviceIO.getProtocol() != IotHubClientProtocol.MQTT)
+                    {
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName
+                                + " for " + this.deviceIO.getProtocol().toString());
+                    }
+                    setOption_SetMqttMaxInFlightMessages(value);
+                    break;
+                }
+
+                // Codes_SRS_DEVICECLIENT_28_018: ["SetReconnectBackoffPolicy" - policy that gives the delay before each attempt to reconnect a lost connection.]
+                case SET_RECONNECT_BACKOFF_POLICY:
+                {
+                    // Codes_SRS_DEVICECLIENT_28_019: [Option "SetReconnectBackoffPolicy" is available only for MQTT.]
+                    if (this.deviceIO.getProtocol() != IotHubClientProtocol.MQTT)
+                    {
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName
+                                + " for " + this.deviceIO.getProtocol().toString());
+                    }
+                    setOption_SetReconnectBackoffPolicy(value);
+                    break;
+                }
+
+                // Codes_SRS_DEVICECLIENT_28_022: ["SetMaxMessagesPerReceive" - maximum number of inbound messages that one receive cycle handles.]
+                case SET_MAX_MESSAGES_PER_RECEIVE:
+                {
+                    setOption_SetMaxMessagesPerReceive(value);
+                    break;
+                }
+
+                // Codes_SRS_DEVICECLIENT_28_025: ["SetAdaptivePolling", "SetAdaptivePollingMinInterval" and "SetAdaptivePollingMaxInterval" - adapt the interval between two HTTPS polls to the inbound traffic.]
+                case SET_ADAPTIVE_POLLING:
+                case SET_ADAPTIVE_POLLING_MIN_INTERVAL:
+                case SET_ADAPTIVE_POLLING_MAX_INTERVAL:
+                {
+                    // Codes_SRS_DEVICECLIENT_28_026: [The adaptive polling options are available only for HTTP.]
+                    if (this.deviceIO.getProtocol() != IotHubClientProtocol.HTTPS)
+                    {
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName
+                                + " for " + this.deviceIO.getProtocol().toString());
+                    }
+                    if (SET_ADAPTIVE_POLLING.equals(optionName))
+                    {
+                        setOption_SetAdaptivePolling(value);
+                    }
+                    else
+                    {
+                        setOption_SetAdaptivePollingInterval(optionName, value);
+                    }
+                    break;
+                }
+
+                // Codes_SRS_DEVICECLIENT_28_032: ["SetHttpsMaxInFlightBatches" - number of HTTPS batches sent at the same time.]
+                case SET_HTTPS_MAX_IN_FLIGHT_BATCHES:
+                {
+                    // Codes_SRS_DEVICECLIENT_28_033: [Option "SetHttpsMaxInFlightBatches" is available only for HTTP.]
+                    if (this.deviceIO.getProtocol() != IotHubClientProtocol.HTTPS)
+                    {
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName
+                                + " for " + this.deviceIO.getProtocol().toString());
+                    }
+                    setOption_SetHttpsMaxInFlightBatches(value);
+                    break;
+                }
+
+                // Codes_SRS_DEVICECLIENT_28_036: ["SetDeviceMethodThreadPoolSize", "SetDeviceMethodMaxConcurrentInvocations" and "SetDeviceMethodResponseTimeout" - run the device method invocations on a pool of threads.]
+                case SET_DEVICE_METHOD_THREAD_POOL_SIZE:
+                case SET_DEVICE_METHOD_MAX_CONCURRENT_INVOCATIONS:
+                case SET_DEVICE_METHOD_RESPONSE_TIMEOUT:
+                {
+                    // Codes_SRS_DEVICECLIENT_28_037: [The device method options are not available for HTTP.]
+                    if (this.deviceIO.getProtocol() == IotHubClientProtocol.HTTPS)
+                    {
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName
+                                + " for " + this.deviceIO.getProtocol().toString());
+                    }
+                    setOption_SetDeviceMethodDispatch(optionName, value);
+                    break;
+                }
+
+                // Codes_SRS_DEVICECLIENT_28_044: ["SetReportedPropertiesCoalescingWindow" and "SetReportedPropertiesCoalescingMaxProperties" - merge the reported properties updates in one patch.]
+                case SET_REPORTED_PROPERTIES_COALESCING_WINDOW:
+                case SET_REPORTED_PROPERTIES_COALESCING_MAX_PROPERTIES:
+                {
+                    // Codes_SRS_DEVICECLIENT_28_045: [The reported properties coalescing options are not available for HTTP.]
+                    if (this.deviceIO.getProtocol() == IotHubClientProtocol.HTTPS)
+                    {
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName
+                                + " for " + this.deviceIO.getProtocol().toString());
+                    }
+                    setOption_SetReportedPropertiesCoalescing(optionName, value);
+                    break;
+                }
+
+                // Codes_SRS_DEVICECLIENT_28_050: ["SetTwinCacheDirectory" and "SetTwinCacheMaxAge" - cache the twin of the device between two runs.]
+                case SET_TWIN_CACHE_DIRECTORY:
+                case SET_TWIN_CACHE_MAX_AGE:
+                {
+                    // Codes_SRS_DEVICECLIENT_28_051: [The twin cache options are not available for HTTP.]
+                    if (this.deviceIO.getProtocol() == IotHubClientProtocol.HTTPS)
+                    {
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName
+                                + " for " + this.deviceIO.getProtocol().toString());
+                    }
+                    setOption_SetTwinCache(optionName, value);
+                    break;
+                }
+
+                // Codes_SRS_DEVICECLIENT_28_054: ["SetDesiredPropertyThreadPoolSize" - run the callbacks of the desired property paths on a pool.]
+                case SET_DESIRED_PROPERTY_THREAD_POOL_SIZE:
+                {
+                    // Codes_SRS_DEVICECLIENT_28_055: ["SetDesiredPropertyThreadPoolSize" is not available for HTTP.]
+                    if (this.deviceIO.getProtocol() == IotHubClientProtocol.HTTPS)
+                    {
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName
+                                + " for " + this.deviceIO.getProtocol().toString());
+                    }
+                    setOption_SetDesiredPropertyThreadPoolSize(value);
+                    break;
+                }
+
                 default:
                     throw new IllegalArgumentException("optionName is unknown = " + optionName);
             }
@@ -823,8 +1711,36 @@ public final class DeviceClient implements Closeable
             throw new IllegalArgumentException();
         }
 
+        this.connectionStateCallbackContext = callbackContext;
+        this.connectionStateCallback = callback;
+
         //Codes_SRS_DEVICECLIENT_99_001: [The registerConnectionStateCallback shall register the callback with the Device IO even if the not open.]
         //Codes_SRS_DEVICECLIENT_99_002: [The registerConnectionStateCallback shall register the callback even if the client is not open.]
-        this.deviceIO.registerConnectionStateCallback(callback, callbackContext);
+        if (!this.connectionStateForwarded)
+        {
+            this.deviceIO.registerConnectionStateCallback(callback, callbackContext);
+        }
+    }
+
+    /*
+        Callback that tells the device twin the connection dropped, and forwards the state to the user
+     */
+    private final class DeviceTwinConnectionStateCallback implements IotHubConnectionStateCallback
+    {
+        @Override
+        public void execute(IotHubConnectionState state, Object callbackContext)
+        {
+            // the patches delivered before the drop get no response.
+            if (state == IotHubConnectionState.CONNECTION_DROP && deviceTwin != null)
+            {
+                deviceTwin.connectionLost();
+            }
+
+            IotHubConnectionStateCallback callback = connectionStateCallback;
+            if (callback != null)
+            {
+                callback.execute(state, connectionStateCallbackContext);
+            }
+        }
     }
 }
@@ -3,6 +3,8 @@
 
 package com.microsoft.azure.sdk.iot.device;
 
+import java.util.concurrent.ExecutorService;
+
 /**
  * Configuration settings for an IoT Hub client. Validates all user-defined
  * settings.
@@ -22,6 +24,27 @@ public final class DeviceClientConfig
     private static final int DEFAULT_READ_TIMEOUT_MILLIS = 240000;
     /** The default value for messageLockTimeoutSecs. */
     private static final int DEFAULT_MESSAGE_LOCK_TIMEOUT_SECS = 180;
+    /** The default capacity of the outbound queue, in number of messages. */
+    private static final int DEFAULT_OUTBOUND_QUEUE_MAX_MESSAGES = Integer.MAX_VALUE;
+    /** The default capacity of the outbound queue, in bytes of message body. */
+    private static final long DEFAULT_OUTBOUND_QUEUE_MAX_BYTES = Long.MAX_VALUE;
+    /** The default capacity of the callback queue, in number of callbacks. */
+    private static final int DEFAULT_CALLBACK_QUEUE_CAPACITY = 1024;
+    /* The default number of MQTT publishes waiting for their acknowledgement at the same time. */
+    private static final int DEFAULT_MQTT_MAX_IN_FLIGHT_MESSAGES = 10;
+    /* The default number of inbound messages handled by one receive cycle. */
+    private static final int DEFAULT_MAX_MESSAGES_PER_RECEIVE = 100;
+    /* The default shortest and longest intervals between two adaptive HTTPS polls. */
+    private static final long DEFAULT_ADAPTIVE_POLLING_MIN_INTERVAL_MILLIS = 10000L;
+    private static final long DEFAULT_ADAPTIVE_POLLING_MAX_INTERVAL_MILLIS = 25 * 60 * 1000L;
+    /* The default number of HTTPS batches sent at the same time. */
+    private static final int DEFAULT_HTTPS_MAX_IN_FLIGHT_BATCHES = 1;
+    /* The default number of invocations of the same device method that run at the same time. */
+    private static final int DEFAULT_DEVICE_METHOD_MAX_CONCURRENT_INVOCATIONS = 1;
+    /* The default time a device method has to answer, which is the default of the IoT Hub. */
+    private static final long DEFAULT_DEVICE_METHOD_RESPONSE_TIMEOUT_SECS = 30L;
+    /* The default number of reported properties merged before the coalesced patch is sent. */
+    private static final int DEFAULT_REPORTED_PROPERTIES_COALESCING_MAX_PROPERTIES = 100;
 
     /* information in the connection string that unique identify the device */
     private final IotHubConnectionString iotHubConnectionString;
@@ -52,6 +75,48 @@ public final class DeviceClientConfig
     /** The context to be passed in to the message callback. */
     private Object messageContext;
 
+    /* Capacity of the outbound queue and what to do with new messages when it is full */
+    private int outboundQueueMaxMessages = DEFAULT_OUTBOUND_QUEUE_MAX_MESSAGES;
+    private long outboundQueueMaxBytes = DEFAULT_OUTBOUND_QUEUE_MAX_BYTES;
+    private IotHubOutboundQueuePolicy outboundQueuePolicy = IotHubOutboundQueuePolicy.BLOCK;
+
+    /* Executor and queue capacity of the stage that invokes the callbacks of the sent messages */
+    private ExecutorService callbackExecutor = null;
+    private int callbackQueueCapacity = DEFAULT_CALLBACK_QUEUE_CAPACITY;
+
+    /* Number of MQTT publishes waiting for their acknowledgement at the same time */
+    private int mqttMaxInFlightMessages = DEFAULT_MQTT_MAX_IN_FLIGHT_MESSAGES;
+
+    /* Policy that gives the delay before each attempt to reconnect a lost connection */
+    private IotHubBackoffPolicy reconnectBackoffPolicy = new IotHubDecorrelatedJitterBackoff();
+
+    /* Number of inbound messages handled by one receive cycle */
+    private int maxMessagesPerReceive = DEFAULT_MAX_MESSAGES_PER_RECEIVE;
+
+    /* Whether HTTPS polls adapt their interval to the inbound traffic, and the bounds of that interval */
+    private boolean adaptivePolling = false;
+    private long adaptivePollingMinIntervalMillis = DEFAULT_ADAPTIVE_POLLING_MIN_INTERVAL_MILLIS;
+    private long adaptivePollingMaxIntervalMillis = DEFAULT_ADAPTIVE_POLLING_MAX_INTERVAL_MILLIS;
+
+    /* Number of HTTPS batches sent at the same time */
+    private int httpsMaxInFlightBatches = DEFAULT_HTTPS_MAX_IN_FLIGHT_BATCHES;
+
+    /* Threads that run the device method invocations, none to run them on the receive thread, and their limits */
+    private int deviceMethodThreadPoolSize = 0;
+    private int deviceMethodMaxConcurrentInvocations = DEFAULT_DEVICE_METHOD_MAX_CONCURRENT_INVOCATIONS;
+    private long deviceMethodResponseTimeoutSecs = DEFAULT_DEVICE_METHOD_RESPONSE_TIMEOUT_SECS;
+
+    /* Time the reported properties are merged before they are sent, none to send each update, and its size limit */
+    private long reportedPropertiesCoalescingWindowMillis = 0;
+    private int reportedPropertiesCoalescingMaxProperties = DEFAULT_REPORTED_PROPERTIES_COALESCING_MAX_PROPERTIES;
+
+    /* Directory of the local twin cache, none to always get the twin from the IoT Hub, and the age it is trusted without a get */
+    private String twinCacheDirectory = null;
+    private long twinCacheMaxAgeSecs = 0;
+
+    /* Number of threads that run the callbacks of the desired property paths, none to run them on the receiving thread */
+    private int desiredPropertyThreadPoolSize = 0;
+
     private CustomLogger logger;
 
     /**
@@ -78,7 +143,7 @@ public final class DeviceClientConfig
 
         this.logger = new CustomLogger(this.getClass());
         logger.LogInfo("DeviceClientConfig object is created successfully with IotHubName=%s, deviceID=%s , method name is %s ",
-                this.iotHubConnectionString.getHostName(), this.iotHubConnectionString.getDeviceId(), logger.getMethodName());
+                this.iotHubConnectionString.getHostName(), this.iotHubConnectionString.getDeviceId(), CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -371,6 +436,589 @@ public final class DeviceClientConfig
         return DEFAULT_MESSAGE_LOCK_TIMEOUT_SECS;
     }
 
+    /**
+     * Setter for the capacity of the outbound queue, in number of messages.
+     *
+     * @param maxMessages the maximum number of messages waiting to be sent.
+     * @throws IllegalArgumentException if the provided value is zero or negative.
+     */
+    public void setOutboundQueueMaxMessages(int maxMessages)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_001: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+        if (maxMessages <= 0)
+        {
+            throw new IllegalArgumentException("outbound queue capacity can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_002: [The function shall set the capacity of the outbound queue in number of messages.]
+        this.outboundQueueMaxMessages = maxMessages;
+    }
+
+    /**
+     * Getter for the capacity of the outbound queue, in number of messages.
+     *
+     * @return the maximum number of messages waiting to be sent.
+     */
+    public int getOutboundQueueMaxMessages()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_003: [The function shall return the capacity of the outbound queue in number of messages, which is unbounded by default.]
+        return this.outboundQueueMaxMessages;
+    }
+
+    /**
+     * Setter for the capacity of the outbound queue, in bytes of message body.
+     *
+     * @param maxBytes the maximum number of message body bytes waiting to be sent.
+     * @throws IllegalArgumentException if the provided value is zero or negative.
+     */
+    public void setOutboundQueueMaxBytes(long maxBytes)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_004: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+        if (maxBytes <= 0L)
+        {
+            throw new IllegalArgumentException("outbound queue capacity can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_005: [The function shall set the capacity of the outbound queue in bytes.]
+        this.outboundQueueMaxBytes = maxBytes;
+    }
+
+    /**
+     * Getter for the capacity of the outbound queue, in bytes of message body.
+     *
+     * @return the maximum number of message body bytes waiting to be sent.
+     */
+    public long getOutboundQueueMaxBytes()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_006: [The function shall return the capacity of the outbound queue in bytes, which is unbounded by default.]
+        return this.outboundQueueMaxBytes;
+    }
+
+    /**
+     * Setter for what to do with new messages when the outbound queue is full.
+     *
+     * @param policy the policy to apply when the outbound queue is full.
+     * @throws IllegalArgumentException if the provided policy is {@code null}.
+     */
+    public void setOutboundQueuePolicy(IotHubOutboundQueuePolicy policy)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_007: [If the provided policy is null, the function shall throw IllegalArgumentException.]
+        if (policy == null)
+        {
+            throw new IllegalArgumentException("outbound queue policy can not be null");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_008: [The function shall set the policy of the outbound queue.]
+        this.outboundQueuePolicy = policy;
+    }
+
+    /**
+     * Getter for what to do with new messages when the outbound queue is full.
+     *
+     * @return the policy to apply when the outbound queue is full.
+     */
+    public IotHubOutboundQueuePolicy getOutboundQueuePolicy()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_009: [The function shall return the policy of the outbound queue, which is BLOCK by default.]
+        return this.outboundQueuePolicy;
+    }
+
+    /**
+     * Setter for the executor that invokes the callbacks of the sent messages.
+     *
+     * @param executor the executor to invoke the callbacks on, or {@code null} to use a
+     *                 dedicated thread for this client.
+     */
+    public void setCallbackExecutor(ExecutorService executor)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_010: [The function shall set the executor that invokes the callbacks.]
+        this.callbackExecutor = executor;
+    }
+
+    /**
+     * Getter for the executor that invokes the callbacks of the sent messages.
+     *
+     * @return the executor to invoke the callbacks on, or {@code null} if the client uses a dedicated thread.
+     */
+    public ExecutorService getCallbackExecutor()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_011: [The function shall return the executor that invokes the callbacks, which is null by default.]
+        return this.callbackExecutor;
+    }
+
+    /**
+     * Setter for the capacity of the queue of callbacks waiting to be invoked.
+     *
+     * @param capacity the maximum number of callbacks waiting to be invoked.
+     * @throws IllegalArgumentException if the provided value is zero or negative.
+     */
+    public void setCallbackQueueCapacity(int capacity)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_012: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("callback queue capacity can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_013: [The function shall set the capacity of the callback queue.]
+        this.callbackQueueCapacity = capacity;
+    }
+
+    /**
+     * Getter for the capacity of the queue of callbacks waiting to be invoked.
+     *
+     * @return the maximum number of callbacks waiting to be invoked.
+     */
+    public int getCallbackQueueCapacity()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_014: [The function shall return the capacity of the callback queue, which is 1024 by default.]
+        return this.callbackQueueCapacity;
+    }
+
+    /**
+     * Setter for the number of MQTT publishes that can wait for their acknowledgement at the same time.
+     *
+     * @param maxInFlightMessages the maximum number of unacknowledged MQTT publishes.
+     * @throws IllegalArgumentException if the provided value is zero or negative.
+     */
+    public void setMqttMaxInFlightMessages(int maxInFlightMessages)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_015: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+        if (maxInFlightMessages <= 0)
+        {
+            throw new IllegalArgumentException("in-flight window can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_016: [The function shall set the number of MQTT publishes that can wait for their acknowledgement at the same time.]
+        this.mqttMaxInFlightMessages = maxInFlightMessages;
+    }
+
+    /**
+     * Getter for the number of MQTT publishes that can wait for their acknowledgement at the same time.
+     *
+     * @return the maximum number of unacknowledged MQTT publishes.
+     */
+    public int getMqttMaxInFlightMessages()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_017: [The function shall return the number of MQTT publishes that can wait for their acknowledgement at the same time, which is 10 by default.]
+        return this.mqttMaxInFlightMessages;
+    }
+
+    /**
+     * Setter for the policy that gives the delay before each attempt to reconnect a lost connection.
+     *
+     * @param reconnectBackoffPolicy the backoff policy.
+     * @throws IllegalArgumentException if the provided policy is null.
+     */
+    public void setReconnectBackoffPolicy(IotHubBackoffPolicy reconnectBackoffPolicy)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_018: [If the provided policy is null, the function shall throw IllegalArgumentException.]
+        if (reconnectBackoffPolicy == null)
+        {
+            throw new IllegalArgumentException("reconnect backoff policy cannot be null");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_019: [The function shall set the policy that gives the delay before each reconnection attempt.]
+        this.reconnectBackoffPolicy = reconnectBackoffPolicy;
+    }
+
+    /**
+     * Getter for the policy that gives the delay before each attempt to reconnect a lost connection.
+     *
+     * @return the reconnect backoff policy.
+     */
+    public IotHubBackoffPolicy getReconnectBackoffPolicy()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_020: [The function shall return the reconnect backoff policy, which is a decorrelated jitter by default.]
+        return this.reconnectBackoffPolicy;
+    }
+
+    /**
+     * Setter for the maximum number of inbound messages handled by one receive cycle. A cycle
+     * handles the messages already waiting in the transport until there are none left, or
+     * until this number is reached.
+     *
+     * @param maxMessagesPerReceive the maximum number of messages handled by one receive cycle.
+     * @throws IllegalArgumentException if the provided value is zero or negative.
+     */
+    public void setMaxMessagesPerReceive(int maxMessagesPerReceive)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_021: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+        if (maxMessagesPerReceive <= 0)
+        {
+            throw new IllegalArgumentException("messages per receive can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_022: [The function shall set the maximum number of inbound messages that one receive cycle handles.]
+        this.maxMessagesPerReceive = maxMessagesPerReceive;
+    }
+
+    /**
+     * Getter for the maximum number of inbound messages handled by one receive cycle.
+     *
+     * @return the maximum number of messages handled by one receive cycle.
+     */
+    public int getMaxMessagesPerReceive()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_023: [The function shall return the maximum number of inbound messages that one receive cycle handles, which is 100 by default.]
+        return this.maxMessagesPerReceive;
+    }
+
+    /**
+     * Setter for the adaptive polling of the HTTPS transport. When enabled, the IoT Hub is
+     * polled at the shortest interval while messages arrive, and the interval doubles after
+     * each poll that finds no message, up to the longest interval.
+     *
+     * @param adaptivePolling {@code true} to adapt the polling interval to the inbound traffic.
+     */
+    public void setAdaptivePolling(boolean adaptivePolling)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_024: [The function shall set whether the HTTPS polling interval adapts to the inbound traffic.]
+        this.adaptivePolling = adaptivePolling;
+    }
+
+    /**
+     * Getter for the adaptive polling of the HTTPS transport.
+     *
+     * @return {@code true} if the polling interval adapts to the inbound traffic.
+     */
+    public boolean isAdaptivePolling()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_025: [The function shall return whether the HTTPS polling interval adapts to the inbound traffic, which is false by default.]
+        return this.adaptivePolling;
+    }
+
+    /**
+     * Setter for the shortest interval between two adaptive HTTPS polls.
+     *
+     * @param minIntervalMillis the shortest polling interval, in milliseconds.
+     * @throws IllegalArgumentException if the provided value is zero or negative.
+     */
+    public void setAdaptivePollingMinIntervalMillis(long minIntervalMillis)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_026: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+        if (minIntervalMillis <= 0)
+        {
+            throw new IllegalArgumentException("polling interval can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_027: [The function shall set the shortest interval between two adaptive polls.]
+        this.adaptivePollingMinIntervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * Getter for the shortest interval between two adaptive HTTPS polls.
+     *
+     * @return the shortest polling interval, in milliseconds.
+     */
+    public long getAdaptivePollingMinIntervalMillis()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_028: [The function shall return the shortest interval between two adaptive polls, which is 10 seconds by default.]
+        return this.adaptivePollingMinIntervalMillis;
+    }
+
+    /**
+     * Setter for the longest interval between two adaptive HTTPS polls.
+     *
+     * @param maxIntervalMillis the longest polling interval, in milliseconds.
+     * @throws IllegalArgumentException if the provided value is zero or negative.
+     */
+    public void setAdaptivePollingMaxIntervalMillis(long maxIntervalMillis)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_029: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+        if (maxIntervalMillis <= 0)
+        {
+            throw new IllegalArgumentException("polling interval can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_030: [The function shall set the longest interval between two adaptive polls.]
+        this.adaptivePollingMaxIntervalMillis = maxIntervalMillis;
+    }
+
+    /**
+     * Getter for the longest interval between two adaptive HTTPS polls.
+     *
+     * @return the longest polling interval, in milliseconds.
+     */
+    public long getAdaptivePollingMaxIntervalMillis()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_031: [The function shall return the longest interval between two adaptive polls, which is 25 minutes by default.]
+        return this.adaptivePollingMaxIntervalMillis;
+    }
+
+    /**
+     * Setter for the number of HTTPS batches sent at the same time. The callbacks of the
+     * messages are invoked in the order the messages were queued, but with more than one
+     * batch in flight, the IoT Hub may receive the batches out of order.
+     *
+     * @param httpsMaxInFlightBatches the maximum number of batches sent at the same time.
+     * @throws IllegalArgumentException if the provided value is zero or negative.
+     */
+    public void setHttpsMaxInFlightBatches(int httpsMaxInFlightBatches)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_032: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+        if (httpsMaxInFlightBatches <= 0)
+        {
+            throw new IllegalArgumentException("in flight batches can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_033: [The function shall set the maximum number of HTTPS batches sent at the same time.]
+        this.httpsMaxInFlightBatches = httpsMaxInFlightBatches;
+    }
+
+    /**
+     * Getter for the number of HTTPS batches sent at the same time.
+     *
+     * @return the maximum number of batches sent at the same time.
+     */
+    public int getHttpsMaxInFlightBatches()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_034: [The function shall return the maximum number of HTTPS batches sent at the same time, which is 1 by default.]
+        return this.httpsMaxInFlightBatches;
+    }
+
+    /**
+     * Setter for the number of threads that run the device method invocations. With no
+     * thread, the invocations run one after the other on the thread that receives them.
+     *
+     * @param deviceMethodThreadPoolSize the number of threads, or 0 to run the invocations on the receive thread.
+     * @throws IllegalArgumentException if the provided value is negative.
+     */
+    public void setDeviceMethodThreadPoolSize(int deviceMethodThreadPoolSize)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_035: [If the provided value is negative, the function shall throw IllegalArgumentException.]
+        if (deviceMethodThreadPoolSize < 0)
+        {
+            throw new IllegalArgumentException("device method thread pool size can not be negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_036: [The function shall set the number of threads that run the device method invocations.]
+        this.deviceMethodThreadPoolSize = deviceMethodThreadPoolSize;
+    }
+
+    /**
+     * Getter for the number of threads that run the device method invocations.
+     *
+     * @return the number of threads, or 0 if the invocations run on the receive thread.
+     */
+    public int getDeviceMethodThreadPoolSize()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_037: [The function shall return the number of threads that run the device method invocations, which is 0 by default.]
+        return this.deviceMethodThreadPoolSize;
+    }
+
+    /**
+     * Setter for the number of invocations of the same device method that run at the same
+     * time on the device method threads. The other invocations wait for their turn.
+     *
+     * @param deviceMethodMaxConcurrentInvocations the maximum number of invocations of a method that run at the same time.
+     * @throws IllegalArgumentException if the provided value is zero or negative.
+     */
+    public void setDeviceMethodMaxConcurrentInvocations(int deviceMethodMaxConcurrentInvocations)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_038: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+        if (deviceMethodMaxConcurrentInvocations <= 0)
+        {
+            throw new IllegalArgumentException("concurrent invocations can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_039: [The function shall set the number of invocations of the same device method that run at the same time.]
+        this.deviceMethodMaxConcurrentInvocations = deviceMethodMaxConcurrentInvocations;
+    }
+
+    /**
+     * Getter for the number of invocations of the same device method that run at the same time.
+     *
+     * @return the maximum number of invocations of a method that run at the same time.
+     */
+    public int getDeviceMethodMaxConcurrentInvocations()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_040: [The function shall return the number of invocations of the same device method that run at the same time, which is 1 by default.]
+        return this.deviceMethodMaxConcurrentInvocations;
+    }
+
+    /**
+     * Setter for the time a device method invocation run on the device method threads has
+     * to answer. An invocation that overruns it is answered with the status 504.
+     *
+     * @param deviceMethodResponseTimeoutSecs the response timeout, in seconds.
+     * @throws IllegalArgumentException if the provided value is zero or negative.
+     */
+    public void setDeviceMethodResponseTimeoutSecs(long deviceMethodResponseTimeoutSecs)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_041: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+        if (deviceMethodResponseTimeoutSecs <= 0)
+        {
+            throw new IllegalArgumentException("response timeout can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_042: [The function shall set the time a device method invocation has to answer.]
+        this.deviceMethodResponseTimeoutSecs = deviceMethodResponseTimeoutSecs;
+    }
+
+    /**
+     * Getter for the time a device method invocation has to answer.
+     *
+     * @return the response timeout, in seconds.
+     */
+    public long getDeviceMethodResponseTimeoutSecs()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_043: [The function shall return the time a device method invocation has to answer, which is 30 seconds by default.]
+        return this.deviceMethodResponseTimeoutSecs;
+    }
+
+    /**
+     * Setter for the time the reported properties updates are merged before they are sent
+     * to the IoT Hub in one patch. The last value of a property wins.
+     *
+     * @param reportedPropertiesCoalescingWindowMillis the window, in milliseconds, or 0 to send each update on its own.
+     * @throws IllegalArgumentException if the provided value is negative.
+     */
+    public void setReportedPropertiesCoalescingWindowMillis(long reportedPropertiesCoalescingWindowMillis)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_044: [If the provided value is negative, the function shall throw IllegalArgumentException.]
+        if (reportedPropertiesCoalescingWindowMillis < 0)
+        {
+            throw new IllegalArgumentException("coalescing window can not be negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_045: [The function shall set the time the reported properties updates are merged.]
+        this.reportedPropertiesCoalescingWindowMillis = reportedPropertiesCoalescingWindowMillis;
+    }
+
+    /**
+     * Getter for the time the reported properties updates are merged before they are sent.
+     *
+     * @return the window, in milliseconds, or 0 if each update is sent on its own.
+     */
+    public long getReportedPropertiesCoalescingWindowMillis()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_046: [The function shall return the time the reported properties updates are merged, which is 0 by default.]
+        return this.reportedPropertiesCoalescingWindowMillis;
+    }
+
+    /**
+     * Setter for the number of distinct reported properties merged before the patch is sent,
+     * without waiting for the end of the window.
+     *
+     * @param reportedPropertiesCoalescingMaxProperties the maximum number of properties in one merged patch.
+     * @throws IllegalArgumentException if the provided value is zero or negative.
+     */
+    public void setReportedPropertiesCoalescingMaxProperties(int reportedPropertiesCoalescingMaxProperties)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_047: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+        if (reportedPropertiesCoalescingMaxProperties <= 0)
+        {
+            throw new IllegalArgumentException("coalescing size limit can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_048: [The function shall set the number of reported properties merged before the patch is sent.]
+        this.reportedPropertiesCoalescingMaxProperties = reportedPropertiesCoalescingMaxProperties;
+    }
+
+    /**
+     * Getter for the number of distinct reported properties merged before the patch is sent.
+     *
+     * @return the maximum number of properties in one merged patch.
+     */
+    public int getReportedPropertiesCoalescingMaxProperties()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_049: [The function shall return the number of reported properties merged before the patch is sent, which is 100 by default.]
+        return this.reportedPropertiesCoalescingMaxProperties;
+    }
+
+    /**
+     * Setter for the directory where the twin of the device is cached between two runs. The cached
+     * twin is given to the callbacks as soon as the twin starts, and the twin received from the
+     * IoT Hub then only notifies the properties that changed.
+     *
+     * @param twinCacheDirectory the path of the directory, or {@code null} to disable the cache.
+     * @throws IllegalArgumentException if the provided path is empty.
+     */
+    public void setTwinCacheDirectory(String twinCacheDirectory)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_050: [If the provided path is empty, the function shall throw IllegalArgumentException.]
+        if (twinCacheDirectory != null && twinCacheDirectory.isEmpty())
+        {
+            throw new IllegalArgumentException("twin cache directory can not be empty");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_051: [The function shall set the directory of the twin cache.]
+        this.twinCacheDirectory = twinCacheDirectory;
+    }
+
+    /**
+     * Getter for the directory where the twin of the device is cached.
+     *
+     * @return the path of the directory, or {@code null} if the cache is disabled.
+     */
+    public String getTwinCacheDirectory()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_052: [The function shall return the directory of the twin cache, which is null by default.]
+        return this.twinCacheDirectory;
+    }
+
+    /**
+     * Setter for the age up to which the cached twin is trusted as current, so the twin starts
+     * without getting the full document from the IoT Hub. Desired properties changed while the
+     * device was offline are only seen once the cache is older than this age.
+     *
+     * @param twinCacheMaxAgeSecs the age, in seconds, or 0 to always get the twin.
+     * @throws IllegalArgumentException if the provided value is negative.
+     */
+    public void setTwinCacheMaxAgeSecs(long twinCacheMaxAgeSecs)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_053: [If the provided value is negative, the function shall throw IllegalArgumentException.]
+        if (twinCacheMaxAgeSecs < 0)
+        {
+            throw new IllegalArgumentException("twin cache age can not be negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_054: [The function shall set the age up to which the cached twin is trusted.]
+        this.twinCacheMaxAgeSecs = twinCacheMaxAgeSecs;
+    }
+
+    /**
+     * Getter for the age up to which the cached twin is trusted as current.
+     *
+     * @return the age, in seconds, or 0 if the twin is always got from the IoT Hub.
+     */
+    public long getTwinCacheMaxAgeSecs()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_055: [The function shall return the age up to which the cached twin is trusted, which is 0 by default.]
+        return this.twinCacheMaxAgeSecs;
+    }
+
+    /**
+     * Setter for the number of threads that run the callbacks of the desired property paths. The
+     * callbacks of different paths run at the same time, and the callbacks of one path run in order.
+     *
+     * @param desiredPropertyThreadPoolSize the number of threads, or 0 to run the callbacks on the thread that receives the twin.
+     * @throws IllegalArgumentException if the provided value is negative.
+     */
+    public void setDesiredPropertyThreadPoolSize(int desiredPropertyThreadPoolSize)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_056: [If the provided value is negative, the function shall throw IllegalArgumentException.]
+        if (desiredPropertyThreadPoolSize < 0)
+        {
+            throw new IllegalArgumentException("desired property thread pool size can not be negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_28_057: [The function shall set the number of threads that run the callbacks of the desired property paths.]
+        this.desiredPropertyThreadPoolSize = desiredPropertyThreadPoolSize;
+    }
+
+    /**
+     * Getter for the number of threads that run the callbacks of the desired property paths.
+     *
+     * @return the number of threads, or 0 if the callbacks run on the thread that receives the twin.
+     */
+    public int getDesiredPropertyThreadPoolSize()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_28_058: [The function shall return the number of threads that run the callbacks of the desired property paths, which is 0 by default.]
+        return this.desiredPropertyThreadPoolSize;
+    }
+
     @SuppressWarnings("unused")
     protected DeviceClientConfig()
     {
@@ -3,7 +3,9 @@
 
 package com.microsoft.azure.sdk.iot.device;
 
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendLoop;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
@@ -11,6 +13,7 @@ import com.microsoft.azure.sdk.iot.device.transport.https.HttpsTransport;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -80,10 +83,14 @@ public final class DeviceIO
     private DeviceClientConfig config;
     private IotHubSendTask sendTask = null;
     private IotHubReceiveTask receiveTask = null;
+    private IotHubSendLoop sendLoop = null;
+    private IotHubCallbackDispatcher callbackDispatcher = null;
     private IotHubClientProtocol protocol = null;
 
     private ScheduledExecutorService taskScheduler;
+    private ExecutorService sendLoopExecutor;
     private IotHubClientState state;
+    private boolean eventDrivenSend;
 
     /**
      * Constructor that takes a connection string as an argument.
@@ -145,8 +152,11 @@ public final class DeviceIO
         /* Codes_SRS_DEVICE_IO_21_006: [The constructor shall set the `state` as `CLOSED`.] */
         this.state = IotHubClientState.CLOSED;
 
+        /* Codes_SRS_DEVICE_IO_28_001: [The constructor shall initialize the send mode as fixed rate polling.] */
+        this.eventDrivenSend = false;
+
         this.logger = new CustomLogger(this.getClass());
-        logger.LogInfo("DeviceIO object is created successfully, method name is %s ", logger.getMethodName());
+        logger.LogInfo("DeviceIO object is created successfully, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -211,19 +221,40 @@ public final class DeviceIO
         /* Codes_SRS_DEVICE_IO_21_015: [If an error occurs in opening the transport, the open shall throw an IOException.] */
         this.transport.open();
 
+        /* Codes_SRS_DEVICE_IO_28_010: [The open shall create a callback dispatcher with the executor and the queue capacity in the config, and register it in the transport, so the callbacks are not invoked by the send task.] */
+        this.callbackDispatcher = new IotHubCallbackDispatcher(this.config.getCallbackExecutor(), this.config.getCallbackQueueCapacity());
+        this.transport.registerCallbackDispatcher(this.callbackDispatcher);
+
         this.sendTask = new IotHubSendTask(this.transport);
         this.receiveTask = new IotHubReceiveTask(this.transport);
 
         this.taskScheduler = Executors.newScheduledThreadPool(2);
-        // the scheduler waits until each execution is finished before
-        // scheduling the next one, so executions of a given task
-        // will never overlap.
-        /* Codes_SRS_DEVICE_IO_21_013: [The open shall schedule send tasks to run every SEND_PERIOD_MILLIS milliseconds.] */
-        this.taskScheduler.scheduleAtFixedRate(this.sendTask, 0,
-                sendPeriodInMilliseconds, TimeUnit.MILLISECONDS);
+        if (this.eventDrivenSend)
+        {
+            /* Codes_SRS_DEVICE_IO_28_002: [If the event driven send is enabled, the open shall register a send loop as the transport send signal, and run it on a dedicated thread, instead of scheduling the send tasks.] */
+            this.sendLoop = new IotHubSendLoop(this.transport, this.sendTask, sendPeriodInMilliseconds);
+            this.transport.registerSendSignal(this.sendLoop);
+            this.sendLoopExecutor = Executors.newSingleThreadExecutor();
+            this.sendLoopExecutor.execute(this.sendLoop);
+        }
+        else
+        {
+            // the scheduler waits until each execution is finished before
+            // scheduling the next one, so executions of a given task
+            // will never overlap.
+            /* Codes_SRS_DEVICE_IO_21_013: [The open shall schedule send tasks to run every SEND_PERIOD_MILLIS milliseconds.] */
+            this.taskScheduler.scheduleAtFixedRate(this.sendTask, 0,
+                    sendPeriodInMilliseconds, TimeUnit.MILLISECONDS);
+        }
         /* Codes_SRS_DEVICE_IO_21_014: [The open shall schedule receive tasks to run every receivePeriodInMilliseconds milliseconds.] */
+        /* Codes_SRS_DEVICE_IO_28_012: [If the protocol is HTTPS and adaptive polling is enabled in the config, the open shall schedule the receive tasks to run every shortest adaptive polling interval instead, and the transport shall decide which of them poll.] */
+        long receiveTaskPeriod = receivePeriodInMilliseconds;
+        if ((this.protocol == IotHubClientProtocol.HTTPS) && this.config.isAdaptivePolling())
+        {
+            receiveTaskPeriod = this.config.getAdaptivePollingMinIntervalMillis();
+        }
         this.taskScheduler.scheduleAtFixedRate(this.receiveTask, 0,
-                receivePeriodInMilliseconds, TimeUnit.MILLISECONDS);
+                receiveTaskPeriod, TimeUnit.MILLISECONDS);
 
         /* Codes_SRS_DEVICE_IO_21_016: [The open shall set the `state` as `OPEN`.] */
         this.state = IotHubClientState.OPEN;
@@ -250,9 +281,27 @@ public final class DeviceIO
         /* Codes_SRS_DEVICE_IO_21_018: [The close shall cancel all recurring tasks.] */
         this.taskScheduler.shutdown();
 
+        if (this.sendLoop != null)
+        {
+            /* Codes_SRS_DEVICE_IO_28_003: [If the event driven send is running, the close shall stop the send loop and unregister it from the transport.] */
+            this.sendLoop.stop();
+            this.transport.registerSendSignal(null);
+            this.sendLoopExecutor.shutdown();
+            this.sendLoop = null;
+            this.sendLoopExecutor = null;
+        }
+
         /* Codes_SRS_DEVICE_IO_21_019: [The close shall close the transport.] */
         this.transport.close();
 
+        if (this.callbackDispatcher != null)
+        {
+            /* Codes_SRS_DEVICE_IO_28_011: [The close shall wait for the dispatched callbacks, including the ones cancelled by closing the transport, and unregister the callback dispatcher from the transport.] */
+            this.callbackDispatcher.close();
+            this.transport.registerCallbackDispatcher(null);
+            this.callbackDispatcher = null;
+        }
+
         /* Codes_SRS_DEVICE_IO_21_021: [The close shall set the `state` as `CLOSE`.] */
         this.state = IotHubClientState.CLOSED;
     }
@@ -287,7 +336,7 @@ public final class DeviceIO
             throw new IllegalArgumentException("Cannot send message 'null'.");
         }
 
-        logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), logger.getMethodName());
+        logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), CustomLogger.METHOD_NAME);
         /* Codes_SRS_DEVICE_IO_21_022: [The sendEventAsync shall add the message, with its associated callback and callback context, to the transport.] */
         transport.addMessage(message, callback, callbackContext);
     }
@@ -324,7 +373,7 @@ public final class DeviceIO
             throw new IllegalArgumentException("Cannot send message 'null'.");
         }
 
-        logger.LogInfo("Message with messageid %s along with callback and callbackContext is added to the queue, method name is %s ", message.getMessageId(), logger.getMethodName());
+        logger.LogInfo("Message with messageid %s along with callback and callbackContext is added to the queue, method name is %s ", message.getMessageId(), CustomLogger.METHOD_NAME);
         /* Codes_SRS_DEVICE_IO_21_040: [The sendEventAsync shall add the message, with its associated callback and callback context, to the transport.] */
         transport.addMessage(message, callback, callbackContext);
     }
@@ -401,8 +450,13 @@ public final class DeviceIO
         /* Codes_SRS_DEVICE_IO_21_033: [The setSendPeriodInMilliseconds shall store the new send period in milliseconds.] */
         this.sendPeriodInMilliseconds = newIntervalInMilliseconds;
 
+        /* Codes_SRS_DEVICE_IO_28_004: [If the event driven send is running, the setSendPeriodInMilliseconds shall change the retry period of the send loop to the new value.] */
+        if(this.sendLoop != null)
+        {
+            this.sendLoop.setRetryPeriodInMilliseconds(this.sendPeriodInMilliseconds);
+        }
         /* Codes_SRS_DEVICE_IO_21_034: [If the task scheduler already exists, the setSendPeriodInMilliseconds shall change the `scheduleAtFixedRate` for the sendTask to the new value.] */
-        if(this.taskScheduler != null)
+        else if(this.taskScheduler != null)
         {
             /* Codes_SRS_DEVICE_IO_21_035: [If the `sendTask` is null, the setSendPeriodInMilliseconds shall throw IOException.] */
             if(this.sendTask == null)
@@ -415,6 +469,40 @@ public final class DeviceIO
         }
     }
 
+    /**
+     * Getter for the send mode.
+     *
+     * @return a boolean true if the messages are sent as soon as they are added to the transport,
+     * or false if the transport is polled every send period.
+     */
+    public boolean isEventDrivenSend()
+    {
+        /* Codes_SRS_DEVICE_IO_28_005: [The isEventDrivenSend shall return the programed send mode.] */
+        return this.eventDrivenSend;
+    }
+
+    /**
+     * Setter for the send mode. In the event driven send mode, a dedicated thread sends the
+     * messages as soon as they are added to the transport, and parks while there is nothing
+     * to send. The send period is then only used to retry the messages that the transport
+     * could not send yet.
+     *
+     * @param eventDrivenSend is true to enable the event driven send mode, or false to
+     *                        poll the transport every send period.
+     * @throws IllegalStateException if the client is already open.
+     */
+    public void setEventDrivenSend(boolean eventDrivenSend)
+    {
+        /* Codes_SRS_DEVICE_IO_28_006: [If the client is open, the setEventDrivenSend shall throw IllegalStateException.] */
+        if (this.state == IotHubClientState.OPEN)
+        {
+            throw new IllegalStateException("send mode can only be changed when the client is closed");
+        }
+
+        /* Codes_SRS_DEVICE_IO_28_007: [The setEventDrivenSend shall store the new send mode.] */
+        this.eventDrivenSend = eventDrivenSend;
+    }
+
     /**
      * Getter for the transport protocol.
      *
@@ -447,6 +535,64 @@ public final class DeviceIO
         return this.transport.isEmpty();
     }
 
+    /**
+     * Getter for the number of messages waiting in the transport queue.
+     *
+     * @return the number of messages waiting to be sent.
+     */
+    public int getOutboundQueueSize()
+    {
+        /* Codes_SRS_DEVICE_IO_28_008: [The getOutboundQueueSize shall return the number of messages in the transport queue.] */
+        return this.transport.getOutboundQueueSize();
+    }
+
+    /**
+     * Getter for the number of message body bytes waiting in the transport queue.
+     *
+     * @return the number of message body bytes waiting to be sent.
+     */
+    public long getOutboundQueueSizeInBytes()
+    {
+        /* Codes_SRS_DEVICE_IO_28_009: [The getOutboundQueueSizeInBytes shall return the number of message body bytes in the transport queue.] */
+        return this.transport.getOutboundQueueSizeInBytes();
+    }
+
+    /**
+     * Getter for the current interval between two polls of the IoT Hub for messages. It is the
+     * adaptive polling interval of the HTTPS transport when enabled, and the receive period
+     * otherwise.
+     *
+     * @return the polling interval in milliseconds.
+     */
+    public long getPollingIntervalInMilliseconds()
+    {
+        /* Codes_SRS_DEVICE_IO_28_013: [If the transport is HTTPS with adaptive polling enabled, the getPollingIntervalInMilliseconds shall return its polling interval, and the receive period otherwise.] */
+        if (this.transport instanceof HttpsTransport)
+        {
+            long adaptiveInterval = ((HttpsTransport) this.transport).getPollingIntervalMillis();
+            if (adaptiveInterval > 0)
+            {
+                return adaptiveInterval;
+            }
+        }
+        return this.receivePeriodInMilliseconds;
+    }
+
+    /**
+     * Getter for the number of polls of the IoT Hub that found no message.
+     *
+     * @return the number of empty polls, or 0 if the transport does not poll the IoT Hub.
+     */
+    public long getEmptyPollCount()
+    {
+        /* Codes_SRS_DEVICE_IO_28_014: [If the transport is HTTPS, the getEmptyPollCount shall return the number of empty polls reported by the transport, and 0 otherwise.] */
+        if (this.transport instanceof HttpsTransport)
+        {
+            return ((HttpsTransport) this.transport).getEmptyPollCount();
+        }
+        return 0L;
+    }
+
     /**
      * Registers a callback with the configured transport to be executed whenever the connection to the device is lost or established.
      * 
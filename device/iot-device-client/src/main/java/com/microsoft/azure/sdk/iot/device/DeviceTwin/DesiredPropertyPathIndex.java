@@ -0,0 +1,408 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The subscriptions to nested desired properties, indexed by their path, such as
+ * {@code config.sampling.rateHz}, in a tree of path segments. The index keeps the desired
+ * document, so a patch is merged into it and matched against the subscriptions in one walk,
+ * which only descends where both the patch and the subscriptions go. A subscription is
+ * notified only when the value at its path changed.
+ *
+ * <p>Without a thread pool the callbacks run on the caller thread. With a pool, the callbacks
+ * of different subscriptions run at the same time, and the callbacks of one subscription run
+ * one at a time, in the order of the changes.</p>
+ */
+public final class DesiredPropertyPathIndex
+{
+    private static final String PATH_SEPARATOR = ".";
+    private static final String PATH_SEPARATOR_REGEX = "\\.";
+    private static final String METADATA_PREFIX = "$";
+
+    /** The subscriptions and the desired document, guarded by this. */
+    private final Node root = new Node();
+    private JsonObject desired = new JsonObject();
+
+    private final ExecutorService executor;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructor.
+     *
+     * @param threadPoolSize the number of threads that run the callbacks, or 0 to run them on the caller thread.
+     * @throws IllegalArgumentException if the thread pool size is negative.
+     */
+    public DesiredPropertyPathIndex(int threadPoolSize) throws IllegalArgumentException
+    {
+        // Codes_SRS_DESIREDPROPERTYPATHINDEX_28_001: [If the thread pool size is negative, the constructor shall throw IllegalArgumentException.]
+        if (threadPoolSize < 0)
+        {
+            throw new IllegalArgumentException("thread pool size can not be negative");
+        }
+
+        // Codes_SRS_DESIREDPROPERTYPATHINDEX_28_002: [If the thread pool size is not 0, the constructor shall
+        // create a pool of this size to run the callbacks.]
+        this.executor = (threadPoolSize == 0) ? null : Executors.newFixedThreadPool(threadPoolSize);
+    }
+
+    /**
+     * Checks if a path subscription starts at a top level desired property.
+     *
+     * @param propertyName the name of the top level property.
+     * @return {@code true} if the changes of this property are notified by the index.
+     */
+    public synchronized boolean isIndexed(String propertyName)
+    {
+        // Codes_SRS_DESIREDPROPERTYPATHINDEX_28_011: [The isIndexed shall return true if a subscribed path starts with the property.]
+        return this.root.children.containsKey(propertyName);
+    }
+
+    /**
+     * Checks if any path is subscribed, so the desired properties must be given to the index.
+     *
+     * @return {@code true} if the index has a subscription.
+     */
+    public synchronized boolean hasSubscriptions()
+    {
+        // Codes_SRS_DESIREDPROPERTYPATHINDEX_28_012: [The hasSubscriptions shall return true if a path is subscribed.]
+        return !this.root.children.isEmpty();
+    }
+
+    /**
+     * Subscribes to the changes of the desired property at a path, and replaces the previous
+     * subscription to this path if any.
+     *
+     * @param path the path of the property, with its segments separated by dots.
+     * @param callback the callback, called with the path and the new value, which is the text of a
+     *                 leaf, the json of an object, or {@code null} if the property was removed.
+     * @param context the context to pass to the callback. Can be {@code null}.
+     * @throws IllegalArgumentException if the path has an empty segment, or the callback is {@code null}.
+     */
+    public synchronized void subscribe(String path, PropertyCallBack<String, Object> callback, Object context) throws IllegalArgumentException
+    {
+        // Codes_SRS_DESIREDPROPERTYPATHINDEX_28_004: [If the path is null or has an empty segment, or the callback
+        // is null, the subscribe shall throw IllegalArgumentException.]
+        if (path == null || path.isEmpty() || path.startsWith(PATH_SEPARATOR) || path.endsWith(PATH_SEPARATOR) || callback == null)
+        {
+            throw new IllegalArgumentException("path and callback cannot be null or empty");
+        }
+        String[] segments = path.split(PATH_SEPARATOR_REGEX);
+        for (String segment : segments)
+        {
+            if (segment.isEmpty())
+            {
+                throw new IllegalArgumentException("path cannot have an empty segment = " + path);
+            }
+        }
+
+        // Codes_SRS_DESIREDPROPERTYPATHINDEX_28_005: [The subscribe shall store the subscription in the node of
+        // its path, and replace the previous subscription of the path.]
+        if (!this.root.children.containsKey(segments[0]))
+        {
+            // Codes_SRS_DESIREDPROPERTYPATHINDEX_28_013: [If no path started at the top level property of the path,
+            // the subscribe shall forget the value of this property, which the index is not given while it is not
+            // indexed, so its next change is notified.]
+            this.desired.remove(segments[0]);
+        }
+
+        Node node = this.root;
+        for (String segment : segments)
+        {
+            Node child = node.children.get(segment);
+            if (child == null)
+            {
+                child = new Node();
+                node.children.put(segment, child);
+            }
+            node = child;
+        }
+        node.subscription = new Subscription(callback, context);
+    }
+
+    /**
+     * Replaces the desired document, and notifies the subscriptions whose value changed.
+     *
+     * @param document the full desired document.
+     */
+    public void applyDocument(JsonObject document)
+    {
+        List<Notification> notifications = new ArrayList<>();
+        synchronized (this)
+        {
+            JsonObject newDesired = new JsonObject();
+            if (document != null)
+            {
+                for (Map.Entry<String, JsonElement> entry : document.entrySet())
+                {
+                    if (!entry.getKey().startsWith(METADATA_PREFIX) && !isAbsent(entry.getValue()))
+                    {
+                        newDesired.add(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+
+            // Codes_SRS_DESIREDPROPERTYPATHINDEX_28_006: [The applyDocument shall replace the desired document, and
+            // notify each subscription whose value is different in the new document, with null if the value was removed.]
+            for (Map.Entry<String, Node> child : this.root.children.entrySet())
+            {
+                collectChanges(child.getValue(), child.getKey(), this.desired.get(child.getKey()),
+                        newDesired.get(child.getKey()), notifications);
+            }
+            this.desired = newDesired;
+        }
+
+        dispatch(notifications);
+    }
+
+    /**
+     * Merges a patch into the desired document, and notifies the subscriptions whose value changed.
+     * The caller may skip the patches that change no indexed top level property.
+     *
+     * @param patch the desired properties patch, where a {@code null} value removes a property.
+     */
+    public void applyPatch(JsonObject patch)
+    {
+        if (patch == null)
+        {
+            return;
+        }
+
+        List<Notification> notifications = new ArrayList<>();
+        synchronized (this)
+        {
+            // Codes_SRS_DESIREDPROPERTYPATHINDEX_28_007: [The applyPatch shall merge the patch into the desired document,
+            // where objects are merged and a null value removes the property, and notify each subscription whose value
+            // changed, with null if the value was removed.]
+            for (Map.Entry<String, JsonElement> entry : patch.entrySet())
+            {
+                if (!entry.getKey().startsWith(METADATA_PREFIX))
+                {
+                    merge(this.desired, entry.getKey(), entry.getValue(), this.root.children.get(entry.getKey()),
+                            entry.getKey(), notifications);
+                }
+            }
+        }
+
+        dispatch(notifications);
+    }
+
+    /**
+     * Stops the pool that runs the callbacks, if any. The callbacks that wait are dropped.
+     */
+    public void close()
+    {
+        // Codes_SRS_DESIREDPROPERTYPATHINDEX_28_010: [The close shall stop the pool that runs the callbacks, if any.]
+        if (this.executor != null)
+        {
+            this.executor.shutdownNow();
+        }
+    }
+
+    private static boolean merge(JsonObject target, String key, JsonElement patchValue, Node node, String path,
+                                 List<Notification> notifications)
+    {
+        JsonElement oldValue = target.get(key);
+        if (patchValue != null && patchValue.isJsonObject() && oldValue != null && oldValue.isJsonObject())
+        {
+            JsonObject oldObject = oldValue.getAsJsonObject();
+            boolean changed = false;
+            for (Map.Entry<String, JsonElement> entry : patchValue.getAsJsonObject().entrySet())
+            {
+                Node child = (node == null) ? null : node.children.get(entry.getKey());
+                changed |= merge(oldObject, entry.getKey(), entry.getValue(), child, path + PATH_SEPARATOR + entry.getKey(), notifications);
+            }
+            if (changed && node != null && node.subscription != null)
+            {
+                notifications.add(new Notification(node.subscription, path, valueOf(oldObject)));
+            }
+            return changed;
+        }
+
+        boolean changed = (oldValue == null) ? !isAbsent(patchValue) : !oldValue.equals(patchValue);
+        if (!changed)
+        {
+            return false;
+        }
+
+        if (isAbsent(patchValue))
+        {
+            target.remove(key);
+        }
+        else
+        {
+            target.add(key, patchValue);
+        }
+
+        if (node != null)
+        {
+            collectChanges(node, path, oldValue, patchValue, notifications);
+        }
+        return true;
+    }
+
+    private static void collectChanges(Node node, String path, JsonElement oldValue, JsonElement newValue,
+                                       List<Notification> notifications)
+    {
+        // the subscriptions under an unchanged value are not visited.
+        if (isAbsent(oldValue) ? isAbsent(newValue) : oldValue.equals(newValue))
+        {
+            return;
+        }
+
+        for (Map.Entry<String, Node> child : node.children.entrySet())
+        {
+            collectChanges(child.getValue(), path + PATH_SEPARATOR + child.getKey(),
+                    member(oldValue, child.getKey()), member(newValue, child.getKey()), notifications);
+        }
+        if (node.subscription != null)
+        {
+            notifications.add(new Notification(node.subscription, path, valueOf(newValue)));
+        }
+    }
+
+    private void dispatch(List<Notification> notifications)
+    {
+        for (Notification notification : notifications)
+        {
+            // Codes_SRS_DESIREDPROPERTYPATHINDEX_28_008: [Without a pool, the callbacks shall run on the caller thread,
+            // after the desired document is updated.]
+            // Codes_SRS_DESIREDPROPERTYPATHINDEX_28_009: [With a pool, the callbacks of different subscriptions shall
+            // run at the same time, and the callbacks of one subscription shall run one at a time, in order.]
+            notification.subscription.submit(notification.path, notification.value);
+        }
+    }
+
+    private static JsonElement member(JsonElement element, String key)
+    {
+        return (element != null && element.isJsonObject()) ? element.getAsJsonObject().get(key) : null;
+    }
+
+    private static boolean isAbsent(JsonElement element)
+    {
+        return (element == null) || element.isJsonNull();
+    }
+
+    private static String valueOf(JsonElement element)
+    {
+        if (isAbsent(element))
+        {
+            return null;
+        }
+        return element.isJsonPrimitive() ? element.getAsString() : element.toString();
+    }
+
+    /** A segment of the paths, with the subscription of its path if any. */
+    private static final class Node
+    {
+        private final Map<String, Node> children = new HashMap<>();
+        private Subscription subscription;
+    }
+
+    /** A change to give to a subscription. */
+    private static final class Notification
+    {
+        private final Subscription subscription;
+        private final String path;
+        private final String value;
+
+        private Notification(Subscription subscription, String path, String value)
+        {
+            this.subscription = subscription;
+            this.path = path;
+            this.value = value;
+        }
+    }
+
+    /** A callback with its context, and its changes waiting for the pool. */
+    private final class Subscription implements Runnable
+    {
+        private final PropertyCallBack<String, Object> callback;
+        private final Object context;
+
+        /** The changes not given to the callback yet, guarded by this. */
+        private final Deque<String[]> pending = new ArrayDeque<>();
+        private boolean running = false;
+
+        private Subscription(PropertyCallBack<String, Object> callback, Object context)
+        {
+            this.callback = callback;
+            this.context = context;
+        }
+
+        private void submit(String path, String value)
+        {
+            if (executor == null)
+            {
+                this.callback.PropertyCall(path, value, this.context);
+                return;
+            }
+
+            synchronized (this)
+            {
+                this.pending.addLast(new String[] { path, value });
+                if (this.running)
+                {
+                    return;
+                }
+                this.running = true;
+            }
+
+            try
+            {
+                executor.execute(this);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the index is closed.
+                synchronized (this)
+                {
+                    this.pending.clear();
+                    this.running = false;
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                String[] change;
+                synchronized (this)
+                {
+                    change = this.pending.pollFirst();
+                    if (change == null)
+                    {
+                        this.running = false;
+                        return;
+                    }
+                }
+
+                try
+                {
+                    this.callback.PropertyCall(change[0], change[1], this.context);
+                }
+                catch (RuntimeException e)
+                {
+                    logger.LogError("Desired property callback of %s failed, method name is %s ", change[0], CustomLogger.METHOD_NAME);
+                }
+            }
+        }
+    }
+}
@@ -3,11 +3,16 @@
 
 package com.microsoft.azure.sdk.iot.device.DeviceTwin;
 
-import com.microsoft.azure.sdk.iot.deps.serializer.MethodParser;
 import com.microsoft.azure.sdk.iot.device.*;
 
+import java.util.concurrent.Callable;
+
 public final class DeviceMethod
 {
+    /** The status of the response to a method that has no handler. */
+    public static final int METHOD_NOT_IMPLEMENTED_STATUS = 501;
+    private static final String METHOD_NOT_IMPLEMENTED_MESSAGE = "method is not implemented";
+
     private DeviceMethodCallback deviceMethodCallback;
     private Object deviceMethodCallbackContext;
     private IotHubEventCallback deviceMethodStatusCallback;
@@ -19,6 +24,12 @@ public final class DeviceMethod
     private DeviceIO deviceIO;
     private DeviceClientConfig config;
 
+    /** The handlers registered per method name. */
+    private final DeviceMethodRegistry registry = new DeviceMethodRegistry();
+
+    /** Runs the invocations on a pool of threads, if the config has one, guarded by DEVICE_METHOD_LOCK. */
+    private DeviceMethodDispatcher dispatcher;
+
     private final CustomLogger logger = new CustomLogger(this.getClass());
 
     private final class deviceMethodResponseCallback implements MessageCallback
@@ -50,55 +61,51 @@ public final class DeviceMethod
                 {
                     case DEVICE_OPERATION_METHOD_RECEIVE_REQUEST:
 
-                        if (deviceMethodCallback != null)
+                        Callable<DeviceMethodData> invocation = bind(methodMessage);
+                        if (invocation == null)
                         {
-                            if (!isSubscribed)
-                            {
-                                isSubscribed = true;
-                            }
-                            try
+                            if (!registry.isEmpty())
                             {
                                 /*
-                                **Codes_SRS_DEVICEMETHOD_25_008: [**If the message is of type DeviceMethod and DEVICE_OPERATION_METHOD_RECEIVE_REQUEST then user registered device method callback gets invoked providing the user with method name and payload along with the user context. **]**
+                                **Codes_SRS_DEVICEMETHOD_28_006: [**If the method has no registered handler and no device method callback is subscribed, the callback shall answer at once with the status 501, without calling user code, and mark the message as complete.**]**
                                  */
-                                DeviceMethodData responseData = deviceMethodCallback.call(methodMessage.getMethodName(), methodMessage.getBytes(), deviceMethodCallbackContext);
-                                /*
-                                **Codes_SRS_DEVICEMETHOD_25_010: [**User is expected to provide response message and status upon invoking the device method callback.**]**
-                                 */
-                                if (responseData != null)
-                                {
-                                    /*
-                                    **Codes_SRS_DEVICEMETHOD_25_011: [**If the user callback is successful and user has successfully provided the response message and status, then this method shall build a device method message of type DEVICE_OPERATION_METHOD_SEND_RESPONSE, serilize the user data by invoking MethodParser from serializer and save the user data as payload in the message before sending it to IotHub via sendeventAsync before marking the result as complete**]**
-                                    **Codes_SRS_DEVICEMETHOD_25_015: [**User can provide null response message upon invoking the device method callback which will be serialized as is, before sending it to IotHub.**]**
-                                     */
-                                    MethodParser methodParserObject = new MethodParser(responseData.getResponseMessage());
-                                    DeviceMethodMessage responseMessage = new DeviceMethodMessage(methodParserObject.toJson().getBytes());
-                                    /*
-                                    **Codes_SRS_DEVICEMETHOD_25_012: [**The device method message sent to IotHub shall have same the request id as the invoking message.**]**
-                                     */
-                                    responseMessage.setRequestId(methodMessage.getRequestId());
-                                    /*
-                                    **Codes_SRS_DEVICEMETHOD_25_013: [**The device method message sent to IotHub shall have the status provided by the user as the message status.**]**
-                                     */
-                                    responseMessage.setStatus(String.valueOf(responseData.getStatus()));
-                                    responseMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_METHOD_SEND_RESPONSE);
-
-                                    deviceIO.sendEventAsync(responseMessage, new deviceMethodRequestMessageCallback(), null);
-                                    result = IotHubMessageResult.COMPLETE;
-                                }
-                                else
-                                {
-                                    logger.LogInfo("User callback did not send any data for response");
-                                    result = IotHubMessageResult.REJECT;
-                                    /*
-                                    **Codes_SRS_DEVICEMETHOD_25_014: [**If the user invoked callback failed for any reason then the user shall be notified on the status callback registered by the user as ERROR before marking the status of the sent message as Rejected.**]**
-                                     */
-                                    deviceMethodStatusCallback.execute(iotHubStatus, deviceMethodStatusCallbackContext);
-                                }
+                                sendResponse(methodMessage, new DeviceMethodData(METHOD_NOT_IMPLEMENTED_STATUS, METHOD_NOT_IMPLEMENTED_MESSAGE));
+                                result = IotHubMessageResult.COMPLETE;
                             }
-                            catch (Exception e)
+                            else
                             {
-                                logger.LogInfo("User callback did not succeed");
+                                logger.LogInfo("Received device method request, but device has not setup device method");
+                            }
+                            break;
+                        }
+
+                        if (!isSubscribed)
+                        {
+                            isSubscribed = true;
+                        }
+                        if (config.getDeviceMethodThreadPoolSize() > 0)
+                        {
+                            /*
+                            **Codes_SRS_DEVICEMETHOD_28_001: [**If the config has a device method thread pool, the callback shall hand the invocation to a DeviceMethodDispatcher, created once from the config, and mark the message as complete without waiting for the user callback.**]**
+                             */
+                            dispatch(methodMessage, invocation);
+                            result = IotHubMessageResult.COMPLETE;
+                            break;
+                        }
+                        try
+                        {
+                            DeviceMethodData responseData = invocation.call();
+                            /*
+                            **Codes_SRS_DEVICEMETHOD_25_010: [**User is expected to provide response message and status upon invoking the device method callback.**]**
+                             */
+                            if (responseData != null)
+                            {
+                                sendResponse(methodMessage, responseData);
+                                result = IotHubMessageResult.COMPLETE;
+                            }
+                            else
+                            {
+                                logger.LogInfo("User callback did not send any data for response");
                                 result = IotHubMessageResult.REJECT;
                                 /*
                                 **Codes_SRS_DEVICEMETHOD_25_014: [**If the user invoked callback failed for any reason then the user shall be notified on the status callback registered by the user as ERROR before marking the status of the sent message as Rejected.**]**
@@ -106,9 +113,14 @@ public final class DeviceMethod
                                 deviceMethodStatusCallback.execute(iotHubStatus, deviceMethodStatusCallbackContext);
                             }
                         }
-                        else
+                        catch (Exception e)
                         {
-                            logger.LogInfo("Received device method request, but device has not setup device method");
+                            logger.LogInfo("User callback did not succeed");
+                            result = IotHubMessageResult.REJECT;
+                            /*
+                            **Codes_SRS_DEVICEMETHOD_25_014: [**If the user invoked callback failed for any reason then the user shall be notified on the status callback registered by the user as ERROR before marking the status of the sent message as Rejected.**]**
+                             */
+                            deviceMethodStatusCallback.execute(iotHubStatus, deviceMethodStatusCallbackContext);
                         }
                         break;
 
@@ -122,6 +134,93 @@ public final class DeviceMethod
         }
     }
 
+    private Callable<DeviceMethodData> bind(final DeviceMethodMessage methodMessage)
+    {
+        /*
+        **Codes_SRS_DEVICEMETHOD_28_005: [**The callback shall invoke the handler registered for the method name if any, and the device method callback otherwise.**]**
+         */
+        Callable<DeviceMethodData> invocation = this.registry.bind(methodMessage.getMethodName(), methodMessage.getBytes());
+        if (invocation == null && this.deviceMethodCallback != null)
+        {
+            final DeviceMethodCallback methodCallback = this.deviceMethodCallback;
+            final Object methodCallbackContext = this.deviceMethodCallbackContext;
+            invocation = new Callable<DeviceMethodData>()
+            {
+                @Override
+                public DeviceMethodData call()
+                {
+                    /*
+                    **Codes_SRS_DEVICEMETHOD_25_008: [**If the message is of type DeviceMethod and DEVICE_OPERATION_METHOD_RECEIVE_REQUEST then user registered device method callback gets invoked providing the user with method name and payload along with the user context. **]**
+                     */
+                    return methodCallback.call(methodMessage.getMethodName(), methodMessage.getBytes(), methodCallbackContext);
+                }
+            };
+        }
+        return invocation;
+    }
+
+    private void dispatch(final DeviceMethodMessage methodMessage, Callable<DeviceMethodData> invocation)
+    {
+        if (this.dispatcher == null)
+        {
+            this.dispatcher = new DeviceMethodDispatcher(this.config.getDeviceMethodThreadPoolSize(),
+                    this.config.getDeviceMethodMaxConcurrentInvocations(),
+                    this.config.getDeviceMethodResponseTimeoutSecs() * 1000L);
+        }
+
+        this.dispatcher.dispatch(methodMessage.getMethodName(), invocation,
+                new DeviceMethodDispatcher.Responder()
+                {
+                    @Override
+                    public void respond(DeviceMethodData responseData)
+                    {
+                        if (responseData != null)
+                        {
+                            /*
+                            **Codes_SRS_DEVICEMETHOD_28_002: [**When the dispatcher gives the response of an invocation, the callback shall send it to IotHub at once, as for an invocation run on the receive thread.**]**
+                             */
+                            sendResponse(methodMessage, responseData);
+                        }
+                        else
+                        {
+                            /*
+                            **Codes_SRS_DEVICEMETHOD_28_003: [**If the dispatched user callback failed or gave no response, the user shall be notified on the status callback registered by the user as ERROR.**]**
+                             */
+                            logger.LogInfo("User callback did not succeed");
+                            deviceMethodStatusCallback.execute(IotHubStatusCode.ERROR, deviceMethodStatusCallbackContext);
+                        }
+                    }
+                });
+    }
+
+    private void sendResponse(DeviceMethodMessage methodMessage, DeviceMethodData responseData)
+    {
+        /*
+        **Codes_SRS_DEVICEMETHOD_25_011: [**If the user callback is successful and user has successfully provided the response message and status, then this method shall build a device method message of type DEVICE_OPERATION_METHOD_SEND_RESPONSE, serilize the user data by invoking MethodParser from serializer and save the user data as payload in the message before sending it to IotHub via sendeventAsync before marking the result as complete**]**
+        **Codes_SRS_DEVICEMETHOD_25_015: [**User can provide null response message upon invoking the device method callback which will be serialized as is, before sending it to IotHub.**]**
+         */
+        byte[] payload = responseData.getEncodedResponse();
+        if (payload == null)
+        {
+            /*
+            **Codes_SRS_DEVICEMETHOD_28_009: [**The response message shall be serialized as a json string by the shared STRING codec, without creating a serializer per response, unless a registered codec already encoded the response.**]**
+             */
+            payload = DeviceMethodCodecs.STRING.encode(responseData.getResponseMessage());
+        }
+        DeviceMethodMessage responseMessage = new DeviceMethodMessage(payload);
+        /*
+        **Codes_SRS_DEVICEMETHOD_25_012: [**The device method message sent to IotHub shall have same the request id as the invoking message.**]**
+         */
+        responseMessage.setRequestId(methodMessage.getRequestId());
+        /*
+        **Codes_SRS_DEVICEMETHOD_25_013: [**The device method message sent to IotHub shall have the status provided by the user as the message status.**]**
+         */
+        responseMessage.setStatus(String.valueOf(responseData.getStatus()));
+        responseMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_METHOD_SEND_RESPONSE);
+
+        deviceIO.sendEventAsync(responseMessage, new deviceMethodRequestMessageCallback(), null);
+    }
+
     private final class deviceMethodRequestMessageCallback implements IotHubEventCallback
     {
         @Override
@@ -197,16 +296,73 @@ public final class DeviceMethod
         this.deviceMethodCallbackContext = deviceMethodCallbackContext;
 
         if (!isSubscribed)
+        {
+            subscribe();
+        }
+
+    }
+
+    /**
+     * Registers the handler of one device method, and subscribes to the device methods with the
+     * IotHub when the first handler is registered. A registered handler takes precedence over the
+     * device method callback. If no device method callback is subscribed, the invocations of a
+     * method without handler are answered with the status 501.
+     *
+     * @param methodName the name of the method.
+     * @param requestCodec the codec of the request payload.
+     * @param responseCodec the codec of the response payload.
+     * @param handler the handler of the method.
+     * @param handlerContext the context to pass to the handler. Can be {@code null}.
+     * @param <Q> the type of the request payload.
+     * @param <R> the type of the response payload.
+     * @throws IllegalArgumentException if the method name is {@code null} or empty, or if a codec or the handler is {@code null}.
+     */
+    public <Q, R> void registerDeviceMethod(String methodName, DeviceMethodCodec<Q> requestCodec, DeviceMethodCodec<R> responseCodec,
+                                            DeviceMethodHandler<Q, R> handler, Object handlerContext) throws IllegalArgumentException
+    {
+        boolean firstSubscription = this.registry.isEmpty() && this.deviceMethodCallback == null;
+
+        /*
+        **Codes_SRS_DEVICEMETHOD_28_007: [**The registerDeviceMethod shall register the handler with its codecs in the registry, and throw IllegalArgumentException if one of them is not valid.**]**
+         */
+        this.registry.register(methodName, requestCodec, responseCodec, handler, handlerContext);
+
+        if (firstSubscription && !isSubscribed)
         {
             /*
-            **Codes_SRS_DEVICEMETHOD_25_005: [**If not already subscribed then this method shall create a device method message with empty payload and set its type as DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST.**]**
-            **Codes_SRS_DEVICEMETHOD_25_006: [**If not already subscribed then this method shall send the message using sendEventAsync.**]**
+            **Codes_SRS_DEVICEMETHOD_28_008: [**If it is the first handler and no device method callback is subscribed, the registerDeviceMethod shall subscribe to the device methods with the IotHub.**]**
              */
-            DeviceMethodMessage subscribeMessage = new DeviceMethodMessage(new byte[0]);
-            subscribeMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST);
-            this.deviceIO.sendEventAsync(subscribeMessage, new deviceMethodRequestMessageCallback(), null);
+            subscribe();
         }
+    }
 
+    private void subscribe()
+    {
+        /*
+        **Codes_SRS_DEVICEMETHOD_25_005: [**If not already subscribed then this method shall create a device method message with empty payload and set its type as DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST.**]**
+        **Codes_SRS_DEVICEMETHOD_25_006: [**If not already subscribed then this method shall send the message using sendEventAsync.**]**
+         */
+        DeviceMethodMessage subscribeMessage = new DeviceMethodMessage(new byte[0]);
+        subscribeMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST);
+        this.deviceIO.sendEventAsync(subscribeMessage, new deviceMethodRequestMessageCallback(), null);
     }
 
+    /**
+     * Stops the threads that run the device method invocations, if any. An invocation
+     * received later starts them again.
+     */
+    public void close()
+    {
+        synchronized (DEVICE_METHOD_LOCK)
+        {
+            if (this.dispatcher != null)
+            {
+                /*
+                **Codes_SRS_DEVICEMETHOD_28_004: [**The close shall close the dispatcher, if any, and forget it.**]**
+                 */
+                this.dispatcher.close();
+                this.dispatcher = null;
+            }
+        }
+    }
 }
@@ -0,0 +1,29 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+/**
+ * Converts the payload of a device method between its bytes on the wire and the type the handler works with.
+ *
+ * @param <T> the type of the payload for the handler.
+ */
+public interface DeviceMethodCodec<T>
+{
+    /**
+     * Reads the payload of a request.
+     *
+     * @param payload the payload received from the IoT Hub.
+     * @return the payload for the handler.
+     * @throws IllegalArgumentException if the payload is not valid for this codec.
+     */
+    T decode(byte[] payload) throws IllegalArgumentException;
+
+    /**
+     * Writes the payload of a response.
+     *
+     * @param value the payload given by the handler. Can be {@code null}.
+     * @return the payload to send to the IoT Hub.
+     */
+    byte[] encode(T value);
+}
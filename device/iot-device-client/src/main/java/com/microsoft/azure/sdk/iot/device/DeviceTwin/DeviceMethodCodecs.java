@@ -0,0 +1,124 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The codecs for the payloads of the device methods.
+ */
+public final class DeviceMethodCodecs
+{
+    private static final Charset PAYLOAD_CHARSET = StandardCharsets.UTF_8;
+
+    /** One instance for all the json codecs, since Gson is thread safe and caches its type adapters. */
+    private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+
+    /**
+     * Passes the payload as is, in both directions.
+     */
+    public static final DeviceMethodCodec<byte[]> BYTES = new DeviceMethodCodec<byte[]>()
+    {
+        @Override
+        public byte[] decode(byte[] payload)
+        {
+            /* Codes_SRS_DEVICEMETHODCODECS_28_001: [The BYTES codec shall pass the payload as is, in both directions.] */
+            return payload;
+        }
+
+        @Override
+        public byte[] encode(byte[] value)
+        {
+            /* Codes_SRS_DEVICEMETHODCODECS_28_001: [The BYTES codec shall pass the payload as is, in both directions.] */
+            return value;
+        }
+    };
+
+    /**
+     * Reads the request as UTF-8 text, and writes the response as a json string,
+     * as the responses of a {@link DeviceMethodCallback} are.
+     */
+    public static final DeviceMethodCodec<String> STRING = new DeviceMethodCodec<String>()
+    {
+        @Override
+        public String decode(byte[] payload)
+        {
+            /* Codes_SRS_DEVICEMETHODCODECS_28_002: [The STRING codec shall decode the payload as UTF-8 text.] */
+            return (payload == null) ? null : new String(payload, PAYLOAD_CHARSET);
+        }
+
+        @Override
+        public byte[] encode(String value)
+        {
+            /* Codes_SRS_DEVICEMETHODCODECS_28_003: [The STRING codec shall encode the value as a json string, or as
+             * the json null if the value is null.] */
+            String json = (value == null) ? JsonNull.INSTANCE.toString() : new JsonPrimitive(value).toString();
+            return json.getBytes(PAYLOAD_CHARSET);
+        }
+    };
+
+    private DeviceMethodCodecs()
+    {
+    }
+
+    /**
+     * Creates a codec that reads and writes the payloads as json documents of the provided type.
+     * The type is resolved once, when the codec is created.
+     *
+     * @param type the class of the payload.
+     * @param <T> the type of the payload.
+     * @return the codec.
+     * @throws IllegalArgumentException if the type is {@code null}.
+     */
+    public static <T> DeviceMethodCodec<T> json(Class<T> type) throws IllegalArgumentException
+    {
+        /* Codes_SRS_DEVICEMETHODCODECS_28_004: [If the type is null, the json shall throw IllegalArgumentException.] */
+        if (type == null)
+        {
+            throw new IllegalArgumentException("type cannot be null");
+        }
+
+        /* Codes_SRS_DEVICEMETHODCODECS_28_005: [The json shall resolve the json adapter of the type once, when the codec is created.] */
+        final TypeAdapter<T> adapter = GSON.getAdapter(type);
+        return new DeviceMethodCodec<T>()
+        {
+            @Override
+            public T decode(byte[] payload) throws IllegalArgumentException
+            {
+                if (payload == null)
+                {
+                    return null;
+                }
+
+                try
+                {
+                    /* Codes_SRS_DEVICEMETHODCODECS_28_006: [The json codec shall decode the payload as a json document of the type.] */
+                    return adapter.fromJson(new String(payload, PAYLOAD_CHARSET));
+                }
+                catch (IOException | JsonParseException | IllegalStateException e)
+                {
+                    /* Codes_SRS_DEVICEMETHODCODECS_28_007: [If the payload is not a json document of the type, the
+                     * json codec shall throw IllegalArgumentException.] */
+                    throw new IllegalArgumentException("payload is not a valid json document: " + e.getMessage());
+                }
+            }
+
+            @Override
+            public byte[] encode(T value)
+            {
+                /* Codes_SRS_DEVICEMETHODCODECS_28_008: [The json codec shall encode the value as a json document, with its null fields.] */
+                return adapter.toJson(value).getBytes(PAYLOAD_CHARSET);
+            }
+        };
+    }
+}
@@ -8,6 +8,9 @@ public class DeviceMethodData
     private int status;
     private String responseMessage;
 
+    /** The response payload already encoded by the codec of a registered handler, if any. */
+    private byte[] encodedResponse;
+
     public DeviceMethodData(int status, String responseMessage)
     {
         /*
@@ -48,4 +51,20 @@ public class DeviceMethodData
          */
         this.status = status;
     }
+
+    byte[] getEncodedResponse()
+    {
+        /*
+        **Codes_SRS_DEVICEMETHODDATA_28_001: [**This method shall return the encoded response previously set, or null.**]**
+         */
+        return encodedResponse;
+    }
+
+    void setEncodedResponse(byte[] encodedResponse)
+    {
+        /*
+        **Codes_SRS_DEVICEMETHODDATA_28_002: [**This method shall save the response payload encoded by a registered codec, which is sent in place of the response message.**]**
+         */
+        this.encodedResponse = encodedResponse;
+    }
 }
@@ -0,0 +1,344 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the device method invocations on a pool of threads, so a slow method does not hold
+ * the receive thread, nor the other methods. Each method name runs a bounded number of
+ * invocations at the same time, and queues the others in order of arrival. An invocation
+ * that does not answer within the response timeout is answered with a timeout status, as
+ * the IoT Hub would, and its handler is interrupted. The handler keeps its place among the
+ * running invocations of its method until it really returns, so a handler that ignores the
+ * interruption still counts against the limit.
+ */
+public final class DeviceMethodDispatcher
+{
+    /** The status of the response sent when a handler overruns the response timeout. */
+    public static final int METHOD_TIMEOUT_STATUS = 504;
+    private static final String METHOD_TIMEOUT_MESSAGE = "method did not answer within the response timeout";
+
+    /**
+     * Receives the response of an invocation.
+     */
+    public interface Responder
+    {
+        /**
+         * Called once per invocation, with the response to send to the IoT Hub.
+         *
+         * @param responseData the response, or {@code null} if the handler failed or gave no response.
+         */
+        void respond(DeviceMethodData responseData);
+    }
+
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final int maxConcurrentInvocations;
+    private final long responseTimeoutMillis;
+
+    /** The invocations of each method name that run or wait, guarded by this. */
+    private final Map<String, MethodInvocations> methods = new HashMap<>();
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructor.
+     *
+     * @param threadPoolSize the number of threads that run the handlers.
+     * @param maxConcurrentInvocations the number of invocations of the same method name that run at the same time.
+     * @param responseTimeoutMillis the time, in milliseconds, an invocation has to answer after it was received.
+     * @throws IllegalArgumentException if one of the parameters is zero or negative.
+     */
+    public DeviceMethodDispatcher(int threadPoolSize, int maxConcurrentInvocations, long responseTimeoutMillis)
+    {
+        // Codes_SRS_DEVICEMETHODDISPATCHER_28_001: [If one of the parameters is zero or negative, the constructor shall throw IllegalArgumentException.]
+        if (threadPoolSize <= 0 || maxConcurrentInvocations <= 0 || responseTimeoutMillis <= 0)
+        {
+            throw new IllegalArgumentException("dispatcher parameters can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICEMETHODDISPATCHER_28_002: [The constructor shall create a pool of `threadPoolSize` threads to run the handlers.]
+        this.executor = Executors.newFixedThreadPool(threadPoolSize);
+        this.timer = Executors.newSingleThreadScheduledExecutor();
+        this.maxConcurrentInvocations = maxConcurrentInvocations;
+        this.responseTimeoutMillis = responseTimeoutMillis;
+    }
+
+    /**
+     * Runs an invocation on the pool, and hands its response to the responder as soon as it is known.
+     *
+     * @param methodName the name of the invoked method.
+     * @param handler the handler that gives the response of the invocation.
+     * @param responder the receiver of the response.
+     * @throws IllegalArgumentException if one of the parameters is {@code null}.
+     */
+    public void dispatch(String methodName, Callable<DeviceMethodData> handler, Responder responder)
+    {
+        // Codes_SRS_DEVICEMETHODDISPATCHER_28_003: [If one of the parameters is null, the function shall throw IllegalArgumentException.]
+        if (methodName == null || handler == null || responder == null)
+        {
+            throw new IllegalArgumentException("method name, handler and responder can not be null");
+        }
+
+        final Invocation invocation = new Invocation(methodName, handler, responder);
+        boolean canStart;
+        synchronized (this)
+        {
+            MethodInvocations invocations = this.methods.get(methodName);
+            if (invocations == null)
+            {
+                invocations = new MethodInvocations();
+                this.methods.put(methodName, invocations);
+            }
+
+            // Codes_SRS_DEVICEMETHODDISPATCHER_28_005: [If `maxConcurrentInvocations` invocations of the method
+            // run, the function shall queue the invocation until one of them returns.]
+            canStart = invocations.running < this.maxConcurrentInvocations;
+            if (canStart)
+            {
+                invocations.running++;
+                invocation.started = true;
+            }
+            else
+            {
+                invocations.waiting.addLast(invocation);
+            }
+        }
+
+        try
+        {
+            // Codes_SRS_DEVICEMETHODDISPATCHER_28_009: [If the handler does not return within the response timeout, the
+            // dispatcher shall give a response with the status 504 to the responder, and interrupt the handler.]
+            // The timeout counts from the arrival of the invocation, as it does for the IoT Hub.
+            invocation.timeoutFuture = this.timer.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    finish(invocation, new DeviceMethodData(METHOD_TIMEOUT_STATUS, METHOD_TIMEOUT_MESSAGE), true);
+                }
+            }, this.responseTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the dispatcher is closed.
+            abandon(invocation);
+            return;
+        }
+
+        if (canStart)
+        {
+            // Codes_SRS_DEVICEMETHODDISPATCHER_28_004: [The function shall run the handler on the pool.]
+            start(invocation);
+        }
+    }
+
+    /**
+     * Stops the pool. The handlers that run are interrupted, and the queued invocations are dropped.
+     */
+    public void close()
+    {
+        // Codes_SRS_DEVICEMETHODDISPATCHER_28_011: [The function shall stop the pool and the timer, and drop the queued invocations.]
+        this.executor.shutdownNow();
+        this.timer.shutdownNow();
+        synchronized (this)
+        {
+            this.methods.clear();
+        }
+    }
+
+    private void start(final Invocation invocation)
+    {
+        try
+        {
+            invocation.handlerFuture = this.executor.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    // The timeout only interrupts a handler that runs, so a task that did not start yet still runs and frees the slot.
+                    invocation.running = true;
+                    DeviceMethodData responseData = null;
+                    Invocation next;
+                    try
+                    {
+                        // Codes_SRS_DEVICEMETHODDISPATCHER_28_008: [If the response timeout of a queued invocation passed before it
+                        // could run, the dispatcher shall answer it with the timeout status without running its handler.]
+                        if (!invocation.answered.get())
+                        {
+                            try
+                            {
+                                responseData = invocation.handler.call();
+                            }
+                            catch (Exception e)
+                            {
+                                // Codes_SRS_DEVICEMETHODDISPATCHER_28_007: [If the handler throws, the dispatcher shall give a null response to the responder.]
+                                logger.LogInfo("Device method %s failed, method name is %s ", invocation.methodName, CustomLogger.METHOD_NAME);
+                            }
+                        }
+                    }
+                    finally
+                    {
+                        // Codes_SRS_DEVICEMETHODDISPATCHER_28_013: [An invocation shall keep its place among the running
+                        // invocations of its method until its handler returns, even if it was answered by the timeout.]
+                        next = release(invocation);
+                    }
+
+                    try
+                    {
+                        // Codes_SRS_DEVICEMETHODDISPATCHER_28_006: [When the handler returns, the dispatcher shall give its response to the responder.]
+                        finish(invocation, responseData, false);
+                    }
+                    finally
+                    {
+                        if (next != null)
+                        {
+                            start(next);
+                        }
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the dispatcher is closed.
+            abandon(invocation);
+        }
+    }
+
+    /**
+     * Gives up an invocation whose handler will never run, and answers it with a null response.
+     */
+    private void abandon(Invocation invocation)
+    {
+        Invocation next = release(invocation);
+        try
+        {
+            finish(invocation, null, false);
+        }
+        finally
+        {
+            if (next != null)
+            {
+                start(next);
+            }
+        }
+    }
+
+    /**
+     * Frees the place of an invocation, and gives it to the next queued invocation of the same method.
+     *
+     * @return the queued invocation to start, or {@code null} if there is none.
+     */
+    private synchronized Invocation release(Invocation invocation)
+    {
+        // Codes_SRS_DEVICEMETHODDISPATCHER_28_010: [Once the handler of an invocation returns, the dispatcher shall
+        // run the next queued invocation of the same method.]
+        Invocation next = null;
+        MethodInvocations invocations = this.methods.get(invocation.methodName);
+        if (invocations != null)
+        {
+            if (!invocation.started)
+            {
+                // a queued invocation gives up its place.
+                invocations.waiting.remove(invocation);
+            }
+            else
+            {
+                next = invocations.waiting.pollFirst();
+                if (next == null)
+                {
+                    invocations.running--;
+                }
+                else
+                {
+                    next.started = true;
+                }
+            }
+            if (invocations.running <= 0 && invocations.waiting.isEmpty())
+            {
+                this.methods.remove(invocation.methodName);
+            }
+        }
+        return next;
+    }
+
+    private void finish(Invocation invocation, DeviceMethodData responseData, boolean timedOut)
+    {
+        if (!invocation.answered.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        if (timedOut)
+        {
+            synchronized (this)
+            {
+                if (!invocation.started)
+                {
+                    // a queued invocation never runs, so it gives up its place now.
+                    release(invocation);
+                }
+            }
+
+            // The slot stays held until the interrupted handler returns.
+            Future<?> handlerFuture = invocation.handlerFuture;
+            if (invocation.running && (handlerFuture != null))
+            {
+                handlerFuture.cancel(true);
+            }
+        }
+        else if (invocation.timeoutFuture != null)
+        {
+            invocation.timeoutFuture.cancel(false);
+        }
+
+        invocation.responder.respond(responseData);
+    }
+
+    /** The invocations of one method name. */
+    private static final class MethodInvocations
+    {
+        private int running;
+        private final Deque<Invocation> waiting = new ArrayDeque<>();
+    }
+
+    /** One invocation of a method, answered once. */
+    private static final class Invocation
+    {
+        private final String methodName;
+        private final Callable<DeviceMethodData> handler;
+        private final Responder responder;
+        private final AtomicBoolean answered = new AtomicBoolean(false);
+        private volatile Future<?> handlerFuture;
+        private volatile Future<?> timeoutFuture;
+
+        /** If the invocation holds a slot of its method, guarded by the dispatcher. */
+        private boolean started;
+
+        /** If the handler task runs on the pool. */
+        private volatile boolean running;
+
+        private Invocation(String methodName, Callable<DeviceMethodData> handler, Responder responder)
+        {
+            this.methodName = methodName;
+            this.handler = handler;
+            this.responder = responder;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+/**
+ * Handles the invocations of one device method.
+ *
+ * @param <Q> the type of the request payload.
+ * @param <R> the type of the response payload.
+ */
+public interface DeviceMethodHandler<Q, R>
+{
+    /**
+     * Called for each invocation of the method the handler is registered for.
+     *
+     * @param request the decoded request payload.
+     * @param context the context given at registration.
+     * @return the status and payload of the response.
+     */
+    DeviceMethodResult<R> call(Q request, Object context);
+}
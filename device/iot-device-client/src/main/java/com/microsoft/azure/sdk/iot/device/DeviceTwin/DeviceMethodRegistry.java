@@ -0,0 +1,134 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The handlers of the device methods, indexed by method name. Each handler is bound to its codecs when
+ * it is registered, so an invocation costs one lookup and no reflection.
+ */
+public final class DeviceMethodRegistry
+{
+    private static final int INVALID_REQUEST_STATUS = 400;
+
+    private final Map<String, RegisteredMethod<?, ?>> methods = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the handler of a method, and replaces the previous one if any.
+     *
+     * @param methodName the name of the method.
+     * @param requestCodec the codec of the request payload.
+     * @param responseCodec the codec of the response payload.
+     * @param handler the handler of the method.
+     * @param handlerContext the context to pass to the handler. Can be {@code null}.
+     * @param <Q> the type of the request payload.
+     * @param <R> the type of the response payload.
+     * @throws IllegalArgumentException if the method name is {@code null} or empty, or if a codec or the handler is {@code null}.
+     */
+    public <Q, R> void register(String methodName, DeviceMethodCodec<Q> requestCodec, DeviceMethodCodec<R> responseCodec,
+                                DeviceMethodHandler<Q, R> handler, Object handlerContext) throws IllegalArgumentException
+    {
+        /* Codes_SRS_DEVICEMETHODREGISTRY_28_001: [If the method name is null or empty, or a codec or the handler
+         * is null, the register shall throw IllegalArgumentException.] */
+        if (methodName == null || methodName.isEmpty())
+        {
+            throw new IllegalArgumentException("method name cannot be null or empty");
+        }
+        if (requestCodec == null || responseCodec == null || handler == null)
+        {
+            throw new IllegalArgumentException("codecs and handler cannot be null");
+        }
+
+        /* Codes_SRS_DEVICEMETHODREGISTRY_28_002: [The register shall store the handler with its codecs and context
+         * under the method name, and replace the previous handler of the method.] */
+        this.methods.put(methodName, new RegisteredMethod<>(requestCodec, responseCodec, handler, handlerContext));
+    }
+
+    /**
+     * Checks if no handler is registered.
+     *
+     * @return {@code true} if there is no handler.
+     */
+    public boolean isEmpty()
+    {
+        /* Codes_SRS_DEVICEMETHODREGISTRY_28_004: [The isEmpty shall return true if no handler is registered.] */
+        return this.methods.isEmpty();
+    }
+
+    /**
+     * Binds an invocation to the handler of its method.
+     *
+     * @param methodName the name of the invoked method.
+     * @param payload the payload of the request.
+     * @return the invocation, which gives the response with its payload already encoded, or the status 400
+     *          if the payload cannot be decoded, or {@code null} if the method has no handler.
+     */
+    public Callable<DeviceMethodData> bind(String methodName, byte[] payload)
+    {
+        /* Codes_SRS_DEVICEMETHODREGISTRY_28_005: [If the method has no handler, the bind shall return null.] */
+        RegisteredMethod<?, ?> method = (methodName == null) ? null : this.methods.get(methodName);
+        if (method == null)
+        {
+            return null;
+        }
+
+        return method.bind(payload);
+    }
+
+    /** A handler bound to its codecs. */
+    private static final class RegisteredMethod<Q, R>
+    {
+        private final DeviceMethodCodec<Q> requestCodec;
+        private final DeviceMethodCodec<R> responseCodec;
+        private final DeviceMethodHandler<Q, R> handler;
+        private final Object handlerContext;
+
+        private RegisteredMethod(DeviceMethodCodec<Q> requestCodec, DeviceMethodCodec<R> responseCodec,
+                                 DeviceMethodHandler<Q, R> handler, Object handlerContext)
+        {
+            this.requestCodec = requestCodec;
+            this.responseCodec = responseCodec;
+            this.handler = handler;
+            this.handlerContext = handlerContext;
+        }
+
+        private Callable<DeviceMethodData> bind(final byte[] payload)
+        {
+            return new Callable<DeviceMethodData>()
+            {
+                @Override
+                public DeviceMethodData call()
+                {
+                    /* Codes_SRS_DEVICEMETHODREGISTRY_28_006: [The invocation shall decode the payload with the request
+                     * codec, call the handler with its context, and encode the response payload with the response codec.] */
+                    Q request;
+                    try
+                    {
+                        request = requestCodec.decode(payload);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        /* Codes_SRS_DEVICEMETHODREGISTRY_28_008: [If the request codec cannot decode the payload, the
+                         * invocation shall not call the handler, and shall return the status 400 with the reason as message.] */
+                        return new DeviceMethodData(INVALID_REQUEST_STATUS, e.getMessage());
+                    }
+                    DeviceMethodResult<R> result = handler.call(request, handlerContext);
+
+                    /* Codes_SRS_DEVICEMETHODREGISTRY_28_007: [If the handler gives no result, the invocation shall return null.] */
+                    if (result == null)
+                    {
+                        return null;
+                    }
+
+                    DeviceMethodData responseData = new DeviceMethodData(result.getStatus(), null);
+                    responseData.setEncodedResponse(responseCodec.encode(result.getPayload()));
+                    return responseData;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,50 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+/**
+ * The response of a {@link DeviceMethodHandler}, with a typed payload.
+ *
+ * @param <R> the type of the response payload.
+ */
+public final class DeviceMethodResult<R>
+{
+    private final int status;
+    private final R payload;
+
+    /**
+     * Constructor.
+     *
+     * @param status the status of the response.
+     * @param payload the payload of the response. Can be {@code null}.
+     */
+    public DeviceMethodResult(int status, R payload)
+    {
+        /* Codes_SRS_DEVICEMETHODRESULT_28_001: [The constructor shall save the status and the payload.] */
+        this.status = status;
+        this.payload = payload;
+    }
+
+    /**
+     * Getter for the status.
+     *
+     * @return the status of the response.
+     */
+    public int getStatus()
+    {
+        /* Codes_SRS_DEVICEMETHODRESULT_28_002: [The getStatus shall return the status given to the constructor.] */
+        return this.status;
+    }
+
+    /**
+     * Getter for the payload.
+     *
+     * @return the payload of the response.
+     */
+    public R getPayload()
+    {
+        /* Codes_SRS_DEVICEMETHODRESULT_28_003: [The getPayload shall return the payload given to the constructor.] */
+        return this.payload;
+    }
+}
@@ -3,29 +3,46 @@
 
 package com.microsoft.azure.sdk.iot.device.DeviceTwin;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.microsoft.azure.sdk.iot.deps.serializer.TwinChangedCallback;
 import com.microsoft.azure.sdk.iot.deps.serializer.TwinParser;
 import com.microsoft.azure.sdk.iot.device.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.microsoft.azure.sdk.iot.device.IotHubMessageResult.ABANDON;
 import static com.microsoft.azure.sdk.iot.device.IotHubMessageResult.COMPLETE;
 
 public class DeviceTwin
 {
-    private int requestId;
+    private final AtomicInteger requestId = new AtomicInteger();
     private TwinParser twinParser = null;
     private DeviceIO deviceIO = null;
     private DeviceClientConfig config = null;
     private boolean isSubscribed = false;
 
     private final Object DEVICE_TWIN_LOCK = new Object();
+    private final Object REPORTED_PROPERTIES_LOCK = new Object();
 
     /*
         Callback to respond to user on all of its status
@@ -45,6 +62,47 @@ public class DeviceTwin
 
     private ConcurrentSkipListMap<String, Pair<PropertyCallBack<String, Object>, Object>> onDesiredPropertyChangeMap;
 
+    /*
+        Callbacks of the reported properties updates waiting for the response of their patch, by request id
+     */
+    private final Map<String, List<Pair<IotHubEventCallback, Object>>> reportedPropertiesCallbacks = new ConcurrentHashMap<>();
+
+    /*
+        Request ids of the patches the transport delivered, whose response is lost if the connection drops, guarded by DEVICE_TWIN_LOCK
+     */
+    private final Set<String> deliveredReportedProperties = new HashSet<>();
+
+    /*
+        Callbacks of the reported properties updates to trigger, with their status, once the thread holds no lock of the twin
+     */
+    private final Queue<Pair<List<Pair<IotHubEventCallback, Object>>, IotHubStatusCode>> reportedPropertiesCompletions = new ConcurrentLinkedQueue<>();
+
+    /*
+        Reported properties merged in the current coalescing window, and the callbacks of their updates, guarded by REPORTED_PROPERTIES_LOCK
+     */
+    private Map<String, Object> coalescedReportedProperties = new LinkedHashMap<>();
+    private List<Pair<IotHubEventCallback, Object>> coalescedCallbacks = new ArrayList<>();
+    private ScheduledExecutorService coalescingTimer;
+    private ScheduledFuture<?> coalescingFlush;
+    private long coalescingWindow = 0;
+
+    /*
+        Local cache of the twin, null if disabled, and whether the twin started from the cached one, guarded by DEVICE_TWIN_LOCK
+     */
+    private static final String PROPERTIES_TAG = "properties";
+    private static final String DESIRED_TAG = "desired";
+    private static final String REPORTED_TAG = "reported";
+    private final DeviceTwinCache twinCache;
+    private boolean twinCacheRead = false;
+    private boolean twinCacheApplied = false;
+
+    /*
+        Subscriptions to nested desired properties, by path, and whether the serializer notified a change
+        of a top level property under which a path is subscribed, guarded by DEVICE_TWIN_LOCK
+    */
+    private final DesiredPropertyPathIndex desiredPropertyPaths;
+    private boolean indexedDesiredPropertyChanged = false;
+
     /*
         Callback invoked by serializer when desired property changes
     */
@@ -64,6 +122,16 @@ public class DeviceTwin
                     {
                         Map.Entry<String, String> desiredProperty = (Map.Entry<String, String>) desiredPropertyIt.next();
 
+                        if (desiredPropertyPaths.isIndexed(desiredProperty.getKey()))
+                        {
+                            /*
+                            **Codes_SRS_DEVICETWIN_28_018: [**OnDesiredPropertyChange callback shall not notify a top level desired property under which a path is subscribed, as the path subscriptions are notified of its changes.**]**
+                             */
+                            indexedDesiredPropertyChanged = true;
+                            desiredPropertyIt.remove();
+                            continue;
+                        }
+
                         if (onDesiredPropertyChangeMap != null && onDesiredPropertyChangeMap.containsKey(desiredProperty.getKey()))
 
                         {
@@ -128,6 +196,18 @@ public class DeviceTwin
          */
         @Override
         public IotHubMessageResult execute(Message message, Object callbackContext)
+        {
+            try
+            {
+                return handleResponse(message);
+            }
+            finally
+            {
+                runReportedPropertiesCompletions();
+            }
+        }
+
+        private IotHubMessageResult handleResponse(Message message)
         {
             synchronized (DEVICE_TWIN_LOCK)
             {
@@ -165,7 +245,23 @@ public class DeviceTwin
                             /*
                             **Codes_SRS_DEVICETWIN_25_030: [**If the message is of type DeviceTwin and DEVICE_OPERATION_TWIN_GET_RESPONSE then the payload is deserialized by calling updateTwin only if the status is ok.**]**
                              */
-                            twinParser.updateTwin(new String(dtMessage.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET));
+                            String twinJson = new String(dtMessage.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET);
+                            JsonObject twin = (twinCacheApplied || desiredPropertyPaths.hasSubscriptions()) ? parseObject(twinJson) : null;
+                            if (twinCacheApplied && twin != null)
+                            {
+                                /*
+                                **Codes_SRS_DEVICETWIN_28_012: [**If the twin started from the cached twin, the properties of the cached twin missing from the received twin shall be notified as removed, and the properties with the same value shall not be notified again.**]**
+                                 */
+                                removeMissingCachedProperties(twin);
+                                twinJson = twin.toString();
+                            }
+                            twinParser.updateTwin(twinJson);
+                            indexDesiredProperties(twin);
+
+                            /*
+                            **Codes_SRS_DEVICETWIN_28_015: [**If the twin cache is enabled, the twin shall be saved in the cache each time the IoT Hub confirms a change of its properties.**]**
+                             */
+                            saveTwinCache();
                         }
                         break;
                     }
@@ -180,6 +276,29 @@ public class DeviceTwin
                          */
                         deviceTwinStatusCallback.execute(iotHubStatus, deviceTwinStatusCallbackContext);
 
+                        /*
+                        **Codes_SRS_DEVICETWIN_28_006: [**If the response has the request id of a patch, the callbacks of all the updates merged in the patch shall be triggered with the status of the response.**]**
+                         */
+                        String requestId = dtMessage.getRequestId();
+                        if (requestId != null)
+                        {
+                            deliveredReportedProperties.remove(requestId);
+                            completeReportedPropertiesCallbacks(reportedPropertiesCallbacks.remove(requestId), iotHubStatus);
+                        }
+
+                        if (twinCache != null && (iotHubStatus == IotHubStatusCode.OK || iotHubStatus == IotHubStatusCode.OK_EMPTY))
+                        {
+                            /*
+                            **Codes_SRS_DEVICETWIN_28_015: [**If the twin cache is enabled, the twin shall be saved in the cache each time the IoT Hub confirms a change of its properties.**]**
+                             */
+                            Integer reportedVersion = parseVersion(dtMessage.getVersion());
+                            if (reportedVersion != null)
+                            {
+                                twinParser.updateReportedProperty("{\"$version\":" + reportedVersion + "}");
+                            }
+                            saveTwinCache();
+                        }
+
                         break;
                     }
                     case DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE:
@@ -188,7 +307,45 @@ public class DeviceTwin
                         **Codes_SRS_DEVICETWIN_25_026: [**If the message is of type DeviceTwin and DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE then the payload is deserialized by calling updateDesiredProperty.**]**
                          */
                         isSubscribed = true;
-                        twinParser.updateDesiredProperty(new String(dtMessage.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET));
+
+                        Integer currentVersion = null;
+                        Integer patchVersion = null;
+                        if (twinCache != null)
+                        {
+                            currentVersion = twinParser.getDesiredPropertyVersion();
+                            patchVersion = parseVersion(dtMessage.getVersion());
+                            if (currentVersion != null && patchVersion != null && patchVersion <= currentVersion)
+                            {
+                                /*
+                                **Codes_SRS_DEVICETWIN_28_013: [**If the twin cache is enabled, a desired properties patch with a version not newer than the version of the twin shall be ignored.**]**
+                                 */
+                                break;
+                            }
+                        }
+
+                        String desiredPatch = new String(dtMessage.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET);
+                        indexedDesiredPropertyChanged = false;
+                        twinParser.updateDesiredProperty(desiredPatch);
+                        if (indexedDesiredPropertyChanged)
+                        {
+                            /*
+                            **Codes_SRS_DEVICETWIN_28_019: [**The desired properties of the twin and the desired properties patches shall be given to the index of the desired property paths, which notifies the subscribed paths whose value changed.**]**
+                            **Codes_SRS_DEVICETWIN_28_024: [**A desired properties patch shall be parsed for the index only if the serializer notified a change of a top level property under which a path is subscribed.**]**
+                             */
+                            desiredPropertyPaths.applyPatch(parseObject(desiredPatch));
+                        }
+
+                        if (twinCache != null)
+                        {
+                            saveTwinCache();
+                            if (currentVersion != null && patchVersion != null && patchVersion > currentVersion + 1)
+                            {
+                                /*
+                                **Codes_SRS_DEVICETWIN_28_014: [**If the twin cache is enabled and a desired properties patch skips a version, the twin shall be requested again from the IoT Hub.**]**
+                                 */
+                                getDeviceTwin();
+                            }
+                        }
 
                         break;
                     }
@@ -215,7 +372,21 @@ public class DeviceTwin
                 another message received in deviceTwinResponseMessageCallback.
              */
                 deviceTwinStatusCallback.execute(responseStatus, deviceTwinStatusCallbackContext);
+
+                if (callbackContext instanceof String && responseStatus != IotHubStatusCode.OK && responseStatus != IotHubStatusCode.OK_EMPTY)
+                {
+                    /*
+                    **Codes_SRS_DEVICETWIN_28_007: [**If a patch could not be delivered, the callbacks of all the updates merged in the patch shall be triggered with the status of the delivery.**]**
+                     */
+                    completeReportedPropertiesCallbacks(reportedPropertiesCallbacks.remove(callbackContext), responseStatus);
+                }
+                else if (callbackContext instanceof String && reportedPropertiesCallbacks.containsKey(callbackContext))
+                {
+                    // the response of the patch may have arrived before its delivery was confirmed.
+                    deliveredReportedProperties.add((String) callbackContext);
+                }
             }
+            runReportedPropertiesCompletions();
         }
     }
 
@@ -250,7 +421,6 @@ public class DeviceTwin
         **Codes_SRS_DEVICETWIN_25_002: [**The constructor shall save the device twin message callback by calling setDeviceTwinMessageCallback where any further messages for device twin shall be delivered.**]**
          */
         this.config.setDeviceTwinMessageCallback(new deviceTwinResponseMessageCallback(), null);
-        this.requestId = 0;
 
         this.deviceTwinStatusCallback = deviceTwinCallback;
         this.deviceTwinStatusCallbackContext = deviceTwinCallbackContext;
@@ -265,11 +435,28 @@ public class DeviceTwin
         **Codes_SRS_DEVICETWIN_25_020: [**OnDesiredPropertyChange callback is registered with the serializer to be triggered when desired property changes.**]**
          */
         this.twinParser = new TwinParser(new OnDesiredPropertyChanged(), new OnReportedPropertyChanged());
+
+        /*
+        **Codes_SRS_DEVICETWIN_28_009: [**If the config has a twin cache directory, the constructor shall create the cache of the twin of the device in this directory.**]**
+         */
+        String twinCacheDirectory = config.getTwinCacheDirectory();
+        this.twinCache = (twinCacheDirectory == null || twinCacheDirectory.isEmpty()) ? null :
+                new DeviceTwinCache(twinCacheDirectory, config.getDeviceId());
+
+        /*
+        **Codes_SRS_DEVICETWIN_28_016: [**The constructor shall create the index of the desired property paths, which runs their callbacks on a pool of the desired property thread pool size of the config.**]**
+         */
+        this.desiredPropertyPaths = new DesiredPropertyPathIndex(config.getDesiredPropertyThreadPoolSize());
     }
 
 
     public void getDeviceTwin()
     {
+        if (this.twinCache != null && startFromTwinCache())
+        {
+            return;
+        }
+
         /*
         **Codes_SRS_DEVICETWIN_25_005: [**The method shall create a device twin message with empty payload to be sent IotHub.**]**
          */
@@ -277,8 +464,9 @@ public class DeviceTwin
 
         /*
         **Codes_SRS_DEVICETWIN_25_007: [**This method shall set the request id for the message by calling setRequestId .**]**
+        **Codes_SRS_DEVICETWIN_28_026: [**The request id of the get request shall be unique across all the threads that send twin requests.**]**
          */
-        getTwinRequestMessage.setRequestId(String.valueOf(requestId++));
+        getTwinRequestMessage.setRequestId(String.valueOf(requestId.getAndIncrement()));
 
         /*
         **Codes_SRS_DEVICETWIN_25_006: [**This method shall set the message type as DEVICE_OPERATION_TWIN_GET_REQUEST by calling setDeviceOperationType.**]**
@@ -291,7 +479,44 @@ public class DeviceTwin
         this.deviceIO.sendEventAsync(getTwinRequestMessage,new deviceTwinRequestMessageCallback(), null);
     }
 
-    public synchronized void updateReportedProperties(Set<Property> reportedProperties) throws IOException
+    public void updateReportedProperties(Set<Property> reportedProperties) throws IOException
+    {
+        updateReportedProperties(reportedProperties, null, null);
+    }
+
+    /**
+     * Sends the reported properties to the IoT Hub. If the config has a coalescing window, the
+     * properties are merged with the other updates of the window, the last value of a property
+     * wins, and all of them are sent in one patch when the window ends, or as soon as the size
+     * limit is reached.
+     *
+     * @param reportedProperties the properties to report. Cannot be {@code null}.
+     * @param reportedPropertiesCallback the callback triggered with the status of the patch that
+     *                                   carries the properties. Can be {@code null}.
+     * @param reportedPropertiesCallbackContext the context to pass to the callback. Can be {@code null}.
+     * @throws IOException if the twin has not been created.
+     */
+    public void updateReportedProperties(Set<Property> reportedProperties, IotHubEventCallback reportedPropertiesCallback,
+                                         Object reportedPropertiesCallbackContext) throws IOException
+    {
+        try
+        {
+            synchronized (REPORTED_PROPERTIES_LOCK)
+            {
+                updateReportedPropertiesLocked(reportedProperties, reportedPropertiesCallback, reportedPropertiesCallbackContext);
+            }
+        }
+        finally
+        {
+            /*
+            **Codes_SRS_DEVICETWIN_28_021: [**The callbacks of the reported properties updates shall be triggered after the twin released its locks.**]**
+             */
+            runReportedPropertiesCompletions();
+        }
+    }
+
+    private void updateReportedPropertiesLocked(Set<Property> reportedProperties, IotHubEventCallback reportedPropertiesCallback,
+                                                             Object reportedPropertiesCallbackContext) throws IOException
     {
         if (reportedProperties == null)
         {
@@ -315,6 +540,164 @@ public class DeviceTwin
             reportedPropertiesMap.put(p.getKey(), p.getValue());
         }
 
+        List<Pair<IotHubEventCallback, Object>> callbacks = new ArrayList<>();
+        if (reportedPropertiesCallback != null)
+        {
+            callbacks.add(new Pair<>(reportedPropertiesCallback, reportedPropertiesCallbackContext));
+        }
+
+        long window = this.config.getReportedPropertiesCoalescingWindowMillis();
+        if (window <= 0)
+        {
+            sendReportedProperties(reportedPropertiesMap, callbacks);
+            return;
+        }
+
+        /*
+        **Codes_SRS_DEVICETWIN_28_001: [**If the config has a coalescing window, the method shall merge the properties with the other updates of the window, the last value of a property wins, and keep the callback for the merged patch.**]**
+         */
+        this.coalescedReportedProperties.putAll(reportedPropertiesMap);
+        this.coalescedCallbacks.addAll(callbacks);
+
+        if (this.coalescedReportedProperties.size() >= this.config.getReportedPropertiesCoalescingMaxProperties())
+        {
+            /*
+            **Codes_SRS_DEVICETWIN_28_002: [**If the merged properties reach the size limit of the config, the method shall send the merged patch at once.**]**
+             */
+            flushReportedProperties();
+        }
+        else if (this.coalescingFlush == null)
+        {
+            /*
+            **Codes_SRS_DEVICETWIN_28_003: [**The first update of a window shall schedule the merged patch to be sent when the window ends.**]**
+             */
+            if (this.coalescingTimer == null)
+            {
+                this.coalescingTimer = Executors.newSingleThreadScheduledExecutor();
+            }
+            final long scheduledWindow = this.coalescingWindow;
+            this.coalescingFlush = this.coalescingTimer.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (REPORTED_PROPERTIES_LOCK)
+                    {
+                        // the window may have been sent already because it reached the size limit.
+                        if (coalescingWindow == scheduledWindow)
+                        {
+                            flushReportedProperties();
+                        }
+                    }
+                    runReportedPropertiesCompletions();
+                }
+            }, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sends the reported properties merged in the current window, if any, stops the timer
+     * of the coalescing window, and stops the pool of the desired property path callbacks.
+     * Must be called before the connection is closed, so the merged patch can still be sent.
+     */
+    public void close()
+    {
+        synchronized (REPORTED_PROPERTIES_LOCK)
+        {
+            /*
+            **Codes_SRS_DEVICETWIN_28_008: [**The close shall send the merged patch of the current window, if any, and stop the coalescing timer.**]**
+             */
+            flushReportedProperties();
+            if (this.coalescingTimer != null)
+            {
+                this.coalescingTimer.shutdownNow();
+                this.coalescingTimer = null;
+            }
+        }
+        runReportedPropertiesCompletions();
+
+        /*
+        **Codes_SRS_DEVICETWIN_28_020: [**The close shall stop the pool of the desired property path callbacks.**]**
+         */
+        this.desiredPropertyPaths.close();
+    }
+
+    /**
+     * Triggers the callbacks of the reported properties updates whose patch was delivered, but
+     * whose response is lost since the connection dropped, with the status {@code ERROR}. The
+     * patches not delivered yet are sent again once the connection is back.
+     */
+    public void connectionLost()
+    {
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            /*
+            **Codes_SRS_DEVICETWIN_28_022: [**If the connection drops, the callbacks of the updates merged in the patches delivered but not answered yet shall be triggered as ERROR.**]**
+             */
+            for (String requestId : this.deliveredReportedProperties)
+            {
+                completeReportedPropertiesCallbacks(this.reportedPropertiesCallbacks.remove(requestId), IotHubStatusCode.ERROR);
+            }
+            this.deliveredReportedProperties.clear();
+        }
+        runReportedPropertiesCompletions();
+    }
+
+    /**
+     * Triggers the callbacks of all the reported properties updates still waiting for the
+     * response of their patch with the status {@code MESSAGE_CANCELLED_ONCLOSE}. Must be called
+     * once the connection is closed, since no response can arrive anymore.
+     */
+    public void connectionClosed()
+    {
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            /*
+            **Codes_SRS_DEVICETWIN_28_023: [**Once the connection is closed, the callbacks of the updates merged in the patches not answered yet shall be triggered as MESSAGE_CANCELLED_ONCLOSE.**]**
+             */
+            for (String requestId : new ArrayList<>(this.reportedPropertiesCallbacks.keySet()))
+            {
+                completeReportedPropertiesCallbacks(this.reportedPropertiesCallbacks.remove(requestId), IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE);
+            }
+            this.deliveredReportedProperties.clear();
+        }
+        runReportedPropertiesCompletions();
+    }
+
+    private void flushReportedProperties()
+    {
+        if (this.coalescingFlush != null)
+        {
+            this.coalescingFlush.cancel(false);
+            this.coalescingFlush = null;
+        }
+        this.coalescingWindow++;
+
+        if (this.coalescedReportedProperties.isEmpty() && this.coalescedCallbacks.isEmpty())
+        {
+            return;
+        }
+
+        Map<String, Object> mergedProperties = this.coalescedReportedProperties;
+        List<Pair<IotHubEventCallback, Object>> callbacks = this.coalescedCallbacks;
+        this.coalescedReportedProperties = new LinkedHashMap<>();
+        this.coalescedCallbacks = new ArrayList<>();
+
+        try
+        {
+            sendReportedProperties(mergedProperties, callbacks);
+        }
+        catch (IllegalArgumentException | IllegalStateException e)
+        {
+            /*
+            **Codes_SRS_DEVICETWIN_28_004: [**If the merged patch cannot be serialized or sent, the callbacks of all the updates merged in the patch shall be triggered as ERROR.**]**
+             */
+            completeReportedPropertiesCallbacks(callbacks, IotHubStatusCode.ERROR);
+        }
+    }
+
+    private void sendReportedProperties(Map<String, Object> reportedPropertiesMap, List<Pair<IotHubEventCallback, Object>> callbacks)
+    {
         /*
         **Codes_SRS_DEVICETWIN_25_011: [**The method shall send the property set to Twin Serializer for serilization by calling updateReportedProperty.**]**
          */
@@ -322,6 +705,10 @@ public class DeviceTwin
 
         if (serializedReportedProperties == null)
         {
+            /*
+            **Codes_SRS_DEVICETWIN_28_005: [**If no reported property changed its value, no patch shall be sent and the callbacks of the updates shall be triggered as OK.**]**
+             */
+            completeReportedPropertiesCallbacks(callbacks, IotHubStatusCode.OK);
             return;
         }
 
@@ -332,19 +719,236 @@ public class DeviceTwin
 
         /*
         **Codes_SRS_DEVICETWIN_25_014: [**This method shall set the request id for the message by calling setRequestId .**]**
+        **Codes_SRS_DEVICETWIN_28_027: [**The request id of the patch shall be unique across all the threads that send twin requests.**]**
          */
-        updateReportedPropertiesRequest.setRequestId(String.valueOf(requestId++));
+        String reportedPropertiesRequestId = String.valueOf(requestId.getAndIncrement());
+        updateReportedPropertiesRequest.setRequestId(reportedPropertiesRequestId);
 
         /*
         **Codes_SRS_DEVICETWIN_25_013: [**This method shall set the message type as DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST by calling setDeviceOperationType.**]**
          */
         updateReportedPropertiesRequest.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST);
 
+        Object requestCallbackContext = null;
+        if (!callbacks.isEmpty())
+        {
+            // registered before the send, since the response can arrive before sendEventAsync returns.
+            this.reportedPropertiesCallbacks.put(reportedPropertiesRequestId, callbacks);
+            requestCallbackContext = reportedPropertiesRequestId;
+        }
+
         /*
         **Codes_SRS_DEVICETWIN_25_015: [**This method shall send the message to the lower transport layers by calling sendEventAsync.**]**
          */
-        this.deviceIO.sendEventAsync(updateReportedPropertiesRequest, new deviceTwinRequestMessageCallback(), null);
+        try
+        {
+            this.deviceIO.sendEventAsync(updateReportedPropertiesRequest, new deviceTwinRequestMessageCallback(), requestCallbackContext);
+        }
+        catch (IllegalArgumentException | IllegalStateException e)
+        {
+            this.reportedPropertiesCallbacks.remove(reportedPropertiesRequestId);
+            throw e;
+        }
+    }
+
+    private void completeReportedPropertiesCallbacks(List<Pair<IotHubEventCallback, Object>> callbacks, IotHubStatusCode status)
+    {
+        if (callbacks != null && !callbacks.isEmpty())
+        {
+            // the callbacks run once the thread released the locks of the twin.
+            this.reportedPropertiesCompletions.add(new Pair<>(callbacks, status));
+        }
+    }
+
+    private void runReportedPropertiesCompletions()
+    {
+        if (Thread.holdsLock(REPORTED_PROPERTIES_LOCK) || Thread.holdsLock(DEVICE_TWIN_LOCK))
+        {
+            // the outer call runs them, once it released the lock.
+            return;
+        }
+
+        Pair<List<Pair<IotHubEventCallback, Object>>, IotHubStatusCode> completion;
+        while ((completion = this.reportedPropertiesCompletions.poll()) != null)
+        {
+            for (Pair<IotHubEventCallback, Object> callback : completion.getKey())
+            {
+                callback.getKey().execute(completion.getValue(), callback.getValue());
+            }
+        }
+    }
+
+    private boolean startFromTwinCache()
+    {
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            if (this.twinCacheRead)
+            {
+                return false;
+            }
+            this.twinCacheRead = true;
+
+            String cachedTwin = this.twinCache.load();
+            if (cachedTwin == null)
+            {
+                return false;
+            }
+
+            try
+            {
+                /*
+                **Codes_SRS_DEVICETWIN_28_010: [**The first getDeviceTwin shall give the cached twin, if any, to the serializer, which notifies its desired properties.**]**
+                 */
+                this.twinParser.updateTwin(cachedTwin);
+                this.twinCacheApplied = true;
+                if (this.desiredPropertyPaths.hasSubscriptions())
+                {
+                    indexDesiredProperties(parseObject(cachedTwin));
+                }
+            }
+            catch (IllegalArgumentException e)
+            {
+                // the cached twin is corrupted, so the twin is requested as if there was no cache.
+                this.twinCache.delete();
+                return false;
+            }
+
+            /*
+            **Codes_SRS_DEVICETWIN_28_011: [**If the cached twin has a desired properties version and is younger than the twin cache age of the config, the first getDeviceTwin shall trigger the status callback with OK without requesting the twin from the IoT Hub.**]**
+             */
+            if (this.twinParser.getDesiredPropertyVersion() != null
+                    && this.twinCache.getAgeMillis() < this.config.getTwinCacheMaxAgeSecs() * 1000)
+            {
+                this.deviceTwinStatusCallback.execute(IotHubStatusCode.OK, this.deviceTwinStatusCallbackContext);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static JsonObject parseObject(String json)
+    {
+        try
+        {
+            JsonElement element = new JsonParser().parse(json);
+            return element.isJsonObject() ? element.getAsJsonObject() : null;
+        }
+        catch (RuntimeException e)
+        {
+            // the serializer reports the malformed json.
+            return null;
+        }
+    }
+
+    private void removeMissingCachedProperties(JsonObject twin)
+    {
+        JsonObject properties = twin;
+        if (properties.has(PROPERTIES_TAG) && properties.get(PROPERTIES_TAG).isJsonObject())
+        {
+            properties = properties.getAsJsonObject(PROPERTIES_TAG);
+        }
+        markRemoved(properties, DESIRED_TAG, this.twinParser.getDesiredPropertyMap());
+        markRemoved(properties, REPORTED_TAG, this.twinParser.getReportedPropertyMap());
+    }
+
+    private static void markRemoved(JsonObject properties, String tag, Map<String, Object> cachedProperties)
+    {
+        if (cachedProperties == null || !properties.has(tag) || !properties.get(tag).isJsonObject())
+        {
+            return;
+        }
+
+        JsonObject received = properties.getAsJsonObject(tag);
+        for (String key : cachedProperties.keySet())
+        {
+            if (!received.has(key))
+            {
+                // a null value removes the property from the twin.
+                received.add(key, JsonNull.INSTANCE);
+            }
+        }
+    }
+
+    private void indexDesiredProperties(JsonObject twin)
+    {
+        /*
+        **Codes_SRS_DEVICETWIN_28_025: [**The twin shall be parsed for the index only if a path is subscribed, and once for both the index and the cached properties missing from the twin.**]**
+         */
+        if (twin == null)
+        {
+            return;
+        }
+
+        JsonObject properties = twin;
+        if (properties.has(PROPERTIES_TAG) && properties.get(PROPERTIES_TAG).isJsonObject())
+        {
+            properties = properties.getAsJsonObject(PROPERTIES_TAG);
+        }
+        if (properties.has(DESIRED_TAG) && properties.get(DESIRED_TAG).isJsonObject())
+        {
+            /*
+            **Codes_SRS_DEVICETWIN_28_019: [**The desired properties of the twin and the desired properties patches shall be given to the index of the desired property paths, which notifies the subscribed paths whose value changed.**]**
+             */
+            this.desiredPropertyPaths.applyDocument(properties.getAsJsonObject(DESIRED_TAG));
+        }
+    }
+
+    private void saveTwinCache()
+    {
+        if (this.twinCache != null)
+        {
+            JsonElement properties = this.twinParser.toJsonElement().getAsJsonObject().get(PROPERTIES_TAG);
+            this.twinCache.save(properties.toString());
+        }
+    }
+
+    private static Integer parseVersion(String version)
+    {
+        try
+        {
+            return (version == null) ? null : Integer.valueOf(version);
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Subscribes to the changes of nested desired properties, by their path, such as
+     * {@code config.sampling.rateHz}. A callback is called only when the value at its path
+     * changed, with the path and the new value, which is {@code null} if the property was removed.
+     * The changes of a top level property under which a path is subscribed are not given to the
+     * callbacks of the top level properties anymore.
+     *
+     * @param onDesiredPropertyPathChange the map of the paths and their callback and context. A
+     *                                    {@code null} callback means the generic callback.
+     * @throws IllegalArgumentException if a path has an empty segment.
+     */
+    public void subscribeDesiredPropertyPathsNotification(Map<String, Pair<PropertyCallBack<String, Object>, Object>> onDesiredPropertyPathChange)
+            throws IllegalArgumentException
+    {
+        if (onDesiredPropertyPathChange != null)
+        {
+            for (Map.Entry<String, Pair<PropertyCallBack<String, Object>, Object>> desired : onDesiredPropertyPathChange.entrySet())
+            {
+                /*
+                **Codes_SRS_DEVICETWIN_28_017: [**The method shall subscribe each path to the index of the desired property paths, with the generic callback and its context if the callback of the path is null.**]**
+                 */
+                Pair<PropertyCallBack<String, Object>, Object> callBackObjectPair = desired.getValue();
+                if (callBackObjectPair == null || callBackObjectPair.getKey() == null)
+                {
+                    this.desiredPropertyPaths.subscribe(desired.getKey(), this.deviceTwinGenericPropertyChangeCallback,
+                            this.deviceTwinGenericPropertyChangeCallbackContext);
+                }
+                else
+                {
+                    this.desiredPropertyPaths.subscribe(desired.getKey(), callBackObjectPair.getKey(), callBackObjectPair.getValue());
+                }
+            }
+        }
 
+        subscribeDesiredPropertiesNotification(null);
     }
 
     public void subscribeDesiredPropertiesNotification(Map<Property, Pair<PropertyCallBack<String, Object>, Object>> onDesiredPropertyChange)
@@ -0,0 +1,157 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The twin of one device, with its desired and reported properties and their versions, kept in a
+ * file so it survives a restart of the device. One file per device, in the provided directory.
+ */
+public final class DeviceTwinCache
+{
+    private static final Charset TWIN_CHARSET = StandardCharsets.UTF_8;
+    private static final String TWIN_FILE_EXTENSION = ".twin.json";
+    private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+
+    private final Path twinFile;
+    private final Path temporaryFile;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructor.
+     *
+     * @param directory the directory of the cache. It is created on the first save.
+     * @param deviceId the id of the device.
+     * @throws IllegalArgumentException if one of the parameters is {@code null} or empty.
+     */
+    public DeviceTwinCache(String directory, String deviceId) throws IllegalArgumentException
+    {
+        // Codes_SRS_DEVICETWINCACHE_28_001: [If the directory or the device id is null or empty, the constructor shall throw IllegalArgumentException.]
+        if (directory == null || directory.isEmpty() || deviceId == null || deviceId.isEmpty())
+        {
+            throw new IllegalArgumentException("directory and device id cannot be null or empty");
+        }
+
+        // Codes_SRS_DEVICETWINCACHE_28_002: [The constructor shall keep the twin in a file of the directory named after the encoded device id.]
+        String fileName;
+        try
+        {
+            fileName = URLEncoder.encode(deviceId, TWIN_CHARSET.name());
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalArgumentException("device id cannot be encoded: " + e.getMessage());
+        }
+        Path directoryPath = Paths.get(directory);
+        this.twinFile = directoryPath.resolve(fileName + TWIN_FILE_EXTENSION);
+        this.temporaryFile = directoryPath.resolve(fileName + TWIN_FILE_EXTENSION + TEMPORARY_FILE_EXTENSION);
+    }
+
+    /**
+     * Reads the cached twin.
+     *
+     * @return the json of the twin, or {@code null} if there is no cached twin or it cannot be read.
+     */
+    public String load()
+    {
+        try
+        {
+            // Codes_SRS_DEVICETWINCACHE_28_003: [The load shall return the json of the cached twin.]
+            return new String(Files.readAllBytes(this.twinFile), TWIN_CHARSET);
+        }
+        catch (NoSuchFileException e)
+        {
+            // Codes_SRS_DEVICETWINCACHE_28_004: [If there is no cached twin, or it cannot be read, the load shall return null.]
+            return null;
+        }
+        catch (IOException e)
+        {
+            // Codes_SRS_DEVICETWINCACHE_28_004: [If there is no cached twin, or it cannot be read, the load shall return null.]
+            logger.LogError("Cached twin %s cannot be read, method name is %s ", this.twinFile, CustomLogger.METHOD_NAME);
+            return null;
+        }
+    }
+
+    /**
+     * Getter for the time since the twin was cached.
+     *
+     * @return the age of the cached twin, in milliseconds, or {@code Long.MAX_VALUE} if there is no cached twin.
+     */
+    public long getAgeMillis()
+    {
+        try
+        {
+            // Codes_SRS_DEVICETWINCACHE_28_005: [The getAgeMillis shall return the time since the twin was last saved.]
+            return Math.max(0, System.currentTimeMillis() - Files.getLastModifiedTime(this.twinFile).toMillis());
+        }
+        catch (IOException e)
+        {
+            // Codes_SRS_DEVICETWINCACHE_28_006: [If there is no cached twin, the getAgeMillis shall return Long.MAX_VALUE.]
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Replaces the cached twin. A failure is logged and leaves the previous twin in the cache.
+     *
+     * @param twinJson the json of the twin.
+     * @return {@code true} if the twin was saved.
+     */
+    public boolean save(String twinJson)
+    {
+        if (twinJson == null)
+        {
+            return false;
+        }
+
+        try
+        {
+            // Codes_SRS_DEVICETWINCACHE_28_007: [The save shall write the twin to a temporary file, and then move it
+            // over the cached twin, so a crash never leaves a partial twin in the cache.]
+            Path directory = this.twinFile.getParent();
+            if (directory != null)
+            {
+                Files.createDirectories(directory);
+            }
+            Files.write(this.temporaryFile, twinJson.getBytes(TWIN_CHARSET));
+            Files.move(this.temporaryFile, this.twinFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+        catch (IOException | UnsupportedOperationException e)
+        {
+            // Codes_SRS_DEVICETWINCACHE_28_008: [If the twin cannot be written, the save shall keep the previous twin and return false.]
+            logger.LogError("Twin cannot be cached in %s, method name is %s ", this.twinFile, CustomLogger.METHOD_NAME);
+            return false;
+        }
+    }
+
+    /**
+     * Removes the cached twin, if any.
+     */
+    public void delete()
+    {
+        try
+        {
+            // Codes_SRS_DEVICETWINCACHE_28_009: [The delete shall remove the cached twin, if any.]
+            Files.deleteIfExists(this.twinFile);
+        }
+        catch (IOException e)
+        {
+            logger.LogError("Cached twin %s cannot be removed, method name is %s ", this.twinFile, CustomLogger.METHOD_NAME);
+        }
+    }
+}
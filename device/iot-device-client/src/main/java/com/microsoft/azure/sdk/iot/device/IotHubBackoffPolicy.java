@@ -0,0 +1,23 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * Decides how long a transport waits before each attempt to reconnect to the IoT Hub.
+ *
+ * Developers can provide their own implementation with the "SetReconnectBackoffPolicy"
+ * option of the {@link DeviceClient}. The implementation may be called from the thread
+ * that reconnects the transport, so it shall be thread safe.
+ */
+public interface IotHubBackoffPolicy
+{
+    /**
+     * Computes the delay before a reconnection attempt.
+     *
+     * @param attempt the number of the attempt, starting at 1 for the first attempt after the connection is lost.
+     * @param previousDelayMillis the delay before the previous attempt, or 0 for the first attempt.
+     * @return the delay in milliseconds before the attempt. Negative delays are handled as 0.
+     */
+    long getDelayMillis(int attempt, long previousDelayMillis);
+}
@@ -101,7 +101,7 @@ public class IotHubConnectionString
         this.hubName = parseHubName(this.hostName);
 
         this.logger = new CustomLogger(this.getClass());
-        logger.LogInfo("IotHubConnectionString object is created successfully for %s, method name is %s ", this.hostName, logger.getMethodName());
+        logger.LogInfo("IotHubConnectionString object is created successfully for %s, method name is %s ", this.hostName, CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -144,7 +144,7 @@ public class IotHubConnectionString
         }
 
         this.logger = new CustomLogger(this.getClass());
-        logger.LogInfo("IotHubConnectionString object is created successfully for %s, method name is %s ", this.hostName, logger.getMethodName());
+        logger.LogInfo("IotHubConnectionString object is created successfully for %s, method name is %s ", this.hostName, CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -0,0 +1,92 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Backoff policy with decorrelated jitter: each delay is picked at random between the base
+ * delay and three times the previous delay, and never exceeds the maximum delay. The
+ * randomness spreads the reconnections of many devices that lost their connections at the
+ * same time, while the delays still grow for as long as the IoT Hub cannot be reached.
+ */
+public final class IotHubDecorrelatedJitterBackoff implements IotHubBackoffPolicy
+{
+    /** Default base delay, in milliseconds. */
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 1000;
+    /** Default maximum delay, in milliseconds. */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 60000;
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * Constructor. Creates a policy with the default base and maximum delays.
+     */
+    public IotHubDecorrelatedJitterBackoff()
+    {
+        this(DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param baseDelayMillis the smallest delay, in milliseconds.
+     * @param maxDelayMillis the largest delay, in milliseconds.
+     * @throws IllegalArgumentException if the base delay is zero or negative, or if the maximum delay is below the base delay.
+     */
+    public IotHubDecorrelatedJitterBackoff(long baseDelayMillis, long maxDelayMillis)
+    {
+        // Codes_SRS_IOTHUBDECORRELATEDJITTERBACKOFF_28_001: [If the base delay is zero or negative, or if the maximum delay
+        // is below the base delay, the constructor shall throw IllegalArgumentException.]
+        if (baseDelayMillis <= 0)
+        {
+            throw new IllegalArgumentException("baseDelayMillis must be greater than 0");
+        }
+        if (maxDelayMillis < baseDelayMillis)
+        {
+            throw new IllegalArgumentException("maxDelayMillis cannot be smaller than baseDelayMillis");
+        }
+
+        // Codes_SRS_IOTHUBDECORRELATEDJITTERBACKOFF_28_002: [The constructor shall save the base and the maximum delays.]
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    @Override
+    public long getDelayMillis(int attempt, long previousDelayMillis)
+    {
+        // Codes_SRS_IOTHUBDECORRELATEDJITTERBACKOFF_28_003: [The function shall return a random delay between the base delay
+        // and three times the previous delay, or three times the base delay if there is no previous delay.]
+        long previous = Math.max(previousDelayMillis, this.baseDelayMillis);
+        long upper = (previous > this.maxDelayMillis / 3) ? this.maxDelayMillis : previous * 3;
+
+        // Codes_SRS_IOTHUBDECORRELATEDJITTERBACKOFF_28_004: [The function shall never return more than the maximum delay.]
+        if (upper <= this.baseDelayMillis)
+        {
+            return this.baseDelayMillis;
+        }
+        return ThreadLocalRandom.current().nextLong(this.baseDelayMillis, upper + 1);
+    }
+
+    /**
+     * Getter for the smallest delay.
+     *
+     * @return the base delay, in milliseconds.
+     */
+    public long getBaseDelayMillis()
+    {
+        return this.baseDelayMillis;
+    }
+
+    /**
+     * Getter for the largest delay.
+     *
+     * @return the maximum delay, in milliseconds.
+     */
+    public long getMaxDelayMillis()
+    {
+        return this.maxDelayMillis;
+    }
+}
@@ -0,0 +1,19 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * What the transport shall do with a new message when its outbound queue is full.
+ * <ul>
+ *     <li>{@code BLOCK} - the caller waits until there is room for the message.</li>
+ *     <li>{@code REJECT} - the message is not queued, and its callback is invoked with
+ *     {@link IotHubStatusCode#MESSAGE_CANCELLED_QUEUE_FULL}.</li>
+ *     <li>{@code DROP_OLDEST} - the oldest queued messages are dropped to make room, and
+ *     their callbacks are invoked with {@link IotHubStatusCode#MESSAGE_CANCELLED_QUEUE_FULL}.</li>
+ * </ul>
+ */
+public enum IotHubOutboundQueuePolicy
+{
+    BLOCK, REJECT, DROP_OLDEST
+}
@@ -4,6 +4,7 @@
 package com.microsoft.azure.sdk.iot.device;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManagerFactory;
 import java.io.IOException;
 import java.security.*;
@@ -15,6 +16,13 @@ public class IotHubSSLContext
 {
     private SSLContext iotHubSslContext = null;
 
+    /**
+     * The socket factory of the SSL context. The HTTPS connections are only reused, with
+     * their TLS session, by connections that use the same factory instance, so it is
+     * created once.
+     */
+    private SSLSocketFactory iotHubSocketFactory = null;
+
     /**
      * Creates a SSLContext for the IotHub.
      *
@@ -124,6 +132,8 @@ public class IotHubSSLContext
         trustManagerFactory.init(keyStore);
         sslContext.init(null, trustManagerFactory.getTrustManagers(), new SecureRandom());
         this.iotHubSslContext = sslContext;
+        //Codes_SRS_IOTHUBSSLCONTEXT_28_001: [The constructor shall create the socket factory of the SSL context once.]
+        this.iotHubSocketFactory = sslContext.getSocketFactory();
     }
 
     /**
@@ -135,4 +145,15 @@ public class IotHubSSLContext
         //Codes_SRS_IOTHUBSSLCONTEXT_25_017: [*This method shall return the value of sslContext.**]**
         return this.iotHubSslContext;
     }
+
+    /**
+     * Getter for the socket factory of the IotHubSSLContext. Connections that share it can be
+     * reused across requests.
+     * @return SSLSocketFactory created from the SSLContext of the IotHub.
+     */
+    public SSLSocketFactory getIotHubSocketFactory()
+    {
+        //Codes_SRS_IOTHUBSSLCONTEXT_28_002: [This method shall return the socket factory created by the constructor.]
+        return this.iotHubSocketFactory;
+    }
 }
@@ -200,6 +200,16 @@ public class Message
         return bodyClone;
     }
 
+    /**
+     * The size of the body, without copying it.
+     * @return The number of bytes in this Message body, or 0 if it has no body.
+     */
+    public int getBodyLength()
+    {
+        // Codes_SRS_MESSAGE_28_001: [The function shall return the number of bytes in the message body, or 0 if the body is null.]
+        return (this.body == null) ? 0 : this.body.length;
+    }
+
     /**
      * Gets the values of user-defined properties of this Message.
      * @param name Name of the user-defined property to search for.
@@ -256,7 +266,7 @@ public class Message
             this.properties.remove(messageProperty);
         }
 
-        logger.LogInfo("Setting message property with name=%s and value=%s, method name is %s ", name, value, logger.getMethodName());
+        logger.LogInfo("Setting message property with name=%s and value=%s, method name is %s ", name, value, CustomLogger.METHOD_NAME);
         this.properties.add(new MessageProperty(name, value));
     }
 
@@ -304,7 +314,7 @@ public class Message
             long currentTime = System.currentTimeMillis();
             if (currentTime > expiryTime)
             {
-                logger.LogWarn("The message with messageid %s expired on %s, method name is %s ", this.getMessageId(), new Date(), logger.getMethodName());
+                logger.LogWarn("The message with messageid %s expired on %s, method name is %s ", this.getMessageId(), new Date(), CustomLogger.METHOD_NAME);
                 messageExpired = true;
             }
             else
@@ -360,7 +370,10 @@ public class Message
     {
         long currentTime = System.currentTimeMillis();
         this.expiryTime = currentTime + timeOut;
-        logger.LogInfo("The message with messageid %s has expiry time as %s milliseconds and the message will expire on %s, method name is %s ", this.getMessageId(), timeOut, new Date(this.expiryTime), logger.getMethodName());
+        if (logger.isInfoEnabled())
+        {
+            logger.LogInfo("The message with messageid %s has expiry time as %s milliseconds and the message will expire on %s, method name is %s ", this.getMessageId(), timeOut, new Date(this.expiryTime), CustomLogger.METHOD_NAME);
+        }
     }
 
     /**
@@ -0,0 +1,121 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.auth;
+
+import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
+
+/**
+ * Provides the SAS tokens of a device. A token signed with the device key is kept and
+ * returned until less than a tenth of its lifetime is left, so the requests made in the
+ * meantime do not sign a new one. The lifetime is the token valid time of the
+ * configuration, and a change of it renews the token. A connection that keeps its token
+ * for as long as it is open asks for a token valid for at least its lifetime.
+ */
+public final class IotHubSasTokenProvider
+{
+    /** The part of the token lifetime, in percent, left when the token is renewed. */
+    private static final long RENEWAL_MARGIN_PERCENT = 10L;
+
+    private final DeviceClientConfig config;
+
+    /** The cached token, or {@code null} if no token was signed yet. */
+    private String sasToken;
+    /** The time, as a UNIX timestamp, from which the cached token is renewed. */
+    private long renewalTime;
+    /** The time, as a UNIX timestamp, at which the cached token expires. */
+    private long expiryTime;
+    /** The token valid time, in seconds, the cached token was signed with. */
+    private long tokenValidSecs;
+
+    /**
+     * Constructor.
+     *
+     * @param config the device client config.
+     * @throws IllegalArgumentException if the config is {@code null}.
+     */
+    public IotHubSasTokenProvider(DeviceClientConfig config)
+    {
+        if (config == null)
+        {
+            // Codes_SRS_IOTHUBSASTOKENPROVIDER_28_001: [If the config is null, the constructor shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("config cannot be null");
+        }
+
+        // Codes_SRS_IOTHUBSASTOKENPROVIDER_28_002: [The constructor shall save the config.]
+        this.config = config;
+    }
+
+    /**
+     * Returns a SAS token for the device. The token signed with the device key is cached
+     * and renewed ahead of its expiry. The shared access token of the configuration cannot
+     * be renewed, so it is checked again each time.
+     *
+     * @return the string representation of the SAS token.
+     */
+    public synchronized String getSasToken()
+    {
+        long currentTime = System.currentTimeMillis() / 1000L;
+        long validSecs = this.config.getTokenValidSecs();
+
+        if (this.config.getDeviceKey() == null)
+        {
+            // Codes_SRS_IOTHUBSASTOKENPROVIDER_28_003: [If the config has no device key, the function shall return a new
+            // SAS token built from the config.]
+            return new IotHubSasToken(this.config, currentTime + validSecs + 1L).toString();
+        }
+
+        // Codes_SRS_IOTHUBSASTOKENPROVIDER_28_004: [If there is no cached token, if the renewal time of the cached token
+        // is reached, or if the token valid time of the config changed, the function shall sign a new SAS token valid for
+        // the token valid time of the config, and cache it.]
+        if (this.sasToken == null || currentTime >= this.renewalTime || validSecs != this.tokenValidSecs)
+        {
+            signSasToken(currentTime, validSecs);
+        }
+
+        // Codes_SRS_IOTHUBSASTOKENPROVIDER_28_006: [The function shall return the cached token.]
+        return this.sasToken;
+    }
+
+    /**
+     * Returns a SAS token for the device that stays valid for at least the given lifetime,
+     * such as the token a connection keeps for as long as it is open. The cached token is
+     * returned if it lives long enough, and renewed otherwise.
+     *
+     * @param lifetimeSecs the time, in seconds, the token must stay valid for.
+     * @return the string representation of the SAS token.
+     */
+    public synchronized String getSasTokenValidFor(long lifetimeSecs)
+    {
+        long currentTime = System.currentTimeMillis() / 1000L;
+        long validSecs = this.config.getTokenValidSecs();
+
+        if (this.config.getDeviceKey() == null)
+        {
+            // Codes_SRS_IOTHUBSASTOKENPROVIDER_28_007: [If the config has no device key, the function shall return a new
+            // SAS token built from the config.]
+            return new IotHubSasToken(this.config, currentTime + validSecs + 1L).toString();
+        }
+
+        // Codes_SRS_IOTHUBSASTOKENPROVIDER_28_008: [If there is no cached token, if the cached token expires before the
+        // given lifetime ends, or if the token valid time of the config changed, the function shall sign a new SAS token
+        // valid for the token valid time of the config, and cache it.]
+        if (this.sasToken == null || this.expiryTime - currentTime < lifetimeSecs || validSecs != this.tokenValidSecs)
+        {
+            signSasToken(currentTime, validSecs);
+        }
+
+        // Codes_SRS_IOTHUBSASTOKENPROVIDER_28_009: [The function shall return the cached token.]
+        return this.sasToken;
+    }
+
+    private void signSasToken(long currentTime, long validSecs)
+    {
+        this.expiryTime = currentTime + validSecs + 1L;
+        this.sasToken = new IotHubSasToken(this.config, this.expiryTime).toString();
+        this.tokenValidSecs = validSecs;
+        // Codes_SRS_IOTHUBSASTOKENPROVIDER_28_005: [The renewal time of the token shall be its expiry time minus a
+        // tenth of its valid time.]
+        this.renewalTime = this.expiryTime - validSecs * RENEWAL_MARGIN_PERCENT / 100L;
+    }
+}
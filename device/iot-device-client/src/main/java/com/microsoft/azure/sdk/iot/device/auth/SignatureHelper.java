@@ -13,6 +13,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 /** Builds the authorization signature as a composition of functions. */
 public final class SignatureHelper
@@ -26,6 +27,28 @@ public final class SignatureHelper
     /** The charset used for the raw and hashed signature. */
     private static final Charset SIGNATURE_CHARSET = StandardCharsets.UTF_8;
 
+    private static final String HMAC_SHA256 = "HmacSHA256";
+
+    /**
+     * The HMAC-SHA256 engine of the thread, initialized with the last key it was used
+     * with. doFinal() resets the engine, so it can sign again with the same key without
+     * being created and initialized again.
+     */
+    private static final ThreadLocal<KeyedMac> HMAC_SHA256_MAC = new ThreadLocal<>();
+
+    /** A Mac and the key it was initialized with. */
+    private static final class KeyedMac
+    {
+        private final byte[] key;
+        private final Mac mac;
+
+        private KeyedMac(byte[] key, Mac mac)
+        {
+            this.key = key;
+            this.mac = mac;
+        }
+    }
+
     /**
      * Builds the raw signature.
      *
@@ -66,18 +89,22 @@ public final class SignatureHelper
     public static byte[] encryptSignatureHmacSha256(byte[] sig,
             byte[] deviceKey)
     {
-        String hmacSha256 = "HmacSHA256";
-
-        // Codes_SRS_SIGNATUREHELPER_11_005: [The function shall use the device key as the secret for the algorithm.]
-        SecretKeySpec secretKey = new SecretKeySpec(deviceKey, hmacSha256);
-
         byte[] encryptedSig = null;
         try
         {
+            // Codes_SRS_SIGNATUREHELPER_28_001: [The function shall reuse the HMAC-SHA256 engine of the thread if it was initialized with the same device key.]
+            KeyedMac keyedMac = HMAC_SHA256_MAC.get();
+            if (keyedMac == null || !Arrays.equals(keyedMac.key, deviceKey))
+            {
+                // Codes_SRS_SIGNATUREHELPER_11_005: [The function shall use the device key as the secret for the algorithm.]
+                SecretKeySpec secretKey = new SecretKeySpec(deviceKey, HMAC_SHA256);
+                Mac hMacSha256 = Mac.getInstance(HMAC_SHA256);
+                hMacSha256.init(secretKey);
+                keyedMac = new KeyedMac(Arrays.copyOf(deviceKey, deviceKey.length), hMacSha256);
+                HMAC_SHA256_MAC.set(keyedMac);
+            }
             // Codes_SRS_SIGNATUREHELPER_11_004: [The function shall encrypt the signature using the HMAC-SHA256 algorithm.]
-            Mac hMacSha256 = Mac.getInstance(hmacSha256);
-            hMacSha256.init(secretKey);
-            encryptedSig = hMacSha256.doFinal(sig);
+            encryptedSig = keyedMac.mac.doFinal(sig);
         }
         catch (NoSuchAlgorithmException e)
         {
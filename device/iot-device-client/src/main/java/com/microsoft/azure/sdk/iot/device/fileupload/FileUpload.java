@@ -53,6 +53,8 @@ public final class FileUpload
         /* Codes_SRS_FILEUPLOAD_21_002: [The constructor shall create a new instance of `HttpsTransportManager` with the provided `config`.] */
         /* Codes_SRS_FILEUPLOAD_21_003: [If the constructor fail to create the new instance of the `HttpsTransportManager`, it shall throw IllegalArgumentException, threw by the HttpsTransportManager constructor.] */
         this.httpsTransportManager = new HttpsTransportManager(config);
+        /* Codes_SRS_FILEUPLOAD_28_001: [The constructor shall open the `HttpsTransportManager`, so all the uploads share its session.] */
+        this.httpsTransportManager.open();
 
         try
         {
@@ -70,7 +72,7 @@ public final class FileUpload
         fileUploadStatusCallBack = new FileUploadStatusCallBack();
 
         logger = new CustomLogger(this.getClass());
-        logger.LogInfo("FileUpload object is created successfully, method name is %s ", logger.getMethodName());
+        logger.LogInfo("FileUpload object is created successfully, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -174,6 +176,9 @@ public final class FileUpload
         /* Codes_SRS_FILEUPLOAD_21_017: [The closeNow shall shutdown the thread pool by calling `shutdownNow`.] */
         taskScheduler.shutdownNow();
 
+        /* Codes_SRS_FILEUPLOAD_28_002: [The closeNow shall close the `HttpsTransportManager`.] */
+        httpsTransportManager.close();
+
         /* Codes_SRS_FILEUPLOAD_21_018: [If there is pending file uploads, the closeNow shall cancel the upload, and call the `statusCallback` reporting ERROR.] */
         for (FileUploadInProgress uploadInProgress : fileUploadInProgressesSet)
         {
@@ -0,0 +1,325 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.fileupload;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import com.microsoft.azure.storage.RetryNoRetry;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+import com.microsoft.azure.storage.blob.BlockEntry;
+import com.microsoft.azure.storage.blob.BlockListingFilter;
+import com.microsoft.azure.storage.blob.BlockSearchMode;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads a stream to a block blob. A stream that fits in one block is uploaded with a
+ * single request. A larger one is split in blocks, which are uploaded several at a time
+ * and committed at the end. Only a bounded number of blocks is held in memory, and a
+ * block that fails is retried on its own.
+ *
+ * <p>The block IDs are made from a digest of the content of the block and its position in
+ * the stream, so uploading the same stream again to the same blob skips the blocks already
+ * uploaded by an interrupted attempt, even if the IoT Hub gave the new attempt another
+ * correlation ID. A block whose content changed gets another ID, and is uploaded again.</p>
+ */
+public final class FileUploadBlockUploader
+{
+    /** The largest block the storage service accepts. */
+    static final int DEFAULT_BLOCK_SIZE = 4 * 1024 * 1024;
+    static final int DEFAULT_MAX_BLOCKS_IN_FLIGHT = 4;
+    /** The most blocks a blob can have. */
+    private static final int MAX_BLOCK_COUNT = 50000;
+    private static final int MAX_BLOCK_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 200L;
+    private static final String BLOCK_ID_FORMAT = "%s-%06d";
+
+    private static CustomLogger logger;
+
+    private final CloudBlockBlob blob;
+    private final int blockSize;
+    private final int maxBlocksInFlight;
+    private final BlobRequestOptions requestOptions;
+
+    /**
+     * Constructor.
+     *
+     * @param blob is the destination blob. Cannot be {@code null}.
+     * @throws IllegalArgumentException if the blob is {@code null}.
+     */
+    FileUploadBlockUploader(CloudBlockBlob blob) throws IllegalArgumentException
+    {
+        this(blob, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_BLOCKS_IN_FLIGHT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param blob is the destination blob. Cannot be {@code null}.
+     * @param blockSize is the size of a block, in bytes. Shall be between 1 and 4 MB.
+     * @param maxBlocksInFlight is the number of blocks uploaded at the same time. Shall be positive.
+     * @throws IllegalArgumentException if one of the parameters is not valid.
+     */
+    FileUploadBlockUploader(CloudBlockBlob blob, int blockSize, int maxBlocksInFlight)
+            throws IllegalArgumentException
+    {
+        /* Codes_SRS_FILEUPLOADBLOCKUPLOADER_28_001: [If the `blob` is null, the `blockSize` is not between 1 and 4 MB,
+        or the `maxBlocksInFlight` is not positive, the constructor shall throw IllegalArgumentException.] */
+        if (blob == null)
+        {
+            throw new IllegalArgumentException("blob is null");
+        }
+        if ((blockSize <= 0) || (blockSize > DEFAULT_BLOCK_SIZE))
+        {
+            throw new IllegalArgumentException("blockSize is invalid: " + blockSize);
+        }
+        if (maxBlocksInFlight <= 0)
+        {
+            throw new IllegalArgumentException("maxBlocksInFlight is invalid: " + maxBlocksInFlight);
+        }
+
+        this.blob = blob;
+        this.blockSize = blockSize;
+        this.maxBlocksInFlight = maxBlocksInFlight;
+
+        /* Codes_SRS_FILEUPLOADBLOCKUPLOADER_28_003: [The block requests shall not be retried by the storage client,
+        since the uploader retries each block on its own.] */
+        this.requestOptions = new BlobRequestOptions();
+        this.requestOptions.setRetryPolicyFactory(new RetryNoRetry());
+
+        logger = new CustomLogger(this.getClass());
+    }
+
+    /**
+     * Uploads the stream to the blob.
+     *
+     * @param inputStream is the byte stream to upload.
+     * @param streamLength is the number of bytes to upload.
+     * @throws StorageException if the storage service rejected the upload.
+     * @throws IOException if the stream could not be read, or if the upload was interrupted.
+     * @throws IllegalArgumentException if the stream needs more blocks than a blob can have.
+     */
+    public void upload(InputStream inputStream, long streamLength) throws StorageException, IOException, IllegalArgumentException
+    {
+        if (streamLength <= this.blockSize)
+        {
+            /* Codes_SRS_FILEUPLOADBLOCKUPLOADER_28_004: [If the `streamLength` is not larger than a block, the upload
+            shall upload the `inputStream` to the blob in a single request.] */
+            this.blob.upload(inputStream, streamLength);
+            return;
+        }
+
+        /* Codes_SRS_FILEUPLOADBLOCKUPLOADER_28_005: [If the stream needs more than 50000 blocks, the upload shall throw
+        IllegalArgumentException.] */
+        long blockCount = (streamLength + this.blockSize - 1) / this.blockSize;
+        if (blockCount > MAX_BLOCK_COUNT)
+        {
+            throw new IllegalArgumentException("stream is too long to upload: " + streamLength);
+        }
+
+        Map<String, Long> uploadedBlocks = downloadUncommittedBlocks();
+        List<BlockEntry> blockList = new ArrayList<>();
+        Deque<Future<Void>> blocksInFlight = new ArrayDeque<>();
+        ExecutorService executor = Executors.newFixedThreadPool(this.maxBlocksInFlight);
+        try
+        {
+            long remaining = streamLength;
+            for (int index = 0; remaining > 0; index++)
+            {
+                /* Codes_SRS_FILEUPLOADBLOCKUPLOADER_28_008: [The upload shall not read a new block while
+                `maxBlocksInFlight` blocks are being uploaded.] */
+                if (blocksInFlight.size() >= this.maxBlocksInFlight)
+                {
+                    waitForBlock(blocksInFlight.removeFirst());
+                }
+
+                /* Codes_SRS_FILEUPLOADBLOCKUPLOADER_28_007: [The upload shall read the `inputStream` in blocks of
+                `blockSize` bytes, and throw IOException if the stream ends before `streamLength` bytes.] */
+                byte[] buffer = new byte[(int)Math.min(this.blockSize, remaining)];
+                readBlock(inputStream, buffer);
+                remaining -= buffer.length;
+
+                String blockId = makeBlockId(index, buffer);
+                blockList.add(new BlockEntry(blockId, BlockSearchMode.LATEST));
+
+                /* Codes_SRS_FILEUPLOADBLOCKUPLOADER_28_009: [The upload shall skip a block already uploaded with the
+                same ID and size, and upload the other blocks in parallel.] */
+                Long uploadedSize = uploadedBlocks.get(blockId);
+                if ((uploadedSize == null) || (uploadedSize != buffer.length))
+                {
+                    blocksInFlight.addLast(executor.submit(new BlockUpload(blockId, buffer)));
+                }
+            }
+
+            while (!blocksInFlight.isEmpty())
+            {
+                waitForBlock(blocksInFlight.removeFirst());
+            }
+
+            /* Codes_SRS_FILEUPLOADBLOCKUPLOADER_28_011: [When all the blocks are uploaded, the upload shall commit the
+            block list in the order of the stream.] */
+            this.blob.commitBlockList(blockList, null, this.requestOptions, null);
+        }
+        finally
+        {
+            /* Codes_SRS_FILEUPLOADBLOCKUPLOADER_28_012: [If a block failed, the upload shall stop the other blocks,
+            not commit the block list, and throw the error of the block.] */
+            executor.shutdownNow();
+        }
+    }
+
+    private Map<String, Long> downloadUncommittedBlocks() throws StorageException
+    {
+        Map<String, Long> uploadedBlocks = new HashMap<>();
+        try
+        {
+            /* Codes_SRS_FILEUPLOADBLOCKUPLOADER_28_006: [The upload shall get the uncommitted blocks of the blob, and
+            consider that there are none if the blob does not exist.] */
+            for (BlockEntry block : this.blob.downloadBlockList(BlockListingFilter.UNCOMMITTED, null, this.requestOptions, null))
+            {
+                uploadedBlocks.put(block.getId(), block.getSize());
+            }
+        }
+        catch (StorageException e)
+        {
+            if (e.getHttpStatusCode() != HttpURLConnection.HTTP_NOT_FOUND)
+            {
+                throw e;
+            }
+        }
+
+        if (!uploadedBlocks.isEmpty())
+        {
+            logger.LogInfo("File upload resumes with %d blocks already uploaded, method name is %s ", uploadedBlocks.size(), CustomLogger.METHOD_NAME);
+        }
+
+        return uploadedBlocks;
+    }
+
+    private static String makeBlockId(int index, byte[] buffer)
+    {
+        /* Codes_SRS_FILEUPLOADBLOCKUPLOADER_28_002: [The upload shall make the ID of a block from a digest of its
+        content and its position in the stream, so all the block IDs of the blob have the same length.] */
+        String blockId = String.format(BLOCK_ID_FORMAT, DigestUtils.md5Hex(buffer), index);
+        return Base64.encodeBase64String(blockId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void readBlock(InputStream inputStream, byte[] buffer) throws IOException
+    {
+        int offset = 0;
+        while (offset < buffer.length)
+        {
+            int count = inputStream.read(buffer, offset, buffer.length - offset);
+            if (count < 0)
+            {
+                throw new IOException("stream ended before the stream length");
+            }
+            offset += count;
+        }
+    }
+
+    private static void waitForBlock(Future<Void> block) throws StorageException, IOException
+    {
+        try
+        {
+            block.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("file upload was interrupted");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof StorageException)
+            {
+                throw (StorageException)cause;
+            }
+            if (cause instanceof IOException)
+            {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static boolean isTransient(StorageException e)
+    {
+        int statusCode = e.getHttpStatusCode();
+        return (statusCode < HttpURLConnection.HTTP_BAD_REQUEST) ||
+                (statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) ||
+                (statusCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT);
+    }
+
+    /** Uploads one block, retrying it if it fails. */
+    private final class BlockUpload implements Callable<Void>
+    {
+        private final String blockId;
+        private final byte[] buffer;
+
+        BlockUpload(String blockId, byte[] buffer)
+        {
+            this.blockId = blockId;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public Void call() throws StorageException, IOException, InterruptedException
+        {
+            for (int attempt = 1; ; attempt++)
+            {
+                try
+                {
+                    blob.uploadBlock(this.blockId, new ByteArrayInputStream(this.buffer), this.buffer.length,
+                            null, requestOptions, null);
+                    return null;
+                }
+                catch (StorageException e)
+                {
+                    /* Codes_SRS_FILEUPLOADBLOCKUPLOADER_28_010: [If a block fails with an I/O error, a timeout, or a
+                    server error, the upload shall retry it, up to 3 attempts.] */
+                    if ((attempt >= MAX_BLOCK_ATTEMPTS) || !isTransient(e))
+                    {
+                        throw e;
+                    }
+                    logger.LogInfo("File upload retries block %s after error %s, method name is %s ", this.blockId, e.getHttpStatusCode(), CustomLogger.METHOD_NAME);
+                }
+                catch (IOException e)
+                {
+                    if (attempt >= MAX_BLOCK_ATTEMPTS)
+                    {
+                        throw e;
+                    }
+                    logger.LogInfo("File upload retries block %s after error %s, method name is %s ", this.blockId, e.toString(), CustomLogger.METHOD_NAME);
+                }
+
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            }
+        }
+    }
+}
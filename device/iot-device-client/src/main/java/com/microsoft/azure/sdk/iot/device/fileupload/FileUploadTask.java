@@ -67,15 +67,13 @@ public final class FileUploadTask implements Runnable
     private String correlationId;
     private URI blobURI;
 
-    private static final ObjectLock FILE_UPLOAD_LOCK = new ObjectLock();
-
     /**
      * Constructor
      *
      * @param blobName is the destination blob name in the storage. Cannot be {@code null}, or empty.
      * @param inputStream is the byte stream with the information to store in the blob. Cannot be {@code null}.
      * @param streamLength is the number of bytes to upload. Cannot be negative.
-     * @param httpsTransportManager is the https transport to connect to the IoT Hub. Cannot be {@code null}.
+     * @param httpsTransportManager is the open https transport to connect to the IoT Hub, shared by the uploads. Cannot be {@code null}.
      * @param userCallback is the callback to call when the upload is completed. Cannot be {@code null}.
      * @param userCallbackContext is the context for the callback. Can be any value.
      * @throws IllegalArgumentException if one of the parameters is not valid.
@@ -122,7 +120,7 @@ public final class FileUploadTask implements Runnable
         this.httpsTransportManager = httpsTransportManager;
 
         logger = new CustomLogger(this.getClass());
-        logger.LogInfo("HttpsFileUpload object is created successfully, method name is %s ", logger.getMethodName());
+        logger.LogInfo("HttpsFileUpload object is created successfully, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -152,12 +150,14 @@ public final class FileUploadTask implements Runnable
             /* Codes_SRS_FILEUPLOADTASK_21_019: [The run shall create a `CloudBlockBlob` using the `blobUri`.] */
                 CloudBlockBlob blob = new CloudBlockBlob(blobURI);
             /* Codes_SRS_FILEUPLOADTASK_21_020: [The run shall upload the `inputStream` with the `streamLength` to the created `CloudBlockBlob`.] */
-                blob.upload(inputStream, streamLength);
+            /* Codes_SRS_FILEUPLOADTASK_28_001: [The run shall upload the stream by using a FileUploadBlockUploader for the blob.] */
+                new FileUploadBlockUploader(blob).upload(inputStream, streamLength);
             /* Codes_SRS_FILEUPLOADTASK_21_021: [If the upload to blob succeed, the run shall create a notification the IoT Hub with `isSuccess` equals true, `statusCode` equals 0.] */
                 fileUploadStatusParser = new FileUploadStatusParser(correlationId, true, 0, "Succeed to upload to storage.");
                 resultStatus = IotHubStatusCode.OK;
             }
-            catch (StorageException | IOException | IllegalArgumentException e) //Nobody will handel exception from this thread, so, convert it to an failed code in the user callback.
+            /* Codes_SRS_FILEUPLOADTASK_28_003: [If the upload to blob failed with an unexpected runtime exception, the run shall handle it as a failed upload.] */
+            catch (StorageException | IOException | RuntimeException e) //Nobody will handel exception from this thread, so, convert it to an failed code in the user callback.
             {
                 logger.LogError("File upload failed to upload the stream to the blob. " + e.toString());
             /* Codes_SRS_FILEUPLOADTASK_21_030: [If the upload to blob failed, the run shall call the `userCallback` reporting an error status `ERROR`.] */
@@ -214,16 +214,10 @@ public final class FileUploadTask implements Runnable
         /* Codes_SRS_FILEUPLOADTASK_21_009: [The run shall set the message URI path as `/files`.] */
         message.setUriPath(PATH_FILES_STRING);
 
-        ResponseMessage responseMessage;
-        synchronized (FILE_UPLOAD_LOCK)
-        {
-            /* Codes_SRS_FILEUPLOADTASK_21_010: [The run shall open the connection with the iothub, using the httpsTransportManager.] */
-            httpsTransportManager.open();
-            /* Codes_SRS_FILEUPLOADTASK_21_011: [The run shall send the blob request message to the iothub, using the httpsTransportManager.] */
-            responseMessage = httpsTransportManager.send(message);
-            /* Codes_SRS_FILEUPLOADTASK_21_012: [The run shall close the connection with the iothub, using the httpsTransportManager.] */
-            httpsTransportManager.close();
-        }
+        /* Codes_SRS_FILEUPLOADTASK_21_011: [The run shall send the blob request message to the iothub, using the httpsTransportManager.] */
+        /* Codes_SRS_FILEUPLOADTASK_28_002: [The run shall send the request and the notification on the session the httpsTransportManager
+        shares between the uploads, without opening or closing it, and without waiting for the other uploads.] */
+        ResponseMessage responseMessage = httpsTransportManager.send(message);
 
         IotHubStatusCode resultStatus = responseMessage.getStatus();
 
@@ -253,16 +247,8 @@ public final class FileUploadTask implements Runnable
             /* Codes_SRS_FILEUPLOADTASK_21_025: [The run shall set the message URI path as `/files/notifications`.] */
             message.setUriPath(PATH_NOTIFICATIONS_STRING);
 
-            ResponseMessage responseMessage;
-            synchronized (FILE_UPLOAD_LOCK)
-            {
-            /* Codes_SRS_FILEUPLOADTASK_21_026: [The run shall open the connection with the iothub, using the httpsTransportManager.] */
-                httpsTransportManager.open();
             /* Codes_SRS_FILEUPLOADTASK_21_027: [The run shall send the blob request message to the iothub, using the httpsTransportManager.] */
-                responseMessage = httpsTransportManager.send(message);
-            /* Codes_SRS_FILEUPLOADTASK_21_028: [The run shall close the connection with the iothub, using the httpsTransportManager.] */
-                httpsTransportManager.close();
-            }
+            ResponseMessage responseMessage = httpsTransportManager.send(message);
 
             responseStatus = responseMessage.getStatus();
         }
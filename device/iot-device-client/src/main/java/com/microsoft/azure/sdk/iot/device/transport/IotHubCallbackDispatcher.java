@@ -0,0 +1,264 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubResponseCallback;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Invokes the user callbacks of the completed requests out of the transport send thread, so a
+ * slow callback does not hold the transport locks nor delay the next messages to be sent.
+ *
+ * The transport hands the callback packets to {@link #dispatch(IotHubCallbackPacket)}, which
+ * queues them in a bounded queue. The callbacks are invoked one at a time, in the order they
+ * were dispatched, by a single drain task running on the executor. The executor can be shared
+ * by several clients: each client has its own dispatcher, so the callbacks of each device are
+ * still invoked in order, while callbacks of different devices may run concurrently.
+ *
+ * When the queue is full, {@code dispatch} blocks the transport until the callbacks catch up.
+ */
+public final class IotHubCallbackDispatcher
+{
+    /** Default capacity of the callback queue, in number of callbacks. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /** Maximum time that {@link #close()} waits for the queued callbacks. */
+    private static final long CLOSE_TIMEOUT_MILLISECONDS = 10000L;
+
+    private final BlockingQueue<IotHubCallbackPacket> queue;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final Object idleLock = new Object();
+    private final Runnable drainTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            drain();
+        }
+    };
+
+    private volatile Thread drainThread;
+    private volatile boolean closed;
+
+    /**
+     * Private logger for class
+     */
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructor.
+     *
+     * @param executor the executor to invoke the callbacks on. If {@code null}, the dispatcher
+     *                 creates its own single thread executor, and shuts it down on close.
+     * @param queueCapacity the maximum number of callbacks waiting to be invoked.
+     * @throws IllegalArgumentException if the queue capacity is zero or negative.
+     */
+    public IotHubCallbackDispatcher(ExecutorService executor, int queueCapacity)
+    {
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_001: [If the queue capacity is zero or negative, the constructor shall throw an IllegalArgumentException.]
+        if (queueCapacity <= 0)
+        {
+            throw new IllegalArgumentException("callback queue capacity can not be zero or negative");
+        }
+
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        if (executor == null)
+        {
+            // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_002: [If the executor is null, the constructor shall create a dedicated single thread executor.]
+            this.executor = Executors.newSingleThreadExecutor();
+            this.ownsExecutor = true;
+        }
+        else
+        {
+            // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_003: [The constructor shall save the provided executor.]
+            this.executor = executor;
+            this.ownsExecutor = false;
+        }
+
+        this.closed = false;
+    }
+
+    /**
+     * Queues a callback packet to be invoked on the executor. Blocks while the queue is full.
+     *
+     * @param packet the packet with the callback to invoke.
+     * @throws IllegalArgumentException if the packet is {@code null}.
+     */
+    public void dispatch(IotHubCallbackPacket packet)
+    {
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_004: [If the packet is null, the function shall throw an IllegalArgumentException.]
+        if (packet == null)
+        {
+            throw new IllegalArgumentException("callback packet can not be null");
+        }
+
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_005: [If the dispatcher is closed, the function shall invoke the callback on the caller thread.]
+        if (this.closed)
+        {
+            invoke(packet);
+            return;
+        }
+
+        if (Thread.currentThread() == this.drainThread)
+        {
+            // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_006: [If called from a callback, the function shall not wait for room in the queue, and shall invoke the callback on the caller thread if the queue is full.]
+            if (!this.queue.offer(packet))
+            {
+                invoke(packet);
+            }
+            return;
+        }
+
+        try
+        {
+            // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_007: [The function shall add the packet to the end of the queue, waiting for room if the queue is full.]
+            this.queue.put(packet);
+        }
+        catch (InterruptedException e)
+        {
+            // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_008: [If the thread is interrupted while waiting, the function shall invoke the callback on the caller thread.]
+            Thread.currentThread().interrupt();
+            invoke(packet);
+            return;
+        }
+
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_009: [If no drain task is running, the function shall submit one to the executor.]
+        this.scheduleDrain();
+    }
+
+    /**
+     * Getter for the number of callbacks waiting to be invoked.
+     *
+     * @return the number of callbacks in the queue.
+     */
+    public int getQueueSize()
+    {
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_010: [The function shall return the number of packets in the queue.]
+        return this.queue.size();
+    }
+
+    /**
+     * Waits for the queued callbacks to be invoked, and stops the dispatcher. Callbacks dispatched
+     * after close are invoked on the caller thread. If the dispatcher created its own executor,
+     * the executor is shut down.
+     */
+    public void close()
+    {
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_011: [The function shall mark the dispatcher as closed.]
+        this.closed = true;
+
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_012: [If not called from a callback, the function shall wait, up to a timeout, for the queued callbacks to be invoked.]
+        if (Thread.currentThread() != this.drainThread)
+        {
+            long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLISECONDS;
+            synchronized (this.idleLock)
+            {
+                long remaining = CLOSE_TIMEOUT_MILLISECONDS;
+                while ((!this.queue.isEmpty() || this.drainScheduled.get()) && (remaining > 0))
+                {
+                    try
+                    {
+                        this.idleLock.wait(remaining);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+        }
+
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_013: [If the dispatcher created its own executor, the function shall shut it down.]
+        if (this.ownsExecutor)
+        {
+            this.executor.shutdown();
+        }
+    }
+
+    private void scheduleDrain()
+    {
+        if (this.drainScheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                this.executor.execute(this.drainTask);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // The executor was shut down under us; do not lose the callbacks.
+                logger.LogError("Callback executor rejected the drain task, invoking the callbacks on the caller thread, method name is %s ", CustomLogger.METHOD_NAME);
+                this.drain();
+            }
+        }
+    }
+
+    private void drain()
+    {
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_014: [The drain task shall invoke the queued callbacks, one at a time, in the order they were dispatched.]
+        this.drainThread = Thread.currentThread();
+        while (true)
+        {
+            IotHubCallbackPacket packet = this.queue.poll();
+            if (packet != null)
+            {
+                invoke(packet);
+                continue;
+            }
+
+            this.drainThread = null;
+            this.drainScheduled.set(false);
+
+            // A packet queued between the poll and the reset found the drain still scheduled,
+            // so keep draining unless another drain task already took over.
+            if (this.queue.isEmpty() || !this.drainScheduled.compareAndSet(false, true))
+            {
+                synchronized (this.idleLock)
+                {
+                    this.idleLock.notifyAll();
+                }
+                return;
+            }
+
+            this.drainThread = Thread.currentThread();
+        }
+    }
+
+    private void invoke(IotHubCallbackPacket packet)
+    {
+        Object context = packet.getContext();
+        try
+        {
+            // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_015: [The function shall invoke the event callback and the response callback of the packet, if any.]
+            IotHubEventCallback eventCallback = packet.getCallback();
+            if (eventCallback != null)
+            {
+                eventCallback.execute(packet.getStatus(), context);
+            }
+
+            IotHubResponseCallback responseCallback = packet.getResponseCallback();
+            if (responseCallback != null)
+            {
+                responseCallback.execute(packet.getResponseMessage(), context);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // Codes_SRS_IOTHUBCALLBACKDISPATCHER_28_016: [If an exception is thrown during the callback, the function shall log it and drop the callback.]
+            logger.LogError("Callback threw %s, dropping it, method name is %s ", e.toString(), CustomLogger.METHOD_NAME);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Map of the messages sent by an IoT Hub transport that were not acknowledged yet, keyed by
+ * their delivery id.
+ *
+ * The keys are primitive longs kept in an open addressing table, so adding and removing a
+ * message allocates nothing once the table has grown to the number of messages in flight.
+ * All the methods are thread safe.
+ *
+ * @param <V> the type of the messages in flight.
+ */
+public final class IotHubInFlightMap<V>
+{
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Constructor. Creates an empty map.
+     */
+    public IotHubInFlightMap()
+    {
+        // Codes_SRS_IOTHUBINFLIGHTMAP_28_001: [The constructor shall create an empty map.]
+        this.keys = new long[MIN_CAPACITY];
+        this.values = new Object[MIN_CAPACITY];
+    }
+
+    /**
+     * Adds a message, replacing the one with the same delivery id, if any.
+     *
+     * @param deliveryId the delivery id of the message.
+     * @param value the message.
+     * @return the message replaced, or {@code null} if there was none.
+     * @throws IllegalArgumentException if the message is null.
+     */
+    public synchronized V put(long deliveryId, V value)
+    {
+        // Codes_SRS_IOTHUBINFLIGHTMAP_28_002: [If the value is null, the function shall throw IllegalArgumentException.]
+        if (value == null)
+        {
+            throw new IllegalArgumentException("value cannot be null");
+        }
+
+        // Codes_SRS_IOTHUBINFLIGHTMAP_28_003: [The function shall save the value under the delivery id, and return the
+        // value it replaced, if any.]
+        int index = this.indexOf(deliveryId);
+        if (this.values[index] != null)
+        {
+            V previous = this.valueAt(index);
+            this.values[index] = value;
+            return previous;
+        }
+
+        this.keys[index] = deliveryId;
+        this.values[index] = value;
+        this.size++;
+
+        // keep at least half of the slots empty, so the probe sequences stay short.
+        if (this.size * 2 > this.values.length)
+        {
+            this.resize(this.values.length * 2);
+        }
+
+        return null;
+    }
+
+    /**
+     * Getter for a message.
+     *
+     * @param deliveryId the delivery id of the message.
+     * @return the message, or {@code null} if there is no message with this delivery id.
+     */
+    public synchronized V get(long deliveryId)
+    {
+        // Codes_SRS_IOTHUBINFLIGHTMAP_28_004: [The function shall return the value saved under the delivery id, or null if there is none.]
+        return this.valueAt(this.indexOf(deliveryId));
+    }
+
+    /**
+     * Removes a message.
+     *
+     * @param deliveryId the delivery id of the message.
+     * @return the message removed, or {@code null} if there is no message with this delivery id.
+     */
+    public synchronized V remove(long deliveryId)
+    {
+        int index = this.indexOf(deliveryId);
+        V removed = this.valueAt(index);
+
+        // Codes_SRS_IOTHUBINFLIGHTMAP_28_005: [The function shall remove the value saved under the delivery id, and
+        // return it, or return null if there is none.]
+        if (removed != null)
+        {
+            this.values[index] = null;
+            this.size--;
+            this.closeGap(index);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Checks if there is a message with a given delivery id.
+     *
+     * @param deliveryId the delivery id of the message.
+     * @return true if there is a message with this delivery id, false otherwise.
+     */
+    public synchronized boolean containsKey(long deliveryId)
+    {
+        // Codes_SRS_IOTHUBINFLIGHTMAP_28_006: [The function shall return true if a value is saved under the delivery id, and false otherwise.]
+        return this.values[this.indexOf(deliveryId)] != null;
+    }
+
+    /**
+     * Getter for the number of messages in flight.
+     *
+     * @return the number of messages in the map.
+     */
+    public synchronized int size()
+    {
+        // Codes_SRS_IOTHUBINFLIGHTMAP_28_007: [The function shall return the number of values in the map.]
+        return this.size;
+    }
+
+    /**
+     * Checks if there are no messages in flight.
+     *
+     * @return true if the map is empty, false otherwise.
+     */
+    public synchronized boolean isEmpty()
+    {
+        // Codes_SRS_IOTHUBINFLIGHTMAP_28_010: [The function shall return true if the map holds no value, and false otherwise.]
+        return this.size == 0;
+    }
+
+    /**
+     * Getter for a copy of the messages in flight, in no particular order.
+     *
+     * @return the messages in the map.
+     */
+    public synchronized List<V> values()
+    {
+        // Codes_SRS_IOTHUBINFLIGHTMAP_28_008: [The function shall return a copy of the values in the map.]
+        List<V> result = new ArrayList<>(this.size);
+        for (int i = 0; i < this.values.length; i++)
+        {
+            if (this.values[i] != null)
+            {
+                result.add(this.valueAt(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes all the messages in flight.
+     *
+     * @return the messages removed, in no particular order.
+     */
+    public synchronized List<V> removeAll()
+    {
+        // Codes_SRS_IOTHUBINFLIGHTMAP_28_009: [The function shall empty the map and return the values it held.]
+        List<V> removed = this.values();
+        Arrays.fill(this.values, null);
+        this.size = 0;
+        return removed;
+    }
+
+    /**
+     * Removes all the messages in flight.
+     */
+    public void clear()
+    {
+        // Codes_SRS_IOTHUBINFLIGHTMAP_28_011: [The function shall empty the map.]
+        this.removeAll();
+    }
+
+    /**
+     * Finds the slot of a key: the slot holding it, or the empty slot ending its probe sequence.
+     */
+    private int indexOf(long deliveryId)
+    {
+        int mask = this.values.length - 1;
+        int index = hash(deliveryId) & mask;
+        while (this.values[index] != null && this.keys[index] != deliveryId)
+        {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * Moves back the entries that follow a freed slot in its probe sequence, so no lookup stops
+     * at the gap before reaching them.
+     */
+    private void closeGap(int gap)
+    {
+        int mask = this.values.length - 1;
+        int index = (gap + 1) & mask;
+        while (this.values[index] != null)
+        {
+            int home = hash(this.keys[index]) & mask;
+            // the entry can fill the gap only if its home slot is not between the gap and itself.
+            if (((index - home) & mask) >= ((index - gap) & mask))
+            {
+                this.keys[gap] = this.keys[index];
+                this.values[gap] = this.values[index];
+                this.values[index] = null;
+                gap = index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void resize(int capacity)
+    {
+        long[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        for (int i = 0; i < oldValues.length; i++)
+        {
+            if (oldValues[i] != null)
+            {
+                int index = this.indexOf(oldKeys[i]);
+                this.keys[index] = oldKeys[i];
+                this.values[index] = oldValues[i];
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int index)
+    {
+        return (V) this.values[index];
+    }
+
+    private static int hash(long key)
+    {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
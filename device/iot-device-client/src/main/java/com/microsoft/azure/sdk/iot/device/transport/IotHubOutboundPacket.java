@@ -71,6 +71,17 @@ public final class IotHubOutboundPacket
         return message;
     }
 
+    /**
+     * Getter for the size of the message body.
+     *
+     * @return the number of bytes in the message body, or 0 if there is no message.
+     */
+    public int getMessageSizeInBytes()
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDPACKET_28_001: [The function shall return the size of the message body without copying it, or 0 if the message is null.]
+        return (message == null) ? 0 : message.getBodyLength();
+    }
+
     /**
      * Getter for the callback to be invoked when a response is received.
      *
@@ -0,0 +1,434 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.IotHubOutboundQueuePolicy;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of messages waiting to be sent by an IoT Hub transport, bounded by a number of
+ * messages and a number of body bytes.
+ *
+ * New messages from the user shall be added with {@link #enqueue(IotHubOutboundPacket)}, which
+ * applies the {@link IotHubOutboundQueuePolicy} when the queue is full. The regular {@link java.util.Queue}
+ * methods never block nor reject, so the transport can put back messages that it failed to send.
+ * An empty queue always accepts a message, even if the message alone exceeds the byte capacity.
+ * Once the queue is closed, {@link #enqueue(IotHubOutboundPacket, List)} leaves every new message
+ * out, including the ones of the producers that were waiting for room.
+ */
+public final class IotHubOutboundQueue extends AbstractQueue<IotHubOutboundPacket>
+{
+    /** Default capacity, in number of messages. */
+    public static final int DEFAULT_MAX_MESSAGES = Integer.MAX_VALUE;
+    /** Default capacity, in bytes of message body. */
+    public static final long DEFAULT_MAX_BYTES = Long.MAX_VALUE;
+    /** Default policy when the queue is full. */
+    public static final IotHubOutboundQueuePolicy DEFAULT_POLICY = IotHubOutboundQueuePolicy.BLOCK;
+
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    private int maxMessages;
+    private long maxBytes;
+    private IotHubOutboundQueuePolicy policy;
+    private long sizeInBytes;
+    private boolean closed;
+
+    /**
+     * Constructor. Creates an unbounded queue.
+     */
+    public IotHubOutboundQueue()
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_001: [The constructor shall create an empty queue with the default capacity and policy.]
+        this.maxMessages = DEFAULT_MAX_MESSAGES;
+        this.maxBytes = DEFAULT_MAX_BYTES;
+        this.policy = DEFAULT_POLICY;
+    }
+
+    /**
+     * Setter for the capacity and the policy of the queue. Messages already in the queue are kept.
+     *
+     * @param maxMessages the maximum number of messages in the queue.
+     * @param maxBytes the maximum number of message body bytes in the queue.
+     * @param policy what to do with new messages when the queue is full.
+     * @throws IllegalArgumentException if any of the capacities is zero or negative, or if the policy is {@code null}.
+     */
+    public void setLimits(int maxMessages, long maxBytes, IotHubOutboundQueuePolicy policy)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_002: [If any of the capacities is zero or negative, or the policy is null, the function shall throw IllegalArgumentException.]
+        if (maxMessages <= 0 || maxBytes <= 0L)
+        {
+            throw new IllegalArgumentException("outbound queue capacity can not be zero or negative");
+        }
+
+        if (policy == null)
+        {
+            throw new IllegalArgumentException("outbound queue policy can not be null");
+        }
+
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_003: [The function shall store the new capacities and policy, and wake up the blocked producers.]
+            this.maxMessages = maxMessages;
+            this.maxBytes = maxBytes;
+            this.policy = policy;
+            this.notFull.signalAll();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Opens the queue to new messages, after it was closed.
+     */
+    public void open()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_017: [The function shall accept new packets again.]
+            this.closed = false;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue to new messages, and wakes up the blocked producers, which leave their
+     * message out. Messages already in the queue are kept, so the transport can complete them.
+     */
+    public void close()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_018: [The function shall close the queue, and wake up the blocked producers.]
+            this.closed = true;
+            this.notFull.signalAll();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if the queue is closed to new messages.
+     *
+     * @return {@code true} if the queue was closed and not opened again.
+     */
+    public boolean isClosed()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_019: [The function shall return true if the queue is closed.]
+            return this.closed;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a new message to the queue, applying the policy if the queue is full.
+     *
+     * @param packet the packet to add.
+     * @return the packet that was not kept in the queue, which is the provided one if it was rejected,
+     * or the oldest one if it was dropped to make room. {@code null} if no packet was left out. When
+     * several packets had to be dropped, only the first one is returned, use
+     * {@link #enqueue(IotHubOutboundPacket, List)} to get all of them.
+     * @throws IllegalArgumentException if the packet is {@code null}.
+     */
+    public IotHubOutboundPacket enqueue(IotHubOutboundPacket packet)
+    {
+        List<IotHubOutboundPacket> leftOut = new ArrayList<>(1);
+        this.enqueue(packet, leftOut);
+        return leftOut.isEmpty() ? null : leftOut.get(0);
+    }
+
+    /**
+     * Adds a new message to the queue, applying the policy if the queue is full.
+     *
+     * @param packet the packet to add.
+     * @param leftOut the list where to add the packets that were not kept in the queue, which is the
+     *                provided one if it was rejected or the queue is closed, or the oldest ones if they
+     *                were dropped to make room.
+     * @throws IllegalArgumentException if the packet or the list is {@code null}.
+     */
+    public void enqueue(IotHubOutboundPacket packet, List<IotHubOutboundPacket> leftOut)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_004: [If the packet or the list is null, the function shall throw IllegalArgumentException.]
+        if (packet == null || leftOut == null)
+        {
+            throw new IllegalArgumentException("packet and leftOut list can not be null");
+        }
+
+        Entry entry = new Entry(packet);
+
+        this.lock.lock();
+        try
+        {
+            while (true)
+            {
+                if (this.closed)
+                {
+                    // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_020: [If the queue is closed, or is closed while the function waits
+                    // for room, the function shall add the packet to the left out list without queuing it.]
+                    leftOut.add(packet);
+                    return;
+                }
+
+                if (this.fits(entry))
+                {
+                    break;
+                }
+
+                switch (this.policy)
+                {
+                    case REJECT:
+                        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_005: [If the queue is full and the policy is REJECT, the function shall add the packet to the left out list without queuing it.]
+                        leftOut.add(packet);
+                        return;
+                    case DROP_OLDEST:
+                        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_006: [If the queue is full and the policy is DROP_OLDEST, the function shall remove the oldest packets until the new one fits, and add them to the left out list.]
+                        leftOut.add(this.removeFirstEntry().packet);
+                        break;
+                    default:
+                        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_007: [If the queue is full and the policy is BLOCK, the function shall wait until there is room for the packet.]
+                        try
+                        {
+                            this.notFull.await();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_008: [If the thread is interrupted while waiting, the function shall add the packet to the left out list without queuing it.]
+                            Thread.currentThread().interrupt();
+                            leftOut.add(packet);
+                            return;
+                        }
+                        break;
+                }
+            }
+
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_009: [The function shall add the packet to the end of the queue.]
+            this.addLastEntry(entry);
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a packet to the end of the queue, ignoring the capacity. Meant to put back
+     * messages that the transport failed to send.
+     *
+     * @param packet the packet to add.
+     * @return always {@code true}.
+     * @throws NullPointerException if the packet is {@code null}.
+     */
+    @Override
+    public boolean offer(IotHubOutboundPacket packet)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_010: [If the packet is null, the function shall throw NullPointerException.]
+        if (packet == null)
+        {
+            throw new NullPointerException("packet can not be null");
+        }
+
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_011: [The function shall add the packet to the end of the queue regardless of the capacity.]
+            this.addLastEntry(new Entry(packet));
+            return true;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the packet at the head of the queue.
+     *
+     * @return the packet at the head of the queue, or {@code null} if the queue is empty.
+     */
+    @Override
+    public IotHubOutboundPacket poll()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_012: [The function shall remove and return the packet at the head of the queue, or return null if the queue is empty.]
+            if (this.entries.isEmpty())
+            {
+                return null;
+            }
+
+            return this.removeFirstEntry().packet;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the packet at the head of the queue without removing it.
+     *
+     * @return the packet at the head of the queue, or {@code null} if the queue is empty.
+     */
+    @Override
+    public IotHubOutboundPacket peek()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_013: [The function shall return the packet at the head of the queue, or null if the queue is empty.]
+            Entry entry = this.entries.peekFirst();
+            return (entry == null) ? null : entry.packet;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for the number of messages in the queue.
+     *
+     * @return the number of messages in the queue.
+     */
+    @Override
+    public int size()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_014: [The function shall return the number of packets in the queue.]
+            return this.entries.size();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for the number of message body bytes in the queue.
+     *
+     * @return the sum of the body sizes of the messages in the queue.
+     */
+    public long sizeInBytes()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_015: [The function shall return the sum of the body sizes of the packets in the queue.]
+            return this.sizeInBytes;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queue. The iterator does not support
+     * {@code remove}.
+     *
+     * @return an iterator over the packets in the queue, from head to tail.
+     */
+    @Override
+    public Iterator<IotHubOutboundPacket> iterator()
+    {
+        List<IotHubOutboundPacket> snapshot;
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_28_016: [The function shall return an iterator over a snapshot of the packets in the queue.]
+            snapshot = new ArrayList<>(this.entries.size());
+            for (Entry entry : this.entries)
+            {
+                snapshot.add(entry.packet);
+            }
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+
+        final Iterator<IotHubOutboundPacket> snapshotIterator = snapshot.iterator();
+        return new Iterator<IotHubOutboundPacket>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return snapshotIterator.hasNext();
+            }
+
+            @Override
+            public IotHubOutboundPacket next()
+            {
+                return snapshotIterator.next();
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException("remove is not supported");
+            }
+        };
+    }
+
+    private boolean fits(Entry entry)
+    {
+        return this.entries.isEmpty() ||
+                ((this.entries.size() < this.maxMessages) && (entry.sizeInBytes <= this.maxBytes - this.sizeInBytes));
+    }
+
+    private void addLastEntry(Entry entry)
+    {
+        this.entries.addLast(entry);
+        this.sizeInBytes += entry.sizeInBytes;
+    }
+
+    private Entry removeFirstEntry()
+    {
+        Entry entry = this.entries.removeFirst();
+        this.sizeInBytes -= entry.sizeInBytes;
+        this.notFull.signalAll();
+        return entry;
+    }
+
+    /** A packet together with its body size, computed once when it is queued. */
+    private static final class Entry
+    {
+        private final IotHubOutboundPacket packet;
+        private final long sizeInBytes;
+
+        private Entry(IotHubOutboundPacket packet)
+        {
+            this.packet = packet;
+            this.sizeInBytes = packet.getMessageSizeInBytes();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+/**
+ * Event driven alternative to scheduling the {@link IotHubSendTask} at a fixed rate.
+ * Meant to be run on a dedicated thread; runs the send task as soon as the transport
+ * signals new outbound work, and parks while the transport is idle.
+ *
+ * If the transport still holds work after a pass (for instance, messages waiting for
+ * an acknowledgement or waiting to be retried), the loop runs the send task again
+ * after the retry period, even if no signal arrives.
+ */
+public final class IotHubSendLoop implements Runnable, IotHubSendSignal
+{
+    private final IotHubTransport transport;
+    private final IotHubSendTask sendTask;
+    private final Object signalLock = new Object();
+
+    private long retryPeriodInMilliseconds;
+    private boolean signaled;
+    private boolean stopped;
+
+    /**
+     * Private logger for class
+     */
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructor.
+     *
+     * @param transport the transport to send messages on.
+     * @param sendTask the task that sends the queued messages and invokes the callbacks.
+     * @param retryPeriodInMilliseconds the period to run the send task while the transport is not empty.
+     * @throws IllegalArgumentException if the transport or the send task is {@code null}, or if the retry period is zero or negative.
+     */
+    public IotHubSendLoop(IotHubTransport transport, IotHubSendTask sendTask, long retryPeriodInMilliseconds)
+    {
+        // Codes_SRS_IOTHUBSENDLOOP_28_002: [If the transport or the send task is null, the constructor shall throw an IllegalArgumentException.]
+        if (transport == null)
+        {
+            throw new IllegalArgumentException("Parameter 'transport' must not be null");
+        }
+
+        if (sendTask == null)
+        {
+            throw new IllegalArgumentException("Parameter 'sendTask' must not be null");
+        }
+
+        // Codes_SRS_IOTHUBSENDLOOP_28_001: [The constructor shall save the transport, the send task and the retry period.]
+        this.transport = transport;
+        this.sendTask = sendTask;
+        this.setRetryPeriodInMilliseconds(retryPeriodInMilliseconds);
+    }
+
+    /**
+     * Setter for the period to run the send task while the transport still has pending work.
+     *
+     * @param retryPeriodInMilliseconds the new retry period in milliseconds.
+     * @throws IllegalArgumentException if the provided period is zero or negative.
+     */
+    public void setRetryPeriodInMilliseconds(long retryPeriodInMilliseconds)
+    {
+        // Codes_SRS_IOTHUBSENDLOOP_28_003: [If the provided retry period is zero or negative, the function shall throw an IllegalArgumentException.]
+        if (retryPeriodInMilliseconds <= 0L)
+        {
+            throw new IllegalArgumentException("retry period can not be zero or negative");
+        }
+
+        synchronized (this.signalLock)
+        {
+            // Codes_SRS_IOTHUBSENDLOOP_28_004: [The function shall store the new retry period and wake up the loop.]
+            this.retryPeriodInMilliseconds = retryPeriodInMilliseconds;
+            this.signalLock.notifyAll();
+        }
+    }
+
+    /**
+     * Notifies the loop that the transport has new outbound work.
+     */
+    public void signal()
+    {
+        synchronized (this.signalLock)
+        {
+            // Codes_SRS_IOTHUBSENDLOOP_28_005: [The function shall mark the loop as signaled and wake it up.]
+            this.signaled = true;
+            this.signalLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops the loop. The current pass of the send task, if any, is completed.
+     */
+    public void stop()
+    {
+        synchronized (this.signalLock)
+        {
+            // Codes_SRS_IOTHUBSENDLOOP_28_006: [The function shall mark the loop as stopped and wake it up.]
+            this.stopped = true;
+            this.signalLock.notifyAll();
+        }
+    }
+
+    public void run()
+    {
+        logger.LogTrace("Event driven send loop started");
+
+        try
+        {
+            // Codes_SRS_IOTHUBSENDLOOP_28_007: [The function shall run the send task until the loop is stopped.]
+            while (!this.isStopped())
+            {
+                synchronized (this.signalLock)
+                {
+                    this.signaled = false;
+                }
+
+                // Codes_SRS_IOTHUBSENDLOOP_28_008: [The function shall run the send task on each pass.]
+                this.sendTask.run();
+
+                // the transport may take its own locks in isEmpty, so it shall not be called while holding
+                // the signal lock, otherwise a transport signaling from under its locks would deadlock.
+                boolean idle = this.transport.isEmpty();
+
+                synchronized (this.signalLock)
+                {
+                    if (!this.signaled && !this.stopped)
+                    {
+                        if (idle)
+                        {
+                            // Codes_SRS_IOTHUBSENDLOOP_28_009: [If the transport is empty, the function shall wait for a signal before the next pass.]
+                            this.signalLock.wait();
+                        }
+                        else
+                        {
+                            // Codes_SRS_IOTHUBSENDLOOP_28_010: [If the transport is not empty, the function shall wait for a signal at most the retry period before the next pass.]
+                            this.signalLock.wait(this.retryPeriodInMilliseconds);
+                        }
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Codes_SRS_IOTHUBSENDLOOP_28_011: [If the thread is interrupted, the function shall return.]
+            Thread.currentThread().interrupt();
+        }
+
+        logger.LogTrace("Event driven send loop stopped");
+    }
+
+    private boolean isStopped()
+    {
+        synchronized (this.signalLock)
+        {
+            return this.stopped;
+        }
+    }
+}
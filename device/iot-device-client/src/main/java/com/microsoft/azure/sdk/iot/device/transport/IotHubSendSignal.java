@@ -0,0 +1,18 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+/**
+ * An interface for the component that drives the send side of an IoT Hub transport.
+ *
+ * The transport will call {@link IotHubSendSignal#signal()} every time it gets new
+ * outbound work, that is, a message waiting to be sent or a callback waiting to be invoked.
+ */
+public interface IotHubSendSignal
+{
+    /**
+     * Notifies that the transport has new outbound work. Must not block.
+     */
+    void signal();
+}
@@ -72,9 +72,11 @@ public interface IotHubTransport extends Closeable
 
     /**
      * <p>
-     * Invokes the message callback if a message is found and
+     * Invokes the message callback on each message found and
      * responds to the IoT Hub on how the processed message should be
-     * handled by the IoT Hub.
+     * handled by the IoT Hub. The messages are handled until there are
+     * none left, or until the maximum number of messages per receive
+     * given in the configuration is reached.
      * </p>
      * If no message callback is set, the function will do nothing.
      *
@@ -91,6 +93,20 @@ public interface IotHubTransport extends Closeable
      */
     boolean isEmpty();
 
+    /**
+     * Returns the number of messages waiting to be sent.
+     *
+     * @return the number of messages in the transport queue.
+     */
+    int getOutboundQueueSize();
+
+    /**
+     * Returns the number of message body bytes waiting to be sent.
+     *
+     * @return the number of message body bytes in the transport queue.
+     */
+    long getOutboundQueueSizeInBytes();
+
     /**
      * Registers a callback to be executed whenever the connection to the IoT Hub is lost or established.
      * 
@@ -99,4 +115,21 @@ public interface IotHubTransport extends Closeable
      * {@code null} if no callback is provided.
      */
     void registerConnectionStateCallback(IotHubConnectionStateCallback callback, Object callbackContext);
+
+    /**
+     * Registers the signal to be notified whenever the transport gets new outbound
+     * work, that is, a message to be sent or a callback to be invoked.
+     *
+     * @param sendSignal the signal to be notified. Can be {@code null} to stop notifying.
+     */
+    void registerSendSignal(IotHubSendSignal sendSignal);
+
+    /**
+     * Registers the dispatcher to hand the callbacks of the completed requests to, instead
+     * of invoking them on the thread that calls {@link #invokeCallbacks()}.
+     *
+     * @param callbackDispatcher the dispatcher to invoke the callbacks. Can be {@code null} to
+     *                           invoke the callbacks directly.
+     */
+    void registerCallbackDispatcher(IotHubCallbackDispatcher callbackDispatcher);
 }
@@ -10,7 +10,7 @@ import com.microsoft.azure.sdk.iot.device.CustomLogger;
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubMessageResult;
 import com.microsoft.azure.sdk.iot.device.ObjectLock;
-import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenProvider;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 import org.apache.qpid.proton.Proton;
@@ -33,7 +33,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -48,7 +50,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
 {
     private static final int MAX_WAIT_TO_OPEN_CLOSE_CONNECTION = 1*60*1000; // 1 second timeout
     private static final int MAX_WAIT_TO_TERMINATE_EXECUTOR = 30;
-    private State state;
+    private volatile State state;
 
     private static final String SENDER_TAG = "sender";
     private static final String RECEIVE_TAG = "receiver";
@@ -58,9 +60,15 @@ public final class AmqpsIotHubConnection extends BaseHandler
     private static final String RECEIVE_ENDPOINT_FORMAT = "/devices/%s/messages/devicebound";
     private final String receiveEndpoint;
 
+    /** The link credit; only used on the reactor thread. */
     private int linkCredit = -1;
     /** The {@link Delivery} tag. */
     private long nextTag = 0;
+    private static final int MIN_ENCODE_BUFFER_SIZE = 1024;
+    /** The buffer the messages are encoded into; only used on the reactor thread. */
+    private byte[] encodeBuffer = new byte[MIN_ENCODE_BUFFER_SIZE];
+    /** Moving average of the recent encoded sizes, to shrink the encode buffer after large messages. */
+    private int recentEncodedSize = MIN_ENCODE_BUFFER_SIZE;
     private static final String VERSION_IDENTIFIER_KEY = "com.microsoft:client-version";
     private static final String WEB_SOCKET_PATH = "/$iothub/websocket";
     private static final String WEB_SOCKET_SUB_PROTOCOL = "AMQPWSB10";
@@ -78,6 +86,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
 
     private final Boolean useWebSockets;
     private DeviceClientConfig config;
+    private IotHubSasTokenProvider sasTokenProvider;
 
     private final List<ServerListener> listeners = new ArrayList<>();
     private ExecutorService executorService;
@@ -85,7 +94,13 @@ public final class AmqpsIotHubConnection extends BaseHandler
     private final ObjectLock openLock = new ObjectLock();
     private final ObjectLock closeLock = new ObjectLock();
 
-    private Reactor reactor;
+    private volatile Reactor reactor;
+
+    /** Messages handed over by {@link #sendMessage(Message, long)}, waiting to be sent on the reactor thread. */
+    private final Queue<PendingDelivery> pendingDeliveries = new ConcurrentLinkedQueue<>();
+
+    /** Guards the check of the state and the queuing of a pending delivery against a connection loss. */
+    private final Object pendingDeliveriesLock = new Object();
 
     private Boolean reconnectCall = false;
     private int currentReconnectionAttempt = 1;
@@ -127,6 +142,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_002: [The constructor shall save the configuration into private member variables.]
         this.config = config;
+        this.sasTokenProvider = new IotHubSasTokenProvider(config);
 
         String deviceId = this.config.getDeviceId();
         String iotHubName = this.config.getIotHubName();
@@ -167,14 +183,14 @@ public final class AmqpsIotHubConnection extends BaseHandler
             logger.LogError(e);
             throw new IOException("Could not create Proton reactor");
         }
-        logger.LogInfo("AmqpsIotHubConnection object is created successfully using port %s in %s method ", useWebSockets ? AMQP_WEB_SOCKET_PORT : AMQP_PORT, logger.getMethodName());
+        logger.LogInfo("AmqpsIotHubConnection object is created successfully using port %s in %s method ", useWebSockets ? AMQP_WEB_SOCKET_PORT : AMQP_PORT, CustomLogger.METHOD_NAME);
     }
 
     /**
      * Opens the {@link AmqpsIotHubConnection}.
      * <p>
      *     If the current connection is not open, this method
-     *     will create a new {@link IotHubSasToken}. This method will
+     *     will get a SAS token from its {@link IotHubSasTokenProvider}. This method will
      *     start the {@link Reactor}, set the connection to open and make it ready for sending.
      * </p>
      *
@@ -226,6 +242,8 @@ public final class AmqpsIotHubConnection extends BaseHandler
      */
     public void close() throws IOException
     {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_28_006: [The function shall drop the pending deliveries.]
+        this.pendingDeliveries.clear();
 
         closeAsync();
 
@@ -242,7 +260,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
         }
 
         if (this.executorService != null) {
-            logger.LogInfo("Shutdown of executor service has started, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Shutdown of executor service has started, method name is %s ", CustomLogger.METHOD_NAME);
             this.executorService.shutdown();
             try {
                 // Wait a while for existing tasks to terminate
@@ -258,7 +276,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
                 // (Re-)Cancel if current thread also interrupted
                 this.executorService.shutdownNow();
             }
-            logger.LogInfo("Shutdown of executor service completed, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Shutdown of executor service completed, method name is %s ", CustomLogger.METHOD_NAME);
         }
     }
 
@@ -266,10 +284,9 @@ public final class AmqpsIotHubConnection extends BaseHandler
     {
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_008: [The function shall create a new sasToken valid for the duration
         // specified in config to be used for the communication with IoTHub.]
-        this.sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000L +
-                this.config.getTokenValidSecs() + 1L).toString();
+        this.sasToken = this.sasTokenProvider.getSasTokenValidFor(this.config.getTokenValidSecs());
 				
-        logger.LogInfo("SAS Token is created successfully, method name is %s ", logger.getMethodName());
+        logger.LogInfo("SAS Token is created successfully, method name is %s ", CustomLogger.METHOD_NAME);
 
         if (this.reactor == null)
         {
@@ -284,7 +301,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
         IotHubReactor iotHubReactor = new IotHubReactor(reactor);
         ReactorRunner reactorRunner = new ReactorRunner(iotHubReactor);
         executorService.submit(reactorRunner);
-        logger.LogInfo("Reactor is assigned to executor service, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Reactor is assigned to executor service, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     private void closeAsync()
@@ -307,74 +324,150 @@ public final class AmqpsIotHubConnection extends BaseHandler
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_014: [The function shall stop the Proton reactor.]
 
         this.reactor.stop();
-        logger.LogInfo("Proton reactor has been stopped, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Proton reactor has been stopped, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
-     * Creates a binary message using the given content and messageId. Sends the created message using the sender link.
+     * Hands a message over to the reactor thread, which encodes it and sends it using the sender link as soon as
+     * there is link credit. The sender link is never touched from the calling thread.
+     *
      * @param message The message to be sent.
-     * @return An {@link Integer} representing the hash of the message, or -1 if the connection is closed.
+     * @param deliveryId The identifier the listeners are notified with once the message is acknowledged.
+     * @return true if the message was handed over to the reactor thread, or false if the connection is closed.
      */
-    public Integer sendMessage(Message message)
+    public boolean sendMessage(Message message, long deliveryId)
     {
-        Integer deliveryHash;
-
-        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is CLOSED or there is not enough
-        // credit, the function shall return -1.]
-        if (this.state == State.CLOSED || this.linkCredit <= 0)
+        synchronized (this.pendingDeliveriesLock)
         {
-            deliveryHash = -1;
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is CLOSED, the function shall return false.]
+            if (this.state == State.CLOSED)
+            {
+                return false;
+            }
+
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_28_001: [The function shall add the message and its delivery id to the queue of
+            // pending deliveries, without touching the sender link.]
+            this.pendingDeliveries.add(new PendingDelivery(message, deliveryId));
         }
-        else
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_28_002: [The function shall wake up the Proton reactor, and return true.]
+        Reactor currentReactor = this.reactor;
+        if (currentReactor != null)
         {
+            try
+            {
+                currentReactor.wakeup();
+            }
+            catch (RuntimeException e)
+            {
+                // the reactor is stopping; the pending deliveries are dropped or sent when it runs again.
+                logger.LogError(e);
+            }
+        }
 
-            // Codes_SRS_AMQPSIOTHUBCONNECTION_15_016: [The function shall encode the message and copy the contents to the byte buffer.]
-            byte[] msgData = new byte[1024];
-            int length;
+        return true;
+    }
 
-            logger.LogInfo("Started encoding of message - entering in while loop, method name is %s ", logger.getMethodName());
-            while (true)
+    /**
+     * Sends the pending deliveries, in order, for as long as there is link credit. Runs on the reactor thread only.
+     */
+    private void sendPendingDeliveries()
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_28_003: [The pending deliveries shall be sent, in order, for as long as the
+        // connection is open and there is link credit.]
+        while (this.state == State.OPEN && this.sender != null && this.linkCredit > 0)
+        {
+            PendingDelivery pendingDelivery = this.pendingDeliveries.poll();
+            if (pendingDelivery == null)
             {
-                try
-                {
-                    length = message.encode(msgData, 0, msgData.length);
-                    logger.LogInfo("Completed encoding of message, length is %s - breaking the while loop to come out, method name is %s ", length, logger.getMethodName());
-                    break;
-                }
-                catch (BufferOverflowException e)
-                {
-                    logger.LogError(e);
-                    msgData = new byte[msgData.length * 2];
-                }
+                break;
             }
-            // Codes_SRS_AMQPSIOTHUBCONNECTION_15_017: [The function shall set the delivery tag for the sender.]
-            byte[] tag = String.valueOf(this. nextTag++).getBytes();
-	    Delivery dlv = sender.delivery(tag);
-	    try
-	    {
-            logger.LogInfo("Attempting to send the message using the sender link, method name is %s ", logger.getMethodName());
+
+            this.sendPendingDelivery(pendingDelivery);
+            this.linkCredit--;
+        }
+    }
+
+    private void sendPendingDelivery(PendingDelivery pendingDelivery)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_016: [The function shall encode the message into the reusable encode buffer.]
+        int length = this.encode(pendingDelivery.message);
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_017: [The function shall set the delivery tag for the sender to the 8 bytes
+        // of the next tag number.]
+        Delivery dlv = sender.delivery(deliveryTag(this.nextTag++));
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_020: [The function shall attach the pending delivery to the delivery.]
+        dlv.setContext(pendingDelivery);
+        try
+        {
+            logger.LogInfo("Attempting to send the message using the sender link, method name is %s ", CustomLogger.METHOD_NAME);
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_018: [The function shall attempt to send the message using the sender link.]
-            sender.send(msgData, 0, length);
+            sender.send(this.encodeBuffer, 0, length);
 
-            logger.LogInfo("Advancing the sender link, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Advancing the sender link, method name is %s ", CustomLogger.METHOD_NAME);
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_019: [The function shall advance the sender link.]
             sender.advance();
-
-            // Codes_SRS_AMQPSIOTHUBCONNECTION_15_020: [The function shall set the delivery hash to the value returned by the sender link.]
-            deliveryHash = dlv.hashCode();
-            logger.LogInfo("Delivery hash returned by the sender link %s, method name is %s ", deliveryHash, logger.getMethodName());
         }
         catch (Exception e)
         {
             // If proton failed sending, release dlv object. Otherwise release it when received a disposition frame from proton.
             sender.advance();
             dlv.free();
-            deliveryHash = -1;
-	    }
-	}
 
-        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_021: [The function shall return the delivery hash.]
-        return deliveryHash;
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_15_021: [If the send fails, the function shall free the delivery and notify
+            // the listeners that the message was not sent.]
+            for (ServerListener listener : listeners)
+            {
+                listener.messageSent(pendingDelivery.getDeliveryId(), false);
+            }
+        }
+    }
+
+    /**
+     * Encodes a message into the encode buffer, growing it as needed, and shrinking it back once the
+     * recent messages are much smaller than the buffer. Runs on the reactor thread only.
+     *
+     * @return the length of the encoded message.
+     */
+    private int encode(Message message)
+    {
+        int length;
+        while (true)
+        {
+            try
+            {
+                length = message.encode(this.encodeBuffer, 0, this.encodeBuffer.length);
+                logger.LogInfo("Completed encoding of message, length is %s, method name is %s ", length, CustomLogger.METHOD_NAME);
+                break;
+            }
+            catch (BufferOverflowException e)
+            {
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_28_008: [If the message does not fit, the encode buffer shall be doubled.]
+                this.encodeBuffer = new byte[this.encodeBuffer.length * 2];
+            }
+        }
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_28_009: [If the encode buffer is more than 4 times the moving average of the
+        // recent encoded sizes, it shall be shrunk, but never below 1024 bytes.]
+        this.recentEncodedSize += (length - this.recentEncodedSize) / 8;
+        if (this.encodeBuffer.length > MIN_ENCODE_BUFFER_SIZE && this.encodeBuffer.length > 4 * this.recentEncodedSize)
+        {
+            this.encodeBuffer = new byte[Math.max(MIN_ENCODE_BUFFER_SIZE, Integer.highestOneBit(this.recentEncodedSize) << 2)];
+        }
+
+        return length;
+    }
+
+    private static byte[] deliveryTag(long tagNumber)
+    {
+        byte[] tag = new byte[8];
+        for (int i = tag.length - 1; i >= 0; i--)
+        {
+            tag[i] = (byte) tagNumber;
+            tagNumber >>>= 8;
+        }
+        return tag;
     }
 
     /**
@@ -393,7 +486,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
         {
             try
             {
-                logger.LogInfo("Acknowledgement for received message is %s, method name is %s ", result.name(), logger.getMethodName());
+                logger.LogInfo("Acknowledgement for received message is %s, method name is %s ", result.name(), CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_023: [If the message result is COMPLETE, ABANDON, or REJECT,
                 // the function shall acknowledge the last message with acknowledgement type COMPLETE, ABANDON, or REJECT respectively.]
                 switch (result)
@@ -409,7 +502,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
                         break;
                     default:
                         // should never happen.
-                        logger.LogError("Invalid IoT Hub message result (%s), method name is %s ", result.name(), logger.getMethodName());
+                        logger.LogError("Invalid IoT Hub message result (%s), method name is %s ", result.name(), CustomLogger.METHOD_NAME);
                         throw new IllegalStateException("Invalid IoT Hub message result.");
                 }
 
@@ -432,7 +525,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onConnectionInit(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_025: [The event handler shall get the Connection (Proton) object from the event handler and set the host name on the connection.]
         this.connection = event.getConnection();
         this.connection.setHostname(this.hostName);
@@ -455,7 +548,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
         this.session.open();
         receiver.open();
         sender.open();
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -465,7 +558,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onConnectionBound(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_030: [The event handler shall get the Transport (Proton) object from the event.]
         Transport transport = event.getConnection().getTransport();
         if(transport != null){
@@ -488,15 +581,15 @@ public final class AmqpsIotHubConnection extends BaseHandler
         {
             openLock.notifyLock();
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     @Override
     public void onConnectionUnbound(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         this.state = State.CLOSED;
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -506,7 +599,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onReactorInit(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_033: [The event handler shall set the current handler to handle the connection events.]
         if(this.useWebSockets)
         {
@@ -517,13 +610,25 @@ public final class AmqpsIotHubConnection extends BaseHandler
         {
             event.getReactor().connectionToHost(this.config.getIotHubHostname(), AMQP_PORT, this);
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
+    }
+
+    /**
+     * Event handler for the reactor quiesced event, raised once per I/O cycle when the reactor has no other events
+     * to process, including after {@link #sendMessage(Message, long)} woke it up.
+     * @param event Proton Event object
+     */
+    @Override
+    public void onReactorQuiesced(Event event)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_28_005: [The event handler shall send the pending deliveries the link credit allows.]
+        this.sendPendingDeliveries();
     }
 
     @Override
     public void onReactorFinal(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         synchronized (closeLock)
         {
             closeLock.notifyLock();
@@ -540,10 +645,9 @@ public final class AmqpsIotHubConnection extends BaseHandler
             } catch (IOException e)
             {
                 logger.LogError(e);
-                e.printStackTrace();
             }
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -553,29 +657,29 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onDelivery(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         if(event.getLink().getName().equals(RECEIVE_TAG))
         {
-            logger.LogInfo("Reading the receiver link, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Reading the receiver link, method name is %s ", CustomLogger.METHOD_NAME);
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_034: [If this link is the Receiver link, the event handler shall get the Receiver and Delivery (Proton) objects from the event.]
             Receiver receiveLink = (Receiver) event.getLink();
             Delivery delivery = receiveLink.current();
             if (delivery.isReadable() && !delivery.isPartial()) {
-                logger.LogInfo("Reading the received buffer, method name is %s ", logger.getMethodName());
+                logger.LogInfo("Reading the received buffer, method name is %s ", CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_035: [The event handler shall read the received buffer.]
                 int size = delivery.pending();
                 byte[] buffer = new byte[size];
                 int read = receiveLink.recv(buffer, 0, buffer.length);
                 receiveLink.advance();
-                logger.LogInfo("Reading the received buffer completed, method name is %s ", logger.getMethodName());
+                logger.LogInfo("Reading the received buffer completed, method name is %s ", CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_036: [The event handler shall create an AmqpsMessage object from the decoded buffer.]
                 AmqpsMessage msg = new AmqpsMessage();
 
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_037: [The event handler shall set the AmqpsMessage Deliver (Proton) object.]
                 msg.setDelivery(delivery);
-                logger.LogInfo("Decoding the received message , method name is %s ", logger.getMethodName());
+                logger.LogInfo("Decoding the received message , method name is %s ", CustomLogger.METHOD_NAME);
                 msg.decode(buffer, 0, read);
-                logger.LogInfo("Decoding the received message completed , method name is %s ", logger.getMethodName());
+                logger.LogInfo("Decoding the received message completed , method name is %s ", CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_049: [All the listeners shall be notified that a message was received from the server.]
                 this.messageReceivedFromServer(msg);
             }
@@ -585,39 +689,47 @@ public final class AmqpsIotHubConnection extends BaseHandler
             //Sender specific section for dispositions it receives
             if(event.getType() == Event.Type.DELIVERY)
             {
-                logger.LogInfo("Reading the delivery event in Sender link, method name is %s ", logger.getMethodName());
+                logger.LogInfo("Reading the delivery event in Sender link, method name is %s ", CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_038: [If this link is the Sender link and the event type is DELIVERY, the event handler shall get the Delivery (Proton) object from the event.]
                 Delivery d = event.getDelivery();
                 DeliveryState remoteState = d.getRemoteState();
 
-                // Codes_SRS_AMQPSIOTHUBCONNECTION_15_039: [The event handler shall note the remote delivery state and use it and the Delivery (Proton) hash code to inform the AmqpsIotHubConnection of the message receipt.]
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_15_039: [The event handler shall note the remote delivery state and use it and the delivery id attached to the Delivery (Proton) object to inform the AmqpsIotHubConnection of the message receipt.]
                 boolean state = remoteState.equals(Accepted.getInstance());
-                logger.LogInfo("Is state of remote Delivery COMPLETE ? %s, method name is %s ", state, logger.getMethodName());
-                logger.LogInfo("Inform listener that a message has been sent to IoT Hub along with remote state, method name is %s ", logger.getMethodName());
+                logger.LogInfo("Is state of remote Delivery COMPLETE ? %s, method name is %s ", state, CustomLogger.METHOD_NAME);
+                logger.LogInfo("Inform listener that a message has been sent to IoT Hub along with remote state, method name is %s ", CustomLogger.METHOD_NAME);
                 //let any listener know that the message was received by the server
-                for(ServerListener listener : listeners)
+                Object context = d.getContext();
+                if (context instanceof PendingDelivery)
                 {
-                    listener.messageSent(d.hashCode(), state);
+                    long deliveryId = ((PendingDelivery) context).getDeliveryId();
+                    for(ServerListener listener : listeners)
+                    {
+                        listener.messageSent(deliveryId, state);
+                    }
                 }
-		        // release the delivery object which created in sendMessage().
+		        // release the delivery object which created in sendPendingDelivery().
 		        d.free();
             }
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
-     * Event handler for the link flow event. Handles sending a single message.
+     * Event handler for the link flow event. Sends the pending deliveries the new link credit allows.
      * @param event The Proton Event object.
      */
     @Override
     public void onLinkFlow(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_040: [The event handler shall save the remaining link credit.]
         this.linkCredit = event.getLink().getCredit();
-		logger.LogDebug("The link credit value is %s, method name is %s", this.linkCredit, logger.getMethodName());
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+		logger.LogDebug("The link credit value is %s, method name is %s", this.linkCredit, CustomLogger.METHOD_NAME);
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_28_004: [The event handler shall send the pending deliveries the new credit allows.]
+        this.sendPendingDeliveries();
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -628,7 +740,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onLinkRemoteOpen(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_041: [The connection state shall be considered OPEN when the sender link is open remotely.]
         Link link = event.getLink();
         if (link.getName().equals(SENDER_TAG))
@@ -640,7 +752,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
                 listener.connectionEstablished();
             }
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -652,17 +764,17 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onLinkRemoteClose(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         this.state = State.CLOSED;
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_042 [The event handler shall attempt to startReconnect to the IoTHub.]
         if (event.getLink().getName().equals(SENDER_TAG))
         {
-            logger.LogInfo("Starting to reconnect to IotHub, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Starting to reconnect to IotHub, method name is %s ", CustomLogger.METHOD_NAME);
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_048: [The event handler shall attempt to startReconnect to IoTHub.]
             startReconnect();
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -672,7 +784,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onLinkInit(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         Link link = event.getLink();
         if(link.getName().equals(SENDER_TAG))
         {
@@ -695,7 +807,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
             // Codes_SRS_AMQPSIOTHUBCONNECTION_14_047: [If the link is the Receiver link, the event handler shall set its source to the created Source (Proton) object.]
             link.setSource(source);
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -705,12 +817,12 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onTransportError(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         this.state = State.CLOSED;
-        logger.LogInfo("Starting to reconnect to IotHub, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Starting to reconnect to IotHub, method name is %s ", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_048: [The event handler shall attempt to startReconnect to IoTHub.]
         startReconnect();
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -730,6 +842,17 @@ public final class AmqpsIotHubConnection extends BaseHandler
     {
         reconnectCall = true;
 
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_28_007: [The pending deliveries shall be dropped, since the listeners buffer
+        // them again when notified that the connection was lost.]
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_28_010: [The connection shall be marked CLOSED and the pending deliveries dropped
+        // atomically with respect to sendMessage, so a message handed over during the connection loss is either
+        // dropped and buffered again by the listeners, or refused, but never sent twice.]
+        synchronized (this.pendingDeliveriesLock)
+        {
+            this.state = State.CLOSED;
+            this.pendingDeliveries.clear();
+        }
+
         // Codes_SRS_AMQPSIOTHUBCONNECTION_99_002 [All server listeners shall be notified when that the connection has been lost.]
         for(ServerListener listener : listeners)
         {
@@ -739,8 +862,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
         if (currentReconnectionAttempt == Integer.MAX_VALUE)
             currentReconnectionAttempt = 0;
 
-        System.out.println("Lost connection to the server. Reconnection attempt " + currentReconnectionAttempt++ + "...");
-        logger.LogInfo("Lost connection to the server. Reconnection attempt %s, method name is %s ", currentReconnectionAttempt, logger.getMethodName());
+        logger.LogInfo("Lost connection to the server. Reconnection attempt %s, method name is %s ", currentReconnectionAttempt++, CustomLogger.METHOD_NAME);
         try
         {
             Thread.sleep(TransportUtils.generateSleepInterval(currentReconnectionAttempt));
@@ -758,7 +880,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
      */
     private void messageReceivedFromServer(AmqpsMessage msg)
     {
-        logger.LogInfo("All the listeners are informed that a message has been received, method name is %s ", logger.getMethodName());
+        logger.LogInfo("All the listeners are informed that a message has been received, method name is %s ", CustomLogger.METHOD_NAME);
         for(ServerListener listener : listeners)
         {
             listener.messageReceived(msg);
@@ -781,6 +903,26 @@ public final class AmqpsIotHubConnection extends BaseHandler
         return domain;
     }
 
+    /**
+     * A message waiting to be sent on the reactor thread, with the delivery id to notify the listeners with.
+     */
+    private static final class PendingDelivery
+    {
+        private final Message message;
+        private final long deliveryId;
+
+        private PendingDelivery(Message message, long deliveryId)
+        {
+            this.message = message;
+            this.deliveryId = deliveryId;
+        }
+
+        private long getDeliveryId()
+        {
+            return this.deliveryId;
+        }
+    }
+
     /**
      * Class which runs the reactor.
      */
@@ -0,0 +1,208 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageProperty;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Properties;
+import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts the messages between the IoT Hub {@link Message} and the Proton {@link MessageImpl}.
+ *
+ * The Proton message properties are read through a fixed table of getters, built once, so
+ * converting a message costs no reflection and allocates only the converted message.
+ */
+public final class AmqpsMessageConverter
+{
+    /**
+     * The properties of a Proton message that are copied to an IoT Hub message, with the
+     * name they get in the IoT Hub message.
+     */
+    private enum ProtonProperty
+    {
+        MESSAGE_ID("messageId")
+        {
+            Object get(Properties properties) { return properties.getMessageId(); }
+        },
+        USER_ID("userId")
+        {
+            Object get(Properties properties) { return properties.getUserId(); }
+        },
+        TO("to")
+        {
+            Object get(Properties properties) { return properties.getTo(); }
+        },
+        SUBJECT("subject")
+        {
+            Object get(Properties properties) { return properties.getSubject(); }
+        },
+        REPLY_TO("replyTo")
+        {
+            Object get(Properties properties) { return properties.getReplyTo(); }
+        },
+        CORRELATION_ID("correlationId")
+        {
+            Object get(Properties properties) { return properties.getCorrelationId(); }
+        },
+        CONTENT_TYPE("contentType")
+        {
+            Object get(Properties properties) { return properties.getContentType(); }
+        },
+        CONTENT_ENCODING("contentEncoding")
+        {
+            Object get(Properties properties) { return properties.getContentEncoding(); }
+        },
+        ABSOLUTE_EXPIRY_TIME("absoluteExpiryTime")
+        {
+            Object get(Properties properties) { return properties.getAbsoluteExpiryTime(); }
+        },
+        CREATION_TIME("creationTime")
+        {
+            Object get(Properties properties) { return properties.getCreationTime(); }
+        },
+        GROUP_ID("groupId")
+        {
+            Object get(Properties properties) { return properties.getGroupId(); }
+        },
+        GROUP_SEQUENCE("groupSequence")
+        {
+            Object get(Properties properties) { return properties.getGroupSequence(); }
+        },
+        REPLY_TO_GROUP_ID("replyToGroupId")
+        {
+            Object get(Properties properties) { return properties.getReplyToGroupId(); }
+        };
+
+        private static final ProtonProperty[] ALL = values();
+
+        private final String propertyName;
+
+        ProtonProperty(String propertyName)
+        {
+            this.propertyName = propertyName;
+        }
+
+        abstract Object get(Properties properties);
+    }
+
+    private AmqpsMessageConverter()
+    {
+    }
+
+    /**
+     * Converts a Proton message received from the IoT Hub to an IoT Hub message.
+     *
+     * @param protonMessage the Proton message.
+     * @return the IoT Hub message.
+     */
+    public static Message toIotHubMessage(MessageImpl protonMessage)
+    {
+        // Codes_SRS_AMQPSMESSAGECONVERTER_28_001: [The function shall copy the body of the Proton message to the IoT Hub message.]
+        byte[] body = new byte[0];
+        Section section = protonMessage.getBody();
+        if (section instanceof Data)
+        {
+            Binary binary = ((Data) section).getValue();
+            if (binary != null)
+            {
+                body = new byte[binary.getLength()];
+                System.arraycopy(binary.getArray(), binary.getArrayOffset(), body, 0, body.length);
+            }
+        }
+        Message message = new Message(body);
+
+        // Codes_SRS_AMQPSMESSAGECONVERTER_28_002: [The function shall copy each Proton message property that is set, named
+        // after its getter, if it is a valid application property.]
+        Properties properties = protonMessage.getProperties();
+        if (properties != null)
+        {
+            for (ProtonProperty property : ProtonProperty.ALL)
+            {
+                Object value = property.get(properties);
+                if (value != null)
+                {
+                    String stringValue = value.toString();
+                    if (MessageProperty.isValidAppProperty(property.propertyName, stringValue))
+                    {
+                        message.setProperty(property.propertyName, stringValue);
+                    }
+                }
+            }
+        }
+
+        // Codes_SRS_AMQPSMESSAGECONVERTER_28_003: [The function shall copy each application property of the Proton message
+        // that is not a reserved property.]
+        ApplicationProperties applicationProperties = protonMessage.getApplicationProperties();
+        if (applicationProperties != null && applicationProperties.getValue() != null)
+        {
+            Map<?, ?> values = applicationProperties.getValue();
+            for (Map.Entry<?, ?> entry : values.entrySet())
+            {
+                String name = String.valueOf(entry.getKey());
+                if (entry.getValue() != null && !MessageProperty.RESERVED_PROPERTY_NAMES.contains(name))
+                {
+                    message.setProperty(name, entry.getValue().toString());
+                }
+            }
+        }
+
+        return message;
+    }
+
+    /**
+     * Converts an IoT Hub message to a Proton message to be sent to the IoT Hub.
+     *
+     * @param message the IoT Hub message.
+     * @return the Proton message.
+     */
+    public static MessageImpl toProtonMessage(Message message)
+    {
+        MessageImpl protonMessage = (MessageImpl) Proton.message();
+
+        // Codes_SRS_AMQPSMESSAGECONVERTER_28_004: [The function shall set the message id of the Proton message to the one
+        // of the IoT Hub message.]
+        Properties properties = new Properties();
+        if (message.getMessageId() != null)
+        {
+            properties.setMessageId(message.getMessageId());
+        }
+        protonMessage.setProperties(properties);
+
+        // Codes_SRS_AMQPSMESSAGECONVERTER_28_005: [The function shall add the user properties that are not reserved to the
+        // application properties of the Proton message, and add no application properties if there are none.]
+        MessageProperty[] messageProperties = message.getProperties();
+        Map<String, String> userProperties = null;
+        for (MessageProperty messageProperty : messageProperties)
+        {
+            if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(messageProperty.getName()))
+            {
+                if (userProperties == null)
+                {
+                    // sized so that all the properties fit without rehashing.
+                    userProperties = new HashMap<>(messageProperties.length * 4 / 3 + 1);
+                }
+                userProperties.put(messageProperty.getName(), messageProperty.getValue());
+            }
+        }
+        if (userProperties != null)
+        {
+            protonMessage.setApplicationProperties(new ApplicationProperties(userProperties));
+        }
+
+        // Codes_SRS_AMQPSMESSAGECONVERTER_28_006: [The function shall set the body of the Proton message to a copy of the
+        // body of the IoT Hub message.]
+        protonMessage.setBody(new Data(new Binary(message.getBytes())));
+
+        return protonMessage;
+    }
+}
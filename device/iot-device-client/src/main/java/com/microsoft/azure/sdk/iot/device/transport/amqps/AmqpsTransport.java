@@ -4,26 +4,21 @@
 package com.microsoft.azure.sdk.iot.device.transport.amqps;
 
 import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubInFlightMap;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendSignal;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.State;
-import org.apache.qpid.proton.Proton;
-import org.apache.qpid.proton.amqp.Binary;
-import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
-import org.apache.qpid.proton.amqp.messaging.Data;
-import org.apache.qpid.proton.amqp.messaging.Properties;
-import org.apache.qpid.proton.amqp.messaging.Section;
 import org.apache.qpid.proton.message.impl.MessageImpl;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>
@@ -44,10 +39,13 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
     private AmqpsIotHubConnection connection;
 
     /** Messages waiting to be sent to the IoT Hub. */
-    private final Queue<IotHubOutboundPacket> waitingMessages = new LinkedBlockingDeque<>();
+    private final IotHubOutboundQueue waitingMessages = new IotHubOutboundQueue();
 
     /** Messages which are sent to the IoT Hub but did not receive ack yet. */
-    private final Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
+    private final IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = new IotHubInFlightMap<>();
+
+    /** The delivery id of the next message handed to the connection. */
+    private final AtomicLong nextDeliveryId = new AtomicLong();
 
     /** Messages received from the IoT Hub */
     private final Queue<AmqpsMessage> receivedMessages = new LinkedBlockingQueue<>();
@@ -59,6 +57,10 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
     private IotHubConnectionStateCallback stateCallback;
     private Object stateCallbackContext;
 
+    /** Signal to be notified when there is new outbound work. */
+    private volatile IotHubSendSignal sendSignal;
+    private volatile IotHubCallbackDispatcher callbackDispatcher;
+
     private final DeviceClientConfig config;
     private final Boolean useWebSockets;
     private final CustomLogger logger;
@@ -95,7 +97,15 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         {
             return;
         }
-        logger.LogInfo("Opening the connection..., method name is %s ", logger.getMethodName());
+        logger.LogInfo("Opening the connection..., method name is %s ", CustomLogger.METHOD_NAME);
+
+        // Codes_SRS_AMQPSTRANSPORT_28_005: [The function shall bound the queue of messages waiting to be sent with the capacity and the policy given in the configuration.]
+        this.waitingMessages.setLimits(this.config.getOutboundQueueMaxMessages(),
+                this.config.getOutboundQueueMaxBytes(), this.config.getOutboundQueuePolicy());
+
+        // Codes_SRS_AMQPSTRANSPORT_28_013: [The function shall open the queue of messages waiting to be sent to new messages.]
+        this.waitingMessages.open();
+
         // Codes_SRS_AMQPSTRANSPORT_15_004: [The function shall open an AMQPS connection with the IoT Hub given in the configuration.]
         this.connection = new AmqpsIotHubConnection(this.config, this.useWebSockets);
         try
@@ -113,7 +123,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
 
         // Codes_SRS_AMQPSTRANSPORT_15_006: [If the connection was opened successfully, the transport state shall be set to OPEN.]
         this.state = State.OPEN;
-        logger.LogInfo("Connection has been opened, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Connection has been opened, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -128,9 +138,13 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_007: [If the AMQPS connection is closed, the function shall do nothing.]
         if (this.state == State.CLOSED)
         {
-            logger.LogInfo("The connection is already in closed state, method name is %s ", logger.getMethodName());
+            logger.LogInfo("The connection is already in closed state, method name is %s ", CustomLogger.METHOD_NAME);
             return;
         }
+
+        // Codes_SRS_AMQPSTRANSPORT_28_014: [The method will close the queue of messages waiting to be sent to new
+        // messages, which releases the producers blocked waiting for room.]
+        this.waitingMessages.close();
         
         // Codes_SRS_AMQPSTRANSPORT_99_036: [The method will remove all the messages which are in progress or waiting to be sent and add them to the callback list.]
         while (!this.waitingMessages.isEmpty())
@@ -147,9 +161,8 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
             }
         }
         
-        for (Map.Entry<Integer, IotHubOutboundPacket> entry : inProgressMessages.entrySet())
+        for (IotHubOutboundPacket packet : inProgressMessages.values())
         {
-            IotHubOutboundPacket packet = entry.getValue();
             IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, packet.getCallback(), packet.getContext());
             this.callbackList.add(callbackPacket);
            
@@ -161,14 +174,14 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_033: [The map of messages in progress is cleared.]
         inProgressMessages.clear();
                        
-        logger.LogInfo("Starting to close the connection..., method name is %s ", logger.getMethodName());
+        logger.LogInfo("Starting to close the connection..., method name is %s ", CustomLogger.METHOD_NAME);
        
         // Codes_SRS_AMQPSTRANSPORT_15_008: [The function shall close an AMQPS connection with the IoT Hub given in the configuration.]
         this.connection.close();
 
         // Codes_SRS_AMQPSTRANSPORT_15_009: [The function shall set the transport state to CLOSED.]
         this.state = State.CLOSED;
-        logger.LogInfo("Connection has been closed, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Connection has been closed, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -185,13 +198,35 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_010: [If the AMQPS session is closed, the function shall throw an IllegalStateException.]
         if (this.state == State.CLOSED)
         {
-            logger.LogError("Cannot add a message when the AMQPS transport is closed, method name is %s ", logger.getMethodName());
+            logger.LogError("Cannot add a message when the AMQPS transport is closed, method name is %s ", CustomLogger.METHOD_NAME);
             throw new IllegalStateException("Cannot add a message when the AMQPS transport is closed.");
         }
 
         // Codes_SRS_AMQPSTRANSPORT_15_011: [The function shall add a packet containing the message, callback, and callback context to the queue of messages waiting to be sent.]
         IotHubOutboundPacket packet = new IotHubOutboundPacket(message, callback, callbackContext);
-        this.waitingMessages.add(packet);
+        List<IotHubOutboundPacket> leftOut = new ArrayList<>();
+        this.waitingMessages.enqueue(packet, leftOut);
+
+        // Codes_SRS_AMQPSTRANSPORT_28_006: [For each packet left out of the full queue, the function shall add the MESSAGE_CANCELLED_QUEUE_FULL status code along with the callback and context to the callback list.]
+        for (IotHubOutboundPacket leftOutPacket : leftOut)
+        {
+            if (leftOutPacket == packet && this.waitingMessages.isClosed())
+            {
+                // Codes_SRS_AMQPSTRANSPORT_28_015: [If the transport was closed while the function waited for room in the queue, the function shall invoke the callback with the MESSAGE_CANCELLED_ONCLOSE status code.]
+                // No one invokes the callback list of a closed transport.
+                if (packet.getCallback() != null)
+                {
+                    packet.getCallback().execute(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, packet.getContext());
+                }
+                continue;
+            }
+
+            this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL,
+                    leftOutPacket.getCallback(), leftOutPacket.getContext()));
+        }
+
+        // Codes_SRS_AMQPSTRANSPORT_28_001: [If a send signal is registered, the function shall notify it.]
+        this.signalSend();
     }
 
     /**
@@ -226,7 +261,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_012: [If the AMQPS session is closed, the function shall throw an IllegalStateException.]
         if (this.state == State.CLOSED)
         {
-            logger.LogError("Cannot send messages when the AMQPS transport is closed, method name is %s ", logger.getMethodName());
+            logger.LogError("Cannot send messages when the AMQPS transport is closed, method name is %s ", CustomLogger.METHOD_NAME);
             throw new IllegalStateException("Cannot send messages when the AMQPS transport is closed.");
         }
 
@@ -241,7 +276,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_014: [The function shall attempt to send every message on its waiting list, one at a time.]
         while (!this.waitingMessages.isEmpty())
         {
-           logger.LogInfo("Get the message from waiting message queue to be sent to IoT Hub, method name is %s ", logger.getMethodName());
+           logger.LogInfo("Get the message from waiting message queue to be sent to IoT Hub, method name is %s ", CustomLogger.METHOD_NAME);
            IotHubOutboundPacket packet = this.waitingMessages.remove();
 
             Message message = packet.getMessage();
@@ -253,28 +288,34 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
                 // with the MESSAGE_EXPIRED status and add it to the callback list.]
                 if (message.isExpired())
                 {
-                    logger.LogInfo("Creating a callback for the expired message with MESSAGE_EXPIRED status, method name is %s ", logger.getMethodName());
+                    logger.LogInfo("Creating a callback for the expired message with MESSAGE_EXPIRED status, method name is %s ", CustomLogger.METHOD_NAME);
                     IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, packet.getCallback(), packet.getContext());
                     this.callbackList.add(callbackPacket);
                 }
                 else
                 {
-                    logger.LogInfo("Converting the IoT Hub message into AmqpsMessage, method name is %s ", logger.getMethodName());
+                    logger.LogInfo("Converting the IoT Hub message into AmqpsMessage, method name is %s ", CustomLogger.METHOD_NAME);
                     // Codes_SRS_AMQPSTRANSPORT_15_036: [The function shall create a new Proton message from the IoTHub message.]
-                    MessageImpl protonMessage = iotHubMessageToProtonMessage(message);
+                    // Codes_SRS_AMQPSTRANSPORT_15_038: [The function shall add all user properties to the application properties of the Proton message.]
+                    MessageImpl protonMessage = AmqpsMessageConverter.toProtonMessage(message);
 
-                    // Codes_SRS_AMQPSTRANSPORT_15_037: [The function shall attempt to send the Proton message to IoTHub using the underlying AMQPS connection.]
-                    Integer sendHash = connection.sendMessage(protonMessage);
+                    // Codes_SRS_AMQPSTRANSPORT_28_011: [The function shall add the message to the in progress map under a new
+                    // delivery id before handing it to the connection, so an early acknowledgement always finds it.]
+                    long deliveryId = this.nextDeliveryId.getAndIncrement();
+                    this.inProgressMessages.put(deliveryId, packet);
 
-                    // Codes_SRS_AMQPSTRANSPORT_15_016: [If the sent message hash is valid, it shall be added to the in progress map.]
-                    if (sendHash != -1)
-                    {
-                        this.inProgressMessages.put(sendHash, packet);
-                    }
-                    // Codes_SRS_AMQPSTRANSPORT_15_017: [If the sent message hash is not valid, it shall be buffered to be sent in a subsequent attempt.]
-                    else
+                    // Codes_SRS_AMQPSTRANSPORT_15_037: [The function shall attempt to send the Proton message to IoTHub using the underlying AMQPS connection.]
+                    // Codes_SRS_AMQPSTRANSPORT_15_016: [If the connection accepted the message, it shall stay in the in progress map.]
+                    if (!connection.sendMessage(protonMessage, deliveryId))
                     {
-                        failedMessages.add(packet);
+                        // Codes_SRS_AMQPSTRANSPORT_15_017: [If the connection did not accept the message, it shall be removed from
+                        // the in progress map and buffered to be sent in a subsequent attempt.]
+                        // Codes_SRS_AMQPSTRANSPORT_28_016: [If the message is no longer in the in progress map, because the connection
+                        // loss already buffered it again, the function shall not buffer it a second time.]
+                        if (this.inProgressMessages.remove(deliveryId) != null)
+                        {
+                            failedMessages.add(packet);
+                        }
                     }
                 }
             }
@@ -293,7 +334,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_019: [If the transport closed, the function shall throw an IllegalStateException.]
         if (this.state == State.CLOSED)
         {
-            logger.LogError("Cannot invoke callbacks when AMQPS transport is closed, method name is %s ", logger.getMethodName());
+            logger.LogError("Cannot invoke callbacks when AMQPS transport is closed, method name is %s ", CustomLogger.METHOD_NAME);
             throw new IllegalStateException("Cannot invoke callbacks when AMQPS transport is closed.");
         }
 
@@ -302,20 +343,30 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         {
             IotHubCallbackPacket packet = this.callbackList.remove();
 
+            // Codes_SRS_AMQPSTRANSPORT_28_010: [If a callback dispatcher is registered, the function shall hand the callbacks to it instead of invoking them.]
+            IotHubCallbackDispatcher dispatcher = this.callbackDispatcher;
+            if (dispatcher != null)
+            {
+                dispatcher.dispatch(packet);
+                continue;
+            }
+
             IotHubStatusCode status = packet.getStatus();
             IotHubEventCallback callback = packet.getCallback();
             Object context = packet.getContext();
 
-            logger.LogInfo("Invoking the callback function for sent message, IoT Hub responded to message with status %s, method name is %s ", status.name(), logger.getMethodName());
+            logger.LogInfo("Invoking the callback function for sent message, IoT Hub responded to message with status %s, method name is %s ", status.name(), CustomLogger.METHOD_NAME);
             callback.execute(status, context);
         }
     }
 
     /**
      * <p>
-     * Invokes the message callback if a message is found and
+     * Invokes the message callback on each received message and
      * responds to the IoT Hub on how the processed message should be
-     * handled by the IoT Hub.
+     * handled by the IoT Hub. The received messages are consumed until
+     * there are none left, or until the maximum number of messages per
+     * receive is reached.
      * </p>
      * If no message callback is set, the function will do nothing.
      *
@@ -326,37 +377,45 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_021: [If the transport is closed, the function shall throw an IllegalStateException.]
         if (this.state == State.CLOSED)
         {
-            logger.LogError("Cannot handle messages when AMQPS transport is closed, method name is %s ", logger.getMethodName());
+            logger.LogError("Cannot handle messages when AMQPS transport is closed, method name is %s ", CustomLogger.METHOD_NAME);
             throw new IllegalStateException("Cannot handle messages when AMQPS transport is closed.");
         }
         
-        logger.LogInfo("Get the callback function for the received message, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Get the callback function for the received message, method name is %s ", CustomLogger.METHOD_NAME);
         MessageCallback callback = this.config.getMessageCallback();
 
         // Codes_SRS_AMQPSTRANSPORT_15_025: [If no callback is defined, the list of received messages is cleared.]
         if (callback == null)
         {
-            logger.LogError("Callback is not defined therefore response to IoT Hub cannot be generated. All received messages will be removed from receive message queue, method name is %s ", logger.getMethodName());
+            logger.LogError("Callback is not defined therefore response to IoT Hub cannot be generated. All received messages will be removed from receive message queue, method name is %s ", CustomLogger.METHOD_NAME);
             this.receivedMessages.clear();
             return;
         }
 
-        // Codes_SRS_AMQPSTRANSPORT_15_023: [The function shall attempt to consume a message from the IoT Hub.]
-        // Codes_SRS_AMQPSTRANSPORT_15_024: [If no message was received from IotHub, the function shall return.]
-        if (this.receivedMessages.size() > 0)
+        // Codes_SRS_AMQPSTRANSPORT_28_012: [The function shall consume the received messages until there are none left,
+        // or until it handled the maximum number of messages per receive given in the configuration.]
+        int maxMessages = this.config.getMaxMessagesPerReceive();
+        for (int handled = 0; handled < maxMessages; handled++)
         {
-            logger.LogInfo("Consuming a message received from IoT Hub using receive message queue, method name is %s ", logger.getMethodName());
-            AmqpsMessage receivedMessage = this.receivedMessages.remove();
-            logger.LogInfo("Converting the AmqpsMessage to IoT Hub message, method name is %s ", logger.getMethodName());
-            Message message = protonMessageToIoTHubMessage(receivedMessage);
-
-			// set  messageId from messageId property if it exists. Fix for GitHub issue #990
-            if (message.getProperty("messageId") !=null)
-			{
-			  message.setMessageId(message.getProperty("messageId"));
-			}
-                    
-            logger.LogInfo("Executing the callback function for received message, method name is %s ", logger.getMethodName());
+            // Codes_SRS_AMQPSTRANSPORT_15_023: [The function shall attempt to consume a message from the IoT Hub.]
+            // Codes_SRS_AMQPSTRANSPORT_15_024: [If no message was received from IotHub, the function shall return.]
+            AmqpsMessage receivedMessage = this.receivedMessages.poll();
+            if (receivedMessage == null)
+            {
+                return;
+            }
+
+            logger.LogInfo("Consumed a message received from IoT Hub using receive message queue, method name is %s ", CustomLogger.METHOD_NAME);
+            logger.LogInfo("Converting the AmqpsMessage to IoT Hub message, method name is %s ", CustomLogger.METHOD_NAME);
+            Message message = AmqpsMessageConverter.toIotHubMessage(receivedMessage);
+
+            // set  messageId from messageId property if it exists. Fix for GitHub issue #990
+            if (message.getProperty("messageId") != null)
+            {
+                message.setMessageId(message.getProperty("messageId"));
+            }
+
+            logger.LogInfo("Executing the callback function for received message, method name is %s ", CustomLogger.METHOD_NAME);
             // Codes_SRS_AMQPSTRANSPORT_15_026: [The function shall invoke the callback on the message.]
             IotHubMessageResult result = callback.execute(message, this.config.getMessageContext());
 
@@ -365,7 +424,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
             // Codes_SRS_AMQPSTRANSPORT_15_028: [If the result could not be sent to IoTHub, the message shall be put back in the received messages queue to be processed again.]
             if (!ackResult)
             {
-                logger.LogWarn("Callback did not return a response for IoT Hub. Message has been added in the queue to be processed again, method name is %s", logger.getMethodName());
+                logger.LogWarn("Callback did not return a response for IoT Hub. Message has been added in the queue to be processed again, method name is %s", CustomLogger.METHOD_NAME);
                 receivedMessages.add(receivedMessage);
             }
         }
@@ -375,28 +434,31 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
      * When a message is acknowledged by IoTHub, it is removed from the list of in progress messages and its callback
      * is added to the list of callbacks to be executed. If the message was not successfully delivered, it is buffered
      * to be sent again.
-     * @param messageHash The hash of the message.
+     * @param deliveryId The delivery id of the message.
      * @param deliveryState The state of the delivery.
      */
-    public void messageSent(Integer messageHash, Boolean deliveryState)
+    public void messageSent(long deliveryId, Boolean deliveryState)
     {
-        // Codes_SRS_AMQPSTRANSPORT_15_029: [If the hash cannot be found in the list of keys for the messages in progress, the method returns.]
-        if (inProgressMessages.containsKey(messageHash))
+        // Codes_SRS_AMQPSTRANSPORT_15_029: [If the delivery id cannot be found in the list of keys for the messages in progress, the method returns.]
+        IotHubOutboundPacket packet = inProgressMessages.remove(deliveryId);
+        if (packet != null)
         {
-            IotHubOutboundPacket packet = inProgressMessages.remove(messageHash);
             if (deliveryState)
             {
-                logger.LogInfo("Message with messageid %s has been successfully delivered to IoTHub, adding a callback to callbacklist with IotHubStatusCode.OK_EMPTY, method name is %s ", packet.getMessage().getMessageId(), logger.getMethodName());
+                logger.LogInfo("Message with messageid %s has been successfully delivered to IoTHub, adding a callback to callbacklist with IotHubStatusCode.OK_EMPTY, method name is %s ", packet.getMessage().getMessageId(), CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSTRANSPORT_15_030: [If the message was successfully delivered,
                 // its callback is added to the list of callbacks to be executed.]
                 IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, packet.getCallback(), packet.getContext());
                 this.callbackList.add(callbackPacket);
             } else
             {
-                logger.LogInfo("Message with messageid %s was not delivered to IoTHub, it is buffered to be sent again, method name is %s ", packet.getMessage().getMessageId(), logger.getMethodName());
+                logger.LogInfo("Message with messageid %s was not delivered to IoTHub, it is buffered to be sent again, method name is %s ", packet.getMessage().getMessageId(), CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSTRANSPORT_15_031: [If the message was not delivered successfully, it is buffered to be sent again.]
                 waitingMessages.add(packet);
             }
+
+            // Codes_SRS_AMQPSTRANSPORT_28_002: [If the hash is found and a send signal is registered, the function shall notify it.]
+            this.signalSend();
         }
     }
 
@@ -405,15 +467,13 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
      */
     public void connectionLost()
     {
-        logger.LogInfo("The messages in progress are buffered to be sent again due to a connection loss, method name is %s ", logger.getMethodName());
+        logger.LogInfo("The messages in progress are buffered to be sent again due to a connection loss, method name is %s ", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSTRANSPORT_15_032: [The messages in progress are buffered to be sent again.]
-        for (Map.Entry<Integer, IotHubOutboundPacket> entry : inProgressMessages.entrySet())
-        {
-            this.waitingMessages.add(entry.getValue());
-        }
-
         // Codes_SRS_AMQPSTRANSPORT_15_033: [The map of messages in progress is cleared.]
-        inProgressMessages.clear();
+        this.waitingMessages.addAll(inProgressMessages.removeAll());
+
+        // Codes_SRS_AMQPSTRANSPORT_28_003: [If a send signal is registered, the function shall notify it.]
+        this.signalSend();
 
         // Notify the listener that the connection is down
         // Codes_SRS_AMQPSTRANSPORT_99_001: [Registered connection state callback is notified that the connection has been lost.]
@@ -427,7 +487,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
      */
     public void connectionEstablished()
     {
-        logger.LogInfo("The connection to the IoT Hub has been established, method name is %s ", logger.getMethodName());
+        logger.LogInfo("The connection to the IoT Hub has been established, method name is %s ", CustomLogger.METHOD_NAME);
         // Notify listener that the connection is up
         // Codes_SRS_AMQPSTRANSPORT_99_002: [Registered connection state callback is notified that the connection has been established.]
         if (this.stateCallback != null) {
@@ -441,7 +501,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
      */
     public void messageReceived(AmqpsMessage message)
     {
-        logger.LogInfo("Message with hashcode %s is received from IotHub on %s, method name is %s ", message.hashCode(), new Date(), logger.getMethodName());
+        logger.LogInfo("Message with hashcode %s is received from IotHub on %s, method name is %s ", message.hashCode(), new Date(), CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSTRANSPORT_15_034: [The message received is added to the list of messages to be processed.]
         this.receivedMessages.add(message);
     }
@@ -457,10 +517,32 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
     {
         // Codes_SRS_AMQPSTRANSPORT_15_035: [The function shall return true if the waiting list,
         // in progress list and callback list are all empty, and false otherwise.]
-        return this.waitingMessages.isEmpty() && this.inProgressMessages.size() == 0 && this.callbackList.isEmpty();
+        return this.waitingMessages.isEmpty() && this.inProgressMessages.isEmpty() && this.callbackList.isEmpty();
 
     }
 
+    /**
+     * Getter for the number of messages waiting to be sent.
+     *
+     * @return the number of messages in the queue of messages waiting to be sent.
+     */
+    public int getOutboundQueueSize()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_28_007: [The function shall return the number of messages waiting to be sent.]
+        return this.waitingMessages.size();
+    }
+
+    /**
+     * Getter for the number of message body bytes waiting to be sent.
+     *
+     * @return the number of message body bytes in the queue of messages waiting to be sent.
+     */
+    public long getOutboundQueueSizeInBytes()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_28_008: [The function shall return the number of message body bytes waiting to be sent.]
+        return this.waitingMessages.sizeInBytes();
+    }
+
     /**
      * Registers a callback to be executed whenever the amqps connection is lost or established.
      * 
@@ -475,110 +557,34 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
     }
 
     /**
-     * Converts an AMQPS message to a corresponding IoT Hub message.
-     *
-     * @param protonMsg the AMQPS message.
+     * Registers the signal to be notified whenever the transport gets a new message to send or
+     * a new callback to invoke.
      *
-     * @return the corresponding IoT Hub message.
+     * @param sendSignal the signal to be notified. Can be {@code null} to stop notifying.
      */
-    private Message protonMessageToIoTHubMessage(MessageImpl protonMsg)
+    public void registerSendSignal(IotHubSendSignal sendSignal)
     {
-        logger.LogInfo("Started converting AmpqsMessage into IoT Hub message, method name is %s ", logger.getMethodName());
-        Data d = (Data) protonMsg.getBody();
-        Binary b = d.getValue();
-        byte[] msgBody = new byte[b.getLength()];
-        ByteBuffer buffer = b.asByteBuffer();
-        buffer.get(msgBody);
-
-        Message msg = new Message(msgBody);
-        logger.LogInfo("Content of received message is %s, method name is %s ", new String(msg.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET), logger.getMethodName());
-        Properties properties = protonMsg.getProperties();
-        //Call all of the getters for the Proton message Properties and set those properties
-        //in the IoT Hub message properties if they exist.
-        for (Method m : properties.getClass().getMethods())
-        {
-            if (m.getName().startsWith("get"))
-            {
-                try
-                {
-                    String propertyName = Character.toLowerCase(m.getName().charAt(3)) + m.getName().substring(4);
-                    Object value = m.invoke(properties);
-                    if (value != null && !propertyName.equals("class"))
-                    {
-                        String val = value.toString();
-
-                        if (MessageProperty.isValidAppProperty(propertyName, val))
-                        {
-                            msg.setProperty(propertyName, val);
-                        }
-                    }
-                }
-                catch (IllegalAccessException e)
-                {
-                    logger.LogError("Attempted to access private or protected member of class during message conversion." + e.getMessage());
-                }
-                catch (InvocationTargetException e)
-                {
-                   logger.LogError("Exception thrown while attempting to get member variable. See: " + e.getMessage());
-                }
-            }
-        }
-
-        // Setting the user properties
-        if (protonMsg.getApplicationProperties() != null)
-        {
-            Map<String, String> applicationProperties = protonMsg.getApplicationProperties().getValue();
-            for (Map.Entry<String, String> entry : applicationProperties.entrySet())
-            {
-                String propertyKey = entry.getKey();
-                if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(propertyKey))
-                {
-                    msg.setProperty(entry.getKey(), entry.getValue());
-                }
-            }
-        }
-        logger.LogInfo("Completed the conversion of AmpqsMessage into IoT Hub message, method name is %s ", logger.getMethodName());
-        return msg;
+        // Codes_SRS_AMQPSTRANSPORT_28_004: [The function shall save the send signal.]
+        this.sendSignal = sendSignal;
     }
 
     /**
-     * Creates a proton message from the IoTHub message.
-     * @param message the IoTHub input message.
-     * @return the proton message.
+     * Registers the dispatcher to hand the callbacks of the completed requests to.
+     *
+     * @param callbackDispatcher the dispatcher to invoke the callbacks. Can be {@code null} to invoke the callbacks directly.
      */
-    private MessageImpl iotHubMessageToProtonMessage(com.microsoft.azure.sdk.iot.device.Message message)
+    public void registerCallbackDispatcher(IotHubCallbackDispatcher callbackDispatcher)
     {
-        logger.LogInfo("Started converting IoT Hub message into AmpqsMessage, method name is %s ", logger.getMethodName());
-        MessageImpl outgoingMessage = (MessageImpl) Proton.message();
-        logger.LogInfo("Content of message is %s, method name is %s ", new String(message.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET), logger.getMethodName());
-        Properties properties = new Properties();
-        if(message.getMessageId() != null)
-        {
-            properties.setMessageId(message.getMessageId());
-        }
-        outgoingMessage.setProperties(properties);
+        // Codes_SRS_AMQPSTRANSPORT_28_009: [The function shall save the callback dispatcher.]
+        this.callbackDispatcher = callbackDispatcher;
+    }
 
-        // Codes_SRS_AMQPSTRANSPORT_15_038: [The function shall add all user properties to the application properties of the Proton message.]
-        if (message.getProperties().length > 0)
+    private void signalSend()
+    {
+        IotHubSendSignal signal = this.sendSignal;
+        if (signal != null)
         {
-            Map<String, String> userProperties = new HashMap<>(message.getProperties().length);
-            for(MessageProperty messageProperty : message.getProperties())
-            {
-                if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(messageProperty.getName()))
-                {
-                    userProperties.put(messageProperty.getName(), messageProperty.getValue());
-                }
-
-            }
-
-            ApplicationProperties applicationProperties = new ApplicationProperties(userProperties);
-            outgoingMessage.setApplicationProperties(applicationProperties);
+            signal.signal();
         }
-
-        Binary binary = new Binary(message.getBytes());
-        Section section = new Data(binary);
-        outgoingMessage.setBody(section);
-        logger.LogInfo("Started converting IoT Hub message into AmpqsMessage, method name is %s ", logger.getMethodName());
-        return outgoingMessage;
     }
-}
\ No newline at end of file
+}
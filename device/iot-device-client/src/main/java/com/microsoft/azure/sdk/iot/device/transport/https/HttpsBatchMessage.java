@@ -8,10 +8,14 @@ import com.microsoft.azure.sdk.iot.device.MessageProperty;
 import javax.naming.SizeLimitExceededException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Builds a batched IoT Hub request body as a JSON array. The batched message
  * has a maximum size of 256 kb.
+ *
+ * Each message is encoded once and appended to the body, whose size is kept up
+ * to date, so building a batch takes a time linear in its size.
  */
 public final class HttpsBatchMessage implements HttpsMessage
 {
@@ -30,8 +34,18 @@ public final class HttpsBatchMessage implements HttpsMessage
      */
     private static final Charset BATCH_CHARSET = StandardCharsets.UTF_8;
 
-    /** The current batched message body. */
-    private String batchBody;
+    /** The initial capacity of the batch body buffer. */
+    private static final int INITIAL_BATCH_BODY_CAPACITY = 1024;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The current batched message body, without the closing bracket of the
+     * JSON array. Only the first {@code batchBodyLength} bytes are used.
+     */
+    private byte[] batchBody;
+    /** The number of bytes of the batch body. */
+    private int batchBodyLength;
     /** The current number of messages in the batch. */
     private int numMsgs;
 
@@ -39,7 +53,9 @@ public final class HttpsBatchMessage implements HttpsMessage
     public HttpsBatchMessage()
     {
         // Codes_SRS_HTTPSBATCHMESSAGE_11_001: [The constructor shall initialize the batch message with the body as an empty JSON array.]
-        this.batchBody = "[]";
+        this.batchBody = new byte[INITIAL_BATCH_BODY_CAPACITY];
+        this.batchBody[0] = '[';
+        this.batchBodyLength = 1;
         this.numMsgs = 0;
     }
 
@@ -55,21 +71,31 @@ public final class HttpsBatchMessage implements HttpsMessage
     public void addMessage(HttpsSingleMessage msg)
             throws SizeLimitExceededException
     {
-        String jsonMsg = msgToJson(msg);
-        // Codes_SRS_HTTPSBATCHMESSAGE_11_002: [The function shall add the message as a JSON object appended to the current JSON array.]
-        String newBatchBody = addJsonObjToArray(jsonMsg, this.batchBody);
+        byte[] jsonMsg = msgToJson(msg).getBytes(BATCH_CHARSET);
 
         // Codes_SRS_HTTPSBATCHMESSAGE_11_008: [If adding the message causes the batched message to exceed 256 kb in size, the function shall throw a SizeLimitExceededException.]
         // Codes_SRS_HTTPSBATCHMESSAGE_11_009: [If the function throws a SizeLimitExceedException, the batched message shall remain as if the message was never added.]
-        byte[] newBatchBodyBytes = newBatchBody.getBytes(BATCH_CHARSET);
-
-        if (newBatchBodyBytes.length > SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES) {
+        // the new size counts the separator, if any, and the closing bracket of the array.
+        int separatorLength = this.numMsgs > 0 ? 1 : 0;
+        int newBatchBodySize = this.batchBodyLength + separatorLength + jsonMsg.length + 1;
+        if (newBatchBodySize > SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES) {
             String errMsg = String.format("Service-bound message size (%d bytes) cannot exceed %d bytes.%n",
-                    newBatchBodyBytes.length, SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES);
+                    newBatchBodySize, SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES);
             throw new SizeLimitExceededException(errMsg);
         }
 
-        this.batchBody = newBatchBody;
+        // Codes_SRS_HTTPSBATCHMESSAGE_11_002: [The function shall add the message as a JSON object appended to the current JSON array.]
+        // Codes_SRS_HTTPSBATCHMESSAGE_28_002: [The function shall append the encoded message to the batch body without encoding the messages already in the batch again.]
+        if (newBatchBodySize > this.batchBody.length)
+        {
+            this.batchBody = Arrays.copyOf(this.batchBody, Math.max(newBatchBodySize, 2 * this.batchBody.length));
+        }
+        if (separatorLength > 0)
+        {
+            this.batchBody[this.batchBodyLength] = ',';
+        }
+        System.arraycopy(jsonMsg, 0, this.batchBody, this.batchBodyLength + separatorLength, jsonMsg.length);
+        this.batchBodyLength += separatorLength + jsonMsg.length;
         this.numMsgs++;
     }
 
@@ -82,7 +108,9 @@ public final class HttpsBatchMessage implements HttpsMessage
     {
         // Codes_SRS_HTTPSBATCHMESSAGE_11_006: [The function shall return the current batch message body.]
         // Codes_SRS_HTTPSBATCHMESSAGE_11_007: [The batch message body shall be encoded using UTF-8.]
-        return this.batchBody.getBytes(BATCH_CHARSET);
+        byte[] body = Arrays.copyOf(this.batchBody, this.batchBodyLength + 1);
+        body[this.batchBodyLength] = ']';
+        return body;
     }
 
     /**
@@ -128,10 +156,12 @@ public final class HttpsBatchMessage implements HttpsMessage
      */
     private static String msgToJson(HttpsSingleMessage msg)
     {
-        StringBuilder jsonMsg = new StringBuilder("{");
+        String body = msg.getBodyAsString();
+        StringBuilder jsonMsg = new StringBuilder(body.length() + 64);
+        jsonMsg.append("{");
         // Codes_SRS_HTTPSBATCHMESSAGE_11_003: [The JSON object shall have the field "body" set to the raw message.]
         jsonMsg.append("\"body\":");
-        jsonMsg.append("\"").append(msg.getBodyAsString()).append("\",");
+        appendJsonString(jsonMsg, body).append(",");
         // Codes_SRS_HTTPSBATCHMESSAGE_11_004: [The JSON object shall have the field "base64Encoded" set to whether the raw message was Base64-encoded.]
         jsonMsg.append("\"base64Encoded\":");
         jsonMsg.append(Boolean.toString(msg.isBase64Encoded()));
@@ -143,17 +173,15 @@ public final class HttpsBatchMessage implements HttpsMessage
             jsonMsg.append(",");
             jsonMsg.append("\"properties\":");
             jsonMsg.append("{");
-            for (int i = 0; i < numProperties - 1; ++i)
+            for (int i = 0; i < numProperties; ++i)
             {
+                if (i > 0)
+                {
+                    jsonMsg.append(",");
+                }
                 MessageProperty property = properties[i];
-                jsonMsg.append("\"").append(property.getName()).append("\":");
-                jsonMsg.append("\"").append(property.getValue()).append("\",");
-            }
-            if (numProperties > 0)
-            {
-                MessageProperty property = properties[numProperties - 1];
-                jsonMsg.append("\"").append(property.getName()).append("\":");
-                jsonMsg.append("\"").append(property.getValue()).append("\"");
+                appendJsonString(jsonMsg, property.getName()).append(":");
+                appendJsonString(jsonMsg, property.getValue());
             }
             jsonMsg.append("}");
         }
@@ -163,24 +191,48 @@ public final class HttpsBatchMessage implements HttpsMessage
     }
 
     /**
-     * Adds a JSON object to a JSON array.
+     * Appends a value as a JSON string.
      *
-     * @param jsonObj the object to be added to the JSON array.
-     * @param jsonArray the JSON array.
+     * @param jsonMsg the JSON being built.
+     * @param value the value to be appended.
      *
-     * @return the JSON string representation of the JSON array with the object
-     * added.
+     * @return the JSON being built.
      */
-    private static String addJsonObjToArray(String jsonObj, String jsonArray)
+    private static StringBuilder appendJsonString(StringBuilder jsonMsg, String value)
     {
-        if (jsonArray.equals("[]"))
+        // Codes_SRS_HTTPSBATCHMESSAGE_28_001: [The function shall escape the quotation marks, reverse solidi and control characters of the body, property names and property values.]
+        jsonMsg.append('"');
+        for (int i = 0; i < value.length(); i++)
         {
-            return "[" + jsonObj + "]";
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    jsonMsg.append("\\\"");
+                    break;
+                case '\\':
+                    jsonMsg.append("\\\\");
+                    break;
+                case '\n':
+                    jsonMsg.append("\\n");
+                    break;
+                case '\r':
+                    jsonMsg.append("\\r");
+                    break;
+                case '\t':
+                    jsonMsg.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                    {
+                        jsonMsg.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+                    }
+                    else
+                    {
+                        jsonMsg.append(c);
+                    }
+            }
         }
-
-        // removes the closing brace of the JSON array.
-        String openJsonArray = jsonArray.substring(0, jsonArray.length() - 1);
-
-        return openJsonArray + "," + jsonObj + "]";
+        return jsonMsg.append('"');
     }
 }
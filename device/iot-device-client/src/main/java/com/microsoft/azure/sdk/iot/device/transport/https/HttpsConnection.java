@@ -5,11 +5,11 @@ package com.microsoft.azure.sdk.iot.device.transport.https;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.ProtocolException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -25,11 +25,30 @@ import java.util.Map;
  * connections, for each time {@link #connect()} is called, the input streams (input
  * stream or error stream, if input stream is not accessible) must be completely
  * read. Otherwise, the data remains in the stream and the connection will not
- * be reusable.
+ * be reusable. Java only reuses a connection for a request that uses the same
+ * {@link SSLSocketFactory} instance, see {@link #setSSLSocketFactory(SSLSocketFactory)}.
  * </p>
  */
 public class HttpsConnection
 {
+    /** The initial size of the buffer the responses are read into. */
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    /** The largest read buffer that is kept for the next response of the thread. */
+    private static final int MAX_POOLED_READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The buffer the responses are read into, one per thread. The content is copied out
+     * of it, so a response costs a single allocation of its own size.
+     */
+    private static final ThreadLocal<byte[]> READ_BUFFER = new ThreadLocal<byte[]>()
+    {
+        @Override
+        protected byte[] initialValue()
+        {
+            return new byte[READ_BUFFER_SIZE];
+        }
+    };
+
     /** The underlying HTTPS connection. */
     private final HttpsURLConnection connection;
 
@@ -265,23 +284,27 @@ public class HttpsConnection
     private static byte[] readInputStream(InputStream stream)
             throws IOException
     {
-        ArrayList<Byte> byteBuffer = new ArrayList<>();
-        int nextByte = -1;
-        // read(byte[]) reads the byte into the buffer and returns the number
-        // of bytes read, or -1 if the end of the stream has been reached.
-        while ((nextByte = stream.read()) > -1)
+        byte[] buffer = READ_BUFFER.get();
+        int length = 0;
+        int bytesRead;
+        // Codes_SRS_HTTPSCONNECTION_28_003: [The function shall read the stream in blocks into a buffer reused by the thread, growing it as needed.]
+        // read(byte[], int, int) returns the number of bytes read, or -1 if the
+        // end of the stream has been reached.
+        while ((bytesRead = stream.read(buffer, length, buffer.length - length)) > -1)
         {
-            byteBuffer.add((byte) nextByte);
+            length += bytesRead;
+            if (length == buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
         }
 
-        int bufferSize = byteBuffer.size();
-        byte[] byteArray = new byte[bufferSize];
-        for (int i = 0; i < bufferSize; ++i)
+        if (buffer.length <= MAX_POOLED_READ_BUFFER_SIZE)
         {
-            byteArray[i] = byteBuffer.get(i);
+            READ_BUFFER.set(buffer);
         }
 
-        return byteArray;
+        return Arrays.copyOf(buffer, length);
     }
 
     void setSSLContext(SSLContext sslContext) throws IllegalArgumentException
@@ -295,6 +318,24 @@ public class HttpsConnection
         this.connection.setSSLSocketFactory(sslContext.getSocketFactory());
     }
 
+    /**
+     * Sets the socket factory of the connection. Java keeps the connections alive and reuses
+     * them, with their TLS session, for the requests that use the same factory instance.
+     *
+     * @param socketFactory the socket factory.
+     * @throws IllegalArgumentException if the socket factory is {@code null}.
+     */
+    void setSSLSocketFactory(SSLSocketFactory socketFactory) throws IllegalArgumentException
+    {
+        if (socketFactory == null)
+        {
+            // Codes_SRS_HTTPSCONNECTION_28_002: [The function shall throw IllegalArgumentException if the socket factory is null.]
+            throw new IllegalArgumentException("SSL socket factory cannot be null");
+        }
+        // Codes_SRS_HTTPSCONNECTION_28_001: [The function shall set the socket factory of the connection to the given value.]
+        this.connection.setSSLSocketFactory(socketFactory);
+    }
+
     @SuppressWarnings("unused")
     protected HttpsConnection()
     {
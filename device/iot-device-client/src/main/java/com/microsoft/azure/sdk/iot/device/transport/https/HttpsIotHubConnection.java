@@ -4,7 +4,7 @@
 package com.microsoft.azure.sdk.iot.device.transport.https;
 
 import com.microsoft.azure.sdk.iot.device.*;
-import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenProvider;
 import com.microsoft.azure.sdk.iot.device.net.*;
 
 import java.io.IOException;
@@ -24,11 +24,13 @@ public class HttpsIotHubConnection
     private static final String HTTPS_PROPERTY_IF_MATCH_TAG = "if-match";
     private static final String HTTPS_PROPERTY_ETAG_TAG = "etag";
 
-    /** The HTTPS connection lock. */
+    /** The HTTPS connection lock, held by the requests that use the message e-tag. */
     private static final Object HTTPS_CONNECTION_LOCK = new Object();
 
     /** The client configuration. */
     private final DeviceClientConfig config;
+    /** Provides the SAS tokens, which are reused across the requests until they are renewed. */
+    private final IotHubSasTokenProvider sasTokenProvider;
     /**
      * The message e-tag. Obtained when the device receives a
      * message and used when sending a message result back to
@@ -48,6 +50,8 @@ public class HttpsIotHubConnection
         {
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_001: [The constructor shall save the client configuration.]
             this.config = config;
+            // Codes_SRS_HTTPSIOTHUBCONNECTION_28_001: [The constructor shall create a SAS token provider for the configuration, which all the requests shall get their SAS token from.]
+            this.sasTokenProvider = new IotHubSasTokenProvider(config);
         }
     }
 
@@ -62,48 +66,46 @@ public class HttpsIotHubConnection
      */
     public ResponseMessage sendEvent(HttpsMessage msg) throws IOException
     {
-        synchronized (HTTPS_CONNECTION_LOCK)
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_28_002: [The function shall not hold the connection lock, so that several
+        // events can be sent at the same time; each request has its own HTTPS connection.]
+        String iotHubHostname = this.config.getIotHubHostname();
+        String deviceId = this.config.getDeviceId();
+        int readTimeoutMillis = this.config.getReadTimeoutMillis();
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_002: [The function shall send a request to the URL 'https://[iotHubHostname]/devices/[deviceId]/messages/events?api-version=2016-02-03'.]
+        IotHubEventUri iotHubEventUri = new IotHubEventUri(iotHubHostname, deviceId);
+        URL eventUrl = new URL(HTTPS_HEAD_TAG + iotHubEventUri.toString());
+        String sasToken = this.sasTokenProvider.getSasToken();
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_003: [The function shall send a POST request.]
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_004: [The function shall set the request body to the message body.]
+        HttpsRequest request =
+                new HttpsRequest(eventUrl, HttpsMethod.POST, msg.getBody());
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_005: [The function shall write each message property as a request header.]
+        for (MessageProperty property : msg.getProperties())
         {
-            String iotHubHostname = this.config.getIotHubHostname();
-            String deviceId = this.config.getDeviceId();
-            int readTimeoutMillis = this.config.getReadTimeoutMillis();
-
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_002: [The function shall send a request to the URL 'https://[iotHubHostname]/devices/[deviceId]/messages/events?api-version=2016-02-03'.]
-            IotHubEventUri iotHubEventUri = new IotHubEventUri(iotHubHostname, deviceId);
-            URL eventUrl = new URL(HTTPS_HEAD_TAG + iotHubEventUri.toString());
-            IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000L +
-                    this.config.getTokenValidSecs() + 1L);
-
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_003: [The function shall send a POST request.]
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_004: [The function shall set the request body to the message body.]
-            HttpsRequest request =
-                    new HttpsRequest(eventUrl, HttpsMethod.POST, msg.getBody());
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_005: [The function shall write each message property as a request header.]
-            for (MessageProperty property : msg.getProperties())
-            {
-                request.setHeaderField(property.getName(),
-                        property.getValue());
-            }
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_006: [The function shall set the request read timeout to be the configuration parameter readTimeoutMillis.]
-            request.setReadTimeoutMillis(readTimeoutMillis).
-                    // Codes_SRS_HTTPSIOTHUBCONNECTION_11_007: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
-                            setHeaderField(HTTPS_PROPERTY_AUTHORIZATION_TAG, sasToken.toString()).
-                    // Codes_SRS_HTTPSIOTHUBCONNECTION_11_008: [The function shall set the header field 'iothub-to' to be '/devices/[deviceId]/messages/events'.]
-                            setHeaderField(HTTPS_PROPERTY_IOTHUB_TO_TAG, iotHubEventUri.getPath()).
-                    // Codes_SRS_HTTPSIOTHUBCONNECTION_11_009: [The function shall set the header field 'content-type' to be the message content type.]
-                            setHeaderField(HTTPS_PROPERTY_CONTENT_TYPE_TAG, msg.getContentType());
-            //Codes_SRS_HTTPSIOTHUBCONNECTION_25_040: [The function shall set the IotHub SSL context by calling setSSLContext on the request.]
-            request.setSSLContext(this.config.getIotHubSSLContext());
-
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_012: [If the IoT Hub could not be reached, the function shall throw an IOException.]
-            HttpsResponse response = request.send();
-
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_010: [The function shall return a ResponseMessage with the status and payload.]
-            IotHubStatusCode status = IotHubStatusCode.getIotHubStatusCode(response.getStatus());
-            byte[] body = response.getBody();
-
-            return new ResponseMessage(body, status);
+            request.setHeaderField(property.getName(),
+                    property.getValue());
         }
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_006: [The function shall set the request read timeout to be the configuration parameter readTimeoutMillis.]
+        request.setReadTimeoutMillis(readTimeoutMillis).
+                // Codes_SRS_HTTPSIOTHUBCONNECTION_11_007: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
+                        setHeaderField(HTTPS_PROPERTY_AUTHORIZATION_TAG, sasToken).
+                // Codes_SRS_HTTPSIOTHUBCONNECTION_11_008: [The function shall set the header field 'iothub-to' to be '/devices/[deviceId]/messages/events'.]
+                        setHeaderField(HTTPS_PROPERTY_IOTHUB_TO_TAG, iotHubEventUri.getPath()).
+                // Codes_SRS_HTTPSIOTHUBCONNECTION_11_009: [The function shall set the header field 'content-type' to be the message content type.]
+                        setHeaderField(HTTPS_PROPERTY_CONTENT_TYPE_TAG, msg.getContentType());
+        //Codes_SRS_HTTPSIOTHUBCONNECTION_25_040: [The function shall set the IotHub SSL context by calling setSSLContext on the request.]
+        request.setSSLContext(this.config.getIotHubSSLContext());
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_012: [If the IoT Hub could not be reached, the function shall throw an IOException.]
+        HttpsResponse response = request.send();
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_010: [The function shall return a ResponseMessage with the status and payload.]
+        IotHubStatusCode status = IotHubStatusCode.getIotHubStatusCode(response.getStatus());
+        byte[] body = response.getBody();
+
+        return new ResponseMessage(body, status);
     }
 
     /**
@@ -119,48 +121,46 @@ public class HttpsIotHubConnection
      */
     public ResponseMessage sendHttpsMessage(HttpsMessage httpsMessage, HttpsMethod httpsMethod, String httpsPath) throws IOException
     {
-        synchronized (HTTPS_CONNECTION_LOCK)
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_28_003: [The function shall not hold the connection lock, so that several
+        // requests can be sent at the same time; each request has its own HTTPS connection.]
+        String iotHubHostname = this.config.getIotHubHostname();
+        String deviceId = this.config.getDeviceId();
+        int readTimeoutMillis = this.config.getReadTimeoutMillis();
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_041: [The function shall send a request to the URL https://[iotHubHostname]/devices/[deviceId]/[path]?api-version=2016-02-03.]
+        IotHubUri iotHubUri = new IotHubUri(iotHubHostname, deviceId, httpsPath);
+        URL messageUrl = new URL(HTTPS_HEAD_TAG + iotHubUri.toString());
+        String sasToken = this.sasTokenProvider.getSasToken();
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_042: [The function shall send a `httpsMethod` request.]
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_043: [The function shall set the request body to the message body.]
+        HttpsRequest request = new HttpsRequest(messageUrl, httpsMethod, httpsMessage.getBody());
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_044: [The function shall write each message property as a request header.]
+        for (MessageProperty property : httpsMessage.getProperties())
         {
-            String iotHubHostname = this.config.getIotHubHostname();
-            String deviceId = this.config.getDeviceId();
-            int readTimeoutMillis = this.config.getReadTimeoutMillis();
-
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_21_041: [The function shall send a request to the URL https://[iotHubHostname]/devices/[deviceId]/[path]?api-version=2016-02-03.]
-            IotHubUri iotHubUri = new IotHubUri(iotHubHostname, deviceId, httpsPath);
-            URL messageUrl = new URL(HTTPS_HEAD_TAG + iotHubUri.toString());
-            IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000L +
-                    this.config.getTokenValidSecs() + 1L);
-
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_21_042: [The function shall send a `httpsMethod` request.]
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_21_043: [The function shall set the request body to the message body.]
-            HttpsRequest request = new HttpsRequest(messageUrl, httpsMethod, httpsMessage.getBody());
-
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_21_044: [The function shall write each message property as a request header.]
-            for (MessageProperty property : httpsMessage.getProperties())
-            {
-                request.setHeaderField(property.getName(),
-                        property.getValue());
-            }
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_21_045: [The function shall set the request read timeout to be the configuration parameter readTimeoutMillis.]
-            request.setReadTimeoutMillis(readTimeoutMillis).
-                    // Codes_SRS_HTTPSIOTHUBCONNECTION_21_047: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
-                            setHeaderField(HTTPS_PROPERTY_AUTHORIZATION_TAG, sasToken.toString()).
-                    // Codes_SRS_HTTPSIOTHUBCONNECTION_21_048: [The function shall set the header field 'iothub-to' to be '/devices/[deviceId]/[path]'.]
-                            setHeaderField(HTTPS_PROPERTY_IOTHUB_TO_TAG, iotHubUri.getPath()).
-                    // Codes_SRS_HTTPSIOTHUBCONNECTION_21_049: [The function shall set the header field 'content-type' to be the message content type.]
-                            setHeaderField(HTTPS_PROPERTY_CONTENT_TYPE_TAG, httpsMessage.getContentType());
-            //Codes_SRS_HTTPSIOTHUBCONNECTION_21_046: [The function shall set the IotHub SSL context by calling setSSLContext on the request.]
-            request.setSSLContext(this.config.getIotHubSSLContext());
-
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_21_051: [If the IoT Hub could not be reached, the function shall throw an IOException.]
-            HttpsResponse response = request.send();
-
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_21_050: [The function shall return a ResponseMessage with the status and payload.]
-            IotHubStatusCode status = IotHubStatusCode.getIotHubStatusCode(response.getStatus());
-            byte[] body = response.getBody();
-
-            return new ResponseMessage(body, status);
+            request.setHeaderField(property.getName(),
+                    property.getValue());
         }
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_045: [The function shall set the request read timeout to be the configuration parameter readTimeoutMillis.]
+        request.setReadTimeoutMillis(readTimeoutMillis).
+                // Codes_SRS_HTTPSIOTHUBCONNECTION_21_047: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
+                        setHeaderField(HTTPS_PROPERTY_AUTHORIZATION_TAG, sasToken).
+                // Codes_SRS_HTTPSIOTHUBCONNECTION_21_048: [The function shall set the header field 'iothub-to' to be '/devices/[deviceId]/[path]'.]
+                        setHeaderField(HTTPS_PROPERTY_IOTHUB_TO_TAG, iotHubUri.getPath()).
+                // Codes_SRS_HTTPSIOTHUBCONNECTION_21_049: [The function shall set the header field 'content-type' to be the message content type.]
+                        setHeaderField(HTTPS_PROPERTY_CONTENT_TYPE_TAG, httpsMessage.getContentType());
+        //Codes_SRS_HTTPSIOTHUBCONNECTION_21_046: [The function shall set the IotHub SSL context by calling setSSLContext on the request.]
+        request.setSSLContext(this.config.getIotHubSSLContext());
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_051: [If the IoT Hub could not be reached, the function shall throw an IOException.]
+        HttpsResponse response = request.send();
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_050: [The function shall return a ResponseMessage with the status and payload.]
+        IotHubStatusCode status = IotHubStatusCode.getIotHubStatusCode(response.getStatus());
+        byte[] body = response.getBody();
+
+        return new ResponseMessage(body, status);
     }
 
     /**
@@ -183,8 +183,7 @@ public class HttpsIotHubConnection
             IotHubMessageUri messageUri = new IotHubMessageUri(iotHubHostname, deviceId);
             URL messageUrl = new URL(HTTPS_HEAD_TAG + messageUri.toString());
 
-            IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000L +
-                    this.config.getTokenValidSecs() + 1L);
+            String sasToken = this.sasTokenProvider.getSasToken();
 
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_014: [The function shall send a GET request.]
             HttpsRequest request =
@@ -193,7 +192,7 @@ public class HttpsIotHubConnection
                                     setReadTimeoutMillis(readTimeoutMillis).
                             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_016: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
                                     setHeaderField(HTTPS_PROPERTY_AUTHORIZATION_TAG,
-                                    sasToken.toString()).
+                                    sasToken).
                             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_017: [The function shall set the header field 'iothub-to' to be '/devices/[deviceId]/messages/devicebound'.]
                                     setHeaderField(HTTPS_PROPERTY_IOTHUB_TO_TAG,
                                     messageUri.getPath()).
@@ -305,13 +304,12 @@ public class HttpsIotHubConnection
                             "Invalid message result specified.");
             }
 
-            IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000L +
-                                    this.config.getTokenValidSecs() + 1L);
+            String sasToken = this.sasTokenProvider.getSasToken();
 
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_033: [The function shall set the request read timeout to be the configuration parameter readTimeoutMillis.]
             request.setReadTimeoutMillis(readTimeoutMillis).
                     // Codes_SRS_HTTPSIOTHUBCONNECTION_11_034: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
-                            setHeaderField(HTTPS_PROPERTY_AUTHORIZATION_TAG, sasToken.toString()).
+                            setHeaderField(HTTPS_PROPERTY_AUTHORIZATION_TAG, sasToken).
                     setHeaderField(HTTPS_PROPERTY_IOTHUB_TO_TAG, resultPath).
                     // Codes_SRS_HTTPSIOTHUBCONNECTION_11_035: [The function shall set the header field 'if-match' to be the e-tag saved when receiveMessage() was previously called.]
                             setHeaderField(HTTPS_PROPERTY_IF_MATCH_TAG, this.messageEtag);
@@ -0,0 +1,105 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.https;
+
+/**
+ * Decides when the HTTPS transport polls the IoT Hub for messages. The interval
+ * between two polls is the shortest one while messages arrive, and doubles after
+ * each poll that finds no message, up to the longest one. A message sent by the
+ * device makes the next poll due at once, since it is often answered.
+ */
+public final class HttpsPollingScheduler
+{
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+
+    /** The interval between the last poll and the next one. */
+    private long intervalMillis;
+    /** The time, in milliseconds, from which the next poll is due. */
+    private long nextPollTime;
+
+    /**
+     * Constructor.
+     *
+     * @param minIntervalMillis the shortest interval between two polls, in milliseconds.
+     * @param maxIntervalMillis the longest interval between two polls, in milliseconds.
+     * @throws IllegalArgumentException if the shortest interval is zero or negative, or
+     * if the longest interval is shorter than the shortest one.
+     */
+    public HttpsPollingScheduler(long minIntervalMillis, long maxIntervalMillis)
+    {
+        // Codes_SRS_HTTPSPOLLINGSCHEDULER_28_001: [If the shortest interval is zero or negative, or if the longest
+        // interval is shorter than the shortest one, the constructor shall throw an IllegalArgumentException.]
+        if (minIntervalMillis <= 0 || maxIntervalMillis < minIntervalMillis)
+        {
+            throw new IllegalArgumentException("polling intervals are invalid: min = " + minIntervalMillis
+                    + ", max = " + maxIntervalMillis);
+        }
+
+        // Codes_SRS_HTTPSPOLLINGSCHEDULER_28_002: [The constructor shall start with the shortest interval and a poll due at once.]
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.intervalMillis = minIntervalMillis;
+        this.nextPollTime = 0L;
+    }
+
+    /**
+     * Tells whether the next poll is due.
+     *
+     * @param currentTime the current time, in milliseconds.
+     * @return {@code true} if the IoT Hub should be polled now.
+     */
+    public synchronized boolean isPollDue(long currentTime)
+    {
+        // Codes_SRS_HTTPSPOLLINGSCHEDULER_28_003: [The function shall return true if the current time reached the time of the next poll.]
+        return currentTime >= this.nextPollTime;
+    }
+
+    /**
+     * Records the result of a poll and schedules the next one.
+     *
+     * @param currentTime the time of the poll, in milliseconds.
+     * @param messageCount the number of messages the poll found.
+     */
+    public synchronized void onPoll(long currentTime, int messageCount)
+    {
+        if (messageCount > 0)
+        {
+            // Codes_SRS_HTTPSPOLLINGSCHEDULER_28_004: [If the poll found messages, the function shall reset the interval to the shortest one.]
+            this.intervalMillis = this.minIntervalMillis;
+        }
+        else
+        {
+            // Codes_SRS_HTTPSPOLLINGSCHEDULER_28_005: [If the poll found no message, the function shall double the
+            // interval, up to the longest one.]
+            this.intervalMillis = (this.intervalMillis > this.maxIntervalMillis / 2)
+                    ? this.maxIntervalMillis : this.intervalMillis * 2;
+        }
+
+        // Codes_SRS_HTTPSPOLLINGSCHEDULER_28_006: [The function shall make the next poll due after the interval, less
+        // half the shortest interval so that a receive task ticking at the shortest interval does not miss it.]
+        this.nextPollTime = currentTime + this.intervalMillis - this.minIntervalMillis / 2;
+    }
+
+    /**
+     * Makes the next poll due at once, at the shortest interval.
+     */
+    public synchronized void pollNow()
+    {
+        // Codes_SRS_HTTPSPOLLINGSCHEDULER_28_007: [The function shall reset the interval to the shortest one and make the next poll due at once.]
+        this.intervalMillis = this.minIntervalMillis;
+        this.nextPollTime = 0L;
+    }
+
+    /**
+     * Getter for the current interval between two polls.
+     *
+     * @return the polling interval, in milliseconds.
+     */
+    public synchronized long getIntervalMillis()
+    {
+        // Codes_SRS_HTTPSPOLLINGSCHEDULER_28_008: [The function shall return the current interval between two polls.]
+        return this.intervalMillis;
+    }
+}
@@ -130,7 +130,8 @@ public class HttpsRequest
             throw new IllegalArgumentException("Context cannot be null");
         }
         //Codes_SRS_HTTPSREQUEST_25_016: [The function shall set the SSL context for the IotHub.]
-        this.connection.setSSLContext(iotHubSSLContext.getIotHubSSlContext());
+        // the socket factory of the context is shared, so the connection to the IoT Hub is kept alive between requests.
+        this.connection.setSSLSocketFactory(iotHubSSLContext.getIotHubSocketFactory());
         return this;
     }
 
@@ -4,15 +4,28 @@
 package com.microsoft.azure.sdk.iot.device.transport.https;
 
 import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendSignal;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 
 import javax.naming.SizeLimitExceededException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -40,14 +53,30 @@ public final class HttpsTransport implements IotHubTransport
     private HttpsIotHubConnection connection;
 
     /** Messages waiting to be sent to an IoT Hub. */
-    private final Queue<IotHubOutboundPacket> waitingList;
-    /** Messages that are waiting for a response from an IoT Hub. */
-    private final Queue<IotHubOutboundPacket> inProgressList;
+    private final IotHubOutboundQueue waitingList;
+    /** Batches of messages that are waiting for a response from an IoT Hub, in the order the messages were queued. */
+    private final Queue<List<IotHubOutboundPacket>> inProgressList;
     /** Messages whose callbacks that are waiting to be invoked. */
     private final Queue<IotHubCallbackPacket> callbackList;
 
+    /** Signal to be notified when there is new outbound work. */
+    private volatile IotHubSendSignal sendSignal;
+    private volatile IotHubCallbackDispatcher callbackDispatcher;
+
     private final DeviceClientConfig config;
 
+    /** Decides when to poll the IoT Hub, or {@code null} if each receive cycle polls it. */
+    private volatile HttpsPollingScheduler pollingScheduler;
+    /** The number of polls that found no message. */
+    private volatile long emptyPollCount;
+
+    /** The maximum number of batches sent at the same time. */
+    private int maxInFlightBatches = 1;
+    /** Sends the batches when more than one can be in flight, or {@code null} if the caller sends them. */
+    private volatile ExecutorService sendExecutor;
+    /** How long {@code close()} waits for the batches in flight to be answered. */
+    private static final long SEND_THREADS_CLOSE_TIMEOUT_MILLIS = 10000;
+
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
      * object.
@@ -57,7 +86,7 @@ public final class HttpsTransport implements IotHubTransport
     public HttpsTransport(DeviceClientConfig config)
     {
         // Codes_SRS_HTTPSTRANSPORT_11_001: [The constructor shall initialize an empty transport queue for adding messages to be sent as a batch.]
-        this.waitingList = new LinkedBlockingDeque<>();
+        this.waitingList = new IotHubOutboundQueue();
         this.inProgressList = new LinkedBlockingDeque<>();
         // Codes_SRS_HTTPSTRANSPORT_11_002: [The constructor shall initialize an empty queue for adding callbacks waiting to be invoked.]
         this.callbackList = new LinkedBlockingDeque<>();
@@ -81,9 +110,42 @@ public final class HttpsTransport implements IotHubTransport
             return;
         }
 
+        // Codes_SRS_HTTPSTRANSPORT_28_004: [The function shall bound the transport queue with the capacity and the policy given in the configuration.]
+        this.waitingList.setLimits(this.config.getOutboundQueueMaxMessages(),
+                this.config.getOutboundQueueMaxBytes(), this.config.getOutboundQueuePolicy());
+
+        // Codes_SRS_HTTPSTRANSPORT_28_024: [The function shall open the transport queue to new messages.]
+        this.waitingList.open();
+
         // Codes_SRS_HTTPSTRANSPORT_11_023: [If the transport is already closed, the function shall throw an IllegalStateException.]
         // Codes_SRS_HTTPSTRANSPORT_11_021: [The function shall establish an HTTPS connection with the IoT Hub given in the configuration.]
         this.connection = new HttpsIotHubConnection(this.config);
+
+        // Codes_SRS_HTTPSTRANSPORT_28_011: [If adaptive polling is enabled in the configuration, the function shall
+        // schedule the polls between the shortest and the longest polling intervals of the configuration.]
+        this.pollingScheduler = this.config.isAdaptivePolling()
+                ? new HttpsPollingScheduler(this.config.getAdaptivePollingMinIntervalMillis(),
+                        this.config.getAdaptivePollingMaxIntervalMillis())
+                : null;
+
+        // Codes_SRS_HTTPSTRANSPORT_28_018: [If more than one batch can be in flight at the same time, the function
+        // shall create as many threads to send them.]
+        int maxBatches = this.config.getHttpsMaxInFlightBatches();
+        this.maxInFlightBatches = (maxBatches > 1) ? maxBatches : 1;
+        if (this.maxInFlightBatches > 1)
+        {
+            this.sendExecutor = Executors.newFixedThreadPool(this.maxInFlightBatches, new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    // the threads left by a transport never closed shall not keep the application alive.
+                    Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
         this.state = HttpsTransportState.OPEN;
     }
 
@@ -96,7 +158,9 @@ public final class HttpsTransport implements IotHubTransport
      */
     public void close() throws IOException
     {
-        
+        // Codes_SRS_HTTPSTRANSPORT_28_025: [The method will close the transport queue to new messages, which releases the producers blocked waiting for room.]
+        this.waitingList.close();
+
         // Codes_SRS_HTTPSTRANSPORT_99_036: [The method will remove all the messages which are in progress or waiting to be sent and add them to the callback list.]
         while (!this.waitingList.isEmpty())
         {
@@ -105,11 +169,29 @@ public final class HttpsTransport implements IotHubTransport
             addOutboundPacketToCallbackList(packet, responseMessage);
         }
         
-        while (!this.inProgressList.isEmpty())
+        // Codes_SRS_HTTPSTRANSPORT_28_028: [A batch still in flight shall be taken from the batches in progress
+        // either by the function or by the send, so its callbacks are invoked once.]
+        List<IotHubOutboundPacket> batch;
+        while ((batch = this.inProgressList.poll()) != null)
         {
-            IotHubOutboundPacket packet = this.inProgressList.remove();
             ResponseMessage responseMessage = new ResponseMessage(new byte[]{}, IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE);
-            addOutboundPacketToCallbackList(packet, responseMessage);
+            moveBatchToCallbackList(batch, responseMessage);
+        }
+
+        // Codes_SRS_HTTPSTRANSPORT_28_019: [The function shall stop the threads that send the batches, and wait
+        // for the batches in flight to be answered.]
+        ExecutorService executor = this.sendExecutor;
+        if (executor != null)
+        {
+            executor.shutdown();
+            try
+            {
+                executor.awaitTermination(SEND_THREADS_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
         }
        
         // Codes_SRS_HTTPSTRANSPORT_99_037: [The method will invoke all the callbacks]
@@ -144,7 +226,9 @@ public final class HttpsTransport implements IotHubTransport
 
         // Codes_SRS_HTTPSTRANSPORT_11_003: [The function shall add a packet containing the message, callback, and callback context to the transport queue.]
         IotHubOutboundPacket packet = new IotHubOutboundPacket(message, callback, callbackContext);
-        this.waitingList.add(packet);
+        this.enqueueOutboundPacket(packet);
+        // Codes_SRS_HTTPSTRANSPORT_28_001: [If a send signal is registered, the function shall notify it.]
+        this.signalSend();
     }
 
     /**
@@ -170,11 +254,17 @@ public final class HttpsTransport implements IotHubTransport
 
         // Codes_SRS_HTTPSTRANSPORT_21_017: [The function shall add a packet containing the message, callback, and callback context to the transport queue.]
         IotHubOutboundPacket packet = new IotHubOutboundPacket(message, callback, callbackContext);
-        this.waitingList.add(packet);
+        this.enqueueOutboundPacket(packet);
+        // Codes_SRS_HTTPSTRANSPORT_28_002: [If a send signal is registered, the function shall notify it.]
+        this.signalSend();
     }
 
     /**
-     * Sends all messages on the transport queue as a batched request.
+     * Sends the messages on the transport queue as batched requests. Up to the
+     * maximum number of batches in flight given in the configuration are sent
+     * at the same time, and the callbacks of the batches sent are queued in the
+     * order the messages were queued. A batch whose request failed is sent again
+     * later, so its callbacks come after the ones of the batches sent with it.
      *
      * @throws IOException if the server could not be reached.
      * @throws IllegalStateException if the transport has not been opened or is
@@ -192,37 +282,47 @@ public final class HttpsTransport implements IotHubTransport
 
         // Codes_SRS_HTTPSTRANSPORT_11_004: [If no previous send request had failed while in progress, the function shall batch as many messages as possible such that the batched message body is of size at most 256 kb.]
         // Codes_SRS_HTTPSTRANSPORT_11_012: [If a previous send request had failed while in progress, the function shall resend the request.]
-        if (this.inProgressList.size() <= 0)
+        // Codes_SRS_HTTPSTRANSPORT_28_020: [The function shall batch the waiting messages until the maximum number of
+        // batches in flight given in the configuration is reached, counting the batches to resend.]
+        while (this.inProgressList.size() < this.maxInFlightBatches && !this.waitingList.isEmpty())
         {
-            this.moveWaitingListToInProgressList();
+            this.inProgressList.add(this.takeBatchFromWaitingList());
         }
-        if (this.inProgressList.size() <= 0)
+        if (this.inProgressList.isEmpty())
         {
             return;
         }
 
-        HttpsMessage msg;
-        try
+        if (this.inProgressList.size() == 1)
         {
-            // Codes_SRS_HTTPSTRANSPORT_11_013: [If no messages fit using the batch format, the function shall send a single message without the batch format.] 
-            msg = this.inProgressListToMessage();
+            List<IotHubOutboundPacket> batch = this.inProgressList.peek();
+
+            // Codes_SRS_HTTPSTRANSPORT_11_008: [The request shall be sent to the IoT Hub given in the configuration from the constructor.]
+            // Codes_SRS_HTTPSTRANSPORT_11_005: [The function shall configure a valid HTTPS request and send it to the IoT Hub.]
+            // Codes_SRS_HTTPSTRANSPORT_11_014: [If the send request fails while in progress, the function shall throw an IOException.]
+            // Codes_SRS_HTTPSTRANSPORT_11_017: [If an invalid URI is generated from the configuration given in the constructor, the function shall throw a URISyntaxException.]
+            ResponseMessage responseMessage = this.connection.sendEvent(batchToMessage(batch));
+
+            // Codes_SRS_HTTPSTRANSPORT_11_006: [The function shall add a packet containing the callbacks, contexts, and response for all sent messages to the callback queue.]
+            // Codes_SRS_HTTPSTRANSPORT_28_028: [A batch still in flight shall be taken from the batches in progress
+            // either by the function or by the send, so its callbacks are invoked once.]
+            if (this.inProgressList.remove(batch))
+            {
+                this.moveBatchToCallbackList(batch, responseMessage);
+            }
         }
-        catch (SizeLimitExceededException e)
+        else
         {
-            // should never happen, since inProgressList is populated with
-            // either a single message to be sent in unbatched format or
-            // multiple messages that fit in a batch.
-            throw new IllegalStateException(e);
+            this.sendBatchesConcurrently();
         }
 
-        // Codes_SRS_HTTPSTRANSPORT_11_008: [The request shall be sent to the IoT Hub given in the configuration from the constructor.]
-        // Codes_SRS_HTTPSTRANSPORT_11_005: [The function shall configure a valid HTTPS request and send it to the IoT Hub.]
-        // Codes_SRS_HTTPSTRANSPORT_11_014: [If the send request fails while in progress, the function shall throw an IOException.]
-        // Codes_SRS_HTTPSTRANSPORT_11_017: [If an invalid URI is generated from the configuration given in the constructor, the function shall throw a URISyntaxException.]
-        ResponseMessage responseMessage = this.connection.sendEvent(msg);
-
-        // Codes_SRS_HTTPSTRANSPORT_11_006: [The function shall add a packet containing the callbacks, contexts, and response for all sent messages to the callback queue.]
-        this.moveInProgressListToCallbackList(responseMessage);
+        // Codes_SRS_HTTPSTRANSPORT_28_012: [If adaptive polling is enabled, the function shall make the next poll due
+        // at once, since the messages sent may be answered.]
+        HttpsPollingScheduler scheduler = this.pollingScheduler;
+        if (scheduler != null)
+        {
+            scheduler.pollNow();
+        }
     }
 
     /**
@@ -247,6 +347,14 @@ public final class HttpsTransport implements IotHubTransport
             // Codes_SRS_HTTPSTRANSPORT_11_016: [If an exception is thrown during the callback, the function shall drop the callback from the queue.]
             IotHubCallbackPacket packet = this.callbackList.remove();
 
+            // Codes_SRS_HTTPSTRANSPORT_28_009: [If a callback dispatcher is registered, the function shall hand the callbacks to it instead of invoking them.]
+            IotHubCallbackDispatcher dispatcher = this.callbackDispatcher;
+            if (dispatcher != null)
+            {
+                dispatcher.dispatch(packet);
+                continue;
+            }
+
             Object context = packet.getContext();
 
             IotHubEventCallback eventCallback = packet.getCallback();
@@ -265,9 +373,12 @@ public final class HttpsTransport implements IotHubTransport
 
     /**
      * <p>
-     * Invokes the message callback if a message is found and
+     * Invokes the message callback on each message found and
      * responds to the IoT Hub on how the processed message should be
-     * handled by the IoT Hub.
+     * handled by the IoT Hub. The IoT Hub is polled until no message
+     * is found, or until the maximum number of messages per receive
+     * is reached. With adaptive polling, a receive cycle polls the IoT
+     * Hub only once the next poll is due.
      * </p>
      * If no message callback is set, the function will do nothing.
      *
@@ -295,21 +406,75 @@ public final class HttpsTransport implements IotHubTransport
             return;
         }
 
-        // Codes_SRS_HTTPSTRANSPORT_11_009: [The function shall poll the IoT Hub for messages.]
-        // Codes_SRS_HTTPSTRANSPORT_11_010: [If a message is found and a message callback is registered, the function shall invoke the callback on the message.] 
-        // Codes_SRS_HTTPSTRANSPORT_11_018: [If an invalid URI is generated from the configuration given in the constructor, the function shall throw a URISyntaxException.]
-        // Codes_SRS_HTTPSTRANSPORT_11_019: [If the IoT Hub could not be reached, the function shall throw an IOException.]
-        Message message = this.connection.receiveMessage();
-        if (message != null)
+        // Codes_SRS_HTTPSTRANSPORT_28_013: [If adaptive polling is enabled and the next poll is not due, the function shall do nothing.]
+        HttpsPollingScheduler scheduler = this.pollingScheduler;
+        long pollTime = System.currentTimeMillis();
+        if (scheduler != null && !scheduler.isPollDue(pollTime))
+        {
+            return;
+        }
+
+        // Codes_SRS_HTTPSTRANSPORT_28_010: [The function shall keep polling the IoT Hub until no message is found, or
+        // until it handled the maximum number of messages per receive given in the configuration.]
+        int maxMessages = this.config.getMaxMessagesPerReceive();
+        int handled = 0;
+        while (handled < maxMessages)
         {
+            // Codes_SRS_HTTPSTRANSPORT_11_009: [The function shall poll the IoT Hub for messages.]
+            // Codes_SRS_HTTPSTRANSPORT_11_010: [If a message is found and a message callback is registered, the function shall invoke the callback on the message.] 
+            // Codes_SRS_HTTPSTRANSPORT_11_018: [If an invalid URI is generated from the configuration given in the constructor, the function shall throw a URISyntaxException.]
+            // Codes_SRS_HTTPSTRANSPORT_11_019: [If the IoT Hub could not be reached, the function shall throw an IOException.]
+            Message message = this.connection.receiveMessage();
+            if (message == null)
+            {
+                break;
+            }
+
             IotHubMessageResult result = callback.execute(message, context);
 
             // Codes_SRS_HTTPSTRANSPORT_11_011: [The function shall return the message result (one of COMPLETE, ABANDON, or REJECT) to the IoT Hub.]
             // Codes_SRS_HTTPSTRANSPORT_11_020: [If the response from sending the IoT Hub message result does not have status code OK_EMPTY, the function shall throw an IOException.] 
             this.connection.sendMessageResult(result);
+            handled++;
+        }
+
+        // Codes_SRS_HTTPSTRANSPORT_28_014: [If the first poll found no message, the function shall count an empty poll.]
+        if (handled == 0)
+        {
+            this.emptyPollCount++;
+        }
+
+        // Codes_SRS_HTTPSTRANSPORT_28_015: [If adaptive polling is enabled, the function shall schedule the next poll
+        // from the number of messages handled.]
+        if (scheduler != null)
+        {
+            scheduler.onPoll(pollTime, handled);
         }
     }
 
+    /**
+     * Getter for the current interval between two adaptive polls.
+     *
+     * @return the polling interval in milliseconds, or 0 if adaptive polling is not enabled.
+     */
+    public long getPollingIntervalMillis()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_28_016: [The function shall return the interval of the adaptive polls, or 0 if adaptive polling is not enabled.]
+        HttpsPollingScheduler scheduler = this.pollingScheduler;
+        return (scheduler == null) ? 0L : scheduler.getIntervalMillis();
+    }
+
+    /**
+     * Getter for the number of polls that found no message.
+     *
+     * @return the number of empty polls.
+     */
+    public long getEmptyPollCount()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_28_017: [The function shall return the number of polls that found no message.]
+        return this.emptyPollCount;
+    }
+
     /**
      * Returns true if the transport has no more messages to handle, and false
      * otherwise.
@@ -323,6 +488,28 @@ public final class HttpsTransport implements IotHubTransport
         return this.waitingList.isEmpty() && this.inProgressList.isEmpty() && this.callbackList.isEmpty();
     }
 
+    /**
+     * Getter for the number of messages waiting to be sent.
+     *
+     * @return the number of messages in the transport queue.
+     */
+    public int getOutboundQueueSize()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_28_006: [The function shall return the number of messages in the transport queue.]
+        return this.waitingList.size();
+    }
+
+    /**
+     * Getter for the number of message body bytes waiting to be sent.
+     *
+     * @return the number of message body bytes in the transport queue.
+     */
+    public long getOutboundQueueSizeInBytes()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_28_007: [The function shall return the number of message body bytes in the transport queue.]
+        return this.waitingList.sizeInBytes();
+    }
+
     /**
      * Registers a callback to be executed whenever the https connection is lost or established.
      * 
@@ -338,13 +525,63 @@ public final class HttpsTransport implements IotHubTransport
     }
 
     /**
-     * Moves as many messages as can be sent in one HTTPS request from the
-     * waiting list to the in-progress list. If a single message is moved to the
-     * in-progress list, this indicates that the message is to be sent in the
-     * un-batched message format.
+     * Registers the signal to be notified whenever a new message is added to the transport queue.
+     *
+     * @param sendSignal the signal to be notified. Can be {@code null} to stop notifying.
+     */
+    public void registerSendSignal(IotHubSendSignal sendSignal)
+    {
+        // Codes_SRS_HTTPSTRANSPORT_28_003: [The function shall save the send signal.]
+        this.sendSignal = sendSignal;
+    }
+
+    /**
+     * Adds a packet to the transport queue, and completes the packets left out of the
+     * full queue with the status {@link IotHubStatusCode#MESSAGE_CANCELLED_QUEUE_FULL}, or
+     * the packet itself with {@link IotHubStatusCode#MESSAGE_CANCELLED_ONCLOSE} if the
+     * transport was closed in the meantime.
+     *
+     * @param packet the packet to add.
+     */
+    private void enqueueOutboundPacket(IotHubOutboundPacket packet)
+    {
+        List<IotHubOutboundPacket> leftOut = new ArrayList<>();
+        this.waitingList.enqueue(packet, leftOut);
+
+        // Codes_SRS_HTTPSTRANSPORT_28_005: [For each packet left out of the full transport queue, the function shall add a packet containing the callback, context, and the MESSAGE_CANCELLED_QUEUE_FULL status code to the callback queue.]
+        for (IotHubOutboundPacket leftOutPacket : leftOut)
+        {
+            if (leftOutPacket == packet && this.waitingList.isClosed())
+            {
+                // Codes_SRS_HTTPSTRANSPORT_28_026: [If the transport was closed while the function waited for room in the queue, the function shall invoke the callbacks of the packet with the MESSAGE_CANCELLED_ONCLOSE status code.]
+                // No one invokes the callback list of a closed transport.
+                if (packet.getCallback() != null)
+                {
+                    packet.getCallback().execute(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, packet.getContext());
+                }
+                if (packet.getResponseCallback() != null)
+                {
+                    packet.getResponseCallback().execute(
+                            new ResponseMessage(new byte[]{}, IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE), packet.getContext());
+                }
+                continue;
+            }
+
+            ResponseMessage responseMessage = new ResponseMessage(new byte[]{}, IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+            addOutboundPacketToCallbackList(leftOutPacket, responseMessage);
+        }
+    }
+
+    /**
+     * Takes as many messages as can be sent in one HTTPS request from the
+     * waiting list. If a single message is taken, this indicates that the
+     * message is to be sent in the un-batched message format.
+     *
+     * @return the packets of the messages taken, in the order they were queued.
      */
-    private void moveWaitingListToInProgressList()
+    private List<IotHubOutboundPacket> takeBatchFromWaitingList()
     {
+        List<IotHubOutboundPacket> packets = new ArrayList<>();
         HttpsBatchMessage batch = new HttpsBatchMessage();
         while (!this.waitingList.isEmpty())
         {
@@ -362,69 +599,167 @@ public final class HttpsTransport implements IotHubTransport
             }
 
             this.waitingList.remove();
-            this.inProgressList.add(packet);
+            packets.add(packet);
         }
 
         if (!this.waitingList.isEmpty() && batch.numMessages() <= 0)
         {
             IotHubOutboundPacket packet = this.waitingList.remove();
-            this.inProgressList.add(packet);
+            packets.add(packet);
         }
+
+        return packets;
     }
 
     /**
-     * Generates the message, possibly batched, to be sent using the messages in
-     * the in-progress list.
+     * Generates the message, possibly batched, to be sent for the given packets.
      *
+     * @param packets the packets of the messages to send.
      * @return the message to be sent.
      *
-     * @throws SizeLimitExceededException if the messages in {@code inProgressList}
-     * exceed the service-bound message size limit of 255 kb.
-     * @throws NoSuchElementException if {@code inProgressList} is empty.
+     * @throws NoSuchElementException if {@code packets} is empty.
      */
-    private HttpsMessage inProgressListToMessage()
-            throws SizeLimitExceededException
+    private static HttpsMessage batchToMessage(List<IotHubOutboundPacket> packets)
     {
-        HttpsMessage msg = null;
-        int inProgressListSize = this.inProgressList.size();
-        if (inProgressListSize < 1)
+        if (packets.isEmpty())
         {
             throw new NoSuchElementException(
                     "Cannot convert an empty in progress list to a message.");
         }
-        if (inProgressListSize == 1)
+
+        // Codes_SRS_HTTPSTRANSPORT_11_013: [If no messages fit using the batch format, the function shall send a single message without the batch format.]
+        if (packets.size() == 1)
         {
-            msg = HttpsSingleMessage.parseHttpsMessage(
-                    this.inProgressList.peek().getMessage());
+            return HttpsSingleMessage.parseHttpsMessage(packets.get(0).getMessage());
         }
-        else if (this.inProgressList.size() > 1)
+
+        HttpsBatchMessage batch = new HttpsBatchMessage();
+        try
         {
-            HttpsBatchMessage batch = new HttpsBatchMessage();
-            for (IotHubOutboundPacket packet : this.inProgressList)
+            for (IotHubOutboundPacket packet : packets)
             {
                 HttpsSingleMessage httpsMsg =
                         HttpsSingleMessage.parseHttpsMessage(
                                 packet.getMessage());
                 batch.addMessage(httpsMsg);
             }
+        }
+        catch (SizeLimitExceededException e)
+        {
+            // should never happen, since the packets are either a single
+            // message to be sent in unbatched format or multiple messages
+            // that fit in a batch.
+            throw new IllegalStateException(e);
+        }
+
+        return batch;
+    }
+
+    /**
+     * Sends all the batches in progress at the same time, and waits for their responses.
+     * The callbacks of the batches sent are queued in the order of the batches, and the
+     * batches whose request failed stay in progress to be sent again, so their callbacks
+     * come after the ones of the later batches. The function waits for every request even
+     * if the thread is interrupted, so a batch still in flight is never sent twice.
+     *
+     * @throws IOException if the request of a batch failed.
+     */
+    private void sendBatchesConcurrently() throws IOException
+    {
+        final HttpsIotHubConnection httpsConnection = this.connection;
+        ExecutorService executor = this.sendExecutor;
+        List<List<IotHubOutboundPacket>> batches = new ArrayList<>(this.inProgressList);
+        List<Future<ResponseMessage>> responses = new ArrayList<>(batches.size());
+        IOException sendException = null;
+
+        // Codes_SRS_HTTPSTRANSPORT_28_021: [If several batches are in progress, the function shall send them at the same time.]
+        for (List<IotHubOutboundPacket> batch : batches)
+        {
+            final HttpsMessage msg = batchToMessage(batch);
+            try
+            {
+                responses.add(executor.submit(new Callable<ResponseMessage>()
+                {
+                    @Override
+                    public ResponseMessage call() throws IOException
+                    {
+                        return httpsConnection.sendEvent(msg);
+                    }
+                }));
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the transport is closed, which cancelled the batches not sent.
+                sendException = new IOException("The HTTPS transport is closed", e);
+                break;
+            }
+        }
+
+        boolean interrupted = false;
+        for (int i = 0; i < responses.size(); i++)
+        {
+            ResponseMessage responseMessage;
+            try
+            {
+                responseMessage = responses.get(i).get();
+            }
+            catch (ExecutionException e)
+            {
+                // Codes_SRS_HTTPSTRANSPORT_28_023: [If the request of a batch failed, the function shall keep the batch
+                // in progress, and throw an IOException once the other responses are handled.]
+                if (sendException == null)
+                {
+                    sendException = (e.getCause() instanceof IOException)
+                            ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+                continue;
+            }
+            catch (InterruptedException e)
+            {
+                // Codes_SRS_HTTPSTRANSPORT_28_027: [If the thread is interrupted, the function shall still wait for the
+                // response of each batch in flight, so no batch left in progress is still being sent, then restore the
+                // interrupt status and throw an IOException.]
+                interrupted = true;
+                i--;
+                continue;
+            }
 
-            msg = batch;
+            // Codes_SRS_HTTPSTRANSPORT_28_022: [The function shall add the callbacks of the batches sent to the
+            // callback queue in the order of the batches.]
+            // Codes_SRS_HTTPSTRANSPORT_28_028: [A batch still in flight shall be taken from the batches in progress
+            // either by the function or by the send, so its callbacks are invoked once.]
+            List<IotHubOutboundPacket> batch = batches.get(i);
+            if (this.inProgressList.remove(batch))
+            {
+                this.moveBatchToCallbackList(batch, responseMessage);
+            }
         }
 
-        return msg;
+        // a batch already answered does not check for the interruption, so the status is checked once more.
+        if (interrupted || Thread.interrupted())
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the responses of the batches", sendException);
+        }
+
+        if (sendException != null)
+        {
+            throw sendException;
+        }
     }
 
     /**
-     * Moves messages from the in progress list to the callback list, updating
-     * the message packets with the status code from the response.
+     * Moves the messages of a batch to the callback list, updating the message
+     * packets with the status code from the response.
      *
+     * @param packets the packets of the messages of the batch.
      * @param responseMessage the result from the IoT Hub that includes the status and message.
      */
-    private void moveInProgressListToCallbackList(ResponseMessage responseMessage)
+    private void moveBatchToCallbackList(List<IotHubOutboundPacket> packets, ResponseMessage responseMessage)
     {
-        while (!this.inProgressList.isEmpty())
+        for (IotHubOutboundPacket packet : packets)
         {
-            IotHubOutboundPacket packet = this.inProgressList.remove();
             addOutboundPacketToCallbackList(packet, responseMessage);
         }
     }
@@ -453,4 +788,24 @@ public final class HttpsTransport implements IotHubTransport
             this.callbackList.add(callbackPacket);
         }
     }
+
+    /**
+     * Registers the dispatcher to hand the callbacks of the completed requests to.
+     *
+     * @param callbackDispatcher the dispatcher to invoke the callbacks. Can be {@code null} to invoke the callbacks directly.
+     */
+    public void registerCallbackDispatcher(IotHubCallbackDispatcher callbackDispatcher)
+    {
+        // Codes_SRS_HTTPSTRANSPORT_28_008: [The function shall save the callback dispatcher.]
+        this.callbackDispatcher = callbackDispatcher;
+    }
+
+    private void signalSend()
+    {
+        IotHubSendSignal signal = this.sendSignal;
+        if (signal != null)
+        {
+            signal.signal();
+        }
+    }
 }
@@ -13,11 +13,14 @@ import java.io.IOException;
 
 /**
  * Implementation of the transport manager for https.
+ *
+ * <p>The manager is thread safe. Once opened, its connection is a session that the threads
+ * sharing the manager use at the same time, until it is closed.</p>
  */
 public class HttpsTransportManager implements IotHubTransportManager
 {
     DeviceClientConfig config;
-    HttpsIotHubConnection httpsIotHubConnection;
+    volatile HttpsIotHubConnection httpsIotHubConnection;
 
     /**
      * Constructor
@@ -37,32 +40,42 @@ public class HttpsTransportManager implements IotHubTransportManager
     }
 
     /**
-     * Opens the connection by creating a new instance of the HttpsIotHubConnection.
+     * Opens the connection by creating a new instance of the HttpsIotHubConnection,
+     * if it is not open yet.
      */
-    public void open()
+    public synchronized void open()
     {
         /* Codes_SRS_HTTPSTRANSPORTMANAGER_21_003: [The open shall create and store a new transport connection `HttpsIotHubConnection`.] */
-        httpsIotHubConnection = new HttpsIotHubConnection(config);
+        /* Codes_SRS_HTTPSTRANSPORTMANAGER_28_001: [If the transport connection is already open, the open shall keep it.] */
+        if (httpsIotHubConnection == null)
+        {
+            httpsIotHubConnection = new HttpsIotHubConnection(config);
+        }
     }
 
     /**
-     * Opens the connection by creating a new instance of the HttpsIotHubConnection.
-     * The provided topics have no effect for HTTPS protocol, and it is ignored.
+     * Opens the connection by creating a new instance of the HttpsIotHubConnection,
+     * if it is not open yet. The provided topics have no effect for HTTPS protocol,
+     * and it is ignored.
      *
      * @param topics is a list of topics to signed in.
      */
-    public void open(String[] topics)
+    public synchronized void open(String[] topics)
     {
         /* Codes_SRS_HTTPSTRANSPORTMANAGER_21_004: [The open shall create and store a new transport connection `HttpsIotHubConnection`.] */
         /* Codes_SRS_HTTPSTRANSPORTMANAGER_21_005: [The open shall ignore the parameter `topics`.] */
-        httpsIotHubConnection = new HttpsIotHubConnection(config);
+        /* Codes_SRS_HTTPSTRANSPORTMANAGER_28_001: [If the transport connection is already open, the open shall keep it.] */
+        if (httpsIotHubConnection == null)
+        {
+            httpsIotHubConnection = new HttpsIotHubConnection(config);
+        }
     }
 
 
     /**
      * Close the connection destroying the HttpsIotHubConnection instance.
      */
-    public void close()
+    public synchronized void close()
     {
         /* Codes_SRS_HTTPSTRANSPORTMANAGER_21_006: [The close shall destroy the transport connection `HttpsIotHubConnection`.] */
         httpsIotHubConnection = null;
@@ -74,7 +87,7 @@ public class HttpsTransportManager implements IotHubTransportManager
      *
      * @param message is the message to send.
      * @return the IotHub response with the status and payload.
-     * @throws IOException if the IotHub communication failed.
+     * @throws IOException if the IotHub communication failed, or if the connection is not open.
      * @throws IllegalArgumentException if the provided message is null, or invalid.
      */
     public ResponseMessage send(IotHubTransportMessage message) throws IOException, IllegalArgumentException
@@ -109,18 +122,29 @@ public class HttpsTransportManager implements IotHubTransportManager
 
         /* Codes_SRS_HTTPSTRANSPORTMANAGER_21_013: [The send shall call `sendHttpsMessage` from `HttpsIotHubConnection` to send the message.] */
         /* Codes_SRS_HTTPSTRANSPORTMANAGER_21_014: [If `sendHttpsMessage` failed, the send shall bypass the exception.] */
-        return httpsIotHubConnection.sendHttpsMessage(httpsMessage, httpsMethod, httpsPath);
+        return getOpenConnection().sendHttpsMessage(httpsMessage, httpsMethod, httpsPath);
     }
 
     /**
      * Pull the IotHub looking for new message.
      * @return New message from the IotHub. It can be {@code null} is there is no new message to read.
-     * @throws IOException if the IotHub communication failed.
+     * @throws IOException if the IotHub communication failed, or if the connection is not open.
      */
     public Message receive() throws IOException
     {
         /* Codes_SRS_HTTPSTRANSPORTMANAGER_21_015: [The receive shall receive and bypass message from `HttpsIotHubConnection`, by calling `receiveMessage`.] */
         /* Codes_SRS_HTTPSTRANSPORTMANAGER_21_016: [If `receiveMessage` failed, the receive shall bypass the exception.] */
-        return httpsIotHubConnection.receiveMessage();
+        return getOpenConnection().receiveMessage();
+    }
+
+    private HttpsIotHubConnection getOpenConnection() throws IOException
+    {
+        HttpsIotHubConnection connection = httpsIotHubConnection;
+        if (connection == null)
+        {
+            /* Codes_SRS_HTTPSTRANSPORTMANAGER_28_002: [If the transport connection is not open, the send and the receive shall throw IOException.] */
+            throw new IOException("https transport is not open");
+        }
+        return connection;
     }
 }
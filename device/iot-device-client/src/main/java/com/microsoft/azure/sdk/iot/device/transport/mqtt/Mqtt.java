@@ -3,15 +3,14 @@
 
 package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
-import com.microsoft.azure.sdk.iot.device.IotHubSSLContext;
 import com.microsoft.azure.sdk.iot.device.Message;
-import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 import org.eclipse.paho.client.mqttv3.*;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 import java.io.IOException;
 import java.security.InvalidParameterException;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 abstract public class Mqtt implements MqttCallback
 {
@@ -19,160 +18,36 @@ abstract public class Mqtt implements MqttCallback
     abstract String parseTopic() throws IOException;
     abstract byte[] parsePayload(String topic) throws IOException;
 
-     /*
-     Variables which apply to all the concrete classes as well as to Mqtt and are to be instantiated only once
-     in lifetime.
-     */
-    private static MqttConnectionInfo info ;
-    static ConcurrentSkipListMap<String, byte[]> allReceivedMessages;
-    private static Object MQTT_LOCK;
-
     /*
-      Inner class which holds the basic information related to Mqtt Client Async.
+     The connection state of the device: the mqtt client, the inbound router and the lock.
+     It is shared only by the messaging, twin and method clients of the same device.
      */
-    protected class MqttConnectionInfo
-    {
-        protected MqttAsyncClient mqttAsyncClient = null;
-        private MqttConnectOptions connectionOptions = null;
-
-        //mqtt connection options
-        private static final int KEEP_ALIVE_INTERVAL = 20;
-        private static final int MQTT_VERSION = 4;
-        private static final boolean SET_CLEAN_SESSION = false;
-        private static final int QOS = 1;
-        private static final int MAX_WAIT_TIME = 1000;
-
-        // paho mqtt only supports 10 messages in flight at the same time
-        private static final int MAX_IN_FLIGHT_COUNT = 10;
-
-        MqttConnectionInfo(String serverURI, String clientId, String userName, String password, IotHubSSLContext iotHubSSLContext) throws IOException
-        {
-            try
-            {
-                mqttAsyncClient = new MqttAsyncClient(serverURI, clientId, new MemoryPersistence());
-                mqttAsyncClient.setCallback(Mqtt.this);
-                connectionOptions = new MqttConnectOptions();
-                this.updateConnectionOptions(userName, password, iotHubSSLContext);
-            }
-            catch (MqttException e)
-            {
-                mqttAsyncClient = null;
-                connectionOptions = null;
-                throw new IOException("Error initializing MQTT connection:" + e.getMessage());
-            }
-        }
-
-        /**
-         * Generates the connection options for the mqtt broker connection.
-         *
-         * @param userName the user name for the mqtt broker connection.
-         * @param userPassword the user password for the mqtt broker connection.
-         */
-
-        private void updateConnectionOptions(String userName, String userPassword, IotHubSSLContext iotHubSSLContext)
-        {
-            this.connectionOptions.setKeepAliveInterval(KEEP_ALIVE_INTERVAL);
-            this.connectionOptions.setCleanSession(SET_CLEAN_SESSION);
-            this.connectionOptions.setMqttVersion(MQTT_VERSION);
-            this.connectionOptions.setUserName(userName);
-            this.connectionOptions.setPassword(userPassword.toCharArray());
-            this.connectionOptions.setSocketFactory(iotHubSSLContext.getIotHubSSlContext().getSocketFactory());
-        }
-    }
-
-    private void setMqttInfo(String serverURI, String clientId, String userName, String password, IotHubSSLContext iotHubSSLContext) throws IOException
-    {
-        /*
-        **Codes_SRS_Mqtt_25_003: [**The constructor shall use the configuration to instantiate an instance of the inner class MqttConnectionInfo if not already created.**]**
-         */
-        /*
-        ** Codes_SRS_Mqtt_25_004: [**If an instance of the inner class MqttConnectionInfo is already created than it shall return doing nothing.**]**
-         */
-        if (Mqtt.info == null)
-        {
-            Mqtt.info = new MqttConnectionInfo(serverURI, clientId, userName, password, iotHubSSLContext);
-            Mqtt.allReceivedMessages = new ConcurrentSkipListMap<>();
-            Mqtt.MQTT_LOCK = new Object();
-        }
-    }
+    private final MqttConnection mqttConnection;
+    final MqttInboundRouter inboundRouter;
+    private final Object mqttLock;
 
     /**
-     * Constructor to instantiate mqtt broker connection.
+     * Constructor to instantiate a client of the device mqtt broker connection.
      *
+     * @param mqttConnection the mqtt connection of the device, shared by all its clients.
+     * @throws InvalidParameterException if the mqtt connection is null.
      */
-    public Mqtt()
+    public Mqtt(MqttConnection mqttConnection)
     {
         /*
-        ** Codes_SRS_Mqtt_25_001: [**The constructor shall instantiate MQTT lock for using base class.**]**
-        */
-        if (Mqtt.MQTT_LOCK == null)
-        {
-            Mqtt.MQTT_LOCK = new Object();
-        }
-    }
-
-    /**
-     * Constructor to instantiate mqtt broker connection.
-     *
-     * @param serverURI the server uri associated with this mqtt broker connection
-     * @param clientId the client Id associated with this mqtt broker connection.
-     * @param userName the user name for the mqtt broker connection.
-     * @param userPassword the user password for the mqtt broker connection.
-     * @param iotHubSSLContext the iothub SSL context
-     * @throws IOException if failed to set the mqtt information
-     */
-    public Mqtt(String serverURI, String clientId, String userName, String userPassword, IotHubSSLContext iotHubSSLContext) throws IOException
-    {
-        /*
-         ** Codes_SRS_Mqtt_25_002: [**The constructor shall throw InvalidParameter Exception if any of the parameters are null or empty .**]**
+        **Codes_SRS_Mqtt_28_001: [**The constructor shall throw InvalidParameterException if the mqtt connection is null.**]**
          */
-        if (serverURI == null || clientId == null || userName == null || userPassword == null || iotHubSSLContext == null)
+        if (mqttConnection == null)
         {
-            throw new InvalidParameterException();
+            throw new InvalidParameterException("Mqtt connection cannot be null");
         }
 
-        else if (serverURI.length() == 0 || clientId.length() == 0 || userName.length() == 0 || userPassword.length() == 0)
-        {
-            throw new InvalidParameterException();
-        }
-
-        try
-        {
-            /*
-            **Codes_SRS_Mqtt_25_003: [**The constructor shall use the configuration to instantiate an instance of the inner class MqttConnectionInfo if not already created.**]**
-             */
-            setMqttInfo(serverURI, clientId, userName, userPassword, iotHubSSLContext);
-        }
-        catch (IOException e)
-        {
-            /*
-            **Codes_SRS_Mqtt_25_045: [**The constructor throws IOException if MqttException is thrown and doesn't instantiate this instance.**]**
-             */
-            Mqtt.info = null;
-            Mqtt.allReceivedMessages = null;
-            Mqtt.MQTT_LOCK = null;
-            throw new IOException(e.getMessage());
-        }
-    }
-
-    /**
-     * Method to restart mqtt broker connection.
-     */
-
-    public void restartBaseMqtt()
-    {
         /*
-            As this is abstract class, if we ever want to restart application
-            in the current scope to create a new instance of this base class,
-            we have to unset all its static variables.
-        */
-
-        /*
-        ** Codes_SRS_Mqtt_25_046: [**restartBaseMqtt shall unset all the static variables.**]**
+        **Codes_SRS_Mqtt_28_002: [**The constructor shall use the client, the inbound router and the lock of the provided mqtt connection, so they are shared only with the other clients of the same connection.**]**
          */
-        Mqtt.MQTT_LOCK = null;
-        Mqtt.allReceivedMessages = null;
-        Mqtt.info = null;
+        this.mqttConnection = mqttConnection;
+        this.inboundRouter = mqttConnection.getInboundRouter();
+        this.mqttLock = mqttConnection.getMqttLock();
     }
 
     /**
@@ -182,14 +57,14 @@ abstract public class Mqtt implements MqttCallback
      */
     protected void connect() throws IOException
     {
-        synchronized (Mqtt.MQTT_LOCK)
+        synchronized (this.mqttLock)
         {
             try
             {
-                if (Mqtt.info == null)
+                if (this.mqttConnection.getMqttAsyncClient() == null)
                 {
                     /*
-                    ** Codes_SRS_Mqtt_25_006: [**If the inner class MqttConnectionInfo has not been instantiated then the function shall throw IOException.**]**
+                    ** Codes_SRS_Mqtt_25_006: [**If the mqtt client has not been instantiated or was already disconnected then the function shall throw IOException.**]**
                      */
                     throw new IOException("Mqtt client should be initialised atleast once before using it");
                 }
@@ -197,12 +72,12 @@ abstract public class Mqtt implements MqttCallback
                 /*
                 **Codes_SRS_Mqtt_25_008: [**If the MQTT connection is already open, the function shall do nothing.**]**
                  */
-                if (!Mqtt.info.mqttAsyncClient.isConnected())
+                if (!this.mqttConnection.getMqttAsyncClient().isConnected())
                 {
                     /*
                     **Codes_SRS_Mqtt_25_005: [**The function shall establish an MQTT connection with an IoT Hub using the provided host name, user name, device ID, and sas token.**]**
                      */
-                    IMqttToken connectToken = Mqtt.info.mqttAsyncClient.connect(Mqtt.info.connectionOptions);
+                    IMqttToken connectToken = this.mqttConnection.getMqttAsyncClient().connect(this.mqttConnection.getConnectionOptions());
                     connectToken.waitForCompletion();
                 }
             }
@@ -229,15 +104,15 @@ abstract public class Mqtt implements MqttCallback
             /*
             **Codes_SRS_Mqtt_25_010: [**If the MQTT connection is closed, the function shall do nothing.**]**
             */
-            if (Mqtt.info.mqttAsyncClient.isConnected())
+            if (this.mqttConnection.getMqttAsyncClient() != null && this.mqttConnection.getMqttAsyncClient().isConnected())
             {
                 /*
                 ** Codes_SRS_Mqtt_25_009: [**The function shall close the MQTT connection.**]**
                 */
-                IMqttToken disconnectToken = Mqtt.info.mqttAsyncClient.disconnect();
+                IMqttToken disconnectToken = this.mqttConnection.getMqttAsyncClient().disconnect();
                 disconnectToken.waitForCompletion();
             }
-            Mqtt.info.mqttAsyncClient = null;
+            this.mqttConnection.setMqttAsyncClient(null);
         }
         
         catch (MqttException e)
@@ -258,73 +133,110 @@ abstract public class Mqtt implements MqttCallback
      */
     protected void publish(String publishTopic, byte[] payload) throws IOException
     {
-        synchronized (Mqtt.MQTT_LOCK)
+        this.publish(publishTopic, payload, null);
+    }
+
+    /**
+     * Method to publish to mqtt broker connection, and to be notified when the broker acknowledges the publish.
+     *
+     * The call only waits for room in the in-flight window of the connection, not for the acknowledgement.
+     *
+     * @param publishTopic the topic to publish on mqtt broker connection.
+     * @param payload   the payload to publish on publishTopic of mqtt broker connection.
+     * @param completionListener the listener to notify when the broker acknowledges the publish, or when it fails
+     *                           after being handed to the mqtt client. Can be {@code null}.
+     * @throws IOException if failed to publish the mqtt topic. The listener is not notified in this case.
+     */
+    protected void publish(String publishTopic, byte[] payload, IMqttActionListener completionListener) throws IOException
+    {
+        if (this.mqttConnection.getMqttAsyncClient() == null)
         {
-            try
-            {
-                if (Mqtt.info == null)
-                {
-                    System.out.println("Mqtt client should be initialised atleast once before using it");
-                    throw new InvalidParameterException();
-                }
+            throw new IOException("Mqtt client should be initialised atleast once before using it");
+        }
+
+        if (!this.mqttConnection.getMqttAsyncClient().isConnected())
+        {
+            /*
+            ** Codes_SRS_Mqtt_25_012: [**If the MQTT connection is closed, the function shall throw an IOException.**]**
+             */
+            throw new IOException("Cannot publish when mqtt client is disconnected");
+        }
+
+        if (publishTopic == null || publishTopic.length() == 0 || payload == null)
+        {
+            /*
+            **Codes_SRS_Mqtt_25_013: [**If the either publishTopic is null or empty or if payload is null, the function shall throw an IOException.**]**
+            */
+            throw new IOException("Cannot publish on null or empty publish topic");
+        }
 
-                if (!Mqtt.info.mqttAsyncClient.isConnected())
+        /*
+        **Codes_SRS_Mqtt_28_004: [**publish shall wait, without holding the lock of the connection, until the number of publishes waiting for their acknowledgement is below the in-flight window of the connection.**]**
+         */
+        final Semaphore inFlightWindow = this.mqttConnection.getInFlightWindow();
+        try
+        {
+            while (!inFlightWindow.tryAcquire(MqttConnection.MAX_WAIT_TIME, TimeUnit.MILLISECONDS))
+            {
+                MqttAsyncClient client = this.mqttConnection.getMqttAsyncClient();
+                if (client == null || !client.isConnected())
                 {
                     /*
                     ** Codes_SRS_Mqtt_25_012: [**If the MQTT connection is closed, the function shall throw an IOException.**]**
                      */
-                    throw new IOException("Cannot publish when mqtt client is disconnected");
+                    throw new IOException("Cannot publish when the in-flight window is full and mqtt client is disconnected");
                 }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted, Unable to publish message on topic : " + publishTopic);
+        }
 
-                if (publishTopic == null || publishTopic.length() == 0 || payload == null)
-                {
-                    /*
-                    **Codes_SRS_Mqtt_25_013: [**If the either publishTopic is null or empty or if payload is null, the function shall throw an IOException.**]**
-                    */
-                    throw new IOException("Cannot publish on null or empty publish topic");
-                }
+        /*
+        **Codes_SRS_Mqtt_28_005: [**When the publish is acknowledged or fails, publish shall give its room in the in-flight window back and then notify the completion listener, if any.**]**
+         */
+        IMqttActionListener windowListener = new InFlightWindowListener(inFlightWindow, completionListener);
 
-                while (Mqtt.info.mqttAsyncClient.getPendingDeliveryTokens().length >= MqttConnectionInfo.MAX_IN_FLIGHT_COUNT)
+        synchronized (this.mqttLock)
+        {
+            try
+            {
+                MqttAsyncClient client = this.mqttConnection.getMqttAsyncClient();
+                if (client == null || !client.isConnected())
                 {
-                    /*
-                    **Codes_SRS_Mqtt_25_048: [**publish shall check for pending publish tokens by calling getPendingDeliveryTokens.
-                    * And if there are pending tokens publish shall sleep until the number of pending tokens are less than 10 as per paho limitations**]**
-                    */
-                    Thread.sleep(10);
-
-                    if (!Mqtt.info.mqttAsyncClient.isConnected())
-                    {
                     /*
                     ** Codes_SRS_Mqtt_25_012: [**If the MQTT connection is closed, the function shall throw an IOException.**]**
                      */
-                        throw new IOException("Cannot publish when mqtt client is holding 10 tokens and  is disconnected");
-                    }
+                    throw new IOException("Cannot publish when mqtt client is disconnected");
                 }
 
                 MqttMessage mqttMessage = (payload.length == 0) ? new MqttMessage() : new MqttMessage(payload);
 
-                mqttMessage.setQos(MqttConnectionInfo.QOS);
+                mqttMessage.setQos(MqttConnection.QOS);
 
                 /*
                 **Codes_SRS_Mqtt_25_014: [**The function shall publish message payload on the publishTopic specified to the IoT Hub given in the configuration.**]**
                  */
-
-                IMqttDeliveryToken publishToken = Mqtt.info.mqttAsyncClient.publish(publishTopic, mqttMessage);
-
+                client.publish(publishTopic, mqttMessage, null, windowListener);
             }
             catch (MqttException e)
             {
+                inFlightWindow.release();
                 /*
                 **Codes_SRS_Mqtt_25_047: [**If the Mqtt Client Async throws MqttException, the function shall throw an IOException with the message.**]**
                  */
                 throw new IOException("Unable to publish message on topic : " + publishTopic + " because " + e.getCause() + e.getMessage());
             }
-            catch (InterruptedException e)
+            catch (IOException e)
             {
-                throw new IOException("Interrupted, Unable to publish message on topic : " + publishTopic);
+                inFlightWindow.release();
+                throw e;
             }
             catch (Exception e)
             {
+                inFlightWindow.release();
                 throw new IOException("Unable to publish message on topic : " + publishTopic + " " + e.getCause() + e.getMessage());
             }
         }
@@ -338,11 +250,11 @@ abstract public class Mqtt implements MqttCallback
      */
     protected void subscribe(String topic) throws IOException
     {
-        synchronized (Mqtt.MQTT_LOCK)
+        synchronized (this.mqttLock)
         {
             try
             {
-                if (Mqtt.info == null)
+                if (this.mqttConnection.getMqttAsyncClient() == null)
                 {
                     throw new IOException("Mqtt client should be initialised atleast once before using it");
                 }
@@ -354,7 +266,7 @@ abstract public class Mqtt implements MqttCallback
                     throw new InvalidParameterException("Topic cannot be null");
 
                 }
-                else if (!Mqtt.info.mqttAsyncClient.isConnected())
+                else if (!this.mqttConnection.getMqttAsyncClient().isConnected())
                 {
                     /*
                     **Codes_SRS_Mqtt_25_015: [**If the MQTT connection is closed, the function shall throw an IOexception with message.**]**
@@ -364,8 +276,8 @@ abstract public class Mqtt implements MqttCallback
                 /*
                 **Codes_SRS_Mqtt_25_017: [**The function shall subscribe to subscribeTopic specified to the IoT Hub given in the configuration.**]**
                  */
-                IMqttToken subToken = Mqtt.info.mqttAsyncClient.subscribe(topic, MqttConnectionInfo.QOS);
-                subToken.waitForCompletion(MqttConnectionInfo.MAX_WAIT_TIME);
+                IMqttToken subToken = this.mqttConnection.getMqttAsyncClient().subscribe(topic, MqttConnection.QOS);
+                subToken.waitForCompletion(MqttConnection.MAX_WAIT_TIME);
             }
             catch (MqttException e)
             {
@@ -385,11 +297,11 @@ abstract public class Mqtt implements MqttCallback
      */
     void unsubscribe(String topic) throws IOException
     {
-        synchronized (Mqtt.MQTT_LOCK)
+        synchronized (this.mqttLock)
         {
             try
             {
-                if (!Mqtt.info.mqttAsyncClient.isConnected())
+                if (!this.mqttConnection.getMqttAsyncClient().isConnected())
                 {
                     /*
                     **Codes_SRS_Mqtt_25_018: [**If the MQTT connection is closed, the function shall throw an IOException with message.**]**
@@ -399,7 +311,7 @@ abstract public class Mqtt implements MqttCallback
                 /*
                 **Codes_SRS_Mqtt_25_020: [**The function shall unsubscribe from subscribeTopic specified to the IoT Hub given in the configuration.**]**
                  */
-                IMqttToken subToken = Mqtt.info.mqttAsyncClient.unsubscribe(topic);
+                IMqttToken subToken = this.mqttConnection.getMqttAsyncClient().unsubscribe(topic);
                 subToken.waitForCompletion();
 
             }
@@ -415,11 +327,11 @@ abstract public class Mqtt implements MqttCallback
 
     protected boolean isConnected()
     {
-        if (Mqtt.info == null || Mqtt.info.mqttAsyncClient == null)
+        if (this.mqttConnection.getMqttAsyncClient() == null)
         {
             throw new InvalidParameterException("Mqtt client should be initialised atleast once before using it");
         }
-        return Mqtt.info.mqttAsyncClient.isConnected();
+        return this.mqttConnection.getMqttAsyncClient().isConnected();
     }
 
     /**
@@ -430,9 +342,9 @@ abstract public class Mqtt implements MqttCallback
      */
     public Message receive() throws IOException
     {
-        synchronized (Mqtt.MQTT_LOCK)
+        synchronized (this.mqttLock)
         {
-            if (Mqtt.info == null)
+            if (this.mqttConnection.getMqttAsyncClient() == null)
             {
                 throw new InvalidParameterException("Mqtt client should be initialised atleast once before using it");
             }
@@ -479,43 +391,10 @@ abstract public class Mqtt implements MqttCallback
     @Override
     public void connectionLost(Throwable throwable)
     {
-        synchronized (Mqtt.MQTT_LOCK)
-        {
-            if (Mqtt.info != null && Mqtt.info.mqttAsyncClient != null)
-            {
-                int currentReconnectionAttempt = 0;
-                while (!Mqtt.info.mqttAsyncClient.isConnected())
-                {
-                    System.out.println("Lost connection to the server. Reconnecting " + currentReconnectionAttempt + " time.");
-                    try
-                    {
-                        currentReconnectionAttempt++;
-                        connect();
-                    }
-                    catch (Exception e)
-                    {
-                        try
-                        {
-                            /*
-                            Codes_SRS_Mqtt_25_027: [**The function shall attempt to reconnect to the IoTHub in a loop with exponential backoff until it succeeds**]**
-                             */
-                            /*
-                            **Codes_SRS_Mqtt_25_028: [**The maximum wait interval until a reconnect is attempted shall be 60 seconds.**]**
-                             */
-                            Thread.sleep(TransportUtils.generateSleepInterval(currentReconnectionAttempt));
-                        }
-                        catch (InterruptedException ie)
-                        {
-                            // do nothing and continue trying...
-                        }
-                    }
-                }
-            }
-            else
-            {
-                System.out.println("Initialise before using this..");
-            }
-        }
+        /*
+        **Codes_SRS_Mqtt_28_006: [**The function shall hand the reconnection to the reconnector of the connection and return without waiting, so neither the mqtt client thread nor the lock of the connection is held while reconnecting.**]**
+         */
+        this.mqttConnection.getReconnector().connectionLost();
     }
 
     /**
@@ -528,9 +407,9 @@ abstract public class Mqtt implements MqttCallback
     public void messageArrived(String topic, MqttMessage mqttMessage)
     {
         /*
-        **Codes_SRS_Mqtt_25_030: [**The payload of the message and the topic is added to the received messages queue .**]**
+        **Codes_SRS_Mqtt_28_003: [**The payload of the message and the topic shall be routed to the end of the queue of the category of the topic, keeping every message in the order it arrived.**]**
          */
-        Mqtt.allReceivedMessages.put(topic, mqttMessage.getPayload());
+        this.inboundRouter.route(topic, mqttMessage.getPayload());
     }
 
     /**
@@ -543,4 +422,47 @@ abstract public class Mqtt implements MqttCallback
     {
 
     }
+
+    /**
+     * Gives the room of a publish in the in-flight window back once the publish completes,
+     * then forwards the completion to the listener of the caller.
+     */
+    private static final class InFlightWindowListener implements IMqttActionListener
+    {
+        private final Semaphore inFlightWindow;
+        private final IMqttActionListener completionListener;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        InFlightWindowListener(Semaphore inFlightWindow, IMqttActionListener completionListener)
+        {
+            this.inFlightWindow = inFlightWindow;
+            this.completionListener = completionListener;
+        }
+
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken)
+        {
+            if (this.completed.compareAndSet(false, true))
+            {
+                this.inFlightWindow.release();
+                if (this.completionListener != null)
+                {
+                    this.completionListener.onSuccess(asyncActionToken);
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception)
+        {
+            if (this.completed.compareAndSet(false, true))
+            {
+                this.inFlightWindow.release();
+                if (this.completionListener != null)
+                {
+                    this.completionListener.onFailure(asyncActionToken, exception);
+                }
+            }
+        }
+    }
 }
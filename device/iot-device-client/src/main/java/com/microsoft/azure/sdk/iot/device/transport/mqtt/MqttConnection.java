@@ -0,0 +1,201 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.IotHubSSLContext;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The MQTT connection of one device: the Paho client, its connection options, the router of
+ * the messages received and not yet consumed, and the lock that serializes the operations on the client.
+ *
+ * One instance is created for each device connection, and shared only by the
+ * {@link MqttMessaging}, {@link MqttDeviceTwin} and {@link MqttDeviceMethod} of that device,
+ * so any number of devices can be connected from the same process.
+ */
+public final class MqttConnection
+{
+    //mqtt connection options
+    private static final int KEEP_ALIVE_INTERVAL = 20;
+    private static final int MQTT_VERSION = 4;
+    private static final boolean SET_CLEAN_SESSION = false;
+    static final int QOS = 1;
+    static final int MAX_WAIT_TIME = 1000;
+
+    // paho mqtt only allows 10 messages in flight at the same time unless configured otherwise
+    public static final int DEFAULT_MAX_IN_FLIGHT_COUNT = 10;
+
+    private MqttAsyncClient mqttAsyncClient;
+    private final MqttConnectOptions connectionOptions;
+    private final MqttInboundRouter inboundRouter;
+    private final Object mqttLock;
+    private final int maxInFlightCount;
+    private final Semaphore inFlightWindow;
+    private final MqttReconnector reconnector;
+
+    /**
+     * Constructor with the default in-flight window of {@link #DEFAULT_MAX_IN_FLIGHT_COUNT} publishes.
+     *
+     * @param serverURI the server uri associated with this mqtt broker connection.
+     * @param clientId the client Id associated with this mqtt broker connection.
+     * @param userName the user name for the mqtt broker connection.
+     * @param userPassword the user password for the mqtt broker connection.
+     * @param iotHubSSLContext the iothub SSL context.
+     * @throws InvalidParameterException if any of the parameters is null or empty.
+     * @throws IOException if the mqtt client cannot be created.
+     */
+    public MqttConnection(String serverURI, String clientId, String userName, String userPassword, IotHubSSLContext iotHubSSLContext) throws IOException
+    {
+        this(serverURI, clientId, userName, userPassword, iotHubSSLContext, DEFAULT_MAX_IN_FLIGHT_COUNT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param serverURI the server uri associated with this mqtt broker connection.
+     * @param clientId the client Id associated with this mqtt broker connection.
+     * @param userName the user name for the mqtt broker connection.
+     * @param userPassword the user password for the mqtt broker connection.
+     * @param iotHubSSLContext the iothub SSL context.
+     * @param maxInFlightCount the maximum number of publishes waiting for their acknowledgement at the same time.
+     * @throws InvalidParameterException if any of the parameters is null or empty, or if the in-flight window is zero or negative.
+     * @throws IOException if the mqtt client cannot be created.
+     */
+    public MqttConnection(String serverURI, String clientId, String userName, String userPassword, IotHubSSLContext iotHubSSLContext,
+                          int maxInFlightCount) throws IOException
+    {
+        // Codes_SRS_MQTTCONNECTION_28_001: [The constructor shall throw InvalidParameterException if any of the parameters is null or empty.]
+        if (serverURI == null || clientId == null || userName == null || userPassword == null || iotHubSSLContext == null)
+        {
+            throw new InvalidParameterException();
+        }
+
+        if (serverURI.length() == 0 || clientId.length() == 0 || userName.length() == 0 || userPassword.length() == 0)
+        {
+            throw new InvalidParameterException();
+        }
+
+        // Codes_SRS_MQTTCONNECTION_28_006: [The constructor shall throw InvalidParameterException if the in-flight window is zero or negative.]
+        if (maxInFlightCount <= 0)
+        {
+            throw new InvalidParameterException("in-flight window can not be zero or negative");
+        }
+        this.maxInFlightCount = maxInFlightCount;
+
+        try
+        {
+            // Codes_SRS_MQTTCONNECTION_28_002: [The constructor shall create a new mqtt async client and its connection options for the provided configuration.]
+            this.mqttAsyncClient = new MqttAsyncClient(serverURI, clientId, new MemoryPersistence());
+            this.connectionOptions = new MqttConnectOptions();
+            this.updateConnectionOptions(userName, userPassword, iotHubSSLContext);
+        }
+        catch (MqttException e)
+        {
+            // Codes_SRS_MQTTCONNECTION_28_003: [If the mqtt async client throws MqttException, the constructor shall throw IOException.]
+            this.mqttAsyncClient = null;
+            throw new IOException("Error initializing MQTT connection:" + e.getMessage());
+        }
+
+        // Codes_SRS_MQTTCONNECTION_28_004: [The constructor shall create an empty inbound router and a lock for this connection only.]
+        this.inboundRouter = new MqttInboundRouter();
+        this.mqttLock = new Object();
+
+        // Codes_SRS_MQTTCONNECTION_28_007: [The constructor shall create an in-flight window with one permit for each publish
+        // allowed to wait for its acknowledgement, and let the mqtt client hold that many publishes in flight.]
+        this.inFlightWindow = new Semaphore(maxInFlightCount);
+
+        // Codes_SRS_MQTTCONNECTION_28_008: [The constructor shall create the reconnector of this connection.]
+        this.reconnector = new MqttReconnector(this);
+    }
+
+    /**
+     * Generates the connection options for the mqtt broker connection.
+     *
+     * @param userName the user name for the mqtt broker connection.
+     * @param userPassword the user password for the mqtt broker connection.
+     */
+    private void updateConnectionOptions(String userName, String userPassword, IotHubSSLContext iotHubSSLContext)
+    {
+        this.connectionOptions.setKeepAliveInterval(KEEP_ALIVE_INTERVAL);
+        this.connectionOptions.setCleanSession(SET_CLEAN_SESSION);
+        this.connectionOptions.setMqttVersion(MQTT_VERSION);
+        this.connectionOptions.setUserName(userName);
+        this.connectionOptions.setPassword(userPassword.toCharArray());
+        this.connectionOptions.setSocketFactory(iotHubSSLContext.getIotHubSSlContext().getSocketFactory());
+        this.connectionOptions.setMaxInflight(this.maxInFlightCount);
+    }
+
+    /**
+     * Registers the callback for the events of the mqtt client.
+     *
+     * @param mqttCallback the callback to be called on connection lost, message arrived and delivery complete.
+     */
+    void setMqttCallback(MqttCallback mqttCallback)
+    {
+        // Codes_SRS_MQTTCONNECTION_28_005: [The function shall set the callback of the mqtt async client, if any.]
+        if (this.mqttAsyncClient != null)
+        {
+            this.mqttAsyncClient.setCallback(mqttCallback);
+        }
+    }
+
+    MqttAsyncClient getMqttAsyncClient()
+    {
+        return this.mqttAsyncClient;
+    }
+
+    void setMqttAsyncClient(MqttAsyncClient mqttAsyncClient)
+    {
+        this.mqttAsyncClient = mqttAsyncClient;
+    }
+
+    MqttConnectOptions getConnectionOptions()
+    {
+        return this.connectionOptions;
+    }
+
+    /**
+     * Getter for the router of the messages received on this connection.
+     *
+     * @return the inbound router of this connection.
+     */
+    public MqttInboundRouter getInboundRouter()
+    {
+        return this.inboundRouter;
+    }
+
+    Object getMqttLock()
+    {
+        return this.mqttLock;
+    }
+
+    /**
+     * Getter for the window of publishes waiting for their acknowledgement. A permit is
+     * taken before each publish and given back when the broker acknowledges it, or when it fails.
+     *
+     * @return the in-flight window of this connection.
+     */
+    Semaphore getInFlightWindow()
+    {
+        return this.inFlightWindow;
+    }
+
+    /**
+     * Getter for the reconnector that establishes this connection again after it is lost.
+     *
+     * @return the reconnector of this connection.
+     */
+    public MqttReconnector getReconnector()
+    {
+        return this.reconnector;
+    }
+}
@@ -8,6 +8,7 @@ import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceMethodMessage;
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageType;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -36,12 +37,12 @@ public class MqttDeviceMethod extends Mqtt
     private final int METHOD_TOKEN = 3;
     private final int REQID_TOKEN = 4;
 
-    public MqttDeviceMethod() throws IOException
+    public MqttDeviceMethod(MqttConnection mqttConnection) throws IOException
     {
         /*
-        Codes_SRS_MqttDeviceMethod_25_001: [**The constructor shall instantiate super class without any parameters.**]**
+        Codes_SRS_MqttDeviceMethod_25_001: [**The constructor shall instantiate super class with the mqtt connection of the device.**]**
          */
-        super();
+        super(mqttConnection);
         /*
         Codes_SRS_MqttDeviceMethod_25_002: [**The constructor shall create subscribe and response topics strings for device methods as per the spec.**]**
          */
@@ -74,7 +75,7 @@ public class MqttDeviceMethod extends Mqtt
         }
         if (!requestMap.isEmpty())
         {
-            logger.LogInfo("Pending %d responses to be sent to IotHub yet unsubscribed %s", requestMap.size(), logger.getMethodName());
+            logger.LogInfo("Pending %d responses to be sent to IotHub yet unsubscribed %s", requestMap.size(), CustomLogger.METHOD_NAME);
         }
 
     }
@@ -85,9 +86,7 @@ public class MqttDeviceMethod extends Mqtt
         /*
         Codes_SRS_MqttDeviceMethod_25_003: [**parseTopic concrete method shall be implemeted by MqttDeviceMethod concrete class.**]**
          */
-        String topic = null;
-
-        if (allReceivedMessages == null)
+        if (inboundRouter == null)
         {
             /*
             Codes_SRS_MqttDeviceMethod_25_007: [**If receiveMessage queue is null then parseTopic shall throw IOException.**]**
@@ -96,36 +95,24 @@ public class MqttDeviceMethod extends Mqtt
         }
 
         /*
-        Codes_SRS_MqttDeviceMethod_25_006: [**If received messages queue is empty then parseTopic shall return null string.**]**
+        Codes_SRS_MqttDeviceMethod_25_004: [**parseTopic shall look for the method topic($iothub/methods) prefix from received message queue as per spec and if found shall return it as string.**]**
          */
-        if (!allReceivedMessages.isEmpty())
-        {
+        Map.Entry<String, byte[]> head = inboundRouter.peek(MqttInboundRouter.Category.DEVICE_METHOD);
 
-            for (Map.Entry<String, byte[]> data : allReceivedMessages.entrySet())
-            {
-                String topicFound = data.getKey();
-
-               /*
-               Codes_SRS_MqttDeviceMethod_25_004: [**parseTopic shall look for the method topic($iothub/methods) prefix from received message queue as per spec and if found shall return it as string.**]**
-                */
-               /*
-                Codes_SRS_MqttDeviceMethod_25_005: [**If none of the topics from the received queue match the methods topic prefix then this method shall return null string .**]**
-                */
-                if (topicFound != null && topicFound.length() > METHOD.length() && topicFound.startsWith(METHOD))
-                {
-                    topic = topicFound;
-                    break;
-                }
-            }
-        }
-        return topic;
+        /*
+        Codes_SRS_MqttDeviceMethod_25_005: [**If none of the topics from the received queue match the methods topic prefix then this method shall return null string .**]**
+         */
+        /*
+        Codes_SRS_MqttDeviceMethod_25_006: [**If received messages queue is empty then parseTopic shall return null string.**]**
+         */
+        return (head == null) ? null : head.getKey();
     }
 
     @Override
     byte[] parsePayload(String topic) throws IOException
     {
         /*
-            This method is called only when you are certain that there is a message in the queue meant for device methods that needs to be retrieved and then deleted.
+            This method is called only when you are certain that the message at the head of the device methods queue needs to be retrieved and then deleted.
          */
         /*
         Codes_SRS_MqttDeviceMethod_25_008: [**parsePayload concrete method shall be implemeted by MqttDeviceMethod concrete class.**]**
@@ -138,7 +125,7 @@ public class MqttDeviceMethod extends Mqtt
              */
             return null;
         }
-        if (allReceivedMessages == null)
+        if (inboundRouter == null)
         {
             /*
             Codes_SRS_MqttDeviceMethod_25_012: [**If receiveMessage queue is null then this method shall throw IOException.**]**
@@ -146,7 +133,12 @@ public class MqttDeviceMethod extends Mqtt
             throw new IOException("Invalid State - topic is not null and could not be found in queue");
         }
 
-        if (!allReceivedMessages.containsKey(topic))
+        /*
+        Codes_SRS_MqttDeviceMethod_25_009: [**parsePayload method shall look for payload for the corresponding topic from the received messagesqueue.**]**
+         */
+        MqttInboundRouter.Category category = MqttInboundRouter.classify(topic);
+        Map.Entry<String, byte[]> head = inboundRouter.peek(category);
+        if (head == null || !head.getKey().equals(topic))
         {
             /*
             Codes_SRS_MqttDeviceMethod_25_011: [**If the topic is non-null and received messagesqueue could not locate the payload then this method shall throw IOException**]**
@@ -155,20 +147,25 @@ public class MqttDeviceMethod extends Mqtt
         }
 
         /*
-        Codes_SRS_MqttDeviceMethod_25_009: [**parsePayload method shall look for payload for the corresponding topic from the received messagesqueue.**]**
+        Codes_SRS_MqttDeviceMethod_25_013: [**If the topic is found in the message queue then parsePayload shall delete it from the queue and return it.**]**
          */
-        if (!allReceivedMessages.isEmpty())
-        {
-            /*
-            Codes_SRS_MqttDeviceMethod_25_013: [**If the topic is found in the message queue then parsePayload shall delete it from the queue and return it.**]**
-             */
-            return allReceivedMessages.remove(topic);
-        }
-
-        return null;
+        inboundRouter.poll(category);
+        return head.getValue();
     }
 
     public void send(final DeviceMethodMessage message) throws IOException
+    {
+        this.send(message, null);
+    }
+
+    /**
+     * Sends a device method request, and notifies the listener when the IoT Hub acknowledges it.
+     *
+     * @param message the device method request to send.
+     * @param completionListener the listener to notify when the request is acknowledged or fails. Can be {@code null}.
+     * @throws IOException if the request could not be handed to the mqtt client.
+     */
+    public void send(final DeviceMethodMessage message, IMqttActionListener completionListener) throws IOException
     {
         if (message == null || message.getBytes() == null)
         {
@@ -191,6 +188,13 @@ public class MqttDeviceMethod extends Mqtt
             /*
             Codes_SRS_MqttDeviceMethod_25_017: [**send method shall return if the message is not of Type DeviceMethod.**]**
              */
+            /*
+            Codes_SRS_MqttDeviceMethod_28_003: [**If the message is not of Type DeviceMethod, send method shall notify the completion listener, if any, before returning.**]**
+             */
+            if (completionListener != null)
+            {
+                completionListener.onSuccess(null);
+            }
             return;
         }
 
@@ -199,6 +203,14 @@ public class MqttDeviceMethod extends Mqtt
             case DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST:
             {
                 this.subscribe(subscribeTopic);
+
+                /*
+                Codes_SRS_MqttDeviceMethod_28_001: [**send method shall notify the completion listener, if any, as soon as the subscription to methods is acknowledged.**]**
+                 */
+                if (completionListener != null)
+                {
+                    completionListener.onSuccess(null);
+                }
                 break;
             }
             case DEVICE_OPERATION_METHOD_SEND_RESPONSE:
@@ -237,7 +249,10 @@ public class MqttDeviceMethod extends Mqtt
                 /*
                 Codes_SRS_MqttDeviceMethod_25_022: [**send method shall build the publish topic of the format mentioned in spec ($iothub/methods/res/{status}/?$rid={request id}) and publish if the operation is of type DEVICE_OPERATION_METHOD_SEND_RESPONSE.**]**
                  */
-                this.publish(topic, message.getBytes());
+                /*
+                Codes_SRS_MqttDeviceMethod_28_002: [**send method shall notify the completion listener, if any, only when the IoT Hub acknowledges the response or when it fails.**]**
+                 */
+                this.publish(topic, message.getBytes(), completionListener);
                 break;
             }
             default:
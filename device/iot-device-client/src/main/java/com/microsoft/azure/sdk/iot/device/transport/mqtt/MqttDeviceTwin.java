@@ -8,6 +8,7 @@ import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceTwinMessage;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageType;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -48,12 +49,12 @@ public class MqttDeviceTwin extends Mqtt
     private final int DESIRED_TOKEN = 4;
     private final int PATCH_VERSION_TOKEN = 5;
 
-    public MqttDeviceTwin() throws IOException
+    public MqttDeviceTwin(MqttConnection mqttConnection) throws IOException
     {
         /*
-        **Codes_SRS_MQTTDEVICETWIN_25_001: [**The constructor shall instantiate super class without any parameters.**]**
+        **Codes_SRS_MQTTDEVICETWIN_25_001: [**The constructor shall instantiate super class with the mqtt connection of the device.**]**
          */
-        super();
+        super(mqttConnection);
         /*
         **Codes_SRS_MQTTDEVICETWIN_25_002: [**The constructor shall construct device twin response subscribeTopic.**]**
          */
@@ -86,7 +87,7 @@ public class MqttDeviceTwin extends Mqtt
 
         if (!requestMap.isEmpty())
         {
-            logger.LogInfo("Pending %d responses from IotHub yet unsubscribed %s", requestMap.size(), logger.getMethodName());
+            logger.LogInfo("Pending %d responses from IotHub yet unsubscribed %s", requestMap.size(), CustomLogger.METHOD_NAME);
         }
     }
 
@@ -96,9 +97,7 @@ public class MqttDeviceTwin extends Mqtt
         /*
         **Codes_SRS_MQTTDEVICETWIN_25_003: [**parseTopic concrete method shall be implemeted by MqttDeviceTwin concrete class.**]**
          */
-        String topic = null;
-
-        if (allReceivedMessages == null)
+        if (inboundRouter == null)
         {
             /*
             **Codes_SRS_MQTTDEVICETWIN_25_007: [**If receiveMessage queue is null then parseTopic shall throw IOException.**]**
@@ -107,37 +106,31 @@ public class MqttDeviceTwin extends Mqtt
         }
 
         /*
-        **Codes_SRS_MQTTDEVICETWIN_25_006: [**If received messages queue is empty then parseTopic shall return null string.**]**
+        **Codes_SRS_MQTTDEVICETWIN_25_004: [**parseTopic shall look for the twin topic($iothub/twin) prefix from received message queue as per spec.**]**
          */
-        if (!allReceivedMessages.isEmpty())
+        /*
+        **Codes_SRS_MQTTDEVICETWIN_28_001: [**parseTopic shall return the oldest twin response, if any, before the oldest desired properties notification.**]**
+         */
+        Map.Entry<String, byte[]> head = inboundRouter.peek(MqttInboundRouter.Category.DEVICE_TWIN_RESPONSE);
+        if (head == null)
         {
-
-            for (Map.Entry<String, byte[]> data : allReceivedMessages.entrySet())
-            {
-                String topicFound = data.getKey();
-
-               /*
-               **Codes_SRS_MQTTDEVICETWIN_25_004: [**parseTopic shall look for the twin topic($iothub/twin) prefix from received message queue as per spec.**]**
-                */
-               /*
-                **Codes_SRS_MQTTDEVICETWIN_25_005: [**If none of the topics from the received queue match the twin topic prefix then this method shall return null string .**]**
-                */
-                if (topicFound != null && topicFound.length() > TWIN.length() && topicFound.startsWith(TWIN))
-                {
-                    topic = topicFound;
-                    break;
-                }
-            }
+            head = inboundRouter.peek(MqttInboundRouter.Category.DEVICE_TWIN_PATCH);
         }
-        return topic;
 
+        /*
+        **Codes_SRS_MQTTDEVICETWIN_25_005: [**If none of the topics from the received queue match the twin topic prefix then this method shall return null string .**]**
+         */
+        /*
+        **Codes_SRS_MQTTDEVICETWIN_25_006: [**If received messages queue is empty then parseTopic shall return null string.**]**
+         */
+        return (head == null) ? null : head.getKey();
     }
 
     @Override
     byte[] parsePayload(String topic) throws IOException
     {
         /*
-            This method is called only when you are certain that there is a message in the queue meant for device messaging that needs to be retrieved and then deleted.
+            This method is called only when you are certain that the message at the head of one of the twin queues needs to be retrieved and then deleted.
          */
         /*
         **Codes_SRS_MQTTDEVICETWIN_25_008: [**parsePayload concrete method shall be implemeted by MqttDeviceTwin concrete class.**]**
@@ -150,7 +143,7 @@ public class MqttDeviceTwin extends Mqtt
              */
             return null;
         }
-        if (allReceivedMessages == null)
+        if (inboundRouter == null)
         {
             /*
             **Codes_SRS_MQTTDEVICETWIN_25_012: [**If receiveMessage queue is null then this method shall throw IOException.**]**
@@ -158,7 +151,12 @@ public class MqttDeviceTwin extends Mqtt
             throw new IOException("Invalid State - topic is not null and could not be found in queue");
         }
 
-        if (!allReceivedMessages.containsKey(topic))
+        /*
+        **Codes_SRS_MQTTDEVICETWIN_25_009: [**This parsePayload method look for payload for the corresponding topic from the received messagesqueue.**]**
+         */
+        MqttInboundRouter.Category category = MqttInboundRouter.classify(topic);
+        Map.Entry<String, byte[]> head = inboundRouter.peek(category);
+        if (head == null || !head.getKey().equals(topic))
         {
             /*
             **Codes_SRS_MQTTDEVICETWIN_25_011: [**If the topic is non-null and received messagesqueue could not locate the payload then this method shall throw IOException**]**
@@ -167,17 +165,10 @@ public class MqttDeviceTwin extends Mqtt
         }
 
         /*
-        **Codes_SRS_MQTTDEVICETWIN_25_009: [**This parsePayload method look for payload for the corresponding topic from the received messagesqueue.**]**
+        **Codes_SRS_MQTTDEVICETWIN_25_013: [**If the topic is found in the message queue then parsePayload shall delete it from the queue.**]**
          */
-        if (!allReceivedMessages.isEmpty())
-        {
-            /*
-            **Codes_SRS_MQTTDEVICETWIN_25_013: [**If the topic is found in the message queue then parsePayload shall delete it from the queue.**]**
-             */
-            return allReceivedMessages.remove(topic);
-        }
-
-        return null;
+        inboundRouter.poll(category);
+        return head.getValue();
     }
 
     private String buildTopic(final DeviceTwinMessage message) throws IOException
@@ -282,6 +273,18 @@ public class MqttDeviceTwin extends Mqtt
     }
 
     public void send(final DeviceTwinMessage message) throws IOException
+    {
+        this.send(message, null);
+    }
+
+    /**
+     * Sends a device twin request, and notifies the listener when the IoT Hub acknowledges it.
+     *
+     * @param message the device twin request to send.
+     * @param completionListener the listener to notify when the request is acknowledged or fails. Can be {@code null}.
+     * @throws IOException if the request could not be handed to the mqtt client.
+     */
+    public void send(final DeviceTwinMessage message, IMqttActionListener completionListener) throws IOException
     {
         if (message == null || message.getBytes() == null)
         {
@@ -301,6 +304,13 @@ public class MqttDeviceTwin extends Mqtt
             /*
             **Codes_SRS_MQTTDEVICETWIN_25_022: [**send method shall return if the message is not of Type DeviceTwin.**]**
              */
+            /*
+            **Codes_SRS_MQTTDEVICETWIN_28_004: [**If the message is not of Type DeviceTwin, send method shall notify the completion listener, if any, before returning.**]**
+             */
+            if (completionListener != null)
+            {
+                completionListener.onSuccess(null);
+            }
             return;
         }
 
@@ -327,13 +337,24 @@ public class MqttDeviceTwin extends Mqtt
             **Codes_SRS_MQTTDEVICETWIN_25_032: [**send method shall subscribe to desired properties by calling method subscribe() on topic "$iothub/twin/PATCH/properties/desired/#" specified in spec if the operation is DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST.**]**
              */
             this.subscribe(subscribeTopic);
+
+            /*
+            **Codes_SRS_MQTTDEVICETWIN_28_002: [**send method shall notify the completion listener, if any, as soon as the subscription to desired properties is acknowledged.**]**
+             */
+            if (completionListener != null)
+            {
+                completionListener.onSuccess(null);
+            }
         }
         else
         {
             /*
             **Codes_SRS_MQTTDEVICETWIN_25_031: [**send method shall publish a message to the IOT Hub on the respective publish topic by calling method publish().**]**
              */
-            this.publish(publishTopic, message.getBytes());
+            /*
+            **Codes_SRS_MQTTDEVICETWIN_28_003: [**send method shall notify the completion listener, if any, only when the IoT Hub acknowledges the publish or when it fails.**]**
+             */
+            this.publish(publishTopic, message.getBytes(), completionListener);
         }
     }
 
@@ -0,0 +1,20 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+/**
+ * An interface for the component that consumes the messages arriving on the MQTT connection.
+ *
+ * The {@link MqttInboundRouter} will call {@link MqttInboundListener#onMessageRouted(MqttInboundRouter.Category)}
+ * every time a message is added to one of its queues.
+ */
+public interface MqttInboundListener
+{
+    /**
+     * Notifies that a message was routed. Called on the mqtt client thread, so it must not block.
+     *
+     * @param category the category of the routed message.
+     */
+    void onMessageRouted(MqttInboundRouter.Category category);
+}
@@ -0,0 +1,159 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import java.util.AbstractMap;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Routes the messages arriving on the MQTT connection of a device to the client that consumes them.
+ *
+ * The topic of each message is classified once, on arrival, and the message is added to the end
+ * of the FIFO queue of its category, so messages with the same topic are all kept, in the order
+ * they arrived, and each client only looks at the head of its own queues. The registered
+ * {@link MqttInboundListener}, if any, is notified of every routed message, so the messages can
+ * be delivered as soon as they arrive instead of waiting for the next poll.
+ */
+public final class MqttInboundRouter
+{
+    /** The categories of the messages arriving on the mqtt connection of a device. */
+    public enum Category
+    {
+        /** Cloud to device messages, on devices/{deviceId}/messages/devicebound/. */
+        DEVICE_MESSAGING,
+        /** Responses to the twin requests, on $iothub/twin/res/, and any other twin topic. */
+        DEVICE_TWIN_RESPONSE,
+        /** Desired properties notifications, on $iothub/twin/PATCH/. */
+        DEVICE_TWIN_PATCH,
+        /** Method invocations, on $iothub/methods/. */
+        DEVICE_METHOD
+    }
+
+    private static final String TWIN_PREFIX = "$iothub/twin/";
+    private static final String TWIN_PATCH_PREFIX = TWIN_PREFIX + "PATCH/";
+    private static final String METHOD_PREFIX = "$iothub/methods/";
+
+    private final Map<Category, Queue<Map.Entry<String, byte[]>>> queues;
+    private volatile MqttInboundListener listener;
+
+    /**
+     * Constructor. Creates an empty queue for each category.
+     */
+    public MqttInboundRouter()
+    {
+        // Codes_SRS_MQTTINBOUNDROUTER_28_001: [The constructor shall create an empty FIFO queue for each category.]
+        this.queues = new EnumMap<>(Category.class);
+        for (Category category : Category.values())
+        {
+            this.queues.put(category, new ConcurrentLinkedQueue<Map.Entry<String, byte[]>>());
+        }
+    }
+
+    /**
+     * Classifies a topic in the category of the client that consumes its messages.
+     *
+     * @param topic the topic the message arrived on.
+     * @return the category of the topic.
+     * @throws IllegalArgumentException if the topic is {@code null}.
+     */
+    public static Category classify(String topic)
+    {
+        // Codes_SRS_MQTTINBOUNDROUTER_28_002: [If the topic is null, the function shall throw an IllegalArgumentException.]
+        if (topic == null)
+        {
+            throw new IllegalArgumentException("topic cannot be null");
+        }
+
+        // Codes_SRS_MQTTINBOUNDROUTER_28_003: [The function shall classify the topics starting with $iothub/methods/ as DEVICE_METHOD,
+        // $iothub/twin/PATCH/ as DEVICE_TWIN_PATCH, any other $iothub/twin/ as DEVICE_TWIN_RESPONSE, and any other topic as DEVICE_MESSAGING.]
+        if (topic.startsWith(METHOD_PREFIX))
+        {
+            return Category.DEVICE_METHOD;
+        }
+        if (topic.startsWith(TWIN_PATCH_PREFIX))
+        {
+            return Category.DEVICE_TWIN_PATCH;
+        }
+        if (topic.startsWith(TWIN_PREFIX))
+        {
+            return Category.DEVICE_TWIN_RESPONSE;
+        }
+        return Category.DEVICE_MESSAGING;
+    }
+
+    /**
+     * Adds an arrived message to the end of the queue of its category and notifies the listener.
+     *
+     * @param topic the topic the message arrived on.
+     * @param payload the payload of the message.
+     * @throws IllegalArgumentException if the topic is {@code null}.
+     */
+    public void route(String topic, byte[] payload)
+    {
+        // Codes_SRS_MQTTINBOUNDROUTER_28_004: [The function shall add the topic and the payload to the end of the queue of the category of the topic.]
+        Category category = classify(topic);
+        this.queues.get(category).add(new AbstractMap.SimpleImmutableEntry<>(topic, payload));
+
+        // Codes_SRS_MQTTINBOUNDROUTER_28_005: [The function shall notify the listener, if any, of the category of the routed message.]
+        MqttInboundListener currentListener = this.listener;
+        if (currentListener != null)
+        {
+            currentListener.onMessageRouted(category);
+        }
+    }
+
+    /**
+     * Getter for the oldest message of a category, without removing it.
+     *
+     * @param category the category of the message.
+     * @return the topic and the payload of the oldest message of the category, or {@code null} if there is none.
+     */
+    public Map.Entry<String, byte[]> peek(Category category)
+    {
+        // Codes_SRS_MQTTINBOUNDROUTER_28_006: [The function shall return the head of the queue of the category, or null if the queue is empty.]
+        return this.queues.get(category).peek();
+    }
+
+    /**
+     * Removes the oldest message of a category.
+     *
+     * @param category the category of the message.
+     * @return the topic and the payload of the oldest message of the category, or {@code null} if there is none.
+     */
+    public Map.Entry<String, byte[]> poll(Category category)
+    {
+        // Codes_SRS_MQTTINBOUNDROUTER_28_007: [The function shall remove and return the head of the queue of the category, or null if the queue is empty.]
+        return this.queues.get(category).poll();
+    }
+
+    /**
+     * Getter for the number of messages waiting to be consumed, in all the categories.
+     *
+     * @return the number of routed messages not yet consumed.
+     */
+    public int size()
+    {
+        // Codes_SRS_MQTTINBOUNDROUTER_28_008: [The function shall return the number of messages in all the queues.]
+        int size = 0;
+        for (Queue<Map.Entry<String, byte[]>> queue : this.queues.values())
+        {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    /**
+     * Registers the listener to be notified of each routed message.
+     *
+     * @param listener the listener to notify. Can be {@code null} to stop notifying.
+     */
+    public void setListener(MqttInboundListener listener)
+    {
+        // Codes_SRS_MQTTINBOUNDROUTER_28_009: [The function shall save the listener.]
+        this.listener = listener;
+    }
+}
@@ -6,12 +6,14 @@ package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceMethodMessage;
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceTwinMessage;
+import com.microsoft.azure.sdk.iot.device.IotHubConnectionStateCallback;
 import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageType;
-import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenProvider;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 
 import java.io.IOException;
 import java.net.URLEncoder;
@@ -23,6 +25,7 @@ public class MqttIotHubConnection
     private final Object MQTT_CONNECTION_LOCK = new Object();
 
     private final DeviceClientConfig config;
+    private final IotHubSasTokenProvider sasTokenProvider;
     private State state = State.CLOSED;
 
     private String iotHubUserName;
@@ -38,6 +41,10 @@ public class MqttIotHubConnection
     private MqttMessaging deviceMessaging;
     private MqttDeviceTwin deviceTwin;
     private MqttDeviceMethod deviceMethod;
+    private MqttConnection mqttConnection;
+    private volatile MqttInboundListener inboundListener;
+    private volatile IotHubConnectionStateCallback stateCallback;
+    private volatile Object stateCallbackContext;
 
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
@@ -76,6 +83,7 @@ public class MqttIotHubConnection
 
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_001: [The constructor shall save the configuration.]
             this.config = config;
+            this.sasTokenProvider = new IotHubSasTokenProvider(config);
             this.deviceMessaging = null;
             this.deviceMethod = null;
             this.deviceTwin = null;
@@ -103,18 +111,31 @@ public class MqttIotHubConnection
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_004: [The function shall establish an MQTT connection
             // with an IoT Hub using the provided host name, user name, device ID, and sas token.]
             try {
-                IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000L +
-                        this.config.getTokenValidSecs() + 1L);
-                this.iotHubUserPassword = sasToken.toString();
+                this.iotHubUserPassword = this.sasTokenProvider.getSasTokenValidFor(this.config.getTokenValidSecs());
 
                 String clientIdentifier = "DeviceClientType=" + URLEncoder.encode(TransportUtils.JAVA_DEVICE_CLIENT_IDENTIFIER + TransportUtils.CLIENT_VERSION, "UTF-8");
                 this.iotHubUserName = this.config.getIotHubHostname() + "/" + this.config.getDeviceId() + "/" + TWIN_API_VERSION + "/" + clientIdentifier;
 
-                this.deviceMessaging = new MqttMessaging(SSL_PREFIX + this.config.getIotHubHostname() + SSL_PORT_SUFFIX,
-                            this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword, this.config.getIotHubSSLContext());
+                // Codes_SRS_MQTTIOTHUBCONNECTION_28_001: [The function shall create a new mqtt connection for this device,
+                // and share it only between the messaging, device method and device twin clients of this device.]
+                // Codes_SRS_MQTTIOTHUBCONNECTION_28_006: [The function shall size the in-flight window of the mqtt connection
+                // with the maximum number of in-flight messages in the configuration.]
+                this.mqttConnection = new MqttConnection(SSL_PREFIX + this.config.getIotHubHostname() + SSL_PORT_SUFFIX,
+                        this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword, this.config.getIotHubSSLContext(),
+                        this.config.getMqttMaxInFlightMessages());
 
-                this.deviceMethod = new MqttDeviceMethod();
-                this.deviceTwin = new MqttDeviceTwin();
+                // Codes_SRS_MQTTIOTHUBCONNECTION_28_002: [The function shall register the inbound listener, if any,
+                // on the router of the new mqtt connection before connecting.]
+                this.mqttConnection.getInboundRouter().setListener(this.inboundListener);
+
+                // Codes_SRS_MQTTIOTHUBCONNECTION_28_009: [The function shall configure the reconnector of the new mqtt connection
+                // with the reconnect backoff policy in the configuration, and the connection state callback, if any.]
+                this.mqttConnection.getReconnector().setBackoffPolicy(this.config.getReconnectBackoffPolicy());
+                this.mqttConnection.getReconnector().setStateCallback(this.stateCallback, this.stateCallbackContext);
+
+                this.deviceMessaging = new MqttMessaging(this.mqttConnection, this.config.getDeviceId());
+                this.deviceMethod = new MqttDeviceMethod(this.mqttConnection);
+                this.deviceTwin = new MqttDeviceTwin(this.mqttConnection);
 
                 this.deviceMessaging.start();
                 this.state = State.OPEN;
@@ -136,6 +157,7 @@ public class MqttIotHubConnection
                 {
                     this.deviceMessaging.stop();
                 }
+                this.mqttConnection = null;
                 throw new IOException(e.getMessage(), e.getCause());
             }
 
@@ -159,6 +181,9 @@ public class MqttIotHubConnection
 
         try
         {
+            // Codes_SRS_MQTTIOTHUBCONNECTION_28_010: [The function shall stop reconnecting the closed connection.]
+            this.mqttConnection.getReconnector().stop();
+
             this.deviceMethod.stop();
             this.deviceMethod = null;
 
@@ -168,6 +193,10 @@ public class MqttIotHubConnection
             this.deviceMessaging.stop();
             this.deviceMessaging = null;
 
+            // Codes_SRS_MQTTIOTHUBCONNECTION_28_003: [The function shall stop notifying the inbound listener of the messages arriving on the closed connection.]
+            this.mqttConnection.getInboundRouter().setListener(null);
+            this.mqttConnection = null;
+
             this.state = State.CLOSED;
         }
  
@@ -188,6 +217,23 @@ public class MqttIotHubConnection
      * @throws IllegalStateException if the MqttIotHubConnection is not open
      */
     public IotHubStatusCode sendEvent(Message message) throws IllegalStateException
+    {
+        return this.sendEvent(message, null);
+    }
+
+    /**
+     * Sends an event message, and notifies the listener when the IoT Hub acknowledges it.
+     *
+     * @param message the event message.
+     * @param completionListener the listener to notify when the IoT Hub acknowledges the message
+     *                           or when the send fails. Can be {@code null}.
+     *
+     * @return OK_EMPTY if the message was handed to the MQTT client, in which case the final
+     *         status is reported to the listener, or the status code of the failure otherwise.
+     *
+     * @throws IllegalStateException if the MqttIotHubConnection is not open
+     */
+    public IotHubStatusCode sendEvent(Message message, IMqttActionListener completionListener) throws IllegalStateException
     {
         synchronized (MQTT_CONNECTION_LOCK)
         {
@@ -206,10 +252,19 @@ public class MqttIotHubConnection
                 throw new IllegalStateException("Cannot send event using a closed MQTT connection");
             }
 
+            // Codes_SRS_MQTTIOTHUBCONNECTION_28_008: [If the MQTT connection was lost and is being reconnected,
+            // the function shall throw an IllegalStateException, so the message waits for the connection to be back.]
+            if (this.mqttConnection.getReconnector().getState() == MqttReconnector.State.RECONNECTING)
+            {
+                throw new IllegalStateException("Cannot send event while the MQTT connection is reconnecting");
+            }
+
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_008: [The function shall send an event message
             // to the IoT Hub given in the configuration.]
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_011: [If the message was successfully received by the service,
             // the function shall return status code OK_EMPTY.]
+            // Codes_SRS_MQTTIOTHUBCONNECTION_28_007: [The function shall pass the completion listener to the messaging client,
+            // which notifies it only when the IoT Hub acknowledges the message or when the send fails.]
             IotHubStatusCode result = IotHubStatusCode.OK_EMPTY;
 
             try
@@ -218,16 +273,16 @@ public class MqttIotHubConnection
                 if (message.getMessageType() == MessageType.DeviceMethods)
                 {
                     this.deviceMethod.start();
-                    this.deviceMethod.send((DeviceMethodMessage) message);
+                    this.deviceMethod.send((DeviceMethodMessage) message, completionListener);
                 }
                 else if (message.getMessageType() == MessageType.DeviceTwin)
                 {
                     this.deviceTwin.start();
-                    this.deviceTwin.send((DeviceTwinMessage) message);
+                    this.deviceTwin.send((DeviceTwinMessage) message, completionListener);
                 }
                 else
                 {
-                    this.deviceMessaging.send(message);
+                    this.deviceMessaging.send(message, completionListener);
                 }
             }
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_012: [If the message was not successfully
@@ -280,4 +335,56 @@ public class MqttIotHubConnection
         return message;
     }
 
+    /**
+     * Registers the listener to be notified every time a message arrives on the connection,
+     * so the messages can be received as soon as they arrive.
+     *
+     * @param inboundListener the listener to notify. Can be {@code null} to stop notifying.
+     */
+    public void setInboundListener(MqttInboundListener inboundListener)
+    {
+        // Codes_SRS_MQTTIOTHUBCONNECTION_28_004: [The function shall save the listener, and register it on the router of the open connection, if any.]
+        this.inboundListener = inboundListener;
+        MqttConnection connection = this.mqttConnection;
+        if (connection != null)
+        {
+            connection.getInboundRouter().setListener(inboundListener);
+        }
+    }
+
+    /**
+     * Registers the callback to be notified when the connection is lost and when it is established again.
+     *
+     * @param stateCallback the callback to notify. Can be {@code null} to stop notifying.
+     * @param stateCallbackContext the context to pass to the callback.
+     */
+    public void setConnectionStateCallback(IotHubConnectionStateCallback stateCallback, Object stateCallbackContext)
+    {
+        // Codes_SRS_MQTTIOTHUBCONNECTION_28_011: [The function shall save the callback and its context, and register them
+        // on the reconnector of the open connection, if any.]
+        this.stateCallbackContext = stateCallbackContext;
+        this.stateCallback = stateCallback;
+        MqttConnection connection = this.mqttConnection;
+        if (connection != null)
+        {
+            connection.getReconnector().setStateCallback(stateCallback, stateCallbackContext);
+        }
+    }
+
+    /**
+     * Getter for the number of messages arrived on the connection and not yet received.
+     *
+     * @return the number of messages waiting to be received, or 0 if the connection is closed.
+     */
+    public int getInboundMessagesCount()
+    {
+        // Codes_SRS_MQTTIOTHUBCONNECTION_28_005: [The function shall return the number of messages waiting in the router of the open connection, or 0 if the connection is closed.]
+        MqttConnection connection = this.mqttConnection;
+        if (connection == null)
+        {
+            return 0;
+        }
+        return connection.getInboundRouter().size();
+    }
+
 }
@@ -3,11 +3,12 @@
 
 package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
-import com.microsoft.azure.sdk.iot.device.IotHubSSLContext;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageProperty;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 
 import java.io.IOException;
+import java.security.InvalidParameterException;
 import java.util.Map;
 
 public class MqttMessaging extends Mqtt
@@ -26,9 +27,7 @@ public class MqttMessaging extends Mqtt
         /*
         **Codes_SRS_MqttMessaging_25_004: [**parseTopic concrete method shall be implemeted by MqttMessaging concrete class.**]**
          */
-        String topic = null;
-
-        if (allReceivedMessages == null)
+        if (inboundRouter == null)
         {
             /*
             **Codes_SRS_MqttMessaging_25_008: [**If receiveMessage queue is null then parseTopic shall throw IOException.**]**
@@ -36,37 +35,39 @@ public class MqttMessaging extends Mqtt
             throw new IOException("Queue cannot be null");
         }
 
-        if(!allReceivedMessages.isEmpty())
+        /*
+        **Codes_SRS_MqttMessaging_25_005: [**parseTopic shall look for the subscribe topic prefix from received message queue.**]**
+         */
+        Map.Entry<String, byte[]> head = inboundRouter.peek(MqttInboundRouter.Category.DEVICE_MESSAGING);
+        while (head != null)
         {
+            String topicFound = head.getKey();
+            if (topicFound.length() > parseTopic.length() && topicFound.startsWith(parseTopic))
+            {
+                return topicFound;
+            }
 
-           for ( Map.Entry<String, byte[]> data : allReceivedMessages.entrySet())
-           {
-               String topicFound = data.getKey();
-
-               /*
-               **Codes_SRS_MqttMessaging_25_005: [**parseTopic shall look for the subscribe topic prefix from received message queue.**]**
-                */
-               /*
-               **Codes_SRS_MqttMessaging_25_006: [**If none of the topics from the received queue match the subscribe topic prefix then this method shall return null string .**]**
-                */
-               /*
-               **Codes_SRS_MqttMessaging_25_007: [**If received messages queue is empty then parseTopic shall return null string.**]**
-                */
-               if (topicFound != null && topicFound.length() > parseTopic.length() && topicFound.startsWith(parseTopic))
-               {
-                   topic = topicFound;
-                   break;
-               }
-           }
+            /*
+            **Codes_SRS_MqttMessaging_28_002: [**parseTopic shall discard the messages at the head of the messaging queue that do not match the subscribe topic prefix, as no other client can consume them.**]**
+             */
+            inboundRouter.poll(MqttInboundRouter.Category.DEVICE_MESSAGING);
+            head = inboundRouter.peek(MqttInboundRouter.Category.DEVICE_MESSAGING);
         }
-        return topic;
+
+        /*
+        **Codes_SRS_MqttMessaging_25_006: [**If none of the topics from the received queue match the subscribe topic prefix then this method shall return null string .**]**
+         */
+        /*
+        **Codes_SRS_MqttMessaging_25_007: [**If received messages queue is empty then parseTopic shall return null string.**]**
+         */
+        return null;
     }
 
     @Override
     byte[] parsePayload(String topic) throws IOException
     {
         /*
-            This method is called only when you are certain that there is a message in the queue meant for device messaging that needs to be retrieved and then deleted.
+            This method is called only when you are certain that the message at the head of the device messaging queue needs to be retrieved and then deleted.
          */
         /*
         **Codes_SRS_MqttMessaging_25_009: [**parsePayload concrete method shall be implemeted by MqttMessaging concrete class.**]**
@@ -79,7 +80,7 @@ public class MqttMessaging extends Mqtt
              */
             return null;
         }
-        if (allReceivedMessages == null)
+        if (inboundRouter == null)
         {
             /*
             **Codes_SRS_MqttMessaging_25_013: [**If receiveMessage queue is null then this method shall throw IOException.**]**
@@ -87,7 +88,12 @@ public class MqttMessaging extends Mqtt
             throw new IOException("Invalid State - topic is not null and could not be found in queue");
         }
 
-        if (!allReceivedMessages.containsKey(topic))
+        /*
+        **Codes_SRS_MqttMessaging_25_010: [**This parsePayload method look for payload for the corresponding topic from the received messagesqueue.**]**
+         */
+        MqttInboundRouter.Category category = MqttInboundRouter.classify(topic);
+        Map.Entry<String, byte[]> head = inboundRouter.peek(category);
+        if (head == null || !head.getKey().equals(topic))
         {
             /*
             **Codes_SRS_MqttMessaging_25_012: [**If the topic is non-null and received messagesqueue could not locate the payload then this method shall throw IOException**]**
@@ -96,29 +102,32 @@ public class MqttMessaging extends Mqtt
         }
 
         /*
-        **Codes_SRS_MqttMessaging_25_010: [**This parsePayload method look for payload for the corresponding topic from the received messagesqueue.**]**
+        **Codes_SRS_MqttMessaging_25_014: [**If the topic is found in the message queue then parsePayload shall delete it from the queue.**]**
          */
-        if(!allReceivedMessages.isEmpty())
-        {
-            /*
-            **Codes_SRS_MqttMessaging_25_014: [**If the topic is found in the message queue then parsePayload shall delete it from the queue.**]**
-             */
-            return allReceivedMessages.remove(topic);
-        }
-
-        return null;
-
+        inboundRouter.poll(category);
+        return head.getValue();
     }
 
-    public MqttMessaging(String serverURI, String deviceId, String userName, String password, IotHubSSLContext context) throws IOException
+    public MqttMessaging(MqttConnection mqttConnection, String deviceId) throws IOException
     {
+        /*
+        **Codes_SRS_MqttMessaging_25_002: [**The constructor shall use the configuration to instantiate super class and passing the parameters.**]**
+         */
+        super(mqttConnection);
+
         /*
         **Codes_SRS_MqttMessaging_25_001: [**The constructor shall throw InvalidParameter Exception if any of the parameters are null or empty .**]**
          */
+        if (deviceId == null || deviceId.length() == 0)
+        {
+            throw new InvalidParameterException("Device id cannot be null or empty");
+        }
+
         /*
-        **Codes_SRS_MqttMessaging_25_002: [**The constructor shall use the configuration to instantiate super class and passing the parameters.**]**
+        **Codes_SRS_MqttMessaging_28_001: [**The constructor shall register itself as the callback of the mqtt connection, which it owns from start to stop.**]**
          */
-        super(serverURI, deviceId, userName, password, context);
+        mqttConnection.setMqttCallback(this);
+
         /*
         **Codes_SRS_MqttMessaging_25_003: [**The constructor construct publishTopic and subscribeTopic from deviceId.**]**
          */
@@ -142,27 +151,25 @@ public class MqttMessaging extends Mqtt
 
     public void stop() throws IOException
     {
-       try
-       {
-           /*
-           **Codes_SRS_MqttMessaging_25_022: [**stop method shall be call disconnect to tear down a connection to IOT Hub with the given configuration.**]**
-            */
-
-           this.disconnect();
-       }
-       finally
-       {
-            /*
-            As MQTT connection is controlled by this class, it is important to restart
-            base class on exit from this class.
-            */
-           this.restartBaseMqtt();
-       }
-
-
+        /*
+        **Codes_SRS_MqttMessaging_25_022: [**stop method shall be call disconnect to tear down a connection to IOT Hub with the given configuration.**]**
+         */
+        this.disconnect();
     }
 
     public void send(Message message) throws IOException
+    {
+        this.send(message, null);
+    }
+
+    /**
+     * Publishes a message, and notifies the listener when the IoT Hub acknowledges it.
+     *
+     * @param message the message to send.
+     * @param completionListener the listener to notify when the publish is acknowledged or fails. Can be {@code null}.
+     * @throws IOException if the message could not be handed to the mqtt client.
+     */
+    public void send(Message message, IMqttActionListener completionListener) throws IOException
     {
         if (message == null || message.getBytes() == null)
         {
@@ -212,7 +219,10 @@ public class MqttMessaging extends Mqtt
         /*
         **Codes_SRS_MqttMessaging_25_024: [**send method shall publish a message to the IOT Hub on the publish topic by calling method publish().**]**
          */
-        this.publish(messagePublishTopic, message.getBytes());
+        /*
+        **Codes_SRS_MqttMessaging_28_003: [**send method shall notify the completion listener, if any, only when the IoT Hub acknowledges the publish or when it fails.**]**
+         */
+        this.publish(messagePublishTopic, message.getBytes(), completionListener);
 
     }
 
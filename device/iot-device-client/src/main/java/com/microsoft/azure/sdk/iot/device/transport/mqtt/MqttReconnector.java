@@ -0,0 +1,266 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import com.microsoft.azure.sdk.iot.device.IotHubBackoffPolicy;
+import com.microsoft.azure.sdk.iot.device.IotHubConnectionState;
+import com.microsoft.azure.sdk.iot.device.IotHubConnectionStateCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubDecorrelatedJitterBackoff;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.security.InvalidParameterException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reconnects the MQTT connection of a device after it is lost.
+ *
+ * The reconnection runs on a thread of its own, so the mqtt client thread that reports the loss
+ * returns right away, and the lock of the connection is only held to read the client, never
+ * while connecting or waiting between attempts. The delay before each attempt is given by an
+ * {@link IotHubBackoffPolicy}. The registered {@link IotHubConnectionStateCallback}, if any,
+ * is notified on the same thread when the connection is lost and when it is established again.
+ */
+public final class MqttReconnector
+{
+    /** The states of the reconnection of an mqtt connection. */
+    public enum State
+    {
+        /** The connection is up, or was never lost. */
+        CONNECTED,
+        /** The connection was lost, and is being established again. */
+        RECONNECTING,
+        /** The connection was closed, and shall not be established again. */
+        STOPPED
+    }
+
+    private final MqttConnection mqttConnection;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CONNECTED);
+
+    private volatile IotHubBackoffPolicy backoffPolicy = new IotHubDecorrelatedJitterBackoff();
+    private volatile IotHubConnectionStateCallback stateCallback;
+    private volatile Object stateCallbackContext;
+
+    /** Thread that reconnects, created on the first connection loss. */
+    private ScheduledExecutorService executor;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructor.
+     *
+     * @param mqttConnection the mqtt connection to reconnect.
+     * @throws InvalidParameterException if the mqtt connection is null.
+     */
+    public MqttReconnector(MqttConnection mqttConnection)
+    {
+        // Codes_SRS_MQTTRECONNECTOR_28_001: [If the mqtt connection is null, the constructor shall throw InvalidParameterException.]
+        if (mqttConnection == null)
+        {
+            throw new InvalidParameterException("Mqtt connection cannot be null");
+        }
+
+        // Codes_SRS_MQTTRECONNECTOR_28_002: [The constructor shall save the connection, in the CONNECTED state, with a decorrelated jitter backoff policy.]
+        this.mqttConnection = mqttConnection;
+    }
+
+    /**
+     * Setter for the policy that gives the delay before each reconnection attempt.
+     *
+     * @param backoffPolicy the backoff policy.
+     * @throws IllegalArgumentException if the backoff policy is null.
+     */
+    public void setBackoffPolicy(IotHubBackoffPolicy backoffPolicy)
+    {
+        // Codes_SRS_MQTTRECONNECTOR_28_003: [If the backoff policy is null, the function shall throw IllegalArgumentException.]
+        if (backoffPolicy == null)
+        {
+            throw new IllegalArgumentException("backoffPolicy cannot be null");
+        }
+
+        // Codes_SRS_MQTTRECONNECTOR_28_004: [The function shall save the backoff policy for the next attempts.]
+        this.backoffPolicy = backoffPolicy;
+    }
+
+    /**
+     * Registers the callback to notify when the connection is lost and when it is established again.
+     *
+     * @param stateCallback the callback to notify. Can be {@code null} to stop notifying.
+     * @param stateCallbackContext the context to pass to the callback.
+     */
+    public void setStateCallback(IotHubConnectionStateCallback stateCallback, Object stateCallbackContext)
+    {
+        // Codes_SRS_MQTTRECONNECTOR_28_005: [The function shall save the callback and its context.]
+        this.stateCallbackContext = stateCallbackContext;
+        this.stateCallback = stateCallback;
+    }
+
+    /**
+     * Getter for the state of the reconnection.
+     *
+     * @return the state of the reconnection.
+     */
+    public State getState()
+    {
+        // Codes_SRS_MQTTRECONNECTOR_28_006: [The function shall return the current state.]
+        return this.state.get();
+    }
+
+    /**
+     * Starts reconnecting in the background, unless the connection is already being reconnected
+     * or was stopped. Meant to be called from the mqtt client thread, so it never blocks.
+     */
+    public void connectionLost()
+    {
+        // Codes_SRS_MQTTRECONNECTOR_28_007: [If the state is not CONNECTED, the function shall do nothing.]
+        if (!this.state.compareAndSet(State.CONNECTED, State.RECONNECTING))
+        {
+            return;
+        }
+
+        // Codes_SRS_MQTTRECONNECTOR_28_008: [The function shall move to the RECONNECTING state, and on the reconnection thread,
+        // notify the callback of CONNECTION_DROP and schedule the first attempt after the delay given by the backoff policy.]
+        this.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                notifyStateCallback(IotHubConnectionState.CONNECTION_DROP);
+                scheduleAttempt(1, 0);
+            }
+        }, 0);
+    }
+
+    /**
+     * Stops reconnecting, and prevents any future reconnection. Meant to be called when the
+     * connection is closed.
+     */
+    public void stop()
+    {
+        // Codes_SRS_MQTTRECONNECTOR_28_009: [The function shall move to the STOPPED state and stop the reconnection thread, if any.]
+        this.state.set(State.STOPPED);
+        synchronized (this)
+        {
+            if (this.executor != null)
+            {
+                this.executor.shutdownNow();
+                this.executor = null;
+            }
+        }
+    }
+
+    private void scheduleAttempt(final int attempt, long previousDelayMillis)
+    {
+        final long delayMillis = Math.max(0, this.backoffPolicy.getDelayMillis(attempt, previousDelayMillis));
+        logger.LogInfo("Reconnection attempt %s in %s milliseconds, method name is %s ", attempt, delayMillis, CustomLogger.METHOD_NAME);
+        this.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                attemptReconnection(attempt, delayMillis);
+            }
+        }, delayMillis);
+    }
+
+    private void attemptReconnection(int attempt, long delayMillis)
+    {
+        if (this.state.get() != State.RECONNECTING)
+        {
+            return;
+        }
+
+        MqttAsyncClient client;
+        synchronized (this.mqttConnection.getMqttLock())
+        {
+            client = this.mqttConnection.getMqttAsyncClient();
+        }
+
+        // Codes_SRS_MQTTRECONNECTOR_28_010: [If the mqtt client was disconnected on purpose, the reconnection shall stop.]
+        if (client == null)
+        {
+            this.state.compareAndSet(State.RECONNECTING, State.STOPPED);
+            return;
+        }
+
+        boolean connected;
+        try
+        {
+            // Codes_SRS_MQTTRECONNECTOR_28_011: [Each attempt shall connect the mqtt client with the options of the connection,
+            // without holding the lock of the connection.]
+            if (!client.isConnected())
+            {
+                IMqttToken connectToken = client.connect(this.mqttConnection.getConnectionOptions());
+                connectToken.waitForCompletion();
+            }
+            connected = client.isConnected();
+        }
+        catch (MqttException e)
+        {
+            logger.LogError("Reconnection attempt %s failed: %s", attempt, e.getMessage());
+            connected = false;
+        }
+
+        if (connected)
+        {
+            // Codes_SRS_MQTTRECONNECTOR_28_012: [If the attempt succeeds, the reconnection shall move back to the CONNECTED state
+            // and notify the callback of CONNECTION_SUCCESS.]
+            if (this.state.compareAndSet(State.RECONNECTING, State.CONNECTED))
+            {
+                this.notifyStateCallback(IotHubConnectionState.CONNECTION_SUCCESS);
+            }
+        }
+        else
+        {
+            // Codes_SRS_MQTTRECONNECTOR_28_013: [If the attempt fails, the reconnection shall schedule the next attempt after the
+            // delay given by the backoff policy.]
+            this.scheduleAttempt(attempt + 1, delayMillis);
+        }
+    }
+
+    private void notifyStateCallback(IotHubConnectionState connectionState)
+    {
+        IotHubConnectionStateCallback callback = this.stateCallback;
+        if (callback != null)
+        {
+            try
+            {
+                callback.execute(connectionState, this.stateCallbackContext);
+            }
+            catch (Exception e)
+            {
+                // Codes_SRS_MQTTRECONNECTOR_28_014: [If the callback throws, the reconnection shall log the error and go on.]
+                logger.LogError(e);
+            }
+        }
+    }
+
+    private synchronized void execute(Runnable task, long delayMillis)
+    {
+        if (this.state.get() == State.STOPPED)
+        {
+            return;
+        }
+
+        if (this.executor == null)
+        {
+            this.executor = Executors.newSingleThreadScheduledExecutor();
+        }
+
+        try
+        {
+            this.executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the reconnection was stopped meanwhile.
+        }
+    }
+}
@@ -4,14 +4,29 @@
 package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
 import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendSignal;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+
 import java.io.IOException;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>
@@ -24,6 +39,20 @@ import java.util.concurrent.LinkedBlockingDeque;
  * The transport can also poll an IoT Hub for messages and invoke a
  * user-defined message callback if a message and callback is found.
  * </p>
+ * <p>
+ * While it is open, the transport does not wait for the next poll to handle the
+ * messages arriving on the connection: every arrival schedules the handling of
+ * all the pending messages on a dedicated inbound thread.
+ * </p>
+ * <p>
+ * The callback of a sent message is invoked only once the IoT Hub acknowledges it.
+ * Up to the configured number of messages can wait for their acknowledgement at
+ * the same time.
+ * </p>
+ * <p>
+ * When the connection is lost, it is established again in the background. The messages
+ * added meanwhile wait in the transport queue, and are all sent once the connection is back.
+ * </p>
  */
 
 public final class MqttTransport implements IotHubTransport
@@ -38,13 +67,31 @@ public final class MqttTransport implements IotHubTransport
     private MqttIotHubConnection mqttIotHubConnection;
 
     /** Messages waiting to be sent. */
-    private final Queue<IotHubOutboundPacket> waitingList;
+    private final IotHubOutboundQueue waitingList;
 
     /** Messages whose callbacks that are waiting to be invoked. */
-    private final Queue<IotHubCallbackPacket> callbackList;
+    private final Deque<IotHubCallbackPacket> callbackList;
+
+    /** Messages sent and waiting for the acknowledgement of the IoT Hub. */
+    private final Set<InFlightPacketListener> inFlightList;
+
+    /** Signal to be notified when there is new outbound work. */
+    private volatile IotHubSendSignal sendSignal;
+    private volatile IotHubCallbackDispatcher callbackDispatcher;
 
     private final DeviceClientConfig config;
 
+    /** Thread that handles the arrived messages, and whether a run is already scheduled on it. */
+    private volatile ExecutorService inboundExecutor;
+    private final AtomicBoolean inboundHandlingScheduled = new AtomicBoolean(false);
+
+    /** Whether the connection was lost and is being established again. */
+    private volatile boolean connectionLost;
+    private volatile IotHubConnectionStateCallback stateCallback;
+    private volatile Object stateCallbackContext;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
      * object.
@@ -55,10 +102,11 @@ public final class MqttTransport implements IotHubTransport
     {
         // Codes_SRS_MQTTTRANSPORT_15_001: [The constructor shall initialize an empty transport queue
         // for adding messages to be sent as a batch.]
-        this.waitingList = new LinkedBlockingDeque<>();
+        this.waitingList = new IotHubOutboundQueue();
         // Codes_SRS_MQTTTRANSPORT_15_002: [The constructor shall initialize an empty queue
         // for completed messages whose callbacks are waiting to be invoked.]
         this.callbackList = new LinkedBlockingDeque<>();
+        this.inFlightList = Collections.newSetFromMap(new ConcurrentHashMap<InFlightPacketListener, Boolean>());
         this.config = config;
         this.state = State.CLOSED;
     }
@@ -77,12 +125,61 @@ public final class MqttTransport implements IotHubTransport
             return;
         }
 
+        // Codes_SRS_MQTTTRANSPORT_28_003: [The function shall bound the transport queue with the
+        // capacity and the policy given in the configuration.]
+        this.waitingList.setLimits(this.config.getOutboundQueueMaxMessages(),
+                this.config.getOutboundQueueMaxBytes(), this.config.getOutboundQueuePolicy());
+
+        // Codes_SRS_MQTTTRANSPORT_28_026: [The function shall open the transport queue to new messages.]
+        this.waitingList.open();
+
         // Codes_SRS_MQTTTRANSPORT_15_003: [The function shall establish an MQTT connection
         // with the IoT Hub given in the configuration.]
         this.mqttIotHubConnection = new MqttIotHubConnection(this.config);
-        this.mqttIotHubConnection.open();
+
+        // Codes_SRS_MQTTTRANSPORT_28_009: [The function shall register an inbound listener on the MQTT connection that
+        // schedules the handling of all the arrived messages on the inbound thread, without blocking the mqtt client.]
+        this.inboundExecutor = Executors.newSingleThreadExecutor();
+        this.mqttIotHubConnection.setInboundListener(new MqttInboundListener()
+        {
+            @Override
+            public void onMessageRouted(MqttInboundRouter.Category category)
+            {
+                scheduleInboundHandling();
+            }
+        });
+
+        // Codes_SRS_MQTTTRANSPORT_28_019: [The function shall register a connection state callback on the MQTT connection
+        // that holds the messages in the transport queue while the connection is lost, sends them all once it is back,
+        // and forwards every transition to the connection state callback, if any.]
+        this.connectionLost = false;
+        this.mqttIotHubConnection.setConnectionStateCallback(new IotHubConnectionStateCallback()
+        {
+            @Override
+            public void execute(IotHubConnectionState connectionState, Object callbackContext)
+            {
+                onConnectionStateChanged(connectionState);
+            }
+        }, null);
+
+        try
+        {
+            this.mqttIotHubConnection.open();
+        }
+        catch (IOException e)
+        {
+            this.inboundExecutor.shutdown();
+            this.inboundExecutor = null;
+            throw e;
+        }
 
         this.state = State.OPEN;
+
+        // Codes_SRS_MQTTTRANSPORT_28_010: [The function shall schedule the handling of the messages arrived before the transport was open, if any.]
+        if (this.mqttIotHubConnection.getInboundMessagesCount() > 0)
+        {
+            this.scheduleInboundHandling();
+        }
     }
 
     /**
@@ -97,6 +194,10 @@ public final class MqttTransport implements IotHubTransport
         {
             return;
         }
+
+        // Codes_SRS_MQTTTRANSPORT_28_027: [The method will close the transport queue to new messages, which releases
+        // the producers blocked waiting for room.]
+        this.waitingList.close();
         
         // Codes_SRS_MQTTTRANSPORT_99_020: [The method will remove all the messages which are in progress or waiting to be sent and add them to the callback list.]
         while (!this.waitingList.isEmpty())
@@ -107,6 +208,13 @@ public final class MqttTransport implements IotHubTransport
             this.callbackList.add(callbackPacket);
            
         }
+
+        // Codes_SRS_MQTTTRANSPORT_28_017: [The method will add the messages still waiting for their acknowledgement
+        // to the callback list with the MESSAGE_CANCELLED_ONCLOSE status code.]
+        for (InFlightPacketListener inFlightPacket : this.inFlightList)
+        {
+            inFlightPacket.complete(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE);
+        }
        
         // Codes_SRS_MQTTTRANSPORT_99_021: [The method will invoke the callback list]
         invokeCallbacks(); 
@@ -115,6 +223,14 @@ public final class MqttTransport implements IotHubTransport
         // with the IoT Hub given in the configuration.]
         this.mqttIotHubConnection.close();
         this.state = State.CLOSED;
+
+        // Codes_SRS_MQTTTRANSPORT_28_011: [The function shall unregister the inbound listener and stop the inbound thread.]
+        this.mqttIotHubConnection.setInboundListener(null);
+        if (this.inboundExecutor != null)
+        {
+            this.inboundExecutor.shutdown();
+            this.inboundExecutor = null;
+        }
     }
 
     /**
@@ -141,12 +257,37 @@ public final class MqttTransport implements IotHubTransport
             {
                 throw new IllegalStateException("Cannot add a message to an MQTT transport that is closed.");
             }
+        }
 
-            //Codes_SRS_MQTTTRANSPORT_15_007: [The function shall add a packet containing the message, callback,
-            // and callback context to the transport queue.]
-            IotHubOutboundPacket packet = new IotHubOutboundPacket(message, callback, callbackContext);
-            this.waitingList.add(packet);
+        //Codes_SRS_MQTTTRANSPORT_15_007: [The function shall add a packet containing the message, callback,
+        // and callback context to the transport queue.]
+        // The queue may block until there is room, so it shall not be called while holding the send lock.
+        IotHubOutboundPacket packet = new IotHubOutboundPacket(message, callback, callbackContext);
+        List<IotHubOutboundPacket> leftOut = new ArrayList<>();
+        this.waitingList.enqueue(packet, leftOut);
+
+        // Codes_SRS_MQTTTRANSPORT_28_004: [For each packet left out of the full transport queue, the function shall
+        // add the MESSAGE_CANCELLED_QUEUE_FULL status code along with the callback and context to the callback list.]
+        for (IotHubOutboundPacket leftOutPacket : leftOut)
+        {
+            if (leftOutPacket == packet && this.waitingList.isClosed())
+            {
+                // Codes_SRS_MQTTTRANSPORT_28_028: [If the transport was closed while the function waited for room in
+                // the queue, the function shall invoke the callback with the MESSAGE_CANCELLED_ONCLOSE status code.]
+                // No one invokes the callback list of a closed transport.
+                if (packet.getCallback() != null)
+                {
+                    packet.getCallback().execute(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, packet.getContext());
+                }
+                continue;
+            }
+
+            this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL,
+                    leftOutPacket.getCallback(), leftOutPacket.getContext()));
         }
+
+        // Codes_SRS_MQTTTRANSPORT_28_001: [If a send signal is registered, the function shall notify it.]
+        this.signalSend();
     }
 
     /**
@@ -197,28 +338,46 @@ public final class MqttTransport implements IotHubTransport
                 return;
             }
 
+            // Codes_SRS_MQTTTRANSPORT_28_020: [While the MQTT connection is lost, the function shall leave the messages
+            // in the transport queue.]
+            if (this.connectionLost)
+            {
+                return;
+            }
+
             // Codes_SRS_MQTTTRANSPORT_15_009: [The function shall attempt to send every message
             // on its waiting list, one at a time.]
-            while (!this.waitingList.isEmpty())
+            IotHubOutboundPacket packet;
+            while ((packet = this.waitingList.peek()) != null)
             {
-                IotHubOutboundPacket packet = this.waitingList.remove();
+                // Codes_SRS_MQTTTRANSPORT_28_014: [For each message being sent, the function shall track the message
+                // as in flight until the IoT Hub acknowledges it.]
+                InFlightPacketListener inFlightPacket = new InFlightPacketListener(packet);
+                this.inFlightList.add(inFlightPacket);
 
                 try
                 {
-                    IotHubStatusCode status = this.mqttIotHubConnection.sendEvent(packet.getMessage());
+                    IotHubStatusCode status = this.mqttIotHubConnection.sendEvent(packet.getMessage(), inFlightPacket);
+                    this.waitingList.poll();
 
                     // Codes_SRS_MQTTTRANSPORT_15_010: [For each message being sent, the function shall add
                     // the IoT Hub status code along with the callback and context to the callback list.]
-                    IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(status, packet.getCallback(), packet.getContext());
-                    this.callbackList.add(callbackPacket);
+                    // Codes_SRS_MQTTTRANSPORT_28_015: [If the message could not be handed to the MQTT connection,
+                    // the function shall add the status code to the callback list right away.]
+                    if (status != IotHubStatusCode.OK_EMPTY)
+                    {
+                        inFlightPacket.complete(status);
+                    }
                 }
                 // Codes_SRS_MQTTTRANSPORT_15_011: [If the IoT Hub could not be reached, the message
                 // shall be buffered to be sent again next time.]
+                // Codes_SRS_MQTTTRANSPORT_28_021: [If the IoT Hub could not be reached, the function shall stop sending,
+                // and keep the message and the ones after it in the transport queue, in order.]
                 catch (IllegalStateException e)
                 {
-                    this.waitingList.add(packet);
+                    this.inFlightList.remove(inFlightPacket);
+                    break;
                 }
-
             }
         }
     }
@@ -230,6 +389,9 @@ public final class MqttTransport implements IotHubTransport
      */
     public void invokeCallbacks() throws IllegalStateException
     {
+        // The callbacks are taken under the send lock, but handed out after releasing it, so a slow
+        // callback or a full dispatcher does not hold the sending of the messages.
+        List<IotHubCallbackPacket> packets = new ArrayList<>();
         synchronized (sendMessagesLock)
         {
             // Codes_SRS_MQTTTRANSPORT_15_014: [If the transport is closed,
@@ -239,12 +401,32 @@ public final class MqttTransport implements IotHubTransport
                 throw new IllegalStateException("MQTT transport is closed.");
             }
 
-            // Codes_SRS_MQTTTRANSPORT_15_013: [The function shall invoke all callbacks on the callback queue.]
-            while (!this.callbackList.isEmpty())
+            // Codes_SRS_MQTTTRANSPORT_28_029: [The function shall take the callbacks out of the callback queue
+            // while holding the send lock, and invoke them after releasing it.]
+            IotHubCallbackPacket packet;
+            while ((packet = this.callbackList.poll()) != null)
+            {
+                packets.add(packet);
+            }
+        }
+
+        // Codes_SRS_MQTTTRANSPORT_15_013: [The function shall invoke all callbacks on the callback queue.]
+        int next = 0;
+        try
+        {
+            while (next < packets.size())
             {
                 // Codes_SRS_MQTTTRANSPORT_15_015: [If an exception is thrown during the callback,
                 // the function shall drop the callback from the queue.]
-                IotHubCallbackPacket packet = this.callbackList.remove();
+                IotHubCallbackPacket packet = packets.get(next++);
+
+                // Codes_SRS_MQTTTRANSPORT_28_008: [If a callback dispatcher is registered, the function shall hand the callbacks to it instead of invoking them.]
+                IotHubCallbackDispatcher dispatcher = this.callbackDispatcher;
+                if (dispatcher != null)
+                {
+                    dispatcher.dispatch(packet);
+                    continue;
+                }
 
                 IotHubStatusCode status = packet.getStatus();
                 IotHubEventCallback callback = packet.getCallback();
@@ -253,13 +435,23 @@ public final class MqttTransport implements IotHubTransport
                 callback.execute(status, context);
             }
         }
+        finally
+        {
+            // the callbacks after the failed one stay at the head of the queue, in order.
+            for (int i = packets.size() - 1; i >= next; i--)
+            {
+                this.callbackList.addFirst(packets.get(i));
+            }
+        }
     }
 
     /**
      * <p>
      * Invokes the message callback every time a message arrives from the server.
      * responds to the IoT Hub on how the processed message should be
-     * handled by the IoT Hub.
+     * handled by the IoT Hub. The arrived messages are consumed until there
+     * are none left, or until the maximum number of messages per receive is
+     * reached.
      * </p>
      * If no message callback is set, the function will do nothing.
      *
@@ -290,13 +482,20 @@ public final class MqttTransport implements IotHubTransport
                 return;
             }
 
-            // Codes_SRS_MQTTTRANSPORT_15_016: [The function shall attempt to consume a message from the IoT Hub.]
-            Message message = this.mqttIotHubConnection.receiveMessage();
-
-            // Codes_SRS_MQTTTRANSPORT_15_017: [If a message is found and a message callback is registered,
-            // the function shall invoke the callback on the message.]
-            if (message != null)
+            // Codes_SRS_MQTTTRANSPORT_28_025: [The function shall consume the arrived messages until there are none left,
+            // or until it handled the maximum number of messages per receive given in the configuration.]
+            int maxMessages = this.config.getMaxMessagesPerReceive();
+            for (int handled = 0; handled < maxMessages; handled++)
             {
+                // Codes_SRS_MQTTTRANSPORT_15_016: [The function shall attempt to consume a message from the IoT Hub.]
+                Message message = this.mqttIotHubConnection.receiveMessage();
+                if (message == null)
+                {
+                    return;
+                }
+
+                // Codes_SRS_MQTTTRANSPORT_15_017: [If a message is found and a message callback is registered,
+                // the function shall invoke the callback on the message.]
                 if (message.getMessageType() == MessageType.DeviceMethods)
                 {
                     if (deviceMethodMessageCallback != null)
@@ -335,7 +534,8 @@ public final class MqttTransport implements IotHubTransport
         {
             // Codes_SRS_MQTTTRANSPORT_15_019: [The function shall return true if the waiting list
             // and callback list are all empty, and false otherwise.]
-            if (this.waitingList.isEmpty() && this.callbackList.isEmpty())
+            // Codes_SRS_MQTTTRANSPORT_28_018: [The function shall return false while messages are waiting for their acknowledgement.]
+            if (this.waitingList.isEmpty() && this.callbackList.isEmpty() && this.inFlightList.isEmpty())
             {
                 return true;
             }
@@ -344,6 +544,28 @@ public final class MqttTransport implements IotHubTransport
         return false;
     }
 
+    /**
+     * Getter for the number of messages waiting to be sent.
+     *
+     * @return the number of messages in the transport queue.
+     */
+    public int getOutboundQueueSize()
+    {
+        // Codes_SRS_MQTTTRANSPORT_28_005: [The function shall return the number of messages in the transport queue.]
+        return this.waitingList.size();
+    }
+
+    /**
+     * Getter for the number of message body bytes waiting to be sent.
+     *
+     * @return the number of message body bytes in the transport queue.
+     */
+    public long getOutboundQueueSizeInBytes()
+    {
+        // Codes_SRS_MQTTTRANSPORT_28_006: [The function shall return the number of message body bytes in the transport queue.]
+        return this.waitingList.sizeInBytes();
+    }
+
     /**
      * Registers a callback to be executed whenever the mqtt connection is lost or established.
      * 
@@ -351,10 +573,164 @@ public final class MqttTransport implements IotHubTransport
      * @param callbackContext a context to be passed to the callback. Can be
      * {@code null} if no callback is provided.
      */
-    public void registerConnectionStateCallback(IotHubConnectionStateCallback callback, Object callbackContext) {
-        //TODO: Add in registration logic if needed.  The transport would also need to be updated to
-        //      receive notifications from the MQTT Connection class when the connection is lost or
-        //      established.
-        throw new UnsupportedOperationException();
+    public void registerConnectionStateCallback(IotHubConnectionStateCallback callback, Object callbackContext)
+    {
+        // Codes_SRS_MQTTTRANSPORT_28_022: [The function shall save the callback and its context.]
+        this.stateCallbackContext = callbackContext;
+        this.stateCallback = callback;
+    }
+
+    /**
+     * Registers the signal to be notified whenever a new message is added to the transport queue.
+     *
+     * @param sendSignal the signal to be notified. Can be {@code null} to stop notifying.
+     */
+    public void registerSendSignal(IotHubSendSignal sendSignal)
+    {
+        // Codes_SRS_MQTTTRANSPORT_28_002: [The function shall save the send signal.]
+        this.sendSignal = sendSignal;
+    }
+
+    /**
+     * Registers the dispatcher to hand the callbacks of the completed requests to.
+     *
+     * @param callbackDispatcher the dispatcher to invoke the callbacks. Can be {@code null} to invoke the callbacks directly.
+     */
+    public void registerCallbackDispatcher(IotHubCallbackDispatcher callbackDispatcher)
+    {
+        // Codes_SRS_MQTTTRANSPORT_28_007: [The function shall save the callback dispatcher.]
+        this.callbackDispatcher = callbackDispatcher;
+    }
+
+    /**
+     * Schedules the handling of all the arrived messages on the inbound thread, unless
+     * it is already scheduled and has not started yet.
+     */
+    private void scheduleInboundHandling()
+    {
+        ExecutorService executor = this.inboundExecutor;
+        if (executor == null || !this.inboundHandlingScheduled.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        try
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    inboundHandlingScheduled.set(false);
+                    handleArrivedMessages();
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the transport is closing, the messages that arrived meanwhile are dropped with the connection.
+            this.inboundHandlingScheduled.set(false);
+        }
+    }
+
+    /**
+     * Handles the arrived messages, one at a time, for as long as there are messages left
+     * and each call consumes one of them.
+     */
+    private void handleArrivedMessages()
+    {
+        try
+        {
+            // Codes_SRS_MQTTTRANSPORT_28_012: [The inbound thread shall handle the arrived messages until there are none
+            // left, or until a message cannot be consumed because its callback is not registered yet.]
+            int pending = this.mqttIotHubConnection.getInboundMessagesCount();
+            while (pending > 0 && this.state == State.OPEN)
+            {
+                this.handleMessage();
+                int stillPending = this.mqttIotHubConnection.getInboundMessagesCount();
+                if (stillPending >= pending)
+                {
+                    break;
+                }
+                pending = stillPending;
+            }
+        }
+        catch (Exception e)
+        {
+            // Codes_SRS_MQTTTRANSPORT_28_013: [If handling an arrived message fails, the inbound thread shall log the error
+            // and leave the remaining messages to the next arrival or poll.]
+            logger.LogError(e);
+        }
+    }
+
+    /**
+     * Holds the messages while the connection is lost, and sends them once it is back. It is
+     * called from the reconnection thread, so it never takes the transport locks.
+     */
+    private void onConnectionStateChanged(IotHubConnectionState connectionState)
+    {
+        // Codes_SRS_MQTTTRANSPORT_28_023: [When the connection is lost, the transport shall hold the messages in the transport queue.
+        // When it is back, the transport shall notify the send signal, so the messages held are sent.]
+        this.connectionLost = (connectionState == IotHubConnectionState.CONNECTION_DROP);
+        if (!this.connectionLost)
+        {
+            this.signalSend();
+        }
+
+        // Codes_SRS_MQTTTRANSPORT_28_024: [The transport shall forward every transition to the connection state callback, if any.]
+        IotHubConnectionStateCallback callback = this.stateCallback;
+        if (callback != null)
+        {
+            callback.execute(connectionState, this.stateCallbackContext);
+        }
+    }
+
+    private void signalSend()
+    {
+        IotHubSendSignal signal = this.sendSignal;
+        if (signal != null)
+        {
+            signal.signal();
+        }
+    }
+
+    /**
+     * Completes a sent message when the IoT Hub acknowledges it, the publish fails, or the
+     * transport is closed, whichever happens first. It may be called from the mqtt client
+     * thread, so it never takes the transport locks.
+     */
+    private final class InFlightPacketListener implements IMqttActionListener
+    {
+        private final IotHubOutboundPacket packet;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        private InFlightPacketListener(IotHubOutboundPacket packet)
+        {
+            this.packet = packet;
+        }
+
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken)
+        {
+            // Codes_SRS_MQTTTRANSPORT_28_016: [When the IoT Hub acknowledges the message, the transport shall add the
+            // OK_EMPTY status code to the callback list and notify the send signal, or ERROR if the publish failed.]
+            this.complete(IotHubStatusCode.OK_EMPTY);
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception)
+        {
+            this.complete(IotHubStatusCode.ERROR);
+        }
+
+        private void complete(IotHubStatusCode status)
+        {
+            if (this.completed.compareAndSet(false, true))
+            {
+                inFlightList.remove(this);
+                callbackList.add(new IotHubCallbackPacket(status, this.packet.getCallback(), this.packet.getContext()));
+                signalSend();
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -7,10 +7,15 @@ import com.microsoft.azure.sdk.iot.device.CustomLogger;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
+import org.apache.log4j.AppenderSkeleton;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
 
@@ -235,4 +240,143 @@ public class CustomLoggerTest
             }
         };
     }
+
+    // Tests_SRS_CUSTOMLOGGER_28_001: [The functions shall replace each METHOD_NAME argument by the name of the method
+    // that called them, only if the level is enabled.]
+    @Test
+    public void logInfoReplacesMethodNamePlaceholderWithCallingMethod(@Mocked final Logger mockLogger)
+    {
+        // arrange
+        final List<Object> messages = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                Logger.getLogger((Class)any);
+                result = mockLogger;
+                mockLogger.isEnabledFor(Level.INFO);
+                result = true;
+            }
+        };
+        Object[] params = new Object[] {1, CustomLogger.METHOD_NAME};
+
+        // act
+        new CustomLogger(this.getClass()).LogInfo("Message %s, method name is %s", 42, CustomLogger.METHOD_NAME);
+        new CustomLogger(this.getClass()).LogInfo("Message %s, method name is %s", params);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockLogger.info(withCapture(messages));
+                times = 2;
+            }
+        };
+        assertThat(messages.get(0), is((Object) "Message 42, method name is logInfoReplacesMethodNamePlaceholderWithCallingMethod"));
+        assertThat(messages.get(1), is((Object) "Message 1, method name is logInfoReplacesMethodNamePlaceholderWithCallingMethod"));
+        assertThat(params[1], is(CustomLogger.METHOD_NAME));
+    }
+
+    // Tests_SRS_CUSTOMLOGGER_28_001: [The functions shall replace each METHOD_NAME argument by the name of the method
+    // that called them, only if the level is enabled.]
+    @Test
+    public void disabledLevelDoesNotFormatArguments(@Mocked final Logger mockLogger)
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                Logger.getLogger((Class)any);
+                result = mockLogger;
+                mockLogger.isEnabledFor((Level) any);
+                result = false;
+            }
+        };
+        Object unformattable = new Object()
+        {
+            @Override
+            public String toString()
+            {
+                throw new IllegalStateException("formatted while the level is disabled");
+            }
+        };
+        CustomLogger logger = new CustomLogger(this.getClass());
+
+        // act
+        logger.LogInfo("%s, method name is %s", unformattable, CustomLogger.METHOD_NAME);
+        logger.LogDebug("%s, method name is %s", unformattable, CustomLogger.METHOD_NAME);
+        logger.LogTrace("%s %s, method name is %s", unformattable, unformattable, CustomLogger.METHOD_NAME);
+
+        // assert
+        assertThat(logger.isInfoEnabled(), is(false));
+        assertThat(logger.isDebugEnabled(), is(false));
+        assertThat(logger.isTraceEnabled(), is(false));
+        new Verifications()
+        {
+            {
+                mockLogger.info(any);
+                times = 0;
+                mockLogger.debug(any);
+                times = 0;
+                mockLogger.trace(any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_CUSTOMLOGGER_28_002: [If the first argument of a LogDebug function is a Throwable, the function shall
+    // record it with the message, as LogDebug(String, Throwable, Object...) does.]
+    @Test
+    public void logDebugRecordsThrowableArgumentWithStackTrace()
+    {
+        // arrange
+        final List<LoggingEvent> events = new ArrayList<>();
+        AppenderSkeleton appender = new AppenderSkeleton()
+        {
+            @Override
+            protected void append(LoggingEvent event)
+            {
+                events.add(event);
+            }
+
+            @Override
+            public void close()
+            {
+            }
+
+            @Override
+            public boolean requiresLayout()
+            {
+                return false;
+            }
+        };
+        Logger log4jLogger = Logger.getLogger(this.getClass());
+        Level level = log4jLogger.getLevel();
+        log4jLogger.setLevel(Level.DEBUG);
+        log4jLogger.addAppender(appender);
+        Exception exception = new Exception("test exception");
+
+        try
+        {
+            // act
+            CustomLogger logger = new CustomLogger(this.getClass());
+            logger.LogDebug("Exception on sending queued messages to IoT Hub", exception);
+            logger.LogDebug("Exception in %s", exception, "send");
+            logger.LogDebug("Exception in %s, method name is %s", exception, "send", CustomLogger.METHOD_NAME);
+        }
+        finally
+        {
+            log4jLogger.removeAppender(appender);
+            log4jLogger.setLevel(level);
+        }
+
+        // assert
+        assertThat(events.size(), is(3));
+        assertThat(events.get(0).getRenderedMessage(), is("Exception on sending queued messages to IoT Hub"));
+        assertThat(events.get(1).getRenderedMessage(), is("Exception in send"));
+        assertThat(events.get(2).getRenderedMessage(), is("Exception in send, method name is logDebugRecordsThrowableArgumentWithStackTrace"));
+        for (LoggingEvent event : events)
+        {
+            assertThat(event.getThrowableInformation().getThrowable(), is((Throwable) exception));
+        }
+    }
 }
@@ -4,7 +4,10 @@
 package tests.unit.com.microsoft.azure.sdk.iot.device;
 
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
+import com.microsoft.azure.sdk.iot.device.IotHubBackoffPolicy;
 import com.microsoft.azure.sdk.iot.device.IotHubConnectionString;
+import com.microsoft.azure.sdk.iot.device.IotHubDecorrelatedJitterBackoff;
+import com.microsoft.azure.sdk.iot.device.IotHubOutboundQueuePolicy;
 import com.microsoft.azure.sdk.iot.device.IotHubSSLContext;
 import com.microsoft.azure.sdk.iot.device.MessageCallback;
 import mockit.Deencapsulation;
@@ -12,6 +15,7 @@ import mockit.Mocked;
 import org.junit.Test;
 
 import java.net.URISyntaxException;
+import java.util.concurrent.ExecutorService;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
@@ -618,4 +622,438 @@ public class DeviceClientConfigTest
         new DeviceClientConfig(null);
     }
 
+    private static DeviceClientConfig newConfig()
+    {
+        final IotHubConnectionString iotHubConnectionString =
+                Deencapsulation.newInstance(IotHubConnectionString.class,
+                        new Class[] {String.class, String.class, String.class, String.class},
+                        "test.iothubhostname",
+                        "test-deviceid",
+                        "test-devicekey",
+                        null);
+        return new DeviceClientConfig(iotHubConnectionString);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_003: [The function shall return the capacity of the outbound queue in number of messages, which is unbounded by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_006: [The function shall return the capacity of the outbound queue in bytes, which is unbounded by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_009: [The function shall return the policy of the outbound queue, which is BLOCK by default.]
+    @Test
+    public void outboundQueueDefaultsToUnboundedAndBlock()
+    {
+        // act
+        DeviceClientConfig config = newConfig();
+
+        // assert
+        assertEquals(Integer.MAX_VALUE, config.getOutboundQueueMaxMessages());
+        assertEquals(Long.MAX_VALUE, config.getOutboundQueueMaxBytes());
+        assertEquals(IotHubOutboundQueuePolicy.BLOCK, config.getOutboundQueuePolicy());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_002: [The function shall set the capacity of the outbound queue in number of messages.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_005: [The function shall set the capacity of the outbound queue in bytes.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_008: [The function shall set the policy of the outbound queue.]
+    @Test
+    public void getAndSetOutboundQueueLimitsMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+
+        // act
+        config.setOutboundQueueMaxMessages(100);
+        config.setOutboundQueueMaxBytes(4096L);
+        config.setOutboundQueuePolicy(IotHubOutboundQueuePolicy.DROP_OLDEST);
+
+        // assert
+        assertEquals(100, config.getOutboundQueueMaxMessages());
+        assertEquals(4096L, config.getOutboundQueueMaxBytes());
+        assertEquals(IotHubOutboundQueuePolicy.DROP_OLDEST, config.getOutboundQueuePolicy());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_001: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOutboundQueueMaxMessagesZeroThrows()
+    {
+        newConfig().setOutboundQueueMaxMessages(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_004: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOutboundQueueMaxBytesNegativeThrows()
+    {
+        newConfig().setOutboundQueueMaxBytes(-1L);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_007: [If the provided policy is null, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOutboundQueuePolicyNullThrows()
+    {
+        newConfig().setOutboundQueuePolicy(null);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_011: [The function shall return the executor that invokes the callbacks, which is null by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_014: [The function shall return the capacity of the callback queue, which is 1024 by default.]
+    @Test
+    public void callbackDispatchDefaultsToDedicatedThread()
+    {
+        // act
+        DeviceClientConfig config = newConfig();
+
+        // assert
+        assertNull(config.getCallbackExecutor());
+        assertEquals(1024, config.getCallbackQueueCapacity());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_010: [The function shall set the executor that invokes the callbacks.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_013: [The function shall set the capacity of the callback queue.]
+    @Test
+    public void getAndSetCallbackDispatchMatch(@Mocked final ExecutorService mockExecutor)
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+
+        // act
+        config.setCallbackExecutor(mockExecutor);
+        config.setCallbackQueueCapacity(16);
+
+        // assert
+        assertEquals(mockExecutor, config.getCallbackExecutor());
+        assertEquals(16, config.getCallbackQueueCapacity());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_012: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setCallbackQueueCapacityZeroThrows()
+    {
+        newConfig().setCallbackQueueCapacity(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_016: [The function shall set the number of MQTT publishes that can wait for their acknowledgement at the same time.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_017: [The function shall return the number of MQTT publishes that can wait for their acknowledgement at the same time, which is 10 by default.]
+    @Test
+    public void getAndSetMqttMaxInFlightMessagesMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertEquals(10, config.getMqttMaxInFlightMessages());
+
+        // act
+        config.setMqttMaxInFlightMessages(32);
+
+        // assert
+        assertEquals(32, config.getMqttMaxInFlightMessages());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_015: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setMqttMaxInFlightMessagesZeroThrows()
+    {
+        newConfig().setMqttMaxInFlightMessages(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_019: [The function shall set the policy that gives the delay before each reconnection attempt.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_020: [The function shall return the reconnect backoff policy, which is a decorrelated jitter by default.]
+    @Test
+    public void getAndSetReconnectBackoffPolicyMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertTrue(config.getReconnectBackoffPolicy() instanceof IotHubDecorrelatedJitterBackoff);
+        IotHubBackoffPolicy policy = new IotHubDecorrelatedJitterBackoff(10, 100);
+
+        // act
+        config.setReconnectBackoffPolicy(policy);
+
+        // assert
+        assertSame(policy, config.getReconnectBackoffPolicy());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_018: [If the provided policy is null, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setReconnectBackoffPolicyNullThrows()
+    {
+        newConfig().setReconnectBackoffPolicy(null);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_022: [The function shall set the maximum number of inbound messages that one receive cycle handles.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_023: [The function shall return the maximum number of inbound messages that one receive cycle handles, which is 100 by default.]
+    @Test
+    public void getAndSetMaxMessagesPerReceiveMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertEquals(100, config.getMaxMessagesPerReceive());
+
+        // act
+        config.setMaxMessagesPerReceive(1000);
+
+        // assert
+        assertEquals(1000, config.getMaxMessagesPerReceive());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_021: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxMessagesPerReceiveZeroThrows()
+    {
+        newConfig().setMaxMessagesPerReceive(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_024: [The function shall set whether the HTTPS polling interval adapts to the inbound traffic.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_025: [The function shall return whether the HTTPS polling interval adapts to the inbound traffic, which is false by default.]
+    @Test
+    public void getAndSetAdaptivePollingMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertFalse(config.isAdaptivePolling());
+
+        // act
+        config.setAdaptivePolling(true);
+
+        // assert
+        assertTrue(config.isAdaptivePolling());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_027: [The function shall set the shortest interval between two adaptive polls.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_028: [The function shall return the shortest interval between two adaptive polls, which is 10 seconds by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_030: [The function shall set the longest interval between two adaptive polls.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_031: [The function shall return the longest interval between two adaptive polls, which is 25 minutes by default.]
+    @Test
+    public void getAndSetAdaptivePollingIntervalsMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertEquals(10000L, config.getAdaptivePollingMinIntervalMillis());
+        assertEquals(25 * 60 * 1000L, config.getAdaptivePollingMaxIntervalMillis());
+
+        // act
+        config.setAdaptivePollingMinIntervalMillis(2000L);
+        config.setAdaptivePollingMaxIntervalMillis(60000L);
+
+        // assert
+        assertEquals(2000L, config.getAdaptivePollingMinIntervalMillis());
+        assertEquals(60000L, config.getAdaptivePollingMaxIntervalMillis());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_026: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setAdaptivePollingMinIntervalZeroThrows()
+    {
+        newConfig().setAdaptivePollingMinIntervalMillis(0L);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_029: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setAdaptivePollingMaxIntervalNegativeThrows()
+    {
+        newConfig().setAdaptivePollingMaxIntervalMillis(-1L);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_033: [The function shall set the maximum number of HTTPS batches sent at the same time.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_034: [The function shall return the maximum number of HTTPS batches sent at the same time, which is 1 by default.]
+    @Test
+    public void getAndSetHttpsMaxInFlightBatchesMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertEquals(1, config.getHttpsMaxInFlightBatches());
+
+        // act
+        config.setHttpsMaxInFlightBatches(4);
+
+        // assert
+        assertEquals(4, config.getHttpsMaxInFlightBatches());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_032: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setHttpsMaxInFlightBatchesZeroThrows()
+    {
+        newConfig().setHttpsMaxInFlightBatches(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_036: [The function shall set the number of threads that run the device method invocations.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_037: [The function shall return the number of threads that run the device method invocations, which is 0 by default.]
+    @Test
+    public void getAndSetDeviceMethodThreadPoolSizeMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertEquals(0, config.getDeviceMethodThreadPoolSize());
+
+        // act
+        config.setDeviceMethodThreadPoolSize(4);
+
+        // assert
+        assertEquals(4, config.getDeviceMethodThreadPoolSize());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_035: [If the provided value is negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setDeviceMethodThreadPoolSizeNegativeThrows()
+    {
+        newConfig().setDeviceMethodThreadPoolSize(-1);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_039: [The function shall set the number of invocations of the same device method that run at the same time.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_040: [The function shall return the number of invocations of the same device method that run at the same time, which is 1 by default.]
+    @Test
+    public void getAndSetDeviceMethodMaxConcurrentInvocationsMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertEquals(1, config.getDeviceMethodMaxConcurrentInvocations());
+
+        // act
+        config.setDeviceMethodMaxConcurrentInvocations(3);
+
+        // assert
+        assertEquals(3, config.getDeviceMethodMaxConcurrentInvocations());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_038: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setDeviceMethodMaxConcurrentInvocationsZeroThrows()
+    {
+        newConfig().setDeviceMethodMaxConcurrentInvocations(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_042: [The function shall set the time a device method invocation has to answer.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_043: [The function shall return the time a device method invocation has to answer, which is 30 seconds by default.]
+    @Test
+    public void getAndSetDeviceMethodResponseTimeoutSecsMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertEquals(30L, config.getDeviceMethodResponseTimeoutSecs());
+
+        // act
+        config.setDeviceMethodResponseTimeoutSecs(5L);
+
+        // assert
+        assertEquals(5L, config.getDeviceMethodResponseTimeoutSecs());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_041: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setDeviceMethodResponseTimeoutSecsZeroThrows()
+    {
+        newConfig().setDeviceMethodResponseTimeoutSecs(0L);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_045: [The function shall set the time the reported properties updates are merged.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_046: [The function shall return the time the reported properties updates are merged, which is 0 by default.]
+    @Test
+    public void getAndSetReportedPropertiesCoalescingWindowMillisMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertEquals(0L, config.getReportedPropertiesCoalescingWindowMillis());
+
+        // act
+        config.setReportedPropertiesCoalescingWindowMillis(200L);
+
+        // assert
+        assertEquals(200L, config.getReportedPropertiesCoalescingWindowMillis());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_044: [If the provided value is negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setReportedPropertiesCoalescingWindowMillisNegativeThrows()
+    {
+        newConfig().setReportedPropertiesCoalescingWindowMillis(-1L);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_048: [The function shall set the number of reported properties merged before the patch is sent.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_049: [The function shall return the number of reported properties merged before the patch is sent, which is 100 by default.]
+    @Test
+    public void getAndSetReportedPropertiesCoalescingMaxPropertiesMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertEquals(100, config.getReportedPropertiesCoalescingMaxProperties());
+
+        // act
+        config.setReportedPropertiesCoalescingMaxProperties(20);
+
+        // assert
+        assertEquals(20, config.getReportedPropertiesCoalescingMaxProperties());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_047: [If the provided value is zero or negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setReportedPropertiesCoalescingMaxPropertiesZeroThrows()
+    {
+        newConfig().setReportedPropertiesCoalescingMaxProperties(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_051: [The function shall set the directory of the twin cache.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_052: [The function shall return the directory of the twin cache, which is null by default.]
+    @Test
+    public void getAndSetTwinCacheDirectoryMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertNull(config.getTwinCacheDirectory());
+
+        // act
+        config.setTwinCacheDirectory("twins");
+
+        // assert
+        assertEquals("twins", config.getTwinCacheDirectory());
+        config.setTwinCacheDirectory(null);
+        assertNull(config.getTwinCacheDirectory());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_050: [If the provided path is empty, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setTwinCacheDirectoryEmptyThrows()
+    {
+        newConfig().setTwinCacheDirectory("");
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_054: [The function shall set the age up to which the cached twin is trusted.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_055: [The function shall return the age up to which the cached twin is trusted, which is 0 by default.]
+    @Test
+    public void getAndSetTwinCacheMaxAgeSecsMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertEquals(0L, config.getTwinCacheMaxAgeSecs());
+
+        // act
+        config.setTwinCacheMaxAgeSecs(3600L);
+
+        // assert
+        assertEquals(3600L, config.getTwinCacheMaxAgeSecs());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_053: [If the provided value is negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setTwinCacheMaxAgeSecsNegativeThrows()
+    {
+        newConfig().setTwinCacheMaxAgeSecs(-1L);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_057: [The function shall set the number of threads that run the callbacks of the desired property paths.]
+    // Tests_SRS_DEVICECLIENTCONFIG_28_058: [The function shall return the number of threads that run the callbacks of the desired property paths, which is 0 by default.]
+    @Test
+    public void getAndSetDesiredPropertyThreadPoolSizeMatch()
+    {
+        // arrange
+        DeviceClientConfig config = newConfig();
+        assertEquals(0, config.getDesiredPropertyThreadPoolSize());
+
+        // act
+        config.setDesiredPropertyThreadPoolSize(4);
+
+        // assert
+        assertEquals(4, config.getDesiredPropertyThreadPoolSize());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_28_056: [If the provided value is negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setDesiredPropertyThreadPoolSizeNegativeThrows()
+    {
+        newConfig().setDesiredPropertyThreadPoolSize(-1);
+    }
 }
@@ -10,6 +10,7 @@ import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
+import mockit.VerificationsInOrder;
 
 import com.microsoft.azure.sdk.iot.device.fileupload.FileUpload;
 import org.junit.Ignore;
@@ -18,11 +19,16 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import static junit.framework.TestCase.fail;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Unit tests for DeviceClient.
@@ -979,7 +985,7 @@ public class DeviceClientTest
         new Verifications()
         {
             {
-                mockedDeviceTwin.updateReportedProperties(mockSet);
+                mockedDeviceTwin.updateReportedProperties(mockSet, null, null);
                 times = 1;
             }
         };
@@ -1020,7 +1026,7 @@ public class DeviceClientTest
         new Verifications()
         {
             {
-                mockedDeviceTwin.updateReportedProperties(mockSet);
+                mockedDeviceTwin.updateReportedProperties(mockSet, null, null);
                 times = 0;
             }
         };
@@ -1060,7 +1066,7 @@ public class DeviceClientTest
         new Verifications()
         {
             {
-                mockedDeviceTwin.updateReportedProperties(mockSet);
+                mockedDeviceTwin.updateReportedProperties(mockSet, null, null);
                 times = 0;
             }
         };
@@ -1103,7 +1109,7 @@ public class DeviceClientTest
         new Verifications()
         {
             {
-                mockedDeviceTwin.updateReportedProperties((Set)any);
+                mockedDeviceTwin.updateReportedProperties((Set)any, (IotHubEventCallback)any, any);
                 times = 0;
             }
         };
@@ -1470,6 +1476,1653 @@ public class DeviceClientTest
         client.setOption("SetSendInterval", "thisIsNotALong");
     }
 
+    // Tests_SRS_DEVICECLIENT_28_001: ["SetEventDrivenSend" - send the messages as soon as they are queued instead of every send interval.]
+    @Test
+    public void setOptionEventDrivenSendSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetEventDrivenSend", true);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockDeviceIO.setEventDrivenSend(true);
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_002: ["SetEventDrivenSend" needs to have value type boolean.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionEventDrivenSendWithLongInsteadOfBooleanFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetEventDrivenSend", 10L);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void setOptionEventDrivenSendWhenOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetEventDrivenSend", true);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_003: ["SetOutboundQueueMaxMessages", "SetOutboundQueueMaxBytes" and "SetOutboundQueuePolicy" - bound the queue of messages waiting to be sent.]
+    // Tests_SRS_DEVICECLIENT_28_005: ["SetOutboundQueueMaxMessages" needs to have value type integer.]
+    // Tests_SRS_DEVICECLIENT_28_006: ["SetOutboundQueueMaxBytes" needs to have value type long.]
+    // Tests_SRS_DEVICECLIENT_28_007: ["SetOutboundQueuePolicy" needs to have value type IotHubOutboundQueuePolicy.]
+    @Test
+    public void setOptionOutboundQueueSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueueMaxMessages", 100);
+        client.setOption("SetOutboundQueueMaxBytes", 4096L);
+        client.setOption("SetOutboundQueuePolicy", IotHubOutboundQueuePolicy.REJECT);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setOutboundQueueMaxMessages(100);
+                times = 1;
+                mockConfig.setOutboundQueueMaxBytes(4096L);
+                times = 1;
+                mockConfig.setOutboundQueuePolicy(IotHubOutboundQueuePolicy.REJECT);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_005: ["SetOutboundQueueMaxMessages" needs to have value type integer.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionOutboundQueueMaxMessagesWithLongFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueueMaxMessages", 100L);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_006: ["SetOutboundQueueMaxBytes" needs to have value type long.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionOutboundQueueMaxBytesWithIntegerFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueueMaxBytes", 4096);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_007: ["SetOutboundQueuePolicy" needs to have value type IotHubOutboundQueuePolicy.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionOutboundQueuePolicyWithStringFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueuePolicy", "REJECT");
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_004: [The outbound queue options only work when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionOutboundQueuePolicyWhenOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueuePolicy", IotHubOutboundQueuePolicy.DROP_OLDEST);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_010: ["SetCallbackExecutor" and "SetCallbackQueueCapacity" - configure the stage that invokes the callbacks of the sent messages.]
+    // Tests_SRS_DEVICECLIENT_28_012: ["SetCallbackExecutor" needs to have value type ExecutorService, or be null to use a dedicated thread.]
+    // Tests_SRS_DEVICECLIENT_28_013: ["SetCallbackQueueCapacity" needs to have value type integer.]
+    @Test
+    public void setOptionCallbackDispatchSucceeds(@Mocked final ExecutorService mockExecutor)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetCallbackExecutor", mockExecutor);
+        client.setOption("SetCallbackQueueCapacity", 16);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setCallbackExecutor(mockExecutor);
+                times = 1;
+                mockConfig.setCallbackQueueCapacity(16);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_012: ["SetCallbackExecutor" needs to have value type ExecutorService, or be null to use a dedicated thread.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionCallbackExecutorWithStringFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetCallbackExecutor", "executor");
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_011: [The callback dispatch options only work when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionCallbackQueueCapacityWhenOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetCallbackQueueCapacity", 16);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_014: ["SetMqttMaxInFlightMessages" - number of MQTT messages that can wait for their acknowledgement at the same time.]
+    // Tests_SRS_DEVICECLIENT_28_017: ["SetMqttMaxInFlightMessages" needs to have value type integer.]
+    @Test
+    public void setOptionMqttMaxInFlightMessagesSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttMaxInFlightMessages", 32);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setMqttMaxInFlightMessages(32);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_015: [Option "SetMqttMaxInFlightMessages" is available only for MQTT.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMqttMaxInFlightMessagesWithAmqpFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.AMQPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttMaxInFlightMessages", 32);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_016: ["SetMqttMaxInFlightMessages" only works when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionMqttMaxInFlightMessagesWhenOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttMaxInFlightMessages", 32);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_018: ["SetReconnectBackoffPolicy" - policy that gives the delay before each attempt to reconnect a lost connection.]
+    // Tests_SRS_DEVICECLIENT_28_021: ["SetReconnectBackoffPolicy" needs to have value type IotHubBackoffPolicy.]
+    @Test
+    public void setOptionReconnectBackoffPolicySucceeds(@Mocked final IotHubBackoffPolicy mockPolicy)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetReconnectBackoffPolicy", mockPolicy);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setReconnectBackoffPolicy(mockPolicy);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_019: [Option "SetReconnectBackoffPolicy" is available only for MQTT.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionReconnectBackoffPolicyWithHttpsFails(@Mocked final IotHubBackoffPolicy mockPolicy)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetReconnectBackoffPolicy", mockPolicy);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_020: ["SetReconnectBackoffPolicy" only works when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionReconnectBackoffPolicyWhenOpenFails(@Mocked final IotHubBackoffPolicy mockPolicy)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetReconnectBackoffPolicy", mockPolicy);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_021: ["SetReconnectBackoffPolicy" needs to have value type IotHubBackoffPolicy.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionReconnectBackoffPolicyWithWrongTypeFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetReconnectBackoffPolicy", 1000);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_022: ["SetMaxMessagesPerReceive" - maximum number of inbound messages that one receive cycle handles.]
+    // Tests_SRS_DEVICECLIENT_28_024: ["SetMaxMessagesPerReceive" needs to have value type integer.]
+    @Test
+    public void setOptionMaxMessagesPerReceiveSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.AMQPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMaxMessagesPerReceive", 500);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setMaxMessagesPerReceive(500);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_023: ["SetMaxMessagesPerReceive" only works when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionMaxMessagesPerReceiveWhenOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMaxMessagesPerReceive", 500);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_024: ["SetMaxMessagesPerReceive" needs to have value type integer.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMaxMessagesPerReceiveWithWrongTypeFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMaxMessagesPerReceive", 500L);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_025: ["SetAdaptivePolling", "SetAdaptivePollingMinInterval" and "SetAdaptivePollingMaxInterval" - adapt the interval between two HTTPS polls to the inbound traffic.]
+    // Tests_SRS_DEVICECLIENT_28_028: ["SetAdaptivePolling" needs to have value type boolean.]
+    // Tests_SRS_DEVICECLIENT_28_029: ["SetAdaptivePollingMinInterval" and "SetAdaptivePollingMaxInterval" need to have value type long.]
+    @Test
+    public void setOptionAdaptivePollingSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+                mockConfig.getAdaptivePollingMinIntervalMillis();
+                result = 10000L;
+                mockConfig.getAdaptivePollingMaxIntervalMillis();
+                result = 25 * 60 * 1000L;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetAdaptivePolling", true);
+        client.setOption("SetAdaptivePollingMinInterval", 2000L);
+        client.setOption("SetAdaptivePollingMaxInterval", 60000L);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setAdaptivePolling(true);
+                times = 1;
+                mockConfig.setAdaptivePollingMinIntervalMillis(2000L);
+                times = 1;
+                mockConfig.setAdaptivePollingMaxIntervalMillis(60000L);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_061: [If the shortest adaptive polling interval would be longer than the longest one,
+    // the function shall throw IllegalArgumentException.]
+    @Test
+    public void setOptionAdaptivePollingRejectsMinLongerThanMax()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+                mockConfig.getAdaptivePollingMinIntervalMillis();
+                result = 10000L;
+                mockConfig.getAdaptivePollingMaxIntervalMillis();
+                result = 60000L;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        boolean minRejected = false;
+        boolean maxRejected = false;
+
+        // act
+        try
+        {
+            client.setOption("SetAdaptivePollingMinInterval", 60001L);
+        }
+        catch (IllegalArgumentException e)
+        {
+            minRejected = true;
+        }
+        try
+        {
+            client.setOption("SetAdaptivePollingMaxInterval", 9999L);
+        }
+        catch (IllegalArgumentException e)
+        {
+            maxRejected = true;
+        }
+
+        // assert
+        assertTrue(minRejected);
+        assertTrue(maxRejected);
+        new Verifications()
+        {
+            {
+                mockConfig.setAdaptivePollingMinIntervalMillis(anyLong);
+                times = 0;
+                mockConfig.setAdaptivePollingMaxIntervalMillis(anyLong);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_026: [The adaptive polling options are available only for HTTP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAdaptivePollingWithMqttFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetAdaptivePolling", true);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_027: [The adaptive polling options only work when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionAdaptivePollingMinIntervalWhenOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetAdaptivePollingMinInterval", 2000L);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_029: ["SetAdaptivePollingMinInterval" and "SetAdaptivePollingMaxInterval" need to have value type long.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAdaptivePollingMaxIntervalWithWrongTypeFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetAdaptivePollingMaxInterval", 60000);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_032: ["SetHttpsMaxInFlightBatches" - number of HTTPS batches sent at the same time.]
+    // Tests_SRS_DEVICECLIENT_28_035: ["SetHttpsMaxInFlightBatches" needs to have value type integer.]
+    @Test
+    public void setOptionHttpsMaxInFlightBatchesSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetHttpsMaxInFlightBatches", 4);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setHttpsMaxInFlightBatches(4);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_033: [Option "SetHttpsMaxInFlightBatches" is available only for HTTP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionHttpsMaxInFlightBatchesWithAmqpFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.AMQPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetHttpsMaxInFlightBatches", 4);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_034: ["SetHttpsMaxInFlightBatches" only works when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionHttpsMaxInFlightBatchesWhenOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetHttpsMaxInFlightBatches", 4);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_036: ["SetDeviceMethodThreadPoolSize", "SetDeviceMethodMaxConcurrentInvocations" and "SetDeviceMethodResponseTimeout" - run the device method invocations on a pool of threads.]
+    // Tests_SRS_DEVICECLIENT_28_039: ["SetDeviceMethodThreadPoolSize" and "SetDeviceMethodMaxConcurrentInvocations"
+    // need to have value type integer, and "SetDeviceMethodResponseTimeout" needs to have value type long.]
+    @Test
+    public void setOptionDeviceMethodDispatchSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetDeviceMethodThreadPoolSize", 4);
+        client.setOption("SetDeviceMethodMaxConcurrentInvocations", 2);
+        client.setOption("SetDeviceMethodResponseTimeout", 10L);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setDeviceMethodThreadPoolSize(4);
+                times = 1;
+                mockConfig.setDeviceMethodMaxConcurrentInvocations(2);
+                times = 1;
+                mockConfig.setDeviceMethodResponseTimeoutSecs(10L);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_039: ["SetDeviceMethodThreadPoolSize" and "SetDeviceMethodMaxConcurrentInvocations"
+    // need to have value type integer, and "SetDeviceMethodResponseTimeout" needs to have value type long.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionDeviceMethodResponseTimeoutWithIntFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetDeviceMethodResponseTimeout", 10);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_037: [The device method options are not available for HTTP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionDeviceMethodThreadPoolSizeWithHttpsFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetDeviceMethodThreadPoolSize", 4);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_038: [The device method options only work when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionDeviceMethodThreadPoolSizeWhenOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.AMQPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetDeviceMethodThreadPoolSize", 4);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_040: [If the deviceMethod is not null, the closeNow shall call close on deviceMethod.]
+    @Test
+    public void closeNowClosesDeviceMethodSucceeds(@Mocked final IotHubEventCallback mockedStatusCB,
+                                                   @Mocked final DeviceMethodCallback mockedDeviceMethodCB,
+                                                   @Mocked final DeviceMethod mockedMethod) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        final DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.subscribeToDeviceMethod(mockedDeviceMethodCB, null, mockedStatusCB, null);
+
+        // act
+        client.closeNow();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockedMethod.close();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_062: [If the deviceMethod is not null, the close shall call close on deviceMethod.]
+    @Test
+    public void closeClosesDeviceMethodSucceeds(@Mocked final IotHubEventCallback mockedStatusCB,
+                                                @Mocked final DeviceMethodCallback mockedDeviceMethodCB,
+                                                @Mocked final DeviceMethod mockedMethod) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.isEmpty();
+                result = true;
+            }
+        };
+        final DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.subscribeToDeviceMethod(mockedDeviceMethodCB, null, mockedStatusCB, null);
+
+        // act
+        client.close();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockedMethod.close();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_043: [The registerDeviceMethod shall register the handler by calling registerDeviceMethod on the DeviceMethod object, which it creates only once.]
+    @Test
+    public void registerDeviceMethodSucceeds(@Mocked final IotHubEventCallback mockedStatusCB,
+                                             @Mocked final DeviceMethodHandler<String, String> mockedHandler,
+                                             @Mocked final DeviceMethod mockedMethod) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        final DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        // act
+        client.registerDeviceMethod("first", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, mockedHandler, null, mockedStatusCB, null);
+        client.registerDeviceMethod("second", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, mockedHandler, null, mockedStatusCB, null);
+
+        // assert
+        new Verifications()
+        {
+            {
+                new DeviceMethod((DeviceIO)any, (DeviceClientConfig)any, mockedStatusCB, null);
+                times = 1;
+                mockedMethod.registerDeviceMethod("first", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, mockedHandler, null);
+                times = 1;
+                mockedMethod.registerDeviceMethod("second", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, mockedHandler, null);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_041: [If the client has not been open, the registerDeviceMethod shall throw an IOException.]
+    @Test(expected = IOException.class)
+    public void registerDeviceMethodThrowsIfClientNotOpen(@Mocked final IotHubEventCallback mockedStatusCB,
+                                                         @Mocked final DeviceMethodHandler<String, String> mockedHandler) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        final DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.registerDeviceMethod("first", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, mockedHandler, null, mockedStatusCB, null);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_042: [If deviceMethodStatusCallback is null, the registerDeviceMethod shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void registerDeviceMethodThrowsIfStatusCallbackNull(@Mocked final DeviceMethodHandler<String, String> mockedHandler) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        final DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        // act
+        client.registerDeviceMethod("first", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, mockedHandler, null, null, null);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_044: ["SetReportedPropertiesCoalescingWindow" and "SetReportedPropertiesCoalescingMaxProperties" - merge the reported properties updates in one patch.]
+    // Tests_SRS_DEVICECLIENT_28_047: ["SetReportedPropertiesCoalescingWindow" needs to have value type long,
+    // and "SetReportedPropertiesCoalescingMaxProperties" needs to have value type integer.]
+    @Test
+    public void setOptionReportedPropertiesCoalescingSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetReportedPropertiesCoalescingWindow", 200L);
+        client.setOption("SetReportedPropertiesCoalescingMaxProperties", 20);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setReportedPropertiesCoalescingWindowMillis(200L);
+                times = 1;
+                mockConfig.setReportedPropertiesCoalescingMaxProperties(20);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_047: ["SetReportedPropertiesCoalescingWindow" needs to have value type long,
+    // and "SetReportedPropertiesCoalescingMaxProperties" needs to have value type integer.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionReportedPropertiesCoalescingWindowWithIntFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetReportedPropertiesCoalescingWindow", 200);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_045: [The reported properties coalescing options are not available for HTTP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionReportedPropertiesCoalescingWindowWithHttpsFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetReportedPropertiesCoalescingWindow", 200L);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_046: [The reported properties coalescing options only work when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionReportedPropertiesCoalescingWindowWhenOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.AMQPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetReportedPropertiesCoalescingWindow", 200L);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_049: [The callback of the reported properties, if any, shall be passed to updateReportedProperties on the twin object.]
+    @Test
+    public void sendReportedPropertiesPassesCallbackToTwin(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                           @Mocked final IotHubEventCallback mockedStatusCB,
+                                                           @Mocked final PropertyCallBack mockedPropertyCB,
+                                                           @Mocked final Set<Property> mockSet) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        // act
+        client.sendReportedProperties(mockSet, mockedStatusCB, "context");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockedDeviceTwin.updateReportedProperties(mockSet, mockedStatusCB, "context");
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_048: [If the deviceTwin is not null, the closeNow shall call close on deviceTwin before it closes the deviceIO connection.]
+    // Tests_SRS_DEVICECLIENT_28_064: [If the deviceTwin is not null, the close and the closeNow shall call connectionClosed on deviceTwin after they close the deviceIO connection.]
+    @Test
+    public void closeNowClosesDeviceTwinBeforeDeviceIO(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                       @Mocked final IotHubEventCallback mockedStatusCB,
+                                                       @Mocked final PropertyCallBack mockedPropertyCB) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        // act
+        client.closeNow();
+
+        // assert
+        new VerificationsInOrder()
+        {
+            {
+                mockedDeviceTwin.close();
+                times = 1;
+                mockDeviceIO.close();
+                times = 1;
+                mockedDeviceTwin.connectionClosed();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_063: [If the deviceTwin is not null, the close shall call close on deviceTwin before it waits for the ongoing tasks.]
+    // Tests_SRS_DEVICECLIENT_28_064: [If the deviceTwin is not null, the close and the closeNow shall call connectionClosed on deviceTwin after they close the deviceIO connection.]
+    @Test
+    public void closeClosesDeviceTwinBeforeDeviceIO(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                    @Mocked final IotHubEventCallback mockedStatusCB,
+                                                    @Mocked final PropertyCallBack mockedPropertyCB) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.isEmpty();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        // act
+        client.close();
+
+        // assert
+        new VerificationsInOrder()
+        {
+            {
+                mockedDeviceTwin.close();
+                times = 1;
+                mockDeviceIO.isEmpty();
+                mockDeviceIO.close();
+                times = 1;
+                mockedDeviceTwin.connectionClosed();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_065: [If the protocol has a connection state, the function shall register a connection state callback that tells
+    // the device twin when the connection drops, and forwards the state to the connection state callback of the user, if any.]
+    @Test
+    public void startDeviceTwinTellsTwinOfConnectionDropAndForwardsState(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                                         @Mocked final IotHubEventCallback mockedStatusCB,
+                                                                         @Mocked final PropertyCallBack mockedPropertyCB,
+                                                                         @Mocked final IotHubConnectionStateCallback mockedStateCB) throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        final Object stateContext = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.registerConnectionStateCallback(mockedStateCB, stateContext);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+        final List<IotHubConnectionStateCallback> registered = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                // the callback of the user, then the one of the device twin.
+                mockDeviceIO.registerConnectionStateCallback(withCapture(registered), any);
+                times = 2;
+            }
+        };
+
+        // act
+        registered.get(1).execute(IotHubConnectionState.CONNECTION_DROP, null);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockedDeviceTwin.connectionLost();
+                times = 1;
+                mockedStateCB.execute(IotHubConnectionState.CONNECTION_DROP, stateContext);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_050: ["SetTwinCacheDirectory" and "SetTwinCacheMaxAge" - cache the twin of the device between two runs.]
+    // Tests_SRS_DEVICECLIENT_28_053: ["SetTwinCacheDirectory" needs to have value type String or null,
+    // and "SetTwinCacheMaxAge" needs to have value type long.]
+    @Test
+    public void setOptionTwinCacheSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetTwinCacheDirectory", "twins");
+        client.setOption("SetTwinCacheMaxAge", 3600L);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setTwinCacheDirectory("twins");
+                times = 1;
+                mockConfig.setTwinCacheMaxAgeSecs(3600L);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_053: ["SetTwinCacheDirectory" needs to have value type String or null,
+    // and "SetTwinCacheMaxAge" needs to have value type long.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionTwinCacheMaxAgeWithIntFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetTwinCacheMaxAge", 3600);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_051: [The twin cache options are not available for HTTP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionTwinCacheDirectoryWithHttpsFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetTwinCacheDirectory", "twins");
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_052: [The twin cache options only work before the device twin is started.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionTwinCacheDirectoryAfterTwinStartedFails(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                                 @Mocked final IotHubEventCallback mockedStatusCB,
+                                                                 @Mocked final PropertyCallBack mockedPropertyCB)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        // act
+        client.setOption("SetTwinCacheDirectory", "twins");
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_054: ["SetDesiredPropertyThreadPoolSize" - run the callbacks of the desired property paths on a pool.]
+    // Tests_SRS_DEVICECLIENT_28_057: ["SetDesiredPropertyThreadPoolSize" needs to have value type int.]
+    @Test
+    public void setOptionDesiredPropertyThreadPoolSizeSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetDesiredPropertyThreadPoolSize", 4);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setDesiredPropertyThreadPoolSize(4);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_057: ["SetDesiredPropertyThreadPoolSize" needs to have value type int.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionDesiredPropertyThreadPoolSizeWithLongFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetDesiredPropertyThreadPoolSize", 4L);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_055: ["SetDesiredPropertyThreadPoolSize" is not available for HTTP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionDesiredPropertyThreadPoolSizeWithHttpsFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetDesiredPropertyThreadPoolSize", 4);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_056: ["SetDesiredPropertyThreadPoolSize" only works before the device twin is started.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionDesiredPropertyThreadPoolSizeAfterTwinStartedFails(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                                            @Mocked final IotHubEventCallback mockedStatusCB,
+                                                                            @Mocked final PropertyCallBack mockedPropertyCB)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        // act
+        client.setOption("SetDesiredPropertyThreadPoolSize", 4);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_060: [This method shall subscribe to the desired property paths by calling subscribeDesiredPropertyPathsNotification on the twin object.]
+    @Test
+    public void subscribeToDesiredPropertyPathsSucceeds(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                        @Mocked final IotHubEventCallback mockedStatusCB,
+                                                        @Mocked final PropertyCallBack mockedPropertyCB,
+                                                        @Mocked final Map<String, Pair<PropertyCallBack<String, Object>, Object>> mockMap)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        // act
+        client.subscribeToDesiredPropertyPaths(mockMap);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockedDeviceTwin.subscribeDesiredPropertyPathsNotification(mockMap);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_058: [If the client has not started twin before calling this method, the function shall throw an IOException.]
+    @Test(expected = IOException.class)
+    public void subscribeToDesiredPropertyPathsBeforeStartingTwinThrows(@Mocked final Map<String, Pair<PropertyCallBack<String, Object>, Object>> mockMap)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.subscribeToDesiredPropertyPaths(mockMap);
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_030: [The getPollingIntervalInMilliseconds shall return the current polling interval, as reported by the deviceIO.]
+    // Tests_SRS_DEVICECLIENT_28_031: [The getEmptyPollCount shall return the number of polls that found no message, as reported by the deviceIO.]
+    @Test
+    public void getPollingMetricsReturnDeviceIOValues()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getPollingIntervalInMilliseconds();
+                result = 40000L;
+                mockDeviceIO.getEmptyPollCount();
+                result = 3L;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act - assert
+        assertEquals(40000L, client.getPollingIntervalInMilliseconds());
+        assertEquals(3L, client.getEmptyPollCount());
+    }
+
+    // Tests_SRS_DEVICECLIENT_28_008: [The getOutboundQueueSize shall return the number of messages waiting to be sent, as reported by the deviceIO.]
+    // Tests_SRS_DEVICECLIENT_28_009: [The getOutboundQueueSizeInBytes shall return the number of message body bytes waiting to be sent, as reported by the deviceIO.]
+    @Test
+    public void getOutboundQueueSizeReturnsDeviceIOQueueSize()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getOutboundQueueSize();
+                result = 5;
+                mockDeviceIO.getOutboundQueueSizeInBytes();
+                result = 500L;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act - assert
+        assertEquals(5, client.getOutboundQueueSize());
+        assertEquals(500L, client.getOutboundQueueSizeInBytes());
+    }
+
     //Tests_SRS_DEVICECLIENT_25_022: [**"SetSASTokenExpiryTime" should have value type long.]
     @Test(expected = IllegalArgumentException.class)
     public void setOptionSASTokenExpiryTimeWithStringInsteadOfLongFails()
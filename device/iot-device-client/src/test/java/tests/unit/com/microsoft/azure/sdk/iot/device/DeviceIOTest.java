@@ -4,7 +4,9 @@
 package tests.unit.com.microsoft.azure.sdk.iot.device;
 
 import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendLoop;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
@@ -14,6 +16,7 @@ import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
+import mockit.VerificationsInOrder;
 import org.junit.Test;
 
 import java.io.FileNotFoundException;
@@ -22,6 +25,7 @@ import java.net.URISyntaxException;
 import java.security.cert.CertificateException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -56,6 +60,9 @@ public class DeviceIOTest
 
     @Mocked ScheduledExecutorService mockScheduler;
 
+    @Mocked
+    IotHubCallbackDispatcher mockCallbackDispatcher;
+
     private final static long SEND_PERIOD_MILLIS = 10L;
     private final static long RECEIVE_PERIOD_MILLIS_AMQPS = 10L;
     private final static long RECEIVE_PERIOD_MILLIS_MQTT = 10L;
@@ -1244,6 +1251,114 @@ public class DeviceIOTest
         assertFalse(isOpen);
     }
 
+    /* Tests_SRS_DEVICE_IO_28_008: [The getOutboundQueueSize shall return the number of messages in the transport queue.] */
+    /* Tests_SRS_DEVICE_IO_28_009: [The getOutboundQueueSizeInBytes shall return the number of message body bytes in the transport queue.] */
+    @Test
+    public void getOutboundQueueSizeReturnsTransportQueueSize()
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        new NonStrictExpectations()
+        {
+            {
+                mockAmqpsTransport.getOutboundQueueSize();
+                result = 3;
+                mockAmqpsTransport.getOutboundQueueSizeInBytes();
+                result = 300L;
+            }
+        };
+
+        // act
+        int size = Deencapsulation.invoke(deviceIO, "getOutboundQueueSize");
+        long sizeInBytes = Deencapsulation.invoke(deviceIO, "getOutboundQueueSizeInBytes");
+
+        // assert
+        assertEquals(3, size);
+        assertEquals(300L, sizeInBytes);
+    }
+
+    /* Tests_SRS_DEVICE_IO_28_012: [If the protocol is HTTPS and adaptive polling is enabled in the config, the open shall schedule the receive tasks to run every shortest adaptive polling interval instead, and the transport shall decide which of them poll.] */
+    @Test
+    public void openWithAdaptivePollingSchedulesReceiveTasksAtShortestInterval(
+            @Mocked final IotHubSSLContext mockIotHubSSLContext)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOHttps();
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.newInstance(IotHubSSLContext.class);
+                result = mockIotHubSSLContext;
+                mockConfig.isAdaptivePolling();
+                result = true;
+                mockConfig.getAdaptivePollingMinIntervalMillis();
+                result = 5000L;
+                new IotHubReceiveTask(mockHttpsTransport);
+                result = mockIotHubReceiveTask;
+                mockExecutors.newScheduledThreadPool(2);
+                result = mockScheduler;
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "open");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockScheduler.scheduleAtFixedRate(mockIotHubReceiveTask, 0, 5000L, TimeUnit.MILLISECONDS);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_28_013: [If the transport is HTTPS with adaptive polling enabled, the getPollingIntervalInMilliseconds shall return its polling interval, and the receive period otherwise.] */
+    /* Tests_SRS_DEVICE_IO_28_014: [If the transport is HTTPS, the getEmptyPollCount shall return the number of empty polls reported by the transport, and 0 otherwise.] */
+    @Test
+    public void getPollingMetricsReturnHttpsTransportValues()
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOHttps();
+        new NonStrictExpectations()
+        {
+            {
+                mockHttpsTransport.getPollingIntervalMillis();
+                returns(0L, 8000L);
+                mockHttpsTransport.getEmptyPollCount();
+                result = 7L;
+            }
+        };
+
+        // act
+        long fixedInterval = Deencapsulation.invoke(deviceIO, "getPollingIntervalInMilliseconds");
+        long adaptiveInterval = Deencapsulation.invoke(deviceIO, "getPollingIntervalInMilliseconds");
+        long emptyPollCount = Deencapsulation.invoke(deviceIO, "getEmptyPollCount");
+
+        // assert
+        assertEquals(RECEIVE_PERIOD_MILLIS_HTTPS, fixedInterval);
+        assertEquals(8000L, adaptiveInterval);
+        assertEquals(7L, emptyPollCount);
+    }
+
+    /* Tests_SRS_DEVICE_IO_28_014: [If the transport is HTTPS, the getEmptyPollCount shall return the number of empty polls reported by the transport, and 0 otherwise.] */
+    @Test
+    public void getEmptyPollCountReturnsZeroForAmqp()
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+
+        // act
+        long emptyPollCount = Deencapsulation.invoke(deviceIO, "getEmptyPollCount");
+
+        // assert
+        assertEquals(0L, emptyPollCount);
+    }
+
     /* Tests_SRS_DEVICE_IO_99_001: [The registerConnectionStateCallback shall register the callback with the transport.] */
     @Test
     public void registerConnectionStateCallbackSuccess(@Mocked final IotHubConnectionStateCallback mockedStateCB)
@@ -1263,4 +1378,230 @@ public class DeviceIOTest
             }
         };
     }
+
+    /* Tests_SRS_DEVICE_IO_28_001: [The constructor shall initialize the send mode as fixed rate polling.] */
+    /* Tests_SRS_DEVICE_IO_28_005: [The isEventDrivenSend shall return the programed send mode.] */
+    @Test
+    public void isEventDrivenSendDefaultFalseSuccess()
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+
+        // act
+        boolean isEventDrivenSend = Deencapsulation.invoke(deviceIO, "isEventDrivenSend");
+
+        // assert
+        assertFalse(isEventDrivenSend);
+    }
+
+    /* Tests_SRS_DEVICE_IO_28_007: [The setEventDrivenSend shall store the new send mode.] */
+    @Test
+    public void setEventDrivenSendSuccess()
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+
+        // act
+        Deencapsulation.invoke(deviceIO, "setEventDrivenSend", true);
+
+        // assert
+        assertTrue((boolean)Deencapsulation.invoke(deviceIO, "isEventDrivenSend"));
+    }
+
+    /* Tests_SRS_DEVICE_IO_28_006: [If the client is open, the setEventDrivenSend shall throw IllegalStateException.] */
+    @Test (expected = IllegalStateException.class)
+    public void setEventDrivenSendOnOpenedClientThrows(
+            @Mocked final IotHubSSLContext mockIotHubSSLContext)
+            throws IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockConfig, mockIotHubSSLContext, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "setEventDrivenSend", true);
+    }
+
+    /* Tests_SRS_DEVICE_IO_28_002: [If the event driven send is enabled, the open shall register a send loop as the transport send signal, and run it on a dedicated thread, instead of scheduling the send tasks.] */
+    @Test
+    public void openEventDrivenSendStartsSendLoopSuccess(
+            @Mocked final IotHubSSLContext mockIotHubSSLContext,
+            @Mocked final IotHubSendLoop mockSendLoop,
+            @Mocked final ExecutorService mockSendLoopExecutor)
+            throws IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        Deencapsulation.invoke(deviceIO, "setEventDrivenSend", true);
+        new NonStrictExpectations()
+        {
+            {
+                new IotHubSendLoop(mockAmqpsTransport, mockIotHubSendTask, SEND_PERIOD_MILLIS);
+                result = mockSendLoop;
+                mockExecutors.newSingleThreadExecutor();
+                result = mockSendLoopExecutor;
+            }
+        };
+
+        // act
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockConfig, mockIotHubSSLContext, mockExecutors, mockScheduler);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockAmqpsTransport.registerSendSignal(mockSendLoop);
+                times = 1;
+                mockSendLoopExecutor.execute(mockSendLoop);
+                times = 1;
+                mockScheduler.scheduleAtFixedRate(mockIotHubSendTask, anyLong, anyLong, (TimeUnit)any);
+                times = 0;
+                mockScheduler.scheduleAtFixedRate(mockIotHubReceiveTask,
+                        0, RECEIVE_PERIOD_MILLIS_AMQPS,
+                        TimeUnit.MILLISECONDS);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_28_003: [If the event driven send is running, the close shall stop the send loop and unregister it from the transport.] */
+    @Test
+    public void closeEventDrivenSendStopsSendLoopSuccess(
+            @Mocked final IotHubSSLContext mockIotHubSSLContext,
+            @Mocked final IotHubSendLoop mockSendLoop,
+            @Mocked final ExecutorService mockSendLoopExecutor)
+            throws IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        Deencapsulation.invoke(deviceIO, "setEventDrivenSend", true);
+        new NonStrictExpectations()
+        {
+            {
+                new IotHubSendLoop(mockAmqpsTransport, mockIotHubSendTask, SEND_PERIOD_MILLIS);
+                result = mockSendLoop;
+                mockExecutors.newSingleThreadExecutor();
+                result = mockSendLoopExecutor;
+            }
+        };
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockConfig, mockIotHubSSLContext, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "close");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSendLoop.stop();
+                times = 1;
+                mockAmqpsTransport.registerSendSignal(null);
+                times = 1;
+                mockSendLoopExecutor.shutdown();
+                times = 1;
+            }
+        };
+        assertNull(Deencapsulation.getField(deviceIO, "sendLoop"));
+    }
+
+    /* Tests_SRS_DEVICE_IO_28_004: [If the event driven send is running, the setSendPeriodInMilliseconds shall change the retry period of the send loop to the new value.] */
+    @Test
+    public void setSendPeriodInMillisecondsEventDrivenSendSuccess(
+            @Mocked final IotHubSSLContext mockIotHubSSLContext,
+            @Mocked final IotHubSendLoop mockSendLoop,
+            @Mocked final ExecutorService mockSendLoopExecutor)
+            throws IOException
+    {
+        // arrange
+        final long interval = 1234L;
+        final Object deviceIO = newDeviceIOAmqp();
+        Deencapsulation.invoke(deviceIO, "setEventDrivenSend", true);
+        new NonStrictExpectations()
+        {
+            {
+                new IotHubSendLoop(mockAmqpsTransport, mockIotHubSendTask, SEND_PERIOD_MILLIS);
+                result = mockSendLoop;
+                mockExecutors.newSingleThreadExecutor();
+                result = mockSendLoopExecutor;
+            }
+        };
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockConfig, mockIotHubSSLContext, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "setSendPeriodInMilliseconds", interval);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSendLoop.setRetryPeriodInMilliseconds(interval);
+                times = 1;
+                mockScheduler.scheduleAtFixedRate(mockIotHubSendTask, anyLong, anyLong, (TimeUnit)any);
+                times = 0;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_28_010: [The open shall create a callback dispatcher with the executor and the queue capacity in the config, and register it in the transport, so the callbacks are not invoked by the send task.] */
+    @Test
+    public void openRegistersCallbackDispatcherSuccess(
+            @Mocked final IotHubSSLContext mockIotHubSSLContext,
+            @Mocked final ExecutorService mockCallbackExecutor)
+            throws IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOHttps();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getCallbackExecutor();
+                result = mockCallbackExecutor;
+                mockConfig.getCallbackQueueCapacity();
+                result = 10;
+            }
+        };
+
+        // act
+        openDeviceIO(deviceIO, mockHttpsTransport, mockConfig, mockIotHubSSLContext, mockExecutors, mockScheduler);
+
+        // assert
+        new Verifications()
+        {
+            {
+                new IotHubCallbackDispatcher(mockCallbackExecutor, 10);
+                times = 1;
+                mockHttpsTransport.registerCallbackDispatcher((IotHubCallbackDispatcher)any);
+                times = 1;
+            }
+        };
+        assertNotNull(Deencapsulation.getField(deviceIO, "callbackDispatcher"));
+    }
+
+    /* Tests_SRS_DEVICE_IO_28_011: [The close shall wait for the dispatched callbacks, including the ones cancelled by closing the transport, and unregister the callback dispatcher from the transport.] */
+    @Test
+    public void closeClosesCallbackDispatcherAfterTransportSuccess(
+            @Mocked final IotHubSSLContext mockIotHubSSLContext)
+            throws IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOHttps();
+        openDeviceIO(deviceIO, mockHttpsTransport, mockConfig, mockIotHubSSLContext, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "close");
+
+        // assert
+        new VerificationsInOrder()
+        {
+            {
+                mockHttpsTransport.close();
+                times = 1;
+                mockCallbackDispatcher.close();
+                times = 1;
+                mockHttpsTransport.registerCallbackDispatcher(null);
+                times = 1;
+            }
+        };
+        assertNull(Deencapsulation.getField(deviceIO, "callbackDispatcher"));
+    }
 }
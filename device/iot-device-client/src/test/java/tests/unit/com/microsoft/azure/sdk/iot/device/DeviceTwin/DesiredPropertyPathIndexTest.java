@@ -0,0 +1,331 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DesiredPropertyPathIndex;
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.PropertyCallBack;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/* Unit tests for DesiredPropertyPathIndex
+ * 100% methods covered
+ */
+public class DesiredPropertyPathIndexTest
+{
+    private static final long WAIT_SECONDS = 5;
+
+    private DesiredPropertyPathIndex index;
+
+    @After
+    public void tearDown()
+    {
+        if (index != null)
+        {
+            index.close();
+        }
+    }
+
+    private static JsonObject json(String json)
+    {
+        return new JsonParser().parse(json).getAsJsonObject();
+    }
+
+    private static final class RecordingCallBack implements PropertyCallBack<String, Object>
+    {
+        private final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void PropertyCall(String propertyKey, Object propertyValue, Object context)
+        {
+            calls.add(propertyKey + "=" + propertyValue + "@" + context);
+        }
+    }
+
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_001: [If the thread pool size is negative, the constructor shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNegativeThreadPoolSizeThrows()
+    {
+        new DesiredPropertyPathIndex(-1);
+    }
+
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_004: [If the path is null or has an empty segment, or the callback
+    // is null, the subscribe shall throw IllegalArgumentException.]
+    @Test
+    public void subscribeInvalidPathThrows()
+    {
+        index = new DesiredPropertyPathIndex(0);
+        String[] paths = { null, "", ".rate", "config.", "config..rate" };
+        for (String path : paths)
+        {
+            try
+            {
+                index.subscribe(path, new RecordingCallBack(), null);
+                fail("path accepted = " + path);
+            }
+            catch (IllegalArgumentException expected)
+            {
+                // expected
+            }
+        }
+    }
+
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_011: [The isIndexed shall return true if a subscribed path starts with the property.]
+    @Test
+    public void isIndexedForTopLevelPropertyOfPath()
+    {
+        // arrange
+        index = new DesiredPropertyPathIndex(0);
+
+        // act
+        index.subscribe("config.sampling.rateHz", new RecordingCallBack(), null);
+
+        // assert
+        assertTrue(index.isIndexed("config"));
+        assertFalse(index.isIndexed("sampling"));
+    }
+
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_012: [The hasSubscriptions shall return true if a path is subscribed.]
+    @Test
+    public void hasSubscriptionsOnlyOnceAPathIsSubscribed()
+    {
+        // arrange
+        index = new DesiredPropertyPathIndex(0);
+        assertFalse(index.hasSubscriptions());
+
+        // act
+        index.subscribe("config.sampling.rateHz", new RecordingCallBack(), null);
+
+        // assert
+        assertTrue(index.hasSubscriptions());
+    }
+
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_013: [If no path started at the top level property of the path,
+    // the subscribe shall forget the value of this property, which the index is not given while it is not
+    // indexed, so its next change is notified.]
+    @Test
+    public void subscribeUnderNewTopLevelPropertyForgetsItsValue()
+    {
+        // arrange
+        index = new DesiredPropertyPathIndex(0);
+        RecordingCallBack rate = new RecordingCallBack();
+        RecordingCallBack mode = new RecordingCallBack();
+        index.subscribe("config.sampling.rateHz", rate, null);
+        index.applyPatch(json("{\"config\":{\"sampling\":{\"rateHz\":5}},\"telemetry\":{\"mode\":\"eco\"}}"));
+        rate.calls.clear();
+
+        // act
+        index.subscribe("config.sampling.mode", new RecordingCallBack(), null);
+        index.subscribe("telemetry.mode", mode, null);
+        index.applyPatch(json("{\"config\":{\"sampling\":{\"rateHz\":5}},\"telemetry\":{\"mode\":\"eco\"}}"));
+
+        // assert
+        assertTrue(rate.calls.isEmpty());
+        assertEquals(Collections.singletonList("telemetry.mode=eco@null"), mode.calls);
+    }
+
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_005: [The subscribe shall store the subscription in the node of
+    // its path, and replace the previous subscription of the path.]
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_007: [The applyPatch shall merge the patch into the desired document,
+    // where objects are merged and a null value removes the property, and notify each subscription whose value
+    // changed, with null if the value was removed.]
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_008: [Without a pool, the callbacks shall run on the caller thread,
+    // after the desired document is updated.]
+    @Test
+    public void applyPatchNotifiesOnlyChangedLeaves()
+    {
+        // arrange
+        index = new DesiredPropertyPathIndex(0);
+        RecordingCallBack rate = new RecordingCallBack();
+        RecordingCallBack mode = new RecordingCallBack();
+        RecordingCallBack other = new RecordingCallBack();
+        index.subscribe("config.sampling.rateHz", new RecordingCallBack(), null);
+        index.subscribe("config.sampling.rateHz", rate, "rateContext");
+        index.subscribe("config.sampling.mode", mode, null);
+        index.subscribe("telemetry.enabled", other, null);
+        index.applyPatch(json("{\"config\":{\"sampling\":{\"rateHz\":5,\"mode\":\"fast\"}},\"$version\":2}"));
+        rate.calls.clear();
+        mode.calls.clear();
+
+        // act
+        index.applyPatch(json("{\"config\":{\"sampling\":{\"rateHz\":10,\"mode\":\"fast\"}},\"$version\":3}"));
+
+        // assert
+        assertEquals(Collections.singletonList("config.sampling.rateHz=10@rateContext"), rate.calls);
+        assertTrue(mode.calls.isEmpty());
+        assertTrue(other.calls.isEmpty());
+    }
+
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_007: [The applyPatch shall merge the patch into the desired document,
+    // where objects are merged and a null value removes the property, and notify each subscription whose value
+    // changed, with null if the value was removed.]
+    @Test
+    public void applyPatchRemovingParentNotifiesLeafWithNull()
+    {
+        // arrange
+        index = new DesiredPropertyPathIndex(0);
+        RecordingCallBack rate = new RecordingCallBack();
+        index.subscribe("config.sampling.rateHz", rate, null);
+        index.applyPatch(json("{\"config\":{\"sampling\":{\"rateHz\":5}}}"));
+
+        // act
+        index.applyPatch(json("{\"config\":{\"sampling\":null}}"));
+        index.applyPatch(json("{\"config\":{\"sampling\":null}}"));
+
+        // assert
+        assertEquals(2, rate.calls.size());
+        assertEquals("config.sampling.rateHz=null@null", rate.calls.get(1));
+    }
+
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_007: [The applyPatch shall merge the patch into the desired document,
+    // where objects are merged and a null value removes the property, and notify each subscription whose value
+    // changed, with null if the value was removed.]
+    @Test
+    public void applyPatchNotifiesObjectSubscriptionWithMergedJson()
+    {
+        // arrange
+        index = new DesiredPropertyPathIndex(0);
+        RecordingCallBack sampling = new RecordingCallBack();
+        index.subscribe("config.sampling", sampling, null);
+        index.applyPatch(json("{\"config\":{\"sampling\":{\"rateHz\":5,\"mode\":\"fast\"}}}"));
+
+        // act
+        index.applyPatch(json("{\"config\":{\"sampling\":{\"rateHz\":10},\"other\":1}}"));
+
+        // assert
+        assertEquals(2, sampling.calls.size());
+        assertEquals("config.sampling={\"rateHz\":10,\"mode\":\"fast\"}@null", sampling.calls.get(1));
+    }
+
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_006: [The applyDocument shall replace the desired document, and
+    // notify each subscription whose value is different in the new document, with null if the value was removed.]
+    @Test
+    public void applyDocumentNotifiesDifferencesOnly()
+    {
+        // arrange
+        index = new DesiredPropertyPathIndex(0);
+        RecordingCallBack rate = new RecordingCallBack();
+        RecordingCallBack mode = new RecordingCallBack();
+        RecordingCallBack enabled = new RecordingCallBack();
+        index.subscribe("config.sampling.rateHz", rate, null);
+        index.subscribe("config.sampling.mode", mode, null);
+        index.subscribe("telemetry.enabled", enabled, null);
+        index.applyDocument(json("{\"config\":{\"sampling\":{\"rateHz\":5,\"mode\":\"fast\"}},\"telemetry\":{\"enabled\":true},\"$version\":4}"));
+
+        // act
+        index.applyDocument(json("{\"config\":{\"sampling\":{\"rateHz\":5,\"mode\":\"slow\"}},\"$version\":5}"));
+
+        // assert
+        assertEquals(Collections.singletonList("config.sampling.rateHz=5@null"), rate.calls);
+        assertEquals("config.sampling.mode=slow@null", mode.calls.get(1));
+        assertEquals("telemetry.enabled=null@null", enabled.calls.get(1));
+    }
+
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_002: [If the thread pool size is not 0, the constructor shall
+    // create a pool of this size to run the callbacks.]
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_009: [With a pool, the callbacks of different subscriptions shall
+    // run at the same time, and the callbacks of one subscription shall run one at a time, in order.]
+    @Test
+    public void poolRunsDisjointPathsConcurrently() throws InterruptedException
+    {
+        // arrange
+        index = new DesiredPropertyPathIndex(2);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        index.subscribe("config.slow", new PropertyCallBack<String, Object>()
+        {
+            @Override
+            public void PropertyCall(String propertyKey, Object propertyValue, Object context)
+            {
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null);
+        index.subscribe("config.fast", new PropertyCallBack<String, Object>()
+        {
+            @Override
+            public void PropertyCall(String propertyKey, Object propertyValue, Object context)
+            {
+                fastDone.countDown();
+            }
+        }, null);
+
+        // act
+        index.applyPatch(json("{\"config\":{\"slow\":1}}"));
+        assertTrue(started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        index.applyPatch(json("{\"config\":{\"fast\":1}}"));
+
+        // assert
+        assertTrue(fastDone.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_009: [With a pool, the callbacks of different subscriptions shall
+    // run at the same time, and the callbacks of one subscription shall run one at a time, in order.]
+    @Test
+    public void poolKeepsTheOrderOfOnePath() throws InterruptedException
+    {
+        // arrange
+        index = new DesiredPropertyPathIndex(4);
+        final List<Object> values = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(50);
+        index.subscribe("config.rate", new PropertyCallBack<String, Object>()
+        {
+            @Override
+            public void PropertyCall(String propertyKey, Object propertyValue, Object context)
+            {
+                values.add(propertyValue);
+                done.countDown();
+            }
+        }, null);
+
+        // act
+        for (int i = 0; i < 50; i++)
+        {
+            index.applyPatch(json("{\"config\":{\"rate\":" + i + "}}"));
+        }
+
+        // assert
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < 50; i++)
+        {
+            assertEquals(String.valueOf(i), values.get(i));
+        }
+    }
+
+    // Tests_SRS_DESIREDPROPERTYPATHINDEX_28_010: [The close shall stop the pool that runs the callbacks, if any.]
+    @Test
+    public void closeDropsLaterChanges() throws InterruptedException
+    {
+        // arrange
+        index = new DesiredPropertyPathIndex(1);
+        RecordingCallBack rate = new RecordingCallBack();
+        index.subscribe("config.rate", rate, null);
+
+        // act
+        index.close();
+        index.applyPatch(json("{\"config\":{\"rate\":1}}"));
+
+        // assert
+        Thread.sleep(100);
+        assertTrue(rate.calls.isEmpty());
+    }
+}
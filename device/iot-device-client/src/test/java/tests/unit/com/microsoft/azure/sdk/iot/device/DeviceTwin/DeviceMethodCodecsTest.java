@@ -0,0 +1,120 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+import com.microsoft.azure.sdk.iot.deps.serializer.MethodParser;
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceMethodCodec;
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceMethodCodecs;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/* Unit tests for DeviceMethodCodecs
+ * 100% methods covered
+ */
+public class DeviceMethodCodecsTest
+{
+    private static final class SamplingRequest
+    {
+        private Integer rateHz;
+        private String unit;
+    }
+
+    // Tests_SRS_DEVICEMETHODCODECS_28_001: [The BYTES codec shall pass the payload as is, in both directions.]
+    @Test
+    public void bytesCodecPassesPayloadAsIs()
+    {
+        // arrange
+        byte[] payload = {1, 2, 3};
+
+        // act - assert
+        assertSame(payload, DeviceMethodCodecs.BYTES.decode(payload));
+        assertSame(payload, DeviceMethodCodecs.BYTES.encode(payload));
+    }
+
+    // Tests_SRS_DEVICEMETHODCODECS_28_002: [The STRING codec shall decode the payload as UTF-8 text.]
+    @Test
+    public void stringCodecDecodesUtf8()
+    {
+        // act
+        String request = DeviceMethodCodecs.STRING.decode("{\"a\":\"é\"}".getBytes(StandardCharsets.UTF_8));
+
+        // assert
+        assertEquals("{\"a\":\"é\"}", request);
+    }
+
+    // Tests_SRS_DEVICEMETHODCODECS_28_003: [The STRING codec shall encode the value as a json string, or as
+    // the json null if the value is null.]
+    @Test
+    public void stringCodecEncodesAsMethodParser()
+    {
+        // arrange
+        String[] values = {"done", "a<b & \"c\"\né", "", null};
+
+        for (String value : values)
+        {
+            // act
+            byte[] encoded = DeviceMethodCodecs.STRING.encode(value);
+
+            // assert
+            assertArrayEquals(new MethodParser(value).toJson().getBytes(StandardCharsets.UTF_8), encoded);
+        }
+    }
+
+    // Tests_SRS_DEVICEMETHODCODECS_28_004: [If the type is null, the json shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void jsonNullTypeThrows()
+    {
+        DeviceMethodCodecs.json(null);
+    }
+
+    // Tests_SRS_DEVICEMETHODCODECS_28_005: [The json shall resolve the json adapter of the type once, when the codec is created.]
+    // Tests_SRS_DEVICEMETHODCODECS_28_006: [The json codec shall decode the payload as a json document of the type.]
+    @Test
+    public void jsonCodecDecodesDocument()
+    {
+        // arrange
+        DeviceMethodCodec<SamplingRequest> codec = DeviceMethodCodecs.json(SamplingRequest.class);
+
+        // act
+        SamplingRequest request = codec.decode("{\"rateHz\":10,\"unit\":\"s\"}".getBytes(StandardCharsets.UTF_8));
+
+        // assert
+        assertEquals(Integer.valueOf(10), request.rateHz);
+        assertEquals("s", request.unit);
+    }
+
+    // Tests_SRS_DEVICEMETHODCODECS_28_007: [If the payload is not a json document of the type, the
+    // json codec shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void jsonCodecInvalidPayloadThrows()
+    {
+        DeviceMethodCodecs.json(SamplingRequest.class).decode("{\"rateHz\":\"fast\"}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Tests_SRS_DEVICEMETHODCODECS_28_007: [If the payload is not a json document of the type, the
+    // json codec shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void jsonCodecPayloadOfOtherTypeThrows()
+    {
+        DeviceMethodCodecs.json(Integer.class).decode("{\"rateHz\":5}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Tests_SRS_DEVICEMETHODCODECS_28_008: [The json codec shall encode the value as a json document, with its null fields.]
+    @Test
+    public void jsonCodecEncodesDocumentWithNulls()
+    {
+        // arrange
+        SamplingRequest response = new SamplingRequest();
+        response.rateHz = 5;
+
+        // act
+        byte[] encoded = DeviceMethodCodecs.json(SamplingRequest.class).encode(response);
+
+        // assert
+        assertEquals("{\"rateHz\":5,\"unit\":null}", new String(encoded, StandardCharsets.UTF_8));
+    }
+}
@@ -4,9 +4,12 @@
 package tests.unit.com.microsoft.azure.sdk.iot.device.DeviceTwin;
 
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceMethodData;
+import mockit.Deencapsulation;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class DeviceMethodDataTest
@@ -97,4 +100,22 @@ public class DeviceMethodDataTest
 
     }
 
+    /*
+    **Tests_SRS_DEVICEMETHODDATA_28_001: [**This method shall return the encoded response previously set, or null.**]**
+    **Tests_SRS_DEVICEMETHODDATA_28_002: [**This method shall save the response payload encoded by a registered codec, which is sent in place of the response message.**]**
+     */
+    @Test
+    public void getAndSetEncodedResponseMatch()
+    {
+        //arrange
+        DeviceMethodData testData = new DeviceMethodData(0, "testMessage");
+        byte[] encodedResponse = {1, 2};
+        assertNull(Deencapsulation.invoke(testData, "getEncodedResponse"));
+
+        //act
+        Deencapsulation.invoke(testData, "setEncodedResponse", encodedResponse);
+
+        //assert
+        assertSame(encodedResponse, Deencapsulation.invoke(testData, "getEncodedResponse"));
+    }
 }
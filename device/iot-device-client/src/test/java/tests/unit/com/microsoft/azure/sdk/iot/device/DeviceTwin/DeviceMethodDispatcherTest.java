@@ -0,0 +1,374 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceMethodData;
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceMethodDispatcher;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/* Unit tests for DeviceMethodDispatcher
+ * 100% methods covered
+ */
+public class DeviceMethodDispatcherTest
+{
+    private static final long WAIT_SECONDS = 5;
+
+    private DeviceMethodDispatcher dispatcher;
+
+    @After
+    public void tearDown()
+    {
+        if (dispatcher != null)
+        {
+            dispatcher.close();
+        }
+    }
+
+    private static Callable<DeviceMethodData> answer(final int status)
+    {
+        return new Callable<DeviceMethodData>()
+        {
+            @Override
+            public DeviceMethodData call()
+            {
+                return new DeviceMethodData(status, "done");
+            }
+        };
+    }
+
+    private static Callable<DeviceMethodData> blockUntil(final CountDownLatch started, final CountDownLatch release, final int status)
+    {
+        return new Callable<DeviceMethodData>()
+        {
+            @Override
+            public DeviceMethodData call() throws Exception
+            {
+                started.countDown();
+                release.await();
+                return new DeviceMethodData(status, "done");
+            }
+        };
+    }
+
+    private static Callable<DeviceMethodData> blockIgnoringInterruptsUntil(final CountDownLatch started, final CountDownLatch release, final int status)
+    {
+        return new Callable<DeviceMethodData>()
+        {
+            @Override
+            public DeviceMethodData call()
+            {
+                started.countDown();
+                while (true)
+                {
+                    try
+                    {
+                        release.await();
+                        return new DeviceMethodData(status, "done");
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // keeps running, as a handler that does not check for interruption would.
+                    }
+                }
+            }
+        };
+    }
+
+    private static final class QueueResponder implements DeviceMethodDispatcher.Responder
+    {
+        private final BlockingQueue<Object> responses = new LinkedBlockingQueue<>();
+
+        @Override
+        public void respond(DeviceMethodData responseData)
+        {
+            responses.add(responseData == null ? "null" : responseData);
+        }
+
+        private Object next() throws InterruptedException
+        {
+            Object response = responses.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull("no response", response);
+            return response;
+        }
+
+        private int nextStatus() throws InterruptedException
+        {
+            return ((DeviceMethodData) next()).getStatus();
+        }
+    }
+
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_001: [If one of the parameters is zero or negative, the constructor shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorZeroThreadPoolSizeThrows()
+    {
+        new DeviceMethodDispatcher(0, 1, 1000);
+    }
+
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_001: [If one of the parameters is zero or negative, the constructor shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorZeroMaxConcurrentInvocationsThrows()
+    {
+        new DeviceMethodDispatcher(1, 0, 1000);
+    }
+
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_001: [If one of the parameters is zero or negative, the constructor shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNegativeResponseTimeoutThrows()
+    {
+        new DeviceMethodDispatcher(1, 1, -1);
+    }
+
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_003: [If one of the parameters is null, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void dispatchNullHandlerThrows()
+    {
+        dispatcher = new DeviceMethodDispatcher(1, 1, 1000);
+        dispatcher.dispatch("method", null, new QueueResponder());
+    }
+
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_004: [The function shall run the handler on the pool.]
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_006: [When the handler returns, the dispatcher shall give its response to the responder.]
+    @Test
+    public void dispatchGivesResponseToResponder() throws InterruptedException
+    {
+        // arrange
+        dispatcher = new DeviceMethodDispatcher(1, 1, 10000);
+        QueueResponder responder = new QueueResponder();
+
+        // act
+        dispatcher.dispatch("method", answer(200), responder);
+
+        // assert
+        assertEquals(200, responder.nextStatus());
+    }
+
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_004: [The function shall run the handler on the pool.]
+    @Test
+    public void slowMethodDoesNotBlockOtherMethod() throws InterruptedException
+    {
+        // arrange
+        dispatcher = new DeviceMethodDispatcher(2, 1, 10000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        QueueResponder slowResponder = new QueueResponder();
+        QueueResponder fastResponder = new QueueResponder();
+        dispatcher.dispatch("slow", blockUntil(started, release, 200), slowResponder);
+        assertTrue(started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        // act
+        dispatcher.dispatch("fast", answer(201), fastResponder);
+
+        // assert
+        assertEquals(201, fastResponder.nextStatus());
+        release.countDown();
+        assertEquals(200, slowResponder.nextStatus());
+    }
+
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_005: [If `maxConcurrentInvocations` invocations of the method
+    // run, the function shall queue the invocation until one of them returns.]
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_010: [Once the handler of an invocation returns, the dispatcher shall
+    // run the next queued invocation of the same method.]
+    @Test
+    public void dispatchQueuesInvocationsOverTheLimit() throws InterruptedException
+    {
+        // arrange
+        dispatcher = new DeviceMethodDispatcher(4, 1, 10000);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean(false);
+        QueueResponder responder = new QueueResponder();
+        dispatcher.dispatch("method", blockUntil(started, release, 200), responder);
+        assertTrue(started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        Callable<DeviceMethodData> counting = new Callable<DeviceMethodData>()
+        {
+            @Override
+            public DeviceMethodData call()
+            {
+                if (running.incrementAndGet() > 1)
+                {
+                    overlapped.set(true);
+                }
+                running.decrementAndGet();
+                return new DeviceMethodData(201, "done");
+            }
+        };
+
+        // act
+        dispatcher.dispatch("method", counting, responder);
+        dispatcher.dispatch("method", counting, responder);
+
+        // assert
+        assertNull(responder.responses.poll(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertEquals(200, responder.nextStatus());
+        assertEquals(201, responder.nextStatus());
+        assertEquals(201, responder.nextStatus());
+        assertFalse(overlapped.get());
+    }
+
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_007: [If the handler throws, the dispatcher shall give a null response to the responder.]
+    @Test
+    public void handlerThatThrowsGivesNullResponse() throws InterruptedException
+    {
+        // arrange
+        dispatcher = new DeviceMethodDispatcher(1, 1, 10000);
+        QueueResponder responder = new QueueResponder();
+
+        // act
+        dispatcher.dispatch("method", new Callable<DeviceMethodData>()
+        {
+            @Override
+            public DeviceMethodData call() throws Exception
+            {
+                throw new Exception("test exception");
+            }
+        }, responder);
+
+        // assert
+        assertEquals("null", responder.next());
+    }
+
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_009: [If the handler does not return within the response timeout, the
+    // dispatcher shall give a response with the status 504 to the responder, and interrupt the handler.]
+    @Test
+    public void handlerOverTimeoutGetsTimeoutStatusAndIsInterrupted() throws InterruptedException
+    {
+        // arrange
+        dispatcher = new DeviceMethodDispatcher(1, 1, 200);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        QueueResponder responder = new QueueResponder();
+
+        // act
+        dispatcher.dispatch("method", new Callable<DeviceMethodData>()
+        {
+            @Override
+            public DeviceMethodData call()
+            {
+                try
+                {
+                    Thread.sleep(WAIT_SECONDS * 1000);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted.countDown();
+                }
+                return new DeviceMethodData(200, "late");
+            }
+        }, responder);
+
+        // assert
+        assertEquals(DeviceMethodDispatcher.METHOD_TIMEOUT_STATUS, responder.nextStatus());
+        assertTrue(interrupted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertNull(responder.responses.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_008: [If the response timeout of a queued invocation passed before it
+    // could run, the dispatcher shall answer it with the timeout status without running its handler.]
+    @Test
+    public void queuedInvocationPastDeadlineIsNotRun() throws InterruptedException
+    {
+        // arrange
+        dispatcher = new DeviceMethodDispatcher(1, 1, 200);
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        QueueResponder firstResponder = new QueueResponder();
+        QueueResponder queuedResponder = new QueueResponder();
+        QueueResponder nextResponder = new QueueResponder();
+        // the handler keeps the only thread of the pool until it is released.
+        dispatcher.dispatch("method", blockIgnoringInterruptsUntil(started, release, 200), firstResponder);
+        assertTrue(started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        // act
+        dispatcher.dispatch("method", new Callable<DeviceMethodData>()
+        {
+            @Override
+            public DeviceMethodData call()
+            {
+                ran.set(true);
+                return new DeviceMethodData(200, "done");
+            }
+        }, queuedResponder);
+
+        // assert
+        assertEquals(DeviceMethodDispatcher.METHOD_TIMEOUT_STATUS, firstResponder.nextStatus());
+        assertEquals(DeviceMethodDispatcher.METHOD_TIMEOUT_STATUS, queuedResponder.nextStatus());
+        release.countDown();
+        // the next invocation runs after the queued one was dropped.
+        dispatcher.dispatch("method", answer(201), nextResponder);
+        assertEquals(201, nextResponder.nextStatus());
+        assertFalse(ran.get());
+    }
+
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_013: [An invocation shall keep its place among the running
+    // invocations of its method until its handler returns, even if it was answered by the timeout.]
+    @Test
+    public void handlerIgnoringInterruptKeepsItsPlaceAfterTimeout() throws InterruptedException
+    {
+        // arrange
+        dispatcher = new DeviceMethodDispatcher(2, 1, 200);
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        QueueResponder firstResponder = new QueueResponder();
+        QueueResponder secondResponder = new QueueResponder();
+        QueueResponder nextResponder = new QueueResponder();
+        dispatcher.dispatch("method", blockIgnoringInterruptsUntil(started, release, 200), firstResponder);
+        assertTrue(started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(DeviceMethodDispatcher.METHOD_TIMEOUT_STATUS, firstResponder.nextStatus());
+
+        // act
+        dispatcher.dispatch("method", new Callable<DeviceMethodData>()
+        {
+            @Override
+            public DeviceMethodData call()
+            {
+                ran.set(true);
+                return new DeviceMethodData(200, "done");
+            }
+        }, secondResponder);
+
+        // assert
+        // the pool has a free thread, but the timed out handler still runs.
+        assertEquals(DeviceMethodDispatcher.METHOD_TIMEOUT_STATUS, secondResponder.nextStatus());
+        assertFalse(ran.get());
+        release.countDown();
+        dispatcher.dispatch("method", answer(201), nextResponder);
+        assertEquals(201, nextResponder.nextStatus());
+        assertNull(firstResponder.responses.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    // Tests_SRS_DEVICEMETHODDISPATCHER_28_011: [The function shall stop the pool and the timer, and drop the queued invocations.]
+    @Test
+    public void closeDropsQueuedInvocationsAndRejectsNewOnes() throws InterruptedException
+    {
+        // arrange
+        dispatcher = new DeviceMethodDispatcher(1, 1, 10000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        QueueResponder responder = new QueueResponder();
+        dispatcher.dispatch("method", blockUntil(started, release, 200), responder);
+        assertTrue(started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        dispatcher.dispatch("method", answer(201), responder);
+
+        // act
+        dispatcher.close();
+
+        // assert
+        dispatcher.dispatch("other", answer(202), responder);
+        assertEquals("null", responder.next());
+    }
+}
@@ -0,0 +1,176 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.*;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.*;
+
+/* Unit tests for DeviceMethodRegistry
+ * 100% methods covered
+ */
+public class DeviceMethodRegistryTest
+{
+    private static final DeviceMethodHandler<String, String> ECHO_HANDLER = new DeviceMethodHandler<String, String>()
+    {
+        @Override
+        public DeviceMethodResult<String> call(String request, Object context)
+        {
+            return new DeviceMethodResult<>(200, request + context);
+        }
+    };
+
+    // Tests_SRS_DEVICEMETHODREGISTRY_28_001: [If the method name is null or empty, or a codec or the handler
+    // is null, the register shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void registerEmptyNameThrows()
+    {
+        new DeviceMethodRegistry().register("", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, ECHO_HANDLER, null);
+    }
+
+    // Tests_SRS_DEVICEMETHODREGISTRY_28_001: [If the method name is null or empty, or a codec or the handler
+    // is null, the register shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void registerNullCodecThrows()
+    {
+        new DeviceMethodRegistry().register("echo", null, DeviceMethodCodecs.STRING, ECHO_HANDLER, null);
+    }
+
+    // Tests_SRS_DEVICEMETHODREGISTRY_28_001: [If the method name is null or empty, or a codec or the handler
+    // is null, the register shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void registerNullHandlerThrows()
+    {
+        new DeviceMethodRegistry().register("echo", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, null, null);
+    }
+
+    // Tests_SRS_DEVICEMETHODREGISTRY_28_002: [The register shall store the handler with its codecs and context
+    // under the method name, and replace the previous handler of the method.]
+    // Tests_SRS_DEVICEMETHODREGISTRY_28_006: [The invocation shall decode the payload with the request
+    // codec, call the handler with its context, and encode the response payload with the response codec.]
+    @Test
+    public void bindCallsHandlerWithCodecs() throws Exception
+    {
+        // arrange
+        DeviceMethodRegistry registry = new DeviceMethodRegistry();
+        registry.register("echo", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, ECHO_HANDLER, "!");
+
+        // act
+        Callable<DeviceMethodData> invocation = registry.bind("echo", "hello".getBytes(StandardCharsets.UTF_8));
+        DeviceMethodData responseData = invocation.call();
+
+        // assert
+        assertEquals(200, responseData.getStatus());
+        byte[] encoded = Deencapsulation.invoke(responseData, "getEncodedResponse");
+        assertEquals("\"hello!\"", new String(encoded, StandardCharsets.UTF_8));
+    }
+
+    // Tests_SRS_DEVICEMETHODREGISTRY_28_002: [The register shall store the handler with its codecs and context
+    // under the method name, and replace the previous handler of the method.]
+    @Test
+    public void registerReplacesPreviousHandler() throws Exception
+    {
+        // arrange
+        DeviceMethodRegistry registry = new DeviceMethodRegistry();
+        registry.register("echo", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, ECHO_HANDLER, "!");
+
+        // act
+        registry.register("echo", DeviceMethodCodecs.BYTES, DeviceMethodCodecs.BYTES, new DeviceMethodHandler<byte[], byte[]>()
+        {
+            @Override
+            public DeviceMethodResult<byte[]> call(byte[] request, Object context)
+            {
+                return new DeviceMethodResult<>(201, request);
+            }
+        }, null);
+
+        // assert
+        DeviceMethodData responseData = registry.bind("echo", new byte[] {7}).call();
+        assertEquals(201, responseData.getStatus());
+        byte[] encoded = Deencapsulation.invoke(responseData, "getEncodedResponse");
+        assertArrayEquals(new byte[] {7}, encoded);
+    }
+
+    // Tests_SRS_DEVICEMETHODREGISTRY_28_004: [The isEmpty shall return true if no handler is registered.]
+    // Tests_SRS_DEVICEMETHODREGISTRY_28_005: [If the method has no handler, the bind shall return null.]
+    @Test
+    public void bindReturnsNullForMethodWithoutHandler()
+    {
+        // arrange
+        DeviceMethodRegistry registry = new DeviceMethodRegistry();
+        assertTrue(registry.isEmpty());
+        registry.register("echo", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, ECHO_HANDLER, null);
+        assertFalse(registry.isEmpty());
+
+        // act - assert
+        assertNull(registry.bind("other", new byte[0]));
+        assertNull(registry.bind(null, new byte[0]));
+    }
+
+    // Tests_SRS_DEVICEMETHODREGISTRY_28_008: [If the request codec cannot decode the payload, the
+    // invocation shall not call the handler, and shall return the status 400 with the reason as message.]
+    @Test
+    public void bindReturnsBadRequestIfPayloadCannotBeDecoded() throws Exception
+    {
+        // arrange
+        final boolean[] called = {false};
+        DeviceMethodRegistry registry = new DeviceMethodRegistry();
+        registry.register("typed", DeviceMethodCodecs.json(Integer.class), DeviceMethodCodecs.STRING, new DeviceMethodHandler<Integer, String>()
+        {
+            @Override
+            public DeviceMethodResult<String> call(Integer request, Object context)
+            {
+                called[0] = true;
+                return new DeviceMethodResult<>(200, "ok");
+            }
+        }, null);
+
+        // act
+        DeviceMethodData responseData = registry.bind("typed", "{not json".getBytes(StandardCharsets.UTF_8)).call();
+
+        // assert
+        assertFalse(called[0]);
+        assertEquals(400, responseData.getStatus());
+        assertNotNull(responseData.getResponseMessage());
+        assertNull(Deencapsulation.invoke(responseData, "getEncodedResponse"));
+    }
+
+    // Tests_SRS_DEVICEMETHODREGISTRY_28_007: [If the handler gives no result, the invocation shall return null.]
+    @Test
+    public void bindReturnsNullForNullResult() throws Exception
+    {
+        // arrange
+        DeviceMethodRegistry registry = new DeviceMethodRegistry();
+        registry.register("none", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, new DeviceMethodHandler<String, String>()
+        {
+            @Override
+            public DeviceMethodResult<String> call(String request, Object context)
+            {
+                return null;
+            }
+        }, null);
+
+        // act - assert
+        assertNull(registry.bind("none", new byte[0]).call());
+    }
+
+    // Tests_SRS_DEVICEMETHODRESULT_28_001: [The constructor shall save the status and the payload.]
+    // Tests_SRS_DEVICEMETHODRESULT_28_002: [The getStatus shall return the status given to the constructor.]
+    // Tests_SRS_DEVICEMETHODRESULT_28_003: [The getPayload shall return the payload given to the constructor.]
+    @Test
+    public void resultKeepsStatusAndPayload()
+    {
+        // act
+        DeviceMethodResult<String> result = new DeviceMethodResult<>(404, "missing");
+
+        // assert
+        assertEquals(404, result.getStatus());
+        assertEquals("missing", result.getPayload());
+    }
+}
@@ -11,6 +11,12 @@ import mockit.NonStrictExpectations;
 import mockit.Verifications;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import static com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations.DEVICE_OPERATION_METHOD_RECEIVE_REQUEST;
 import static com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations.DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST;
 import static org.junit.Assert.*;
@@ -397,4 +403,365 @@ public class DeviceMethodTest
 
     }
 
+    /*
+    **Tests_SRS_DEVICEMETHOD_28_001: [**If the config has a device method thread pool, the callback shall hand the invocation to a DeviceMethodDispatcher, created once from the config, and mark the message as complete without waiting for the user callback.**]**
+     */
+    @Test
+    public void deviceMethodResponseCallbackDispatchesIfThreadPoolConfigured(@Mocked final DeviceMethodDispatcher mockedDispatcher) throws IllegalArgumentException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getDeviceMethodThreadPoolSize();
+                result = 2;
+                mockedConfig.getDeviceMethodMaxConcurrentInvocations();
+                result = 1;
+                mockedConfig.getDeviceMethodResponseTimeoutSecs();
+                result = 30L;
+            }
+        };
+        DeviceMethod testMethod = new DeviceMethod(mockedDeviceIO, mockedConfig, mockedStatusCB, null);
+        testMethod.subscribeToDeviceMethod(mockedDeviceMethodCB, null);
+
+        DeviceMethodMessage testMessage = new DeviceMethodMessage("TestPayload".getBytes());
+        testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
+        testMessage.setMethodName("testMethod");
+
+        MessageCallback testDeviceMethodResponseMessageCallback = Deencapsulation.newInnerInstance("deviceMethodResponseCallback", testMethod);
+
+        //act
+        IotHubMessageResult result1 = testDeviceMethodResponseMessageCallback.execute(testMessage, null);
+        IotHubMessageResult result2 = testDeviceMethodResponseMessageCallback.execute(testMessage, null);
+
+        //assert
+        assertEquals(IotHubMessageResult.COMPLETE, result1);
+        assertEquals(IotHubMessageResult.COMPLETE, result2);
+        new Verifications()
+        {
+            {
+                new DeviceMethodDispatcher(2, 1, 30000L);
+                times = 1;
+                mockedDispatcher.dispatch("testMethod", (Callable<DeviceMethodData>)any, (DeviceMethodDispatcher.Responder)any);
+                times = 2;
+                mockedDeviceMethodCB.call(anyString, any, any);
+                times = 0;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICEMETHOD_28_002: [**When the dispatcher gives the response of an invocation, the callback shall send it to IotHub at once, as for an invocation run on the receive thread.**]**
+     */
+    @Test
+    public void dispatchedResponseIsSentToIotHub() throws IllegalArgumentException, InterruptedException
+    {
+        //arrange
+        final DeviceMethodData testUserData = new DeviceMethodData(200, "done");
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getDeviceMethodThreadPoolSize();
+                result = 2;
+                mockedConfig.getDeviceMethodMaxConcurrentInvocations();
+                result = 1;
+                mockedConfig.getDeviceMethodResponseTimeoutSecs();
+                result = 30L;
+                mockedDeviceMethodCB.call(anyString, any, any);
+                result = testUserData;
+            }
+        };
+        DeviceMethod testMethod = new DeviceMethod(mockedDeviceIO, mockedConfig, mockedStatusCB, null);
+        testMethod.subscribeToDeviceMethod(mockedDeviceMethodCB, null);
+
+        DeviceMethodMessage testMessage = new DeviceMethodMessage("TestPayload".getBytes());
+        testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
+        testMessage.setMethodName("testMethod");
+        testMessage.setRequestId("1");
+
+        MessageCallback testDeviceMethodResponseMessageCallback = Deencapsulation.newInnerInstance("deviceMethodResponseCallback", testMethod);
+
+        //act
+        testDeviceMethodResponseMessageCallback.execute(testMessage, null);
+        waitForInvocations(testMethod);
+        testMethod.close();
+
+        //assert
+        new Verifications()
+        {
+            {
+                List<Message> sentMessages = new ArrayList<>();
+                mockedDeviceIO.sendEventAsync(withCapture(sentMessages), (IotHubEventCallback)any, null);
+                times = 2;
+                DeviceMethodMessage response = (DeviceMethodMessage)sentMessages.get(1);
+                assertEquals(DeviceOperations.DEVICE_OPERATION_METHOD_SEND_RESPONSE, response.getDeviceOperationType());
+                assertEquals("1", response.getRequestId());
+                assertEquals("200", response.getStatus());
+                mockedStatusCB.execute(IotHubStatusCode.ERROR, any);
+                times = 0;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICEMETHOD_28_003: [**If the dispatched user callback failed or gave no response, the user shall be notified on the status callback registered by the user as ERROR.**]**
+     */
+    @Test
+    public void dispatchedNullResponseNotifiesError() throws IllegalArgumentException, InterruptedException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getDeviceMethodThreadPoolSize();
+                result = 2;
+                mockedConfig.getDeviceMethodMaxConcurrentInvocations();
+                result = 1;
+                mockedConfig.getDeviceMethodResponseTimeoutSecs();
+                result = 30L;
+                mockedDeviceMethodCB.call(anyString, any, any);
+                result = new RuntimeException("Test Exception");
+            }
+        };
+        DeviceMethod testMethod = new DeviceMethod(mockedDeviceIO, mockedConfig, mockedStatusCB, null);
+        testMethod.subscribeToDeviceMethod(mockedDeviceMethodCB, null);
+
+        DeviceMethodMessage testMessage = new DeviceMethodMessage("TestPayload".getBytes());
+        testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
+        testMessage.setMethodName("testMethod");
+
+        MessageCallback testDeviceMethodResponseMessageCallback = Deencapsulation.newInnerInstance("deviceMethodResponseCallback", testMethod);
+
+        //act
+        testDeviceMethodResponseMessageCallback.execute(testMessage, null);
+        waitForInvocations(testMethod);
+        testMethod.close();
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedStatusCB.execute(IotHubStatusCode.ERROR, any);
+                times = 1;
+                // only the subscribe request is sent.
+                mockedDeviceIO.sendEventAsync((Message)any, (IotHubEventCallback)any, any);
+                times = 1;
+            }
+        };
+    }
+
+    private static void waitForInvocations(DeviceMethod testMethod) throws InterruptedException
+    {
+        // the submitted invocations still run and answer after the pool is shut down.
+        DeviceMethodDispatcher dispatcher = Deencapsulation.getField(testMethod, "dispatcher");
+        ExecutorService executor = Deencapsulation.getField(dispatcher, "executor");
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /*
+    **Tests_SRS_DEVICEMETHOD_28_004: [**The close shall close the dispatcher, if any, and forget it.**]**
+     */
+    @Test
+    public void closeClosesDispatcher(@Mocked final DeviceMethodDispatcher mockedDispatcher) throws IllegalArgumentException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getDeviceMethodThreadPoolSize();
+                result = 2;
+            }
+        };
+        DeviceMethod testMethod = new DeviceMethod(mockedDeviceIO, mockedConfig, mockedStatusCB, null);
+        testMethod.subscribeToDeviceMethod(mockedDeviceMethodCB, null);
+
+        DeviceMethodMessage testMessage = new DeviceMethodMessage("TestPayload".getBytes());
+        testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
+        testMessage.setMethodName("testMethod");
+
+        MessageCallback testDeviceMethodResponseMessageCallback = Deencapsulation.newInnerInstance("deviceMethodResponseCallback", testMethod);
+        testDeviceMethodResponseMessageCallback.execute(testMessage, null);
+
+        //act
+        testMethod.close();
+        testMethod.close();
+
+        //assert
+        assertNull(Deencapsulation.getField(testMethod, "dispatcher"));
+        new Verifications()
+        {
+            {
+                mockedDispatcher.close();
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICEMETHOD_28_005: [**The callback shall invoke the handler registered for the method name if any, and the device method callback otherwise.**]**
+    **Tests_SRS_DEVICEMETHOD_28_007: [**The registerDeviceMethod shall register the handler with its codecs in the registry, and throw IllegalArgumentException if one of them is not valid.**]**
+     */
+    @Test
+    public void deviceMethodResponseCallbackInvokesRegisteredHandler() throws IllegalArgumentException
+    {
+        //arrange
+        DeviceMethod testMethod = new DeviceMethod(mockedDeviceIO, mockedConfig, mockedStatusCB, null);
+        testMethod.subscribeToDeviceMethod(mockedDeviceMethodCB, null);
+        testMethod.registerDeviceMethod("echo", DeviceMethodCodecs.STRING, DeviceMethodCodecs.BYTES, new DeviceMethodHandler<String, byte[]>()
+        {
+            @Override
+            public DeviceMethodResult<byte[]> call(String request, Object context)
+            {
+                return new DeviceMethodResult<>(200, (request + context).getBytes());
+            }
+        }, "!");
+
+        DeviceMethodMessage testMessage = new DeviceMethodMessage("{}".getBytes());
+        testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
+        testMessage.setMethodName("echo");
+        testMessage.setRequestId("2");
+
+        MessageCallback testDeviceMethodResponseMessageCallback = Deencapsulation.newInnerInstance("deviceMethodResponseCallback", testMethod);
+
+        //act
+        IotHubMessageResult result = testDeviceMethodResponseMessageCallback.execute(testMessage, null);
+
+        //assert
+        assertEquals(IotHubMessageResult.COMPLETE, result);
+        new Verifications()
+        {
+            {
+                mockedDeviceMethodCB.call(anyString, any, any);
+                times = 0;
+                List<Message> sentMessages = new ArrayList<>();
+                mockedDeviceIO.sendEventAsync(withCapture(sentMessages), (IotHubEventCallback)any, null);
+                times = 2;
+                DeviceMethodMessage response = (DeviceMethodMessage)sentMessages.get(1);
+                assertEquals("2", response.getRequestId());
+                assertEquals("200", response.getStatus());
+                assertArrayEquals("{}!".getBytes(), response.getBytes());
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICEMETHOD_28_005: [**The callback shall invoke the handler registered for the method name if any, and the device method callback otherwise.**]**
+     */
+    @Test
+    public void deviceMethodResponseCallbackFallsBackToDeviceMethodCallback() throws IllegalArgumentException
+    {
+        //arrange
+        DeviceMethod testMethod = new DeviceMethod(mockedDeviceIO, mockedConfig, mockedStatusCB, null);
+        testMethod.subscribeToDeviceMethod(mockedDeviceMethodCB, null);
+        testMethod.registerDeviceMethod("echo", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, new DeviceMethodHandler<String, String>()
+        {
+            @Override
+            public DeviceMethodResult<String> call(String request, Object context)
+            {
+                return new DeviceMethodResult<>(200, request);
+            }
+        }, null);
+
+        DeviceMethodMessage testMessage = new DeviceMethodMessage("{}".getBytes());
+        testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
+        testMessage.setMethodName("other");
+
+        final DeviceMethodData testUserData = new DeviceMethodData(100, "done");
+        new NonStrictExpectations()
+        {
+            {
+                mockedDeviceMethodCB.call(anyString, any, any);
+                result = testUserData;
+            }
+        };
+
+        MessageCallback testDeviceMethodResponseMessageCallback = Deencapsulation.newInnerInstance("deviceMethodResponseCallback", testMethod);
+
+        //act
+        IotHubMessageResult result = testDeviceMethodResponseMessageCallback.execute(testMessage, null);
+
+        //assert
+        assertEquals(IotHubMessageResult.COMPLETE, result);
+        new Verifications()
+        {
+            {
+                mockedDeviceMethodCB.call("other", any, any);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICEMETHOD_28_006: [**If the method has no registered handler and no device method callback is subscribed, the callback shall answer at once with the status 501, without calling user code, and mark the message as complete.**]**
+     */
+    @Test
+    public void deviceMethodResponseCallbackAnswersUnknownMethodWith501(@Mocked final DeviceMethodHandler<String, String> mockedHandler) throws IllegalArgumentException
+    {
+        //arrange
+        DeviceMethod testMethod = new DeviceMethod(mockedDeviceIO, mockedConfig, mockedStatusCB, null);
+        testMethod.registerDeviceMethod("echo", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, mockedHandler, null);
+
+        DeviceMethodMessage testMessage = new DeviceMethodMessage("{}".getBytes());
+        testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
+        testMessage.setMethodName("unknown");
+        testMessage.setRequestId("3");
+
+        MessageCallback testDeviceMethodResponseMessageCallback = Deencapsulation.newInnerInstance("deviceMethodResponseCallback", testMethod);
+
+        //act
+        IotHubMessageResult result = testDeviceMethodResponseMessageCallback.execute(testMessage, null);
+
+        //assert
+        assertEquals(IotHubMessageResult.COMPLETE, result);
+        new Verifications()
+        {
+            {
+                mockedHandler.call(anyString, any);
+                times = 0;
+                List<Message> sentMessages = new ArrayList<>();
+                mockedDeviceIO.sendEventAsync(withCapture(sentMessages), (IotHubEventCallback)any, null);
+                times = 2;
+                DeviceMethodMessage response = (DeviceMethodMessage)sentMessages.get(1);
+                assertEquals("3", response.getRequestId());
+                assertEquals(String.valueOf(DeviceMethod.METHOD_NOT_IMPLEMENTED_STATUS), response.getStatus());
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICEMETHOD_28_008: [**If it is the first handler and no device method callback is subscribed, the registerDeviceMethod shall subscribe to the device methods with the IotHub.**]**
+     */
+    @Test
+    public void registerDeviceMethodSubscribesOnce(@Mocked final DeviceMethodHandler<String, String> mockedHandler) throws IllegalArgumentException
+    {
+        //arrange
+        DeviceMethod testMethod = new DeviceMethod(mockedDeviceIO, mockedConfig, mockedStatusCB, null);
+
+        //act
+        testMethod.registerDeviceMethod("first", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, mockedHandler, null);
+        testMethod.registerDeviceMethod("second", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, mockedHandler, null);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message)any, (IotHubEventCallback)any, null);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICEMETHOD_28_007: [**The registerDeviceMethod shall register the handler with its codecs in the registry, and throw IllegalArgumentException if one of them is not valid.**]**
+     */
+    @Test (expected = IllegalArgumentException.class)
+    public void registerDeviceMethodThrowsIfHandlerNull() throws IllegalArgumentException
+    {
+        //arrange
+        DeviceMethod testMethod = new DeviceMethod(mockedDeviceIO, mockedConfig, mockedStatusCB, null);
+
+        //act
+        testMethod.registerDeviceMethod("first", DeviceMethodCodecs.STRING, DeviceMethodCodecs.STRING, null, null);
+    }
 }
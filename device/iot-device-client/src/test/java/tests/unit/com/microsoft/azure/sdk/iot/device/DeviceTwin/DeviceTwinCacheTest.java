@@ -0,0 +1,120 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceTwinCache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/* Unit tests for DeviceTwinCache
+ * 100% methods covered
+ */
+public class DeviceTwinCacheTest
+{
+    private static final String TWIN_JSON = "{\"desired\":{\"rate\":5,\"$version\":3},\"reported\":{\"$version\":7}}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Tests_SRS_DEVICETWINCACHE_28_001: [If the directory or the device id is null or empty, the constructor shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullDirectoryThrows()
+    {
+        new DeviceTwinCache(null, "device");
+    }
+
+    // Tests_SRS_DEVICETWINCACHE_28_001: [If the directory or the device id is null or empty, the constructor shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorEmptyDeviceIdThrows()
+    {
+        new DeviceTwinCache(folder.getRoot().getPath(), "");
+    }
+
+    // Tests_SRS_DEVICETWINCACHE_28_004: [If there is no cached twin, or it cannot be read, the load shall return null.]
+    // Tests_SRS_DEVICETWINCACHE_28_006: [If there is no cached twin, the getAgeMillis shall return Long.MAX_VALUE.]
+    @Test
+    public void loadWithoutCachedTwinReturnsNull()
+    {
+        // arrange
+        DeviceTwinCache cache = new DeviceTwinCache(folder.getRoot().getPath(), "device");
+
+        // act - assert
+        assertNull(cache.load());
+        assertEquals(Long.MAX_VALUE, cache.getAgeMillis());
+    }
+
+    // Tests_SRS_DEVICETWINCACHE_28_003: [The load shall return the json of the cached twin.]
+    // Tests_SRS_DEVICETWINCACHE_28_005: [The getAgeMillis shall return the time since the twin was last saved.]
+    // Tests_SRS_DEVICETWINCACHE_28_007: [The save shall write the twin to a temporary file, and then move it
+    // over the cached twin, so a crash never leaves a partial twin in the cache.]
+    @Test
+    public void saveThenLoadGivesTheTwin()
+    {
+        // arrange
+        File directory = new File(folder.getRoot(), "twins");
+        DeviceTwinCache cache = new DeviceTwinCache(directory.getPath(), "device");
+
+        // act
+        assertTrue(cache.save(TWIN_JSON));
+
+        // assert
+        assertEquals(TWIN_JSON, new DeviceTwinCache(directory.getPath(), "device").load());
+        assertTrue(cache.getAgeMillis() < 60000);
+        String[] files = directory.list();
+        assertEquals(1, files.length);
+    }
+
+    // Tests_SRS_DEVICETWINCACHE_28_002: [The constructor shall keep the twin in a file of the directory named after the encoded device id.]
+    @Test
+    public void devicesHaveTheirOwnTwinInTheDirectory()
+    {
+        // arrange
+        DeviceTwinCache first = new DeviceTwinCache(folder.getRoot().getPath(), "../device/one");
+        DeviceTwinCache second = new DeviceTwinCache(folder.getRoot().getPath(), "device-two");
+
+        // act
+        first.save(TWIN_JSON);
+        second.save("{}");
+
+        // assert
+        assertEquals(TWIN_JSON, first.load());
+        assertEquals("{}", second.load());
+        assertEquals(2, folder.getRoot().list().length);
+    }
+
+    // Tests_SRS_DEVICETWINCACHE_28_008: [If the twin cannot be written, the save shall keep the previous twin and return false.]
+    @Test
+    public void saveInFileInsteadOfDirectoryReturnsFalse() throws IOException
+    {
+        // arrange
+        File notADirectory = folder.newFile("twins");
+        DeviceTwinCache cache = new DeviceTwinCache(notADirectory.getPath(), "device");
+
+        // act - assert
+        assertFalse(cache.save(TWIN_JSON));
+        assertNull(cache.load());
+    }
+
+    // Tests_SRS_DEVICETWINCACHE_28_009: [The delete shall remove the cached twin, if any.]
+    @Test
+    public void deleteRemovesTheCachedTwin()
+    {
+        // arrange
+        DeviceTwinCache cache = new DeviceTwinCache(folder.getRoot().getPath(), "device");
+        cache.save(TWIN_JSON);
+
+        // act
+        cache.delete();
+        cache.delete();
+
+        // assert
+        assertNull(cache.load());
+    }
+}
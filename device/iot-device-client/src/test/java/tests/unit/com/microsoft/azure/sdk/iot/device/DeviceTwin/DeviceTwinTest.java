@@ -3,17 +3,23 @@
 
 package tests.unit.com.microsoft.azure.sdk.iot.device.DeviceTwin;
 
+import com.google.gson.JsonObject;
 import com.microsoft.azure.sdk.iot.deps.serializer.TwinChangedCallback;
 import com.microsoft.azure.sdk.iot.deps.serializer.TwinParser;
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.*;
 import mockit.*;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 import static org.junit.Assert.*;
@@ -32,6 +38,9 @@ public class DeviceTwinTest
     @Mocked
     PropertyCallBack mockedGenericPropertyCB;
 
+    @Rule
+    public TemporaryFolder twinCacheFolder = new TemporaryFolder();
+
     /*
     **Tests_SRS_DEVICETWIN_25_003: [**The constructor shall save all the parameters specified i.e client, config, deviceTwinCallback, genericPropertyCallback.**]**
      */
@@ -912,4 +921,747 @@ public class DeviceTwinTest
         };
     }
 
+
+    /* Records the status and context of each call, to check the callbacks of the reported properties updates. */
+    private static final class RecordingEventCallback implements IotHubEventCallback
+    {
+        private final List<IotHubStatusCode> statuses = new ArrayList<>();
+        private final List<Object> contexts = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(IotHubStatusCode responseStatus, Object callbackContext)
+        {
+            statuses.add(responseStatus);
+            contexts.add(callbackContext);
+        }
+    }
+
+    private static HashSet<Property> reportedProperties(String key, Object value)
+    {
+        HashSet<Property> reportedProp = new HashSet<>();
+        reportedProp.add(new Property(key, value));
+        return reportedProp;
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_026: [**The request id of the get request shall be unique across all the threads that send twin requests.**]**
+    **Tests_SRS_DEVICETWIN_28_027: [**The request id of the patch shall be unique across all the threads that send twin requests.**]**
+     */
+    @Test
+    public void requestIdsAreUniqueAcrossThreads(@Mocked final TwinParser mockedTwinParserObject) throws Exception
+    {
+        //arrange
+        final int requestsPerThread = 200;
+        new NonStrictExpectations()
+        {
+            {
+                mockedTwinParserObject.updateReportedProperty((HashMap<String, Object>) any);
+                result = "SerializedReportedProperties";
+            }
+        };
+        final DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        Thread getThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < requestsPerThread; i++)
+                {
+                    testTwin.getDeviceTwin();
+                }
+            }
+        });
+        final List<Exception> failures = new ArrayList<>();
+        Thread updateThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < requestsPerThread; i++)
+                {
+                    try
+                    {
+                        testTwin.updateReportedProperties(reportedProperties("temperature", i), null, null);
+                    }
+                    catch (IOException e)
+                    {
+                        failures.add(e);
+                    }
+                }
+            }
+        });
+
+        //act
+        getThread.start();
+        updateThread.start();
+        getThread.join();
+        updateThread.join();
+
+        //assert
+        assertTrue(failures.isEmpty());
+        final List<Message> sent = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync(withCapture(sent), (IotHubEventCallback) any, any);
+            }
+        };
+        Set<String> requestIds = new HashSet<>();
+        for (Message message : sent)
+        {
+            requestIds.add(((DeviceTwinMessage) message).getRequestId());
+        }
+        assertEquals(2 * requestsPerThread, sent.size());
+        assertEquals(2 * requestsPerThread, requestIds.size());
+    }
+
+    private static String pendingReportedPropertiesRequestId(DeviceTwin testTwin)
+    {
+        Map<String, ?> pendingCallbacks = Deencapsulation.getField(testTwin, "reportedPropertiesCallbacks");
+        assertEquals(1, pendingCallbacks.size());
+        return pendingCallbacks.keySet().iterator().next();
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_001: [**If the config has a coalescing window, the method shall merge the properties with the other updates of the window, the last value of a property wins, and keep the callback for the merged patch.**]**
+    **Tests_SRS_DEVICETWIN_28_008: [**The close shall send the merged patch of the current window, if any, and stop the coalescing timer.**]**
+     */
+    @Test
+    public void updateReportedPropCoalescesUpdatesOfTheWindow(@Mocked final TwinParser mockedTwinParserObject) throws IOException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReportedPropertiesCoalescingWindowMillis();
+                result = 60000L;
+                mockedConfig.getReportedPropertiesCoalescingMaxProperties();
+                result = 100;
+                mockedTwinParserObject.updateReportedProperty((HashMap<String, Object>) any);
+                result = "SerializedReportedProperties";
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        testTwin.updateReportedProperties(reportedProperties("temperature", 20));
+        testTwin.updateReportedProperties(reportedProperties("humidity", 40));
+        testTwin.updateReportedProperties(reportedProperties("temperature", 21));
+
+        Map<String, Object> coalesced = Deencapsulation.getField(testTwin, "coalescedReportedProperties");
+        assertEquals(2, coalesced.size());
+        assertEquals(21, coalesced.get("temperature"));
+        assertEquals(40, coalesced.get("humidity"));
+
+        //act
+        testTwin.close();
+
+        //assert
+        assertTrue(((Map<String, Object>) Deencapsulation.getField(testTwin, "coalescedReportedProperties")).isEmpty());
+        final List<HashMap<String, Object>> serialized = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockedTwinParserObject.updateReportedProperty(withCapture(serialized));
+                times = 1;
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, null);
+                times = 1;
+            }
+        };
+        assertEquals(21, serialized.get(0).get("temperature"));
+        assertEquals(40, serialized.get(0).get("humidity"));
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_002: [**If the merged properties reach the size limit of the config, the method shall send the merged patch at once.**]**
+     */
+    @Test
+    public void updateReportedPropSendsAtOnceWhenSizeLimitIsReached(@Mocked final TwinParser mockedTwinParserObject) throws IOException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReportedPropertiesCoalescingWindowMillis();
+                result = 60000L;
+                mockedConfig.getReportedPropertiesCoalescingMaxProperties();
+                result = 2;
+                mockedTwinParserObject.updateReportedProperty((HashMap<String, Object>) any);
+                result = "SerializedReportedProperties";
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        testTwin.updateReportedProperties(reportedProperties("temperature", 20));
+
+        //act
+        testTwin.updateReportedProperties(reportedProperties("humidity", 40));
+
+        //assert
+        assertTrue(((Map<String, Object>) Deencapsulation.getField(testTwin, "coalescedReportedProperties")).isEmpty());
+        assertNull(Deencapsulation.getField(testTwin, "coalescingFlush"));
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, null);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_003: [**The first update of a window shall schedule the merged patch to be sent when the window ends.**]**
+     */
+    @Test
+    public void updateReportedPropSendsWhenTheWindowEnds(@Mocked final TwinParser mockedTwinParserObject) throws IOException, InterruptedException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReportedPropertiesCoalescingWindowMillis();
+                result = 50L;
+                mockedConfig.getReportedPropertiesCoalescingMaxProperties();
+                result = 100;
+                mockedTwinParserObject.updateReportedProperty((HashMap<String, Object>) any);
+                result = "SerializedReportedProperties";
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        RecordingEventCallback reportedCallback = new RecordingEventCallback();
+
+        //act
+        testTwin.updateReportedProperties(reportedProperties("temperature", 20), reportedCallback, null);
+
+        //assert
+        Map<String, ?> pendingCallbacks = Deencapsulation.getField(testTwin, "reportedPropertiesCallbacks");
+        for (int i = 0; i < 500 && pendingCallbacks.isEmpty(); i++)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(1, pendingCallbacks.size());
+        testTwin.close();
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, anyString);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_006: [**If the response has the request id of a patch, the callbacks of all the updates merged in the patch shall be triggered with the status of the response.**]**
+     */
+    @Test
+    public void updateReportedPropResponseTriggersCallbacksOfMergedUpdates(@Mocked final TwinParser mockedTwinParserObject) throws IOException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReportedPropertiesCoalescingWindowMillis();
+                result = 60000L;
+                mockedConfig.getReportedPropertiesCoalescingMaxProperties();
+                result = 100;
+                mockedTwinParserObject.updateReportedProperty((HashMap<String, Object>) any);
+                result = "SerializedReportedProperties";
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        RecordingEventCallback reportedCallback = new RecordingEventCallback();
+        testTwin.updateReportedProperties(reportedProperties("temperature", 20), reportedCallback, "first");
+        testTwin.updateReportedProperties(reportedProperties("humidity", 40), reportedCallback, "second");
+        testTwin.close();
+        assertTrue(reportedCallback.statuses.isEmpty());
+
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        DeviceTwinMessage testMessage = new DeviceTwinMessage(new byte[0]);
+        testMessage.setStatus(String.valueOf(204));
+        testMessage.setRequestId(pendingReportedPropertiesRequestId(testTwin));
+        testMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+
+        //act
+        deviceTwinResponseMessageCallback.execute(testMessage, null);
+
+        //assert
+        assertEquals(2, reportedCallback.statuses.size());
+        assertEquals(IotHubStatusCode.OK_EMPTY, reportedCallback.statuses.get(0));
+        assertEquals(IotHubStatusCode.OK_EMPTY, reportedCallback.statuses.get(1));
+        assertEquals("first", reportedCallback.contexts.get(0));
+        assertEquals("second", reportedCallback.contexts.get(1));
+        assertTrue(((Map<String, ?>) Deencapsulation.getField(testTwin, "reportedPropertiesCallbacks")).isEmpty());
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_005: [**If no reported property changed its value, no patch shall be sent and the callbacks of the updates shall be triggered as OK.**]**
+     */
+    @Test
+    public void updateReportedPropWithoutChangeTriggersCallbackOK(@Mocked final TwinParser mockedTwinParserObject) throws IOException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedTwinParserObject.updateReportedProperty((HashMap<String, Object>) any);
+                result = null;
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        RecordingEventCallback reportedCallback = new RecordingEventCallback();
+
+        //act
+        testTwin.updateReportedProperties(reportedProperties("temperature", 20), reportedCallback, "context");
+
+        //assert
+        assertEquals(1, reportedCallback.statuses.size());
+        assertEquals(IotHubStatusCode.OK, reportedCallback.statuses.get(0));
+        assertEquals("context", reportedCallback.contexts.get(0));
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, any);
+                times = 0;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_007: [**If a patch could not be delivered, the callbacks of all the updates merged in the patch shall be triggered with the status of the delivery.**]**
+     */
+    @Test
+    public void updateReportedPropUndeliveredTriggersCallbackWithDeliveryStatus(@Mocked final TwinParser mockedTwinParserObject) throws IOException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedTwinParserObject.updateReportedProperty((HashMap<String, Object>) any);
+                result = "SerializedReportedProperties";
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        RecordingEventCallback reportedCallback = new RecordingEventCallback();
+        testTwin.updateReportedProperties(reportedProperties("temperature", 20), reportedCallback, "context");
+        String requestId = pendingReportedPropertiesRequestId(testTwin);
+        IotHubEventCallback deviceTwinRequestMessageCallback = Deencapsulation.newInnerInstance("deviceTwinRequestMessageCallback", testTwin);
+
+        //act
+        deviceTwinRequestMessageCallback.execute(IotHubStatusCode.MESSAGE_EXPIRED, requestId);
+
+        //assert
+        assertEquals(1, reportedCallback.statuses.size());
+        assertEquals(IotHubStatusCode.MESSAGE_EXPIRED, reportedCallback.statuses.get(0));
+        assertEquals("context", reportedCallback.contexts.get(0));
+        assertTrue(((Map<String, ?>) Deencapsulation.getField(testTwin, "reportedPropertiesCallbacks")).isEmpty());
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_004: [**If the merged patch cannot be serialized or sent, the callbacks of all the updates merged in the patch shall be triggered as ERROR.**]**
+     */
+    @Test
+    public void closeTriggersCallbacksAsErrorIfMergedPatchCannotBeSent(@Mocked final TwinParser mockedTwinParserObject) throws IOException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getReportedPropertiesCoalescingWindowMillis();
+                result = 60000L;
+                mockedConfig.getReportedPropertiesCoalescingMaxProperties();
+                result = 100;
+                mockedTwinParserObject.updateReportedProperty((HashMap<String, Object>) any);
+                result = new IllegalArgumentException();
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        RecordingEventCallback reportedCallback = new RecordingEventCallback();
+        testTwin.updateReportedProperties(reportedProperties("temperature", 20), reportedCallback, null);
+
+        //act
+        testTwin.close();
+
+        //assert
+        assertEquals(1, reportedCallback.statuses.size());
+        assertEquals(IotHubStatusCode.ERROR, reportedCallback.statuses.get(0));
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_022: [**If the connection drops, the callbacks of the updates merged in the patches delivered but not answered yet shall be triggered as ERROR.**]**
+    **Tests_SRS_DEVICETWIN_28_023: [**Once the connection is closed, the callbacks of the updates merged in the patches not answered yet shall be triggered as MESSAGE_CANCELLED_ONCLOSE.**]**
+     */
+    @Test
+    public void connectionLostFailsDeliveredPatchesAndConnectionClosedFailsTheOthers(@Mocked final TwinParser mockedTwinParserObject) throws IOException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedTwinParserObject.updateReportedProperty((HashMap<String, Object>) any);
+                result = "SerializedReportedProperties";
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        RecordingEventCallback reportedCallback = new RecordingEventCallback();
+        testTwin.updateReportedProperties(reportedProperties("temperature", 20), reportedCallback, "delivered");
+        String deliveredRequestId = pendingReportedPropertiesRequestId(testTwin);
+        testTwin.updateReportedProperties(reportedProperties("humidity", 40), reportedCallback, "queued");
+        IotHubEventCallback deviceTwinRequestMessageCallback = Deencapsulation.newInnerInstance("deviceTwinRequestMessageCallback", testTwin);
+        deviceTwinRequestMessageCallback.execute(IotHubStatusCode.OK_EMPTY, deliveredRequestId);
+
+        //act
+        testTwin.connectionLost();
+
+        //assert
+        assertEquals(1, reportedCallback.statuses.size());
+        assertEquals(IotHubStatusCode.ERROR, reportedCallback.statuses.get(0));
+        assertEquals("delivered", reportedCallback.contexts.get(0));
+
+        //act
+        testTwin.connectionClosed();
+
+        //assert
+        assertEquals(2, reportedCallback.statuses.size());
+        assertEquals(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, reportedCallback.statuses.get(1));
+        assertEquals("queued", reportedCallback.contexts.get(1));
+        assertTrue(((Map<String, ?>) Deencapsulation.getField(testTwin, "reportedPropertiesCallbacks")).isEmpty());
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_021: [**The callbacks of the reported properties updates shall be triggered after the twin released its locks.**]**
+     */
+    @Test
+    public void reportedPropertiesCallbacksRunWithoutTwinLocks(@Mocked final TwinParser mockedTwinParserObject) throws IOException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedTwinParserObject.updateReportedProperty((HashMap<String, Object>) any);
+                returns(null, "SerializedReportedProperties");
+            }
+        };
+        final DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        final Object twinLock = Deencapsulation.getField(testTwin, "DEVICE_TWIN_LOCK");
+        final Object reportedLock = Deencapsulation.getField(testTwin, "REPORTED_PROPERTIES_LOCK");
+        final List<Boolean> heldLocks = new ArrayList<>();
+        IotHubEventCallback reportedCallback = new IotHubEventCallback()
+        {
+            @Override
+            public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+            {
+                heldLocks.add(Thread.holdsLock(reportedLock) || Thread.holdsLock(twinLock));
+            }
+        };
+
+        //act
+        testTwin.updateReportedProperties(reportedProperties("temperature", 20), reportedCallback, null);
+        testTwin.updateReportedProperties(reportedProperties("humidity", 40), reportedCallback, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        DeviceTwinMessage testMessage = new DeviceTwinMessage(new byte[0]);
+        testMessage.setStatus(String.valueOf(204));
+        testMessage.setRequestId(pendingReportedPropertiesRequestId(testTwin));
+        testMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+        deviceTwinResponseMessageCallback.execute(testMessage, null);
+
+        //assert
+        assertEquals(2, heldLocks.size());
+        assertFalse(heldLocks.get(0));
+        assertFalse(heldLocks.get(1));
+    }
+
+    /* Records the desired properties notified to the generic callback. */
+    private static final class RecordingPropertyCallBack implements PropertyCallBack<String, Object>
+    {
+        private final Map<String, Object> properties = new HashMap<>();
+
+        @Override
+        public void PropertyCall(String propertyKey, Object propertyValue, Object context)
+        {
+            properties.put(propertyKey, propertyValue);
+        }
+    }
+
+    private DeviceTwin twinWithCache(String cachedTwin, final long maxAgeSecs, PropertyCallBack<String, Object> genericPropertyCB) throws IOException
+    {
+        final String directory = twinCacheFolder.getRoot().getPath();
+        if (cachedTwin != null)
+        {
+            new DeviceTwinCache(directory, "device").save(cachedTwin);
+        }
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getTwinCacheDirectory();
+                result = directory;
+                mockedConfig.getDeviceId();
+                result = "device";
+                mockedConfig.getTwinCacheMaxAgeSecs();
+                result = maxAgeSecs;
+            }
+        };
+        return new DeviceTwin(mockedDeviceIO, mockedConfig, mockedStatusCB, null, genericPropertyCB, null);
+    }
+
+    private static DeviceTwinMessage twinMessage(String body, DeviceOperations operation)
+    {
+        DeviceTwinMessage testMessage = new DeviceTwinMessage(body.getBytes());
+        testMessage.setDeviceOperationType(operation);
+        return testMessage;
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_009: [**If the config has a twin cache directory, the constructor shall create the cache of the twin of the device in this directory.**]**
+    **Tests_SRS_DEVICETWIN_28_010: [**The first getDeviceTwin shall give the cached twin, if any, to the serializer, which notifies its desired properties.**]**
+    **Tests_SRS_DEVICETWIN_28_011: [**If the cached twin has a desired properties version and is younger than the twin cache age of the config, the first getDeviceTwin shall trigger the status callback with OK without requesting the twin from the IoT Hub.**]**
+     */
+    @Test
+    public void getDeviceTwinWithFreshCacheDoesNotRequestTheTwin() throws IOException
+    {
+        //arrange
+        RecordingPropertyCallBack propertyCB = new RecordingPropertyCallBack();
+        DeviceTwin testTwin = twinWithCache("{\"desired\":{\"mode\":\"eco\",\"$version\":3},\"reported\":{\"$version\":7}}", 3600L, propertyCB);
+
+        //act
+        testTwin.getDeviceTwin();
+
+        //assert
+        assertEquals("eco", propertyCB.properties.get("mode"));
+        new Verifications()
+        {
+            {
+                mockedStatusCB.execute(IotHubStatusCode.OK, null);
+                times = 1;
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, any);
+                times = 0;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_010: [**The first getDeviceTwin shall give the cached twin, if any, to the serializer, which notifies its desired properties.**]**
+    **Tests_SRS_DEVICETWIN_28_012: [**If the twin started from the cached twin, the properties of the cached twin missing from the received twin shall be notified as removed, and the properties with the same value shall not be notified again.**]**
+    **Tests_SRS_DEVICETWIN_28_015: [**If the twin cache is enabled, the twin shall be saved in the cache each time the IoT Hub confirms a change of its properties.**]**
+     */
+    @Test
+    public void getDeviceTwinResponseNotifiesOnlyChangesFromCache() throws IOException
+    {
+        //arrange
+        RecordingPropertyCallBack propertyCB = new RecordingPropertyCallBack();
+        DeviceTwin testTwin = twinWithCache("{\"desired\":{\"mode\":\"eco\",\"level\":\"high\",\"$version\":3},\"reported\":{\"$version\":7}}", 0L, propertyCB);
+        testTwin.getDeviceTwin();
+        assertEquals("eco", propertyCB.properties.get("mode"));
+        propertyCB.properties.clear();
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        DeviceTwinMessage testMessage = twinMessage("{\"desired\":{\"mode\":\"eco\",\"rate\":\"fast\",\"$version\":4},\"reported\":{\"$version\":7}}",
+                DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE);
+        testMessage.setStatus(String.valueOf(200));
+
+        //act
+        deviceTwinResponseMessageCallback.execute(testMessage, null);
+
+        //assert
+        assertEquals(2, propertyCB.properties.size());
+        assertTrue(propertyCB.properties.containsKey("level"));
+        assertNull(propertyCB.properties.get("level"));
+        assertEquals("fast", propertyCB.properties.get("rate"));
+        String cachedTwin = new DeviceTwinCache(twinCacheFolder.getRoot().getPath(), "device").load();
+        assertTrue(cachedTwin.contains("\"$version\":4"));
+        assertTrue(cachedTwin.contains("\"rate\":\"fast\""));
+        assertFalse(cachedTwin.contains("level"));
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, any);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_013: [**If the twin cache is enabled, a desired properties patch with a version not newer than the version of the twin shall be ignored.**]**
+    **Tests_SRS_DEVICETWIN_28_014: [**If the twin cache is enabled and a desired properties patch skips a version, the twin shall be requested again from the IoT Hub.**]**
+     */
+    @Test
+    public void desiredPatchesAreAppliedOnlyIfNewerThanTheCachedTwin() throws IOException
+    {
+        //arrange
+        RecordingPropertyCallBack propertyCB = new RecordingPropertyCallBack();
+        DeviceTwin testTwin = twinWithCache("{\"desired\":{\"mode\":\"eco\",\"$version\":3},\"reported\":{\"$version\":7}}", 3600L, propertyCB);
+        testTwin.getDeviceTwin();
+        propertyCB.properties.clear();
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        DeviceTwinMessage oldPatch = twinMessage("{\"mode\":\"off\",\"$version\":3}",
+                DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE);
+        oldPatch.setVersion("3");
+        DeviceTwinMessage newPatch = twinMessage("{\"mode\":\"off\",\"$version\":5}",
+                DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE);
+        newPatch.setVersion("5");
+
+        //act
+        deviceTwinResponseMessageCallback.execute(oldPatch, null);
+        assertTrue(propertyCB.properties.isEmpty());
+        deviceTwinResponseMessageCallback.execute(newPatch, null);
+
+        //assert
+        assertEquals("off", propertyCB.properties.get("mode"));
+        assertTrue(new DeviceTwinCache(twinCacheFolder.getRoot().getPath(), "device").load().contains("\"$version\":5"));
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, any);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_010: [**The first getDeviceTwin shall give the cached twin, if any, to the serializer, which notifies its desired properties.**]**
+     */
+    @Test
+    public void getDeviceTwinWithCorruptedCacheRequestsTheTwin() throws IOException
+    {
+        //arrange
+        RecordingPropertyCallBack propertyCB = new RecordingPropertyCallBack();
+        DeviceTwin testTwin = twinWithCache("{\"desired\":", 3600L, propertyCB);
+
+        //act
+        testTwin.getDeviceTwin();
+
+        //assert
+        assertTrue(propertyCB.properties.isEmpty());
+        assertNull(new DeviceTwinCache(twinCacheFolder.getRoot().getPath(), "device").load());
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, any);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_016: [**The constructor shall create the index of the desired property paths, which runs their callbacks on a pool of the desired property thread pool size of the config.**]**
+    **Tests_SRS_DEVICETWIN_28_017: [**The method shall subscribe each path to the index of the desired property paths, with the generic callback and its context if the callback of the path is null.**]**
+    **Tests_SRS_DEVICETWIN_28_018: [**OnDesiredPropertyChange callback shall not notify a top level desired property under which a path is subscribed, as the path subscriptions are notified of its changes.**]**
+    **Tests_SRS_DEVICETWIN_28_019: [**The desired properties of the twin and the desired properties patches shall be given to the index of the desired property paths, which notifies the subscribed paths whose value changed.**]**
+     */
+    @Test
+    public void desiredPatchNotifiesOnlyTheChangedPaths() throws IOException
+    {
+        //arrange
+        RecordingPropertyCallBack genericCB = new RecordingPropertyCallBack();
+        RecordingPropertyCallBack rateCB = new RecordingPropertyCallBack();
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig, mockedStatusCB, null, genericCB, null);
+        Map<String, Pair<PropertyCallBack<String, Object>, Object>> pathMap = new HashMap<>();
+        pathMap.put("config.sampling.rateHz", new Pair<PropertyCallBack<String, Object>, Object>(rateCB, null));
+        pathMap.put("config.sampling.mode", null);
+        testTwin.subscribeDesiredPropertyPathsNotification(pathMap);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        deviceTwinResponseMessageCallback.execute(twinMessage("{\"config\":{\"sampling\":{\"rateHz\":5,\"mode\":\"fast\"}},\"$version\":2}",
+                DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE), null);
+        assertEquals("fast", genericCB.properties.get("config.sampling.mode"));
+        genericCB.properties.clear();
+        rateCB.properties.clear();
+
+        //act
+        deviceTwinResponseMessageCallback.execute(twinMessage("{\"config\":{\"sampling\":{\"rateHz\":10}},\"other\":1,\"$version\":3}",
+                DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE), null);
+
+        //assert
+        assertEquals(1, rateCB.properties.size());
+        assertEquals("10", rateCB.properties.get("config.sampling.rateHz"));
+        assertEquals(1, genericCB.properties.size());
+        assertTrue(genericCB.properties.containsKey("other"));
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, any);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_024: [**A desired properties patch shall be parsed for the index only if the serializer notified a change of a top level property under which a path is subscribed.**]**
+     */
+    @Test
+    public void desiredPatchIsGivenToTheIndexOnlyIfASubscribedPropertyChanged() throws IOException
+    {
+        //arrange
+        RecordingPropertyCallBack genericCB = new RecordingPropertyCallBack();
+        RecordingPropertyCallBack rateCB = new RecordingPropertyCallBack();
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig, mockedStatusCB, null, genericCB, null);
+        Map<String, Pair<PropertyCallBack<String, Object>, Object>> pathMap = new HashMap<>();
+        pathMap.put("config.sampling.rateHz", new Pair<PropertyCallBack<String, Object>, Object>(rateCB, null));
+        testTwin.subscribeDesiredPropertyPathsNotification(pathMap);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        new Expectations(DesiredPropertyPathIndex.class)
+        {
+        };
+
+        //act
+        deviceTwinResponseMessageCallback.execute(twinMessage("{\"other\":1,\"$version\":2}",
+                DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE), null);
+        deviceTwinResponseMessageCallback.execute(twinMessage("{\"config\":{\"sampling\":{\"rateHz\":5}},\"other\":1,\"$version\":3}",
+                DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE), null);
+
+        //assert
+        assertTrue(genericCB.properties.containsKey("other"));
+        assertEquals("5", rateCB.properties.get("config.sampling.rateHz"));
+        final DesiredPropertyPathIndex index = Deencapsulation.getField(testTwin, "desiredPropertyPaths");
+        new Verifications()
+        {
+            {
+                index.applyPatch((JsonObject) any);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_019: [**The desired properties of the twin and the desired properties patches shall be given to the index of the desired property paths, which notifies the subscribed paths whose value changed.**]**
+     */
+    @Test
+    public void getDeviceTwinResponseNotifiesTheSubscribedPaths() throws IOException
+    {
+        //arrange
+        RecordingPropertyCallBack rateCB = new RecordingPropertyCallBack();
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig, mockedStatusCB, null, new RecordingPropertyCallBack(), null);
+        Map<String, Pair<PropertyCallBack<String, Object>, Object>> pathMap = new HashMap<>();
+        pathMap.put("config.sampling.rateHz", new Pair<PropertyCallBack<String, Object>, Object>(rateCB, null));
+        testTwin.subscribeDesiredPropertyPathsNotification(pathMap);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        DeviceTwinMessage testMessage = twinMessage("{\"desired\":{\"config\":{\"sampling\":{\"rateHz\":5}},\"$version\":4},\"reported\":{\"$version\":7}}",
+                DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE);
+        testMessage.setStatus(String.valueOf(200));
+
+        //act
+        deviceTwinResponseMessageCallback.execute(testMessage, null);
+
+        //assert
+        assertEquals("5", rateCB.properties.get("config.sampling.rateHz"));
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_28_017: [**The method shall subscribe each path to the index of the desired property paths, with the generic callback and its context if the callback of the path is null.**]**
+     */
+    @Test (expected = IllegalArgumentException.class)
+    public void subscribeToDesiredPathWithEmptySegmentThrows() throws IOException
+    {
+        //arrange
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig, mockedStatusCB, null, mockedGenericPropertyCB, null);
+        Map<String, Pair<PropertyCallBack<String, Object>, Object>> pathMap = new HashMap<>();
+        pathMap.put("config..rateHz", null);
+
+        //act
+        testTwin.subscribeDesiredPropertyPathsNotification(pathMap);
+    }
 }
@@ -0,0 +1,117 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.IotHubDecorrelatedJitterBackoff;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/* Unit tests for IotHubDecorrelatedJitterBackoff */
+public class IotHubDecorrelatedJitterBackoffTest
+{
+    private static final int SAMPLES = 1000;
+
+    // Tests_SRS_IOTHUBDECORRELATEDJITTERBACKOFF_28_001: [If the base delay is zero or negative, or if the maximum delay
+    // is below the base delay, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroBaseDelay()
+    {
+        new IotHubDecorrelatedJitterBackoff(0, 1000);
+    }
+
+    // Tests_SRS_IOTHUBDECORRELATEDJITTERBACKOFF_28_001: [If the base delay is zero or negative, or if the maximum delay
+    // is below the base delay, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnMaxDelayBelowBaseDelay()
+    {
+        new IotHubDecorrelatedJitterBackoff(1000, 999);
+    }
+
+    // Tests_SRS_IOTHUBDECORRELATEDJITTERBACKOFF_28_002: [The constructor shall save the base and the maximum delays.]
+    @Test
+    public void constructorSavesDelays()
+    {
+        //act
+        IotHubDecorrelatedJitterBackoff defaultBackoff = new IotHubDecorrelatedJitterBackoff();
+        IotHubDecorrelatedJitterBackoff backoff = new IotHubDecorrelatedJitterBackoff(10, 100);
+
+        //assert
+        assertEquals(IotHubDecorrelatedJitterBackoff.DEFAULT_BASE_DELAY_MILLIS, defaultBackoff.getBaseDelayMillis());
+        assertEquals(IotHubDecorrelatedJitterBackoff.DEFAULT_MAX_DELAY_MILLIS, defaultBackoff.getMaxDelayMillis());
+        assertEquals(10, backoff.getBaseDelayMillis());
+        assertEquals(100, backoff.getMaxDelayMillis());
+    }
+
+    // Tests_SRS_IOTHUBDECORRELATEDJITTERBACKOFF_28_003: [The function shall return a random delay between the base delay
+    // and three times the previous delay, or three times the base delay if there is no previous delay.]
+    @Test
+    public void getDelayMillisStaysBetweenBaseAndThreeTimesPreviousDelay()
+    {
+        //arrange
+        IotHubDecorrelatedJitterBackoff backoff = new IotHubDecorrelatedJitterBackoff(100, 100000);
+
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            //act
+            long firstDelay = backoff.getDelayMillis(1, 0);
+            long nextDelay = backoff.getDelayMillis(2, 500);
+
+            //assert
+            assertTrue(firstDelay >= 100 && firstDelay <= 300);
+            assertTrue(nextDelay >= 100 && nextDelay <= 1500);
+        }
+    }
+
+    // Tests_SRS_IOTHUBDECORRELATEDJITTERBACKOFF_28_003: [The function shall return a random delay between the base delay
+    // and three times the previous delay, or three times the base delay if there is no previous delay.]
+    @Test
+    public void getDelayMillisSpreadsDelays()
+    {
+        //arrange
+        IotHubDecorrelatedJitterBackoff backoff = new IotHubDecorrelatedJitterBackoff(100, 100000);
+        long firstDelay = backoff.getDelayMillis(2, 10000);
+
+        //act
+        boolean spread = false;
+        for (int i = 0; i < SAMPLES && !spread; i++)
+        {
+            spread = backoff.getDelayMillis(2, 10000) != firstDelay;
+        }
+
+        //assert
+        assertTrue(spread);
+    }
+
+    // Tests_SRS_IOTHUBDECORRELATEDJITTERBACKOFF_28_004: [The function shall never return more than the maximum delay.]
+    @Test
+    public void getDelayMillisNeverExceedsMaxDelay()
+    {
+        //arrange
+        IotHubDecorrelatedJitterBackoff backoff = new IotHubDecorrelatedJitterBackoff(100, 1000);
+
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            //act
+            long delay = backoff.getDelayMillis(i + 1, Long.MAX_VALUE / 2);
+
+            //assert
+            assertTrue(delay >= 100 && delay <= 1000);
+        }
+    }
+
+    // Tests_SRS_IOTHUBDECORRELATEDJITTERBACKOFF_28_004: [The function shall never return more than the maximum delay.]
+    @Test
+    public void getDelayMillisReturnsBaseDelayWhenEqualToMaxDelay()
+    {
+        //arrange
+        IotHubDecorrelatedJitterBackoff backoff = new IotHubDecorrelatedJitterBackoff(500, 500);
+
+        //act
+        long delay = backoff.getDelayMillis(3, 500);
+
+        //assert
+        assertEquals(500, delay);
+    }
+}
@@ -9,6 +9,7 @@ import mockit.*;
 import org.junit.Test;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import java.io.FileNotFoundException;
@@ -19,6 +20,7 @@ import java.security.cert.CertificateException;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 public class IotHubSSLContextTest
@@ -323,4 +325,38 @@ public class IotHubSSLContextTest
         assertNotNull(Deencapsulation.invoke(testContext, "getIotHubSSlContext"));
         testCollection.remove(mockedCertificate);
     }
+
+    //Tests_SRS_IOTHUBSSLCONTEXT_28_001: [The constructor shall create the socket factory of the SSL context once.]
+    //Tests_SRS_IOTHUBSSLCONTEXT_28_002: [This method shall return the socket factory created by the constructor.]
+    @Test
+    public void getIotHubSocketFactoryReturnsTheSameFactory(@Mocked final SSLSocketFactory mockedSocketFactory) throws NoSuchAlgorithmException, KeyStoreException, KeyManagementException, IOException, CertificateException
+    {
+        //arrange
+        testCollection.add(mockedCertificate);
+        generateSSLContextExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockedSSLContext.getSocketFactory();
+                result = mockedSocketFactory;
+            }
+        };
+        IotHubSSLContext testContext = Deencapsulation.newInstance(IotHubSSLContext.class);
+
+        //act
+        SSLSocketFactory firstFactory = testContext.getIotHubSocketFactory();
+        SSLSocketFactory secondFactory = testContext.getIotHubSocketFactory();
+
+        //assert
+        assertEquals(mockedSocketFactory, firstFactory);
+        assertEquals(mockedSocketFactory, secondFactory);
+        new Verifications()
+        {
+            {
+                mockedSSLContext.getSocketFactory();
+                times = 1;
+            }
+        };
+        testCollection.remove(mockedCertificate);
+    }
 }
@@ -35,6 +35,17 @@ public class MessageTest
         assertThat(testBody, is(expectedBody));
     }
 
+    // Tests_SRS_MESSAGE_28_001: [The function shall return the number of bytes in the message body, or 0 if the body is null.]
+    @Test
+    public void getBodyLengthReturnsBodySize()
+    {
+        final byte[] body = { 1, 2, 3 };
+
+        Message msg = new Message(body);
+
+        assertThat(msg.getBodyLength(), is(3));
+    }
+
     // Tests_SRS_MESSAGE_11_025: [If the message body is null, the constructor shall throw an IllegalArgumentException.]
     @Test(expected = IllegalArgumentException.class)
     public void constructorRejectsNullBody()
@@ -0,0 +1,290 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.auth;
+
+import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenProvider;
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for IotHubSasTokenProvider. */
+public class IotHubSasTokenProviderTest
+{
+    @Mocked
+    DeviceClientConfig mockConfig;
+    @Mocked
+    IotHubSasToken mockToken;
+
+    private static final String TOKEN = "SharedAccessSignature sig=sig&se=1&sr=uri";
+    private static final long TOKEN_VALID_SECS = 3600L;
+
+    private void deviceKeyExpectations()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getDeviceKey();
+                result = "device-key";
+                mockConfig.getTokenValidSecs();
+                result = TOKEN_VALID_SECS;
+                mockToken.toString();
+                result = TOKEN;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_28_001: [If the config is null, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullConfig()
+    {
+        new IotHubSasTokenProvider(null);
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_28_004: [If there is no cached token, if the renewal time of the cached token
+    // is reached, or if the token valid time of the config changed, the function shall sign a new SAS token valid for
+    // the token valid time of the config, and cache it.]
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_28_006: [The function shall return the cached token.]
+    @Test
+    public void getSasTokenReusesTheCachedToken()
+    {
+        // arrange
+        deviceKeyExpectations();
+        IotHubSasTokenProvider provider = new IotHubSasTokenProvider(mockConfig);
+
+        // act
+        String firstToken = provider.getSasToken();
+        String secondToken = provider.getSasToken();
+
+        // assert
+        assertEquals(TOKEN, firstToken);
+        assertEquals(TOKEN, secondToken);
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_28_004: [If there is no cached token, if the renewal time of the cached token
+    // is reached, or if the token valid time of the config changed, the function shall sign a new SAS token valid for
+    // the token valid time of the config, and cache it.]
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_28_005: [The renewal time of the token shall be its expiry time minus a
+    // tenth of its valid time.]
+    @Test
+    public void getSasTokenSignsTokenValidForTheConfiguredTime()
+    {
+        // arrange
+        deviceKeyExpectations();
+        IotHubSasTokenProvider provider = new IotHubSasTokenProvider(mockConfig);
+        long startTime = System.currentTimeMillis() / 1000L;
+
+        // act
+        provider.getSasToken();
+
+        // assert
+        long endTime = System.currentTimeMillis() / 1000L;
+        final List<Long> expiryTimes = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, withCapture(expiryTimes));
+            }
+        };
+        long expiryTime = expiryTimes.get(0);
+        assertTrue(expiryTime >= startTime + TOKEN_VALID_SECS + 1L);
+        assertTrue(expiryTime <= endTime + TOKEN_VALID_SECS + 1L);
+        long renewalTime = Deencapsulation.getField(provider, "renewalTime");
+        assertEquals(expiryTime - TOKEN_VALID_SECS / 10L, renewalTime);
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_28_004: [If there is no cached token, if the renewal time of the cached token
+    // is reached, or if the token valid time of the config changed, the function shall sign a new SAS token valid for
+    // the token valid time of the config, and cache it.]
+    @Test
+    public void getSasTokenRenewsTokenOnceRenewalTimeIsReached()
+    {
+        // arrange
+        deviceKeyExpectations();
+        IotHubSasTokenProvider provider = new IotHubSasTokenProvider(mockConfig);
+        provider.getSasToken();
+        Deencapsulation.setField(provider, "renewalTime", 0L);
+
+        // act
+        provider.getSasToken();
+
+        // assert
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_28_004: [If there is no cached token, if the renewal time of the cached token
+    // is reached, or if the token valid time of the config changed, the function shall sign a new SAS token valid for
+    // the token valid time of the config, and cache it.]
+    @Test
+    public void getSasTokenRenewsTokenIfTokenValidTimeChanged()
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getDeviceKey();
+                result = "device-key";
+                mockConfig.getTokenValidSecs();
+                returns(TOKEN_VALID_SECS, 60L);
+                mockToken.toString();
+                result = TOKEN;
+            }
+        };
+        IotHubSasTokenProvider provider = new IotHubSasTokenProvider(mockConfig);
+        provider.getSasToken();
+
+        // act
+        provider.getSasToken();
+
+        // assert
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_28_003: [If the config has no device key, the function shall return a new
+    // SAS token built from the config.]
+    @Test
+    public void getSasTokenWithoutDeviceKeyBuildsTokenEachTime()
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getDeviceKey();
+                result = null;
+                mockToken.toString();
+                result = TOKEN;
+            }
+        };
+        IotHubSasTokenProvider provider = new IotHubSasTokenProvider(mockConfig);
+
+        // act
+        String firstToken = provider.getSasToken();
+        String secondToken = provider.getSasToken();
+
+        // assert
+        assertEquals(TOKEN, firstToken);
+        assertEquals(TOKEN, secondToken);
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_28_008: [If there is no cached token, if the cached token expires before the
+    // given lifetime ends, or if the token valid time of the config changed, the function shall sign a new SAS token
+    // valid for the token valid time of the config, and cache it.]
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_28_009: [The function shall return the cached token.]
+    @Test
+    public void getSasTokenValidForReusesTokenThatLivesLongEnough()
+    {
+        // arrange
+        deviceKeyExpectations();
+        IotHubSasTokenProvider provider = new IotHubSasTokenProvider(mockConfig);
+        provider.getSasToken();
+
+        // act
+        String token = provider.getSasTokenValidFor(TOKEN_VALID_SECS / 2L);
+
+        // assert
+        assertEquals(TOKEN, token);
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_28_008: [If there is no cached token, if the cached token expires before the
+    // given lifetime ends, or if the token valid time of the config changed, the function shall sign a new SAS token
+    // valid for the token valid time of the config, and cache it.]
+    @Test
+    public void getSasTokenValidForRenewsTokenThatExpiresTooSoon()
+    {
+        // arrange
+        deviceKeyExpectations();
+        IotHubSasTokenProvider provider = new IotHubSasTokenProvider(mockConfig);
+        provider.getSasToken();
+        long currentTime = System.currentTimeMillis() / 1000L;
+        Deencapsulation.setField(provider, "expiryTime", currentTime + TOKEN_VALID_SECS / 2L);
+
+        // act
+        provider.getSasTokenValidFor(TOKEN_VALID_SECS);
+        provider.getSasToken();
+
+        // assert
+        final List<Long> expiryTimes = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, withCapture(expiryTimes));
+                times = 2;
+            }
+        };
+        assertTrue(expiryTimes.get(1) >= currentTime + TOKEN_VALID_SECS + 1L);
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_28_007: [If the config has no device key, the function shall return a new
+    // SAS token built from the config.]
+    @Test
+    public void getSasTokenValidForWithoutDeviceKeyBuildsTokenEachTime()
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getDeviceKey();
+                result = null;
+                mockToken.toString();
+                result = TOKEN;
+            }
+        };
+        IotHubSasTokenProvider provider = new IotHubSasTokenProvider(mockConfig);
+
+        // act
+        provider.getSasTokenValidFor(TOKEN_VALID_SECS);
+        provider.getSasTokenValidFor(TOKEN_VALID_SECS);
+
+        // assert
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 2;
+            }
+        };
+    }
+}
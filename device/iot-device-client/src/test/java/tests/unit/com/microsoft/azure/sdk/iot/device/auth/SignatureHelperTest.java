@@ -66,6 +66,30 @@ public class SignatureHelperTest
         assertThat(testEncryptedSig, is(expectedEncryptedSig));
     }
 
+    // Tests_SRS_SIGNATUREHELPER_28_001: [The function shall reuse the HMAC-SHA256 engine of the thread if it was initialized with the same device key.]
+    @Test
+    public void encryptSignatureUsingHmacSha256WithAlternatingKeys()
+    {
+        final byte[] testSig = "what do ya want for nothing?".getBytes(UTF8);
+        final byte[] firstKey = "Jefe".getBytes(UTF8);
+        final byte[] secondKey = "other-key".getBytes(UTF8);
+
+        byte[] firstEncryptedSig =
+                SignatureHelper.encryptSignatureHmacSha256(testSig, firstKey);
+        byte[] secondEncryptedSig =
+                SignatureHelper.encryptSignatureHmacSha256(testSig, secondKey);
+        firstKey[0] = 'j';
+        byte[] changedKeyEncryptedSig =
+                SignatureHelper.encryptSignatureHmacSha256(testSig, firstKey);
+        firstKey[0] = 'J';
+        byte[] repeatedEncryptedSig =
+                SignatureHelper.encryptSignatureHmacSha256(testSig, firstKey);
+
+        assertThat(secondEncryptedSig, is(not(firstEncryptedSig)));
+        assertThat(changedKeyEncryptedSig, is(not(firstEncryptedSig)));
+        assertThat(repeatedEncryptedSig, is(firstEncryptedSig));
+    }
+
     // Tests_SRS_SIGNATUREHELPER_11_006: [The function shall encode the signature using Base64.]
     @Test
     public void encodeSignatureUsingBase64()
@@ -0,0 +1,518 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.fileupload;
+
+import com.microsoft.azure.sdk.iot.device.fileupload.FileUploadBlockUploader;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import mockit.Deencapsulation;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for file upload block uploader class. The uploads go to a fake blob
+ * endpoint on the local host, which keeps the blocks in memory.
+ */
+public class FileUploadBlockUploaderTest
+{
+    private static final int BLOCK_SIZE = 1024;
+    private static final int BLOCK_COUNT = 8;
+    private static final int MAX_BLOCKS_IN_FLIGHT = 2;
+
+    private FakeBlobEndpoint endpoint;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private CloudBlockBlob blob;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        endpoint = new FakeBlobEndpoint();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", endpoint);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        blob = new CloudBlockBlob(new URI("http://127.0.0.1:" + server.getAddress().getPort() + "/devstoreaccount1/container/blob"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private static byte[] makeData(int length)
+    {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            data[i] = (byte)(i * 31 + i / BLOCK_SIZE);
+        }
+        return data;
+    }
+
+    private FileUploadBlockUploader makeUploader()
+    {
+        return makeUploader(MAX_BLOCKS_IN_FLIGHT);
+    }
+
+    private FileUploadBlockUploader makeUploader(int maxBlocksInFlight)
+    {
+        return Deencapsulation.newInstance(FileUploadBlockUploader.class,
+                new Class[] {CloudBlockBlob.class, int.class, int.class},
+                blob, BLOCK_SIZE, maxBlocksInFlight);
+    }
+
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_001: [If the `blob` is null, the `blockSize` is not between 1 and 4 MB,
+    or the `maxBlocksInFlight` is not positive, the constructor shall throw IllegalArgumentException.] */
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorNullBlobThrows()
+    {
+        Deencapsulation.newInstance(FileUploadBlockUploader.class,
+                new Class[] {CloudBlockBlob.class}, (CloudBlockBlob)null);
+    }
+
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_001: [If the `blob` is null, the `blockSize` is not between 1 and 4 MB,
+    or the `maxBlocksInFlight` is not positive, the constructor shall throw IllegalArgumentException.] */
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorTooLargeBlockSizeThrows()
+    {
+        Deencapsulation.newInstance(FileUploadBlockUploader.class,
+                new Class[] {CloudBlockBlob.class, int.class, int.class},
+                blob, 4 * 1024 * 1024 + 1, MAX_BLOCKS_IN_FLIGHT);
+    }
+
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_001: [If the `blob` is null, the `blockSize` is not between 1 and 4 MB,
+    or the `maxBlocksInFlight` is not positive, the constructor shall throw IllegalArgumentException.] */
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorZeroBlocksInFlightThrows()
+    {
+        Deencapsulation.newInstance(FileUploadBlockUploader.class,
+                new Class[] {CloudBlockBlob.class, int.class, int.class},
+                blob, BLOCK_SIZE, 0);
+    }
+
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_004: [If the `streamLength` is not larger than a block, the upload
+    shall upload the `inputStream` to the blob in a single request.] */
+    @Test
+    public void uploadSmallStreamInSingleRequest() throws Exception
+    {
+        // arrange
+        byte[] data = makeData(BLOCK_SIZE);
+
+        // act
+        makeUploader().upload(new ByteArrayInputStream(data), data.length);
+
+        // assert
+        assertArrayEquals(data, endpoint.getCommitted());
+        assertEquals(0, endpoint.getPutBlockCount());
+        assertEquals(0, endpoint.getCommitCount());
+    }
+
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_006: [The upload shall get the uncommitted blocks of the blob, and
+    consider that there are none if the blob does not exist.] */
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_007: [The upload shall read the `inputStream` in blocks of
+    `blockSize` bytes, and throw IOException if the stream ends before `streamLength` bytes.] */
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_011: [When all the blocks are uploaded, the upload shall commit the
+    block list in the order of the stream.] */
+    @Test
+    public void uploadLargeStreamInBlocksAndCommitsThem() throws Exception
+    {
+        // arrange
+        byte[] data = makeData(BLOCK_SIZE * (BLOCK_COUNT - 1) + 100);
+
+        // act
+        makeUploader().upload(new ByteArrayInputStream(data), data.length);
+
+        // assert
+        assertArrayEquals(data, endpoint.getCommitted());
+        assertEquals(BLOCK_COUNT, endpoint.getPutBlockCount());
+        assertEquals(1, endpoint.getCommitCount());
+    }
+
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_008: [The upload shall not read a new block while
+    `maxBlocksInFlight` blocks are being uploaded.] */
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_009: [The upload shall skip a block already uploaded with the
+    same ID and size, and upload the other blocks in parallel.] */
+    @Test
+    public void uploadKeepsBlocksInFlightBounded() throws Exception
+    {
+        // arrange
+        byte[] data = makeData(BLOCK_SIZE * BLOCK_COUNT);
+        endpoint.setPutBlockDelayMillis(100);
+
+        // act
+        makeUploader().upload(new ByteArrayInputStream(data), data.length);
+
+        // assert
+        assertArrayEquals(data, endpoint.getCommitted());
+        assertEquals(MAX_BLOCKS_IN_FLIGHT, endpoint.getMaxConcurrentPutBlocks());
+    }
+
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_010: [If a block fails with an I/O error, a timeout, or a
+    server error, the upload shall retry it, up to 3 attempts.] */
+    @Test
+    public void uploadRetriesFailedBlock() throws Exception
+    {
+        // arrange
+        byte[] data = makeData(BLOCK_SIZE * BLOCK_COUNT);
+        endpoint.failBlock(2, 500, 2);
+
+        // act
+        makeUploader().upload(new ByteArrayInputStream(data), data.length);
+
+        // assert
+        assertArrayEquals(data, endpoint.getCommitted());
+        assertEquals(BLOCK_COUNT + 2, endpoint.getPutBlockCount());
+    }
+
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_010: [If a block fails with an I/O error, a timeout, or a
+    server error, the upload shall retry it, up to 3 attempts.] */
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_012: [If a block failed, the upload shall stop the other blocks,
+    not commit the block list, and throw the error of the block.] */
+    @Test
+    public void uploadThrowsAfterLastAttemptOfBlock() throws Exception
+    {
+        // arrange
+        byte[] data = makeData(BLOCK_SIZE * BLOCK_COUNT);
+        endpoint.failBlock(2, 500, 3);
+
+        // act
+        try
+        {
+            makeUploader().upload(new ByteArrayInputStream(data), data.length);
+            fail("upload shall throw");
+        }
+        catch (StorageException e)
+        {
+            // assert
+            assertEquals(500, e.getHttpStatusCode());
+        }
+        assertEquals(0, endpoint.getCommitCount());
+    }
+
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_002: [The upload shall make the ID of a block from a digest of its
+    content and its position in the stream, so all the block IDs of the blob have the same length.] */
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_009: [The upload shall skip a block already uploaded with the
+    same ID and size, and upload the other blocks in parallel.] */
+    @Test
+    public void uploadResumesInterruptedUploadOfSameStream() throws Exception
+    {
+        // arrange
+        byte[] data = makeData(BLOCK_SIZE * BLOCK_COUNT);
+        endpoint.failBlock(4, 403, 1);
+        try
+        {
+            makeUploader(1).upload(new ByteArrayInputStream(data), data.length);
+            fail("upload shall throw");
+        }
+        catch (StorageException e)
+        {
+            assertEquals(403, e.getHttpStatusCode());
+        }
+        assertEquals(4, endpoint.getUncommittedCount());
+        endpoint.resetPutBlockCount();
+
+        // act
+        makeUploader().upload(new ByteArrayInputStream(data), data.length);
+
+        // assert
+        assertArrayEquals(data, endpoint.getCommitted());
+        assertEquals(BLOCK_COUNT - 4, endpoint.getPutBlockCount());
+    }
+
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_009: [The upload shall skip a block already uploaded with the
+    same ID and size, and upload the other blocks in parallel.] */
+    @Test
+    public void uploadDoesNotReuseBlocksWhoseContentChanged() throws Exception
+    {
+        // arrange
+        byte[] data = makeData(BLOCK_SIZE * BLOCK_COUNT);
+        byte[] changedData = data.clone();
+        changedData[BLOCK_SIZE + 1]++;
+        endpoint.failBlock(4, 403, 1);
+        try
+        {
+            makeUploader(1).upload(new ByteArrayInputStream(data), data.length);
+            fail("upload shall throw");
+        }
+        catch (StorageException e)
+        {
+            assertEquals(403, e.getHttpStatusCode());
+        }
+        endpoint.resetPutBlockCount();
+
+        // act
+        makeUploader().upload(new ByteArrayInputStream(changedData), changedData.length);
+
+        // assert
+        assertArrayEquals(changedData, endpoint.getCommitted());
+        assertEquals(BLOCK_COUNT - 3, endpoint.getPutBlockCount());
+    }
+
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_007: [The upload shall read the `inputStream` in blocks of
+    `blockSize` bytes, and throw IOException if the stream ends before `streamLength` bytes.] */
+    @Test (expected = IOException.class)
+    public void uploadShortStreamThrows() throws Exception
+    {
+        // arrange
+        byte[] data = makeData(BLOCK_SIZE * 2);
+
+        // act
+        makeUploader().upload(new ByteArrayInputStream(data), data.length + 1);
+    }
+
+    /* Tests_SRS_FILEUPLOADBLOCKUPLOADER_28_005: [If the stream needs more than 50000 blocks, the upload shall throw
+    IllegalArgumentException.] */
+    @Test (expected = IllegalArgumentException.class)
+    public void uploadTooLongStreamThrows(@mockit.Mocked final InputStream mockInputStream) throws Exception
+    {
+        // act
+        makeUploader().upload(mockInputStream, BLOCK_SIZE * 50001L);
+    }
+
+    /**
+     * Blob endpoint that serves the Put Blob, Put Block, Put Block List and Get Block List
+     * requests of a single blob.
+     */
+    private static final class FakeBlobEndpoint implements HttpHandler
+    {
+        private static final Pattern LATEST_BLOCK = Pattern.compile("<Latest>([^<]*)</Latest>");
+
+        private final Map<String, byte[]> uncommitted = new LinkedHashMap<>();
+        private final Map<String, Integer> failures = new HashMap<>();
+        private byte[] committed;
+        private int failureStatus;
+        private int putBlockCount;
+        private int commitCount;
+        private int concurrentPutBlocks;
+        private int maxConcurrentPutBlocks;
+        private long putBlockDelayMillis;
+
+        synchronized void failBlock(int index, int status, int times)
+        {
+            failures.put(String.format("-%06d", index), times);
+            failureStatus = status;
+        }
+
+        synchronized void setPutBlockDelayMillis(long delayMillis)
+        {
+            putBlockDelayMillis = delayMillis;
+        }
+
+        synchronized byte[] getCommitted()
+        {
+            return committed;
+        }
+
+        synchronized int getPutBlockCount()
+        {
+            return putBlockCount;
+        }
+
+        synchronized void resetPutBlockCount()
+        {
+            putBlockCount = 0;
+        }
+
+        synchronized int getCommitCount()
+        {
+            return commitCount;
+        }
+
+        synchronized int getUncommittedCount()
+        {
+            return uncommitted.size();
+        }
+
+        synchronized int getMaxConcurrentPutBlocks()
+        {
+            return maxConcurrentPutBlocks;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            try
+            {
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                byte[] body = readBody(exchange.getRequestBody());
+                String comp = query.get("comp");
+                if ("GET".equals(exchange.getRequestMethod()))
+                {
+                    sendBlockList(exchange);
+                }
+                else if ("block".equals(comp))
+                {
+                    putBlock(exchange, query.get("blockid"), body);
+                }
+                else if ("blocklist".equals(comp))
+                {
+                    putBlockList(exchange, new String(body, StandardCharsets.UTF_8));
+                }
+                else
+                {
+                    synchronized (this)
+                    {
+                        committed = body;
+                    }
+                    sendEmpty(exchange, 201);
+                }
+            }
+            finally
+            {
+                exchange.close();
+            }
+        }
+
+        private void putBlock(HttpExchange exchange, String blockId, byte[] body) throws IOException
+        {
+            int status = 201;
+            long delayMillis;
+            synchronized (this)
+            {
+                putBlockCount++;
+                concurrentPutBlocks++;
+                maxConcurrentPutBlocks = Math.max(maxConcurrentPutBlocks, concurrentPutBlocks);
+                delayMillis = putBlockDelayMillis;
+                String decodedId = new String(Base64.decodeBase64(blockId), StandardCharsets.UTF_8);
+                for (Map.Entry<String, Integer> failure : failures.entrySet())
+                {
+                    if (decodedId.endsWith(failure.getKey()) && (failure.getValue() > 0))
+                    {
+                        failure.setValue(failure.getValue() - 1);
+                        status = failureStatus;
+                    }
+                }
+                if (status == 201)
+                {
+                    uncommitted.put(blockId, body);
+                }
+            }
+
+            try
+            {
+                Thread.sleep(delayMillis);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            synchronized (this)
+            {
+                concurrentPutBlocks--;
+            }
+            sendEmpty(exchange, status);
+        }
+
+        private void putBlockList(HttpExchange exchange, String blockList) throws IOException
+        {
+            synchronized (this)
+            {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                Matcher matcher = LATEST_BLOCK.matcher(blockList);
+                while (matcher.find())
+                {
+                    content.write(uncommitted.get(matcher.group(1)));
+                }
+                committed = content.toByteArray();
+                uncommitted.clear();
+                commitCount++;
+            }
+            sendEmpty(exchange, 201);
+        }
+
+        private void sendBlockList(HttpExchange exchange) throws IOException
+        {
+            StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?><BlockList><UncommittedBlocks>");
+            synchronized (this)
+            {
+                if (uncommitted.isEmpty())
+                {
+                    sendEmpty(exchange, 404);
+                    return;
+                }
+                for (Map.Entry<String, byte[]> block : uncommitted.entrySet())
+                {
+                    xml.append("<Block><Name>").append(block.getKey()).append("</Name><Size>")
+                            .append(block.getValue().length).append("</Size></Block>");
+                }
+            }
+            xml.append("</UncommittedBlocks></BlockList>");
+
+            byte[] response = xml.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/xml");
+            exchange.sendResponseHeaders(200, response.length);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(response);
+            outputStream.close();
+        }
+
+        private static void sendEmpty(HttpExchange exchange, int status) throws IOException
+        {
+            exchange.getResponseHeaders().add("ETag", "\"0x1\"");
+            exchange.getResponseHeaders().add("Last-Modified", "Mon, 03 Apr 2017 10:00:00 GMT");
+            exchange.sendResponseHeaders(status, -1);
+        }
+
+        private static byte[] readBody(InputStream inputStream) throws IOException
+        {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BLOCK_SIZE];
+            int count;
+            while ((count = inputStream.read(buffer)) > 0)
+            {
+                body.write(buffer, 0, count);
+            }
+            return body.toByteArray();
+        }
+
+        private static Map<String, String> parseQuery(String rawQuery) throws IOException
+        {
+            Map<String, String> query = new HashMap<>();
+            if (rawQuery != null)
+            {
+                for (String parameter : rawQuery.split("&"))
+                {
+                    int separator = parameter.indexOf('=');
+                    if (separator > 0)
+                    {
+                        query.put(parameter.substring(0, separator),
+                                URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+                    }
+                }
+            }
+            return query;
+        }
+    }
+}
@@ -365,10 +365,10 @@ public class FileUploadTaskTest
         };
     }
 
-    /* Tests_SRS_FILEUPLOADTASK_21_010: [The run shall open the connection with the iothub, using the httpsTransportManager.] */
-    /* Tests_SRS_FILEUPLOADTASK_21_026: [The run shall open the connection with the iothub, using the httpsTransportManager.] */
+    /* Tests_SRS_FILEUPLOADTASK_28_002: [The run shall send the request and the notification on the session the httpsTransportManager
+    shares between the uploads, without opening or closing it, and without waiting for the other uploads.] */
     @Test
-    public void runOpenConnectionToIothubForRequestAndNotification() throws IOException, IllegalArgumentException, URISyntaxException, StorageException
+    public void runDoesNotOpenConnectionToIothubForRequestAndNotification() throws IOException, IllegalArgumentException, URISyntaxException, StorageException
     {
         // arrange
         expectSuccess(VALID_BLOB_NAME, VALID_CORRELATION_ID, VALID_HOST_NAME, VALID_CONTAINER_NAME, VALID_SAS_TOKEN,
@@ -385,7 +385,7 @@ public class FileUploadTaskTest
         {
             {
                 Deencapsulation.invoke(mockHttpsTransportManager, "open");
-                times = 2;
+                times = 0;
             }
         };
     }
@@ -414,10 +414,10 @@ public class FileUploadTaskTest
         };
     }
 
-    /* Tests_SRS_FILEUPLOADTASK_21_012: [The run shall close the connection with the iothub, using the httpsTransportManager.] */
-    /* Tests_SRS_FILEUPLOADTASK_21_028: [The run shall close the connection with the iothub, using the httpsTransportManager.] */
+    /* Tests_SRS_FILEUPLOADTASK_28_002: [The run shall send the request and the notification on the session the httpsTransportManager
+    shares between the uploads, without opening or closing it, and without waiting for the other uploads.] */
     @Test
-    public void runCloseConnectionToIothubForRequestAndNotification() throws IOException, IllegalArgumentException, URISyntaxException, StorageException
+    public void runDoesNotCloseConnectionToIothubForRequestAndNotification() throws IOException, IllegalArgumentException, URISyntaxException, StorageException
     {
         // arrange
         expectSuccess(VALID_BLOB_NAME, VALID_CORRELATION_ID, VALID_HOST_NAME, VALID_CONTAINER_NAME, VALID_SAS_TOKEN,
@@ -434,7 +434,7 @@ public class FileUploadTaskTest
         {
             {
                 Deencapsulation.invoke(mockHttpsTransportManager, "close");
-                times = 2;
+                times = 0;
             }
         };
     }
@@ -1119,6 +1119,44 @@ public class FileUploadTaskTest
         };
     }
 
+    /* Tests_SRS_FILEUPLOADTASK_28_003: [If the upload to blob failed with an unexpected runtime exception, the run shall handle it as a failed upload.] */
+    @Test
+    public void runCloudBlockBlobUploadRuntimeExceptionReportsError() throws IOException, IllegalArgumentException, URISyntaxException, StorageException
+    {
+        // arrange
+        requestExpectations(VALID_BLOB_NAME, VALID_REQUEST_JSON);
+        responseExpectations(VALID_RESPONSE_JSON);
+        responseParserExpectations(VALID_BLOB_NAME, VALID_CORRELATION_ID, VALID_HOST_NAME, VALID_CONTAINER_NAME, VALID_SAS_TOKEN);
+        new NonStrictExpectations()
+        {
+            {
+                new CloudBlockBlob((URI) any);
+                result = mockCloudBlockBlob;
+                mockCloudBlockBlob.upload(mockInputStream, VALID_STREAM_LENGTH);
+                result = new IllegalStateException();
+            }
+        };
+        failedNotificationExpectations(VALID_CORRELATION_ID, VALID_NOTIFICATION_JSON);
+
+        FileUploadTask fileUploadTask = Deencapsulation.newInstance(FileUploadTask.class,
+                new Class[] {String.class, InputStream.class, long.class, HttpsTransportManager.class, IotHubEventCallback.class, Object.class},
+                VALID_BLOB_NAME, mockInputStream, VALID_STREAM_LENGTH, mockHttpsTransportManager, mockIotHubEventCallback, VALID_CALLBACK_CONTEXT);
+
+        // act
+        Deencapsulation.invoke(fileUploadTask, "run");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockIotHubEventCallback.execute(IotHubStatusCode.ERROR, VALID_CALLBACK_CONTEXT);
+                times = 1;
+                new FileUploadStatusParser(VALID_CORRELATION_ID, false, -1, (String)any);
+                times =1;
+            }
+        };
+    }
+
     /* Tests_SRS_FILEUPLOADTASK_21_033: [If run failed to send the notification, it shall call the userCallback with the stratus `ERROR`, and abort the upload.] */
     @Test
     public void runFileUploadStatusParserThrows() throws IOException, IllegalArgumentException, URISyntaxException, StorageException
@@ -76,6 +76,7 @@ public class FileUploadTest
     }
 
     /* Tests_SRS_FILEUPLOAD_21_002: [The constructor shall create a new instance of `HttpsTransportManager` with the provided `config`.] */
+    /* Tests_SRS_FILEUPLOAD_28_001: [The constructor shall open the `HttpsTransportManager`, so all the uploads share its session.] */
     /* Tests_SRS_FILEUPLOAD_21_012: [The constructor shall create an pool of 10 threads to execute the uploads in parallel.] */
     /* Tests_SRS_FILEUPLOAD_21_013: [The constructor shall create a list `fileUploadInProgressesSet` to control the pending uploads.] */
     @Test
@@ -101,6 +102,8 @@ public class FileUploadTest
             {
                 new HttpsTransportManager(mockConfig);
                 times = 1;
+                mockHttpsTransportManager.open();
+                times = 1;
                 Executors.newScheduledThreadPool(10);
                 times = 1;
                 new LinkedBlockingDeque<>();
@@ -290,6 +293,7 @@ public class FileUploadTest
     }
 
     /* Tests_SRS_FILEUPLOAD_21_017: [The closeNow shall shutdown the thread pool by calling `shutdownNow`.] */
+    /* Tests_SRS_FILEUPLOAD_28_002: [The closeNow shall close the `HttpsTransportManager`.] */
     @Test
     public void closeNowSuccess() throws IOException
     {
@@ -306,6 +310,8 @@ public class FileUploadTest
             {
                 mockScheduler.shutdownNow();
                 times = 1;
+                mockHttpsTransportManager.close();
+                times = 1;
             }
         };
 
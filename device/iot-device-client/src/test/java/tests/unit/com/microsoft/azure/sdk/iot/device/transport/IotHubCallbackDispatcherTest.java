@@ -0,0 +1,277 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubResponseCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.ResponseMessage;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for IotHubCallbackDispatcher. */
+public class IotHubCallbackDispatcherTest
+{
+    private static final int QUEUE_CAPACITY = 10;
+
+    /** Event callback that records the order of the contexts it is called with. */
+    private static final class RecordingCallback implements IotHubEventCallback
+    {
+        private final List<Object> contexts = Collections.synchronizedList(new ArrayList<Object>());
+        private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        @Override
+        public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+        {
+            this.contexts.add(callbackContext);
+            this.threads.add(Thread.currentThread());
+        }
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_001: [If the queue capacity is zero or negative, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorZeroCapacityThrows()
+    {
+        // act
+        new IotHubCallbackDispatcher(null, 0);
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_002: [If the executor is null, the constructor shall create a dedicated single thread executor.]
+    @Test
+    public void constructorNullExecutorCreatesOwnExecutor()
+    {
+        // act
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher(null, QUEUE_CAPACITY);
+
+        // assert
+        assertTrue((boolean) Deencapsulation.getField(dispatcher, "ownsExecutor"));
+        dispatcher.close();
+        assertTrue(((ExecutorService) Deencapsulation.getField(dispatcher, "executor")).isShutdown());
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_003: [The constructor shall save the provided executor.]
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_013: [If the dispatcher created its own executor, the function shall shut it down.]
+    @Test
+    public void constructorSavesExecutorAndCloseDoesNotShutItDown()
+    {
+        // arrange
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // act
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher(executor, QUEUE_CAPACITY);
+        dispatcher.close();
+
+        // assert
+        assertSame(executor, Deencapsulation.getField(dispatcher, "executor"));
+        assertFalse(executor.isShutdown());
+        executor.shutdown();
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_004: [If the packet is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void dispatchNullPacketThrows()
+    {
+        // arrange
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher(null, QUEUE_CAPACITY);
+
+        try
+        {
+            // act
+            dispatcher.dispatch(null);
+        }
+        finally
+        {
+            dispatcher.close();
+        }
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_005: [If the dispatcher is closed, the function shall invoke the callback on the caller thread.]
+    @Test
+    public void dispatchAfterCloseInvokesOnCallerThread()
+    {
+        // arrange
+        RecordingCallback callback = new RecordingCallback();
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher(null, QUEUE_CAPACITY);
+        dispatcher.close();
+
+        // act
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, callback, 1));
+
+        // assert
+        assertEquals(1, callback.contexts.size());
+        assertSame(Thread.currentThread(), callback.threads.get(0));
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_007: [The function shall add the packet to the end of the queue, waiting for room if the queue is full.]
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_009: [If no drain task is running, the function shall submit one to the executor.]
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_014: [The drain task shall invoke the queued callbacks, one at a time, in the order they were dispatched.]
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_012: [If not called from a callback, the function shall wait, up to a timeout, for the queued callbacks to be invoked.]
+    @Test
+    public void dispatchInvokesCallbacksInOrderOutOfCallerThread()
+    {
+        // arrange
+        RecordingCallback callback = new RecordingCallback();
+        ExecutorService sharedExecutor = Executors.newFixedThreadPool(4);
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher(sharedExecutor, QUEUE_CAPACITY);
+
+        // act
+        for (int i = 0; i < 100; i++)
+        {
+            dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, callback, i));
+        }
+        dispatcher.close();
+
+        // assert
+        assertEquals(100, callback.contexts.size());
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals(i, callback.contexts.get(i));
+            assertNotSame(Thread.currentThread(), callback.threads.get(i));
+        }
+        sharedExecutor.shutdown();
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_007: [The function shall add the packet to the end of the queue, waiting for room if the queue is full.]
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_010: [The function shall return the number of packets in the queue.]
+    @Test
+    public void dispatchDoesNotWaitForSlowCallbackUntilQueueIsFull() throws InterruptedException
+    {
+        // arrange
+        final CountDownLatch release = new CountDownLatch(1);
+        IotHubEventCallback slowCallback = new IotHubEventCallback()
+        {
+            @Override
+            public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+            {
+                try
+                {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher(null, 2);
+
+        // act
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, slowCallback, null));
+        Thread.sleep(100);
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, slowCallback, null));
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, slowCallback, null));
+
+        // assert
+        assertEquals(2, dispatcher.getQueueSize());
+        release.countDown();
+        dispatcher.close();
+        assertEquals(0, dispatcher.getQueueSize());
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_006: [If called from a callback, the function shall not wait for room in the queue, and shall invoke the callback on the caller thread if the queue is full.]
+    @Test
+    public void dispatchFromCallbackDoesNotDeadlock()
+    {
+        // arrange
+        final RecordingCallback innerCallback = new RecordingCallback();
+        final IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher(null, 1);
+        IotHubEventCallback outerCallback = new IotHubEventCallback()
+        {
+            @Override
+            public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+            {
+                dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, innerCallback, 1));
+                dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, innerCallback, 2));
+            }
+        };
+
+        // act
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, outerCallback, null));
+        dispatcher.close();
+
+        // assert
+        assertEquals(2, innerCallback.contexts.size());
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_011: [The function shall mark the dispatcher as closed.]
+    @Test
+    public void closeMarksDispatcherAsClosed()
+    {
+        // arrange
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher(null, QUEUE_CAPACITY);
+
+        // act
+        dispatcher.close();
+
+        // assert
+        assertTrue((boolean) Deencapsulation.getField(dispatcher, "closed"));
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_015: [The function shall invoke the event callback and the response callback of the packet, if any.]
+    @Test
+    public void dispatchInvokesResponseCallback()
+    {
+        // arrange
+        final ResponseMessage response = new ResponseMessage(new byte[0], IotHubStatusCode.OK);
+        final List<ResponseMessage> received = Collections.synchronizedList(new ArrayList<ResponseMessage>());
+        IotHubResponseCallback responseCallback = new IotHubResponseCallback()
+        {
+            @Override
+            public void execute(ResponseMessage responseMessage, Object callbackContext)
+            {
+                received.add(responseMessage);
+            }
+        };
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher(null, QUEUE_CAPACITY);
+
+        // act
+        dispatcher.dispatch(new IotHubCallbackPacket(response, responseCallback, null));
+        dispatcher.close();
+
+        // assert
+        assertEquals(1, received.size());
+        assertSame(response, received.get(0));
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_28_016: [If an exception is thrown during the callback, the function shall log it and drop the callback.]
+    @Test
+    public void dispatchDropsThrowingCallbackAndKeepsGoing()
+    {
+        // arrange
+        RecordingCallback callback = new RecordingCallback();
+        IotHubEventCallback throwingCallback = new IotHubEventCallback()
+        {
+            @Override
+            public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+            {
+                throw new IllegalStateException("test");
+            }
+        };
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher(null, QUEUE_CAPACITY);
+
+        // act
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, throwingCallback, null));
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, callback, 1));
+        dispatcher.close();
+
+        // assert
+        assertEquals(1, callback.contexts.size());
+    }
+}
@@ -0,0 +1,205 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.IotHubInFlightMap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for IotHubInFlightMap. */
+public class IotHubInFlightMapTest
+{
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_001: [The constructor shall create an empty map.]
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_007: [The function shall return the number of values in the map.]
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_010: [The function shall return true if the map holds no value, and false otherwise.]
+    @Test
+    public void constructorCreatesEmptyMap()
+    {
+        // act
+        IotHubInFlightMap<String> map = new IotHubInFlightMap<>();
+
+        // assert
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+        assertTrue(map.values().isEmpty());
+    }
+
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_002: [If the value is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void putNullValueThrows()
+    {
+        // arrange
+        IotHubInFlightMap<String> map = new IotHubInFlightMap<>();
+
+        // act
+        map.put(1, null);
+    }
+
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_003: [The function shall save the value under the delivery id, and return the
+    // value it replaced, if any.]
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_004: [The function shall return the value saved under the delivery id, or null if there is none.]
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_006: [The function shall return true if a value is saved under the delivery id, and false otherwise.]
+    @Test
+    public void putSavesValueUnderDeliveryId()
+    {
+        // arrange
+        IotHubInFlightMap<String> map = new IotHubInFlightMap<>();
+
+        // act
+        String replaced = map.put(Long.MAX_VALUE, "a");
+
+        // assert
+        assertNull(replaced);
+        assertEquals("a", map.get(Long.MAX_VALUE));
+        assertTrue(map.containsKey(Long.MAX_VALUE));
+        assertFalse(map.containsKey(0));
+        assertNull(map.get(0));
+        assertEquals(1, map.size());
+    }
+
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_003: [The function shall save the value under the delivery id, and return the
+    // value it replaced, if any.]
+    @Test
+    public void putReplacesValueWithSameDeliveryId()
+    {
+        // arrange
+        IotHubInFlightMap<String> map = new IotHubInFlightMap<>();
+        map.put(7, "a");
+
+        // act
+        String replaced = map.put(7, "b");
+
+        // assert
+        assertEquals("a", replaced);
+        assertEquals("b", map.get(7));
+        assertEquals(1, map.size());
+    }
+
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_005: [The function shall remove the value saved under the delivery id, and
+    // return it, or return null if there is none.]
+    @Test
+    public void removeReturnsRemovedValue()
+    {
+        // arrange
+        IotHubInFlightMap<String> map = new IotHubInFlightMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+
+        // act
+        String removed = map.remove(1);
+        String missing = map.remove(1);
+
+        // assert
+        assertEquals("a", removed);
+        assertNull(missing);
+        assertFalse(map.containsKey(1));
+        assertEquals("b", map.get(2));
+        assertEquals(1, map.size());
+    }
+
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_003: [The function shall save the value under the delivery id, and return the
+    // value it replaced, if any.]
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_005: [The function shall remove the value saved under the delivery id, and
+    // return it, or return null if there is none.]
+    @Test
+    public void putAndRemoveMatchHashMapOverManyKeys()
+    {
+        // arrange
+        IotHubInFlightMap<Long> map = new IotHubInFlightMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        // act
+        for (int i = 0; i < 20000; i++)
+        {
+            long key = random.nextInt(2000);
+            if (random.nextBoolean())
+            {
+                assertEquals(expected.put(key, key), map.put(key, key));
+            }
+            else
+            {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+        }
+
+        // assert
+        assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 2000; key++)
+        {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_008: [The function shall return a copy of the values in the map.]
+    @Test
+    public void valuesReturnsCopyOfValues()
+    {
+        // arrange
+        IotHubInFlightMap<String> map = new IotHubInFlightMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+
+        // act
+        List<String> values = new ArrayList<>(map.values());
+        map.remove(1);
+
+        // assert
+        Collections.sort(values);
+        assertEquals(2, values.size());
+        assertEquals("a", values.get(0));
+        assertEquals("b", values.get(1));
+    }
+
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_009: [The function shall empty the map and return the values it held.]
+    @Test
+    public void removeAllEmptiesMap()
+    {
+        // arrange
+        IotHubInFlightMap<String> map = new IotHubInFlightMap<>();
+        for (int i = 0; i < 100; i++)
+        {
+            map.put(i, "v" + i);
+        }
+
+        // act
+        List<String> removed = map.removeAll();
+
+        // assert
+        assertEquals(100, removed.size());
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(5));
+    }
+
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_010: [The function shall return true if the map holds no value, and false otherwise.]
+    // Tests_SRS_IOTHUBINFLIGHTMAP_28_011: [The function shall empty the map.]
+    @Test
+    public void clearEmptiesMap()
+    {
+        // arrange
+        IotHubInFlightMap<String> map = new IotHubInFlightMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+        assertFalse(map.isEmpty());
+
+        // act
+        map.clear();
+
+        // assert
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+        assertNull(map.get(1));
+    }
+}
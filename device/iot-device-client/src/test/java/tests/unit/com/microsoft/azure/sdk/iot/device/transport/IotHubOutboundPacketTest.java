@@ -15,6 +15,7 @@ import com.microsoft.azure.sdk.iot.device.IotHubResponseCallback;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
 import mockit.Mocked;
+import mockit.NonStrictExpectations;
 import org.junit.Test;
 
 import java.util.HashMap;
@@ -46,6 +47,33 @@ public class IotHubOutboundPacketTest
         assertThat(testMsg, is(expectedMsg));
     }
 
+    // Tests_SRS_IOTHUBOUTBOUNDPACKET_28_001: [The function shall return the size of the message body without copying it, or 0 if the message is null.]
+    @Test
+    public void getMessageSizeInBytesReturnsBodyLength()
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyLength();
+                result = 42;
+            }
+        };
+
+        IotHubOutboundPacket packet = new IotHubOutboundPacket(mockMsg, mockCallback, context);
+
+        assertThat(packet.getMessageSizeInBytes(), is(42));
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDPACKET_28_001: [The function shall return the size of the message body without copying it, or 0 if the message is null.]
+    @Test
+    public void getMessageSizeInBytesReturnsZeroForNullMessage()
+    {
+        IotHubOutboundPacket packet = new IotHubOutboundPacket(null, mockCallback, null);
+
+        assertThat(packet.getMessageSizeInBytes(), is(0));
+    }
+
     // Tests_SRS_IOTHUBOUTBOUNDPACKET_11_001: [The constructor shall save the message, callback, and callback context.]
     // Tests_SRS_IOTHUBOUTBOUNDPACKET_11_003: [The function shall return the event callback given in the constructor.]
     // Tests_SRS_IOTHUBOUTBOUNDPACKET_21_007: [The constructor shall set the response callback as null.]
@@ -0,0 +1,433 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubOutboundQueuePolicy;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for IotHubOutboundQueue. */
+public class IotHubOutboundQueueTest
+{
+    private static IotHubOutboundPacket newPacket(int bodySize)
+    {
+        return new IotHubOutboundPacket(new Message(new byte[bodySize]), (IotHubEventCallback) null, null);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_001: [The constructor shall create an empty queue with the default capacity and policy.]
+    @Test
+    public void constructorCreatesEmptyUnboundedQueue()
+    {
+        // act
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+
+        // assert
+        assertTrue(queue.isEmpty());
+        assertEquals(0L, queue.sizeInBytes());
+        assertEquals(Integer.MAX_VALUE, Deencapsulation.getField(queue, "maxMessages"));
+        assertEquals(Long.MAX_VALUE, Deencapsulation.getField(queue, "maxBytes"));
+        assertEquals(IotHubOutboundQueuePolicy.BLOCK, Deencapsulation.getField(queue, "policy"));
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_002: [If any of the capacities is zero or negative, or the policy is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setLimitsZeroMessagesThrows()
+    {
+        // act
+        new IotHubOutboundQueue().setLimits(0, 1L, IotHubOutboundQueuePolicy.REJECT);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_002: [If any of the capacities is zero or negative, or the policy is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setLimitsNegativeBytesThrows()
+    {
+        // act
+        new IotHubOutboundQueue().setLimits(1, -1L, IotHubOutboundQueuePolicy.REJECT);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_002: [If any of the capacities is zero or negative, or the policy is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setLimitsNullPolicyThrows()
+    {
+        // act
+        new IotHubOutboundQueue().setLimits(1, 1L, null);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_003: [The function shall store the new capacities and policy, and wake up the blocked producers.]
+    @Test
+    public void setLimitsStoresLimits()
+    {
+        // arrange
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+
+        // act
+        queue.setLimits(10, 100L, IotHubOutboundQueuePolicy.DROP_OLDEST);
+
+        // assert
+        assertEquals(10, Deencapsulation.getField(queue, "maxMessages"));
+        assertEquals(100L, Deencapsulation.getField(queue, "maxBytes"));
+        assertEquals(IotHubOutboundQueuePolicy.DROP_OLDEST, Deencapsulation.getField(queue, "policy"));
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_004: [If the packet or the list is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void enqueueNullPacketThrows()
+    {
+        // act
+        new IotHubOutboundQueue().enqueue(null);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_004: [If the packet or the list is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void enqueueNullListThrows()
+    {
+        // act
+        new IotHubOutboundQueue().enqueue(newPacket(1), null);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_009: [The function shall add the packet to the end of the queue.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_014: [The function shall return the number of packets in the queue.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_015: [The function shall return the sum of the body sizes of the packets in the queue.]
+    @Test
+    public void enqueueAddsPacketAndAccountsBytes()
+    {
+        // arrange
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        IotHubOutboundPacket first = newPacket(3);
+        IotHubOutboundPacket second = newPacket(5);
+
+        // act
+        assertNull(queue.enqueue(first));
+        assertNull(queue.enqueue(second));
+
+        // assert
+        assertEquals(2, queue.size());
+        assertEquals(8L, queue.sizeInBytes());
+        assertEquals(first, queue.peek());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_005: [If the queue is full and the policy is REJECT, the function shall add the packet to the left out list without queuing it.]
+    @Test
+    public void enqueueRejectsNewPacketWhenFullOfMessages()
+    {
+        // arrange
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        queue.setLimits(2, Long.MAX_VALUE, IotHubOutboundQueuePolicy.REJECT);
+        IotHubOutboundPacket first = newPacket(1);
+        IotHubOutboundPacket second = newPacket(1);
+        IotHubOutboundPacket third = newPacket(1);
+        queue.enqueue(first);
+        queue.enqueue(second);
+
+        // act
+        IotHubOutboundPacket leftOut = queue.enqueue(third);
+
+        // assert
+        assertEquals(third, leftOut);
+        assertEquals(2, queue.size());
+        assertEquals(first, queue.poll());
+        assertEquals(second, queue.poll());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_005: [If the queue is full and the policy is REJECT, the function shall add the packet to the left out list without queuing it.]
+    @Test
+    public void enqueueRejectsNewPacketWhenFullOfBytes()
+    {
+        // arrange
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        queue.setLimits(Integer.MAX_VALUE, 10L, IotHubOutboundQueuePolicy.REJECT);
+        IotHubOutboundPacket first = newPacket(8);
+        IotHubOutboundPacket second = newPacket(3);
+        queue.enqueue(first);
+
+        // act
+        IotHubOutboundPacket leftOut = queue.enqueue(second);
+
+        // assert
+        assertEquals(second, leftOut);
+        assertEquals(1, queue.size());
+        assertEquals(8L, queue.sizeInBytes());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_009: [The function shall add the packet to the end of the queue.]
+    @Test
+    public void enqueueAlwaysAcceptsPacketInEmptyQueue()
+    {
+        // arrange
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        queue.setLimits(1, 10L, IotHubOutboundQueuePolicy.REJECT);
+        IotHubOutboundPacket packet = newPacket(20);
+
+        // act
+        IotHubOutboundPacket leftOut = queue.enqueue(packet);
+
+        // assert
+        assertNull(leftOut);
+        assertEquals(packet, queue.peek());
+        assertEquals(20L, queue.sizeInBytes());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_006: [If the queue is full and the policy is DROP_OLDEST, the function shall remove the oldest packets until the new one fits, and add them to the left out list.]
+    @Test
+    public void enqueueDropsOldestPacketsUntilNewOneFits()
+    {
+        // arrange
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        queue.setLimits(Integer.MAX_VALUE, 10L, IotHubOutboundQueuePolicy.DROP_OLDEST);
+        IotHubOutboundPacket first = newPacket(4);
+        IotHubOutboundPacket second = newPacket(4);
+        IotHubOutboundPacket third = newPacket(2);
+        IotHubOutboundPacket big = newPacket(8);
+        queue.enqueue(first);
+        queue.enqueue(second);
+        queue.enqueue(third);
+        List<IotHubOutboundPacket> leftOut = new ArrayList<>();
+
+        // act
+        queue.enqueue(big, leftOut);
+
+        // assert
+        assertEquals(2, leftOut.size());
+        assertEquals(first, leftOut.get(0));
+        assertEquals(second, leftOut.get(1));
+        assertEquals(2, queue.size());
+        assertEquals(10L, queue.sizeInBytes());
+        assertEquals(third, queue.poll());
+        assertEquals(big, queue.poll());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_007: [If the queue is full and the policy is BLOCK, the function shall wait until there is room for the packet.]
+    @Test
+    public void enqueueBlocksUntilThereIsRoom() throws InterruptedException
+    {
+        // arrange
+        final IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        queue.setLimits(1, Long.MAX_VALUE, IotHubOutboundQueuePolicy.BLOCK);
+        final IotHubOutboundPacket first = newPacket(1);
+        final IotHubOutboundPacket second = newPacket(1);
+        queue.enqueue(first);
+        Thread producer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                queue.enqueue(second);
+            }
+        });
+
+        // act
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+        assertEquals(first, queue.poll());
+        producer.join(1000);
+
+        // assert
+        assertFalse(producer.isAlive());
+        assertEquals(second, queue.peek());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_008: [If the thread is interrupted while waiting, the function shall add the packet to the left out list without queuing it.]
+    @Test
+    public void enqueueReturnsPacketIfInterruptedWhileBlocked() throws InterruptedException
+    {
+        // arrange
+        final IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        queue.setLimits(1, Long.MAX_VALUE, IotHubOutboundQueuePolicy.BLOCK);
+        final IotHubOutboundPacket second = newPacket(1);
+        final List<IotHubOutboundPacket> leftOut = new ArrayList<>();
+        queue.enqueue(newPacket(1));
+        Thread producer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                queue.enqueue(second, leftOut);
+            }
+        });
+
+        // act
+        producer.start();
+        producer.join(100);
+        producer.interrupt();
+        producer.join(1000);
+
+        // assert
+        assertFalse(producer.isAlive());
+        assertEquals(1, leftOut.size());
+        assertEquals(second, leftOut.get(0));
+        assertEquals(1, queue.size());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_018: [The function shall close the queue, and wake up the blocked producers.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_020: [If the queue is closed, or is closed while the function waits
+    // for room, the function shall add the packet to the left out list without queuing it.]
+    @Test
+    public void closeReleasesBlockedProducer() throws InterruptedException
+    {
+        // arrange
+        final IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        queue.setLimits(1, Long.MAX_VALUE, IotHubOutboundQueuePolicy.BLOCK);
+        final IotHubOutboundPacket first = newPacket(1);
+        final IotHubOutboundPacket second = newPacket(1);
+        final List<IotHubOutboundPacket> leftOut = new ArrayList<>();
+        queue.enqueue(first);
+        Thread producer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                queue.enqueue(second, leftOut);
+            }
+        });
+        producer.start();
+        while (producer.getState() != Thread.State.WAITING)
+        {
+            Thread.yield();
+        }
+
+        // act
+        queue.close();
+        producer.join(1000);
+
+        // assert
+        assertFalse(producer.isAlive());
+        assertTrue(queue.isClosed());
+        assertEquals(1, leftOut.size());
+        assertEquals(second, leftOut.get(0));
+        assertEquals(1, queue.size());
+        assertEquals(first, queue.peek());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_020: [If the queue is closed, or is closed while the function waits
+    // for room, the function shall add the packet to the left out list without queuing it.]
+    @Test
+    public void enqueueAfterCloseLeavesPacketOut()
+    {
+        // arrange
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        IotHubOutboundPacket packet = newPacket(1);
+        queue.close();
+
+        // act
+        IotHubOutboundPacket leftOut = queue.enqueue(packet);
+
+        // assert
+        assertEquals(packet, leftOut);
+        assertTrue(queue.isEmpty());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_017: [The function shall accept new packets again.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_019: [The function shall return true if the queue is closed.]
+    @Test
+    public void openAfterCloseAcceptsPackets()
+    {
+        // arrange
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        IotHubOutboundPacket packet = newPacket(1);
+        queue.close();
+
+        // act
+        queue.open();
+        IotHubOutboundPacket leftOut = queue.enqueue(packet);
+
+        // assert
+        assertFalse(queue.isClosed());
+        assertNull(leftOut);
+        assertEquals(packet, queue.peek());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_010: [If the packet is null, the function shall throw NullPointerException.]
+    @Test (expected = NullPointerException.class)
+    public void offerNullPacketThrows()
+    {
+        // act
+        new IotHubOutboundQueue().offer(null);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_011: [The function shall add the packet to the end of the queue regardless of the capacity.]
+    @Test
+    public void offerIgnoresCapacity()
+    {
+        // arrange
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        queue.setLimits(1, 1L, IotHubOutboundQueuePolicy.REJECT);
+        queue.enqueue(newPacket(1));
+
+        // act
+        boolean added = queue.offer(newPacket(5));
+
+        // assert
+        assertTrue(added);
+        assertEquals(2, queue.size());
+        assertEquals(6L, queue.sizeInBytes());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_012: [The function shall remove and return the packet at the head of the queue, or return null if the queue is empty.]
+    @Test
+    public void pollRemovesHeadAndReleasesBytes()
+    {
+        // arrange
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        IotHubOutboundPacket first = newPacket(3);
+        queue.enqueue(first);
+        queue.enqueue(newPacket(4));
+
+        // act
+        IotHubOutboundPacket polled = queue.poll();
+
+        // assert
+        assertEquals(first, polled);
+        assertEquals(1, queue.size());
+        assertEquals(4L, queue.sizeInBytes());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_012: [The function shall remove and return the packet at the head of the queue, or return null if the queue is empty.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_013: [The function shall return the packet at the head of the queue, or null if the queue is empty.]
+    @Test
+    public void pollAndPeekReturnNullOnEmptyQueue()
+    {
+        // arrange
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+
+        // act - assert
+        assertNull(queue.peek());
+        assertNull(queue.poll());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_28_016: [The function shall return an iterator over a snapshot of the packets in the queue.]
+    @Test
+    public void iteratorReturnsPacketsInOrder()
+    {
+        // arrange
+        IotHubOutboundQueue queue = new IotHubOutboundQueue();
+        IotHubOutboundPacket first = newPacket(1);
+        IotHubOutboundPacket second = newPacket(1);
+        queue.enqueue(first);
+        queue.enqueue(second);
+
+        // act
+        Iterator<IotHubOutboundPacket> iterator = queue.iterator();
+        queue.clear();
+
+        // assert
+        assertEquals(first, iterator.next());
+        assertEquals(second, iterator.next());
+        assertFalse(iterator.hasNext());
+        assertEquals(0L, queue.sizeInBytes());
+    }
+}
@@ -0,0 +1,208 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendLoop;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
+import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for IotHubSendLoop. */
+public class IotHubSendLoopTest
+{
+    @Mocked
+    AmqpsTransport mockTransport;
+
+    @Mocked
+    IotHubSendTask mockSendTask;
+
+    private static final long RETRY_PERIOD_MILLIS = 10L;
+
+    // Tests_SRS_IOTHUBSENDLOOP_28_001: [The constructor shall save the transport, the send task and the retry period.]
+    @Test
+    public void constructorSavesParameters()
+    {
+        // act
+        IotHubSendLoop sendLoop = new IotHubSendLoop(mockTransport, mockSendTask, RETRY_PERIOD_MILLIS);
+
+        // assert
+        assertEquals(mockTransport, Deencapsulation.getField(sendLoop, "transport"));
+        assertEquals(mockSendTask, Deencapsulation.getField(sendLoop, "sendTask"));
+        assertEquals(RETRY_PERIOD_MILLIS, Deencapsulation.getField(sendLoop, "retryPeriodInMilliseconds"));
+    }
+
+    // Tests_SRS_IOTHUBSENDLOOP_28_002: [If the transport or the send task is null, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorNullTransportThrows()
+    {
+        // act
+        new IotHubSendLoop(null, mockSendTask, RETRY_PERIOD_MILLIS);
+    }
+
+    // Tests_SRS_IOTHUBSENDLOOP_28_002: [If the transport or the send task is null, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorNullSendTaskThrows()
+    {
+        // act
+        new IotHubSendLoop(mockTransport, null, RETRY_PERIOD_MILLIS);
+    }
+
+    // Tests_SRS_IOTHUBSENDLOOP_28_003: [If the provided retry period is zero or negative, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorZeroRetryPeriodThrows()
+    {
+        // act
+        new IotHubSendLoop(mockTransport, mockSendTask, 0L);
+    }
+
+    // Tests_SRS_IOTHUBSENDLOOP_28_004: [The function shall store the new retry period and wake up the loop.]
+    @Test
+    public void setRetryPeriodStoresNewValue()
+    {
+        // arrange
+        IotHubSendLoop sendLoop = new IotHubSendLoop(mockTransport, mockSendTask, RETRY_PERIOD_MILLIS);
+
+        // act
+        sendLoop.setRetryPeriodInMilliseconds(100L);
+
+        // assert
+        assertEquals(100L, Deencapsulation.getField(sendLoop, "retryPeriodInMilliseconds"));
+    }
+
+    // Tests_SRS_IOTHUBSENDLOOP_28_005: [The function shall mark the loop as signaled and wake it up.]
+    @Test
+    public void signalMarksLoopAsSignaled()
+    {
+        // arrange
+        IotHubSendLoop sendLoop = new IotHubSendLoop(mockTransport, mockSendTask, RETRY_PERIOD_MILLIS);
+
+        // act
+        sendLoop.signal();
+
+        // assert
+        assertTrue((boolean) Deencapsulation.getField(sendLoop, "signaled"));
+    }
+
+    // Tests_SRS_IOTHUBSENDLOOP_28_006: [The function shall mark the loop as stopped and wake it up.]
+    // Tests_SRS_IOTHUBSENDLOOP_28_007: [The function shall run the send task until the loop is stopped.]
+    @Test
+    public void runReturnsIfStopped()
+    {
+        // arrange
+        IotHubSendLoop sendLoop = new IotHubSendLoop(mockTransport, mockSendTask, RETRY_PERIOD_MILLIS);
+        sendLoop.stop();
+
+        // act
+        sendLoop.run();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSendTask.run();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSENDLOOP_28_008: [The function shall run the send task on each pass.]
+    // Tests_SRS_IOTHUBSENDLOOP_28_009: [If the transport is empty, the function shall wait for a signal before the next pass.]
+    @Test
+    public void runSendsOnSignalAndParksWhileIdle() throws InterruptedException
+    {
+        // arrange
+        final IotHubSendLoop sendLoop = new IotHubSendLoop(mockTransport, mockSendTask, RETRY_PERIOD_MILLIS);
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.isEmpty();
+                result = true;
+            }
+        };
+        Thread loopThread = new Thread(sendLoop);
+
+        // act
+        loopThread.start();
+        Thread.sleep(100);
+        sendLoop.signal();
+        Thread.sleep(100);
+        sendLoop.stop();
+        loopThread.join(1000);
+
+        // assert
+        assertFalse(loopThread.isAlive());
+        new Verifications()
+        {
+            {
+                mockSendTask.run();
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSENDLOOP_28_010: [If the transport is not empty, the function shall wait for a signal at most the retry period before the next pass.]
+    @Test
+    public void runRetriesWhileTransportIsNotEmpty() throws InterruptedException
+    {
+        // arrange
+        final IotHubSendLoop sendLoop = new IotHubSendLoop(mockTransport, mockSendTask, RETRY_PERIOD_MILLIS);
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.isEmpty();
+                result = false;
+            }
+        };
+        Thread loopThread = new Thread(sendLoop);
+
+        // act
+        loopThread.start();
+        Thread.sleep(200);
+        sendLoop.stop();
+        loopThread.join(1000);
+
+        // assert
+        assertFalse(loopThread.isAlive());
+        new Verifications()
+        {
+            {
+                mockSendTask.run();
+                minTimes = 3;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSENDLOOP_28_011: [If the thread is interrupted, the function shall return.]
+    @Test
+    public void runReturnsIfInterrupted() throws InterruptedException
+    {
+        // arrange
+        final IotHubSendLoop sendLoop = new IotHubSendLoop(mockTransport, mockSendTask, RETRY_PERIOD_MILLIS);
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.isEmpty();
+                result = true;
+            }
+        };
+        Thread loopThread = new Thread(sendLoop);
+
+        // act
+        loopThread.start();
+        Thread.sleep(100);
+        loopThread.interrupt();
+        loopThread.join(1000);
+
+        // assert
+        assertFalse(loopThread.isAlive());
+    }
+}
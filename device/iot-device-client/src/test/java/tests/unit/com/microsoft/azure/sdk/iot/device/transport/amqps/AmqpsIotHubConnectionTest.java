@@ -34,11 +34,18 @@ import org.apache.qpid.proton.reactor.Reactor;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class AmqpsIotHubConnectionTest {
 
@@ -581,8 +588,7 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is CLOSED or there is not enough
-    // credit, the function shall return -1.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is CLOSED, the function shall return false.]
     @Test
     public void sendMessageDoesNothingIfConnectionIsClosed() throws IOException
     {
@@ -593,38 +599,86 @@ public class AmqpsIotHubConnectionTest {
         Deencapsulation.setField(connection, "state", State.CLOSED);
         Deencapsulation.setField(connection, "linkCredit", 100);
 
-        Integer expectedDeliveryHash = -1;
-        Integer actualDeliveryHash = connection.sendMessage(Message.Factory.create());
+        boolean accepted = connection.sendMessage(Message.Factory.create(), 1);
 
-        assertEquals(expectedDeliveryHash, actualDeliveryHash);
+        assertFalse(accepted);
+        Queue pendingDeliveries = Deencapsulation.getField(connection, "pendingDeliveries");
+        assertTrue(pendingDeliveries.isEmpty());
     }
 
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is CLOSED or there is not enough
-    // credit, the function shall return -1.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_28_001: [The function shall add the message and its delivery id to the queue of
+    // pending deliveries, without touching the sender link.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_28_002: [The function shall wake up the Proton reactor, and return true.]
     @Test
-    public void sendMessageDoesNothingIfNotEnoughLinkCredit() throws IOException
+    public void sendMessageQueuesMessageAndWakesUpReactor() throws IOException
     {
         baseExpectations();
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
 
         Deencapsulation.setField(connection, "state", State.OPEN);
-        Deencapsulation.setField(connection, "linkCredit", -1);
+        Deencapsulation.setField(connection, "linkCredit", 100);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+
+        boolean accepted = connection.sendMessage(mockProtonMessage, 1);
+
+        assertTrue(accepted);
+        Queue pendingDeliveries = Deencapsulation.getField(connection, "pendingDeliveries");
+        assertEquals(1, pendingDeliveries.size());
+
+        new Verifications()
+        {
+            {
+                mockReactor.wakeup();
+                times = 1;
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                times = 0;
+                mockSender.delivery((byte[]) any);
+                times = 0;
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_28_002: [The function shall wake up the Proton reactor, and return true.]
+    @Test
+    public void sendMessageQueuesMessageIfWakeupFails() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockReactor.wakeup();
+                result = new RuntimeException();
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
 
-        Integer expectedDeliveryHash = -1;
-        Integer actualDeliveryHash = connection.sendMessage(Message.Factory.create());
+        boolean accepted = connection.sendMessage(mockProtonMessage, 1);
 
-        assertEquals(expectedDeliveryHash, actualDeliveryHash);
+        assertTrue(accepted);
+        Queue pendingDeliveries = Deencapsulation.getField(connection, "pendingDeliveries");
+        assertEquals(1, pendingDeliveries.size());
     }
 
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_016: [The function shall encode the message and copy the contents to the byte buffer.]
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_017: [The function shall set the delivery tag for the sender.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_28_003: [The pending deliveries shall be sent, in order, for as long as the
+    // connection is open and there is link credit.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_28_005: [The event handler shall send the pending deliveries the link credit allows.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_016: [The function shall encode the message into the reusable encode buffer.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_017: [The function shall set the delivery tag for the sender to the 8 bytes
+    // of the next tag number.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_018: [The function shall attempt to send the message using the sender link.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_019: [The function shall advance the sender link.]
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_020: [The function shall set the delivery hash to the value returned by the sender link.]
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_021: [The function shall return the delivery hash.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_020: [The function shall attach the pending delivery to the delivery.]
     @Test
-    public void sendMessage() throws IOException
+    public void onReactorQuiescedSendsPendingDeliveriesInOrder() throws IOException
     {
         baseExpectations();
 
@@ -642,31 +696,112 @@ public class AmqpsIotHubConnectionTest {
         Deencapsulation.setField(connection, "state", State.OPEN);
         Deencapsulation.setField(connection, "linkCredit", 100);
         Deencapsulation.setField(connection, "sender", mockSender);
+        connection.sendMessage(mockProtonMessage, 1);
+        connection.sendMessage(mockProtonMessage, 2);
+        connection.sendMessage(mockProtonMessage, 3);
 
-        Integer expectedDeliveryHash = mockDelivery.hashCode();
-        Integer actualDeliveryHash = connection.sendMessage(mockProtonMessage);
+        connection.onReactorQuiesced(mockEvent);
 
-        assertEquals(expectedDeliveryHash, actualDeliveryHash);
+        Queue pendingDeliveries = Deencapsulation.getField(connection, "pendingDeliveries");
+        assertTrue(pendingDeliveries.isEmpty());
+        Integer expectedLinkCredit = 97;
+        Integer actualLinkCredit = Deencapsulation.getField(connection, "linkCredit");
+        assertEquals(expectedLinkCredit, actualLinkCredit);
 
+        final List<byte[]> tags = new ArrayList<>();
+        final List<Object> contexts = new ArrayList<>();
         new Verifications()
         {
             {
                 mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
-                times = 1;
-                mockSender.delivery((byte[]) any);
-                times = 1;
+                times = 3;
+                mockSender.delivery(withCapture(tags));
+                times = 3;
+                mockDelivery.setContext(withCapture(contexts));
                 mockSender.send((byte[]) any, anyInt, anyInt);
-                times = 1;
+                times = 3;
                 mockSender.advance();
-                times = 1;
-                mockDelivery.hashCode();
-                times = 1;
+                times = 3;
+            }
+        };
+        for (int i = 0; i < 3; i++)
+        {
+            assertArrayEquals(new byte[] {0, 0, 0, 0, 0, 0, 0, (byte) i}, tags.get(i));
+            assertEquals((long) (i + 1), Deencapsulation.getField(contexts.get(i), "deliveryId"));
+        }
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_28_003: [The pending deliveries shall be sent, in order, for as long as the
+    // connection is open and there is link credit.]
+    @Test
+    public void onReactorQuiescedSendsOnlyWhatLinkCreditAllows() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "linkCredit", 2);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        connection.sendMessage(mockProtonMessage, 1);
+        connection.sendMessage(mockProtonMessage, 2);
+        connection.sendMessage(mockProtonMessage, 3);
+
+        connection.onReactorQuiesced(mockEvent);
+
+        Queue pendingDeliveries = Deencapsulation.getField(connection, "pendingDeliveries");
+        assertEquals(1, pendingDeliveries.size());
+
+        new Verifications()
+        {
+            {
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_28_003: [The pending deliveries shall be sent, in order, for as long as the
+    // connection is open and there is link credit.]
+    @Test
+    public void onReactorQuiescedDoesNothingIfConnectionIsNotOpen() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "linkCredit", 100);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        connection.sendMessage(mockProtonMessage, 1);
+        Deencapsulation.setField(connection, "state", State.CLOSED);
+
+        connection.onReactorQuiesced(mockEvent);
+
+        Queue pendingDeliveries = Deencapsulation.getField(connection, "pendingDeliveries");
+        assertEquals(1, pendingDeliveries.size());
+
+        new Verifications()
+        {
+            {
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                times = 0;
             }
         };
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_021: [If the send fails, the function shall free the delivery and notify
+    // the listeners that the message was not sent.]
     @Test
-    public void sendMessageFreesDeliveryIfSendFails() throws IOException
+    public void onReactorQuiescedFreesDeliveryIfSendFails() throws IOException
     {
         baseExpectations();
 
@@ -682,15 +817,14 @@ public class AmqpsIotHubConnectionTest {
         };
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.addListener(mockServerListener);
 
         Deencapsulation.setField(connection, "state", State.OPEN);
         Deencapsulation.setField(connection, "linkCredit", 100);
         Deencapsulation.setField(connection, "sender", mockSender);
+        connection.sendMessage(mockProtonMessage, 7);
 
-        Integer expectedDeliveryHash = -1;
-        Integer actualDeliveryHash = connection.sendMessage(mockProtonMessage);
-
-        assertEquals(expectedDeliveryHash, actualDeliveryHash);
+        connection.onReactorQuiesced(mockEvent);
 
         new Verifications()
         {
@@ -705,10 +839,97 @@ public class AmqpsIotHubConnectionTest {
                 times = 1;
                 mockDelivery.free();
                 times = 1;
+                mockServerListener.messageSent(7L, false);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_28_008: [If the message does not fit, the encode buffer shall be doubled.]
+    @Test
+    public void onReactorQuiescedGrowsEncodeBufferAndReusesIt() throws IOException
+    {
+        baseExpectations();
+
+        final List<byte[]> buffers = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                result = new Delegate()
+                {
+                    int encode(byte[] data, int offset, int length)
+                    {
+                        if (length < 3000)
+                        {
+                            throw new BufferOverflowException();
+                        }
+                        buffers.add(data);
+                        return 3000;
+                    }
+                };
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "linkCredit", 100);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        connection.sendMessage(mockProtonMessage, 1);
+        connection.sendMessage(mockProtonMessage, 2);
+
+        connection.onReactorQuiesced(mockEvent);
+
+        assertEquals(2, buffers.size());
+        assertEquals(4096, buffers.get(0).length);
+        assertTrue(buffers.get(0) == buffers.get(1));
+
+        new Verifications()
+        {
+            {
+                mockSender.send((byte[]) any, 0, 3000);
+                times = 2;
             }
         };
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_28_009: [If the encode buffer is more than 4 times the moving average of the
+    // recent encoded sizes, it shall be shrunk, but never below 1024 bytes.]
+    @Test
+    public void onReactorQuiescedShrinksEncodeBufferAfterSmallMessages() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                result = 100;
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "linkCredit", 100);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        Deencapsulation.setField(connection, "encodeBuffer", new byte[65536]);
+        Deencapsulation.setField(connection, "recentEncodedSize", 65536);
+        for (int i = 0; i < 50; i++)
+        {
+            connection.sendMessage(mockProtonMessage, i);
+        }
+
+        connection.onReactorQuiesced(mockEvent);
+
+        byte[] encodeBuffer = Deencapsulation.getField(connection, "encodeBuffer");
+        assertEquals(1024, encodeBuffer.length);
+    }
 
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_022: [If the AMQPS Connection is closed, the function shall return false.]
     @Test
@@ -794,6 +1015,9 @@ public class AmqpsIotHubConnectionTest {
 
         connection.onConnectionInit(mockEvent);
 
+        // the reactor thread sends the pending deliveries on the sender link opened here.
+        assertTrue(mockSender == Deencapsulation.getField(connection, "sender"));
+
         new Verifications()
         {
             {
@@ -1032,12 +1256,16 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_038: [If this link is the Sender link and the event type is DELIVERY, the event handler shall get the Delivery (Proton) object from the event.]
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_039: [The event handler shall note the remote delivery state and use it and the Delivery (Proton) hash code to inform the AmqpsIotHubConnection of the message receipt.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_039: [The event handler shall note the remote delivery state and use it and the delivery id attached to the Delivery (Proton) object to inform the AmqpsIotHubConnection of the message receipt.]
     @Test
     public void onDeliverySend() throws IOException
     {
         baseExpectations();
+        final Object pendingDelivery = Deencapsulation.newInstance(
+                "com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsIotHubConnection$PendingDelivery",
+                new Class<?>[] {Message.class, long.class}, mockProtonMessage, 5L);
 
         new NonStrictExpectations()
         {
@@ -1052,7 +1280,9 @@ public class AmqpsIotHubConnectionTest {
                 result = mockDelivery;
                 mockDelivery.getRemoteState();
                 result = Accepted.getInstance();
-                mockServerListener.messageSent(anyInt, true);
+                mockDelivery.getContext();
+                result = pendingDelivery;
+                mockServerListener.messageSent(anyLong, true);
             }
         };
 
@@ -1073,7 +1303,7 @@ public class AmqpsIotHubConnectionTest {
                 times = 1;
                 mockDelivery.getRemoteState();
                 times = 1;
-                mockServerListener.messageSent(mockDelivery.hashCode(), true);
+                mockServerListener.messageSent(5L, true);
                 times = 1;
                 mockDelivery.free();
                 times = 1;
@@ -1116,6 +1346,46 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_28_004: [The event handler shall send the pending deliveries the new credit allows.]
+    @Test
+    public void onLinkFlowSendsPendingDeliveries() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getCredit();
+                result = 1;
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "linkCredit", 0);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        connection.sendMessage(mockProtonMessage, 1);
+        connection.sendMessage(mockProtonMessage, 2);
+
+        connection.onLinkFlow(mockEvent);
+
+        Queue pendingDeliveries = Deencapsulation.getField(connection, "pendingDeliveries");
+        assertEquals(1, pendingDeliveries.size());
+
+        new Verifications()
+        {
+            {
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_041: [The connection state shall be considered OPEN when the sender link is open remotely.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_99_001: [All server listeners shall be notified when that the connection has been established.]
     @Test
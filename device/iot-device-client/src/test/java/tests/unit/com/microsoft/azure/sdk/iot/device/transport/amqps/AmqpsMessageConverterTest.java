@@ -0,0 +1,171 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsMessageConverter;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Properties;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/** Unit tests for AmqpsMessageConverter. */
+public class AmqpsMessageConverterTest
+{
+    private static MessageImpl createProtonMessage(Binary body)
+    {
+        MessageImpl protonMessage = (MessageImpl) Proton.message();
+        protonMessage.setBody(new Data(body));
+        return protonMessage;
+    }
+
+    // Tests_SRS_AMQPSMESSAGECONVERTER_28_001: [The function shall copy the body of the Proton message to the IoT Hub message.]
+    @Test
+    public void toIotHubMessageCopiesBody()
+    {
+        // arrange
+        byte[] buffer = new byte[] {9, 9, 1, 2, 3, 9};
+        MessageImpl protonMessage = createProtonMessage(new Binary(buffer, 2, 3));
+
+        // act
+        Message message = AmqpsMessageConverter.toIotHubMessage(protonMessage);
+
+        // assert
+        assertArrayEquals(new byte[] {1, 2, 3}, message.getBytes());
+        assertEquals(0, message.getProperties().length);
+    }
+
+    // Tests_SRS_AMQPSMESSAGECONVERTER_28_002: [The function shall copy each Proton message property that is set, named
+    // after its getter, if it is a valid application property.]
+    @Test
+    public void toIotHubMessageCopiesValidProtonProperties()
+    {
+        // arrange
+        MessageImpl protonMessage = createProtonMessage(new Binary(new byte[] {1}));
+        Properties properties = new Properties();
+        properties.setMessageId("some-message-id");
+        properties.setTo("/devices/device/messages/devicebound");
+        properties.setCorrelationId("some-correlation-id");
+        properties.setContentType(Symbol.valueOf("application/json"));
+        protonMessage.setProperties(properties);
+
+        // act
+        Message message = AmqpsMessageConverter.toIotHubMessage(protonMessage);
+
+        // assert
+        assertEquals(3, message.getProperties().length);
+        assertEquals("some-message-id", message.getProperty("messageId"));
+        assertEquals("some-correlation-id", message.getProperty("correlationId"));
+        assertEquals("application/json", message.getProperty("contentType"));
+        assertNull(message.getProperty("to"));
+    }
+
+    // Tests_SRS_AMQPSMESSAGECONVERTER_28_003: [The function shall copy each application property of the Proton message
+    // that is not a reserved property.]
+    @Test
+    public void toIotHubMessageCopiesApplicationPropertiesExceptReserved()
+    {
+        // arrange
+        MessageImpl protonMessage = createProtonMessage(new Binary(new byte[] {1}));
+        Map<String, Object> applicationProperties = new HashMap<>();
+        applicationProperties.put("key1", "value1");
+        applicationProperties.put("key2", 42);
+        applicationProperties.put("iothub-ack", "full");
+        protonMessage.setApplicationProperties(new ApplicationProperties(applicationProperties));
+
+        // act
+        Message message = AmqpsMessageConverter.toIotHubMessage(protonMessage);
+
+        // assert
+        assertEquals(2, message.getProperties().length);
+        assertEquals("value1", message.getProperty("key1"));
+        assertEquals("42", message.getProperty("key2"));
+    }
+
+    // Tests_SRS_AMQPSMESSAGECONVERTER_28_004: [The function shall set the message id of the Proton message to the one
+    // of the IoT Hub message.]
+    // Tests_SRS_AMQPSMESSAGECONVERTER_28_006: [The function shall set the body of the Proton message to a copy of the
+    // body of the IoT Hub message.]
+    @Test
+    public void toProtonMessageSetsMessageIdAndBody()
+    {
+        // arrange
+        byte[] body = new byte[] {1, 2, 3};
+        Message message = new Message(body);
+        message.setMessageId("some-message-id");
+
+        // act
+        MessageImpl protonMessage = AmqpsMessageConverter.toProtonMessage(message);
+        body[0] = 7;
+
+        // assert
+        assertEquals("some-message-id", protonMessage.getProperties().getMessageId());
+        Binary binary = ((Data) protonMessage.getBody()).getValue();
+        assertEquals(new Binary(new byte[] {1, 2, 3}), binary);
+    }
+
+    // Tests_SRS_AMQPSMESSAGECONVERTER_28_005: [The function shall add the user properties that are not reserved to the
+    // application properties of the Proton message, and add no application properties if there are none.]
+    @Test
+    public void toProtonMessageAddsUserProperties()
+    {
+        // arrange
+        Message message = new Message(new byte[] {1});
+        message.setProperty("key1", "value1");
+        message.setProperty("key2", "value2");
+
+        // act
+        MessageImpl protonMessage = AmqpsMessageConverter.toProtonMessage(message);
+
+        // assert
+        Map<?, ?> applicationProperties = protonMessage.getApplicationProperties().getValue();
+        assertEquals(2, applicationProperties.size());
+        assertEquals("value1", applicationProperties.get("key1"));
+        assertEquals("value2", applicationProperties.get("key2"));
+    }
+
+    // Tests_SRS_AMQPSMESSAGECONVERTER_28_005: [The function shall add the user properties that are not reserved to the
+    // application properties of the Proton message, and add no application properties if there are none.]
+    @Test
+    public void toProtonMessageWithoutUserPropertiesAddsNoApplicationProperties()
+    {
+        // act
+        MessageImpl protonMessage = AmqpsMessageConverter.toProtonMessage(new Message(new byte[] {1}));
+
+        // assert
+        assertNull(protonMessage.getApplicationProperties());
+    }
+
+    // Tests_SRS_AMQPSMESSAGECONVERTER_28_002: [The function shall copy each Proton message property that is set, named
+    // after its getter, if it is a valid application property.]
+    // Tests_SRS_AMQPSMESSAGECONVERTER_28_005: [The function shall add the user properties that are not reserved to the
+    // application properties of the Proton message, and add no application properties if there are none.]
+    @Test
+    public void convertingBothWaysKeepsBodyAndProperties()
+    {
+        // arrange
+        Message message = new Message("some body");
+        message.setMessageId("some-message-id");
+        message.setProperty("key1", "value1");
+
+        // act
+        Message converted = AmqpsMessageConverter.toIotHubMessage(AmqpsMessageConverter.toProtonMessage(message));
+
+        // assert
+        assertArrayEquals(message.getBytes(), converted.getBytes());
+        assertEquals("value1", converted.getProperty("key1"));
+        assertEquals("some-message-id", converted.getProperty("messageId"));
+    }
+}
@@ -4,24 +4,31 @@
 package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
 
 import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubInFlightMap;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendSignal;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsMessage;
+import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsMessageConverter;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
 import mockit.*;
 import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
 import org.apache.qpid.proton.message.impl.MessageImpl;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -34,6 +41,24 @@ public class AmqpsTransportTest
     @Mocked
     DeviceClientConfig mockConfig;
 
+    @Before
+    public void setUp()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getOutboundQueueMaxMessages();
+                result = Integer.MAX_VALUE;
+                mockConfig.getOutboundQueueMaxBytes();
+                result = Long.MAX_VALUE;
+                mockConfig.getOutboundQueuePolicy();
+                result = IotHubOutboundQueuePolicy.BLOCK;
+                mockConfig.getMaxMessagesPerReceive();
+                result = 1;
+            }
+        };
+    }
+
     @Mocked
     AmqpsIotHubConnection mockConnection;
 
@@ -234,7 +259,7 @@ public class AmqpsTransportTest
 
 
         Queue<IotHubOutboundPacket> actualWaitingMessages = Deencapsulation.getField(transport, "waitingMessages");
-        Map<Integer, IotHubOutboundPacket> actualInProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        IotHubInFlightMap<IotHubOutboundPacket> actualInProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
        
         assertEquals(actualWaitingMessages.size(), 0);
         assertEquals(actualInProgressMessages.size(), 0);        
@@ -420,7 +445,7 @@ public class AmqpsTransportTest
                 times = 2;
                 mockPacket.getMessage();
                 times = 2;
-                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, anyLong);
                 times = 2;
             }
         };
@@ -456,7 +481,7 @@ public class AmqpsTransportTest
         new Verifications()
         {
             {
-                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, anyLong);
                 times = 0;
             }
         };
@@ -497,8 +522,8 @@ public class AmqpsTransportTest
                 result = mockProtonMessage;
                 mockMsg.getProperties();
                 result = iotHubMessageProperties;
-                mockConnection.sendMessage(mockProtonMessage);
-                result = 1;
+                mockConnection.sendMessage(mockProtonMessage, anyLong);
+                result = true;
                 new ApplicationProperties(userProperties);
             }
         };
@@ -516,7 +541,7 @@ public class AmqpsTransportTest
                 times = 1;
                 mockPacket.getMessage();
                 times = 1;
-                mockConnection.sendMessage(mockProtonMessage);
+                mockConnection.sendMessage(mockProtonMessage, anyLong);
                 times = 1;
                 new ApplicationProperties(userProperties);
                 times = 1;
@@ -558,13 +583,13 @@ public class AmqpsTransportTest
         new Verifications()
         {
             {
-                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, anyLong);
                 times = 0;
             }
         };
     }
 
-    // Tests_SRS_AMQPSTRANSPORT_15_016: [If the sent message hash is valid, it shall be added to the in progress map.]
+    // Tests_SRS_AMQPSTRANSPORT_15_016: [If the connection accepted the message, it shall stay in the in progress map.]
     @Test
     public void sendMessagesAddsSentMessagesToInProgressMap(
             @Mocked final Message mockMsg,
@@ -585,8 +610,8 @@ public class AmqpsTransportTest
                 result = mockMsg;
                 mockMsg.getBytes();
                 result = messageBytes;
-                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
-                returns (1, 2);
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, anyLong);
+                result = true;
             }
         };
 
@@ -596,7 +621,7 @@ public class AmqpsTransportTest
         transport.addMessage(mockMsg, mockCallback, context);
         transport.sendMessages();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
         Assert.assertEquals(2, inProgressMessages.size());
 
         new Verifications()
@@ -606,13 +631,14 @@ public class AmqpsTransportTest
                 times = 2;
                 mockPacket.getMessage();
                 times = 2;
-                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, anyLong);
                 times = 2;
             }
         };
     }
 
-    // Tests_SRS_AMQPSTRANSPORT_15_017: [If the sent message hash is not valid, it shall be buffered to be sent in a subsequent attempt.]
+    // Tests_SRS_AMQPSTRANSPORT_15_017: [If the connection did not accept the message, it shall be removed from
+    // the in progress map and buffered to be sent in a subsequent attempt.]
     @Test
     public void sendMessagesAddsNotSentMessagesToInProgressMap(
             @Mocked final Message mockMsg,
@@ -633,8 +659,8 @@ public class AmqpsTransportTest
                 result = mockMsg;
                 mockMsg.getBytes();
                 result = messageBytes;
-                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
-                returns (1, -1);
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, anyLong);
+                returns (true, false);
             }
         };
 
@@ -644,7 +670,7 @@ public class AmqpsTransportTest
         transport.addMessage(mockMsg, mockCallback, context);
         transport.sendMessages();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
         Assert.assertEquals(1, inProgressMessages.size());
 
         Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
@@ -657,12 +683,112 @@ public class AmqpsTransportTest
                 times = 2;
                 mockPacket.getMessage();
                 times = 2;
-                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, anyLong);
                 times = 2;
             }
         };
     }
 
+    // Tests_SRS_AMQPSTRANSPORT_28_016: [If the message is no longer in the in progress map, because the connection
+    // loss already buffered it again, the function shall not buffer it a second time.]
+    @Test
+    public void sendMessagesDoesNotBufferTwiceMessageRefusedDuringConnectionLoss(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        final byte[] messageBytes = new byte[] {1, 2};
+        final AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockMsg.getBytes();
+                result = messageBytes;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, anyLong);
+                result = new Delegate()
+                {
+                    private boolean lost;
+
+                    @SuppressWarnings("unused")
+                    boolean sendMessage(org.apache.qpid.proton.message.Message message, long deliveryId)
+                    {
+                        // the connection is lost while the first message is handed over.
+                        if (!lost)
+                        {
+                            lost = true;
+                            transport.connectionLost();
+                        }
+                        return false;
+                    }
+                };
+            }
+        };
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, null);
+
+        transport.sendMessages();
+
+        IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Assert.assertEquals(0, inProgressMessages.size());
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Assert.assertEquals(1, waitingMessages.size());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_28_011: [The function shall add the message to the in progress map under a new
+    // delivery id before handing it to the connection, so an early acknowledgement always finds it.]
+    @Test
+    public void sendMessagesAddsMessagesToInProgressMapUnderDistinctDeliveryIdsBeforeSending(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        final byte[] messageBytes = new byte[] {1, 2};
+        final AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        final List<Long> idsInProgressWhenSent = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                new IotHubOutboundPacket(mockMsg, mockCallback, context);
+                result = mockPacket;
+                mockPacket.getMessage();
+                result = mockMsg;
+                mockMsg.getBytes();
+                result = messageBytes;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, anyLong);
+                result = new Delegate()
+                {
+                    boolean sendMessage(org.apache.qpid.proton.message.Message message, long deliveryId)
+                    {
+                        IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+                        if (inProgressMessages.containsKey(deliveryId))
+                        {
+                            idsInProgressWhenSent.add(deliveryId);
+                        }
+                        return true;
+                    }
+                };
+            }
+        };
+
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+
+        Assert.assertEquals(2, idsInProgressWhenSent.size());
+        Assert.assertNotEquals(idsInProgressWhenSent.get(0), idsInProgressWhenSent.get(1));
+        IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Assert.assertEquals(2, inProgressMessages.size());
+        Assert.assertTrue(inProgressMessages.containsKey(idsInProgressWhenSent.get(0)));
+        Assert.assertTrue(inProgressMessages.containsKey(idsInProgressWhenSent.get(1)));
+    }
+
     // Tests_SRS_AMQPSTRANSPORT_15_039: [If the message is expired, the function shall create a callback
     // with the MESSAGE_EXPIRED status and add it to the callback list.]
     @Test
@@ -687,8 +813,8 @@ public class AmqpsTransportTest
                 result = messageBytes;
                 mockMsg.isExpired();
                 returns (true, false);
-                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
-                result = 1;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, anyLong);
+                result = true;
             }
         };
 
@@ -698,7 +824,7 @@ public class AmqpsTransportTest
         transport.addMessage(mockMsg, mockCallback, context);
         transport.sendMessages();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
         Assert.assertEquals(1, inProgressMessages.size());
 
         Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
@@ -714,7 +840,7 @@ public class AmqpsTransportTest
                 times = 2;
                 mockPacket.getMessage();
                 times = 2;
-                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, anyLong);
                 times = 1;
                 new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, (IotHubEventCallback) any, any);
                 times = 1;
@@ -884,9 +1010,9 @@ public class AmqpsTransportTest
             }
         };
 
-        new MockUp<AmqpsTransport>() {
+        new MockUp<AmqpsMessageConverter>() {
             @Mock
-            Message protonMessageToIoTHubMessage(MessageImpl protonMessage) {
+            Message toIotHubMessage(MessageImpl protonMessage) {
                 return new Message();
             }
         };
@@ -916,6 +1042,108 @@ public class AmqpsTransportTest
         Assert.assertTrue(receivedTransportMessages.size() == 1);
     }
 
+    // Tests_SRS_AMQPSTRANSPORT_28_012: [The function shall consume the received messages until there are none left,
+    // or until it handled the maximum number of messages per receive given in the configuration.]
+    @Test
+    public void handleMessageConsumesAllReceivedMessages() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.getMessageCallback();
+                result = mockMessageCallback;
+                mockConfig.getMaxMessagesPerReceive();
+                result = 100;
+                mockMessageCallback.execute((Message) any, any);
+                result = IotHubMessageResult.COMPLETE;
+                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                result = true;
+            }
+        };
+
+        new MockUp<AmqpsMessageConverter>() {
+            @Mock
+            Message toIotHubMessage(MessageImpl protonMessage) {
+                return new Message();
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        Queue<AmqpsMessage> receivedMessages = new LinkedBlockingQueue<>();
+        receivedMessages.add(mockAmqpsMessage);
+        receivedMessages.add(mockAmqpsMessage);
+        receivedMessages.add(mockAmqpsMessage);
+        Deencapsulation.setField(transport, "receivedMessages", receivedMessages);
+
+        transport.handleMessage();
+
+        new Verifications()
+        {
+            {
+                mockMessageCallback.execute((Message) any, any);
+                times = 3;
+                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                times = 3;
+            }
+        };
+
+        Assert.assertTrue(receivedMessages.isEmpty());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_28_012: [The function shall consume the received messages until there are none left,
+    // or until it handled the maximum number of messages per receive given in the configuration.]
+    @Test
+    public void handleMessageConsumesNoMoreThanMaxMessagesPerReceive() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.getMessageCallback();
+                result = mockMessageCallback;
+                mockConfig.getMaxMessagesPerReceive();
+                result = 2;
+                mockMessageCallback.execute((Message) any, any);
+                result = IotHubMessageResult.COMPLETE;
+                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                result = true;
+            }
+        };
+
+        new MockUp<AmqpsMessageConverter>() {
+            @Mock
+            Message toIotHubMessage(MessageImpl protonMessage) {
+                return new Message();
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        Queue<AmqpsMessage> receivedMessages = new LinkedBlockingQueue<>();
+        receivedMessages.add(mockAmqpsMessage);
+        receivedMessages.add(mockAmqpsMessage);
+        receivedMessages.add(mockAmqpsMessage);
+        Deencapsulation.setField(transport, "receivedMessages", receivedMessages);
+
+        transport.handleMessage();
+
+        new Verifications()
+        {
+            {
+                mockMessageCallback.execute((Message) any, any);
+                times = 2;
+            }
+        };
+
+        Assert.assertEquals(1, receivedMessages.size());
+    }
+
     // Tests_SRS_AMQPSTRANSPORT_15_028: [If the result could not be sent to IoTHub, the message shall be put back in the received messages queue to be processed again.]
     // Tests_SRS_AMQPSTRANSPORT_15_028: [If the result could not be sent to IoTHub, the message shall be put back in the received messages queue to be processed again.]
     @Test
@@ -935,9 +1163,9 @@ public class AmqpsTransportTest
             }
         };
 
-        new MockUp<AmqpsTransport>() {
+        new MockUp<AmqpsMessageConverter>() {
             @Mock
-            Message protonMessageToIoTHubMessage(MessageImpl protonMessage) {
+            Message toIotHubMessage(MessageImpl protonMessage) {
                 return new Message();
             }
         };
@@ -984,7 +1212,7 @@ public class AmqpsTransportTest
         AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
         transport.open();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
+        IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = new IotHubInFlightMap<>();
         Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
 
         transport.messageSent(1, true);
@@ -1014,7 +1242,7 @@ public class AmqpsTransportTest
         AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
         transport.open();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
+        IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = new IotHubInFlightMap<>();
         inProgressMessages.put(1, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         inProgressMessages.put(2, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
@@ -1052,7 +1280,7 @@ public class AmqpsTransportTest
         AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
         transport.open();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
+        IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = new IotHubInFlightMap<>();
         inProgressMessages.put(1, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         inProgressMessages.put(2, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
@@ -1091,12 +1319,12 @@ public class AmqpsTransportTest
         AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
         transport.open();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
+        IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = new IotHubInFlightMap<>();
         inProgressMessages.put(1, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         inProgressMessages.put(2, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
 
-        Queue<IotHubOutboundPacket> waitingMessages = new LinkedBlockingDeque<>();
+        Queue<IotHubOutboundPacket> waitingMessages = new IotHubOutboundQueue();
         waitingMessages.add(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         waitingMessages.add(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         Deencapsulation.setField(transport, "waitingMessages", waitingMessages);
@@ -1208,7 +1436,7 @@ public class AmqpsTransportTest
     {
         AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
 
-        Queue<IotHubOutboundPacket> waitingMessages = new LinkedBlockingDeque<>();
+        Queue<IotHubOutboundPacket> waitingMessages = new IotHubOutboundQueue();
         waitingMessages.add(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         Deencapsulation.setField(transport, "waitingMessages", waitingMessages);
 
@@ -1224,7 +1452,7 @@ public class AmqpsTransportTest
     {
         AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
+        IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = new IotHubInFlightMap<>();
         inProgressMessages.put(1, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
 
@@ -1248,4 +1476,186 @@ public class AmqpsTransportTest
 
         Assert.assertFalse(isEmpty);
     }
-}
\ No newline at end of file
+
+    // Tests_SRS_AMQPSTRANSPORT_28_001: [If a send signal is registered, the function shall notify it.]
+    // Tests_SRS_AMQPSTRANSPORT_28_004: [The function shall save the send signal.]
+    @Test
+    public void addMessageNotifiesRegisteredSendSignal(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubSendSignal mockSendSignal) throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.registerSendSignal(mockSendSignal);
+
+        transport.addMessage(mockMsg, mockIotHubEventCallback, null);
+
+        new Verifications()
+        {
+            {
+                mockSendSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_28_002: [If the hash is found and a send signal is registered, the function shall notify it.]
+    @Test
+    public void messageSentNotifiesRegisteredSendSignal(
+            @Mocked final IotHubSendSignal mockSendSignal) throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.registerSendSignal(mockSendSignal);
+
+        IotHubInFlightMap<IotHubOutboundPacket> inProgressMessages = new IotHubInFlightMap<>();
+        inProgressMessages.put(1, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
+
+        transport.messageSent(2, true);
+        transport.messageSent(1, true);
+
+        new Verifications()
+        {
+            {
+                mockSendSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_28_003: [If a send signal is registered, the function shall notify it.]
+    @Test
+    public void connectionLostNotifiesRegisteredSendSignal(
+            @Mocked final IotHubSendSignal mockSendSignal) throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.registerSendSignal(mockSendSignal);
+
+        transport.connectionLost();
+
+        new Verifications()
+        {
+            {
+                mockSendSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_28_005: [The function shall bound the queue of messages waiting to be sent with the capacity and the policy given in the configuration.]
+    @Test
+    public void openBoundsTransportQueueWithConfiguredLimits() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getOutboundQueueMaxMessages();
+                result = 5;
+                mockConfig.getOutboundQueueMaxBytes();
+                result = 50L;
+                mockConfig.getOutboundQueuePolicy();
+                result = IotHubOutboundQueuePolicy.DROP_OLDEST;
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+
+        transport.open();
+
+        IotHubOutboundQueue waitingList = Deencapsulation.getField(transport, "waitingMessages");
+        assertEquals(5, Deencapsulation.getField(waitingList, "maxMessages"));
+        assertEquals(50L, Deencapsulation.getField(waitingList, "maxBytes"));
+        assertEquals(IotHubOutboundQueuePolicy.DROP_OLDEST, Deencapsulation.getField(waitingList, "policy"));
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_28_006: [For each packet left out of the full queue, the function shall add the MESSAGE_CANCELLED_QUEUE_FULL status code along with the callback and context to the callback list.]
+    @Test
+    public void addMessageCompletesRejectedMessageWithQueueFullStatus(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        IotHubOutboundQueue waitingList = Deencapsulation.getField(transport, "waitingMessages");
+        waitingList.setLimits(1, Long.MAX_VALUE, IotHubOutboundQueuePolicy.REJECT);
+        final Object firstContext = new Object();
+        final Object secondContext = new Object();
+
+        transport.addMessage(mockMsg, mockCallback, firstContext);
+        transport.addMessage(mockMsg, mockCallback, secondContext);
+
+        assertEquals(1, transport.getOutboundQueueSize());
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, secondContext);
+                times = 1;
+                new IotHubCallbackPacket((IotHubStatusCode) any, mockCallback, firstContext);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_28_007: [The function shall return the number of messages waiting to be sent.]
+    // Tests_SRS_AMQPSTRANSPORT_28_008: [The function shall return the number of message body bytes waiting to be sent.]
+    @Test
+    public void getOutboundQueueSizeReturnsWaitingMessages(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyLength();
+                result = 7;
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        transport.addMessage(mockMsg, mockCallback, null);
+        transport.addMessage(mockMsg, mockCallback, null);
+
+        assertEquals(2, transport.getOutboundQueueSize());
+        assertEquals(14L, transport.getOutboundQueueSizeInBytes());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_28_009: [The function shall save the callback dispatcher.]
+    // Tests_SRS_AMQPSTRANSPORT_28_010: [If a callback dispatcher is registered, the function shall hand the callbacks to it instead of invoking them.]
+    @Test
+    public void invokeCallbacksHandsCallbacksToRegisteredDispatcher(
+            @Mocked final IotHubCallbackDispatcher mockCallbackDispatcher) throws IOException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.registerCallbackDispatcher(mockCallbackDispatcher);
+        Queue<IotHubCallbackPacket> callbackList = new LinkedList<>();
+        callbackList.add(mockIotHubCallbackPacket);
+        callbackList.add(mockIotHubCallbackPacket);
+        Deencapsulation.setField(transport, "callbackList", callbackList);
+
+        // act
+        transport.invokeCallbacks();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockCallbackDispatcher.dispatch(mockIotHubCallbackPacket);
+                times = 2;
+                mockIotHubEventCallback.execute((IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+        assertTrue(callbackList.isEmpty());
+    }
+}
@@ -14,10 +14,13 @@ import org.junit.Test;
 import javax.naming.SizeLimitExceededException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertThat;
 
 /** Unit tests for HttpsBatchMessage. */
@@ -135,6 +138,113 @@ public class HttpsBatchMessageTest
         assertThat(testBatchBody, containsString(expectedMsgProperties));
     }
 
+    // Tests_SRS_HTTPSBATCHMESSAGE_11_002: [The function shall add the message as a JSON object appended to the current JSON array.]
+    // Tests_SRS_HTTPSBATCHMESSAGE_28_002: [The function shall append the encoded message to the batch body without encoding the messages already in the batch again.]
+    @Test
+    public void addMessageAppendsMessagesToJsonArray(
+            @Mocked final HttpsSingleMessage mockMsg) throws
+            SizeLimitExceededException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                returns("body-1", "body-2");
+                mockMsg.isBase64Encoded();
+                result = false;
+                mockMsg.getProperties();
+                result = new MessageProperty[0];
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage();
+        batchMsg.addMessage(mockMsg);
+        batchMsg.addMessage(mockMsg);
+        String testBatchBody = new String(batchMsg.getBody(), UTF8);
+
+        final String expectedBatchBody = "[{\"body\":\"body-1\",\"base64Encoded\":false},"
+                + "{\"body\":\"body-2\",\"base64Encoded\":false}]";
+        assertThat(testBatchBody, is(expectedBatchBody));
+    }
+
+    // Tests_SRS_HTTPSBATCHMESSAGE_28_001: [The function shall escape the quotation marks, reverse solidi and control characters of the body, property names and property values.]
+    @Test
+    public void addMessageEscapesBodyAndProperties(
+            @Mocked final HttpsSingleMessage mockMsg,
+            @Mocked final MessageProperty mockProperty) throws
+            SizeLimitExceededException
+    {
+        final String msgBody = "say \"hi\" \\ \n\t\u0001";
+        final MessageProperty[] properties = { mockProperty };
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                result = msgBody;
+                mockMsg.getProperties();
+                result = properties;
+                mockProperty.getName();
+                result = "iothub-app-name";
+                mockProperty.getValue();
+                result = "a \"quoted\" value";
+                mockMsg.isBase64Encoded();
+                result = false;
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage();
+        batchMsg.addMessage(mockMsg);
+        String testBatchBody = new String(batchMsg.getBody(), UTF8);
+
+        assertThat(testBatchBody, containsString("\"body\":\"say \\\"hi\\\" \\\\ \\n\\t\\u0001\""));
+        assertThat(testBatchBody, containsString("\"iothub-app-name\":\"a \\\"quoted\\\" value\""));
+    }
+
+    // Tests_SRS_HTTPSBATCHMESSAGE_11_008: [If adding the message causes the batched message to exceed 256 kb in size, the function shall throw a SizeLimitExceededException.]
+    // Tests_SRS_HTTPSBATCHMESSAGE_11_009: [If the function throws a SizeLimitExceedException, the batched message shall remain as if the message was never added.]
+    @Test
+    public void addMessageFillsBatchUpToSizeLimit(
+            @Mocked final HttpsSingleMessage mockMsg)
+    {
+        final byte[] msgBodyBytes = new byte[1000];
+        Arrays.fill(msgBodyBytes, (byte) 'a');
+        final String msgBody = new String(msgBodyBytes, UTF8);
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                result = msgBody;
+                mockMsg.isBase64Encoded();
+                result = false;
+                mockMsg.getProperties();
+                result = new MessageProperty[0];
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage();
+        int addedMessages = 0;
+        try
+        {
+            while (true)
+            {
+                batchMsg.addMessage(mockMsg);
+                addedMessages++;
+            }
+        }
+        catch (SizeLimitExceededException e)
+        {
+            // the batch is full.
+        }
+
+        byte[] testBatchBody = batchMsg.getBody();
+        final int maxBatchSize = 255 * 1024 - 1;
+        final int messageSize = msgBody.length() + "{\"body\":\"\",\"base64Encoded\":false},".length();
+        assertThat(testBatchBody.length, is(lessThanOrEqualTo(maxBatchSize)));
+        assertThat(testBatchBody.length + messageSize, is(greaterThan(maxBatchSize)));
+        assertThat(batchMsg.numMessages(), is(addedMessages));
+        assertThat(testBatchBody[testBatchBody.length - 1], is((byte) ']'));
+    }
+
     // Tests_SRS_HTTPSBATCHMESSAGE_11_009: [If the function throws a SizeLimitExceededException, the batched message shall remain as if the message was never added.]
     @Test
     public void addMessageRejectsOverflowingMessageAndPreservesOldBatchState(
@@ -143,6 +253,8 @@ public class HttpsBatchMessageTest
     {
         final int msgBodySize = SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES / 2 + 1;
         final byte[] msgBodyBytes = new byte[msgBodySize];
+        // control characters are escaped in the batch, so the body uses printable ones.
+        Arrays.fill(msgBodyBytes, (byte) 'a');
         final String msgBody = new String(msgBodyBytes, UTF8);
         final boolean isBase64Encoded = false;
         new NonStrictExpectations()
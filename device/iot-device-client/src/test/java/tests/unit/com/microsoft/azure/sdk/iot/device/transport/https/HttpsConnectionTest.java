@@ -13,6 +13,8 @@ import org.junit.Test;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -379,6 +381,56 @@ public class HttpsConnectionTest
         Deencapsulation.invoke(conn, "setSSLContext", SSLContext.class);
     }
 
+    // Tests_SRS_HTTPSCONNECTION_28_001: [The function shall set the socket factory of the connection to the given value.]
+    @Test
+    public void setSSLSocketFactorySetsFactory(@Mocked final SSLSocketFactory mockedFactory) throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.POST;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+            }
+        };
+        final HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+
+        Deencapsulation.invoke(conn, "setSSLSocketFactory", mockedFactory);
+
+        new Verifications()
+        {
+            {
+                mockUrlConn.setSSLSocketFactory(mockedFactory);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSCONNECTION_28_002: [The function shall throw IllegalArgumentException if the socket factory is null.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setSSLSocketFactoryThrowsOnNullFactory() throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.POST;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+            }
+        };
+        final HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+
+        Deencapsulation.invoke(conn, "setSSLSocketFactory", SSLSocketFactory.class);
+    }
+
     // Tests_SRS_HTTPSCONNECTION_11_010: [The function shall throw an IllegalArgumentException if the request does not currently use method POST or PUT and the body is non-empty.]
     @Test(expected = IllegalArgumentException.class)
     public void writeOutputFailsWhenMethodIsNotPostOrPut() throws IOException
@@ -425,8 +477,7 @@ public class HttpsConnectionTest
 
     // Tests_SRS_HTTPSCONNECTION_11_011: [The function shall read from the input stream (response stream) and return the response.]
     @Test
-    public void readInputCompletelyReadsInputStream(
-            @Mocked final InputStream mockIs)
+    public void readInputCompletelyReadsInputStream()
             throws IOException
     {
         final HttpsMethod httpsMethod = HttpsMethod.GET;
@@ -440,9 +491,7 @@ public class HttpsConnectionTest
                 mockUrlConn.getRequestMethod();
                 result = httpsMethod.name();
                 mockUrlConn.getInputStream();
-                result = mockIs;
-                mockIs.read();
-                returns(1, 2, 3, -1);
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
             }
         };
         HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
@@ -454,6 +503,42 @@ public class HttpsConnectionTest
         assertThat(testResponse, is(expectedResponse));
     }
 
+    // Tests_SRS_HTTPSCONNECTION_11_011: [The function shall read from the input stream (response stream) and return the response.]
+    // Tests_SRS_HTTPSCONNECTION_28_003: [The function shall read the stream in blocks into a buffer reused by the thread, growing it as needed.]
+    @Test
+    public void readInputReadsResponsesLargerThanTheReadBuffer()
+            throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        final byte[] largeResponse = new byte[100 * 1024 + 7];
+        for (int i = 0; i < largeResponse.length; i++)
+        {
+            largeResponse[i] = (byte) i;
+        }
+        final byte[] smallResponse = { 4, 5 };
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getInputStream();
+                returns(new ByteArrayInputStream(largeResponse), new ByteArrayInputStream(smallResponse));
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+        conn.connect();
+
+        byte[] testLargeResponse = conn.readInput();
+        byte[] testSmallResponse = conn.readInput();
+
+        assertThat(testLargeResponse, is(largeResponse));
+        assertThat(testSmallResponse, is(smallResponse));
+    }
+
     // Tests_SRS_HTTPSCONNECTION_11_012: [The function shall throw an IOException if the input stream could not be accessed.]
     @Test(expected = IOException.class)
     public void readInputFailsIfCannotAccessInputStream()
@@ -496,7 +581,7 @@ public class HttpsConnectionTest
                 result = httpsMethod.name();
                 mockUrlConn.getInputStream();
                 result = mockIs;
-                mockIs.read();
+                mockIs.read((byte[]) any, anyInt, anyInt);
                 result = -1;
             }
         };
@@ -515,8 +600,7 @@ public class HttpsConnectionTest
 
     // Tests_SRS_HTTPSCONNECTION_11_013: [The function shall read from the error stream and return the response.]
     @Test
-    public void readErrorCompletelyReadsErrorStream(
-            @Mocked final InputStream mockIs)
+    public void readErrorCompletelyReadsErrorStream()
             throws IOException
     {
         final HttpsMethod httpsMethod = HttpsMethod.GET;
@@ -530,9 +614,7 @@ public class HttpsConnectionTest
                 mockUrlConn.getRequestMethod();
                 result = httpsMethod.name();
                 mockUrlConn.getErrorStream();
-                result = mockIs;
-                mockIs.read();
-                returns(1, 2, 3, -1);
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
             }
         };
         HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
@@ -614,7 +696,7 @@ public class HttpsConnectionTest
                 result = httpsMethod.name();
                 mockUrlConn.getErrorStream();
                 result = mockIs;
-                mockIs.read();
+                mockIs.read((byte[]) any, anyInt, anyInt);
                 result = -1;
             }
         };
@@ -202,6 +202,44 @@ public class HttpsIotHubConnectionTest
         };
     }
 
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_28_001: [The constructor shall create a SAS token provider for the configuration, which all the requests shall get their SAS token from.]
+    @Test
+    public void requestsReuseTheSasToken(@Mocked final IotHubEventUri mockUri) throws IOException
+    {
+        final String tokenStr = "test-token-str";
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getIotHubHostname();
+                result = "test-iothubname";
+                mockConfig.getDeviceId();
+                result = "test-device-id";
+                mockConfig.getDeviceKey();
+                result = "test-device-key";
+                mockConfig.getTokenValidSecs();
+                result = 3600L;
+                new IotHubSasToken(mockConfig, anyLong);
+                result = mockToken;
+                mockToken.toString();
+                result = tokenStr;
+            }
+        };
+
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        conn.sendEvent(mockMsg);
+        conn.sendEvent(mockMsg);
+
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 1;
+                mockRequest.setHeaderField(withMatch("(?i)authorization"), tokenStr);
+                times = 2;
+            }
+        };
+    }
+
     // Tests_SRS_HTTPSIOTHUBCONNECTION_11_007: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
     @Test
     public void sendEventSetsAuthToSasToken(@Mocked final IotHubEventUri mockUri) throws IOException
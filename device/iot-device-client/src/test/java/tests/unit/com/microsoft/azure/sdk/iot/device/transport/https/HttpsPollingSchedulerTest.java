@@ -0,0 +1,117 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
+
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsPollingScheduler;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for HttpsPollingScheduler. */
+public class HttpsPollingSchedulerTest
+{
+    private static final long MIN_INTERVAL = 1000L;
+    private static final long MAX_INTERVAL = 5000L;
+
+    // Tests_SRS_HTTPSPOLLINGSCHEDULER_28_001: [If the shortest interval is zero or negative, or if the longest
+    // interval is shorter than the shortest one, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroMinInterval()
+    {
+        new HttpsPollingScheduler(0L, MAX_INTERVAL);
+    }
+
+    // Tests_SRS_HTTPSPOLLINGSCHEDULER_28_001: [If the shortest interval is zero or negative, or if the longest
+    // interval is shorter than the shortest one, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnMaxIntervalShorterThanMin()
+    {
+        new HttpsPollingScheduler(MAX_INTERVAL, MIN_INTERVAL);
+    }
+
+    // Tests_SRS_HTTPSPOLLINGSCHEDULER_28_002: [The constructor shall start with the shortest interval and a poll due at once.]
+    // Tests_SRS_HTTPSPOLLINGSCHEDULER_28_008: [The function shall return the current interval between two polls.]
+    @Test
+    public void constructorMakesFirstPollDue()
+    {
+        // act
+        HttpsPollingScheduler scheduler = new HttpsPollingScheduler(MIN_INTERVAL, MAX_INTERVAL);
+
+        // assert
+        assertTrue(scheduler.isPollDue(0L));
+        assertEquals(MIN_INTERVAL, scheduler.getIntervalMillis());
+    }
+
+    // Tests_SRS_HTTPSPOLLINGSCHEDULER_28_005: [If the poll found no message, the function shall double the
+    // interval, up to the longest one.]
+    @Test
+    public void onPollDoublesIntervalUpToMaxOnEmptyPolls()
+    {
+        // arrange
+        HttpsPollingScheduler scheduler = new HttpsPollingScheduler(MIN_INTERVAL, MAX_INTERVAL);
+
+        // act - assert
+        scheduler.onPoll(0L, 0);
+        assertEquals(2000L, scheduler.getIntervalMillis());
+        scheduler.onPoll(0L, 0);
+        assertEquals(4000L, scheduler.getIntervalMillis());
+        scheduler.onPoll(0L, 0);
+        assertEquals(MAX_INTERVAL, scheduler.getIntervalMillis());
+        scheduler.onPoll(0L, 0);
+        assertEquals(MAX_INTERVAL, scheduler.getIntervalMillis());
+    }
+
+    // Tests_SRS_HTTPSPOLLINGSCHEDULER_28_004: [If the poll found messages, the function shall reset the interval to the shortest one.]
+    @Test
+    public void onPollResetsIntervalWhenMessagesArrive()
+    {
+        // arrange
+        HttpsPollingScheduler scheduler = new HttpsPollingScheduler(MIN_INTERVAL, MAX_INTERVAL);
+        scheduler.onPoll(0L, 0);
+        scheduler.onPoll(0L, 0);
+
+        // act
+        scheduler.onPoll(0L, 3);
+
+        // assert
+        assertEquals(MIN_INTERVAL, scheduler.getIntervalMillis());
+    }
+
+    // Tests_SRS_HTTPSPOLLINGSCHEDULER_28_003: [The function shall return true if the current time reached the time of the next poll.]
+    // Tests_SRS_HTTPSPOLLINGSCHEDULER_28_006: [The function shall make the next poll due after the interval, less
+    // half the shortest interval so that a receive task ticking at the shortest interval does not miss it.]
+    @Test
+    public void onPollMakesNextPollDueAfterTheInterval()
+    {
+        // arrange
+        HttpsPollingScheduler scheduler = new HttpsPollingScheduler(MIN_INTERVAL, MAX_INTERVAL);
+
+        // act
+        scheduler.onPoll(10000L, 0);
+
+        // assert
+        assertFalse(scheduler.isPollDue(11000L));
+        assertFalse(scheduler.isPollDue(11499L));
+        assertTrue(scheduler.isPollDue(11500L));
+    }
+
+    // Tests_SRS_HTTPSPOLLINGSCHEDULER_28_007: [The function shall reset the interval to the shortest one and make the next poll due at once.]
+    @Test
+    public void pollNowMakesPollDueAtShortestInterval()
+    {
+        // arrange
+        HttpsPollingScheduler scheduler = new HttpsPollingScheduler(MIN_INTERVAL, MAX_INTERVAL);
+        scheduler.onPoll(10000L, 0);
+        scheduler.onPoll(10000L, 0);
+
+        // act
+        scheduler.pollNow();
+
+        // assert
+        assertTrue(scheduler.isPollDue(10000L));
+        assertEquals(MIN_INTERVAL, scheduler.getIntervalMillis());
+    }
+}
@@ -647,7 +647,7 @@ public class HttpsRequestTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockConn, "setSSLContext", mockedContext.getIotHubSSlContext());
+                Deencapsulation.invoke(mockConn, "setSSLSocketFactory", mockedContext.getIotHubSocketFactory());
             }
         };
     }
@@ -20,6 +20,7 @@ import java.io.IOException;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 /**
  * Unit test for https transport manager.
@@ -113,6 +114,63 @@ public class HttpsTransportManagerTest
         assertNotNull(Deencapsulation.getField(httpsTransportManager, "httpsIotHubConnection"));
     }
 
+    /* Tests_SRS_HTTPSTRANSPORTMANAGER_28_001: [If the transport connection is already open, the open shall keep it.] */
+    @Test
+    public void openTwiceKeepsTheConnection()
+    {
+        // arrange
+        HttpsTransportManager httpsTransportManager = Deencapsulation.newInstance(HttpsTransportManager.class, new Class[] {DeviceClientConfig.class}, mockConfig);
+        Deencapsulation.invoke(httpsTransportManager, "open");
+        final Object connection = Deencapsulation.getField(httpsTransportManager, "httpsIotHubConnection");
+
+        // act
+        Deencapsulation.invoke(httpsTransportManager, "open");
+        Deencapsulation.invoke(httpsTransportManager, "open", new Class<?>[] {String[].class}, (Object)new String[]{ "a" });
+
+        // assert
+        assertSame(connection, Deencapsulation.getField(httpsTransportManager, "httpsIotHubConnection"));
+        new Verifications()
+        {
+            {
+                Deencapsulation.newInstance(HttpsIotHubConnection.class, new Class[] {DeviceClientConfig.class}, mockConfig);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_HTTPSTRANSPORTMANAGER_28_002: [If the transport connection is not open, the send and the receive shall throw IOException.] */
+    @Test (expected = IOException.class)
+    public void sendWithoutOpenThrows() throws IOException
+    {
+        // arrange
+        HttpsTransportManager httpsTransportManager = Deencapsulation.newInstance(HttpsTransportManager.class, new Class[] {DeviceClientConfig.class}, mockConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockTransportMsg.getIotHubMethod();
+                result = IotHubMethod.POST;
+                mockTransportMsg.getUriPath();
+                result = "/files/notifications";
+            }
+        };
+
+        // act
+        httpsTransportManager.send(mockTransportMsg);
+    }
+
+    /* Tests_SRS_HTTPSTRANSPORTMANAGER_28_002: [If the transport connection is not open, the send and the receive shall throw IOException.] */
+    @Test (expected = IOException.class)
+    public void receiveAfterCloseThrows() throws IOException
+    {
+        // arrange
+        HttpsTransportManager httpsTransportManager = Deencapsulation.newInstance(HttpsTransportManager.class, new Class[] {DeviceClientConfig.class}, mockConfig);
+        Deencapsulation.invoke(httpsTransportManager, "open");
+        Deencapsulation.invoke(httpsTransportManager, "close");
+
+        // act
+        httpsTransportManager.receive();
+    }
+
     /* Tests_SRS_HTTPSTRANSPORTMANAGER_21_006: [The close shall destroy the transport connection `HttpsIotHubConnection`.] */
     @Test
     public void closeSucceed()
@@ -4,29 +4,57 @@
 package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
 
 import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendSignal;
 import com.microsoft.azure.sdk.iot.device.transport.https.*;
 import junit.framework.AssertionFailedError;
 import mockit.*;
+import org.junit.Before;
 import org.junit.Test;
 
 import javax.naming.SizeLimitExceededException;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ExecutorService;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 /** Unit tests for HttpsTransport. */
 public class HttpsTransportTest
 {
     @Mocked
     DeviceClientConfig mockConfig;
+
+    @Before
+    public void setUp()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getOutboundQueueMaxMessages();
+                result = Integer.MAX_VALUE;
+                mockConfig.getOutboundQueueMaxBytes();
+                result = Long.MAX_VALUE;
+                mockConfig.getOutboundQueuePolicy();
+                result = IotHubOutboundQueuePolicy.BLOCK;
+                mockConfig.getMaxMessagesPerReceive();
+                result = 1;
+            }
+        };
+    }
+
     @Mocked
     HttpsIotHubConnection mockConn;
 
@@ -355,6 +383,255 @@ public class HttpsTransportTest
         };
     }
 
+    // Tests_SRS_HTTPSTRANSPORT_28_018: [If more than one batch can be in flight at the same time, the function
+    // shall create as many threads to send them.]
+    // Tests_SRS_HTTPSTRANSPORT_28_020: [The function shall batch the waiting messages until the maximum number of
+    // batches in flight given in the configuration is reached, counting the batches to resend.]
+    // Tests_SRS_HTTPSTRANSPORT_28_021: [If several batches are in progress, the function shall send them at the same time.]
+    // Tests_SRS_HTTPSTRANSPORT_28_022: [The function shall add the callbacks of the batches sent to the
+    // callback queue in the order of the batches.]
+    @Test
+    public void sendMessagesSendsSeveralBatchesInOrder(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch,
+            @Mocked final ResponseMessage mockResponseMessage)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getHttpsMaxInFlightBatches();
+                result = 3;
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+                new HttpsBatchMessage();
+                result = mockBatch;
+                mockBatch.addMessage(mockHttpsMsg);
+                result = new SizeLimitExceededException();
+                mockConn.sendEvent((HttpsMessage) any);
+                result = mockResponseMessage;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        for (int i = 0; i < 4; i++)
+        {
+            transport.addMessage(mockMsg, mockCallback, i);
+        }
+        transport.sendMessages();
+        transport.invokeCallbacks();
+
+        assertEquals(1, transport.getOutboundQueueSize());
+        final List<Object> contexts = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockConn.sendEvent((HttpsMessage) any);
+                times = 3;
+                mockCallback.execute((IotHubStatusCode) any, withCapture(contexts));
+                times = 3;
+            }
+        };
+        assertEquals(Arrays.<Object>asList(0, 1, 2), contexts);
+        transport.close();
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_023: [If the request of a batch failed, the function shall keep the batch
+    // in progress, and throw an IOException once the other responses are handled.]
+    @Test
+    public void sendMessagesKeepsFailedBatchToResend(
+            @Mocked final Message mockMsg1,
+            @Mocked final Message mockMsg2,
+            @Mocked final HttpsSingleMessage mockHttpsMsg1,
+            @Mocked final HttpsSingleMessage mockHttpsMsg2,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch,
+            @Mocked final ResponseMessage mockResponseMessage)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getHttpsMaxInFlightBatches();
+                result = 2;
+                HttpsSingleMessage.parseHttpsMessage(mockMsg1);
+                result = mockHttpsMsg1;
+                HttpsSingleMessage.parseHttpsMessage(mockMsg2);
+                result = mockHttpsMsg2;
+                new HttpsBatchMessage();
+                result = mockBatch;
+                mockBatch.addMessage((HttpsSingleMessage) any);
+                result = new SizeLimitExceededException();
+                mockConn.sendEvent(mockHttpsMsg1);
+                result = new IOException();
+                result = mockResponseMessage;
+                mockConn.sendEvent(mockHttpsMsg2);
+                result = mockResponseMessage;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg1, mockCallback, 1);
+        transport.addMessage(mockMsg2, mockCallback, 2);
+        try
+        {
+            transport.sendMessages();
+            throw new AssertionFailedError();
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        transport.invokeCallbacks();
+        transport.sendMessages();
+        transport.invokeCallbacks();
+
+        final List<Object> contexts = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockConn.sendEvent(mockHttpsMsg1);
+                times = 2;
+                mockConn.sendEvent(mockHttpsMsg2);
+                times = 1;
+                mockCallback.execute((IotHubStatusCode) any, withCapture(contexts));
+                times = 2;
+            }
+        };
+        assertEquals(Arrays.<Object>asList(2, 1), contexts);
+        transport.close();
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_027: [If the thread is interrupted, the function shall still wait for the
+    // response of each batch in flight, so no batch left in progress is still being sent, then restore the
+    // interrupt status and throw an IOException.]
+    @Test
+    public void sendMessagesWaitsForBatchesInFlightWhenInterrupted(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch,
+            @Mocked final ResponseMessage mockResponseMessage)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getHttpsMaxInFlightBatches();
+                result = 2;
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+                new HttpsBatchMessage();
+                result = mockBatch;
+                mockBatch.addMessage(mockHttpsMsg);
+                result = new SizeLimitExceededException();
+                mockConn.sendEvent((HttpsMessage) any);
+                result = mockResponseMessage;
+            }
+        };
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, 1);
+        transport.addMessage(mockMsg, mockCallback, 2);
+        boolean thrown = false;
+
+        Thread.currentThread().interrupt();
+        try
+        {
+            transport.sendMessages();
+        }
+        catch (IOException e)
+        {
+            thrown = true;
+        }
+        boolean interrupted = Thread.interrupted();
+
+        assertTrue(thrown);
+        assertTrue(interrupted);
+        Queue<List<IotHubOutboundPacket>> inProgressList = Deencapsulation.getField(transport, "inProgressList");
+        assertTrue(inProgressList.isEmpty());
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        assertEquals(2, callbackList.size());
+        new Verifications()
+        {
+            {
+                mockConn.sendEvent((HttpsMessage) any);
+                times = 2;
+            }
+        };
+        transport.close();
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_019: [The function shall stop the threads that send the batches, and wait
+    // for the batches in flight to be answered.]
+    @Test
+    public void closeStopsTheSendThreads() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getHttpsMaxInFlightBatches();
+                result = 2;
+            }
+        };
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        ExecutorService sendExecutor = Deencapsulation.getField(transport, "sendExecutor");
+
+        transport.close();
+
+        assertTrue(sendExecutor.isTerminated());
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_028: [A batch still in flight shall be taken from the batches in progress
+    // either by the function or by the send, so its callbacks are invoked once.]
+    @Test
+    public void closeDuringSendInvokesTheCallbacksOfTheBatchOnce(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        final HttpsTransport transport = new HttpsTransport(mockConfig);
+        new NonStrictExpectations()
+        {
+            {
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+                mockConn.sendEvent((HttpsMessage) any);
+                result = new Delegate<ResponseMessage>()
+                {
+                    ResponseMessage sendEvent(HttpsMessage message) throws IOException
+                    {
+                        transport.close();
+                        return new ResponseMessage(new byte[0], IotHubStatusCode.OK_EMPTY);
+                    }
+                };
+            }
+        };
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, 1);
+
+        transport.sendMessages();
+
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        assertTrue(callbackList.isEmpty());
+        new Verifications()
+        {
+            {
+                mockCallback.execute(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, 1);
+                times = 1;
+                mockCallback.execute((IotHubStatusCode) any, any);
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_HTTPSTRANSPORT_11_013: [If no messages fit using the batch format, the function shall send a single message without the batch format.]
     @Test
     public void sendMessagesSendsSingleMesssageIfBatchFormatExceedsMaxSize(
@@ -667,6 +944,194 @@ public class HttpsTransportTest
         };
     }
 
+    // Tests_SRS_HTTPSTRANSPORT_28_010: [The function shall keep polling the IoT Hub until no message is found, or
+    // until it handled the maximum number of messages per receive given in the configuration.]
+    @Test
+    public void handleMessagePollsUntilNoMessageIsFound(
+            @Mocked final MessageCallback mockCallback,
+            @Mocked final Message mockMessage)
+            throws URISyntaxException, IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockCallback;
+                mockConfig.getMaxMessagesPerReceive();
+                result = 100;
+                mockConn.receiveMessage();
+                returns(mockMessage, mockMessage, null);
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.handleMessage();
+
+        new Verifications()
+        {
+            {
+                mockCallback.execute(mockMessage, any);
+                times = 2;
+                mockConn.sendMessageResult((IotHubMessageResult) any);
+                times = 2;
+                mockConn.receiveMessage();
+                times = 3;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_010: [The function shall keep polling the IoT Hub until no message is found, or
+    // until it handled the maximum number of messages per receive given in the configuration.]
+    @Test
+    public void handleMessagePollsNoMoreThanMaxMessagesPerReceive(
+            @Mocked final MessageCallback mockCallback,
+            @Mocked final Message mockMessage)
+            throws URISyntaxException, IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockCallback;
+                mockConfig.getMaxMessagesPerReceive();
+                result = 3;
+                mockConn.receiveMessage();
+                result = mockMessage;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.handleMessage();
+
+        new Verifications()
+        {
+            {
+                mockCallback.execute(mockMessage, any);
+                times = 3;
+                mockConn.receiveMessage();
+                times = 3;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_014: [If the first poll found no message, the function shall count an empty poll.]
+    // Tests_SRS_HTTPSTRANSPORT_28_016: [The function shall return the interval of the adaptive polls, or 0 if adaptive polling is not enabled.]
+    // Tests_SRS_HTTPSTRANSPORT_28_017: [The function shall return the number of polls that found no message.]
+    @Test
+    public void handleMessageCountsEmptyPolls(
+            @Mocked final MessageCallback mockCallback,
+            @Mocked final Message mockMessage)
+            throws URISyntaxException, IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockCallback;
+                mockConn.receiveMessage();
+                returns(null, mockMessage, null);
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.handleMessage();
+        transport.handleMessage();
+        transport.handleMessage();
+
+        assertEquals(2L, transport.getEmptyPollCount());
+        assertEquals(0L, transport.getPollingIntervalMillis());
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_011: [If adaptive polling is enabled in the configuration, the function shall
+    // schedule the polls between the shortest and the longest polling intervals of the configuration.]
+    // Tests_SRS_HTTPSTRANSPORT_28_013: [If adaptive polling is enabled and the next poll is not due, the function shall do nothing.]
+    // Tests_SRS_HTTPSTRANSPORT_28_015: [If adaptive polling is enabled, the function shall schedule the next poll
+    // from the number of messages handled.]
+    @Test
+    public void handleMessageWithAdaptivePollingWaitsForTheNextPoll(
+            @Mocked final MessageCallback mockCallback)
+            throws URISyntaxException, IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockCallback;
+                mockConfig.isAdaptivePolling();
+                result = true;
+                mockConfig.getAdaptivePollingMinIntervalMillis();
+                result = 60000L;
+                mockConfig.getAdaptivePollingMaxIntervalMillis();
+                result = 600000L;
+                mockConn.receiveMessage();
+                result = null;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.handleMessage();
+        transport.handleMessage();
+
+        assertEquals(1L, transport.getEmptyPollCount());
+        assertEquals(120000L, transport.getPollingIntervalMillis());
+        new Verifications()
+        {
+            {
+                mockConn.receiveMessage();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_012: [If adaptive polling is enabled, the function shall make the next poll due
+    // at once, since the messages sent may be answered.]
+    @Test
+    public void sendMessagesWithAdaptivePollingMakesThePollDue(
+            @Mocked final MessageCallback mockMessageCallback,
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch)
+            throws URISyntaxException, IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockMessageCallback;
+                mockConfig.isAdaptivePolling();
+                result = true;
+                mockConfig.getAdaptivePollingMinIntervalMillis();
+                result = 60000L;
+                mockConfig.getAdaptivePollingMaxIntervalMillis();
+                result = 600000L;
+                mockConn.receiveMessage();
+                result = null;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.handleMessage();
+        transport.addMessage(mockMsg, mockCallback, null);
+        transport.sendMessages();
+        long intervalAfterSend = transport.getPollingIntervalMillis();
+        transport.handleMessage();
+
+        assertEquals(60000L, intervalAfterSend);
+        new Verifications()
+        {
+            {
+                mockConn.receiveMessage();
+                times = 2;
+            }
+        };
+    }
+
     // Tests_SRS_HTTPSTRANSPORT_11_011: [The function shall return the message result (one of COMPLETE, ABANDON, or REJECT) to the IoT Hub.]
     @Test
     public void handleMessageSendsMessageResult(
@@ -822,4 +1287,140 @@ public class HttpsTransportTest
         final boolean expectedIsEmpty = true;
         assertThat(testIsEmpty, is(expectedIsEmpty));
     }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_001: [If a send signal is registered, the function shall notify it.]
+    // Tests_SRS_HTTPSTRANSPORT_28_002: [If a send signal is registered, the function shall notify it.]
+    // Tests_SRS_HTTPSTRANSPORT_28_003: [The function shall save the send signal.]
+    @Test
+    public void addMessageNotifiesRegisteredSendSignal(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockEventCallback,
+            @Mocked final IotHubResponseCallback mockResponseCallback,
+            @Mocked final IotHubSendSignal mockSendSignal) throws IOException
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.registerSendSignal(mockSendSignal);
+
+        transport.addMessage(mockMsg, mockEventCallback, null);
+        transport.addMessage(mockMsg, mockResponseCallback, null);
+
+        new Verifications()
+        {
+            {
+                mockSendSignal.signal();
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_004: [The function shall bound the transport queue with the capacity and the policy given in the configuration.]
+    @Test
+    public void openBoundsTransportQueueWithConfiguredLimits() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getOutboundQueueMaxMessages();
+                result = 5;
+                mockConfig.getOutboundQueueMaxBytes();
+                result = 50L;
+                mockConfig.getOutboundQueuePolicy();
+                result = IotHubOutboundQueuePolicy.DROP_OLDEST;
+            }
+        };
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+
+        transport.open();
+
+        IotHubOutboundQueue waitingList = Deencapsulation.getField(transport, "waitingList");
+        assertEquals(5, Deencapsulation.getField(waitingList, "maxMessages"));
+        assertEquals(50L, Deencapsulation.getField(waitingList, "maxBytes"));
+        assertEquals(IotHubOutboundQueuePolicy.DROP_OLDEST, Deencapsulation.getField(waitingList, "policy"));
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_005: [For each packet left out of the full transport queue, the function shall add a packet containing the callback, context, and the MESSAGE_CANCELLED_QUEUE_FULL status code to the callback queue.]
+    @Test
+    public void addMessageCompletesRejectedMessageWithQueueFullStatus(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        IotHubOutboundQueue waitingList = Deencapsulation.getField(transport, "waitingList");
+        waitingList.setLimits(1, Long.MAX_VALUE, IotHubOutboundQueuePolicy.REJECT);
+        final Object firstContext = new Object();
+        final Object secondContext = new Object();
+
+        transport.addMessage(mockMsg, mockCallback, firstContext);
+        transport.addMessage(mockMsg, mockCallback, secondContext);
+        transport.invokeCallbacks();
+
+        assertEquals(1, transport.getOutboundQueueSize());
+        new Verifications()
+        {
+            {
+                mockCallback.execute(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, secondContext);
+                times = 1;
+                mockCallback.execute((IotHubStatusCode) any, firstContext);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_006: [The function shall return the number of messages in the transport queue.]
+    // Tests_SRS_HTTPSTRANSPORT_28_007: [The function shall return the number of message body bytes in the transport queue.]
+    @Test
+    public void getOutboundQueueSizeReturnsWaitingMessages(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyLength();
+                result = 7;
+            }
+        };
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+
+        transport.addMessage(mockMsg, mockCallback, null);
+        transport.addMessage(mockMsg, mockCallback, null);
+
+        assertEquals(2, transport.getOutboundQueueSize());
+        assertEquals(14L, transport.getOutboundQueueSizeInBytes());
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_28_008: [The function shall save the callback dispatcher.]
+    // Tests_SRS_HTTPSTRANSPORT_28_009: [If a callback dispatcher is registered, the function shall hand the callbacks to it instead of invoking them.]
+    @Test
+    public void invokeCallbacksHandsCallbacksToRegisteredDispatcher(
+            @Mocked final IotHubEventCallback mockEventCallback,
+            @Mocked final IotHubCallbackDispatcher mockCallbackDispatcher) throws IOException
+    {
+        // arrange
+        final IotHubCallbackPacket packet = new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockEventCallback, null);
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.registerCallbackDispatcher(mockCallbackDispatcher);
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        callbackList.add(packet);
+        callbackList.add(packet);
+
+        // act
+        transport.invokeCallbacks();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockCallbackDispatcher.dispatch(packet);
+                times = 2;
+                mockEventCallback.execute((IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+        assertTrue(callbackList.isEmpty());
+    }
 }
@@ -0,0 +1,206 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.IotHubSSLContext;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInboundRouter;
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.Assert.*;
+
+/* Unit tests for MqttConnection */
+public class MqttConnectionTest
+{
+    final String serverUri = "test.host.name";
+    final String clientId = "test.iothub";
+    final String userName = "test-deviceId";
+    final String password = "test-devicekey?&test";
+
+    @Mocked
+    private MqttAsyncClient mockMqttAsyncClient;
+
+    @Mocked
+    private MqttConnectOptions mockMqttConnectionOptions;
+
+    @Mocked
+    private MemoryPersistence mockMemoryPersistence;
+
+    @Mocked
+    private MqttException mockMqttException;
+
+    @Mocked
+    private MqttCallback mockMqttCallback;
+
+    @Mocked
+    IotHubSSLContext mockIotHubSSLContext;
+
+    // Tests_SRS_MQTTCONNECTION_28_001: [The constructor shall throw InvalidParameterException if any of the parameters is null or empty.]
+    @Test (expected = InvalidParameterException.class)
+    public void constructorThrowsOnNullServerUri() throws IOException
+    {
+        new MqttConnection(null, clientId, userName, password, mockIotHubSSLContext);
+    }
+
+    // Tests_SRS_MQTTCONNECTION_28_001: [The constructor shall throw InvalidParameterException if any of the parameters is null or empty.]
+    @Test (expected = InvalidParameterException.class)
+    public void constructorThrowsOnEmptyClientId() throws IOException
+    {
+        new MqttConnection(serverUri, "", userName, password, mockIotHubSSLContext);
+    }
+
+    // Tests_SRS_MQTTCONNECTION_28_001: [The constructor shall throw InvalidParameterException if any of the parameters is null or empty.]
+    @Test (expected = InvalidParameterException.class)
+    public void constructorThrowsOnNullSSLContext() throws IOException
+    {
+        new MqttConnection(serverUri, clientId, userName, password, null);
+    }
+
+    // Tests_SRS_MQTTCONNECTION_28_002: [The constructor shall create a new mqtt async client and its connection options for the provided configuration.]
+    // Tests_SRS_MQTTCONNECTION_28_004: [The constructor shall create an empty inbound router and a lock for this connection only.]
+    @Test
+    public void constructorCreatesClientOptionsRouterAndLock() throws IOException, MqttException
+    {
+        //act
+        MqttConnection connection = new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext);
+
+        //assert
+        assertNotNull(Deencapsulation.getField(connection, "mqttAsyncClient"));
+        assertNotNull(Deencapsulation.getField(connection, "connectionOptions"));
+        MqttInboundRouter actualRouter = Deencapsulation.getField(connection, "inboundRouter");
+        assertNotNull(actualRouter);
+        assertEquals(0, actualRouter.size());
+        assertNotNull(Deencapsulation.getField(connection, "mqttLock"));
+
+        new Verifications()
+        {
+            {
+                new MqttAsyncClient(serverUri, clientId, (MemoryPersistence) any);
+                times = 1;
+                mockMqttConnectionOptions.setUserName(userName);
+                times = 1;
+                mockMqttConnectionOptions.setPassword(password.toCharArray());
+                times = 1;
+                mockMqttConnectionOptions.setSocketFactory(mockIotHubSSLContext.getIotHubSSlContext().getSocketFactory());
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTCONNECTION_28_004: [The constructor shall create an empty inbound router and a lock for this connection only.]
+    @Test
+    public void constructorDoesNotShareStateBetweenConnections() throws IOException
+    {
+        //act
+        MqttConnection connection1 = new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext);
+        MqttConnection connection2 = new MqttConnection(serverUri, clientId + 2, userName, password, mockIotHubSSLContext);
+
+        //assert
+        assertNotSame(Deencapsulation.getField(connection1, "inboundRouter"), Deencapsulation.getField(connection2, "inboundRouter"));
+        assertNotSame(Deencapsulation.getField(connection1, "mqttLock"), Deencapsulation.getField(connection2, "mqttLock"));
+    }
+
+    // Tests_SRS_MQTTCONNECTION_28_006: [The constructor shall throw InvalidParameterException if the in-flight window is zero or negative.]
+    @Test (expected = InvalidParameterException.class)
+    public void constructorThrowsOnZeroInFlightWindow() throws IOException
+    {
+        new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext, 0);
+    }
+
+    // Tests_SRS_MQTTCONNECTION_28_007: [The constructor shall create an in-flight window with one permit for each publish
+    // allowed to wait for its acknowledgement, and let the mqtt client hold that many publishes in flight.]
+    @Test
+    public void constructorCreatesInFlightWindow() throws IOException
+    {
+        //act
+        MqttConnection connection = new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext, 3);
+        MqttConnection defaultConnection = new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext);
+
+        //assert
+        Semaphore inFlightWindow = Deencapsulation.invoke(connection, "getInFlightWindow");
+        assertEquals(3, inFlightWindow.availablePermits());
+        Semaphore defaultInFlightWindow = Deencapsulation.invoke(defaultConnection, "getInFlightWindow");
+        assertEquals(MqttConnection.DEFAULT_MAX_IN_FLIGHT_COUNT, defaultInFlightWindow.availablePermits());
+        new Verifications()
+        {
+            {
+                mockMqttConnectionOptions.setMaxInflight(3);
+                times = 1;
+                mockMqttConnectionOptions.setMaxInflight(MqttConnection.DEFAULT_MAX_IN_FLIGHT_COUNT);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTCONNECTION_28_003: [If the mqtt async client throws MqttException, the constructor shall throw IOException.]
+    @Test (expected = IOException.class)
+    public void constructorThrowsIOExceptionIfMqttAsyncClientFails() throws IOException, MqttException
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                new MqttAsyncClient(serverUri, clientId, (MemoryPersistence) any);
+                result = mockMqttException;
+            }
+        };
+
+        //act
+        new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext);
+    }
+
+    // Tests_SRS_MQTTCONNECTION_28_005: [The function shall set the callback of the mqtt async client, if any.]
+    @Test
+    public void setMqttCallbackSetsCallbackOfClient() throws IOException
+    {
+        //arrange
+        MqttConnection connection = new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext);
+
+        //act
+        Deencapsulation.invoke(connection, "setMqttCallback", mockMqttCallback);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.setCallback(mockMqttCallback);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTCONNECTION_28_005: [The function shall set the callback of the mqtt async client, if any.]
+    @Test
+    public void setMqttCallbackDoesNothingWithoutClient() throws IOException
+    {
+        //arrange
+        MqttConnection connection = new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext);
+        Deencapsulation.setField(connection, "mqttAsyncClient", null);
+
+        //act
+        Deencapsulation.invoke(connection, "setMqttCallback", mockMqttCallback);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.setCallback((MqttCallback) any);
+                times = 0;
+            }
+        };
+    }
+}
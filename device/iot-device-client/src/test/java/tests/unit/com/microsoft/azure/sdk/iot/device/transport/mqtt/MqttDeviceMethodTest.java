@@ -8,27 +8,35 @@ import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.Mqtt;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInboundRouter;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttDeviceMethod;
 import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.Verifications;
+import mockit.VerificationsInOrder;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListMap;
 
 import static com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations.*;
 import static org.junit.Assert.*;
 
 public class MqttDeviceMethodTest
 {
+    private static final Class<?>[] PUBLISH_ARGUMENT_TYPES = {String.class, byte[].class, IMqttActionListener.class};
+
     @Mocked
     Mqtt mockedMqtt;
 
+    @Mocked
+    MqttConnection mockMqttConnection;
+
     /*
-    Tests_SRS_MqttDeviceMethod_25_001: [**The constructor shall instantiate super class without any parameters.**]**
+    Tests_SRS_MqttDeviceMethod_25_001: [**The constructor shall instantiate super class with the mqtt connection of the device.**]**
 
     Tests_SRS_MqttDeviceMethod_25_002: [**The constructor shall create subscribe and response topics strings for device methods as per the spec.**]**
      */
@@ -40,7 +48,7 @@ public class MqttDeviceMethodTest
         String actualResTopic = "$iothub/methods/res";
 
         //act
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
 
         //assert
         String testSubscribeTopic = Deencapsulation.getField(testMethod, "subscribeTopic");
@@ -60,7 +68,7 @@ public class MqttDeviceMethodTest
     public void startSucceedsCalls() throws IOException
     {
         //arrange
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
 
         //act
         testMethod.start();
@@ -80,7 +88,7 @@ public class MqttDeviceMethodTest
     public void startSucceedsDoesNotCallsSubscribeIfStarted() throws IOException
     {
         //arrange
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
         testMethod.start();
         //act
         testMethod.start();
@@ -102,7 +110,7 @@ public class MqttDeviceMethodTest
     public void stopSucceedsCallsUnSubscribe() throws IOException
     {
         //arrange
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
         testMethod.start();
 
         //act
@@ -123,7 +131,7 @@ public class MqttDeviceMethodTest
     public void stopSucceedsDoesNotCallUnSubscribeIfStopped() throws IOException
     {
         //arrange
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
         testMethod.start();
         testMethod.stop();
 
@@ -144,7 +152,7 @@ public class MqttDeviceMethodTest
     public void stopSucceedsDoesNotCallUnSubscribeIfNotStarted() throws IOException
     {
         //arrange
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
 
         //act
         testMethod.stop();
@@ -175,7 +183,7 @@ public class MqttDeviceMethodTest
         byte[] actualPayload = "TestMessage".getBytes();
         DeviceMethodMessage testMessage = new DeviceMethodMessage(actualPayload);
         testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST);
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
         testMethod.start();
 
         //act
@@ -191,6 +199,34 @@ public class MqttDeviceMethodTest
         };
     }
 
+    /*
+    Tests_SRS_MqttDeviceMethod_28_001: [**send method shall notify the completion listener, if any, as soon as the subscription to methods is acknowledged.**]**
+     */
+    @Test
+    public void sendNotifiesListenerOnceSubscribed(@Mocked final IMqttActionListener mockListener) throws IOException
+    {
+        //arrange
+        byte[] actualPayload = "TestMessage".getBytes();
+        DeviceMethodMessage testMessage = new DeviceMethodMessage(actualPayload);
+        testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST);
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
+        testMethod.start();
+
+        //act
+        testMethod.send(testMessage, mockListener);
+
+        //assert
+        new VerificationsInOrder()
+        {
+            {
+                Deencapsulation.invoke(mockedMqtt, "subscribe", anyString);
+                times = 1;
+                mockListener.onSuccess(null);
+                times = 1;
+            }
+        };
+    }
+
     /*
     Tests_SRS_MqttDeviceMethod_25_022: [**send method shall build the publish topic of the format mentioned in spec ($iothub/methods/res/{status}/?$rid={request id}) and publish if the operation is of type DEVICE_OPERATION_METHOD_SEND_RESPONSE.**]**
      */
@@ -202,7 +238,7 @@ public class MqttDeviceMethodTest
         testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_SEND_RESPONSE);
         testMessage.setRequestId("ReqId");
         testMessage.setStatus("testStatus");
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
         Map<String, DeviceOperations> testRequestMap = new HashMap<>();
         testRequestMap.put("ReqId", DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
         Deencapsulation.setField(testMethod, "requestMap", testRequestMap);
@@ -215,7 +251,7 @@ public class MqttDeviceMethodTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockedMqtt, "publish", anyString, actualPayload);
+                Deencapsulation.invoke(mockedMqtt, "publish", PUBLISH_ARGUMENT_TYPES, anyString, actualPayload, null);
                 maxTimes = 1;
             }
         };
@@ -228,7 +264,7 @@ public class MqttDeviceMethodTest
         final byte[] actualPayload = "TestMessage".getBytes();
         final DeviceMethodMessage testMessage = new DeviceMethodMessage(actualPayload);
         testMessage.setDeviceOperationType(DEVICE_OPERATION_UNKNOWN);
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
         testMethod.start();
 
         //act
@@ -243,7 +279,7 @@ public class MqttDeviceMethodTest
     {
         final byte[] actualPayload = "TestMessage".getBytes();
         final DeviceMethodMessage testMessage = new DeviceMethodMessage(actualPayload);
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
 
         //act
         testMethod.send(testMessage);
@@ -255,7 +291,7 @@ public class MqttDeviceMethodTest
     @Test (expected = IllegalArgumentException.class)
     public void sendThrowsOnMessageNull() throws IOException
     {
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
         testMethod.start();
         //act
         testMethod.send(null);
@@ -270,7 +306,7 @@ public class MqttDeviceMethodTest
         final byte[] actualPayload = "TestMessage".getBytes();
         final DeviceMethodMessage testMessage = new DeviceMethodMessage(actualPayload);
         testMessage.setMessageType(MessageType.DeviceTwin);
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
         testMethod.start();
 
         //act
@@ -280,7 +316,7 @@ public class MqttDeviceMethodTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockedMqtt, "publish", anyString, actualPayload);
+                Deencapsulation.invoke(mockedMqtt, "publish", PUBLISH_ARGUMENT_TYPES, anyString, actualPayload, null);
                 maxTimes = 0;
                 Deencapsulation.invoke(mockedMqtt, "subscribe", anyString);
                 maxTimes = 0;
@@ -299,7 +335,7 @@ public class MqttDeviceMethodTest
         final DeviceMethodMessage testMessage = new DeviceMethodMessage(actualPayload);
         testMessage.setMessageType(MessageType.DeviceMethods);
         testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_SEND_RESPONSE);
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
         testMethod.start();
 
         //act
@@ -317,7 +353,7 @@ public class MqttDeviceMethodTest
         testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_SEND_RESPONSE);
         testMessage.setRequestId("ReqId");
         testMessage.setStatus("testStatus");
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
         testMethod.start();
 
         //act
@@ -335,7 +371,7 @@ public class MqttDeviceMethodTest
         testMessage.setDeviceOperationType(DEVICE_OPERATION_METHOD_SEND_RESPONSE);
         testMessage.setRequestId("ReqId");
         testMessage.setStatus("testStatus");
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
         Map<String, DeviceOperations> testRequestMap = new HashMap<>();
         testRequestMap.put("ReqId", DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST);
         Deencapsulation.setField(testMethod, "requestMap", testRequestMap);
@@ -358,11 +394,11 @@ public class MqttDeviceMethodTest
         //arrange
         String topic = "$iothub/methods/POST/testMethod/?$rid=10";
         byte[] actualPayload = "TestPayload".getBytes();
-        ConcurrentSkipListMap<String, byte[]> testAllReceivedMessages = new ConcurrentSkipListMap<>();
-        testAllReceivedMessages.put(topic, actualPayload);
-        Deencapsulation.setField(mockedMqtt, "allReceivedMessages", testAllReceivedMessages);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(topic, actualPayload);
 
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
+        Deencapsulation.setField(testMethod, "inboundRouter", testRouter);
         testMethod.start();
 
         //act
@@ -386,11 +422,11 @@ public class MqttDeviceMethodTest
         //arrange
         String topic = "$iothub/not_methods/POST/testMethod/?$rid=10";
         byte[] actualPayload = "TestPayload".getBytes();
-        ConcurrentSkipListMap<String, byte[]> testAllReceivedMessages = new ConcurrentSkipListMap<>();
-        testAllReceivedMessages.put(topic, actualPayload);
-        Deencapsulation.setField(mockedMqtt, "allReceivedMessages", testAllReceivedMessages);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(topic, actualPayload);
 
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
+        Deencapsulation.setField(testMethod, "inboundRouter", testRouter);
         testMethod.start();
 
         //act
@@ -409,11 +445,11 @@ public class MqttDeviceMethodTest
         //arrange
         String topic = "$iothub/methods/Not_POST/testMethod/?$rid=10";
         byte[] actualPayload = "TestPayload".getBytes();
-        ConcurrentSkipListMap<String, byte[]> testAllReceivedMessages = new ConcurrentSkipListMap<>();
-        testAllReceivedMessages.put(topic, actualPayload);
-        Deencapsulation.setField(mockedMqtt, "allReceivedMessages", testAllReceivedMessages);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(topic, actualPayload);
 
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
+        Deencapsulation.setField(testMethod, "inboundRouter", testRouter);
         testMethod.start();
 
         //act
@@ -429,11 +465,11 @@ public class MqttDeviceMethodTest
         //arrange
         String topic = "$iothub/methods/POST/";
         byte[] actualPayload = "TestPayload".getBytes();
-        ConcurrentSkipListMap<String, byte[]> testAllReceivedMessages = new ConcurrentSkipListMap<>();
-        testAllReceivedMessages.put(topic, actualPayload);
-        Deencapsulation.setField(mockedMqtt, "allReceivedMessages", testAllReceivedMessages);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(topic, actualPayload);
 
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
+        Deencapsulation.setField(testMethod, "inboundRouter", testRouter);
         testMethod.start();
 
         //act
@@ -449,11 +485,11 @@ public class MqttDeviceMethodTest
         //arrange
         String topic = "$iothub/methods/POST/testMethod/";
         byte[] actualPayload = "TestPayload".getBytes();
-        ConcurrentSkipListMap<String, byte[]> testAllReceivedMessages = new ConcurrentSkipListMap<>();
-        testAllReceivedMessages.put(topic, actualPayload);
-        Deencapsulation.setField(mockedMqtt, "allReceivedMessages", testAllReceivedMessages);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(topic, actualPayload);
 
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
+        Deencapsulation.setField(testMethod, "inboundRouter", testRouter);
         testMethod.start();
 
         //act
@@ -466,11 +502,11 @@ public class MqttDeviceMethodTest
         //arrange
         String topic = "$iothub/methods/POST/testMethod/?$rid=10";
         byte[] actualPayload = "".getBytes();
-        ConcurrentSkipListMap<String, byte[]> testAllReceivedMessages = new ConcurrentSkipListMap<>();
-        testAllReceivedMessages.put(topic, actualPayload);
-        Deencapsulation.setField(mockedMqtt, "allReceivedMessages", testAllReceivedMessages);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(topic, actualPayload);
 
-        MqttDeviceMethod testMethod = new MqttDeviceMethod();
+        MqttDeviceMethod testMethod = new MqttDeviceMethod(mockMqttConnection);
+        Deencapsulation.setField(testMethod, "inboundRouter", testRouter);
         testMethod.start();
 
         //act
@@ -7,14 +7,16 @@ import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceTwinMessage;
 import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.Mqtt;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInboundRouter;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttDeviceTwin;
 import mockit.*;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListMap;
 
 import static com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations.*;
 import static org.junit.Assert.*;
@@ -22,6 +24,8 @@ import static org.junit.Assert.*;
 // Unit Tests for MqttDeviceTwin
 public class MqttDeviceTwinTest
 {
+    private static final Class<?>[] PUBLISH_ARGUMENT_TYPES = {String.class, byte[].class, IMqttActionListener.class};
+
     final String resTopic = "$iothub/twin/res/#";
     final String anyString = new String();
     final String mockVersion = "1.0.1";
@@ -30,8 +34,11 @@ public class MqttDeviceTwinTest
     @Mocked
     IOException mockIOException;
 
+    @Mocked
+    MqttConnection mockMqttConnection;
+
     /*
-    **Tests_SRS_MQTTDEVICETWIN_25_001: [**The constructor shall instantiate super class without any parameters.**]**
+    **Tests_SRS_MQTTDEVICETWIN_25_001: [**The constructor shall instantiate super class with the mqtt connection of the device.**]**
     **Tests_SRS_MQTTDEVICETWIN_25_002: [**The constructor shall construct device twin response subscribeTopic.**]**
      */
     @Test
@@ -41,7 +48,7 @@ public class MqttDeviceTwinTest
 
 
         //act
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
         //assert
         String actualSubscribeTopic = Deencapsulation.getField(testTwin, "subscribeTopic");
         assertNotNull(actualSubscribeTopic);
@@ -56,7 +63,7 @@ public class MqttDeviceTwinTest
     {
         //arrange
 
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
         //act
 
         testTwin.start();
@@ -89,7 +96,7 @@ public class MqttDeviceTwinTest
                 }
             };
 
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
 
             //act
             testTwin.start();
@@ -109,7 +116,7 @@ public class MqttDeviceTwinTest
     {
         //arrange
 
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
         Deencapsulation.setField(testTwin, "isStarted", true);
         //act
 
@@ -142,7 +149,7 @@ public class MqttDeviceTwinTest
                 }
             };
 
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             Deencapsulation.setField(testTwin, "isStarted", true);
             //act
             testTwin.stop();
@@ -161,12 +168,12 @@ public class MqttDeviceTwinTest
     public void parseTopicLooksForDeviceTwinTopic(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
 
         String insertTopic = "$iothub/twin/res";
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, "DataData".getBytes());
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(insertTopic, "DataData".getBytes());
+        Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
         //act
 
@@ -184,12 +191,12 @@ public class MqttDeviceTwinTest
     public void parseTopicReturnsNullIfNoDeviceTwinTopicFound(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
 
         String insertTopic = "$iothub/Nottwin/res";
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, "DataData".getBytes());
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(insertTopic, "DataData".getBytes());
+        Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
         //act
         String parsedTopic = Deencapsulation.invoke(testTwin, "parseTopic") ;
@@ -198,6 +205,33 @@ public class MqttDeviceTwinTest
         assertNull(parsedTopic);
 
     }
+
+    /*
+    **Tests_SRS_MQTTDEVICETWIN_28_001: [**parseTopic shall return the oldest twin response, if any, before the oldest desired properties notification.**]**
+     */
+    @Test
+    public void parseTopicReturnsResponsesBeforeDesiredPropertiesNotifications(@Mocked final Mqtt mockMqtt) throws IOException
+    {
+        //arrange
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
+
+        String patchTopic = "$iothub/twin/PATCH/properties/desired/?$version=1";
+        String responseTopic = "$iothub/twin/res/200/?$rid=1";
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(patchTopic, "DataData".getBytes());
+        testRouter.route(responseTopic, "DataData".getBytes());
+        Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
+
+        //act
+        String firstTopic = Deencapsulation.invoke(testTwin, "parseTopic");
+        Deencapsulation.invoke(testTwin, "parsePayload", firstTopic);
+        String secondTopic = Deencapsulation.invoke(testTwin, "parseTopic");
+
+        //assert
+        assertEquals(responseTopic, firstTopic);
+        assertEquals(patchTopic, secondTopic);
+    }
+
     /*
     **Tests_SRS_MQTTDEVICETWIN_25_006: [**If received messages queue is empty then parseTopic shall return null string.**]**
      */
@@ -205,9 +239,9 @@ public class MqttDeviceTwinTest
     public void parseTopicReturnsNullIfRecevedQueueIsEmpty(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
         //act
         String parsedTopic = Deencapsulation.invoke(testTwin, "parseTopic") ;
@@ -222,9 +256,9 @@ public class MqttDeviceTwinTest
     public void parseTopicThrowsExceptionIfQueueIsNull(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
-        ConcurrentSkipListMap<String, byte[]> testMap = null;
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
+        MqttInboundRouter testRouter = null;
+        Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
         //act
         String parsedTopic = Deencapsulation.invoke(testTwin, "parseTopic") ;
@@ -240,7 +274,7 @@ public class MqttDeviceTwinTest
     public void parsePayloadReturnNullIfTopicIsNull(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
 
         //act
         byte[] parsedPayload = Deencapsulation.invoke(testTwin, "parsePayload", String.class) ;
@@ -257,9 +291,9 @@ public class MqttDeviceTwinTest
     {
 
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
-        ConcurrentSkipListMap<String, byte[]> testMap = null;
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
+        MqttInboundRouter testRouter = null;
+        Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
         //act
         byte[] parsedPayload = Deencapsulation.invoke(testTwin, "parsePayload", resTopic) ;
@@ -275,13 +309,13 @@ public class MqttDeviceTwinTest
     {
         //arrange
 
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
 
         String insertTopic = "$iothub/twin/res";
         String notTwinTopic = "$iothub/NotTwin/res";
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, "DataData".getBytes());
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(insertTopic, "DataData".getBytes());
+        Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
         //act
         byte[] parsedPayload = Deencapsulation.invoke(testTwin, "parsePayload", notTwinTopic);
@@ -296,13 +330,13 @@ public class MqttDeviceTwinTest
     public void parsePayloadReturnsBytesForSpecifiedTopic(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
 
         String insertTopic = "$iothub/twin/"+ anyString;
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, insertMessage);
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(insertTopic, insertMessage);
+        Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
         //act
         byte[] parsedPayload = Deencapsulation.invoke(testTwin, "parsePayload", insertTopic);
@@ -323,20 +357,19 @@ public class MqttDeviceTwinTest
     public void parsePayloadRemovesTopicIfFound(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
 
         String insertTopic = "$iothub/twin/"+ anyString;
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, insertMessage);
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(insertTopic, insertMessage);
+        Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
         //act
         byte[] parsedPayload = Deencapsulation.invoke(testTwin, "parsePayload", insertTopic);
 
         //assert
-        ConcurrentSkipListMap<String, byte[]> retrieveTestMap  = Deencapsulation.getField(mockMqtt, "allReceivedMessages");
-        assertFalse(retrieveTestMap.containsKey(insertTopic));
+        assertEquals(0, testRouter.size());
     }
     /*
     **Tests_SRS_MQTTDEVICETWIN_25_024: [**send method shall build the get request topic of the format mentioned in spec ($iothub/twin/GET/?$rid={request id}) if the operation is of type DEVICE_OPERATION_TWIN_GET_REQUEST.**]**
@@ -347,7 +380,7 @@ public class MqttDeviceTwinTest
         //arrange
         final byte[] actualPayload = {0x61, 0x62, 0x63};
         final String expectedTopic = "$iothub/twin/GET/?$rid="+mockReqId;
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
         testTwin.start();
         new NonStrictExpectations()
         {
@@ -374,7 +407,7 @@ public class MqttDeviceTwinTest
             {
                 mockMessage.getBytes();
                 times = 2;
-                Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, expectedTopic, actualPayload, null);
                 times = 1;
 
             }
@@ -393,7 +426,7 @@ public class MqttDeviceTwinTest
         {
             //arrange
 
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             new NonStrictExpectations()
             {
                 {
@@ -421,7 +454,7 @@ public class MqttDeviceTwinTest
                 {
                     mockMessage.getBytes();
                     times = 1;
-                    Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload);
+                    Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, expectedTopic, actualPayload, null);
                     times = 0;
 
                 }
@@ -438,7 +471,7 @@ public class MqttDeviceTwinTest
         //arrange
         final byte[] actualPayload = {0x61, 0x62, 0x63};
         final String expectedTopic = "$iothub/twin/PATCH/properties/reported/?$rid="+ mockReqId + "&$version=" + mockVersion;
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
         testTwin.start();
         new NonStrictExpectations()
         {
@@ -466,7 +499,7 @@ public class MqttDeviceTwinTest
             {
                 mockMessage.getBytes();
                 times = 2;
-                Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, expectedTopic, actualPayload, null);
                 times = 1;
 
             }
@@ -483,7 +516,7 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             new NonStrictExpectations()
             {
                 {
@@ -509,7 +542,7 @@ public class MqttDeviceTwinTest
                 {
                     mockMessage.getBytes();
                     times = 1;
-                    Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload);
+                    Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, expectedTopic, actualPayload, null);
                     times = 0;
 
                 }
@@ -526,7 +559,7 @@ public class MqttDeviceTwinTest
         //arrange
         final byte[] actualPayload = {0x61, 0x62, 0x63};
         final String expectedTopic = "$iothub/twin/PATCH/properties/desired/#";
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
         testTwin.start();
         new NonStrictExpectations()
         {
@@ -554,7 +587,7 @@ public class MqttDeviceTwinTest
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "subscribe", expectedTopic);
                 times = 1;
-                Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, expectedTopic, actualPayload, null);
                 times = 0;
 
             }
@@ -572,7 +605,7 @@ public class MqttDeviceTwinTest
         final byte[] actualPayload = {0x61, 0x62, 0x63};
         final String expectedTopic = "$iothub/twin/PATCH/properties/desired/?$version="+ mockVersion;
         final String expectedSubscribeTopic = "$iothub/twin/PATCH/properties/desired/#";
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
         testTwin.start();
         new NonStrictExpectations()
         {
@@ -599,13 +632,51 @@ public class MqttDeviceTwinTest
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "subscribe", expectedSubscribeTopic);
                 times = 1;
-                Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, expectedTopic, actualPayload, null);
                 times = 0;
 
             }
         };
 
     }
+    /*
+    **Tests_SRS_MQTTDEVICETWIN_28_002: [**send method shall notify the completion listener, if any, as soon as the subscription to desired properties is acknowledged.**]**
+     */
+    @Test
+    public void sendNotifiesListenerOnceSubscribedToDesiredProperties(@Mocked final Mqtt mockMqtt, @Mocked final DeviceTwinMessage mockMessage,
+                                                                      @Mocked final IMqttActionListener mockListener) throws IOException
+    {
+        //arrange
+        final byte[] actualPayload = {0x61, 0x62, 0x63};
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
+        testTwin.start();
+        new NonStrictExpectations()
+        {
+            {
+                mockMessage.getMessageType();
+                result = MessageType.DeviceTwin;
+                mockMessage.getDeviceOperationType();
+                result = DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST;
+                mockMessage.getBytes();
+                result = actualPayload;
+            }
+        };
+
+        //act
+        testTwin.send(mockMessage, mockListener);
+
+        //assert
+        new VerificationsInOrder()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "subscribe", anyString);
+                times = 1;
+                mockListener.onSuccess(null);
+                times = 1;
+            }
+        };
+    }
+
     /*
     **Tests_SRS_MQTTDEVICETWIN_25_021: [**send method shall throw an exception if the message is null.**]**
      */
@@ -617,7 +688,7 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
 
             //act
             testTwin.send(null);
@@ -629,7 +700,7 @@ public class MqttDeviceTwinTest
                 {
                     mockMessage.getBytes();
                     times = 0;
-                    Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload);
+                    Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, expectedTopic, actualPayload, null);
                     times = 0;
 
                 }
@@ -644,7 +715,7 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             testTwin.start();
             new NonStrictExpectations()
             {
@@ -670,7 +741,7 @@ public class MqttDeviceTwinTest
                 {
                     mockMessage.getBytes();
                     times = 2;
-                    Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload);
+                    Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, expectedTopic, actualPayload, null);
                     times = 1;
 
                 }
@@ -689,11 +760,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
             Map<String, DeviceOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
@@ -726,11 +797,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             Map<String, DeviceOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST);
@@ -763,11 +834,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -796,11 +867,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -826,11 +897,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -855,11 +926,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             Map<String, DeviceOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
@@ -889,11 +960,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             Map<String, DeviceOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
@@ -927,11 +998,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             Map<String, DeviceOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
@@ -965,11 +1036,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
             Map<String, DeviceOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
@@ -1003,11 +1074,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             Map<String, DeviceOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
@@ -1053,11 +1124,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             Map<String, DeviceOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST);
@@ -1094,11 +1165,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -1136,11 +1207,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -1177,11 +1248,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -1219,11 +1290,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -1247,11 +1318,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -1274,11 +1345,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqttConnection);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttInboundRouter testRouter = new MqttInboundRouter();
+            testRouter.route(insertTopic, actualPayload);
+            Deencapsulation.setField(testTwin, "inboundRouter", testRouter);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
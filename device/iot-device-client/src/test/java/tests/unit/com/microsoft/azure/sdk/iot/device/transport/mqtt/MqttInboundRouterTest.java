@@ -0,0 +1,172 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInboundListener;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInboundRouter;
+import mockit.Mocked;
+import mockit.Verifications;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/* Unit tests for MqttInboundRouter */
+public class MqttInboundRouterTest
+{
+    private static final String MESSAGING_TOPIC = "devices/test-deviceId/messages/devicebound/%24.mid=1";
+    private static final String TWIN_RESPONSE_TOPIC = "$iothub/twin/res/200/?$rid=1";
+    private static final String TWIN_PATCH_TOPIC = "$iothub/twin/PATCH/properties/desired/?$version=2";
+    private static final String METHOD_TOPIC = "$iothub/methods/POST/reboot/?$rid=3";
+
+    @Mocked
+    MqttInboundListener mockListener;
+
+    // Tests_SRS_MQTTINBOUNDROUTER_28_001: [The constructor shall create an empty FIFO queue for each category.]
+    @Test
+    public void constructorCreatesEmptyQueues()
+    {
+        //act
+        MqttInboundRouter router = new MqttInboundRouter();
+
+        //assert
+        assertEquals(0, router.size());
+        for (MqttInboundRouter.Category category : MqttInboundRouter.Category.values())
+        {
+            assertNull(router.peek(category));
+        }
+    }
+
+    // Tests_SRS_MQTTINBOUNDROUTER_28_002: [If the topic is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void classifyThrowsOnNullTopic()
+    {
+        MqttInboundRouter.classify(null);
+    }
+
+    // Tests_SRS_MQTTINBOUNDROUTER_28_003: [The function shall classify the topics starting with $iothub/methods/ as DEVICE_METHOD,
+    // $iothub/twin/PATCH/ as DEVICE_TWIN_PATCH, any other $iothub/twin/ as DEVICE_TWIN_RESPONSE, and any other topic as DEVICE_MESSAGING.]
+    @Test
+    public void classifyReturnsCategoryOfTopic()
+    {
+        assertEquals(MqttInboundRouter.Category.DEVICE_MESSAGING, MqttInboundRouter.classify(MESSAGING_TOPIC));
+        assertEquals(MqttInboundRouter.Category.DEVICE_TWIN_RESPONSE, MqttInboundRouter.classify(TWIN_RESPONSE_TOPIC));
+        assertEquals(MqttInboundRouter.Category.DEVICE_TWIN_PATCH, MqttInboundRouter.classify(TWIN_PATCH_TOPIC));
+        assertEquals(MqttInboundRouter.Category.DEVICE_METHOD, MqttInboundRouter.classify(METHOD_TOPIC));
+    }
+
+    // Tests_SRS_MQTTINBOUNDROUTER_28_004: [The function shall add the topic and the payload to the end of the queue of the category of the topic.]
+    // Tests_SRS_MQTTINBOUNDROUTER_28_006: [The function shall return the head of the queue of the category, or null if the queue is empty.]
+    @Test
+    public void routeAddsToQueueOfCategory()
+    {
+        //arrange
+        MqttInboundRouter router = new MqttInboundRouter();
+        byte[] payload = {0x61, 0x62, 0x63};
+
+        //act
+        router.route(METHOD_TOPIC, payload);
+
+        //assert
+        Map.Entry<String, byte[]> head = router.peek(MqttInboundRouter.Category.DEVICE_METHOD);
+        assertEquals(METHOD_TOPIC, head.getKey());
+        assertSame(payload, head.getValue());
+        assertNull(router.peek(MqttInboundRouter.Category.DEVICE_MESSAGING));
+        assertNull(router.peek(MqttInboundRouter.Category.DEVICE_TWIN_RESPONSE));
+        assertNull(router.peek(MqttInboundRouter.Category.DEVICE_TWIN_PATCH));
+        assertEquals(1, router.size());
+    }
+
+    // Tests_SRS_MQTTINBOUNDROUTER_28_004: [The function shall add the topic and the payload to the end of the queue of the category of the topic.]
+    // Tests_SRS_MQTTINBOUNDROUTER_28_007: [The function shall remove and return the head of the queue of the category, or null if the queue is empty.]
+    @Test
+    public void routeKeepsMessagesWithSameTopicInArrivalOrder()
+    {
+        //arrange
+        MqttInboundRouter router = new MqttInboundRouter();
+        byte[] firstPayload = {0x61};
+        byte[] secondPayload = {0x62};
+
+        //act
+        router.route(MESSAGING_TOPIC, firstPayload);
+        router.route(MESSAGING_TOPIC, secondPayload);
+
+        //assert
+        assertEquals(2, router.size());
+        assertSame(firstPayload, router.poll(MqttInboundRouter.Category.DEVICE_MESSAGING).getValue());
+        assertSame(secondPayload, router.poll(MqttInboundRouter.Category.DEVICE_MESSAGING).getValue());
+        assertNull(router.poll(MqttInboundRouter.Category.DEVICE_MESSAGING));
+        assertEquals(0, router.size());
+    }
+
+    // Tests_SRS_MQTTINBOUNDROUTER_28_002: [If the topic is null, the function shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void routeThrowsOnNullTopic()
+    {
+        new MqttInboundRouter().route(null, new byte[0]);
+    }
+
+    // Tests_SRS_MQTTINBOUNDROUTER_28_008: [The function shall return the number of messages in all the queues.]
+    @Test
+    public void sizeCountsAllCategories()
+    {
+        //arrange
+        MqttInboundRouter router = new MqttInboundRouter();
+
+        //act
+        router.route(MESSAGING_TOPIC, new byte[0]);
+        router.route(TWIN_RESPONSE_TOPIC, new byte[0]);
+        router.route(TWIN_PATCH_TOPIC, new byte[0]);
+        router.route(METHOD_TOPIC, new byte[0]);
+
+        //assert
+        assertEquals(4, router.size());
+    }
+
+    // Tests_SRS_MQTTINBOUNDROUTER_28_005: [The function shall notify the listener, if any, of the category of the routed message.]
+    // Tests_SRS_MQTTINBOUNDROUTER_28_009: [The function shall save the listener.]
+    @Test
+    public void routeNotifiesListener()
+    {
+        //arrange
+        MqttInboundRouter router = new MqttInboundRouter();
+        router.setListener(mockListener);
+
+        //act
+        router.route(TWIN_PATCH_TOPIC, new byte[0]);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockListener.onMessageRouted(MqttInboundRouter.Category.DEVICE_TWIN_PATCH);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTINBOUNDROUTER_28_009: [The function shall save the listener.]
+    @Test
+    public void routeDoesNotNotifyUnregisteredListener()
+    {
+        //arrange
+        MqttInboundRouter router = new MqttInboundRouter();
+        router.setListener(mockListener);
+        router.setListener(null);
+
+        //act
+        router.route(METHOD_TOPIC, new byte[0]);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockListener.onMessageRouted((MqttInboundRouter.Category) any);
+                times = 0;
+            }
+        };
+        assertEquals(1, router.size());
+    }
+}
@@ -10,14 +10,20 @@ import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
 import com.microsoft.azure.sdk.iot.device.net.IotHubUri;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttDeviceMethod;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttDeviceTwin;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInboundListener;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInboundRouter;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessaging;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttReconnector;
 import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
+import mockit.VerificationsInOrder;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -64,6 +70,24 @@ public class MqttIotHubConnectionTest
     @Mocked
     IotHubSSLContext mockIotHubSSLContext;
 
+    @Mocked
+    MqttConnection mockMqttConnection;
+
+    @Mocked
+    MqttInboundRouter mockInboundRouter;
+
+    @Mocked
+    MqttInboundListener mockInboundListener;
+
+    @Mocked
+    MqttReconnector mockReconnector;
+
+    @Mocked
+    IotHubBackoffPolicy mockBackoffPolicy;
+
+    @Mocked
+    IotHubConnectionStateCallback mockStateCallback;
+
     // Tests_SRS_MQTTIOTHUBCONNECTION_15_001: [The constructor shall save the configuration.]
     @Test
     public void constructorSavesCorrectConfig() throws IOException {
@@ -240,6 +264,8 @@ public class MqttIotHubConnectionTest
 
     // Tests_SRS_MQTTIOTHUBCONNECTION_15_004: [The function shall establish an MQTT connection with an IoT Hub
     // using the provided host name, user name, device ID, and sas token.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_28_001: [The function shall create a new mqtt connection for this device,
+    // and share it only between the messaging, device method and device twin clients of this device.]
     @Test
     public void openEstablishesConnectionUsingCorrectConfig() throws IOException
     {
@@ -266,12 +292,14 @@ public class MqttIotHubConnectionTest
         new Verifications()
         {
             {
-                new MqttDeviceMethod();
+                new MqttConnection(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, mockIotHubSSLContext, anyInt);
+                times = 1;
+                new MqttDeviceMethod((MqttConnection) any);
                 times = 1;
-                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, mockIotHubSSLContext);
+                new MqttMessaging((MqttConnection) any, deviceId);
                 mockDeviceMessaging.start();
                 times = 1;
-                new MqttDeviceTwin();
+                new MqttDeviceTwin((MqttConnection) any);
                 times = 1;
             }
         };
@@ -288,7 +316,7 @@ public class MqttIotHubConnectionTest
             {
                 new IotHubSasToken(mockConfig, anyLong);
                 result = mockToken;
-                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, mockIotHubSSLContext);
+                new MqttConnection(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, mockIotHubSSLContext, anyInt);
                 result = new IOException(anyString);
             }
         };
@@ -321,9 +349,9 @@ public class MqttIotHubConnectionTest
             {
                 new IotHubSasToken(mockConfig, anyLong);
                 result = mockToken;
-                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, mockIotHubSSLContext);
+                new MqttMessaging((MqttConnection) any, deviceId);
                 result = mockDeviceMessaging;
-                new MqttDeviceMethod();
+                new MqttDeviceMethod((MqttConnection) any);
                 result = new IOException(anyString);
             }
         };
@@ -357,11 +385,11 @@ public class MqttIotHubConnectionTest
             {
                 new IotHubSasToken(mockConfig, anyLong);
                 result = mockToken;
-                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, mockIotHubSSLContext);
+                new MqttMessaging((MqttConnection) any, deviceId);
                 result = mockDeviceMessaging;
-                new MqttDeviceMethod();
+                new MqttDeviceMethod((MqttConnection) any);
                 result = mockDeviceMethods;
-                new MqttDeviceTwin();
+                new MqttDeviceTwin((MqttConnection) any);
                 result = new IOException(anyString);
             }
         };
@@ -401,7 +429,7 @@ public class MqttIotHubConnectionTest
         new Verifications()
         {
             {
-                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, mockIotHubSSLContext);
+                new MqttMessaging((MqttConnection) any, deviceId);
                 times = 1;
             }
         };
@@ -445,6 +473,37 @@ public class MqttIotHubConnectionTest
         };
     }
 
+    // Tests_SRS_MQTTIOTHUBCONNECTION_15_004: [The function shall establish an MQTT connection
+    // with an IoT Hub using the provided host name, user name, device ID, and sas token.]
+    @Test
+    public void openRenewsSasTokenThatWouldExpireBeforeTheConnection() throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTokenValidSecs();
+                result = 3600L;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        connection.close();
+        Object sasTokenProvider = Deencapsulation.getField(connection, "sasTokenProvider");
+        Deencapsulation.setField(sasTokenProvider, "expiryTime", System.currentTimeMillis() / 1000L + 60L);
+        connection.open();
+
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 2;
+            }
+        };
+    }
+
     // Tests_SRS_MQTTIOTHUBCONNECTION_15_007: [If the MQTT connection is closed, the function shall do nothing.]
     @Test
     public void closeDoesNothingIfConnectionNotYetOpened() throws IOException
@@ -513,7 +572,7 @@ public class MqttIotHubConnectionTest
             {
                 mockMsg.getBytes();
                 result = msgBody;
-                mockDeviceMessaging.send(mockMsg);
+                mockDeviceMessaging.send(mockMsg, (IMqttActionListener) any);
             }
         };
 
@@ -526,7 +585,71 @@ public class MqttIotHubConnectionTest
         new Verifications()
         {
             {
-                mockDeviceMessaging.send(mockMsg);
+                mockDeviceMessaging.send(mockMsg, (IMqttActionListener) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_28_007: [The function shall pass the completion listener to the messaging client,
+    // which notifies it only when the IoT Hub acknowledges the message or when the send fails.]
+    @Test
+    public void sendEventPassesCompletionListenerToMessagingClient(
+            @Mocked final Message mockMsg,
+            @Mocked final IMqttActionListener mockListener) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        final byte[] msgBody = { 0x61, 0x62, 0x63 };
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBytes();
+                result = msgBody;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        IotHubStatusCode result = connection.sendEvent(mockMsg, mockListener);
+
+        assertEquals(IotHubStatusCode.OK_EMPTY, result);
+        new Verifications()
+        {
+            {
+                mockDeviceMessaging.send(mockMsg, mockListener);
+                times = 1;
+                mockListener.onSuccess(null);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_28_006: [The function shall size the in-flight window of the mqtt connection
+    // with the maximum number of in-flight messages in the configuration.]
+    @Test
+    public void openSizesInFlightWindowFromConfig() throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        final int maxInFlightMessages = 25;
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMqttMaxInFlightMessages();
+                result = maxInFlightMessages;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+
+        new Verifications()
+        {
+            {
+                new MqttConnection(anyString, deviceId, anyString, anyString, mockIotHubSSLContext, maxInFlightMessages);
                 times = 1;
             }
         };
@@ -648,7 +771,7 @@ public class MqttIotHubConnectionTest
             {
                 mockMsg.getBytes();
                 result = msgBody;
-                mockDeviceMessaging.send(mockMsg);
+                mockDeviceMessaging.send(mockMsg, (IMqttActionListener) any);
                 result = new IOException(anyString);
             }
         };
@@ -688,13 +811,13 @@ public class MqttIotHubConnectionTest
         new Verifications()
         {
             {
-                mockDeviceMethods.send((DeviceMethodMessage)any);
+                mockDeviceMethods.send((DeviceMethodMessage)any, (IMqttActionListener) any);
                 times = 0;
-                mockDeviceMessaging.send(mockDeviceTwinMsg);
+                mockDeviceMessaging.send(mockDeviceTwinMsg, (IMqttActionListener) any);
                 times = 0;
                 mockDeviceTwin.start();
                 times = 1;
-                mockDeviceTwin.send(mockDeviceTwinMsg);
+                mockDeviceTwin.send(mockDeviceTwinMsg, (IMqttActionListener) any);
                 times = 1;
             }
         };
@@ -729,11 +852,11 @@ public class MqttIotHubConnectionTest
             {
                 mockDeviceMethods.start();
                 times = 1;
-                mockDeviceMethods.send(mockDeviceMethodMsg);
+                mockDeviceMethods.send(mockDeviceMethodMsg, (IMqttActionListener) any);
                 times = 1;
-                mockDeviceMessaging.send(mockDeviceMethodMsg);
+                mockDeviceMessaging.send(mockDeviceMethodMsg, (IMqttActionListener) any);
                 times = 0;
-                mockDeviceTwin.send(mockDeviceMethodMsg);
+                mockDeviceTwin.send(mockDeviceMethodMsg, (IMqttActionListener) any);
                 times = 0;
             }
         };
@@ -886,6 +1009,255 @@ public class MqttIotHubConnectionTest
         connection.receiveMessage();
     }
 
+    // Tests_SRS_MQTTIOTHUBCONNECTION_28_002: [The function shall register the inbound listener, if any,
+    // on the router of the new mqtt connection before connecting.]
+    @Test
+    public void openRegistersInboundListenerBeforeConnecting() throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttConnection.getInboundRouter();
+                result = mockInboundRouter;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.setInboundListener(mockInboundListener);
+        connection.open();
+
+        new VerificationsInOrder()
+        {
+            {
+                mockInboundRouter.setListener(mockInboundListener);
+                times = 1;
+                mockDeviceMessaging.start();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_28_003: [The function shall stop notifying the inbound listener of the messages arriving on the closed connection.]
+    @Test
+    public void closeUnregistersInboundListener() throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttConnection.getInboundRouter();
+                result = mockInboundRouter;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.setInboundListener(mockInboundListener);
+        connection.open();
+        connection.close();
+
+        assertNull(Deencapsulation.getField(connection, "mqttConnection"));
+        new Verifications()
+        {
+            {
+                mockInboundRouter.setListener(null);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_28_004: [The function shall save the listener, and register it on the router of the open connection, if any.]
+    @Test
+    public void setInboundListenerRegistersOnOpenConnection() throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttConnection.getInboundRouter();
+                result = mockInboundRouter;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        connection.setInboundListener(mockInboundListener);
+
+        assertEquals(mockInboundListener, Deencapsulation.getField(connection, "inboundListener"));
+        new Verifications()
+        {
+            {
+                mockInboundRouter.setListener(mockInboundListener);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_28_005: [The function shall return the number of messages waiting in the router of the open connection, or 0 if the connection is closed.]
+    @Test
+    public void getInboundMessagesCountReturnsRouterSize() throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttConnection.getInboundRouter();
+                result = mockInboundRouter;
+                mockInboundRouter.size();
+                result = 3;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        assertEquals(0, connection.getInboundMessagesCount());
+        connection.open();
+        assertEquals(3, connection.getInboundMessagesCount());
+        connection.close();
+        assertEquals(0, connection.getInboundMessagesCount());
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_28_009: [The function shall configure the reconnector of the new mqtt connection
+    // with the reconnect backoff policy in the configuration, and the connection state callback, if any.]
+    @Test
+    public void openConfiguresReconnector() throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getReconnectBackoffPolicy();
+                result = mockBackoffPolicy;
+                mockMqttConnection.getReconnector();
+                result = mockReconnector;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.setConnectionStateCallback(mockStateCallback, context);
+        connection.open();
+
+        new Verifications()
+        {
+            {
+                mockReconnector.setBackoffPolicy(mockBackoffPolicy);
+                times = 1;
+                mockReconnector.setStateCallback(mockStateCallback, context);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_28_011: [The function shall save the callback and its context, and register them
+    // on the reconnector of the open connection, if any.]
+    @Test
+    public void setConnectionStateCallbackRegistersOnOpenConnection() throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttConnection.getReconnector();
+                result = mockReconnector;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        connection.setConnectionStateCallback(mockStateCallback, context);
+
+        new Verifications()
+        {
+            {
+                mockReconnector.setStateCallback(mockStateCallback, context);
+                times = 1;
+            }
+        };
+        assertSame(mockStateCallback, Deencapsulation.getField(connection, "stateCallback"));
+        assertSame(context, Deencapsulation.getField(connection, "stateCallbackContext"));
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_28_010: [The function shall stop reconnecting the closed connection.]
+    @Test
+    public void closeStopsReconnector() throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttConnection.getReconnector();
+                result = mockReconnector;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        connection.close();
+
+        new Verifications()
+        {
+            {
+                mockReconnector.stop();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_28_008: [If the MQTT connection was lost and is being reconnected,
+    // the function shall throw an IllegalStateException, so the message waits for the connection to be back.]
+    @Test
+    public void sendEventThrowsWhileReconnecting(@Mocked final Message mockMsg) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        final byte[] msgBody = { 0x61, 0x62, 0x63 };
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBytes();
+                result = msgBody;
+                mockMqttConnection.getReconnector();
+                result = mockReconnector;
+                mockReconnector.getState();
+                result = MqttReconnector.State.RECONNECTING;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+
+        boolean thrown = false;
+        try
+        {
+            connection.sendEvent(mockMsg);
+        }
+        catch (IllegalStateException e)
+        {
+            thrown = true;
+        }
+
+        assertTrue(thrown);
+        new Verifications()
+        {
+            {
+                mockDeviceMessaging.send((Message) any, (IMqttActionListener) any);
+                times = 0;
+            }
+        };
+    }
+
     private void baseExpectations()
     {
         new NonStrictExpectations() {
@@ -905,11 +1277,11 @@ public class MqttIotHubConnectionTest
             {
                 new IotHubSasToken(mockConfig, anyLong);
                 result = mockToken;
-                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, mockIotHubSSLContext);
+                new MqttMessaging((MqttConnection) any, deviceId);
                 result = mockDeviceMessaging;
-                new MqttDeviceMethod();
+                new MqttDeviceMethod((MqttConnection) any);
                 result = mockDeviceMethods;
-                new MqttDeviceTwin();
+                new MqttDeviceTwin((MqttConnection) any);
                 result = mockDeviceTwin;
                 mockDeviceMessaging.start();
                 result = null;
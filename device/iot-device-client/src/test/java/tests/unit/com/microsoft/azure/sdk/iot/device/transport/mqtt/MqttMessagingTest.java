@@ -4,27 +4,26 @@
 
 package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
-import com.microsoft.azure.sdk.iot.device.IotHubSSLContext;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageProperty;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.Mqtt;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInboundRouter;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessaging;
 import mockit.*;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.security.InvalidParameterException;
-import java.util.concurrent.ConcurrentSkipListMap;
 
 import static org.junit.Assert.*;
 
 /* Unit tests for Mqtt Messaging */
 public class MqttMessagingTest {
+    private static final Class<?>[] PUBLISH_ARGUMENT_TYPES = {String.class, byte[].class, IMqttActionListener.class};
 
-    final String serverUri = "test.host.name";
     final String clientId = "test.iothub";
-    final String userName = "test-deviceId";
-    final String password = "test-devicekey?&test";
     final String mockParseTopic = "testTopic";
 
     @Mocked
@@ -34,7 +33,7 @@ public class MqttMessagingTest {
     Message mockMessage;
 
     @Mocked
-    IotHubSSLContext mockIotHubSSLContext;
+    MqttConnection mockMqttConnection;
 
     /*
     **Tests_SRS_MqttMessaging_25_002: [**The constructor shall use the configuration to instantiate super class and passing the parameters.**]**
@@ -42,11 +41,22 @@ public class MqttMessagingTest {
     /*
     **Tests_SRS_MqttMessaging_25_003: [**The constructor construct publishTopic and subscribeTopic from deviceId.**]**
     */
+    /*
+    **Tests_SRS_MqttMessaging_28_001: [**The constructor shall register itself as the callback of the mqtt connection, which it owns from start to stop.**]**
+    */
     @Test
     public void constructorCallsBaseConstructorWithArguments(@Mocked final Mqtt mockMqtt) throws IOException
     {
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);
+        final MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
+
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqttConnection, "setMqttCallback", testMqttMessaging);
+                times = 1;
+            }
+        };
 
         String actualPublishTopic = Deencapsulation.getField(testMqttMessaging, "publishTopic");
         assertNotNull(actualPublishTopic);
@@ -64,7 +74,7 @@ public class MqttMessagingTest {
     public void constructorFailsIfAnyOfTheParametersAreNull() throws IOException
     {
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(null, clientId, userName, password, mockIotHubSSLContext);
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, null);
 
     }
 
@@ -76,7 +86,7 @@ public class MqttMessagingTest {
     public void constructorFailsIfAnyOfTheParametersAreEmpty() throws IOException
     {
 
-        MqttMessaging testMqttMessaging = new MqttMessaging("", clientId, userName, password, mockIotHubSSLContext);
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, "");
 
     }
 
@@ -97,7 +107,7 @@ public class MqttMessagingTest {
             }
         };
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
 
         testMqttMessaging.start();
         new Verifications()
@@ -123,7 +133,7 @@ public class MqttMessagingTest {
             }
         };
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
         testMqttMessaging.start();
 
         new Verifications()
@@ -151,7 +161,7 @@ public class MqttMessagingTest {
             }
         };
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
         testMqttMessaging.start();
 
         new Verifications()
@@ -169,21 +179,18 @@ public class MqttMessagingTest {
 
     /*
     **Tests_SRS_MqttMessaging_25_022: [**stop method shall be call disconnect to tear down a connection to IOT Hub with the given configuration.**]**
-
-    **Tests_SRS_MqttMessaging_25_023: [**stop method shall be call restartBaseMqtt to tear down a the base class even if disconnect fails.**]**
      */
     @Test
-    public void stopCallsDisconnectAndRestartBase(@Mocked final Mqtt mockMqtt) throws IOException
+    public void stopCallsDisconnect(@Mocked final Mqtt mockMqtt) throws IOException
     {
         new NonStrictExpectations()
         {
             {
                 Deencapsulation.invoke(mockMqtt, "disconnect");
-                mockMqtt.restartBaseMqtt();
             }
         };
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
         testMqttMessaging.start();
         testMqttMessaging.stop();
 
@@ -192,16 +199,13 @@ public class MqttMessagingTest {
             {
                 Deencapsulation.invoke(mockMqtt, "disconnect");
                 times = 1;
-                mockMqtt.restartBaseMqtt();
-                times = 1;
-
             }
         };
 
     }
 
     @Test (expected = IOException.class)
-    public void stopCallsRestartBaseEvenIfDisconnectFailsAndThrowsIOException(@Mocked final Mqtt mockMqtt) throws IOException
+    public void stopThrowsIOExceptionIfDisconnectFails(@Mocked final Mqtt mockMqtt) throws IOException
     {
         new StrictExpectations()
         {
@@ -210,25 +214,12 @@ public class MqttMessagingTest {
                 Deencapsulation.invoke(mockMqtt, "subscribe", anyString);
                 Deencapsulation.invoke(mockMqtt, "disconnect");
                 result = mockIOException;
-                mockMqtt.restartBaseMqtt();
             }
         };
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
         testMqttMessaging.start();
         testMqttMessaging.stop();
-
-        new Verifications()
-        {
-            {
-                Deencapsulation.invoke(mockMqtt, "disconnect");
-                times = 1;
-                mockMqtt.restartBaseMqtt();
-                times = 1;
-
-            }
-        };
-
     }
 
     /*
@@ -237,12 +228,12 @@ public class MqttMessagingTest {
     @Test
     public void parseTopicLooksForNextAvailableMessagesForDeviceMessagingTopic(@Mocked final Mqtt mockMqtt) throws IOException
     {
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
 
         String insertTopic = "devices/" + clientId + "/messages/devicebound/abc";
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, "DataData".getBytes());
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(insertTopic, "DataData".getBytes());
+        Deencapsulation.setField(testMqttMessaging, "inboundRouter", testRouter);
 
         String retrieveTopic = Deencapsulation.invoke(testMqttMessaging, "parseTopic");
 
@@ -259,11 +250,11 @@ public class MqttMessagingTest {
     @Test
     public void parseTopicReturnsNullIfQueueIsEmpty(@Mocked final Mqtt mockMqtt) throws IOException
     {
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
 
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
+        MqttInboundRouter testRouter = new MqttInboundRouter();
 
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Deencapsulation.setField(testMqttMessaging, "inboundRouter", testRouter);
 
         String retrieveTopic = Deencapsulation.invoke(testMqttMessaging, "parseTopic");
 
@@ -276,12 +267,12 @@ public class MqttMessagingTest {
     @Test
     public void parseTopicReturnsNullIfNoMessageMatchingKeyIsFound(@Mocked final Mqtt mockMqtt) throws IOException
     {
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
 
         String insertTopic = "devices/" + clientId + "/fakemessages/devicebound/abc";
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, "DataData".getBytes());
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(insertTopic, "DataData".getBytes());
+        Deencapsulation.setField(testMqttMessaging, "inboundRouter", testRouter);
 
         String retrieveTopic = Deencapsulation.invoke(testMqttMessaging, "parseTopic");
 
@@ -295,13 +286,13 @@ public class MqttMessagingTest {
     @Test
     public void parsePayloadLooksForValueWithGivenKeyTopic(@Mocked final Mqtt mockMqtt) throws IOException
     {
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
 
         final String insertTopic = "devices/" + clientId + "/messages/devicebound/abc";
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, insertMessage);
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(insertTopic, insertMessage);
+        Deencapsulation.setField(testMqttMessaging, "inboundRouter", testRouter);
 
         byte[] retrieveMessage = Deencapsulation.invoke(testMqttMessaging, "parsePayload", insertTopic);
 
@@ -319,49 +310,70 @@ public class MqttMessagingTest {
     @Test
     public void parsePayloadRemovesTheKeyValuePairFromQueueIfFound(@Mocked final Mqtt mockMqtt) throws IOException
     {
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
 
         final String insertTopic = "devices/" + clientId + "/messages/devicebound/abc";
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, insertMessage);
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(insertTopic, insertMessage);
+        Deencapsulation.setField(testMqttMessaging, "inboundRouter", testRouter);
 
         byte[] retrieveMessage = Deencapsulation.invoke(testMqttMessaging, "parsePayload", insertTopic);
 
-        assertTrue(testMap.isEmpty());
+        assertEquals(0, testRouter.size());
 
     }
 
     @Test (expected = IOException.class)
     public void parsePayloadShallThrowIOExceptionIfQueueIsEmpty(@Mocked final Mqtt mockMqtt) throws IOException
     {
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
 
         final String insertTopic = "devices/" + clientId + "/messages/devicebound/abc";
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
+        MqttInboundRouter testRouter = new MqttInboundRouter();
 
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Deencapsulation.setField(testMqttMessaging, "inboundRouter", testRouter);
 
         byte[] retrieveMessage = Deencapsulation.invoke(testMqttMessaging, "parsePayload", insertTopic);
         assertNull(retrieveMessage);
 
     }
 
+    /*
+    **Tests_SRS_MqttMessaging_28_002: [**parseTopic shall discard the messages at the head of the messaging queue that do not match the subscribe topic prefix, as no other client can consume them.**]**
+     */
+    @Test
+    public void parseTopicDiscardsMessagesOfOtherTopics(@Mocked final Mqtt mockMqtt) throws IOException
+    {
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
+
+        final String otherTopic = "devices/otherDevice/messages/devicebound/abc";
+        final String insertTopic = "devices/" + clientId + "/messages/devicebound/abc";
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(otherTopic, "DataData".getBytes());
+        testRouter.route(insertTopic, "DataData".getBytes());
+        Deencapsulation.setField(testMqttMessaging, "inboundRouter", testRouter);
+
+        String parsedTopic = Deencapsulation.invoke(testMqttMessaging, "parseTopic");
+
+        assertEquals(insertTopic, parsedTopic);
+        assertEquals(1, testRouter.size());
+    }
+
     /*
     **Tests_SRS_MqttMessaging_25_011: [**If the topic is null then parsePayload shall stop parsing for payload and return.**]**
      */
     @Test
     public void parsePayloadShallReturnNullIfTopicIsNull(@Mocked final Mqtt mockMqtt) throws IOException
     {
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
 
         final String insertTopic_messaging = "devices/" + clientId + "/messages/devicebound/abc";
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic_messaging, insertMessage);
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(insertTopic_messaging, insertMessage);
+        Deencapsulation.setField(testMqttMessaging, "inboundRouter", testRouter);
 
 
         byte[] retrieveMessage = Deencapsulation.invoke(testMqttMessaging, "parsePayload", String.class);
@@ -374,14 +386,14 @@ public class MqttMessagingTest {
     @Test (expected =  IOException.class)
     public void parsePayloadShallThrowIOExceptionIfTopicIsNotFound(@Mocked final Mqtt mockMqtt) throws IOException
     {
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
 
         final String insertTopic_actual = "$iothub/twin/PATCH/properties/desired/#";
         final String insertTopic_messaging = "devices/" + clientId + "/messages/devicebound/abc";
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic_actual, insertMessage);
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttInboundRouter testRouter = new MqttInboundRouter();
+        testRouter.route(insertTopic_actual, insertMessage);
+        Deencapsulation.setField(testMqttMessaging, "inboundRouter", testRouter);
 
 
         byte[] retrieveMessage = Deencapsulation.invoke(testMqttMessaging, "parsePayload", insertTopic_messaging);
@@ -394,12 +406,12 @@ public class MqttMessagingTest {
     @Test (expected =  IOException.class)
     public void parsePayloadShallThrowIOExceptionIfQueueIsNull(@Mocked final Mqtt mockMqtt) throws IOException
     {
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
 
         final String insertTopic = "$iothub/twin/PATCH/properties/desired/#";
-        ConcurrentSkipListMap<String, byte[]> testMap = null;
+        MqttInboundRouter testRouter = null;
 
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Deencapsulation.setField(testMqttMessaging, "inboundRouter", testRouter);
 
 
         byte[] retrieveMessage = Deencapsulation.invoke(testMqttMessaging, "parsePayload", insertTopic);
@@ -418,11 +430,11 @@ public class MqttMessagingTest {
             {
                 mockMessage.getBytes();
                 result = messageBody;
-                Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, anyString, messageBody, null);
             }
         };
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
         testMqttMessaging.send(mockMessage);
 
         new Verifications()
@@ -430,7 +442,7 @@ public class MqttMessagingTest {
             {
                 mockMessage.getBytes();
                 times = 2;
-                Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, anyString, messageBody, null);
                 times = 1;
 
             }
@@ -447,13 +459,13 @@ public class MqttMessagingTest {
             {
                 mockMessage.getBytes();
                 result = messageBody;
-                Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, anyString, messageBody, null);
                 result = mockIOException;
 
             }
         };
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
         testMqttMessaging.send(null);
 
         new Verifications()
@@ -461,7 +473,7 @@ public class MqttMessagingTest {
             {
                 mockMessage.getBytes();
                 times = 1;
-                Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic,  new byte[1]);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, mockParseTopic, new byte[1], null);
                 times = 1;
 
             }
@@ -476,7 +488,7 @@ public class MqttMessagingTest {
     public void sendShallThrowIOExceptionIfMessageIsNull(@Mocked final Mqtt mockMqtt) throws IOException
     {
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
         testMqttMessaging.send(null);
 
         new Verifications()
@@ -484,7 +496,7 @@ public class MqttMessagingTest {
             {
                 mockMessage.getBytes();
                 times = 0;
-                Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic,  new byte[1]);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, mockParseTopic, new byte[1], null);
                 times = 0;
 
             }
@@ -512,11 +524,11 @@ public class MqttMessagingTest {
                 result = messageBody;
                 mockMessage.getProperties();
                 result = messageProperties;
-                Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, anyString, messageBody, null);
             }
         };
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
         testMqttMessaging.send(mockMessage);
         final String publishTopicWithProperties = String.format(
                 "devices/%s/messages/events/%s=%s", clientId, propertyName, propertyValue);
@@ -527,7 +539,7 @@ public class MqttMessagingTest {
                 mockMessage.getBytes();
                 times = 2;
                 mockMessage.getProperties();
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithProperties,  messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, publishTopicWithProperties, messageBody, null);
                 times = 1;
             }
         };
@@ -556,11 +568,11 @@ public class MqttMessagingTest {
                 result = messageProperties;
                 mockMessage.getMessageId();
                 result = messageidValue;
-                Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, anyString, messageBody, null);
             }
         };
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);;
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockMqttConnection, clientId);
         testMqttMessaging.send(mockMessage);
         final String publishTopicWithProperties = String.format(
                 "devices/%s/messages/events/%s=%s&$.mid=%s", clientId, propertyName, propertyValue,messageidValue);
@@ -571,7 +583,7 @@ public class MqttMessagingTest {
                 mockMessage.getBytes();
                 times = 2;
                 mockMessage.getProperties();
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithProperties, messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", PUBLISH_ARGUMENT_TYPES, publishTopicWithProperties, messageBody, null);
                 times = 1;
                 mockMessage.getMessageId();
                 times = 2;
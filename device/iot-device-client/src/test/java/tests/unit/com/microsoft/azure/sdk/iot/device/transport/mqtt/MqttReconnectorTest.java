@@ -0,0 +1,353 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.IotHubBackoffPolicy;
+import com.microsoft.azure.sdk.iot.device.IotHubConnectionState;
+import com.microsoft.azure.sdk.iot.device.IotHubConnectionStateCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubDecorrelatedJitterBackoff;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttReconnector;
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.Test;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/* Unit tests for MqttReconnector */
+public class MqttReconnectorTest
+{
+    private static final long WAIT_TIME_SECONDS = 5;
+
+    @Mocked
+    MqttConnection mockConnection;
+
+    @Mocked
+    MqttAsyncClient mockClient;
+
+    @Mocked
+    MqttConnectOptions mockOptions;
+
+    @Mocked
+    IMqttToken mockToken;
+
+    private final List<IotHubConnectionState> notifiedStates = Collections.synchronizedList(new ArrayList<IotHubConnectionState>());
+    private final CountDownLatch dropped = new CountDownLatch(1);
+    private final CountDownLatch reconnected = new CountDownLatch(1);
+
+    private final IotHubConnectionStateCallback recordingCallback = new IotHubConnectionStateCallback()
+    {
+        @Override
+        public void execute(IotHubConnectionState state, Object callbackContext)
+        {
+            notifiedStates.add(state);
+            if (state == IotHubConnectionState.CONNECTION_DROP)
+            {
+                dropped.countDown();
+            }
+            else
+            {
+                reconnected.countDown();
+            }
+        }
+    };
+
+    /* Policy that never waits, and records the attempts and the previous delays it is called with. */
+    private static final class RecordingBackoff implements IotHubBackoffPolicy
+    {
+        final List<Integer> attempts = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Long> previousDelays = Collections.synchronizedList(new ArrayList<Long>());
+        private final long delayMillis;
+
+        RecordingBackoff(long delayMillis)
+        {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public long getDelayMillis(int attempt, long previousDelayMillis)
+        {
+            attempts.add(attempt);
+            previousDelays.add(previousDelayMillis);
+            return delayMillis;
+        }
+    }
+
+    private void connectionExpectations(final MqttAsyncClient client)
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockConnection, "getMqttLock");
+                result = new Object();
+                Deencapsulation.invoke(mockConnection, "getMqttAsyncClient");
+                result = client;
+                Deencapsulation.invoke(mockConnection, "getConnectionOptions");
+                result = mockOptions;
+            }
+        };
+    }
+
+    private static void waitForState(MqttReconnector reconnector, MqttReconnector.State state) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT_TIME_SECONDS);
+        while (reconnector.getState() != state && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_28_001: [If the mqtt connection is null, the constructor shall throw InvalidParameterException.]
+    @Test (expected = InvalidParameterException.class)
+    public void constructorThrowsOnNullConnection()
+    {
+        new MqttReconnector(null);
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_28_002: [The constructor shall save the connection, in the CONNECTED state, with a decorrelated jitter backoff policy.]
+    // Tests_SRS_MQTTRECONNECTOR_28_006: [The function shall return the current state.]
+    @Test
+    public void constructorStartsConnectedWithDecorrelatedJitter()
+    {
+        //act
+        MqttReconnector reconnector = new MqttReconnector(mockConnection);
+
+        //assert
+        assertEquals(MqttReconnector.State.CONNECTED, reconnector.getState());
+        assertTrue(Deencapsulation.getField(reconnector, "backoffPolicy") instanceof IotHubDecorrelatedJitterBackoff);
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_28_003: [If the backoff policy is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setBackoffPolicyThrowsOnNull()
+    {
+        new MqttReconnector(mockConnection).setBackoffPolicy(null);
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_28_004: [The function shall save the backoff policy for the next attempts.]
+    // Tests_SRS_MQTTRECONNECTOR_28_005: [The function shall save the callback and its context.]
+    @Test
+    public void settersSavePolicyAndCallback()
+    {
+        //arrange
+        MqttReconnector reconnector = new MqttReconnector(mockConnection);
+        RecordingBackoff policy = new RecordingBackoff(0);
+        Object context = new Object();
+
+        //act
+        reconnector.setBackoffPolicy(policy);
+        reconnector.setStateCallback(recordingCallback, context);
+
+        //assert
+        assertSame(policy, Deencapsulation.getField(reconnector, "backoffPolicy"));
+        assertSame(recordingCallback, Deencapsulation.getField(reconnector, "stateCallback"));
+        assertSame(context, Deencapsulation.getField(reconnector, "stateCallbackContext"));
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_28_008: [The function shall move to the RECONNECTING state, and on the reconnection thread,
+    // notify the callback of CONNECTION_DROP and schedule the first attempt after the delay given by the backoff policy.]
+    // Tests_SRS_MQTTRECONNECTOR_28_011: [Each attempt shall connect the mqtt client with the options of the connection,
+    // without holding the lock of the connection.]
+    // Tests_SRS_MQTTRECONNECTOR_28_012: [If the attempt succeeds, the reconnection shall move back to the CONNECTED state
+    // and notify the callback of CONNECTION_SUCCESS.]
+    @Test
+    public void connectionLostReconnectsInBackgroundAndNotifiesTransitions() throws MqttException, InterruptedException
+    {
+        //arrange
+        connectionExpectations(mockClient);
+        new NonStrictExpectations()
+        {
+            {
+                mockClient.isConnected();
+                returns(false, true);
+                mockClient.connect(mockOptions);
+                result = mockToken;
+            }
+        };
+        MqttReconnector reconnector = new MqttReconnector(mockConnection);
+        RecordingBackoff policy = new RecordingBackoff(0);
+        reconnector.setBackoffPolicy(policy);
+        reconnector.setStateCallback(recordingCallback, null);
+
+        //act
+        reconnector.connectionLost();
+
+        //assert
+        assertTrue(reconnected.await(WAIT_TIME_SECONDS, TimeUnit.SECONDS));
+        assertEquals(MqttReconnector.State.CONNECTED, reconnector.getState());
+        assertEquals(2, notifiedStates.size());
+        assertEquals(IotHubConnectionState.CONNECTION_DROP, notifiedStates.get(0));
+        assertEquals(IotHubConnectionState.CONNECTION_SUCCESS, notifiedStates.get(1));
+        assertEquals(1, policy.attempts.size());
+        assertEquals(0L, (long) policy.previousDelays.get(0));
+        new Verifications()
+        {
+            {
+                mockClient.connect(mockOptions);
+                times = 1;
+                mockToken.waitForCompletion();
+                times = 1;
+            }
+        };
+        reconnector.stop();
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_28_013: [If the attempt fails, the reconnection shall schedule the next attempt after the
+    // delay given by the backoff policy.]
+    @Test
+    public void connectionLostRetriesWithBackoffUntilConnected() throws MqttException, InterruptedException
+    {
+        //arrange
+        connectionExpectations(mockClient);
+        new NonStrictExpectations()
+        {
+            {
+                mockClient.isConnected();
+                returns(false, false, true);
+                mockClient.connect(mockOptions);
+                result = new MqttException(MqttException.REASON_CODE_SERVER_CONNECT_ERROR);
+                result = mockToken;
+            }
+        };
+        MqttReconnector reconnector = new MqttReconnector(mockConnection);
+        RecordingBackoff policy = new RecordingBackoff(1);
+        reconnector.setBackoffPolicy(policy);
+        reconnector.setStateCallback(recordingCallback, null);
+
+        //act
+        reconnector.connectionLost();
+
+        //assert
+        assertTrue(reconnected.await(WAIT_TIME_SECONDS, TimeUnit.SECONDS));
+        assertEquals(MqttReconnector.State.CONNECTED, reconnector.getState());
+        assertEquals(2, policy.attempts.size());
+        assertEquals(1, (int) policy.attempts.get(0));
+        assertEquals(2, (int) policy.attempts.get(1));
+        assertEquals(0L, (long) policy.previousDelays.get(0));
+        assertEquals(1L, (long) policy.previousDelays.get(1));
+        new Verifications()
+        {
+            {
+                mockClient.connect(mockOptions);
+                times = 2;
+            }
+        };
+        reconnector.stop();
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_28_007: [If the state is not CONNECTED, the function shall do nothing.]
+    @Test
+    public void connectionLostDoesNothingWhenNotConnected() throws InterruptedException
+    {
+        //arrange
+        connectionExpectations(mockClient);
+        MqttReconnector reconnector = new MqttReconnector(mockConnection);
+        reconnector.setBackoffPolicy(new RecordingBackoff(TimeUnit.MINUTES.toMillis(1)));
+        reconnector.setStateCallback(recordingCallback, null);
+        reconnector.connectionLost();
+        assertTrue(dropped.await(WAIT_TIME_SECONDS, TimeUnit.SECONDS));
+
+        //act
+        reconnector.connectionLost();
+
+        //assert
+        reconnector.stop();
+        assertEquals(1, notifiedStates.size());
+        assertEquals(MqttReconnector.State.STOPPED, reconnector.getState());
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_28_009: [The function shall move to the STOPPED state and stop the reconnection thread, if any.]
+    @Test
+    public void stopStopsReconnection() throws MqttException, InterruptedException
+    {
+        //arrange
+        connectionExpectations(mockClient);
+        MqttReconnector reconnector = new MqttReconnector(mockConnection);
+        reconnector.setBackoffPolicy(new RecordingBackoff(TimeUnit.MINUTES.toMillis(1)));
+        reconnector.setStateCallback(recordingCallback, null);
+        reconnector.connectionLost();
+        assertTrue(dropped.await(WAIT_TIME_SECONDS, TimeUnit.SECONDS));
+
+        //act
+        reconnector.stop();
+        reconnector.connectionLost();
+
+        //assert
+        assertEquals(MqttReconnector.State.STOPPED, reconnector.getState());
+        assertNull(Deencapsulation.getField(reconnector, "executor"));
+        new Verifications()
+        {
+            {
+                mockClient.connect((MqttConnectOptions) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_28_010: [If the mqtt client was disconnected on purpose, the reconnection shall stop.]
+    @Test
+    public void reconnectionStopsWhenClientWasDisconnected() throws InterruptedException
+    {
+        //arrange
+        connectionExpectations(null);
+        MqttReconnector reconnector = new MqttReconnector(mockConnection);
+        reconnector.setBackoffPolicy(new RecordingBackoff(0));
+
+        //act
+        reconnector.connectionLost();
+
+        //assert
+        waitForState(reconnector, MqttReconnector.State.STOPPED);
+        assertEquals(MqttReconnector.State.STOPPED, reconnector.getState());
+        reconnector.stop();
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_28_014: [If the callback throws, the reconnection shall log the error and go on.]
+    @Test
+    public void reconnectionGoesOnWhenCallbackThrows() throws MqttException, InterruptedException
+    {
+        //arrange
+        connectionExpectations(mockClient);
+        new NonStrictExpectations()
+        {
+            {
+                mockClient.isConnected();
+                returns(false, true);
+                mockClient.connect(mockOptions);
+                result = mockToken;
+            }
+        };
+        MqttReconnector reconnector = new MqttReconnector(mockConnection);
+        reconnector.setBackoffPolicy(new RecordingBackoff(0));
+        reconnector.setStateCallback(new IotHubConnectionStateCallback()
+        {
+            @Override
+            public void execute(IotHubConnectionState state, Object callbackContext)
+            {
+                throw new IllegalStateException();
+            }
+        }, null);
+
+        //act
+        reconnector.connectionLost();
+
+        //assert
+        waitForState(reconnector, MqttReconnector.State.CONNECTED);
+        assertEquals(MqttReconnector.State.CONNECTED, reconnector.getState());
+        reconnector.stop();
+    }
+}
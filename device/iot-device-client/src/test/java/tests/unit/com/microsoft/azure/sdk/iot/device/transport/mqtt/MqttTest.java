@@ -6,8 +6,11 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
 import com.microsoft.azure.sdk.iot.device.IotHubSSLContext;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.Mqtt;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttDeviceTwin;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInboundRouter;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessaging;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttReconnector;
 import mockit.*;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
@@ -15,7 +18,10 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.security.InvalidParameterException;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
 
 import static org.junit.Assert.*;
 
@@ -51,6 +57,8 @@ public class MqttTest {
     @Mocked
     IotHubSSLContext mockIotHubSSLContext;
 
+    private MqttConnection testMqttConnection;
+
     private Mqtt instantiateMqtt(boolean withParameters) throws IOException
     {
         if (withParameters)
@@ -75,7 +83,8 @@ public class MqttTest {
                     return new byte[0];
                 }
             };
-            return new MqttMessaging(serverUri, clientId, userName, password, mockIotHubSSLContext);
+            testMqttConnection = new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext);
+            return new MqttMessaging(testMqttConnection, clientId);
         }
         else
         {
@@ -99,7 +108,13 @@ public class MqttTest {
                     return new byte[0];
                 }
             };
-            return new MqttDeviceTwin();
+            if (testMqttConnection == null)
+            {
+                // connection which mqtt client was never connected or already disconnected
+                testMqttConnection = new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext);
+                Deencapsulation.setField(testMqttConnection, "mqttAsyncClient", null);
+            }
+            return new MqttDeviceTwin(testMqttConnection);
         }
     }
 
@@ -161,7 +176,7 @@ public class MqttTest {
                 result = true;
                 new MqttMessage(payload);
                 result = mockMqttMessage;
-                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage);
+                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage, any, (IMqttActionListener) any);
                 result = mockMqttDeliveryToken;
             }
         };
@@ -179,7 +194,7 @@ public class MqttTest {
                 times = 1;
                 mockMqttMessage.setQos(anyInt);
                 times = 1;
-                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage);
+                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage, any, (IMqttActionListener) any);
                 times = 1;
                 mockMqttDeliveryToken.waitForCompletion();
                 times = 1;
@@ -245,8 +260,6 @@ public class MqttTest {
                     times = 1;
                     mockMqttConnectionOptions.setSocketFactory(mockIotHubSSLContext.getIotHubSSlContext().getSocketFactory());
                     times = 1;
-                    new ConcurrentSkipListMap<>();
-                    times = 1;
                     new Object();
                     times = 1;
                 }
@@ -266,178 +279,81 @@ public class MqttTest {
         }
     }
 
-    private void testCleanUp(Mqtt mockMqtt)
-    {
-        if (mockMqtt != null)
-        {
-            mockMqtt.restartBaseMqtt();
-        }
-    }
-
     /*
-    ** Tests_SRS_Mqtt_25_004: [**If an instance of the inner class MqttConnectionInfo is already created than it shall return doing nothing.**]**
+    **Tests_SRS_Mqtt_28_002: [**The constructor shall use the client, the inbound router and the lock of the provided mqtt connection, so they are shared only with the other clients of the same connection.**]**
      */
     @Test
-    public void manyExtendsOfAbstractClassDoesntChangeConfig() throws IOException, MqttException
+    public void clientsOfSameConnectionShareState() throws IOException, MqttException
     {
         //arrange
         baseConstructorExpectations(true);
-        baseConstructorExpectations(false);
 
         //act
         Mqtt mockMqtt1 = instantiateMqtt(true);
-        Object actualInfoInstance1 = Deencapsulation.getField(mockMqtt1, "info");
-        ConcurrentSkipListMap<String, byte[]> actualMap1 = Deencapsulation.getField(mockMqtt1, "allReceivedMessages");
-        Object actualLock1 = Deencapsulation.getField(mockMqtt1, "MQTT_LOCK");
-
         Mqtt mockMqtt2 = instantiateMqtt(false);
-        Object actualInfoInstance2 = Deencapsulation.getField(mockMqtt2, "info");
-        ConcurrentSkipListMap<String, byte[]> actualMap2 = Deencapsulation.getField(mockMqtt2, "allReceivedMessages");
-        Object actualLock2 = Deencapsulation.getField(mockMqtt2, "MQTT_LOCK");
 
         //assert
-        assertEquals(actualInfoInstance1, actualInfoInstance2);
-        assertEquals(actualMap1, actualMap2);
-        assertEquals(actualLock1, actualLock2);
+        assertSame(Deencapsulation.getField(mockMqtt1, "mqttConnection"), Deencapsulation.getField(mockMqtt2, "mqttConnection"));
+        assertSame(Deencapsulation.getField(mockMqtt1, "inboundRouter"), Deencapsulation.getField(mockMqtt2, "inboundRouter"));
+        assertSame(Deencapsulation.getField(mockMqtt1, "mqttLock"), Deencapsulation.getField(mockMqtt2, "mqttLock"));
 
         baseConstructorVerifications(true);
-        baseConstructorVerifications(false);
-
-        //cleanup
-        testCleanUp(mockMqtt1);
     }
 
     /*
-    **Tests_SRS_Mqtt_25_003: [**The constructor shall use the configuration to instantiate an instance of the inner class MqttConnectionInfo if not already created.**]**
+    **Tests_SRS_Mqtt_28_002: [**The constructor shall use the client, the inbound router and the lock of the provided mqtt connection, so they are shared only with the other clients of the same connection.**]**
      */
     @Test
-    public void constructorInitiliasesWithConfig() throws IOException, MqttException
+    public void clientsOfDifferentConnectionsDoNotShareState() throws IOException, MqttException
     {
         //arrange
         baseConstructorExpectations(true);
 
         //act
-        Mqtt mockMqtt = instantiateMqtt(true);
+        Mqtt mockMqtt1 = instantiateMqtt(true);
+        Mqtt mockMqtt2 = instantiateMqtt(true);
 
         //assert
-        Object actualInfo = Deencapsulation.getField(mockMqtt, "info");
-        assertNotNull(actualInfo);
-        MqttAsyncClient actualAsyncClient = Deencapsulation.getField(actualInfo, "mqttAsyncClient");
-        assertNotNull(actualAsyncClient);
-        MqttConnectOptions actualConnectionOptions = Deencapsulation.getField(actualInfo, "connectionOptions");
-        assertNotNull(actualConnectionOptions);
-        ConcurrentSkipListMap<String, byte[]> actualMap = Deencapsulation.getField(mockMqtt, "allReceivedMessages");
-        assertNotNull(actualMap);
-        Object actualLock = Deencapsulation.getField(mockMqtt, "MQTT_LOCK");
-        assertNotNull(actualLock);
-
-        baseConstructorVerifications(true);
-        mockMqtt.restartBaseMqtt();
+        assertNotSame(Deencapsulation.getField(mockMqtt1, "mqttConnection"), Deencapsulation.getField(mockMqtt2, "mqttConnection"));
+        assertNotSame(Deencapsulation.getField(mockMqtt1, "inboundRouter"), Deencapsulation.getField(mockMqtt2, "inboundRouter"));
+        assertNotSame(Deencapsulation.getField(mockMqtt1, "mqttLock"), Deencapsulation.getField(mockMqtt2, "mqttLock"));
     }
 
     /*
-    **Tests_SRS_Mqtt_25_045: [**The constructor throws IOException if MqttException is thrown and doesn't instantiate this instance.**]**
+    **Tests_SRS_Mqtt_28_002: [**The constructor shall use the client, the inbound router and the lock of the provided mqtt connection, so they are shared only with the other clients of the same connection.**]**
      */
-    @Test(expected = IOException.class)
-    public void constructorThrowsExceptionIfMqttAsyncClientFails() throws IOException, MqttException
-    {
-        Mqtt mockMqtt = null;
-        try {
-            //arrange
-            new NonStrictExpectations()
-            {
-                {
-                    new MemoryPersistence();
-                    result = mockMemoryPersistence;
-                    new MqttAsyncClient(serverUri, clientId, mockMemoryPersistence);
-                    result = mockMqttException;
-                }
-            };
-
-            //act
-            mockMqtt = instantiateMqtt(true);
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
-    }
-
-    /*
-        Tests_SRS_Mqtt_25_002: [**The constructor shall throw InvalidParameter Exception if any of the parameters are null or empty .**]**
-    */
-    @Test(expected = InvalidParameterException.class)
-    public void constructorThrowsInvalidParameterExceptionOnInvalidInput() throws IOException, MqttException
-    {
-        Mqtt mockMqtt = null;
-        try
-        {
-            //act
-            mockMqtt = new MqttMessaging(null, clientId, userName, password,  mockIotHubSSLContext);
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
-
-    }
-
-    /*
-    **Tests_SRS_Mqtt_25_001: [**The constructor shall instantiate MQTT lock for using base class.**]**
-    */
     @Test
-    public void constructorDoesntInitiliaseConfigWithoutParameters() throws IOException, MqttException
+    public void constructorInitiliasesWithConnection() throws IOException, MqttException
     {
         //arrange
-        baseConstructorExpectations(false);
+        baseConstructorExpectations(true);
 
         //act
-        Mqtt mockMqtt = instantiateMqtt(false);
+        Mqtt mockMqtt = instantiateMqtt(true);
 
         //assert
-        Object actualInfoInstance = Deencapsulation.getField(mockMqtt, "info");
-        assertNull(actualInfoInstance);
-        ConcurrentSkipListMap<String, byte[]> actualMap = Deencapsulation.getField(mockMqtt, "allReceivedMessages");
-        assertNull(actualMap);
-
-        Object actualLock = Deencapsulation.getField(mockMqtt, "MQTT_LOCK");
+        Object actualConnection = Deencapsulation.getField(mockMqtt, "mqttConnection");
+        assertSame(testMqttConnection, actualConnection);
+        MqttAsyncClient actualAsyncClient = Deencapsulation.getField(actualConnection, "mqttAsyncClient");
+        assertNotNull(actualAsyncClient);
+        MqttConnectOptions actualConnectionOptions = Deencapsulation.getField(actualConnection, "connectionOptions");
+        assertNotNull(actualConnectionOptions);
+        MqttInboundRouter actualRouter = Deencapsulation.getField(mockMqtt, "inboundRouter");
+        assertSame(testMqttConnection.getInboundRouter(), actualRouter);
+        Object actualLock = Deencapsulation.getField(mockMqtt, "mqttLock");
         assertNotNull(actualLock);
-        baseConstructorVerifications(false);
-        mockMqtt.restartBaseMqtt();
+
+        baseConstructorVerifications(true);
     }
 
     /*
-    ** Tests_SRS_Mqtt_25_004: [**If an instance of the inner class MqttConnectionInfo is already created than it shall return doing nothing.**]**
-     */
-    @Test
-    public void constructorWithParametersIfCalledMultipleTimesDoesntReinitialize() throws IOException, MqttException
+    **Tests_SRS_Mqtt_28_001: [**The constructor shall throw InvalidParameterException if the mqtt connection is null.**]**
+    */
+    @Test(expected = InvalidParameterException.class)
+    public void constructorThrowsInvalidParameterExceptionOnNullConnection() throws IOException, MqttException
     {
-        //arrange
-        baseConstructorExpectations(true);
-        baseConstructorExpectations(true);
-
         //act
-        Mqtt mockMqtt1 = instantiateMqtt(true);
-
-        //assert
-        Object actualInfoInstance1 = Deencapsulation.getField(mockMqtt1, "info");
-        ConcurrentSkipListMap<String, byte[]> actualMap1 = Deencapsulation.getField(mockMqtt1, "allReceivedMessages");
-        Mqtt mockMqtt2 = instantiateMqtt(false);
-        Object actualInfoInstance2 = Deencapsulation.getField(mockMqtt2, "info");
-        ConcurrentSkipListMap<String, byte[]> actualMap2 = Deencapsulation.getField(mockMqtt2, "allReceivedMessages");
-
-        Object actualLock1 = Deencapsulation.getField(mockMqtt1, "MQTT_LOCK");
-        Object actualLock2 = Deencapsulation.getField(mockMqtt2, "MQTT_LOCK");
-
-
-        assertEquals(actualInfoInstance1, actualInfoInstance2);
-        assertEquals(actualMap1, actualMap2);
-        assertEquals(actualLock1, actualLock2);
-
-        baseConstructorVerifications(true);
-        baseConstructorVerifications(false);
-        mockMqtt1.restartBaseMqtt();
-
+        new MqttMessaging(null, clientId);
     }
 
     /*
@@ -467,7 +383,6 @@ public class MqttTest {
             }
 
         };
-        mockMqtt.restartBaseMqtt();
     }
 
     /*
@@ -503,30 +418,22 @@ public class MqttTest {
             }
 
         };
-        mockMqtt.restartBaseMqtt();
     }
 
     /*
-    **Tests_SRS_Mqtt_25_006: [**If the inner class MqttConnectionInfo has not been instantiated then the function shall throw IOException.**]**
+    **Tests_SRS_Mqtt_25_006: [**If the mqtt client has not been instantiated or was already disconnected then the function shall throw IOException.**]**
      */
     @Test(expected = IOException.class)
     public void connectFailsIfNoConfigIsProvided() throws IOException, MqttException
     {
         //arrange
         Mqtt mockMqtt = null;
-        try
-        {
-            baseConstructorExpectations(false);
-            mockMqtt = instantiateMqtt(false);
+        baseConstructorExpectations(false);
+        mockMqtt = instantiateMqtt(false);
 
-            //act
-            Deencapsulation.invoke(mockMqtt, "connect");
+        //act
+        Deencapsulation.invoke(mockMqtt, "connect");
 
-        }
-        finally
-        {
-            mockMqtt.restartBaseMqtt();
-        }
 
     }
 
@@ -538,30 +445,23 @@ public class MqttTest {
     {
         //arrange
         Mqtt mockMqtt = null;
-        try
+        baseConstructorExpectations(true);
+        new NonStrictExpectations()
         {
-            baseConstructorExpectations(true);
-            new NonStrictExpectations()
             {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    result = false;
-                    mockMqttAsyncClient.connect(mockMqttConnectionOptions);
-                    result = mockMqttException;
-                }
-            };
-            mockMqtt = instantiateMqtt(true);
+                mockMqttAsyncClient.isConnected();
+                result = false;
+                mockMqttAsyncClient.connect(mockMqttConnectionOptions);
+                result = mockMqttException;
+            }
+        };
+        mockMqtt = instantiateMqtt(true);
 
-            //act
-            Deencapsulation.invoke(mockMqtt, "connect");
+        //act
+        Deencapsulation.invoke(mockMqtt, "connect");
 
-            //assert
-            baseConnectVerifications();
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
+        //assert
+        baseConnectVerifications();
 
     }
 
@@ -573,38 +473,31 @@ public class MqttTest {
     {
         //arrange
         Mqtt mockMqtt = null;
-        try
-        {
-            baseConstructorExpectations(true);
-            baseConnectExpectation();
-            baseDisconnectExpectations();
-            mockMqtt = instantiateMqtt(true);
-            Deencapsulation.invoke(mockMqtt, "connect");
+        baseConstructorExpectations(true);
+        baseConnectExpectation();
+        baseDisconnectExpectations();
+        mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "connect");
 
-            //act
-            Deencapsulation.invoke(mockMqtt, "disconnect");
+        //act
+        Deencapsulation.invoke(mockMqtt, "disconnect");
 
-            //assert
-            new Verifications()
+        //assert
+        new Verifications()
+        {
             {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    times = 2;
-                    mockMqttAsyncClient.disconnect();
-                    times = 1;
-                    mockMqttToken.waitForCompletion();
-                    times = 1;
-                }
-            };
+                mockMqttAsyncClient.isConnected();
+                times = 2;
+                mockMqttAsyncClient.disconnect();
+                times = 1;
+                mockMqttToken.waitForCompletion();
+                times = 1;
+            }
+        };
 
-           Object actualInfoInstance = Deencapsulation.getField(mockMqtt, "info");
-           MqttAsyncClient actualMqttAsyncClient = Deencapsulation.getField(actualInfoInstance, "mqttAsyncClient");
+           Object actualConnection = Deencapsulation.getField(mockMqtt, "mqttConnection");
+           MqttAsyncClient actualMqttAsyncClient = Deencapsulation.getField(actualConnection, "mqttAsyncClient");
            assertNull(actualMqttAsyncClient);
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
     }
 
     /*
@@ -639,10 +532,9 @@ public class MqttTest {
             }
         };
 
-        Object actualInfoInstance = Deencapsulation.getField(mockMqtt, "info");
-        MqttAsyncClient actualMqttAsyncClient = Deencapsulation.getField(actualInfoInstance, "mqttAsyncClient");
+        Object actualConnection = Deencapsulation.getField(mockMqtt, "mqttConnection");
+        MqttAsyncClient actualMqttAsyncClient = Deencapsulation.getField(actualConnection, "mqttAsyncClient");
         assertNull(actualMqttAsyncClient);
-        testCleanUp(mockMqtt);
     }
 
     /*
@@ -669,11 +561,10 @@ public class MqttTest {
             {
                 mockMqttAsyncClient.isConnected();
                 minTimes = 2;
-                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage);
+                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage, any, (IMqttActionListener) any);
                 times = 1;
             }
         };
-        testCleanUp(mockMqtt);
     }
 
 
@@ -685,65 +576,47 @@ public class MqttTest {
     {
         //arrange
         Mqtt mockMqtt = null;
-        try
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
         {
-            baseConstructorExpectations(true);
-            final byte[] payload = {0x61, 0x62, 0x63};
-            new NonStrictExpectations()
             {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    result = false;
-                }
-            };
-            mockMqtt = instantiateMqtt(true);
+                mockMqttAsyncClient.isConnected();
+                result = false;
+            }
+        };
+        mockMqtt = instantiateMqtt(true);
 
-            //act
-            Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic, payload);
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
+        //act
+        Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic, payload);
     }
 
     /*
     **Tests_SRS_Mqtt_25_012: [**If the MQTT connection is closed, the function shall throw an IOException.**]**
     */
+    /*
+    **Tests_SRS_Mqtt_28_004: [**publish shall wait, without holding the lock of the connection, until the number of publishes waiting for their acknowledgement is below the in-flight window of the connection.**]**
+     */
     @Test (expected = IOException.class)
     public void publishFailsWhenConnectionBrokenWhilePublishing() throws IOException, MqttException
     {
         //arrange
         Mqtt mockMqtt = null;
-        try
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
         {
-            baseConstructorExpectations(true);
-            final byte[] payload = {0x61, 0x62, 0x63};
-            final IMqttDeliveryToken[] testTokens = {mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken,
-                    mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken,
-                    mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken,
-                    mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken
-                    };
-            new NonStrictExpectations()
             {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    result = true;
-                    mockMqttAsyncClient.getPendingDeliveryTokens();
-                    result = testTokens;
-                    mockMqttAsyncClient.isConnected();
-                    result = false;
-                }
-            };
-            mockMqtt = instantiateMqtt(true);
+                mockMqttAsyncClient.isConnected();
+                returns(true, false);
+            }
+        };
+        mockMqtt = instantiateMqtt(true);
+        Semaphore inFlightWindow = Deencapsulation.invoke(testMqttConnection, "getInFlightWindow");
+        inFlightWindow.drainPermits();
 
-            //act
-            Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic, payload);
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
+        //act
+        Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic, payload);
     }
 
 
@@ -776,11 +649,10 @@ public class MqttTest {
             {
                 mockMqttAsyncClient.isConnected();
                 minTimes = 3;
-                mockMqttAsyncClient.publish(anyString, mockMqttMessage);
+                mockMqttAsyncClient.publish(anyString, mockMqttMessage, any, (IMqttActionListener) any);
                 times = 2;
             }
         };
-        testCleanUp(mockMqtt1);
     }
 
     /*
@@ -791,123 +663,189 @@ public class MqttTest {
     {
         //arrange
         Mqtt mockMqtt = null;
-        try
-        {
 
-            baseConstructorExpectations(true);
-            final byte[] payload = {0x61, 0x62, 0x63};
-            new NonStrictExpectations()
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
             {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    result = true;
-                    new MqttMessage(payload);
-                    result = mockMqttMessage;
-                    mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage);
-                    result = mockMqttException;
-                }
-            };
-            mockMqtt = instantiateMqtt(true);
-            Deencapsulation.invoke(mockMqtt, "connect");
+                mockMqttAsyncClient.isConnected();
+                result = true;
+                new MqttMessage(payload);
+                result = mockMqttMessage;
+                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage, any, (IMqttActionListener) any);
+                result = mockMqttException;
+            }
+        };
+        mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "connect");
 
-            //act
-            Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic, payload);
+        //act
+        Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic, payload);
 
-            //assert
-            new Verifications()
-            {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    minTimes = 1;
-                }
-            };
-        }
-        finally
+        //assert
+        new Verifications()
         {
-            testCleanUp(mockMqtt);
-        }
+            {
+                mockMqttAsyncClient.isConnected();
+                minTimes = 1;
+            }
+        };
     }
 
     /*
-    **Tests_SRS_Mqtt_25_013: [**If the either publishTopic or payload is null or empty, the function shall throw an IOException.**]**
+    **Tests_SRS_Mqtt_28_005: [**When the publish is acknowledged or fails, publish shall give its room in the in-flight window back and then notify the completion listener, if any.**]**
      */
-    @Test(expected = IOException.class)
-    public void publishThrowsExceptionWhenPublishTopicIsNull() throws IOException, MqttException
+    @Test
+    public void publishHoldsRoomInFlightWindowUntilAcknowledged(@Mocked final IMqttActionListener mockListener) throws IOException, MqttException
     {
         //arrange
-        Mqtt mockMqtt = null;
-        try
+        baseConstructorExpectations(true);
+        baseConnectExpectation();
+        basePublishExpectations();
+
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "connect");
+        Semaphore inFlightWindow = Deencapsulation.invoke(testMqttConnection, "getInFlightWindow");
+
+        //act
+        Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class},
+                mockParseTopic, payload, mockListener);
+
+        //assert
+        assertEquals(MqttConnection.DEFAULT_MAX_IN_FLIGHT_COUNT - 1, inFlightWindow.availablePermits());
+        final List<IMqttActionListener> windowListeners = new ArrayList<>();
+        new Verifications()
         {
-            baseConstructorExpectations(true);
-            final byte[] payload = {0x61, 0x62, 0x63};
-            new NonStrictExpectations()
             {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    result = true;
-                }
-            };
-            mockMqtt = instantiateMqtt(true);
-            Deencapsulation.invoke(mockMqtt, "connect");
+                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage, any, withCapture(windowListeners));
+                times = 1;
+                mockListener.onSuccess((IMqttToken) any);
+                times = 0;
+            }
+        };
 
-            //act
-            Deencapsulation.invoke(mockMqtt, "publish", String.class, payload);
+        //act
+        windowListeners.get(0).onSuccess(mockMqttToken);
+        windowListeners.get(0).onFailure(mockMqttToken, new Throwable());
 
-            //assert
-            new Verifications()
-            {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    minTimes = 1;
-                }
-            };
-        }
-        finally
+        //assert
+        assertEquals(MqttConnection.DEFAULT_MAX_IN_FLIGHT_COUNT, inFlightWindow.availablePermits());
+        new Verifications()
         {
-            testCleanUp(mockMqtt);
-        }
+            {
+                mockListener.onSuccess(mockMqttToken);
+                times = 1;
+                mockListener.onFailure((IMqttToken) any, (Throwable) any);
+                times = 0;
+            }
+        };
     }
 
     /*
-    **Tests_SRS_Mqtt_25_013: [**If the either publishTopic or payload is null or empty, the function shall throw an IOException.**]**
-    */
-    @Test(expected = IOException.class)
-    public void publishThrowsExceptionWhenPayloadIsNull() throws IOException, MqttException
+     **Tests_SRS_Mqtt_25_047: [**If the Mqtt Client Async throws MqttException, the function shall throw an IOException with the message.**]**
+     */
+    @Test
+    public void publishGivesRoomInFlightWindowBackWhenAsyncClientThrows() throws IOException, MqttException
     {
         //arrange
-        Mqtt mockMqtt = null;
-        try
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
         {
-            baseConstructorExpectations(true);
-            final byte[] payload = null;
-            new NonStrictExpectations()
             {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    result = true;
-                }
-            };
-            mockMqtt = instantiateMqtt(true);
-            Deencapsulation.invoke(mockMqtt, "connect");
-
-            //act
-            Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic, byte[].class);
+                mockMqttAsyncClient.isConnected();
+                result = true;
+                new MqttMessage(payload);
+                result = mockMqttMessage;
+                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage, any, (IMqttActionListener) any);
+                result = mockMqttException;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true);
+        Semaphore inFlightWindow = Deencapsulation.invoke(testMqttConnection, "getInFlightWindow");
 
-            //assert
-            new Verifications()
-            {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    minTimes = 1;
-                }
-            };
+        //act
+        try
+        {
+            Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic, payload);
+            fail("publish shall throw when the mqtt client throws");
         }
-        finally
+        catch (Exception e)
         {
-            testCleanUp(mockMqtt);
+            //assert
+            assertTrue(e instanceof IOException);
+            assertEquals(MqttConnection.DEFAULT_MAX_IN_FLIGHT_COUNT, inFlightWindow.availablePermits());
         }
     }
 
+    /*
+    **Tests_SRS_Mqtt_25_013: [**If the either publishTopic or payload is null or empty, the function shall throw an IOException.**]**
+     */
+    @Test(expected = IOException.class)
+    public void publishThrowsExceptionWhenPublishTopicIsNull() throws IOException, MqttException
+    {
+        //arrange
+        Mqtt mockMqtt = null;
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+            }
+        };
+        mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "connect");
+
+        //act
+        Deencapsulation.invoke(mockMqtt, "publish", String.class, payload);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                minTimes = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_Mqtt_25_013: [**If the either publishTopic or payload is null or empty, the function shall throw an IOException.**]**
+    */
+    @Test(expected = IOException.class)
+    public void publishThrowsExceptionWhenPayloadIsNull() throws IOException, MqttException
+    {
+        //arrange
+        Mqtt mockMqtt = null;
+        baseConstructorExpectations(true);
+        final byte[] payload = null;
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+            }
+        };
+        mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "connect");
+
+        //act
+        Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic, byte[].class);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                minTimes = 1;
+            }
+        };
+    }
+
     /*
     **Tests_SRS_Mqtt_25_017: [**The function shall subscribe to subscribeTopic specified to the IoT Hub given in the configuration.**]**
      */
@@ -942,7 +880,6 @@ public class MqttTest {
                 times = 1;
             }
         };
-        testCleanUp(mockMqtt);
     }
 
     /*
@@ -953,35 +890,28 @@ public class MqttTest {
     {
         //arrange
         Mqtt mockMqtt = null;
-        try
+        baseConstructorExpectations(true);
+        new NonStrictExpectations()
         {
-            baseConstructorExpectations(true);
-            new NonStrictExpectations()
             {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    result = false;
-                }
-            };
+                mockMqttAsyncClient.isConnected();
+                result = false;
+            }
+        };
 
-            mockMqtt = instantiateMqtt(true);
+        mockMqtt = instantiateMqtt(true);
 
-            //act
-            Deencapsulation.invoke(mockMqtt, "subscribe", mockParseTopic);
+        //act
+        Deencapsulation.invoke(mockMqtt, "subscribe", mockParseTopic);
 
-            //assert
-            new Verifications()
-            {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    minTimes = 1;
-                }
-            };
-        }
-        finally
+        //assert
+        new Verifications()
         {
-            testCleanUp(mockMqtt);
-        }
+            {
+                mockMqttAsyncClient.isConnected();
+                minTimes = 1;
+            }
+        };
     }
 
     @Test(expected = IOException.class)
@@ -989,18 +919,11 @@ public class MqttTest {
     {
         //arrange
         Mqtt mockMqtt = null;
-        try
-        {
-            baseConstructorExpectations(false);
-            mockMqtt = instantiateMqtt(false);
+        baseConstructorExpectations(false);
+        mockMqtt = instantiateMqtt(false);
 
-            //act
-            Deencapsulation.invoke(mockMqtt, "subscribe", mockParseTopic);
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
+        //act
+        Deencapsulation.invoke(mockMqtt, "subscribe", mockParseTopic);
     }
 
     /*
@@ -1011,20 +934,13 @@ public class MqttTest {
     {
         //arrange
         Mqtt mockMqtt = null;
-        try
-        {
-            baseConstructorExpectations(true);
+        baseConstructorExpectations(true);
 
-            mockMqtt = instantiateMqtt(true);
-            Deencapsulation.invoke(mockMqtt, "connect");
+        mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "connect");
 
-            //act
-            Deencapsulation.invoke(mockMqtt, "subscribe", String.class);
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
+        //act
+        Deencapsulation.invoke(mockMqtt, "subscribe", String.class);
     }
 
     /*
@@ -1035,42 +951,35 @@ public class MqttTest {
     {
         //arrange
         Mqtt mockMqtt = null;
-        try
-        {
 
-            baseConstructorExpectations(true);
-            baseConnectExpectation();
+        baseConstructorExpectations(true);
+        baseConnectExpectation();
 
-            new NonStrictExpectations()
+        new NonStrictExpectations()
+        {
             {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    result = true;
-                    mockMqttAsyncClient.subscribe(mockParseTopic, anyInt);
-                    result = mockMqttException;
-                }
-            };
+                mockMqttAsyncClient.isConnected();
+                result = true;
+                mockMqttAsyncClient.subscribe(mockParseTopic, anyInt);
+                result = mockMqttException;
+            }
+        };
 
-            mockMqtt = instantiateMqtt(true);
-            Deencapsulation.invoke(mockMqtt, "connect");
+        mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "connect");
 
-            //act
-            Deencapsulation.invoke(mockMqtt, "subscribe", mockParseTopic);
+        //act
+        Deencapsulation.invoke(mockMqtt, "subscribe", mockParseTopic);
 
-            new Verifications()
-            {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    minTimes = 1;
-                    mockMqttAsyncClient.subscribe(mockParseTopic, anyInt);
-                    times = 1;
-                }
-            };
-        }
-        finally
+        new Verifications()
         {
-            testCleanUp(mockMqtt);
-        }
+            {
+                mockMqttAsyncClient.isConnected();
+                minTimes = 1;
+                mockMqttAsyncClient.subscribe(mockParseTopic, anyInt);
+                times = 1;
+            }
+        };
     }
 
     /*
@@ -1104,35 +1013,28 @@ public class MqttTest {
             }
         };
 
-        final Mqtt mockMqtt = new MqttMessaging(serverUri, clientId, userName, password,  mockIotHubSSLContext);
-        try
+        final Mqtt mockMqtt = new MqttMessaging(new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext), clientId);
+        new NonStrictExpectations()
         {
-            new NonStrictExpectations()
             {
-                {
-                   mockMqttAsyncClient.isConnected();
-                   result = true;
-                }
-            };
-
-            Deencapsulation.invoke(mockMqtt, "connect");
+               mockMqttAsyncClient.isConnected();
+               result = true;
+            }
+        };
 
-            //act
-            Message receivedMessage = mockMqtt.receive();
+        Deencapsulation.invoke(mockMqtt, "connect");
 
-            //assert
-            byte[] actualPayload = receivedMessage.getBytes();
-            assertTrue(actualPayload.length == payload.length);
-            for (int i = 0; i < payload.length; i++)
-            {
-                assertEquals(actualPayload[i], payload[i]);
-            }
+        //act
+        Message receivedMessage = mockMqtt.receive();
 
-        }
-        finally
+        //assert
+        byte[] actualPayload = receivedMessage.getBytes();
+        assertTrue(actualPayload.length == payload.length);
+        for (int i = 0; i < payload.length; i++)
         {
-            testCleanUp(mockMqtt);
+            assertEquals(actualPayload[i], payload[i]);
         }
+
     }
 
     /*
@@ -1160,30 +1062,23 @@ public class MqttTest {
             }
 
         };
-        final Mqtt mockMqtt = new MqttMessaging(serverUri, clientId, userName, password,  mockIotHubSSLContext);
-        try
+        final Mqtt mockMqtt = new MqttMessaging(new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext), clientId);
+        new NonStrictExpectations()
         {
-            new NonStrictExpectations()
             {
-                {
-                    mockMqttAsyncClient.isConnected();
-                    result = true;
-                }
-            };
+                mockMqttAsyncClient.isConnected();
+                result = true;
+            }
+        };
 
-            Deencapsulation.invoke(mockMqtt, "connect");
+        Deencapsulation.invoke(mockMqtt, "connect");
 
-            //act
-            Message receivedMessage = mockMqtt.receive();
+        //act
+        Message receivedMessage = mockMqtt.receive();
 
-            //assert
-            assertNull(receivedMessage);
+        //assert
+        assertNull(receivedMessage);
 
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
     }
 
     /*
@@ -1210,16 +1105,9 @@ public class MqttTest {
             }
         };
 
-        final Mqtt mockMqtt = new MqttMessaging(serverUri, clientId, userName, password,  mockIotHubSSLContext);
+        final Mqtt mockMqtt = new MqttMessaging(new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext), clientId);
         //act
-        try
-        {
-            Message receivedMessage = mockMqtt.receive();
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
+        Message receivedMessage = mockMqtt.receive();
     }
 
     @Test(expected = InvalidParameterException.class)
@@ -1243,193 +1131,105 @@ public class MqttTest {
             }
         };
 
-        final Mqtt mockMqtt = new MqttMessaging(serverUri, clientId, userName, password,  mockIotHubSSLContext);
-        Deencapsulation.setField(mockMqtt, "info", null);
+        final Mqtt mockMqtt = new MqttMessaging(new MqttConnection(serverUri, clientId, userName, password, mockIotHubSSLContext), clientId);
+        Deencapsulation.setField(Deencapsulation.getField(mockMqtt, "mqttConnection"), "mqttAsyncClient", null);
 
         //act
-        try
-        {
-            Message receivedMessage = mockMqtt.receive();
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
+        Message receivedMessage = mockMqtt.receive();
     }
 
     /*
-    **Tests_SRS_Mqtt_25_030: [**The payload of the message and the topic is added to the received messages queue .**]**
+    **Tests_SRS_Mqtt_28_003: [**The payload of the message and the topic shall be routed to the end of the queue of the category of the topic, keeping every message in the order it arrived.**]**
      */
     @Test
     public void messageArrivedAddsToQueue() throws IOException, MqttException
     {
         //arrange
         Mqtt mockMqtt = null;
-        try
-        {
-            final byte[] actualPayload = {0x61, 0x62, 0x63};
-            baseConstructorExpectations(true);
-            baseConnectExpectation();
+        final byte[] actualPayload = {0x61, 0x62, 0x63};
+        baseConstructorExpectations(true);
+        baseConnectExpectation();
 
-            new NonStrictExpectations()
+        new NonStrictExpectations()
+        {
             {
-                {
-                    mockMqttMessage.getPayload();
-                    result = actualPayload;
-                }
-            };
+                mockMqttMessage.getPayload();
+                result = actualPayload;
+            }
+        };
 
-            mockMqtt = instantiateMqtt(true);
-            Deencapsulation.invoke(mockMqtt, "connect");
+        mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "connect");
 
-            //act
-            mockMqtt.messageArrived(mockParseTopic, new MqttMessage(actualPayload));
+        //act
+        mockMqtt.messageArrived(mockParseTopic, new MqttMessage(actualPayload));
 
-            //assert
-            ConcurrentSkipListMap<String, byte[]> actualMap = Deencapsulation.getField(mockMqtt, "allReceivedMessages");
-            assertTrue(actualMap.containsKey(mockParseTopic));
+        //assert
+        MqttInboundRouter actualRouter = Deencapsulation.getField(mockMqtt, "inboundRouter");
+        Map.Entry<String, byte[]> actualEntry = actualRouter.peek(MqttInboundRouter.Category.DEVICE_MESSAGING);
+        assertEquals(mockParseTopic, actualEntry.getKey());
 
-            byte[] receivedPayload = actualMap.get(mockParseTopic);
-            assertTrue(actualPayload.length == receivedPayload.length);
-            for (int i = 0; i < actualPayload.length; i++)
-            {
-                assertEquals(actualPayload[i], receivedPayload[i]);
-            }
-        }
-        finally
+        byte[] receivedPayload = actualEntry.getValue();
+        assertTrue(actualPayload.length == receivedPayload.length);
+        for (int i = 0; i < actualPayload.length; i++)
         {
-            testCleanUp(mockMqtt);
+            assertEquals(actualPayload[i], receivedPayload[i]);
         }
 
     }
 
     /*
-    **Tests_SRS_Mqtt_25_026: [**The function shall notify all its concrete classes by calling abstract method onReconnect at the entry of the function**]**
-     */
-    /*
-    **Tests_SRS_Mqtt_25_029: [**The function shall notify all its concrete classes by calling abstract method onReconnectComplete at the exit of the function**]**
+    **Tests_SRS_Mqtt_28_003: [**The payload of the message and the topic shall be routed to the end of the queue of the category of the topic, keeping every message in the order it arrived.**]**
      */
     @Test
-    public void connectionLostAttemptsToReconnect() throws IOException, MqttException
+    public void messageArrivedKeepsMessagesWithSameTopicInOrder() throws IOException, MqttException
     {
         //arrange
-        Mqtt mockMqtt = null;
-        Throwable t = new Throwable();
-
-        try
+        final byte[] firstPayload = {0x61};
+        final byte[] secondPayload = {0x62};
+        baseConstructorExpectations(true);
+        new NonStrictExpectations()
         {
-            new StrictExpectations()
             {
-                {
-                    new MemoryPersistence();
-                    result = mockMemoryPersistence;
-                    new MqttAsyncClient(serverUri, clientId, mockMemoryPersistence);
-                    result = mockMqttAsyncClient;
-                    mockMqttAsyncClient.setCallback((Mqtt) any);
+                mockMqttMessage.getPayload();
+                returns(firstPayload, secondPayload);
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true);
 
-                    new MqttConnectOptions();
-                    result = mockMqttConnectionOptions;
-                    mockMqttConnectionOptions.setKeepAliveInterval(anyInt);
-                    mockMqttConnectionOptions.setCleanSession(anyBoolean);
-                    mockMqttConnectionOptions.setMqttVersion(anyInt);
-                    mockMqttConnectionOptions.setUserName(anyString);
-                    mockMqttConnectionOptions.setPassword(password.toCharArray());
-                    mockMqttConnectionOptions.setSocketFactory(mockIotHubSSLContext.getIotHubSSlContext().getSocketFactory());
-                    mockMqttAsyncClient.isConnected();
-                    result = false;
-                    mockMqttAsyncClient.isConnected();
-                    result = false;
-                    mockMqttAsyncClient.connect(mockMqttConnectionOptions);
-                    result = mockMqttToken;
-                    mockMqttToken.waitForCompletion();
-
-                    mockMqttAsyncClient.isConnected();
-                    result = true;
-                }
-            };
+        //act
+        mockMqtt.messageArrived(mockParseTopic, new MqttMessage(firstPayload));
+        mockMqtt.messageArrived(mockParseTopic, new MqttMessage(secondPayload));
 
-            //act
-            try
-            {
-                mockMqtt = instantiateMqtt(true);
-                mockMqtt.connectionLost(t);
-            }
-            catch (Exception e)
-            {
-                System.out.print("Completed throwing exception - " + e.getCause() + e.getMessage());
-            }
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
+        //assert
+        MqttInboundRouter actualRouter = Deencapsulation.getField(mockMqtt, "inboundRouter");
+        assertEquals(2, actualRouter.size());
+        assertSame(firstPayload, actualRouter.poll(MqttInboundRouter.Category.DEVICE_MESSAGING).getValue());
+        assertSame(secondPayload, actualRouter.poll(MqttInboundRouter.Category.DEVICE_MESSAGING).getValue());
     }
 
     /*
-    **Tests_SRS_Mqtt_25_027: [**The function shall attempt to reconnect to the IoTHub in a loop with exponential backoff until it succeeds**]**
+    **Tests_SRS_Mqtt_28_006: [**The function shall hand the reconnection to the reconnector of the connection and return without waiting, so neither the mqtt client thread nor the lock of the connection is held while reconnecting.**]**
      */
     @Test
-    public void connectionLostAttemptsToReconnectAgainIfConnectFails() throws IOException, MqttException
+    public void connectionLostHandsReconnectionToReconnector(@Mocked final MqttReconnector mockReconnector) throws IOException, MqttException
     {
         //arrange
-        Mqtt mockMqtt = null;
-        Throwable t = new Throwable();
-        try
-        {
-            new StrictExpectations()
-            {
-                {
-                    new MemoryPersistence();
-                    result = mockMemoryPersistence;
-                    new MqttAsyncClient(serverUri, clientId, mockMemoryPersistence);
-                    result = mockMqttAsyncClient;
-                    mockMqttAsyncClient.setCallback((Mqtt) any);
-
-                    new MqttConnectOptions();
-                    result = mockMqttConnectionOptions;
-                    mockMqttConnectionOptions.setKeepAliveInterval(anyInt);
-                    mockMqttConnectionOptions.setCleanSession(anyBoolean);
-                    mockMqttConnectionOptions.setMqttVersion(anyInt);
-                    mockMqttConnectionOptions.setUserName(anyString);
-                    mockMqttConnectionOptions.setPassword(password.toCharArray());
-                    mockMqttConnectionOptions.setSocketFactory(mockIotHubSSLContext.getIotHubSSlContext().getSocketFactory());
-
-                    mockMqttAsyncClient.isConnected();
-                    result = false;
-                    mockMqttAsyncClient.isConnected();
-                    result = false;
-                    mockMqttAsyncClient.connect(mockMqttConnectionOptions);
-                    result = mockMqttException;
-
-                    mockMqttAsyncClient.isConnected();
-                    result = false;
-
-                    mockMqttAsyncClient.isConnected();
-                    result = false;
-                    mockMqttAsyncClient.connect(mockMqttConnectionOptions);
-                    result = mockMqttToken;
-                    mockMqttToken.waitForCompletion();
-
-                    mockMqttAsyncClient.isConnected();
-                    result = true;
+        baseConstructorExpectations(true);
+        Mqtt mockMqtt = instantiateMqtt(true);
 
-                }
-            };
+        //act
+        mockMqtt.connectionLost(new Throwable());
 
-            //act
-            try
-            {
-                mockMqtt = instantiateMqtt(true);
-                mockMqtt.connectionLost(t);
-            }
-            catch (Exception e)
+        //assert
+        new Verifications()
+        {
             {
-                System.out.print("Completed throwing exception - " + e.getCause() + e.getMessage());
+                mockReconnector.connectionLost();
+                times = 1;
+                mockMqttAsyncClient.connect((MqttConnectOptions) any);
+                times = 0;
             }
-        }
-        finally
-        {
-            testCleanUp(mockMqtt);
-        }
+        };
     }
 }
@@ -4,19 +4,30 @@
 package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
 import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendSignal;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInboundListener;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInboundRouter;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
 import junit.framework.AssertionFailedError;
 import mockit.*;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.*;
@@ -26,6 +37,24 @@ public class MqttTransportTest {
     @Mocked
     DeviceClientConfig mockConfig;
 
+    @Before
+    public void setUp()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getOutboundQueueMaxMessages();
+                result = Integer.MAX_VALUE;
+                mockConfig.getOutboundQueueMaxBytes();
+                result = Long.MAX_VALUE;
+                mockConfig.getOutboundQueuePolicy();
+                result = IotHubOutboundQueuePolicy.BLOCK;
+                mockConfig.getMaxMessagesPerReceive();
+                result = 1;
+            }
+        };
+    }
+
     @Mocked
     MqttIotHubConnection mockConnection;
 
@@ -287,7 +316,7 @@ public class MqttTransportTest {
         new Verifications()
         {
             {
-                expectedConnection.sendEvent(mockMsg);
+                expectedConnection.sendEvent(mockMsg, (IMqttActionListener) any);
                 times = 2;
             }
         };
@@ -295,6 +324,8 @@ public class MqttTransportTest {
 
     // Tests_SRS_MQTTTRANSPORT_15_010: [For each message being sent, the function shall send the message
     // and add the IoT Hub status code along with the callback and context to the callback list.]
+    // Tests_SRS_MQTTTRANSPORT_28_015: [If the message could not be handed to the MQTT connection,
+    // the function shall add the status code to the callback list right away.]
     @Test
     public <T extends Queue> void sendMessagesAddsToCallbackQueue(
             @Mocked final Message mockMsg,
@@ -319,9 +350,9 @@ public class MqttTransportTest {
                 result = mockCallback;
                 mockPacket.getContext();
                 result = context;
-                mockConnection.sendEvent((Message) any);
-                returns(IotHubStatusCode.OK_EMPTY, IotHubStatusCode.ERROR);
-                new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockCallback, context);
+                mockConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                returns(IotHubStatusCode.BAD_FORMAT, IotHubStatusCode.ERROR);
+                new IotHubCallbackPacket(IotHubStatusCode.BAD_FORMAT, mockCallback, context);
                 result = mockCallbackPacket;
                 new IotHubCallbackPacket(IotHubStatusCode.ERROR, mockCallback, context);
                 result = mockCallbackPacket;
@@ -337,7 +368,7 @@ public class MqttTransportTest {
         new VerificationsInOrder()
         {
             {
-                new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockCallback, context);
+                new IotHubCallbackPacket(IotHubStatusCode.BAD_FORMAT, mockCallback, context);
                 mockQueue.add(mockCallbackPacket);
                 new IotHubCallbackPacket(IotHubStatusCode.ERROR, mockCallback, context);
                 mockQueue.add(mockCallbackPacket);
@@ -357,7 +388,7 @@ public class MqttTransportTest {
         new NonStrictExpectations()
         {
             {
-                mockConnection.sendEvent((Message) any);
+                mockConnection.sendEvent((Message) any, (IMqttActionListener) any);
                 result = new IllegalStateException(anyString);
                 result = IotHubStatusCode.OK_EMPTY;
             }
@@ -373,7 +404,7 @@ public class MqttTransportTest {
         new Verifications()
         {
             {
-                expectedConnection.sendEvent(mockMsg);
+                expectedConnection.sendEvent(mockMsg, (IMqttActionListener) any);
                 times = 2;
             }
         };
@@ -635,6 +666,80 @@ public class MqttTransportTest {
         };
     }
 
+    // Tests_SRS_MQTTTRANSPORT_28_025: [The function shall consume the arrived messages until there are none left,
+    // or until it handled the maximum number of messages per receive given in the configuration.]
+    @Test
+    public void handleMessageConsumesAllArrivedMessages(
+            @Mocked final MessageCallback mockCallback,
+            @Mocked final Message mockMsg) throws IOException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockCallback;
+                mockConfig.getMaxMessagesPerReceive();
+                result = 100;
+                mockConnection.receiveMessage();
+                returns(mockMsg, mockMsg, mockMsg, null);
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+
+        // act
+        transport.handleMessage();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockCallback.execute(mockMsg, any);
+                times = 3;
+                mockConnection.receiveMessage();
+                times = 4;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_025: [The function shall consume the arrived messages until there are none left,
+    // or until it handled the maximum number of messages per receive given in the configuration.]
+    @Test
+    public void handleMessageConsumesNoMoreThanMaxMessagesPerReceive(
+            @Mocked final MessageCallback mockCallback,
+            @Mocked final Message mockMsg) throws IOException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockCallback;
+                mockConfig.getMaxMessagesPerReceive();
+                result = 2;
+                mockConnection.receiveMessage();
+                result = mockMsg;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+
+        // act
+        transport.handleMessage();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockCallback.execute(mockMsg, any);
+                times = 2;
+                mockConnection.receiveMessage();
+                times = 2;
+            }
+        };
+    }
+
     // Tests_SRS_MQTTTRANSPORT_15_018: [If the MQTT connection is closed,
     // the function shall throw an IllegalStateException.]
     @Test(expected = IllegalStateException.class)
@@ -654,4 +759,707 @@ public class MqttTransportTest {
         transport.close();
         transport.handleMessage();
     }
-}
\ No newline at end of file
+
+    // Tests_SRS_MQTTTRANSPORT_28_001: [If a send signal is registered, the function shall notify it.]
+    // Tests_SRS_MQTTTRANSPORT_28_002: [The function shall save the send signal.]
+    @Test
+    public void addMessageNotifiesRegisteredSendSignal(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubSendSignal mockSendSignal) throws IOException
+    {
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        transport.registerSendSignal(mockSendSignal);
+
+        transport.addMessage(mockMsg, mockCallback, null);
+
+        new Verifications()
+        {
+            {
+                mockSendSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_003: [The function shall bound the transport queue with the
+    // capacity and the policy given in the configuration.]
+    @Test
+    public void openBoundsTransportQueueWithConfiguredLimits() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getOutboundQueueMaxMessages();
+                result = 5;
+                mockConfig.getOutboundQueueMaxBytes();
+                result = 50L;
+                mockConfig.getOutboundQueuePolicy();
+                result = IotHubOutboundQueuePolicy.DROP_OLDEST;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+
+        transport.open();
+
+        IotHubOutboundQueue waitingList = Deencapsulation.getField(transport, "waitingList");
+        assertEquals(5, Deencapsulation.getField(waitingList, "maxMessages"));
+        assertEquals(50L, Deencapsulation.getField(waitingList, "maxBytes"));
+        assertEquals(IotHubOutboundQueuePolicy.DROP_OLDEST, Deencapsulation.getField(waitingList, "policy"));
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_004: [For each packet left out of the full transport queue, the function shall
+    // add the MESSAGE_CANCELLED_QUEUE_FULL status code along with the callback and context to the callback list.]
+    @Test
+    public void addMessageCompletesRejectedMessageWithQueueFullStatus(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    {
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        IotHubOutboundQueue waitingList = Deencapsulation.getField(transport, "waitingList");
+        waitingList.setLimits(1, Long.MAX_VALUE, IotHubOutboundQueuePolicy.REJECT);
+        final Object firstContext = new Object();
+        final Object secondContext = new Object();
+
+        transport.addMessage(mockMsg, mockCallback, firstContext);
+        transport.addMessage(mockMsg, mockCallback, secondContext);
+        transport.invokeCallbacks();
+
+        assertEquals(1, transport.getOutboundQueueSize());
+        new Verifications()
+        {
+            {
+                mockCallback.execute(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, secondContext);
+                times = 1;
+                mockCallback.execute((IotHubStatusCode) any, firstContext);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_027: [The method will close the transport queue to new messages, which releases
+    // the producers blocked waiting for room.]
+    // Tests_SRS_MQTTTRANSPORT_28_028: [If the transport was closed while the function waited for room in
+    // the queue, the function shall invoke the callback with the MESSAGE_CANCELLED_ONCLOSE status code.]
+    @Test
+    public void closeCancelsMessageBlockedOnFullQueue(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback) throws IOException, InterruptedException
+    {
+        final MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        IotHubOutboundQueue waitingList = Deencapsulation.getField(transport, "waitingList");
+        waitingList.setLimits(1, Long.MAX_VALUE, IotHubOutboundQueuePolicy.BLOCK);
+        final Object firstContext = new Object();
+        final Object secondContext = new Object();
+        transport.addMessage(mockMsg, mockCallback, firstContext);
+        Thread producer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                transport.addMessage(mockMsg, mockCallback, secondContext);
+            }
+        });
+        producer.start();
+        while (producer.getState() != Thread.State.WAITING)
+        {
+            Thread.yield();
+        }
+
+        transport.close();
+        producer.join(1000);
+
+        assertFalse(producer.isAlive());
+        assertEquals(0, transport.getOutboundQueueSize());
+        new Verifications()
+        {
+            {
+                mockCallback.execute(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, firstContext);
+                times = 1;
+                mockCallback.execute(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, secondContext);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_026: [The function shall open the transport queue to new messages.]
+    @Test
+    public void openReopensQueueClosedByClose() throws IOException
+    {
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        transport.close();
+
+        transport.open();
+
+        IotHubOutboundQueue waitingList = Deencapsulation.getField(transport, "waitingList");
+        assertFalse(waitingList.isClosed());
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_005: [The function shall return the number of messages in the transport queue.]
+    // Tests_SRS_MQTTTRANSPORT_28_006: [The function shall return the number of message body bytes in the transport queue.]
+    @Test
+    public void getOutboundQueueSizeReturnsWaitingMessages(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyLength();
+                result = 7;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+
+        transport.addMessage(mockMsg, mockCallback, null);
+        transport.addMessage(mockMsg, mockCallback, null);
+
+        assertEquals(2, transport.getOutboundQueueSize());
+        assertEquals(14L, transport.getOutboundQueueSizeInBytes());
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_007: [The function shall save the callback dispatcher.]
+    // Tests_SRS_MQTTTRANSPORT_28_008: [If a callback dispatcher is registered, the function shall hand the callbacks to it instead of invoking them.]
+    @Test
+    public void invokeCallbacksHandsCallbacksToRegisteredDispatcher(
+            @Mocked final IotHubEventCallback mockEventCallback,
+            @Mocked final IotHubCallbackDispatcher mockCallbackDispatcher) throws IOException
+    {
+        // arrange
+        final IotHubCallbackPacket packet = new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockEventCallback, null);
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        transport.registerCallbackDispatcher(mockCallbackDispatcher);
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        callbackList.add(packet);
+        callbackList.add(packet);
+
+        // act
+        transport.invokeCallbacks();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockCallbackDispatcher.dispatch(packet);
+                times = 2;
+                mockEventCallback.execute((IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+        assertTrue(callbackList.isEmpty());
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_029: [The function shall take the callbacks out of the callback queue
+    // while holding the send lock, and invoke them after releasing it.]
+    @Test
+    public void invokeCallbacksDispatchesWithoutHoldingSendLock(
+            @Mocked final IotHubEventCallback mockEventCallback,
+            @Mocked final IotHubCallbackDispatcher mockCallbackDispatcher) throws IOException
+    {
+        // arrange
+        final IotHubCallbackPacket packet = new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockEventCallback, null);
+        MqttTransport transport = new MqttTransport(mockConfig);
+        final Object sendMessagesLock = Deencapsulation.getField(transport, "sendMessagesLock");
+        final List<Boolean> lockHeld = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockCallbackDispatcher.dispatch((IotHubCallbackPacket) any);
+                result = new Delegate()
+                {
+                    @SuppressWarnings("unused")
+                    void dispatch(IotHubCallbackPacket packet)
+                    {
+                        lockHeld.add(Thread.holdsLock(sendMessagesLock));
+                    }
+                };
+            }
+        };
+        transport.open();
+        transport.registerCallbackDispatcher(mockCallbackDispatcher);
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        callbackList.add(packet);
+        callbackList.add(packet);
+
+        // act
+        transport.invokeCallbacks();
+
+        // assert
+        assertEquals(2, lockHeld.size());
+        assertFalse(lockHeld.get(0));
+        assertFalse(lockHeld.get(1));
+        assertTrue(callbackList.isEmpty());
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_009: [The function shall register an inbound listener on the MQTT connection that
+    // schedules the handling of all the arrived messages on the inbound thread, without blocking the mqtt client.]
+    // Tests_SRS_MQTTTRANSPORT_28_012: [The inbound thread shall handle the arrived messages until there are none
+    // left, or until a message cannot be consumed because its callback is not registered yet.]
+    @Test
+    public void inboundListenerHandlesArrivedMessagesOnInboundThread(
+            @Mocked final MessageCallback mockCallback,
+            @Mocked final Message mockMsg) throws Exception
+    {
+        // arrange
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockCallback;
+                mockConfig.getMessageContext();
+                result = context;
+                mockConnection.receiveMessage();
+                result = mockMsg;
+                mockConnection.getInboundMessagesCount();
+                returns(0, 2, 1, 0);
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        waitForInboundThread(transport);
+        final List<MqttInboundListener> listeners = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockConnection.setInboundListener(withCapture(listeners));
+            }
+        };
+
+        // act
+        listeners.get(0).onMessageRouted(MqttInboundRouter.Category.DEVICE_MESSAGING);
+        waitForInboundThread(transport);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockCallback.execute(mockMsg, context);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_010: [The function shall schedule the handling of the messages arrived before the transport was open, if any.]
+    @Test
+    public void openHandlesMessagesArrivedBeforeOpen(
+            @Mocked final MessageCallback mockCallback,
+            @Mocked final Message mockMsg) throws Exception
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockCallback;
+                mockConnection.receiveMessage();
+                result = mockMsg;
+                mockConnection.getInboundMessagesCount();
+                returns(1, 1, 0);
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+
+        // act
+        transport.open();
+        waitForInboundThread(transport);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockCallback.execute(mockMsg, any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_012: [The inbound thread shall handle the arrived messages until there are none
+    // left, or until a message cannot be consumed because its callback is not registered yet.]
+    @Test
+    public void inboundThreadStopsIfNoMessageIsConsumed() throws Exception
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = null;
+                mockConfig.getDeviceTwinMessageCallback();
+                result = null;
+                mockConfig.getDeviceMethodMessageCallback();
+                result = null;
+                mockConnection.getInboundMessagesCount();
+                result = 1;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+
+        // act
+        transport.open();
+        waitForInboundThread(transport);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConnection.receiveMessage();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_013: [If handling an arrived message fails, the inbound thread shall log the error
+    // and leave the remaining messages to the next arrival or poll.]
+    @Test
+    public void inboundThreadSurvivesFailedHandling(@Mocked final MessageCallback mockCallback) throws Exception
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockCallback;
+                mockConnection.getInboundMessagesCount();
+                result = 1;
+                mockConnection.receiveMessage();
+                result = new IOException();
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+
+        // act
+        transport.open();
+        waitForInboundThread(transport);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConnection.receiveMessage();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_011: [The function shall unregister the inbound listener and stop the inbound thread.]
+    @Test
+    public void closeUnregistersInboundListenerAndStopsInboundThread() throws IOException
+    {
+        // arrange
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        ExecutorService executor = Deencapsulation.getField(transport, "inboundExecutor");
+
+        // act
+        transport.close();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConnection.setInboundListener(null);
+                times = 1;
+            }
+        };
+        assertTrue(executor.isShutdown());
+        assertNull(Deencapsulation.getField(transport, "inboundExecutor"));
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_014: [For each message being sent, the function shall track the message
+    // as in flight until the IoT Hub acknowledges it.]
+    // Tests_SRS_MQTTTRANSPORT_28_016: [When the IoT Hub acknowledges the message, the transport shall add the
+    // OK_EMPTY status code to the callback list and notify the send signal, or ERROR if the publish failed.]
+    @Test
+    public void sendMessagesInvokesCallbackOnlyWhenAcknowledged(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubSendSignal mockSignal) throws IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        transport.registerSendSignal(mockSignal);
+        transport.addMessage(mockMsg, mockCallback, context);
+
+        // act
+        transport.sendMessages();
+        transport.invokeCallbacks();
+
+        // assert
+        assertFalse(transport.isEmpty());
+        final List<IMqttActionListener> listeners = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockConnection.sendEvent(mockMsg, withCapture(listeners));
+                times = 1;
+                mockCallback.execute((IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+
+        // act
+        listeners.get(0).onSuccess(null);
+        transport.invokeCallbacks();
+
+        // assert
+        assertTrue(transport.isEmpty());
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 2;
+                mockCallback.execute(IotHubStatusCode.OK_EMPTY, context);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_016: [When the IoT Hub acknowledges the message, the transport shall add the
+    // OK_EMPTY status code to the callback list and notify the send signal, or ERROR if the publish failed.]
+    @Test
+    public void sendMessagesInvokesCallbackWithErrorWhenPublishFails(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        final List<IMqttActionListener> listeners = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockConnection.sendEvent(mockMsg, withCapture(listeners));
+            }
+        };
+
+        // act
+        listeners.get(0).onFailure(null, new IOException());
+        listeners.get(0).onSuccess(null);
+        transport.invokeCallbacks();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockCallback.execute(IotHubStatusCode.ERROR, context);
+                times = 1;
+                mockCallback.execute(IotHubStatusCode.OK_EMPTY, any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_017: [The method will add the messages still waiting for their acknowledgement
+    // to the callback list with the MESSAGE_CANCELLED_ONCLOSE status code.]
+    @Test
+    public void closeCancelsMessagesWaitingForAcknowledgement(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        final List<IMqttActionListener> listeners = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockConnection.sendEvent(mockMsg, withCapture(listeners));
+            }
+        };
+
+        // act
+        transport.close();
+        listeners.get(0).onSuccess(null);
+
+        // assert
+        assertTrue(transport.isEmpty());
+        new Verifications()
+        {
+            {
+                mockCallback.execute(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, context);
+                times = 1;
+                mockCallback.execute(IotHubStatusCode.OK_EMPTY, any);
+                times = 0;
+            }
+        };
+    }
+
+    private static void waitForInboundThread(MqttTransport transport) throws Exception
+    {
+        ExecutorService executor = Deencapsulation.getField(transport, "inboundExecutor");
+        executor.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        }).get();
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_022: [The function shall save the callback and its context.]
+    @Test
+    public void registerConnectionStateCallbackSavesCallback(@Mocked final IotHubConnectionStateCallback mockStateCallback)
+    {
+        // arrange
+        MqttTransport transport = new MqttTransport(mockConfig);
+        Object context = new Object();
+
+        // act
+        transport.registerConnectionStateCallback(mockStateCallback, context);
+
+        // assert
+        assertSame(mockStateCallback, Deencapsulation.getField(transport, "stateCallback"));
+        assertSame(context, Deencapsulation.getField(transport, "stateCallbackContext"));
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_28_019: [The function shall register a connection state callback on the MQTT connection
+    // that holds the messages in the transport queue while the connection is lost, sends them all once it is back,
+    // and forwards every transition to the connection state callback, if any.]
+    // Tests_SRS_MQTTTRANSPORT_28_020: [While the MQTT connection is lost, the function shall leave the messages
+    // in the transport queue.]
+    // Tests_SRS_MQTTTRANSPORT_28_023: [When the connection is lost, the transport shall hold the messages in the transport queue.
+    // When it is back, the transport shall notify the send signal, so the messages held are sent.]
+    // Tests_SRS_MQTTTRANSPORT_28_024: [The transport shall forward every transition to the connection state callback, if any.]
+    @Test
+    public void sendMessagesHoldsMessagesWhileConnectionIsLost(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubSendSignal mockSignal,
+            @Mocked final IotHubConnectionStateCallback mockStateCallback) throws IOException
+    {
+        // arrange
+        final Object stateContext = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.registerConnectionStateCallback(mockStateCallback, stateContext);
+        transport.open();
+        transport.registerSendSignal(mockSignal);
+        final List<IotHubConnectionStateCallback> connectionCallbacks = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockConnection.setConnectionStateCallback(withCapture(connectionCallbacks), any);
+                times = 1;
+            }
+        };
+
+        // act
+        connectionCallbacks.get(0).execute(IotHubConnectionState.CONNECTION_DROP, null);
+        transport.addMessage(mockMsg, mockCallback, null);
+        transport.sendMessages();
+
+        // assert
+        assertEquals(1, transport.getOutboundQueueSize());
+        new Verifications()
+        {
+            {
+                mockConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                times = 0;
+                mockStateCallback.execute(IotHubConnectionState.CONNECTION_DROP, stateContext);
+                times = 1;
+            }
+        };
+
+        // act
+        connectionCallbacks.get(0).execute(IotHubConnectionState.CONNECTION_SUCCESS, null);
+        transport.sendMessages();
+
+        // assert
+        assertEquals(0, transport.getOutboundQueueSize());
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 2;
+                mockConnection.sendEvent(mockMsg, (IMqttActionListener) any);
+                times = 1;
+                mockStateCallback.execute(IotHubConnectionState.CONNECTION_SUCCESS, stateContext);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_15_011: [If the IoT Hub could not be reached, the message
+    // shall be buffered to be sent again next time.]
+    // Tests_SRS_MQTTTRANSPORT_28_021: [If the IoT Hub could not be reached, the function shall stop sending,
+    // and keep the message and the ones after it in the transport queue, in order.]
+    @Test
+    public void sendMessagesStopsAndKeepsOrderWhenIotHubCannotBeReached(
+            @Mocked final Message mockFirstMsg,
+            @Mocked final Message mockSecondMsg,
+            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                result = new IllegalStateException();
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockFirstMsg, mockCallback, null);
+        transport.addMessage(mockSecondMsg, mockCallback, null);
+
+        // act
+        transport.sendMessages();
+
+        // assert
+        IotHubOutboundQueue waitingList = Deencapsulation.getField(transport, "waitingList");
+        assertEquals(2, waitingList.size());
+        assertSame(mockFirstMsg, waitingList.peek().getMessage());
+        new Verifications()
+        {
+            {
+                mockConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                times = 1;
+            }
+        };
+        Set<?> inFlightList = Deencapsulation.getField(transport, "inFlightList");
+        assertTrue(inFlightList.isEmpty());
+    }
+}
@@ -0,0 +1,173 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.integration.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.DeviceClient;
+import com.microsoft.azure.sdk.iot.device.IotHubClientProtocol;
+import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.Message;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Opens many MQTT devices at the same time from the same process, against a local MQTT broker
+ * listening with TLS on port 8883, and checks that each device keeps its own connection.
+ *
+ * The test is skipped unless LOCAL_MQTT_BROKER_HOSTNAME is set. The hostname must contain a
+ * dot, like an IoT Hub hostname (for example "broker.localdomain"), and the broker must accept
+ * any user name and password. LOCAL_MQTT_BROKER_CA_CERT_PATH can point to the PEM certificate
+ * that signed the broker certificate, and MQTT_MULTIPLE_DEVICES_COUNT sets how many devices
+ * are opened (100 by default).
+ */
+public class MqttMultipleDevicesIT
+{
+    private static final String BROKER_HOSTNAME_ENV_VAR_NAME = "LOCAL_MQTT_BROKER_HOSTNAME";
+    private static final String BROKER_CA_CERT_PATH_ENV_VAR_NAME = "LOCAL_MQTT_BROKER_CA_CERT_PATH";
+    private static final String DEVICE_COUNT_ENV_VAR_NAME = "MQTT_MULTIPLE_DEVICES_COUNT";
+
+    private static final int BROKER_PORT = 8883;
+    private static final int DEFAULT_DEVICE_COUNT = 100;
+
+    // How many devices are opened or closed in parallel.
+    private static final int MAX_DEVICE_PARALLEL = 32;
+
+    // How many messages each device sends once all the devices are open.
+    private static final int NUM_MESSAGES_PER_DEVICE = 5;
+
+    // How long to wait for all the devices to be opened, to send their messages, or to be closed, in milliseconds.
+    private static final long TIMEOUT_MILLISECONDS = 120000;
+
+    // Any base64 value is accepted, the local broker does not validate the sas token.
+    private static final String DEVICE_KEY = "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=";
+
+    private static String brokerHostName;
+    private static String brokerCaCertPath;
+    private static int deviceCount;
+
+    @BeforeClass
+    public static void setUp()
+    {
+        brokerHostName = System.getenv().get(BROKER_HOSTNAME_ENV_VAR_NAME);
+        Assume.assumeTrue(brokerHostName != null && !brokerHostName.isEmpty());
+
+        try (Socket socket = new Socket())
+        {
+            socket.connect(new InetSocketAddress(brokerHostName, BROKER_PORT), 5000);
+        }
+        catch (IOException e)
+        {
+            Assume.assumeNoException(e);
+        }
+
+        brokerCaCertPath = System.getenv().get(BROKER_CA_CERT_PATH_ENV_VAR_NAME);
+        String count = System.getenv().get(DEVICE_COUNT_ENV_VAR_NAME);
+        deviceCount = (count == null || count.isEmpty()) ? DEFAULT_DEVICE_COUNT : Integer.parseInt(count);
+    }
+
+    @Test
+    public void sendMessagesFromManyDevicesConnectedAtTheSameTime() throws Exception
+    {
+        final List<DeviceClient> clients = Collections.synchronizedList(new ArrayList<DeviceClient>());
+        final AtomicInteger acknowledged = new AtomicInteger();
+        final CountDownLatch sent = new CountDownLatch(deviceCount * NUM_MESSAGES_PER_DEVICE);
+        IotHubEventCallback callback = new IotHubEventCallback()
+        {
+            @Override
+            public void execute(IotHubStatusCode status, Object context)
+            {
+                if (status == IotHubStatusCode.OK_EMPTY)
+                {
+                    acknowledged.incrementAndGet();
+                }
+                sent.countDown();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(MAX_DEVICE_PARALLEL);
+        try
+        {
+            // open all the devices, each one with its own mqtt connection
+            List<Future<DeviceClient>> opened = new ArrayList<>();
+            for (int i = 0; i < deviceCount; i++)
+            {
+                final String connectionString = "HostName=" + brokerHostName + ";DeviceId=scale-device-" + i + ";SharedAccessKey=" + DEVICE_KEY;
+                opened.add(executor.submit(new Callable<DeviceClient>()
+                {
+                    @Override
+                    public DeviceClient call() throws Exception
+                    {
+                        DeviceClient client = new DeviceClient(connectionString, IotHubClientProtocol.MQTT);
+                        if (brokerCaCertPath != null && !brokerCaCertPath.isEmpty())
+                        {
+                            client.setOption("SetCertificatePath", brokerCaCertPath);
+                        }
+                        client.open();
+                        clients.add(client);
+                        return client;
+                    }
+                }));
+            }
+
+            for (Future<DeviceClient> future : opened)
+            {
+                future.get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+            }
+            assertEquals(deviceCount, clients.size());
+
+            // all the devices send while all the others are still connected
+            for (int i = 0; i < NUM_MESSAGES_PER_DEVICE; i++)
+            {
+                for (DeviceClient client : clients)
+                {
+                    client.sendEventAsync(new Message("scale test message " + i), callback, null);
+                }
+            }
+
+            assertTrue("Not all the messages were sent before the timeout", sent.await(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS));
+            assertEquals(deviceCount * NUM_MESSAGES_PER_DEVICE, acknowledged.get());
+        }
+        finally
+        {
+            // close all the devices, closing one device must not affect the others
+            List<Future<Void>> closed = new ArrayList<>();
+            for (final DeviceClient client : clients)
+            {
+                closed.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        client.close();
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : closed)
+            {
+                future.get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+            }
+            executor.shutdown();
+        }
+    }
+}